@@ -45,6 +45,18 @@ public interface Clock {
    */
   long uptimeMillis();
 
+  /**
+   * Returns the current value of a monotonic time source with nanosecond precision, for measuring
+   * short durations.
+   *
+   * <p>The default implementation returns {@link System#nanoTime()}.
+   *
+   * @see System#nanoTime()
+   */
+  default long nanoTime() {
+    return System.nanoTime();
+  }
+
   /**
    * Creates a {@link HandlerWrapper} using a specified looper and a specified callback for handling
    * messages.
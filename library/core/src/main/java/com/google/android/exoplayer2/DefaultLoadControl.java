@@ -101,6 +101,8 @@ public class DefaultLoadControl implements LoadControl {
   public static final class Builder {
 
     @Nullable private DefaultAllocator allocator;
+    @Nullable private SharedBufferBudget.Participant sharedBufferBudgetParticipant;
+    private int allocationsPerSlab;
     private int minBufferMs;
     private int maxBufferMs;
     private int bufferForPlaybackMs;
@@ -113,6 +115,7 @@ public class DefaultLoadControl implements LoadControl {
 
     /** Constructs a new instance. */
     public Builder() {
+      allocationsPerSlab = 1;
       minBufferMs = DEFAULT_MIN_BUFFER_MS;
       maxBufferMs = DEFAULT_MAX_BUFFER_MS;
       bufferForPlaybackMs = DEFAULT_BUFFER_FOR_PLAYBACK_MS;
@@ -136,6 +139,45 @@ public class DefaultLoadControl implements LoadControl {
       return this;
     }
 
+    /**
+     * Sets the number of allocations backed by each slab of the {@link DefaultAllocator} that's
+     * created if no allocator is {@link #setAllocator(DefaultAllocator) set}. The default value is
+     * 1, meaning each allocation is backed by its own array.
+     *
+     * <p>Larger slabs reduce the number of arrays that are created and collected while buffering,
+     * but a slab is only freed once all of its allocations have been released, so the allocator may
+     * hold on to more memory than it has allocated.
+     *
+     * @param allocationsPerSlab The number of allocations backed by each slab.
+     * @return This builder, for convenience.
+     * @throws IllegalStateException If {@link #build()} has already been called.
+     */
+    public Builder setAllocationsPerSlab(int allocationsPerSlab) {
+      checkState(!buildCalled);
+      assertGreaterOrEqual(allocationsPerSlab, 1, "allocationsPerSlab", "1");
+      this.allocationsPerSlab = allocationsPerSlab;
+      return this;
+    }
+
+    /**
+     * Sets the {@link SharedBufferBudget.Participant} through which the load control shares a
+     * memory budget with other players. The target buffer size of the load control is limited to
+     * the participant's share of the budget.
+     *
+     * <p>Each participant must only be used by a single load control, and the load control must not
+     * share its {@link DefaultAllocator} with other load controls.
+     *
+     * @param sharedBufferBudgetParticipant The {@link SharedBufferBudget.Participant}.
+     * @return This builder, for convenience.
+     * @throws IllegalStateException If {@link #build()} has already been called.
+     */
+    public Builder setSharedBufferBudgetParticipant(
+        SharedBufferBudget.Participant sharedBufferBudgetParticipant) {
+      checkState(!buildCalled);
+      this.sharedBufferBudgetParticipant = sharedBufferBudgetParticipant;
+      return this;
+    }
+
     /**
      * Sets the buffer duration parameters.
      *
@@ -234,7 +276,12 @@ public class DefaultLoadControl implements LoadControl {
       checkState(!buildCalled);
       buildCalled = true;
       if (allocator == null) {
-        allocator = new DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+        allocator =
+            new DefaultAllocator(
+                /* trimOnReset= */ true,
+                C.DEFAULT_BUFFER_SEGMENT_SIZE,
+                /* initialAllocationCount= */ 0,
+                allocationsPerSlab);
       }
       return new DefaultLoadControl(
           allocator,
@@ -245,11 +292,13 @@ public class DefaultLoadControl implements LoadControl {
           targetBufferBytes,
           prioritizeTimeOverSizeThresholds,
           backBufferDurationMs,
-          retainBackBufferFromKeyframe);
+          retainBackBufferFromKeyframe,
+          sharedBufferBudgetParticipant);
     }
   }
 
   private final DefaultAllocator allocator;
+  @Nullable private final SharedBufferBudget.Participant sharedBufferBudgetParticipant;
 
   private final long minBufferUs;
   private final long maxBufferUs;
@@ -287,6 +336,30 @@ public class DefaultLoadControl implements LoadControl {
       boolean prioritizeTimeOverSizeThresholds,
       int backBufferDurationMs,
       boolean retainBackBufferFromKeyframe) {
+    this(
+        allocator,
+        minBufferMs,
+        maxBufferMs,
+        bufferForPlaybackMs,
+        bufferForPlaybackAfterRebufferMs,
+        targetBufferBytes,
+        prioritizeTimeOverSizeThresholds,
+        backBufferDurationMs,
+        retainBackBufferFromKeyframe,
+        /* sharedBufferBudgetParticipant= */ null);
+  }
+
+  protected DefaultLoadControl(
+      DefaultAllocator allocator,
+      int minBufferMs,
+      int maxBufferMs,
+      int bufferForPlaybackMs,
+      int bufferForPlaybackAfterRebufferMs,
+      int targetBufferBytes,
+      boolean prioritizeTimeOverSizeThresholds,
+      int backBufferDurationMs,
+      boolean retainBackBufferFromKeyframe,
+      @Nullable SharedBufferBudget.Participant sharedBufferBudgetParticipant) {
     assertGreaterOrEqual(bufferForPlaybackMs, 0, "bufferForPlaybackMs", "0");
     assertGreaterOrEqual(
         bufferForPlaybackAfterRebufferMs, 0, "bufferForPlaybackAfterRebufferMs", "0");
@@ -312,6 +385,10 @@ public class DefaultLoadControl implements LoadControl {
     this.prioritizeTimeOverSizeThresholds = prioritizeTimeOverSizeThresholds;
     this.backBufferDurationUs = Util.msToUs(backBufferDurationMs);
     this.retainBackBufferFromKeyframe = retainBackBufferFromKeyframe;
+    this.sharedBufferBudgetParticipant = sharedBufferBudgetParticipant;
+    if (sharedBufferBudgetParticipant != null) {
+      sharedBufferBudgetParticipant.setAllocator(allocator);
+    }
   }
 
   @Override
@@ -326,7 +403,12 @@ public class DefaultLoadControl implements LoadControl {
         targetBufferBytesOverwrite == C.LENGTH_UNSET
             ? calculateTargetBufferBytes(renderers, trackSelections)
             : targetBufferBytesOverwrite;
-    allocator.setTargetBufferSize(targetBufferBytes);
+    if (sharedBufferBudgetParticipant != null) {
+      // Sets the target buffer size of the allocator according to the participant's share.
+      sharedBufferBudgetParticipant.setRequestedBytes(targetBufferBytes);
+    } else {
+      allocator.setTargetBufferSize(targetBufferBytes);
+    }
   }
 
   @Override
@@ -357,7 +439,8 @@ public class DefaultLoadControl implements LoadControl {
   @Override
   public boolean shouldContinueLoading(
       long playbackPositionUs, long bufferedDurationUs, float playbackSpeed) {
-    boolean targetBufferSizeReached = allocator.getTotalBytesAllocated() >= targetBufferBytes;
+    boolean targetBufferSizeReached =
+        allocator.getTotalBytesAllocated() >= getTargetBufferBytes();
     long minBufferUs = this.minBufferUs;
     if (playbackSpeed > 1) {
       // The playback speed is faster than real time, so scale up the minimum required media
@@ -392,7 +475,7 @@ public class DefaultLoadControl implements LoadControl {
     return minBufferDurationUs <= 0
         || bufferedDurationUs >= minBufferDurationUs
         || (!prioritizeTimeOverSizeThresholds
-            && allocator.getTotalBytesAllocated() >= targetBufferBytes);
+            && allocator.getTotalBytesAllocated() >= getTargetBufferBytes());
   }
 
   /**
@@ -423,6 +506,19 @@ public class DefaultLoadControl implements LoadControl {
     if (resetAllocator) {
       allocator.reset();
     }
+    if (sharedBufferBudgetParticipant != null) {
+      // Don't hold onto a share of the budget whilst stopped or released.
+      sharedBufferBudgetParticipant.setRequestedBytes(resetAllocator ? 0 : targetBufferBytes);
+    }
+  }
+
+  /**
+   * Returns the target buffer size, limited to the share of the {@link SharedBufferBudget} if set.
+   */
+  private int getTargetBufferBytes() {
+    return sharedBufferBudgetParticipant == null
+        ? targetBufferBytes
+        : min(targetBufferBytes, sharedBufferBudgetParticipant.getBudgetBytes());
   }
 
   private static int getDefaultBufferSize(@C.TrackType int trackType) {
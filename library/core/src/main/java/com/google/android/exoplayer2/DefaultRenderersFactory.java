@@ -31,6 +31,7 @@ import com.google.android.exoplayer2.audio.DefaultAudioSink;
 import com.google.android.exoplayer2.audio.MediaCodecAudioRenderer;
 import com.google.android.exoplayer2.mediacodec.DefaultMediaCodecAdapterFactory;
 import com.google.android.exoplayer2.mediacodec.MediaCodecAdapter;
+import com.google.android.exoplayer2.mediacodec.MediaCodecPool;
 import com.google.android.exoplayer2.mediacodec.MediaCodecSelector;
 import com.google.android.exoplayer2.metadata.MetadataOutput;
 import com.google.android.exoplayer2.metadata.MetadataRenderer;
@@ -93,6 +94,7 @@ public class DefaultRenderersFactory implements RenderersFactory {
 
   private final Context context;
   private final DefaultMediaCodecAdapterFactory codecAdapterFactory;
+  @Nullable private MediaCodecPool mediaCodecPool;
   private @ExtensionRendererMode int extensionRendererMode;
   private long allowedVideoJoiningTimeMs;
   private boolean enableDecoderFallback;
@@ -169,6 +171,21 @@ public class DefaultRenderersFactory implements RenderersFactory {
     return this;
   }
 
+  /**
+   * Sets a {@link MediaCodecPool} from which {@link MediaCodec} based renderers borrow compatible
+   * codecs, and to which they return their codecs when releasing them. Share a single pool between
+   * all players to avoid creating codecs when moving between players, for example in a feed.
+   *
+   * <p>The default value is {@code null}, meaning that codecs aren't pooled.
+   *
+   * @param mediaCodecPool The {@link MediaCodecPool}, or {@code null} to not pool codecs.
+   * @return This factory, for convenience.
+   */
+  public DefaultRenderersFactory setMediaCodecPool(@Nullable MediaCodecPool mediaCodecPool) {
+    this.mediaCodecPool = mediaCodecPool;
+    return this;
+  }
+
   /**
    * Sets whether to enable fallback to lower-priority decoders if decoder initialization fails.
    * This may result in using a decoder that is less efficient or slower than the primary decoder.
@@ -628,6 +645,8 @@ public class DefaultRenderersFactory implements RenderersFactory {
    * com.google.android.exoplayer2.mediacodec.MediaCodecRenderer} instances.
    */
   protected MediaCodecAdapter.Factory getCodecAdapterFactory() {
-    return codecAdapterFactory;
+    return mediaCodecPool != null
+        ? mediaCodecPool.createAdapterFactory(codecAdapterFactory)
+        : codecAdapterFactory;
   }
 }
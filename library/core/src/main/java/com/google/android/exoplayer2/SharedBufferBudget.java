@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
+import static com.google.android.exoplayer2.util.Assertions.checkState;
+import static java.lang.Math.min;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A memory budget for buffered media that's shared by multiple players.
+ *
+ * <p>Each player sharing the budget is represented by a {@link Participant}, which is passed to the
+ * player's {@link DefaultLoadControl} using {@link
+ * DefaultLoadControl.Builder#setSharedBufferBudgetParticipant(Participant)}. Each load control must
+ * use its own {@link DefaultAllocator}, which is the default.
+ *
+ * <p>The budget is divided between participants in order of decreasing {@link
+ * Participant#setPriority(int) priority}. For example the player in the foreground can be given
+ * {@link C#PRIORITY_PLAYBACK} so that it's able to buffer as much as it requires, and players that
+ * are preloading content can be given lower priorities so that they share what's left. Participants
+ * with the same priority share equally. A participant is never given more than it requests, which
+ * is the target buffer size of its load control.
+ *
+ * <p>When a participant's share is reduced, for example because its priority was lowered, its load
+ * control stops loading until the player's buffer fits within the new share, and memory held by its
+ * allocator that's not in use is freed. Media that's already buffered is not discarded.
+ *
+ * <p>This class is thread safe.
+ */
+public final class SharedBufferBudget {
+
+  /** A player sharing a {@link SharedBufferBudget}. */
+  public static final class Participant {
+
+    private final SharedBufferBudget budget;
+
+    @GuardedBy("budget")
+    private int priority;
+
+    @GuardedBy("budget")
+    private int requestedBytes;
+
+    @GuardedBy("budget")
+    private int budgetBytes;
+
+    @GuardedBy("budget")
+    @Nullable
+    private DefaultAllocator allocator;
+
+    private Participant(SharedBufferBudget budget, int priority) {
+      this.budget = budget;
+      this.priority = priority;
+    }
+
+    /** Returns the {@link SharedBufferBudget} in which this instance participates. */
+    public SharedBufferBudget getBudget() {
+      return budget;
+    }
+
+    /** Returns the priority of the participant. Larger values indicate higher priorities. */
+    public int getPriority() {
+      synchronized (budget) {
+        return priority;
+      }
+    }
+
+    /**
+     * Sets the priority of the participant, and redistributes the budget accordingly.
+     *
+     * @param priority The priority. Larger values indicate higher priorities.
+     */
+    public void setPriority(int priority) {
+      synchronized (budget) {
+        this.priority = priority;
+        budget.updateBudgets();
+      }
+    }
+
+    /** Returns the number of bytes the participant requires, which is its target buffer size. */
+    public int getRequestedBytes() {
+      synchronized (budget) {
+        return requestedBytes;
+      }
+    }
+
+    /** Returns the number of bytes of the budget given to the participant. */
+    public int getBudgetBytes() {
+      synchronized (budget) {
+        return budgetBytes;
+      }
+    }
+
+    /** Returns the number of bytes currently allocated by the participant. */
+    public int getAllocatedBytes() {
+      @Nullable DefaultAllocator allocator;
+      synchronized (budget) {
+        allocator = this.allocator;
+      }
+      return allocator != null ? allocator.getTotalBytesAllocated() : 0;
+    }
+
+    /* package */ void setAllocator(DefaultAllocator allocator) {
+      synchronized (budget) {
+        checkState(this.allocator == null);
+        this.allocator = allocator;
+      }
+    }
+
+    /* package */ void setRequestedBytes(int requestedBytes) {
+      synchronized (budget) {
+        this.requestedBytes = requestedBytes;
+        budget.updateBudgets();
+      }
+    }
+  }
+
+  private final int totalBytes;
+
+  @GuardedBy("this")
+  private final List<Participant> participants;
+
+  /**
+   * Creates an instance.
+   *
+   * @param totalBytes The total number of bytes that can be used for buffering by all participants.
+   */
+  public SharedBufferBudget(int totalBytes) {
+    checkArgument(totalBytes >= 0);
+    this.totalBytes = totalBytes;
+    participants = new ArrayList<>();
+  }
+
+  /** Returns the total number of bytes that can be used for buffering by all participants. */
+  public int getTotalBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * Adds a participant.
+   *
+   * @param priority The priority of the participant. Larger values indicate higher priorities.
+   * @return The {@link Participant}.
+   */
+  public synchronized Participant addParticipant(int priority) {
+    Participant participant = new Participant(this, priority);
+    participants.add(participant);
+    return participant;
+  }
+
+  /**
+   * Removes a participant, which should be done once its player has been released.
+   *
+   * @param participant The {@link Participant} to remove.
+   */
+  public synchronized void removeParticipant(Participant participant) {
+    if (participants.remove(participant)) {
+      updateBudgets();
+    }
+  }
+
+  /** Returns the current participants. */
+  public synchronized ImmutableList<Participant> getParticipants() {
+    return ImmutableList.copyOf(participants);
+  }
+
+  /** Returns the total number of bytes currently allocated by all participants. */
+  public int getTotalBytesAllocated() {
+    int totalBytesAllocated = 0;
+    for (Participant participant : getParticipants()) {
+      totalBytesAllocated += participant.getAllocatedBytes();
+    }
+    return totalBytesAllocated;
+  }
+
+  @GuardedBy("this")
+  private void updateBudgets() {
+    List<Participant> sortedParticipants = new ArrayList<>(participants);
+    // Order by decreasing priority, and by increasing requested bytes within each priority.
+    Collections.sort(
+        sortedParticipants,
+        (participant1, participant2) ->
+            participant1.priority != participant2.priority
+                ? Integer.compare(participant2.priority, participant1.priority)
+                : Integer.compare(participant1.requestedBytes, participant2.requestedBytes));
+    int remainingBytes = totalBytes;
+    int groupStartIndex = 0;
+    while (groupStartIndex < sortedParticipants.size()) {
+      int priority = sortedParticipants.get(groupStartIndex).priority;
+      int groupEndIndex = groupStartIndex + 1;
+      while (groupEndIndex < sortedParticipants.size()
+          && sortedParticipants.get(groupEndIndex).priority == priority) {
+        groupEndIndex++;
+      }
+      // Share the remaining bytes equally between participants with the same priority. Bytes not
+      // required by participants requesting less than an equal share are shared by the others.
+      for (int i = groupStartIndex; i < groupEndIndex; i++) {
+        Participant participant = sortedParticipants.get(i);
+        int equalShare = remainingBytes / (groupEndIndex - i);
+        participant.budgetBytes = min(participant.requestedBytes, equalShare);
+        remainingBytes -= participant.budgetBytes;
+      }
+      groupStartIndex = groupEndIndex;
+    }
+    for (int i = 0; i < sortedParticipants.size(); i++) {
+      Participant participant = sortedParticipants.get(i);
+      @Nullable DefaultAllocator allocator = participant.allocator;
+      if (allocator != null) {
+        // Frees memory not in use if the participant's target buffer size has been reduced.
+        allocator.setTargetBufferSize(participant.budgetBytes);
+      }
+    }
+  }
+}
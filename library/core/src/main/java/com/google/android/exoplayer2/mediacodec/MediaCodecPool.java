@@ -0,0 +1,594 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.mediacodec;
+
+import static java.lang.Math.max;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodec.BufferInfo;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.PersistableBundle;
+import android.os.SystemClock;
+import android.view.Surface;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.decoder.CryptoInfo;
+import com.google.android.exoplayer2.util.Log;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.Util;
+import com.google.android.exoplayer2.video.PlaceholderSurface;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A pool of {@link MediaCodecAdapter MediaCodecAdapters} that keeps released codecs configured and
+ * started for a while, so that a renderer in any player that needs a compatible codec can borrow
+ * one rather than creating a new codec.
+ *
+ * <p>A single pool should be shared by all players of the process, by passing it to {@link
+ * com.google.android.exoplayer2.DefaultRenderersFactory#setMediaCodecPool(MediaCodecPool)} or by
+ * wrapping the {@link MediaCodecAdapter.Factory} of the renderers with {@link
+ * #createAdapterFactory(MediaCodecAdapter.Factory)}.
+ *
+ * <p>A pooled codec can be borrowed if it's the same decoder ({@link MediaCodecInfo#name}), for
+ * the same MIME type and initialization data, and if it was configured for the same resolution
+ * class, color info and rotation (video) or sample rate, channel count and PCM encoding (audio)
+ * with large enough maximum dimensions and input size. Other format fields, such as the frame
+ * rate, bitrate or pixel aspect ratio, aren't compared since the renderers don't configure codecs
+ * differently for them. Codecs are only pooled from API level 23, where the output surface of a
+ * borrowed video codec can be replaced, and never for secure, tunneled or encoder configurations.
+ *
+ * <p>A video codec returned to the pool is switched to a {@link PlaceholderSurface}, so that the
+ * app's surface isn't kept attached to an idle codec. Codecs that can't be switched are released.
+ *
+ * <p>The pool holds at most {@link #DEFAULT_MAX_POOLED_CODECS} codecs by default, evicting the
+ * least recently released one when full, and releases pooled codecs that haven't been borrowed
+ * within the keep-alive time. If creating a new codec fails while codecs are pooled, the pool is
+ * cleared and creation is retried, since idle codecs may hold the decoder resources needed.
+ */
+public final class MediaCodecPool {
+
+  /** The default maximum number of pooled codecs. */
+  public static final int DEFAULT_MAX_POOLED_CODECS = 2;
+  /** The default duration for which a codec is kept in the pool, in milliseconds. */
+  public static final long DEFAULT_KEEP_ALIVE_MS = 10_000;
+
+  private static final String TAG = "MediaCodecPool";
+
+  private final Context context;
+  private final int maxPooledCodecs;
+  private final long keepAliveMs;
+  @Nullable private final HandlerThread evictionThread;
+  private final Handler evictionHandler;
+
+  @GuardedBy("this")
+  private final ArrayDeque<PooledCodec> pooledCodecs;
+
+  @GuardedBy("this")
+  private int hitCount;
+
+  @GuardedBy("this")
+  private int missCount;
+
+  @GuardedBy("this")
+  private int evictionCount;
+
+  @GuardedBy("this")
+  private boolean released;
+
+  /**
+   * Creates an instance with default parameters.
+   *
+   * @param context Any {@link Context}.
+   */
+  public MediaCodecPool(Context context) {
+    this(context, DEFAULT_MAX_POOLED_CODECS, DEFAULT_KEEP_ALIVE_MS);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param context Any {@link Context}.
+   * @param maxPooledCodecs The maximum number of codecs kept in the pool.
+   * @param keepAliveMs The duration for which a released codec is kept in the pool, in
+   *     milliseconds.
+   */
+  public MediaCodecPool(Context context, int maxPooledCodecs, long keepAliveMs) {
+    this(context, maxPooledCodecs, keepAliveMs, /* evictionLooper= */ null);
+  }
+
+  @VisibleForTesting
+  /* package */ MediaCodecPool(
+      Context context, int maxPooledCodecs, long keepAliveMs, @Nullable Looper evictionLooper) {
+    this.context = context.getApplicationContext();
+    this.maxPooledCodecs = maxPooledCodecs;
+    this.keepAliveMs = keepAliveMs;
+    if (evictionLooper == null) {
+      evictionThread = new HandlerThread("ExoPlayer:MediaCodecPool");
+      evictionThread.start();
+      evictionLooper = evictionThread.getLooper();
+    } else {
+      evictionThread = null;
+    }
+    evictionHandler = Util.createHandler(evictionLooper, /* callback= */ null);
+    pooledCodecs = new ArrayDeque<>();
+  }
+
+  /**
+   * Returns a {@link MediaCodecAdapter.Factory} that borrows compatible codecs from this pool and
+   * creates new codecs using {@code codecAdapterFactory} otherwise. Codecs released by the returned
+   * adapters are returned to the pool.
+   *
+   * @param codecAdapterFactory The {@link MediaCodecAdapter.Factory} to create new codecs with.
+   * @return The pooling {@link MediaCodecAdapter.Factory}.
+   */
+  public MediaCodecAdapter.Factory createAdapterFactory(
+      MediaCodecAdapter.Factory codecAdapterFactory) {
+    return configuration -> acquire(configuration, codecAdapterFactory);
+  }
+
+  /** Returns the number of codecs that were borrowed from the pool. */
+  public synchronized int getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of codecs that could have been pooled but had to be created because no
+   * compatible codec was in the pool.
+   */
+  public synchronized int getMissCount() {
+    return missCount;
+  }
+
+  /** Returns the number of pooled codecs released because the pool was full or they expired. */
+  public synchronized int getEvictionCount() {
+    return evictionCount;
+  }
+
+  /** Returns the number of codecs currently in the pool. */
+  public synchronized int getPooledCodecCount() {
+    return pooledCodecs.size();
+  }
+
+  /** Releases all pooled codecs, for example when the app is asked to trim its memory. */
+  public void clear() {
+    releasePooledCodecs(removeAllPooledCodecs());
+  }
+
+  /**
+   * Releases all pooled codecs and the pool's resources. Codecs released by adapters of this pool
+   * afterwards are released rather than pooled.
+   */
+  public void release() {
+    synchronized (this) {
+      released = true;
+    }
+    clear();
+    evictionHandler.removeCallbacksAndMessages(null);
+    if (evictionThread != null) {
+      evictionThread.quit();
+    }
+  }
+
+  private MediaCodecAdapter acquire(
+      MediaCodecAdapter.Configuration configuration, MediaCodecAdapter.Factory codecAdapterFactory)
+      throws IOException {
+    if (!isPoolable(configuration)) {
+      return codecAdapterFactory.createAdapter(configuration);
+    }
+    @Nullable PooledCodec pooledCodec = removeCompatiblePooledCodec(configuration);
+    if (pooledCodec != null) {
+      if (prepareForReuse(pooledCodec, configuration)) {
+        pooledCodec.releasePlaceholderSurface();
+        synchronized (this) {
+          hitCount++;
+        }
+        return new PooledMediaCodecAdapter(
+            pooledCodec.adapter, pooledCodec.configuration, pooledCodec.hasOutputFormat);
+      }
+      pooledCodec.release();
+    }
+    synchronized (this) {
+      missCount++;
+    }
+    MediaCodecAdapter adapter;
+    try {
+      adapter = codecAdapterFactory.createAdapter(configuration);
+    } catch (IOException | RuntimeException e) {
+      List<PooledCodec> removedPooledCodecs = removeAllPooledCodecs();
+      if (removedPooledCodecs.isEmpty()) {
+        throw e;
+      }
+      // Idle codecs may hold the decoder resources needed, so release them and try again.
+      Log.w(TAG, "Failed to create codec, releasing pooled codecs and retrying", e);
+      releasePooledCodecs(removedPooledCodecs);
+      adapter = codecAdapterFactory.createAdapter(configuration);
+    }
+    return new PooledMediaCodecAdapter(adapter, configuration, /* hasOutputFormat= */ false);
+  }
+
+  @Nullable
+  private synchronized PooledCodec removeCompatiblePooledCodec(
+      MediaCodecAdapter.Configuration configuration) {
+    // Prefer the most recently released codec.
+    Iterator<PooledCodec> iterator = pooledCodecs.descendingIterator();
+    while (iterator.hasNext()) {
+      PooledCodec pooledCodec = iterator.next();
+      if (isCompatible(pooledCodec.configuration, configuration)) {
+        iterator.remove();
+        return pooledCodec;
+      }
+    }
+    return null;
+  }
+
+  private void offer(PooledCodec pooledCodec) {
+    try {
+      pooledCodec.adapter.flush();
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Failed to flush codec, releasing it", e);
+      pooledCodec.adapter.release();
+      return;
+    }
+    if (pooledCodec.configuration.surface != null && !detachOutputSurface(pooledCodec)) {
+      pooledCodec.release();
+      return;
+    }
+    List<PooledCodec> evictedPooledCodecs = new ArrayList<>();
+    synchronized (this) {
+      if (released) {
+        evictedPooledCodecs.add(pooledCodec);
+      } else {
+        pooledCodec.releaseTimeMs = SystemClock.elapsedRealtime();
+        pooledCodecs.addLast(pooledCodec);
+        while (pooledCodecs.size() > maxPooledCodecs) {
+          evictedPooledCodecs.add(pooledCodecs.removeFirst());
+          evictionCount++;
+        }
+        evictionHandler.postDelayed(this::evictExpiredCodecs, keepAliveMs);
+      }
+    }
+    releasePooledCodecs(evictedPooledCodecs);
+  }
+
+  /**
+   * Switches the output of a video codec to a {@link PlaceholderSurface}, so that the app's surface
+   * isn't kept attached to the pooled codec, and returns whether the switch succeeded.
+   */
+  private boolean detachOutputSurface(PooledCodec pooledCodec) {
+    if (Util.SDK_INT < 23) {
+      return false;
+    }
+    try {
+      pooledCodec.placeholderSurface =
+          PlaceholderSurface.newInstanceV17(context, /* secure= */ false);
+      pooledCodec.adapter.setOutputSurface(pooledCodec.placeholderSurface);
+      return true;
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Failed to detach codec from its output surface, releasing it", e);
+      return false;
+    }
+  }
+
+  private void evictExpiredCodecs() {
+    List<PooledCodec> evictedPooledCodecs = new ArrayList<>();
+    synchronized (this) {
+      long nowMs = SystemClock.elapsedRealtime();
+      Iterator<PooledCodec> iterator = pooledCodecs.iterator();
+      while (iterator.hasNext()) {
+        PooledCodec pooledCodec = iterator.next();
+        if (nowMs - pooledCodec.releaseTimeMs >= keepAliveMs) {
+          iterator.remove();
+          evictedPooledCodecs.add(pooledCodec);
+          evictionCount++;
+        }
+      }
+    }
+    releasePooledCodecs(evictedPooledCodecs);
+  }
+
+  private synchronized List<PooledCodec> removeAllPooledCodecs() {
+    List<PooledCodec> removedPooledCodecs = new ArrayList<>(pooledCodecs);
+    pooledCodecs.clear();
+    return removedPooledCodecs;
+  }
+
+  private static void releasePooledCodecs(List<PooledCodec> pooledCodecs) {
+    for (int i = 0; i < pooledCodecs.size(); i++) {
+      try {
+        pooledCodecs.get(i).release();
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to release pooled codec", e);
+      }
+    }
+  }
+
+  private static boolean isPoolable(MediaCodecAdapter.Configuration configuration) {
+    return Util.SDK_INT >= 23
+        && configuration.crypto == null
+        && configuration.flags == 0
+        && !configuration.mediaFormat.containsKey(MediaFormat.KEY_AUDIO_SESSION_ID);
+  }
+
+  private static boolean isCompatible(
+      MediaCodecAdapter.Configuration pooledConfiguration,
+      MediaCodecAdapter.Configuration configuration) {
+    Format pooledFormat = pooledConfiguration.format;
+    Format format = configuration.format;
+    if (!pooledConfiguration.codecInfo.name.equals(configuration.codecInfo.name)
+        || !Util.areEqual(pooledFormat.sampleMimeType, format.sampleMimeType)
+        || (pooledConfiguration.surface == null) != (configuration.surface == null)
+        || !pooledFormat.initializationDataEquals(format)
+        || getInteger(pooledConfiguration.mediaFormat, MediaFormat.KEY_MAX_INPUT_SIZE)
+            < getInteger(configuration.mediaFormat, MediaFormat.KEY_MAX_INPUT_SIZE)) {
+      return false;
+    }
+    if (MimeTypes.isVideo(format.sampleMimeType)) {
+      int pooledMaxWidth =
+          max(
+              pooledFormat.width,
+              getInteger(pooledConfiguration.mediaFormat, MediaFormat.KEY_MAX_WIDTH));
+      int pooledMaxHeight =
+          max(
+              pooledFormat.height,
+              getInteger(pooledConfiguration.mediaFormat, MediaFormat.KEY_MAX_HEIGHT));
+      int maxWidth =
+          max(format.width, getInteger(configuration.mediaFormat, MediaFormat.KEY_MAX_WIDTH));
+      int maxHeight =
+          max(format.height, getInteger(configuration.mediaFormat, MediaFormat.KEY_MAX_HEIGHT));
+      return maxWidth <= pooledMaxWidth
+          && maxHeight <= pooledMaxHeight
+          && getResolutionClass(maxWidth, maxHeight)
+              == getResolutionClass(pooledMaxWidth, pooledMaxHeight)
+          && Util.areEqual(pooledFormat.colorInfo, format.colorInfo)
+          && pooledFormat.rotationDegrees == format.rotationDegrees;
+    }
+    return pooledFormat.sampleRate == format.sampleRate
+        && pooledFormat.channelCount == format.channelCount
+        && pooledFormat.pcmEncoding == format.pcmEncoding
+        && getInteger(pooledConfiguration.mediaFormat, MediaFormat.KEY_PCM_ENCODING)
+            == getInteger(configuration.mediaFormat, MediaFormat.KEY_PCM_ENCODING);
+  }
+
+  /**
+   * Returns a resolution class for the given maximum dimensions, so that codecs configured for a
+   * much higher resolution than needed aren't borrowed.
+   */
+  private static int getResolutionClass(int width, int height) {
+    int longEdge = max(width, height);
+    if (longEdge <= 854) {
+      return 0; // Up to 480p.
+    } else if (longEdge <= 1280) {
+      return 1; // 720p.
+    } else if (longEdge <= 1920) {
+      return 2; // 1080p.
+    } else {
+      return 3;
+    }
+  }
+
+  private static int getInteger(MediaFormat mediaFormat, String key) {
+    return mediaFormat.containsKey(key) ? mediaFormat.getInteger(key) : Format.NO_VALUE;
+  }
+
+  private static boolean prepareForReuse(
+      PooledCodec pooledCodec, MediaCodecAdapter.Configuration configuration) {
+    if (Util.SDK_INT < 23) {
+      return false;
+    }
+    try {
+      // Pooled video codecs output to a placeholder surface, so the surface is always replaced.
+      @Nullable Surface surface = configuration.surface;
+      if (surface != null) {
+        pooledCodec.adapter.setOutputSurface(surface);
+      }
+      if (configuration.mediaFormat.containsKey(MediaFormat.KEY_OPERATING_RATE)) {
+        Bundle codecParameters = new Bundle();
+        codecParameters.putFloat(
+            MediaFormat.KEY_OPERATING_RATE,
+            configuration.mediaFormat.getFloat(MediaFormat.KEY_OPERATING_RATE));
+        pooledCodec.adapter.setParameters(codecParameters);
+      }
+      return true;
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Failed to reuse pooled codec", e);
+      return false;
+    }
+  }
+
+  private static final class PooledCodec {
+
+    public final MediaCodecAdapter adapter;
+    public final MediaCodecAdapter.Configuration configuration;
+    public final boolean hasOutputFormat;
+
+    @Nullable public PlaceholderSurface placeholderSurface;
+    public long releaseTimeMs;
+
+    public PooledCodec(
+        MediaCodecAdapter adapter,
+        MediaCodecAdapter.Configuration configuration,
+        boolean hasOutputFormat) {
+      this.adapter = adapter;
+      this.configuration = configuration;
+      this.hasOutputFormat = hasOutputFormat;
+      releaseTimeMs = C.TIME_UNSET;
+    }
+
+    /** Releases the codec and the placeholder surface it outputs to, if any. */
+    public void release() {
+      try {
+        adapter.release();
+      } finally {
+        releasePlaceholderSurface();
+      }
+    }
+
+    /** Releases the placeholder surface, which must no longer be the codec's output surface. */
+    public void releasePlaceholderSurface() {
+      if (placeholderSurface != null) {
+        placeholderSurface.release();
+        placeholderSurface = null;
+      }
+    }
+  }
+
+  /**
+   * A {@link MediaCodecAdapter} that returns its codec to the pool when released.
+   *
+   * <p>A borrowed codec doesn't report its output format again, so the adapter reports an output
+   * format change before the first output buffer if the codec had already reported its format.
+   */
+  private final class PooledMediaCodecAdapter implements MediaCodecAdapter {
+
+    private final MediaCodecAdapter adapter;
+    private final Configuration configuration;
+    private boolean hasOutputFormat;
+    private boolean pendingOutputFormatChange;
+    private boolean released;
+
+    public PooledMediaCodecAdapter(
+        MediaCodecAdapter adapter, Configuration configuration, boolean hasOutputFormat) {
+      this.adapter = adapter;
+      this.configuration = configuration;
+      this.hasOutputFormat = hasOutputFormat;
+      pendingOutputFormatChange = hasOutputFormat;
+    }
+
+    @Override
+    public int dequeueInputBufferIndex() {
+      return adapter.dequeueInputBufferIndex();
+    }
+
+    @Override
+    public int dequeueOutputBufferIndex(BufferInfo bufferInfo) {
+      if (pendingOutputFormatChange) {
+        pendingOutputFormatChange = false;
+        return MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+      }
+      int index = adapter.dequeueOutputBufferIndex(bufferInfo);
+      if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+        hasOutputFormat = true;
+      }
+      return index;
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+      return adapter.getOutputFormat();
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+      return adapter.getInputBuffer(index);
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+      return adapter.getOutputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(
+        int index, int offset, int size, long presentationTimeUs, int flags) {
+      adapter.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public void queueSecureInputBuffer(
+        int index, int offset, CryptoInfo info, long presentationTimeUs, int flags) {
+      adapter.queueSecureInputBuffer(index, offset, info, presentationTimeUs, flags);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+      adapter.releaseOutputBuffer(index, render);
+    }
+
+    @RequiresApi(21)
+    @Override
+    public void releaseOutputBuffer(int index, long renderTimeStampNs) {
+      adapter.releaseOutputBuffer(index, renderTimeStampNs);
+    }
+
+    @Override
+    public void flush() {
+      adapter.flush();
+    }
+
+    @Override
+    public void release() {
+      if (released) {
+        return;
+      }
+      released = true;
+      offer(new PooledCodec(adapter, configuration, hasOutputFormat));
+    }
+
+    @RequiresApi(23)
+    @Override
+    public void setOnFrameRenderedListener(OnFrameRenderedListener listener, Handler handler) {
+      adapter.setOnFrameRenderedListener(
+          (codec, presentationTimeUs, nanoTime) ->
+              listener.onFrameRendered(
+                  /* codec= */ PooledMediaCodecAdapter.this, presentationTimeUs, nanoTime),
+          handler);
+    }
+
+    @RequiresApi(23)
+    @Override
+    public void setOutputSurface(Surface surface) {
+      adapter.setOutputSurface(surface);
+    }
+
+    @RequiresApi(19)
+    @Override
+    public void setParameters(Bundle params) {
+      adapter.setParameters(params);
+    }
+
+    @Override
+    public void setVideoScalingMode(@C.VideoScalingMode int scalingMode) {
+      adapter.setVideoScalingMode(scalingMode);
+    }
+
+    @Override
+    public boolean needsReconfiguration() {
+      return adapter.needsReconfiguration();
+    }
+
+    @RequiresApi(26)
+    @Override
+    public PersistableBundle getMetrics() {
+      return adapter.getMetrics();
+    }
+  }
+}
@@ -43,7 +43,7 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
 
   private static final String TABLE_PREFIX = DatabaseProvider.TABLE_PREFIX + "Downloads";
 
-  @VisibleForTesting /* package */ static final int TABLE_VERSION = 3;
+  @VisibleForTesting /* package */ static final int TABLE_VERSION = 4;
 
   private static final String COLUMN_ID = "id";
   private static final String COLUMN_MIME_TYPE = "mime_type";
@@ -60,6 +60,7 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
   private static final String COLUMN_PERCENT_DOWNLOADED = "percent_downloaded";
   private static final String COLUMN_BYTES_DOWNLOADED = "bytes_downloaded";
   private static final String COLUMN_KEY_SET_ID = "key_set_id";
+  private static final String COLUMN_PRIORITY = "priority";
 
   private static final int COLUMN_INDEX_ID = 0;
   private static final int COLUMN_INDEX_MIME_TYPE = 1;
@@ -76,6 +77,7 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
   private static final int COLUMN_INDEX_PERCENT_DOWNLOADED = 12;
   private static final int COLUMN_INDEX_BYTES_DOWNLOADED = 13;
   private static final int COLUMN_INDEX_KEY_SET_ID = 14;
+  private static final int COLUMN_INDEX_PRIORITY = 15;
 
   private static final String WHERE_ID_EQUALS = COLUMN_ID + " = ?";
   private static final String WHERE_STATE_IS_DOWNLOADING =
@@ -99,7 +101,8 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
         COLUMN_FAILURE_REASON,
         COLUMN_PERCENT_DOWNLOADED,
         COLUMN_BYTES_DOWNLOADED,
-        COLUMN_KEY_SET_ID
+        COLUMN_KEY_SET_ID,
+        COLUMN_PRIORITY
       };
 
   private static final String TABLE_SCHEMA =
@@ -133,7 +136,9 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
           + COLUMN_BYTES_DOWNLOADED
           + " INTEGER NOT NULL,"
           + COLUMN_KEY_SET_ID
-          + " BLOB NOT NULL)";
+          + " BLOB NOT NULL,"
+          + COLUMN_PRIORITY
+          + " INTEGER NOT NULL DEFAULT 0)";
 
   private static final String TRUE = "1";
 
@@ -293,12 +298,22 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
           try {
             VersionTable.setVersion(
                 writableDatabase, VersionTable.FEATURE_OFFLINE, name, TABLE_VERSION);
-            List<Download> upgradedDownloads =
-                version == 2 ? loadDownloadsFromVersion2(writableDatabase) : new ArrayList<>();
-            writableDatabase.execSQL("DROP TABLE IF EXISTS " + tableName);
-            writableDatabase.execSQL("CREATE TABLE " + tableName + " " + TABLE_SCHEMA);
-            for (Download download : upgradedDownloads) {
-              putDownloadInternal(download, writableDatabase);
+            if (version == 3 && Util.tableExists(writableDatabase, tableName)) {
+              // Version 4 only adds the priority column, so the rows can be kept in place.
+              writableDatabase.execSQL(
+                  "ALTER TABLE "
+                      + tableName
+                      + " ADD COLUMN "
+                      + COLUMN_PRIORITY
+                      + " INTEGER NOT NULL DEFAULT 0");
+            } else {
+              List<Download> upgradedDownloads =
+                  version == 2 ? loadDownloadsFromVersion2(writableDatabase) : new ArrayList<>();
+              writableDatabase.execSQL("DROP TABLE IF EXISTS " + tableName);
+              writableDatabase.execSQL("CREATE TABLE " + tableName + " " + TABLE_SCHEMA);
+              for (Download download : upgradedDownloads) {
+                putDownloadInternal(download, writableDatabase);
+              }
             }
             writableDatabase.setTransactionSuccessful();
           } finally {
@@ -331,6 +346,7 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
     values.put(COLUMN_PERCENT_DOWNLOADED, download.getPercentDownloaded());
     values.put(COLUMN_BYTES_DOWNLOADED, download.getBytesDownloaded());
     values.put(COLUMN_KEY_SET_ID, keySetId);
+    values.put(COLUMN_PRIORITY, download.request.priority);
     database.replaceOrThrow(tableName, /* nullColumnHack= */ null, values);
   }
 
@@ -451,6 +467,7 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
             .setKeySetId(keySetId.length > 0 ? keySetId : null)
             .setCustomCacheKey(cursor.getString(COLUMN_INDEX_CUSTOM_CACHE_KEY))
             .setData(cursor.getBlob(COLUMN_INDEX_DATA))
+            .setPriority(cursor.getInt(COLUMN_INDEX_PRIORITY))
             .build();
     DownloadProgress downloadProgress = new DownloadProgress();
     downloadProgress.bytesDownloaded = cursor.getLong(COLUMN_INDEX_BYTES_DOWNLOADED);
@@ -38,6 +38,9 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
   private final CacheDataSource.Factory cacheDataSourceFactory;
   private final Executor executor;
 
+  private int maxParallelProgressiveDownloads;
+  private long progressiveRangeLengthBytes;
+
   /**
    * Creates an instance.
    *
@@ -64,6 +67,30 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
       CacheDataSource.Factory cacheDataSourceFactory, Executor executor) {
     this.cacheDataSourceFactory = Assertions.checkNotNull(cacheDataSourceFactory);
     this.executor = Assertions.checkNotNull(executor);
+    maxParallelProgressiveDownloads = 1;
+    progressiveRangeLengthBytes = ProgressiveDownloader.DEFAULT_RANGE_LENGTH_BYTES;
+  }
+
+  /**
+   * Sets whether progressive streams are split into byte ranges that are downloaded in parallel,
+   * using the {@link Executor} passed to the constructor. The default is to download progressive
+   * streams sequentially.
+   *
+   * <p>Parallel downloads are only faster if the {@link Executor} uses multiple threads. See {@link
+   * ProgressiveDownloader} for the requirements that a stream must meet to be split.
+   *
+   * @param maxParallelDownloads The maximum number of byte ranges of a stream to download in
+   *     parallel. If 1, progressive streams are downloaded sequentially.
+   * @param rangeLengthBytes The length of the byte ranges into which streams are split, in bytes.
+   * @return This factory, for convenience.
+   */
+  public DefaultDownloaderFactory setProgressiveParallelDownloads(
+      int maxParallelDownloads, long rangeLengthBytes) {
+    Assertions.checkArgument(maxParallelDownloads > 0);
+    Assertions.checkArgument(rangeLengthBytes > 0);
+    this.maxParallelProgressiveDownloads = maxParallelDownloads;
+    this.progressiveRangeLengthBytes = rangeLengthBytes;
+    return this;
   }
 
   @Override
@@ -82,7 +109,9 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
                 .setCustomCacheKey(request.customCacheKey)
                 .build(),
             cacheDataSourceFactory,
-            executor);
+            executor,
+            maxParallelProgressiveDownloads,
+            progressiveRangeLengthBytes);
       default:
         throw new IllegalArgumentException("Unsupported type: " + contentType);
     }
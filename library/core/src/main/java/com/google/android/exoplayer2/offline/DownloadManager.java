@@ -803,6 +803,8 @@ public final class DownloadManager {
         while (cursor.moveToNext()) {
           downloads.add(cursor.getDownload());
         }
+        // The index only orders downloads by start time.
+        Collections.sort(downloads, InternalHandler::compareDownloads);
       } catch (IOException e) {
         Log.e(TAG, "Failed to load index.", e);
         downloads.clear();
@@ -930,7 +932,7 @@ public final class DownloadManager {
         downloads.add(
             copyDownloadWithState(terminalDownloads.get(i), STATE_REMOVING, STOP_REASON_NONE));
       }
-      Collections.sort(downloads, InternalHandler::compareStartTimes);
+      Collections.sort(downloads, InternalHandler::compareDownloads);
       try {
         downloadIndex.setStatesToRemoving();
       } catch (IOException e) {
@@ -967,8 +969,15 @@ public final class DownloadManager {
 
     private void syncTasks() {
       int accumulatingDownloadTaskCount = 0;
+      // Queued downloads that are waiting for a task, and those of them with a priority higher than
+      // the current download. Downloads are sorted by decreasing priority.
+      int waitingDownloadCount = 0;
+      int waitingHigherPriorityDownloadCount = 0;
       for (int i = 0; i < downloads.size(); i++) {
         Download download = downloads.get(i);
+        if (i > 0 && download.request.priority != downloads.get(i - 1).request.priority) {
+          waitingHigherPriorityDownloadCount = waitingDownloadCount;
+        }
         @Nullable Task activeTask = activeTasks.get(download.request.id);
         switch (download.state) {
           case STATE_STOPPED:
@@ -979,7 +988,11 @@ public final class DownloadManager {
             break;
           case STATE_DOWNLOADING:
             Assertions.checkNotNull(activeTask);
-            syncDownloadingDownload(activeTask, download, accumulatingDownloadTaskCount);
+            // Waiting downloads with higher priorities take precedence over this one.
+            syncDownloadingDownload(
+                activeTask,
+                download,
+                accumulatingDownloadTaskCount + waitingHigherPriorityDownloadCount);
             break;
           case STATE_REMOVING:
           case STATE_RESTARTING:
@@ -992,6 +1005,8 @@ public final class DownloadManager {
         }
         if (activeTask != null && !activeTask.isRemove) {
           accumulatingDownloadTaskCount++;
+        } else if (activeTask == null && download.state == STATE_QUEUED && canDownloadsRun()) {
+          waitingDownloadCount++;
         }
       }
     }
@@ -1219,12 +1234,15 @@ public final class DownloadManager {
       int changedIndex = getDownloadIndex(download.request.id);
       if (changedIndex == C.INDEX_UNSET) {
         downloads.add(download);
-        Collections.sort(downloads, InternalHandler::compareStartTimes);
+        Collections.sort(downloads, InternalHandler::compareDownloads);
       } else {
-        boolean needsSort = download.startTimeMs != downloads.get(changedIndex).startTimeMs;
+        Download previousDownload = downloads.get(changedIndex);
+        boolean needsSort =
+            download.startTimeMs != previousDownload.startTimeMs
+                || download.request.priority != previousDownload.request.priority;
         downloads.set(changedIndex, download);
         if (needsSort) {
-          Collections.sort(downloads, InternalHandler::compareStartTimes);
+          Collections.sort(downloads, InternalHandler::compareDownloads);
         }
       }
       try {
@@ -1281,8 +1299,10 @@ public final class DownloadManager {
           download.progress);
     }
 
-    private static int compareStartTimes(Download first, Download second) {
-      return Util.compareLong(first.startTimeMs, second.startTimeMs);
+    /** Orders downloads by decreasing priority, and then by increasing start time. */
+    private static int compareDownloads(Download first, Download second) {
+      int result = Integer.compare(second.request.priority, first.request.priority);
+      return result != 0 ? result : Util.compareLong(first.startTimeMs, second.startTimeMs);
     }
   }
 
@@ -47,6 +47,7 @@ public final class DownloadRequest implements Parcelable {
     @Nullable private byte[] keySetId;
     @Nullable private String customCacheKey;
     @Nullable private byte[] data;
+    private int priority;
 
     /** Creates a new instance with the specified id and uri. */
     public Builder(String id, Uri uri) {
@@ -84,6 +85,12 @@ public final class DownloadRequest implements Parcelable {
       return this;
     }
 
+    /** Sets the {@link DownloadRequest#priority}. */
+    public Builder setPriority(int priority) {
+      this.priority = priority;
+      return this;
+    }
+
     public DownloadRequest build() {
       return new DownloadRequest(
           id,
@@ -92,7 +99,8 @@ public final class DownloadRequest implements Parcelable {
           streamKeys != null ? streamKeys : ImmutableList.of(),
           keySetId,
           customCacheKey,
-          data);
+          data,
+          priority);
     }
   }
 
@@ -117,6 +125,13 @@ public final class DownloadRequest implements Parcelable {
   @Nullable public final String customCacheKey;
   /** Application defined data associated with the download. May be empty. */
   public final byte[] data;
+  /**
+   * The priority of the download. When not all downloads can run in parallel, downloads with
+   * higher priorities are run first, and may cause downloads with lower priorities to be stopped
+   * and queued again. Downloads with equal priorities are run in the order in which they were
+   * added. The default priority is 0.
+   */
+  public final int priority;
 
   /**
    * @param id See {@link #id}.
@@ -125,6 +140,7 @@ public final class DownloadRequest implements Parcelable {
    * @param streamKeys See {@link #streamKeys}.
    * @param customCacheKey See {@link #customCacheKey}.
    * @param data See {@link #data}.
+   * @param priority See {@link #priority}.
    */
   private DownloadRequest(
       String id,
@@ -133,7 +149,8 @@ public final class DownloadRequest implements Parcelable {
       List<StreamKey> streamKeys,
       @Nullable byte[] keySetId,
       @Nullable String customCacheKey,
-      @Nullable byte[] data) {
+      @Nullable byte[] data,
+      int priority) {
     @C.ContentType int contentType = Util.inferContentTypeForUriAndMimeType(uri, mimeType);
     if (contentType == C.CONTENT_TYPE_DASH
         || contentType == C.CONTENT_TYPE_HLS
@@ -150,6 +167,7 @@ public final class DownloadRequest implements Parcelable {
     this.keySetId = keySetId != null ? Arrays.copyOf(keySetId, keySetId.length) : null;
     this.customCacheKey = customCacheKey;
     this.data = data != null ? Arrays.copyOf(data, data.length) : Util.EMPTY_BYTE_ARRAY;
+    this.priority = priority;
   }
 
   /* package */ DownloadRequest(Parcel in) {
@@ -165,6 +183,7 @@ public final class DownloadRequest implements Parcelable {
     keySetId = in.createByteArray();
     customCacheKey = in.readString();
     data = castNonNull(in.createByteArray());
+    priority = in.readInt();
   }
 
   /**
@@ -174,7 +193,8 @@ public final class DownloadRequest implements Parcelable {
    * @return The copy with the specified ID.
    */
   public DownloadRequest copyWithId(String id) {
-    return new DownloadRequest(id, uri, mimeType, streamKeys, keySetId, customCacheKey, data);
+    return new DownloadRequest(
+        id, uri, mimeType, streamKeys, keySetId, customCacheKey, data, priority);
   }
 
   /**
@@ -184,7 +204,8 @@ public final class DownloadRequest implements Parcelable {
    * @return The copy with the specified key set ID.
    */
   public DownloadRequest copyWithKeySetId(@Nullable byte[] keySetId) {
-    return new DownloadRequest(id, uri, mimeType, streamKeys, keySetId, customCacheKey, data);
+    return new DownloadRequest(
+        id, uri, mimeType, streamKeys, keySetId, customCacheKey, data, priority);
   }
 
   /**
@@ -220,7 +241,8 @@ public final class DownloadRequest implements Parcelable {
         mergedKeys,
         newRequest.keySetId,
         newRequest.customCacheKey,
-        newRequest.data);
+        newRequest.data,
+        newRequest.priority);
   }
 
   /** Returns a {@link MediaItem} for the content defined by the request. */
@@ -251,7 +273,8 @@ public final class DownloadRequest implements Parcelable {
         && streamKeys.equals(that.streamKeys)
         && Arrays.equals(keySetId, that.keySetId)
         && Util.areEqual(customCacheKey, that.customCacheKey)
-        && Arrays.equals(data, that.data);
+        && Arrays.equals(data, that.data)
+        && priority == that.priority;
   }
 
   @Override
@@ -263,6 +286,7 @@ public final class DownloadRequest implements Parcelable {
     result = 31 * result + Arrays.hashCode(keySetId);
     result = 31 * result + (customCacheKey != null ? customCacheKey.hashCode() : 0);
     result = 31 * result + Arrays.hashCode(data);
+    result = 31 * result + priority;
     return result;
   }
 
@@ -285,6 +309,7 @@ public final class DownloadRequest implements Parcelable {
     dest.writeByteArray(keySetId);
     dest.writeString(customCacheKey);
     dest.writeByteArray(data);
+    dest.writeInt(priority);
   }
 
   public static final Parcelable.Creator<DownloadRequest> CREATOR =
@@ -15,31 +15,74 @@
  */
 package com.google.android.exoplayer2.offline;
 
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import android.net.Uri;
 import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.upstream.DataSourceUtil;
 import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
 import com.google.android.exoplayer2.upstream.cache.CacheWriter;
+import com.google.android.exoplayer2.upstream.cache.ContentMetadata;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.PriorityTaskManager;
 import com.google.android.exoplayer2.util.PriorityTaskManager.PriorityTooLowException;
 import com.google.android.exoplayer2.util.RunnableFutureTask;
 import com.google.android.exoplayer2.util.Util;
+import com.google.common.net.HttpHeaders;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
-/** A downloader for progressive media streams. */
+/**
+ * A downloader for progressive media streams.
+ *
+ * <p>By default the stream is downloaded sequentially. If created with a maximum number of parallel
+ * downloads greater than 1, the stream is instead split into byte ranges that are downloaded
+ * concurrently using the provided {@link Executor}, which is faster on high latency connections
+ * where a single request can't make use of the available bandwidth. Splitting requires the length
+ * of the stream to be known and, for HTTP streams, the server to honor range requests, so the
+ * stream is downloaded sequentially otherwise.
+ */
 public final class ProgressiveDownloader implements Downloader {
 
+  /**
+   * The default length of the byte ranges into which the stream is split for parallel downloads, in
+   * bytes. This is a multiple of {@link CacheDataSink#DEFAULT_FRAGMENT_SIZE}, so that the ranges
+   * start at cache file boundaries.
+   */
+  public static final long DEFAULT_RANGE_LENGTH_BYTES = 2 * CacheDataSink.DEFAULT_FRAGMENT_SIZE;
+
   private final Executor executor;
   private final DataSpec dataSpec;
+  private final CacheDataSource.Factory cacheDataSourceFactory;
   private final CacheDataSource dataSource;
   private final CacheWriter cacheWriter;
+  private final String cacheKey;
+  private final int maxParallelDownloads;
+  private final long rangeLengthBytes;
   @Nullable private final PriorityTaskManager priorityTaskManager;
 
+  /**
+   * The currently active runnables of a parallel download.
+   *
+   * <p>Note: Only the {@link #download} thread is permitted to modify this list. Modifications, as
+   * well as the iteration on the {@link #cancel} thread, must be synchronized on the instance for
+   * thread safety. Iterations on the {@link #download} thread do not need to be synchronized, and
+   * should not be synchronized because doing so can erroneously block {@link #cancel}.
+   */
+  private final ArrayList<RunnableFutureTask<?, ?>> activeRunnables;
+
   @Nullable private ProgressListener progressListener;
   private volatile @MonotonicNonNull RunnableFutureTask<Void, IOException> downloadRunnable;
   private volatile boolean isCanceled;
@@ -62,13 +105,45 @@ public final class ProgressiveDownloader implements Downloader {
    * @param mediaItem The media item with a uri to the stream to be downloaded.
    * @param cacheDataSourceFactory A {@link CacheDataSource.Factory} for the cache into which the
    *     download will be written.
-   * @param executor An {@link Executor} used to make requests for the media being downloaded. In
-   *     the future, providing an {@link Executor} that uses multiple threads may speed up the
-   *     download by allowing parts of it to be executed in parallel.
+   * @param executor An {@link Executor} used to make requests for the media being downloaded.
    */
   public ProgressiveDownloader(
       MediaItem mediaItem, CacheDataSource.Factory cacheDataSourceFactory, Executor executor) {
+    this(
+        mediaItem,
+        cacheDataSourceFactory,
+        executor,
+        /* maxParallelDownloads= */ 1,
+        DEFAULT_RANGE_LENGTH_BYTES);
+  }
+
+  /**
+   * Creates a new instance.
+   *
+   * @param mediaItem The media item with a uri to the stream to be downloaded.
+   * @param cacheDataSourceFactory A {@link CacheDataSource.Factory} for the cache into which the
+   *     download will be written.
+   * @param executor An {@link Executor} used to make requests for the media being downloaded.
+   *     Providing an {@link Executor} that uses multiple threads will speed up the download by
+   *     allowing byte ranges of the stream to be downloaded in parallel.
+   * @param maxParallelDownloads The maximum number of byte ranges to download in parallel. If 1,
+   *     the stream is downloaded sequentially.
+   * @param rangeLengthBytes The length of the byte ranges into which the stream is split for
+   *     parallel downloads, in bytes. Ranges start at multiples of this length, so that they're the
+   *     same when an interrupted download is resumed. Ranges that are already cached are skipped.
+   */
+  public ProgressiveDownloader(
+      MediaItem mediaItem,
+      CacheDataSource.Factory cacheDataSourceFactory,
+      Executor executor,
+      int maxParallelDownloads,
+      long rangeLengthBytes) {
+    Assertions.checkArgument(maxParallelDownloads > 0);
+    Assertions.checkArgument(rangeLengthBytes > 0);
     this.executor = Assertions.checkNotNull(executor);
+    this.cacheDataSourceFactory = cacheDataSourceFactory;
+    this.maxParallelDownloads = maxParallelDownloads;
+    this.rangeLengthBytes = rangeLengthBytes;
     Assertions.checkNotNull(mediaItem.localConfiguration);
     dataSpec =
         new DataSpec.Builder()
@@ -81,13 +156,54 @@ public final class ProgressiveDownloader implements Downloader {
     CacheWriter.ProgressListener progressListener = this::onProgress;
     cacheWriter =
         new CacheWriter(dataSource, dataSpec, /* temporaryBuffer= */ null, progressListener);
+    cacheKey = dataSource.getCacheKeyFactory().buildCacheKey(dataSpec);
     priorityTaskManager = cacheDataSourceFactory.getUpstreamPriorityTaskManager();
+    activeRunnables = new ArrayList<>();
   }
 
   @Override
   public void download(@Nullable ProgressListener progressListener)
       throws IOException, InterruptedException {
     this.progressListener = progressListener;
+    if (priorityTaskManager != null) {
+      priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
+    }
+    try {
+      long contentLength = maxParallelDownloads > 1 ? resolveContentLength() : C.LENGTH_UNSET;
+      if (contentLength == C.LENGTH_UNSET) {
+        downloadSequentially();
+      } else {
+        downloadRanges(contentLength);
+      }
+    } finally {
+      if (priorityTaskManager != null) {
+        priorityTaskManager.remove(C.PRIORITY_DOWNLOAD);
+      }
+    }
+  }
+
+  @Override
+  public void cancel() {
+    synchronized (activeRunnables) {
+      isCanceled = true;
+      RunnableFutureTask<Void, IOException> downloadRunnable = this.downloadRunnable;
+      if (downloadRunnable != null) {
+        downloadRunnable.cancel(/* interruptIfRunning= */ true);
+      }
+      for (int i = 0; i < activeRunnables.size(); i++) {
+        activeRunnables.get(i).cancel(/* interruptIfRunning= */ true);
+      }
+    }
+  }
+
+  @Override
+  public void remove() {
+    dataSource.getCache().removeResource(cacheKey);
+  }
+
+  // Internal methods.
+
+  private void downloadSequentially() throws IOException, InterruptedException {
     downloadRunnable =
         new RunnableFutureTask<Void, IOException>() {
           @Override
@@ -102,9 +218,6 @@ public final class ProgressiveDownloader implements Downloader {
           }
         };
 
-    if (priorityTaskManager != null) {
-      priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
-    }
     try {
       boolean finished = false;
       while (!finished && !isCanceled) {
@@ -131,24 +244,230 @@ public final class ProgressiveDownloader implements Downloader {
       // If the main download thread was interrupted as part of cancelation, then it's possible that
       // the runnable is still doing work. We need to wait until it's finished before returning.
       downloadRunnable.blockUntilFinished();
+    }
+  }
+
+  private void downloadRanges(long contentLength) throws IOException, InterruptedException {
+    Cache cache = dataSource.getCache();
+    ArrayDeque<DataSpec> pendingRanges = new ArrayDeque<>();
+    ArrayDeque<CacheDataSource> recycledDataSources = new ArrayDeque<>();
+    @Nullable
+    ProgressNotifier progressNotifier =
+        progressListener != null
+            ? new ProgressNotifier(
+                progressListener,
+                contentLength,
+                cache.getCachedBytes(cacheKey, /* position= */ 0, contentLength))
+            : null;
+    if (progressNotifier != null) {
+      progressNotifier.onProgress(contentLength, /* bytesCached= */ 0, /* newBytesCached= */ 0);
+    }
+    addUncachedRanges(contentLength, pendingRanges);
+    try {
+      while (!isCanceled && (!pendingRanges.isEmpty() || !activeRunnables.isEmpty())) {
+        if (!pendingRanges.isEmpty() && activeRunnables.size() < maxParallelDownloads) {
+          // Block until there aren't any higher priority tasks.
+          if (priorityTaskManager != null) {
+            priorityTaskManager.proceed(C.PRIORITY_DOWNLOAD);
+          }
+          CacheDataSource rangeDataSource =
+              !recycledDataSources.isEmpty()
+                  ? recycledDataSources.removeFirst()
+                  : cacheDataSourceFactory.createDataSourceForDownloading();
+          RangeDownloadRunnable downloadRunnable =
+              new RangeDownloadRunnable(
+                  pendingRanges.removeFirst(), rangeDataSource, progressNotifier);
+          addActiveRunnable(downloadRunnable);
+          executor.execute(downloadRunnable);
+          // Don't move on to the next range until the runnable for this range has started. This
+          // drip feeds runnables to the executor, rather than providing them all up front.
+          downloadRunnable.blockUntilStarted();
+          continue;
+        }
+
+        // Process a runnable that has finished, or block until the oldest runnable finishes.
+        int index = 0;
+        for (int i = 0; i < activeRunnables.size(); i++) {
+          if (activeRunnables.get(i).isDone()) {
+            index = i;
+            break;
+          }
+        }
+        RangeDownloadRunnable activeRunnable = (RangeDownloadRunnable) activeRunnables.get(index);
+        try {
+          activeRunnable.get();
+        } catch (ExecutionException e) {
+          Throwable cause = Assertions.checkNotNull(e.getCause());
+          if (cause instanceof PriorityTooLowException) {
+            // The range is downloaded again in a future loop iteration, continuing from where the
+            // runnable stopped.
+            pendingRanges.addFirst(activeRunnable.range);
+          } else if (cause instanceof IOException) {
+            throw (IOException) cause;
+          } else {
+            // The cause must be an uncaught Throwable type.
+            Util.sneakyThrow(cause);
+          }
+        }
+        removeActiveRunnable(index);
+        recycledDataSources.addLast(activeRunnable.dataSource);
+      }
+    } finally {
+      // If one of the runnables has thrown an exception, then it's possible there are other active
+      // runnables still doing work. We need to wait until they finish before exiting this method.
+      // Cancel them to speed this up.
+      for (int i = 0; i < activeRunnables.size(); i++) {
+        activeRunnables.get(i).cancel(/* interruptIfRunning= */ true);
+      }
+      for (int i = activeRunnables.size() - 1; i >= 0; i--) {
+        activeRunnables.get(i).blockUntilFinished();
+        removeActiveRunnable(i);
+      }
+    }
+  }
+
+  /**
+   * Returns the length of the stream if it can be downloaded in byte ranges, or {@link
+   * C#LENGTH_UNSET} if it must be downloaded sequentially.
+   *
+   * <p>Unless the stream is fully cached, an unbounded request is opened from the first byte that
+   * isn't cached, and closed without reading any data. This stores the length reported by the
+   * server in the cache, and checks that the server honors range requests. A server that ignores
+   * them would send the stream from its start for every range.
+   */
+  private long resolveContentLength() throws InterruptedException {
+    Cache cache = dataSource.getCache();
+    long contentLength = ContentMetadata.getContentLength(cache.getContentMetadata(cacheKey));
+    long position =
+        max(0, cache.getCachedLength(cacheKey, /* position= */ 0, /* length= */ Long.MAX_VALUE));
+    if (contentLength != C.LENGTH_UNSET && position >= contentLength) {
+      return contentLength;
+    }
+    DataSpec probeDataSpec = dataSpec.buildUpon().setPosition(position).build();
+    boolean rangeRequestsSupported = false;
+    boolean finished = false;
+    while (!finished) {
+      if (isCanceled) {
+        throw new InterruptedException();
+      }
+      // Block until there aren't any higher priority tasks.
       if (priorityTaskManager != null) {
-        priorityTaskManager.remove(C.PRIORITY_DOWNLOAD);
+        priorityTaskManager.proceed(C.PRIORITY_DOWNLOAD);
+      }
+      RunnableFutureTask<Boolean, IOException> probeRunnable =
+          new RunnableFutureTask<Boolean, IOException>() {
+            @Override
+            protected Boolean doWork() throws IOException {
+              try {
+                dataSource.open(probeDataSpec);
+                return !isHttpUri(probeDataSpec.uri)
+                    || isRangeRequestSupported(dataSource.getResponseHeaders());
+              } finally {
+                DataSourceUtil.closeQuietly(dataSource);
+              }
+            }
+          };
+      addActiveRunnable(probeRunnable);
+      executor.execute(probeRunnable);
+      try {
+        rangeRequestsSupported = probeRunnable.get();
+        finished = true;
+      } catch (ExecutionException e) {
+        Throwable cause = Assertions.checkNotNull(e.getCause());
+        if (cause instanceof PriorityTooLowException) {
+          // The next loop iteration will block until the task is able to proceed.
+        } else if (cause instanceof IOException) {
+          // Fall back to a sequential download, which reports the error if it persists.
+          finished = true;
+        } else {
+          // The cause must be an uncaught Throwable type.
+          Util.sneakyThrow(cause);
+        }
+      } finally {
+        // We don't want to return for as long as the runnable might still be doing work.
+        probeRunnable.blockUntilFinished();
+        removeActiveRunnable(probeRunnable);
       }
     }
+    return rangeRequestsSupported
+        ? ContentMetadata.getContentLength(cache.getContentMetadata(cacheKey))
+        : C.LENGTH_UNSET;
   }
 
-  @Override
-  public void cancel() {
-    isCanceled = true;
-    RunnableFutureTask<Void, IOException> downloadRunnable = this.downloadRunnable;
-    if (downloadRunnable != null) {
-      downloadRunnable.cancel(/* interruptIfRunning= */ true);
+  private static boolean isHttpUri(Uri uri) {
+    @Nullable String scheme = uri.getScheme();
+    return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+  }
+
+  /**
+   * Returns whether the response headers of a request show that the server honors range requests,
+   * which is the case if the response is partial or if the server accepts byte ranges.
+   */
+  private static boolean isRangeRequestSupported(Map<String, List<String>> responseHeaders) {
+    for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+      @Nullable String name = header.getKey();
+      if (HttpHeaders.CONTENT_RANGE.equalsIgnoreCase(name)) {
+        return true;
+      }
+      if (HttpHeaders.ACCEPT_RANGES.equalsIgnoreCase(name)) {
+        for (String value : header.getValue()) {
+          if ("bytes".equalsIgnoreCase(value.trim())) {
+            return true;
+          }
+        }
+      }
     }
+    return false;
   }
 
-  @Override
-  public void remove() {
-    dataSource.getCache().removeResource(dataSource.getCacheKeyFactory().buildCacheKey(dataSpec));
+  /**
+   * Adds the byte ranges of the stream that aren't cached to {@code ranges}. Each hole between
+   * cached spans is split at multiples of {@link #rangeLengthBytes}.
+   */
+  private void addUncachedRanges(long contentLength, ArrayDeque<DataSpec> ranges) {
+    Cache cache = dataSource.getCache();
+    long position = 0;
+    while (position < contentLength) {
+      long blockLength = cache.getCachedLength(cacheKey, position, contentLength - position);
+      if (blockLength > 0) {
+        position += blockLength;
+        continue;
+      }
+      // There's a hole of length -blockLength.
+      long holeEndPosition = position - blockLength;
+      while (position < holeEndPosition) {
+        long rangeEndPosition =
+            min(holeEndPosition, (position / rangeLengthBytes + 1) * rangeLengthBytes);
+        ranges.addLast(
+            dataSpec
+                .buildUpon()
+                .setPosition(position)
+                .setLength(rangeEndPosition - position)
+                .build());
+        position = rangeEndPosition;
+      }
+    }
+  }
+
+  private void addActiveRunnable(RunnableFutureTask<?, ?> runnable) throws InterruptedException {
+    synchronized (activeRunnables) {
+      if (isCanceled) {
+        throw new InterruptedException();
+      }
+      activeRunnables.add(runnable);
+    }
+  }
+
+  private void removeActiveRunnable(RunnableFutureTask<?, ?> runnable) {
+    synchronized (activeRunnables) {
+      activeRunnables.remove(runnable);
+    }
+  }
+
+  private void removeActiveRunnable(int index) {
+    synchronized (activeRunnables) {
+      activeRunnables.remove(index);
+    }
   }
 
   private void onProgress(long contentLength, long bytesCached, long newBytesCached) {
@@ -161,4 +480,54 @@ public final class ProgressiveDownloader implements Downloader {
             : ((bytesCached * 100f) / contentLength);
     progressListener.onProgress(contentLength, bytesCached, percentDownloaded);
   }
+
+  private static final class RangeDownloadRunnable extends RunnableFutureTask<Void, IOException> {
+
+    public final DataSpec range;
+    public final CacheDataSource dataSource;
+    private final CacheWriter cacheWriter;
+
+    public RangeDownloadRunnable(
+        DataSpec range, CacheDataSource dataSource, @Nullable ProgressNotifier progressNotifier) {
+      this.range = range;
+      this.dataSource = dataSource;
+      cacheWriter =
+          new CacheWriter(dataSource, range, /* temporaryBuffer= */ null, progressNotifier);
+    }
+
+    @Override
+    protected Void doWork() throws IOException {
+      cacheWriter.cache();
+      return null;
+    }
+
+    @Override
+    protected void cancelWork() {
+      cacheWriter.cancel();
+    }
+  }
+
+  /** Combines the progress of the ranges that are downloaded in parallel. */
+  private static final class ProgressNotifier implements CacheWriter.ProgressListener {
+
+    private final ProgressListener progressListener;
+    private final long contentLength;
+
+    private long bytesDownloaded;
+
+    public ProgressNotifier(
+        ProgressListener progressListener, long contentLength, long bytesDownloaded) {
+      this.progressListener = progressListener;
+      this.contentLength = contentLength;
+      this.bytesDownloaded = bytesDownloaded;
+    }
+
+    @Override
+    public synchronized void onProgress(long requestLength, long bytesCached, long newBytesCached) {
+      bytesDownloaded += newBytesCached;
+      float percentDownloaded =
+          contentLength == 0 ? C.PERCENTAGE_UNSET : ((bytesDownloaded * 100f) / contentLength);
+      progressListener.onProgress(contentLength, bytesDownloaded, percentDownloaded);
+    }
+  }
 }
@@ -121,6 +121,11 @@ public final class BundledExtractorsAdapter implements ProgressiveMediaExtractor
     Assertions.checkNotNull(extractor).seek(position, seekTimeUs);
   }
 
+  @Override
+  public void seekToKnownPosition(long position, long timeUs) {
+    Assertions.checkNotNull(extractor).seekToKnownPosition(position, timeUs);
+  }
+
   @Override
   public int read(PositionHolder positionHolder) throws IOException {
     return Assertions.checkNotNull(extractor)
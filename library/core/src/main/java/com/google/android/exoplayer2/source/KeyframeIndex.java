@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.extractor.BinarySearchSeeker.BinarySearchSeekMap;
+import com.google.android.exoplayer2.extractor.SeekMap;
+import com.google.android.exoplayer2.extractor.SeekPoint;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.ContentMetadata;
+import com.google.android.exoplayer2.upstream.cache.ContentMetadataMutations;
+import com.google.android.exoplayer2.util.Log;
+import com.google.android.exoplayer2.util.LongArray;
+import com.google.android.exoplayer2.util.ParsableByteArray;
+import com.google.android.exoplayer2.util.Util;
+import java.nio.ByteBuffer;
+
+/**
+ * Records the positions of key frames while a progressive stream is extracted, and stores them in
+ * the {@link ContentMetadata} of a {@link Cache} so that they're available when the stream is
+ * played again.
+ *
+ * <p>Seeking in a stream whose {@link SeekMap} is a {@link BinarySearchSeekMap} requires several
+ * requests to search for the seek position. Within the part of the stream covered by the index,
+ * the {@link SeekMap} returned by {@link #wrapSeekMap(SeekMap)} instead provides the position of a
+ * preceding key frame, from which the extractor can read without searching.
+ *
+ * <p>The index only covers the part of the stream that has been read contiguously from its start,
+ * so that it contains every key frame in that part. Each entry maps the time of a key frame to the
+ * position in the stream at which the data of the key frame starts. The index is only stored again
+ * when entries are added to it, or when it comes to cover the whole stream.
+ */
+/* package */ final class KeyframeIndex {
+
+  /** Key of the index in the {@link ContentMetadata} of the stream (type: byte[]). */
+  @VisibleForTesting /* package */ static final String METADATA_KEY = "exo_kfidx";
+
+  private static final String TAG = "KeyframeIndex";
+
+  private static final int VERSION = 1;
+  private static final int HEADER_LENGTH = 29;
+  private static final int ENTRY_LENGTH = 16;
+  /** The minimum difference between the times of consecutive index entries. */
+  private static final long MIN_ENTRY_INTERVAL_US = 2 * C.MICROS_PER_SECOND;
+
+  private final Cache cache;
+  private final String cacheKey;
+
+  // Accessed only by the loading thread.
+  private int indexedTrackId;
+  private @C.TrackType int indexedTrackType;
+
+  private boolean enabled;
+  private long streamLength;
+  private long durationUs;
+  private LongArray timesUs;
+  private LongArray positions;
+  private long lastIndexedKeyframeTimeUs;
+  private boolean isComplete;
+  private long previousKeyframeTimeUs;
+  private boolean hasPreviousKeyframe;
+  private boolean hasChanges;
+
+  /**
+   * Creates an instance.
+   *
+   * @param cache The {@link Cache} in whose {@link ContentMetadata} the index is stored.
+   * @param cacheKey The cache key of the stream.
+   */
+  public KeyframeIndex(Cache cache, String cacheKey) {
+    this.cache = cache;
+    this.cacheKey = cacheKey;
+    indexedTrackId = C.INDEX_UNSET;
+    indexedTrackType = C.TRACK_TYPE_UNKNOWN;
+    streamLength = C.LENGTH_UNSET;
+    durationUs = C.TIME_UNSET;
+    timesUs = new LongArray();
+    positions = new LongArray();
+    lastIndexedKeyframeTimeUs = C.TIME_UNSET;
+  }
+
+  /**
+   * Called by the loading thread when a track is output by the extractor. The key frames of the
+   * first video track are indexed, or those of the first audio track if there's no video track.
+   *
+   * @param id The id of the track.
+   * @param type The {@link C.TrackType type} of the track.
+   */
+  public void registerTrack(int id, @C.TrackType int type) {
+    if ((type == C.TRACK_TYPE_VIDEO && indexedTrackType != C.TRACK_TYPE_VIDEO)
+        || (type == C.TRACK_TYPE_AUDIO && indexedTrackType == C.TRACK_TYPE_UNKNOWN)) {
+      indexedTrackId = id;
+      indexedTrackType = type;
+    }
+  }
+
+  /**
+   * Called by the loading thread when the extractor outputs its {@link SeekMap}.
+   *
+   * <p>If the seek map is a {@link BinarySearchSeekMap}, indexing is enabled, any index stored for
+   * the same stream is restored, and a seek map that uses the index where possible is returned.
+   * Otherwise, the seek map is returned unchanged.
+   *
+   * @param seekMap The {@link SeekMap} output by the extractor.
+   * @return The {@link SeekMap} to use.
+   */
+  public SeekMap wrapSeekMap(SeekMap seekMap) {
+    if (!(seekMap instanceof BinarySearchSeekMap)) {
+      return seekMap;
+    }
+    synchronized (this) {
+      enabled = true;
+      durationUs = seekMap.getDurationUs();
+      @Nullable byte[] storedIndex =
+          cache.getContentMetadata(cacheKey).get(METADATA_KEY, /* defaultValue= */ (byte[]) null);
+      if (storedIndex != null) {
+        restore(new ParsableByteArray(storedIndex));
+      }
+    }
+    return new IndexedSeekMap(seekMap);
+  }
+
+  /**
+   * Called by the loading thread when reading starts at a position that doesn't follow on from the
+   * previously read data.
+   *
+   * @param position The position from which data will be read.
+   * @param length The length of the stream, or {@link C#LENGTH_UNSET} if unknown.
+   */
+  public synchronized void onPositionReset(long position, long length) {
+    streamLength = length;
+    if (position == 0) {
+      previousKeyframeTimeUs = C.TIME_UNSET;
+      hasPreviousKeyframe = true;
+    } else {
+      hasPreviousKeyframe = false;
+    }
+  }
+
+  /**
+   * Called by the loading thread when the sample metadata for a key frame is output.
+   *
+   * @param trackId The id of the track to which the key frame belongs.
+   * @param timeUs The time of the key frame, in microseconds.
+   * @param position The position in the stream at which the data of the key frame starts.
+   */
+  public void onKeyframe(int trackId, long timeUs, long position) {
+    if (trackId != indexedTrackId) {
+      return;
+    }
+    synchronized (this) {
+      if (enabled
+          && hasPreviousKeyframe
+          && previousKeyframeTimeUs <= lastIndexedKeyframeTimeUs
+          && timeUs > lastIndexedKeyframeTimeUs) {
+        // All key frames up to and including this one have been seen.
+        int size = timesUs.size();
+        if (size == 0
+            || (timeUs - timesUs.get(size - 1) >= MIN_ENTRY_INTERVAL_US
+                && position > positions.get(size - 1))) {
+          timesUs.add(timeUs);
+          positions.add(position);
+          hasChanges = true;
+        }
+        lastIndexedKeyframeTimeUs = timeUs;
+      }
+      previousKeyframeTimeUs = timeUs;
+      hasPreviousKeyframe = true;
+    }
+  }
+
+  /** Called by the loading thread when the end of the stream is reached. */
+  public synchronized void onEndOfInput() {
+    if (!isComplete
+        && timesUs.size() > 0
+        && hasPreviousKeyframe
+        && previousKeyframeTimeUs == lastIndexedKeyframeTimeUs) {
+      isComplete = true;
+      hasChanges = true;
+    }
+  }
+
+  /**
+   * Returns the {@link SeekPoint} of the latest indexed key frame at or before {@code timeUs}, or
+   * null if {@code timeUs} isn't covered by the index.
+   *
+   * <p>Reading from the position of the returned seek point yields its key frame, and the extractor
+   * can be notified of the seek using {@link ProgressiveMediaExtractor#seekToKnownPosition(long,
+   * long)}.
+   *
+   * @param timeUs A seek time, in microseconds.
+   * @return The {@link SeekPoint}, or null if {@code timeUs} isn't covered by the index.
+   */
+  @Nullable
+  public synchronized SeekPoint getSeekPoint(long timeUs) {
+    if (!enabled || timesUs.size() == 0 || (!isComplete && timeUs > lastIndexedKeyframeTimeUs)) {
+      return null;
+    }
+    int index =
+        Util.binarySearchFloor(timesUs, timeUs, /* inclusive= */ true, /* stayInBounds= */ false);
+    return index == -1
+        ? SeekPoint.START
+        : new SeekPoint(timesUs.get(index), positions.get(index));
+  }
+
+  /**
+   * Stores the index in the {@link ContentMetadata} of the stream, if entries were added or it
+   * became complete since it was last stored.
+   */
+  public void maybeStore() {
+    byte[] serializedIndex;
+    synchronized (this) {
+      if (!hasChanges) {
+        return;
+      }
+      hasChanges = false;
+      serializedIndex = serialize();
+    }
+    try {
+      cache.applyContentMetadataMutations(
+          cacheKey, new ContentMetadataMutations().set(METADATA_KEY, serializedIndex));
+    } catch (Cache.CacheException e) {
+      Log.w(TAG, "Failed to store key frame index", e);
+    }
+  }
+
+  private byte[] serialize() {
+    int size = timesUs.size();
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + size * ENTRY_LENGTH);
+    buffer.putInt(VERSION);
+    buffer.putLong(streamLength);
+    buffer.putLong(durationUs);
+    buffer.putLong(lastIndexedKeyframeTimeUs);
+    buffer.put((byte) (isComplete ? 1 : 0));
+    for (int i = 0; i < size; i++) {
+      buffer.putLong(timesUs.get(i));
+      buffer.putLong(positions.get(i));
+    }
+    return buffer.array();
+  }
+
+  private void restore(ParsableByteArray storedIndex) {
+    int length = storedIndex.limit();
+    if (length <= HEADER_LENGTH
+        || (length - HEADER_LENGTH) % ENTRY_LENGTH != 0
+        || storedIndex.readInt() != VERSION
+        || storedIndex.readLong() != streamLength
+        || storedIndex.readLong() != durationUs) {
+      // The index is stale, or was stored by an incompatible version.
+      return;
+    }
+    long storedLastIndexedKeyframeTimeUs = storedIndex.readLong();
+    boolean storedIsComplete = storedIndex.readUnsignedByte() != 0;
+    if (isComplete
+        || (!storedIsComplete && storedLastIndexedKeyframeTimeUs <= lastIndexedKeyframeTimeUs)) {
+      // The index recorded so far covers at least as much of the stream.
+      return;
+    }
+    int size = (length - HEADER_LENGTH) / ENTRY_LENGTH;
+    timesUs = new LongArray(size);
+    positions = new LongArray(size);
+    for (int i = 0; i < size; i++) {
+      timesUs.add(storedIndex.readLong());
+      positions.add(storedIndex.readLong());
+    }
+    lastIndexedKeyframeTimeUs = storedLastIndexedKeyframeTimeUs;
+    isComplete = storedIsComplete;
+  }
+
+  private final class IndexedSeekMap implements SeekMap {
+
+    private final SeekMap seekMap;
+
+    public IndexedSeekMap(SeekMap seekMap) {
+      this.seekMap = seekMap;
+    }
+
+    @Override
+    public boolean isSeekable() {
+      return seekMap.isSeekable();
+    }
+
+    @Override
+    public long getDurationUs() {
+      return seekMap.getDurationUs();
+    }
+
+    @Override
+    public SeekPoints getSeekPoints(long timeUs) {
+      @Nullable SeekPoint seekPoint = getSeekPoint(timeUs);
+      return seekPoint != null ? new SeekPoints(seekPoint) : seekMap.getSeekPoints(timeUs);
+    }
+  }
+}
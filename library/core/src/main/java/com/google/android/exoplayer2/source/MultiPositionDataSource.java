@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceUtil;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Util;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link DataSource} that keeps connections to multiple positions of the same resource open.
+ *
+ * <p>When the data source is closed, the connection that was being read is kept open rather than
+ * being closed. A subsequent {@link #open(DataSpec)} at or shortly after the position the
+ * connection was left at resumes reading from that connection, rather than opening a new one. This
+ * avoids reopening connections when reading media whose tracks are badly interleaved, which
+ * requires reading alternately from regions of the file that are far apart.
+ *
+ * <p>Transfer listeners are only notified while a connection is being read. The transfer of a
+ * connection ends when it's kept open, and starts again when it's resumed. Bytes skipped to resume
+ * a connection at a later position are not reported.
+ */
+/* package */ final class MultiPositionDataSource implements DataSource {
+
+  /**
+   * The maximum number of bytes that are skipped in an open connection to reach the requested
+   * position, rather than opening a new connection.
+   */
+  /* package */ static final long MAXIMUM_SKIP_BYTES = 256 * 1024;
+
+  private final DataSource.Factory upstreamFactory;
+  private final int maxConnectionCount;
+  private final List<TransferListener> transferListeners;
+  /** Open connections that aren't being read, ordered from least to most recently used. */
+  private final List<Connection> parkedConnections;
+
+  @Nullable private byte[] skipBuffer;
+  @Nullable private Connection currentConnection;
+
+  /**
+   * Creates an instance.
+   *
+   * @param upstreamFactory A factory for the {@link DataSource data sources} that open connections
+   *     to the resource.
+   * @param maxConnectionCount The maximum number of connections that are kept open at any time.
+   */
+  public MultiPositionDataSource(DataSource.Factory upstreamFactory, int maxConnectionCount) {
+    Assertions.checkArgument(maxConnectionCount > 0);
+    this.upstreamFactory = upstreamFactory;
+    this.maxConnectionCount = maxConnectionCount;
+    transferListeners = new ArrayList<>();
+    parkedConnections = new ArrayList<>();
+  }
+
+  /** Closes all connections that aren't currently being read. */
+  public void closeParkedConnections() {
+    for (int i = 0; i < parkedConnections.size(); i++) {
+      DataSourceUtil.closeQuietly(parkedConnections.get(i).dataSource);
+    }
+    parkedConnections.clear();
+  }
+
+  /** Returns the number of connections that are currently open. */
+  public int getOpenConnectionCount() {
+    return parkedConnections.size() + (currentConnection != null ? 1 : 0);
+  }
+
+  @Override
+  public void addTransferListener(TransferListener transferListener) {
+    Assertions.checkNotNull(transferListener);
+    transferListeners.add(transferListener);
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    @Nullable Connection connection = resumeParkedConnection(dataSpec);
+    if (connection == null) {
+      while (parkedConnections.size() >= maxConnectionCount) {
+        DataSourceUtil.closeQuietly(parkedConnections.remove(0).dataSource);
+      }
+      connection = openConnection(dataSpec);
+    }
+    currentConnection = connection;
+    return connection.endPosition == C.POSITION_UNSET
+        ? C.LENGTH_UNSET
+        : connection.endPosition - connection.position;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    Connection connection = Assertions.checkNotNull(currentConnection);
+    int bytesRead;
+    try {
+      bytesRead = connection.dataSource.read(buffer, offset, length);
+    } catch (IOException e) {
+      connection.reusable = false;
+      throw e;
+    }
+    if (bytesRead == C.RESULT_END_OF_INPUT) {
+      connection.reusable = false;
+    } else {
+      connection.position += bytesRead;
+    }
+    return bytesRead;
+  }
+
+  @Nullable
+  @Override
+  public Uri getUri() {
+    return currentConnection != null ? currentConnection.dataSource.getUri() : null;
+  }
+
+  @Override
+  public Map<String, List<String>> getResponseHeaders() {
+    return currentConnection != null
+        ? currentConnection.dataSource.getResponseHeaders()
+        : Collections.emptyMap();
+  }
+
+  @Override
+  public void close() throws IOException {
+    @Nullable Connection connection = currentConnection;
+    if (connection == null) {
+      return;
+    }
+    currentConnection = null;
+    if (connection.reusable) {
+      connection.transferListener.pauseTransfer();
+      parkedConnections.add(connection);
+    } else {
+      connection.dataSource.close();
+    }
+  }
+
+  private Connection openConnection(DataSpec dataSpec) throws IOException {
+    DataSource dataSource = upstreamFactory.createDataSource();
+    ConnectionTransferListener transferListener =
+        new ConnectionTransferListener(dataSource, dataSpec, transferListeners);
+    dataSource.addTransferListener(transferListener);
+    long length;
+    try {
+      length = dataSource.open(dataSpec);
+    } catch (IOException e) {
+      DataSourceUtil.closeQuietly(dataSource);
+      throw e;
+    }
+    long endPosition = length == C.LENGTH_UNSET ? C.POSITION_UNSET : dataSpec.position + length;
+    // Only connections to the remainder of the resource can be reused for other positions.
+    boolean reusable = dataSpec.length == C.LENGTH_UNSET;
+    return new Connection(dataSource, transferListener, dataSpec, endPosition, reusable);
+  }
+
+  /**
+   * Removes and returns a parked connection that can be used to read {@code dataSpec}, after
+   * skipping to its position, or returns null if there's no such connection.
+   */
+  @Nullable
+  private Connection resumeParkedConnection(DataSpec dataSpec) {
+    if (dataSpec.length != C.LENGTH_UNSET) {
+      return null;
+    }
+    @Nullable Connection resumedConnection = null;
+    for (int i = 0; i < parkedConnections.size(); i++) {
+      Connection connection = parkedConnections.get(i);
+      long skipLength = dataSpec.position - connection.position;
+      if (skipLength >= 0
+          && skipLength < MAXIMUM_SKIP_BYTES
+          && (connection.endPosition == C.POSITION_UNSET
+              || dataSpec.position <= connection.endPosition)
+          && connection.canRead(dataSpec)
+          && (resumedConnection == null || connection.position > resumedConnection.position)) {
+        resumedConnection = connection;
+      }
+    }
+    if (resumedConnection == null) {
+      return null;
+    }
+    parkedConnections.remove(resumedConnection);
+    resumedConnection.transferListener.initializeResumedTransfer(dataSpec);
+    try {
+      skip(resumedConnection, dataSpec.position - resumedConnection.position);
+      resumedConnection.transferListener.resumeTransfer();
+      return resumedConnection;
+    } catch (IOException e) {
+      // The connection may have been closed by the server while it was parked.
+      DataSourceUtil.closeQuietly(resumedConnection.dataSource);
+      return null;
+    }
+  }
+
+  private void skip(Connection connection, long skipLength) throws IOException {
+    if (skipLength == 0) {
+      return;
+    }
+    if (skipBuffer == null) {
+      skipBuffer = new byte[4096];
+    }
+    while (skipLength > 0) {
+      int bytesRead =
+          connection.dataSource.read(skipBuffer, 0, (int) Math.min(skipBuffer.length, skipLength));
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        throw new IOException("Unexpected end of input while skipping");
+      }
+      connection.position += bytesRead;
+      skipLength -= bytesRead;
+    }
+  }
+
+  private static final class Connection {
+
+    public final DataSource dataSource;
+    public final ConnectionTransferListener transferListener;
+    public final DataSpec dataSpec;
+    public final long endPosition;
+
+    public long position;
+    public boolean reusable;
+
+    public Connection(
+        DataSource dataSource,
+        ConnectionTransferListener transferListener,
+        DataSpec dataSpec,
+        long endPosition,
+        boolean reusable) {
+      this.dataSource = dataSource;
+      this.transferListener = transferListener;
+      this.dataSpec = dataSpec;
+      this.endPosition = endPosition;
+      this.reusable = reusable;
+      position = dataSpec.position;
+    }
+
+    /** Returns whether this connection reads the resource in the same way as {@code dataSpec}. */
+    public boolean canRead(DataSpec dataSpec) {
+      return this.dataSpec.uri.equals(dataSpec.uri)
+          && this.dataSpec.httpMethod == dataSpec.httpMethod
+          && this.dataSpec.httpBody == null
+          && dataSpec.httpBody == null
+          && this.dataSpec.flags == dataSpec.flags
+          && Util.areEqual(this.dataSpec.key, dataSpec.key)
+          && this.dataSpec.httpRequestHeaders.equals(dataSpec.httpRequestHeaders);
+    }
+  }
+
+  /**
+   * Forwards the transfer events of a connection to the listeners of the {@link
+   * MultiPositionDataSource} while the connection is being read.
+   *
+   * <p>Events are reported for the {@link DataSpec} the connection is currently read for, so that
+   * listeners can match them to the corresponding transfer.
+   */
+  private static final class ConnectionTransferListener implements TransferListener {
+
+    private final DataSource dataSource;
+    private final List<TransferListener> transferListeners;
+
+    private DataSpec dataSpec;
+    private boolean isNetwork;
+    private boolean hasTransferStarted;
+    private boolean isTransferActive;
+
+    public ConnectionTransferListener(
+        DataSource dataSource, DataSpec dataSpec, List<TransferListener> transferListeners) {
+      this.dataSource = dataSource;
+      this.dataSpec = dataSpec;
+      this.transferListeners = transferListeners;
+    }
+
+    /** Ends the transfer reported to the listeners, while the connection is kept open. */
+    public void pauseTransfer() {
+      if (!isTransferActive) {
+        return;
+      }
+      isTransferActive = false;
+      for (int i = 0; i < transferListeners.size(); i++) {
+        transferListeners.get(i).onTransferEnd(dataSource, dataSpec, isNetwork);
+      }
+    }
+
+    /**
+     * Notifies the listeners that the paused connection is about to be resumed to read {@code
+     * dataSpec}.
+     */
+    public void initializeResumedTransfer(DataSpec dataSpec) {
+      this.dataSpec = dataSpec;
+      if (!hasTransferStarted) {
+        return;
+      }
+      for (int i = 0; i < transferListeners.size(); i++) {
+        transferListeners.get(i).onTransferInitializing(dataSource, dataSpec, isNetwork);
+      }
+    }
+
+    /** Starts a new transfer reported to the listeners, once the paused connection is resumed. */
+    public void resumeTransfer() {
+      if (!hasTransferStarted) {
+        return;
+      }
+      isTransferActive = true;
+      for (int i = 0; i < transferListeners.size(); i++) {
+        transferListeners.get(i).onTransferStart(dataSource, dataSpec, isNetwork);
+      }
+    }
+
+    @Override
+    public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+      for (int i = 0; i < transferListeners.size(); i++) {
+        transferListeners.get(i).onTransferInitializing(source, this.dataSpec, isNetwork);
+      }
+    }
+
+    @Override
+    public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+      this.isNetwork = isNetwork;
+      hasTransferStarted = true;
+      isTransferActive = true;
+      for (int i = 0; i < transferListeners.size(); i++) {
+        transferListeners.get(i).onTransferStart(source, this.dataSpec, isNetwork);
+      }
+    }
+
+    @Override
+    public void onBytesTransferred(
+        DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+      if (!isTransferActive) {
+        // The bytes are skipped to resume the connection at a later position.
+        return;
+      }
+      for (int i = 0; i < transferListeners.size(); i++) {
+        transferListeners
+            .get(i)
+            .onBytesTransferred(source, this.dataSpec, isNetwork, bytesTransferred);
+      }
+    }
+
+    @Override
+    public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+      if (!isTransferActive) {
+        // The end of the transfer was already reported when the connection was kept open.
+        return;
+      }
+      isTransferActive = false;
+      for (int i = 0; i < transferListeners.size(); i++) {
+        transferListeners.get(i).onTransferEnd(source, this.dataSpec, isNetwork);
+      }
+    }
+  }
+}
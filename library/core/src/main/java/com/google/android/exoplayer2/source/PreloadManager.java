@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.RendererCapabilities;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.source.MediaSource.MediaPeriodId;
+import com.google.android.exoplayer2.trackselection.TrackSelector;
+import com.google.android.exoplayer2.trackselection.TrackSelectorResult;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.Util;
+import java.util.ArrayList;
+
+/**
+ * Controls the preloading of {@link PreloadMediaSource PreloadMediaSources}, for example of the
+ * items adjacent to the current one in a vertically scrolling feed.
+ *
+ * <p>All preloads are coordinated on a single looper, which must be the {@link
+ * ExoPlayer#getPlaybackLooper() playback looper} of the player that plays the preloaded sources.
+ * Each preloaded period buffers up to {@link #setTargetPreloadDurationUs(long) a target duration},
+ * and loading is paused while the preloaded periods together use more than {@link
+ * #setMaxPreloadBytes(int) a shared memory budget}. Preloaded periods that are handed over to the
+ * player no longer count towards the budget.
+ *
+ * <p>The manager reports how many preloads were used by the player ({@link #getHitCount()}) or
+ * discarded because the player requested a different period ({@link #getMissCount()}), and how
+ * much memory the pending preloads currently use ({@link #getPreloadedBytes()}).
+ */
+public final class PreloadManager {
+
+  /** The default target duration to preload for each source, in microseconds. */
+  public static final long DEFAULT_TARGET_PRELOAD_DURATION_US = 5_000_000;
+  /** The default maximum number of bytes used by all preloads together. */
+  public static final int DEFAULT_MAX_PRELOAD_BYTES = 16 * 1024 * 1024;
+
+  private final Handler handler;
+  private final TrackSelector trackSelector;
+  private final RendererCapabilities[] rendererCapabilities;
+  private final ArrayList<PreloadMediaSource> preloadingSources;
+
+  private volatile long targetPreloadDurationUs;
+  private volatile int maxPreloadBytes;
+  private volatile int preloadedBytes;
+  private volatile int hitCount;
+  private volatile int missCount;
+  private volatile boolean released;
+
+  /**
+   * Creates an instance.
+   *
+   * @param preloadLooper The {@link Looper} on which preloads are coordinated. Must be the playback
+   *     looper of the player playing the preloaded sources.
+   * @param trackSelector The {@link TrackSelector} used to select the tracks to preload. Must not be
+   *     the track selector of a player, as it's initialized by this manager.
+   * @param bandwidthMeter The {@link BandwidthMeter} passed to the {@code trackSelector}.
+   * @param rendererCapabilities The {@link RendererCapabilities} of the player's renderers, as
+   *     obtained from {@link Renderer#getCapabilities()}.
+   */
+  public PreloadManager(
+      Looper preloadLooper,
+      TrackSelector trackSelector,
+      BandwidthMeter bandwidthMeter,
+      RendererCapabilities[] rendererCapabilities) {
+    this.trackSelector = trackSelector;
+    this.rendererCapabilities = rendererCapabilities;
+    handler = Util.createHandler(preloadLooper, /* callback= */ null);
+    preloadingSources = new ArrayList<>();
+    targetPreloadDurationUs = DEFAULT_TARGET_PRELOAD_DURATION_US;
+    maxPreloadBytes = DEFAULT_MAX_PRELOAD_BYTES;
+    trackSelector.init(/* listener= */ () -> {}, bandwidthMeter);
+  }
+
+  /**
+   * Sets the duration each source is preloaded for, in microseconds. The default is {@link
+   * #DEFAULT_TARGET_PRELOAD_DURATION_US}.
+   *
+   * @param targetPreloadDurationUs The target preload duration, in microseconds.
+   */
+  public void setTargetPreloadDurationUs(long targetPreloadDurationUs) {
+    this.targetPreloadDurationUs = targetPreloadDurationUs;
+    post(this::continuePreloading);
+  }
+
+  /**
+   * Sets the maximum number of bytes the pending preloads may use together. The default is {@link
+   * #DEFAULT_MAX_PRELOAD_BYTES}.
+   *
+   * @param maxPreloadBytes The maximum number of bytes used by all preloads.
+   */
+  public void setMaxPreloadBytes(int maxPreloadBytes) {
+    this.maxPreloadBytes = maxPreloadBytes;
+    post(this::continuePreloading);
+  }
+
+  /** Returns the number of preloaded periods that were handed over to the player. */
+  public int getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of preloaded periods that were released because the player requested a
+   * different period of the source.
+   */
+  public int getMissCount() {
+    return missCount;
+  }
+
+  /** Returns the number of bytes currently used by preloads that haven't been handed over. */
+  public int getPreloadedBytes() {
+    return preloadedBytes;
+  }
+
+  /**
+   * Releases all pending preloads and the track selector. The manager can't be used afterwards.
+   */
+  public void release() {
+    released = true;
+    post(
+        () -> {
+          for (PreloadMediaSource source : new ArrayList<>(preloadingSources)) {
+            source.releasePreloadInternal();
+          }
+          trackSelector.release();
+        });
+  }
+
+  /* package */ void post(Runnable runnable) {
+    Util.postOrRun(handler, runnable);
+  }
+
+  /* package */ boolean isReleased() {
+    return released;
+  }
+
+  /* package */ long getTargetPreloadDurationUs() {
+    return targetPreloadDurationUs;
+  }
+
+  /* package */ boolean canContinuePreloading() {
+    return preloadedBytes < maxPreloadBytes;
+  }
+
+  /* package */ TrackSelectorResult selectTracks(
+      TrackGroupArray trackGroups, MediaPeriodId periodId, Timeline timeline)
+      throws ExoPlaybackException {
+    return trackSelector.selectTracks(rendererCapabilities, trackGroups, periodId, timeline);
+  }
+
+  /* package */ void onPreloadStarted(PreloadMediaSource source) {
+    preloadingSources.add(source);
+  }
+
+  /* package */ void onPreloadProgress(PreloadMediaSource source) {
+    updatePreloadedBytes();
+    source.maybeContinuePreloading();
+  }
+
+  /* package */ void onPreloadHit(PreloadMediaSource source) {
+    hitCount++;
+    onPreloadEnded(source);
+  }
+
+  /* package */ void onPreloadMiss(PreloadMediaSource source) {
+    missCount++;
+    onPreloadEnded(source);
+  }
+
+  /* package */ void onPreloadCanceled(PreloadMediaSource source) {
+    onPreloadEnded(source);
+  }
+
+  private void onPreloadEnded(PreloadMediaSource source) {
+    preloadingSources.remove(source);
+    // Memory may have been freed, so let the remaining preloads continue.
+    continuePreloading();
+  }
+
+  private void continuePreloading() {
+    updatePreloadedBytes();
+    for (int i = 0; i < preloadingSources.size(); i++) {
+      preloadingSources.get(i).maybeContinuePreloading();
+    }
+  }
+
+  private void updatePreloadedBytes() {
+    int preloadedBytes = 0;
+    for (int i = 0; i < preloadingSources.size(); i++) {
+      preloadedBytes += preloadingSources.get(i).getPreloadedBytes();
+    }
+    this.preloadedBytes = preloadedBytes;
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source;
+
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.SeekParameters;
+import com.google.android.exoplayer2.offline.StreamKey;
+import com.google.android.exoplayer2.trackselection.ExoTrackSelection;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Util;
+import java.io.IOException;
+import java.util.List;
+import org.checkerframework.checker.nullness.compatqual.NullableType;
+
+/**
+ * Wraps a {@link MediaPeriod} that is prepared and loaded by a {@link PreloadMediaSource} before
+ * being handed over to the player.
+ *
+ * <p>Preparation is only started once, so a player preparing a period that is already prepared is
+ * notified immediately. The first track selection made by the player retains the streams created
+ * for the preload where the selections are equal, so that the preloaded samples can be read.
+ */
+/* package */ final class PreloadMediaPeriod implements MediaPeriod, MediaPeriod.Callback {
+
+  /** The {@link MediaPeriod} wrapped by this preload media period. */
+  public final MediaPeriod mediaPeriod;
+
+  @Nullable private Callback callback;
+  private boolean prepareCalled;
+  private boolean prepared;
+  @Nullable private @NullableType ExoTrackSelection[] preloadSelections;
+  private @NullableType SampleStream[] preloadStreams;
+  private boolean[] preloadStreamResetFlags;
+  private long preloadPositionUs;
+
+  /**
+   * Creates an instance.
+   *
+   * @param mediaPeriod The {@link MediaPeriod} to preload.
+   */
+  public PreloadMediaPeriod(MediaPeriod mediaPeriod) {
+    this.mediaPeriod = mediaPeriod;
+    preloadStreams = new SampleStream[0];
+    preloadStreamResetFlags = new boolean[0];
+    preloadPositionUs = C.TIME_UNSET;
+  }
+
+  /** Returns whether tracks have been selected for the preload. */
+  public boolean hasPreloadTrackSelection() {
+    return preloadSelections != null;
+  }
+
+  /**
+   * Selects the tracks to load while preloading. Must only be called once the period is prepared.
+   *
+   * @param selections The track selections to preload.
+   * @param positionUs The position at which to start loading, in microseconds.
+   * @return The actual position at which the tracks were enabled, in microseconds.
+   */
+  public long selectPreloadTracks(@NullableType ExoTrackSelection[] selections, long positionUs) {
+    for (@Nullable ExoTrackSelection selection : selections) {
+      if (selection != null) {
+        selection.enable();
+      }
+    }
+    preloadSelections = selections;
+    preloadStreams = new SampleStream[selections.length];
+    preloadStreamResetFlags = new boolean[selections.length];
+    preloadPositionUs =
+        mediaPeriod.selectTracks(
+            selections,
+            /* mayRetainStreamFlags= */ new boolean[selections.length],
+            preloadStreams,
+            preloadStreamResetFlags,
+            positionUs);
+    return preloadPositionUs;
+  }
+
+  /** Disables the track selections made for the preload, if any. */
+  public void disablePreloadTrackSelections() {
+    @Nullable @NullableType ExoTrackSelection[] preloadSelections = this.preloadSelections;
+    if (preloadSelections == null) {
+      return;
+    }
+    this.preloadSelections = null;
+    for (@Nullable ExoTrackSelection selection : preloadSelections) {
+      if (selection != null) {
+        selection.disable();
+      }
+    }
+  }
+
+  @Override
+  public void prepare(Callback callback, long positionUs) {
+    this.callback = callback;
+    if (prepared) {
+      callback.onPrepared(this);
+    } else if (!prepareCalled) {
+      prepareCalled = true;
+      mediaPeriod.prepare(/* callback= */ this, positionUs);
+    }
+  }
+
+  @Override
+  public void maybeThrowPrepareError() throws IOException {
+    mediaPeriod.maybeThrowPrepareError();
+  }
+
+  @Override
+  public TrackGroupArray getTrackGroups() {
+    return mediaPeriod.getTrackGroups();
+  }
+
+  @Override
+  public List<StreamKey> getStreamKeys(List<ExoTrackSelection> trackSelections) {
+    return mediaPeriod.getStreamKeys(trackSelections);
+  }
+
+  @Override
+  public long selectTracks(
+      @NullableType ExoTrackSelection[] selections,
+      boolean[] mayRetainStreamFlags,
+      @NullableType SampleStream[] streams,
+      boolean[] streamResetFlags,
+      long positionUs) {
+    @Nullable @NullableType ExoTrackSelection[] preloadSelections = this.preloadSelections;
+    if (preloadSelections == null) {
+      return mediaPeriod.selectTracks(
+          selections, mayRetainStreamFlags, streams, streamResetFlags, positionUs);
+    }
+    @NullableType SampleStream[] preloadStreams = this.preloadStreams;
+    boolean[] preloadStreamResetFlags = this.preloadStreamResetFlags;
+    disablePreloadTrackSelections();
+    this.preloadStreams = new SampleStream[0];
+    this.preloadStreamResetFlags = new boolean[0];
+    if (selections.length != preloadStreams.length) {
+      // The preloaded streams can't be mapped onto the player's renderers, so release them first.
+      mediaPeriod.selectTracks(
+          new ExoTrackSelection[preloadStreams.length],
+          /* mayRetainStreamFlags= */ new boolean[preloadStreams.length],
+          preloadStreams,
+          /* streamResetFlags= */ new boolean[preloadStreams.length],
+          positionUs);
+      return mediaPeriod.selectTracks(
+          selections, mayRetainStreamFlags, streams, streamResetFlags, positionUs);
+    }
+    // Offer the preloaded streams as the existing streams, retaining those whose selection is
+    // unchanged so that their buffered samples are kept.
+    boolean[] mayRetainPreloadStreamFlags = new boolean[selections.length];
+    for (int i = 0; i < selections.length; i++) {
+      streams[i] = preloadStreams[i];
+      mayRetainPreloadStreamFlags[i] =
+          positionUs == preloadPositionUs && Util.areEqual(selections[i], preloadSelections[i]);
+    }
+    long enablePositionUs =
+        mediaPeriod.selectTracks(
+            selections, mayRetainPreloadStreamFlags, streams, streamResetFlags, positionUs);
+    for (int i = 0; i < selections.length; i++) {
+      if (streams[i] != null && streams[i] == preloadStreams[i]) {
+        streamResetFlags[i] |= preloadStreamResetFlags[i];
+      }
+    }
+    return enablePositionUs;
+  }
+
+  @Override
+  public void discardBuffer(long positionUs, boolean toKeyframe) {
+    mediaPeriod.discardBuffer(positionUs, toKeyframe);
+  }
+
+  @Override
+  public long readDiscontinuity() {
+    return mediaPeriod.readDiscontinuity();
+  }
+
+  @Override
+  public long seekToUs(long positionUs) {
+    return mediaPeriod.seekToUs(positionUs);
+  }
+
+  @Override
+  public long getAdjustedSeekPositionUs(long positionUs, SeekParameters seekParameters) {
+    return mediaPeriod.getAdjustedSeekPositionUs(positionUs, seekParameters);
+  }
+
+  @Override
+  public long getBufferedPositionUs() {
+    return mediaPeriod.getBufferedPositionUs();
+  }
+
+  @Override
+  public long getNextLoadPositionUs() {
+    return mediaPeriod.getNextLoadPositionUs();
+  }
+
+  @Override
+  public boolean continueLoading(long positionUs) {
+    return mediaPeriod.continueLoading(positionUs);
+  }
+
+  @Override
+  public boolean isLoading() {
+    return mediaPeriod.isLoading();
+  }
+
+  @Override
+  public void reevaluateBuffer(long positionUs) {
+    mediaPeriod.reevaluateBuffer(positionUs);
+  }
+
+  // MediaPeriod.Callback implementation.
+
+  @Override
+  public void onPrepared(MediaPeriod mediaPeriod) {
+    prepared = true;
+    Assertions.checkNotNull(callback).onPrepared(this);
+  }
+
+  @Override
+  public void onContinueLoadingRequested(MediaPeriod source) {
+    Assertions.checkNotNull(callback).onContinueLoadingRequested(this);
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source;
+
+import android.util.Pair;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.analytics.PlayerId;
+import com.google.android.exoplayer2.trackselection.TrackSelectorResult;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Log;
+
+/**
+ * {@link MediaSource} that wraps a source and can prepare and buffer its first period before the
+ * source is played, so that playback starts from the preloaded data when the player reaches it.
+ *
+ * <p>Preloading is controlled by a {@link PreloadManager}, which bounds how far ahead and how much
+ * memory preloaded periods may buffer. Call {@link #preload(long)} when the item is likely to be
+ * played soon (for example when it's about to scroll into view) and {@link #releasePreload()} when
+ * it no longer is. If the player then creates the preloaded period, the prepared period and its
+ * buffered samples are handed over to the player. Otherwise the preloaded period is released and
+ * a new one is created.
+ *
+ * <p>The source must be used by a player whose {@link ExoPlayer#getPlaybackLooper() playback
+ * looper} is the looper of the {@link PreloadManager}.
+ */
+public final class PreloadMediaSource extends CompositeMediaSource<Void> {
+
+  private static final String TAG = "PreloadMediaSource";
+
+  private final MediaSource mediaSource;
+  private final PreloadManager preloadManager;
+  private final PreloadCallback preloadCallback;
+  private final Timeline.Window window;
+  private final Timeline.Period period;
+
+  private boolean isPrepared;
+  private boolean isPreloadRequested;
+  private long preloadStartPositionUs;
+  @Nullable private Timeline preloadTimeline;
+  @Nullable private MediaPeriodId preloadPeriodId;
+  private long preloadPeriodPositionUs;
+  @Nullable private PreloadMediaPeriod preloadMediaPeriod;
+  @Nullable private DefaultAllocator preloadAllocator;
+
+  /**
+   * Creates an instance.
+   *
+   * @param mediaSource The {@link MediaSource} to preload.
+   * @param preloadManager The {@link PreloadManager} controlling the preload.
+   */
+  public PreloadMediaSource(MediaSource mediaSource, PreloadManager preloadManager) {
+    this.mediaSource = mediaSource;
+    this.preloadManager = preloadManager;
+    preloadCallback = new PreloadCallback();
+    window = new Timeline.Window();
+    period = new Timeline.Period();
+    preloadPeriodPositionUs = C.TIME_UNSET;
+  }
+
+  /**
+   * Starts preloading the source from the specified position, if it isn't preloading or being
+   * played already. May be called from any thread.
+   *
+   * @param startPositionUs The position in the window at which to start preloading, in
+   *     microseconds, or {@link C#TIME_UNSET} to preload from the default position.
+   */
+  public void preload(long startPositionUs) {
+    preloadManager.post(() -> preloadInternal(startPositionUs));
+  }
+
+  /**
+   * Releases the preloaded period, if it hasn't been handed over to the player. May be called from
+   * any thread.
+   */
+  public void releasePreload() {
+    preloadManager.post(this::releasePreloadInternal);
+  }
+
+  @Override
+  public MediaItem getMediaItem() {
+    return mediaSource.getMediaItem();
+  }
+
+  @Override
+  protected void prepareSourceInternal(@Nullable TransferListener mediaTransferListener) {
+    super.prepareSourceInternal(mediaTransferListener);
+    isPrepared = true;
+    prepareChildSource(/* id= */ null, mediaSource);
+  }
+
+  @Override
+  public MediaPeriod createPeriod(MediaPeriodId id, Allocator allocator, long startPositionUs) {
+    @Nullable PreloadMediaPeriod preloadMediaPeriod = this.preloadMediaPeriod;
+    if (preloadMediaPeriod != null) {
+      MediaPeriodId preloadPeriodId = Assertions.checkNotNull(this.preloadPeriodId);
+      if (!id.isAd()
+          && id.periodUid.equals(preloadPeriodId.periodUid)
+          && startPositionUs == preloadPeriodPositionUs) {
+        // Hand the preloaded period over. It keeps loading into the allocator of the preload.
+        this.preloadMediaPeriod = null;
+        preloadAllocator = null;
+        finishPreload();
+        preloadManager.onPreloadHit(this);
+        return preloadMediaPeriod;
+      }
+    }
+    if (isPreloadRequested) {
+      cancelPreload();
+      preloadManager.onPreloadMiss(this);
+    }
+    return mediaSource.createPeriod(id, allocator, startPositionUs);
+  }
+
+  @Override
+  public void releasePeriod(MediaPeriod mediaPeriod) {
+    if (mediaPeriod instanceof PreloadMediaPeriod) {
+      mediaSource.releasePeriod(((PreloadMediaPeriod) mediaPeriod).mediaPeriod);
+    } else {
+      mediaSource.releasePeriod(mediaPeriod);
+    }
+  }
+
+  @Override
+  protected void releaseSourceInternal() {
+    super.releaseSourceInternal();
+    isPrepared = false;
+  }
+
+  @Override
+  protected void onChildSourceInfoRefreshed(Void id, MediaSource mediaSource, Timeline timeline) {
+    refreshSourceInfo(timeline);
+  }
+
+  /** Returns the number of bytes allocated by the preloaded period. */
+  /* package */ int getPreloadedBytes() {
+    @Nullable DefaultAllocator preloadAllocator = this.preloadAllocator;
+    return preloadAllocator != null ? preloadAllocator.getTotalBytesAllocated() : 0;
+  }
+
+  /**
+   * Continues loading the preloaded period if it has buffered less than the target preload duration
+   * and the {@link PreloadManager} allows more memory to be used.
+   */
+  /* package */ void maybeContinuePreloading() {
+    @Nullable PreloadMediaPeriod preloadMediaPeriod = this.preloadMediaPeriod;
+    if (preloadMediaPeriod == null || !preloadMediaPeriod.hasPreloadTrackSelection()) {
+      return;
+    }
+    long bufferedPositionUs = preloadMediaPeriod.getBufferedPositionUs();
+    if (bufferedPositionUs == C.TIME_END_OF_SOURCE
+        || bufferedPositionUs - preloadPeriodPositionUs
+            >= preloadManager.getTargetPreloadDurationUs()
+        || !preloadManager.canContinuePreloading()) {
+      return;
+    }
+    preloadMediaPeriod.continueLoading(preloadPeriodPositionUs);
+  }
+
+  /* package */ void releasePreloadInternal() {
+    if (!isPreloadRequested) {
+      return;
+    }
+    cancelPreload();
+    preloadManager.onPreloadCanceled(this);
+  }
+
+  private void preloadInternal(long startPositionUs) {
+    if (isPreloadRequested || isPrepared || preloadManager.isReleased()) {
+      // Already preloading, or already prepared by the player.
+      return;
+    }
+    isPreloadRequested = true;
+    preloadStartPositionUs = startPositionUs;
+    preloadManager.onPreloadStarted(this);
+    prepareSource(preloadCallback, /* mediaTransferListener= */ null, PlayerId.UNSET);
+  }
+
+  private void cancelPreload() {
+    @Nullable PreloadMediaPeriod preloadMediaPeriod = this.preloadMediaPeriod;
+    if (preloadMediaPeriod != null) {
+      preloadMediaPeriod.disablePreloadTrackSelections();
+      mediaSource.releasePeriod(preloadMediaPeriod.mediaPeriod);
+      Assertions.checkNotNull(preloadAllocator).reset();
+      this.preloadMediaPeriod = null;
+      preloadAllocator = null;
+    }
+    finishPreload();
+  }
+
+  private void finishPreload() {
+    isPreloadRequested = false;
+    preloadTimeline = null;
+    preloadPeriodId = null;
+    preloadPeriodPositionUs = C.TIME_UNSET;
+    releaseSource(preloadCallback);
+  }
+
+  private void onPreloadSourceInfoRefreshed(Timeline timeline) {
+    if (!isPreloadRequested || preloadMediaPeriod != null || timeline.isEmpty()) {
+      return;
+    }
+    Pair<Object, Long> periodPositionUs =
+        timeline.getPeriodPositionUs(
+            window, period, /* windowIndex= */ 0, /* windowPositionUs= */ preloadStartPositionUs);
+    MediaPeriodId preloadPeriodId = new MediaPeriodId(periodPositionUs.first);
+    DefaultAllocator preloadAllocator =
+        new DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    PreloadMediaPeriod preloadMediaPeriod =
+        new PreloadMediaPeriod(
+            mediaSource.createPeriod(preloadPeriodId, preloadAllocator, periodPositionUs.second));
+    this.preloadTimeline = timeline;
+    this.preloadPeriodId = preloadPeriodId;
+    this.preloadPeriodPositionUs = periodPositionUs.second;
+    this.preloadAllocator = preloadAllocator;
+    this.preloadMediaPeriod = preloadMediaPeriod;
+    preloadMediaPeriod.prepare(preloadCallback, preloadPeriodPositionUs);
+  }
+
+  private void onPreloadPeriodPrepared(MediaPeriod mediaPeriod) {
+    @Nullable PreloadMediaPeriod preloadMediaPeriod = this.preloadMediaPeriod;
+    if (preloadMediaPeriod != mediaPeriod) {
+      return;
+    }
+    TrackSelectorResult trackSelectorResult;
+    try {
+      trackSelectorResult =
+          preloadManager.selectTracks(
+              preloadMediaPeriod.getTrackGroups(),
+              Assertions.checkNotNull(preloadPeriodId),
+              Assertions.checkNotNull(preloadTimeline));
+    } catch (ExoPlaybackException e) {
+      // Keep the prepared period without buffering. The player will select tracks itself.
+      Log.w(TAG, "Failed to select tracks for preloading", e);
+      return;
+    }
+    preloadMediaPeriod.selectPreloadTracks(trackSelectorResult.selections, preloadPeriodPositionUs);
+    preloadManager.onPreloadProgress(this);
+  }
+
+  private final class PreloadCallback implements MediaSourceCaller, MediaPeriod.Callback {
+
+    @Override
+    public void onSourceInfoRefreshed(MediaSource source, Timeline timeline) {
+      onPreloadSourceInfoRefreshed(timeline);
+    }
+
+    @Override
+    public void onPrepared(MediaPeriod mediaPeriod) {
+      onPreloadPeriodPrepared(mediaPeriod);
+    }
+
+    @Override
+    public void onContinueLoadingRequested(MediaPeriod source) {
+      preloadManager.onPreloadProgress(PreloadMediaSource.this);
+    }
+  }
+}
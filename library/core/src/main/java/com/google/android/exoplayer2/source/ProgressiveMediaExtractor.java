@@ -86,6 +86,20 @@ public interface ProgressiveMediaExtractor {
    */
   void seek(long position, long seekTimeUs);
 
+  /**
+   * Notifies the extracting infrastructure that a seek has occurred to a position from which
+   * reading yields the sample at {@code timeUs}.
+   *
+   * <p>The default implementation calls {@link #seek(long, long)}.
+   *
+   * @param position The byte offset in the stream from which data will be provided.
+   * @param timeUs The time of the sample that can be read from {@code position}, in microseconds.
+   * @see Extractor#seekToKnownPosition(long, long)
+   */
+  default void seekToKnownPosition(long position, long timeUs) {
+    seek(position, timeUs);
+  }
+
   /**
    * Extracts data starting at the current input stream position.
    *
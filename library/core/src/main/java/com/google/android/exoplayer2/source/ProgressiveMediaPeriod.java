@@ -36,6 +36,7 @@ import com.google.android.exoplayer2.extractor.PositionHolder;
 import com.google.android.exoplayer2.extractor.SeekMap;
 import com.google.android.exoplayer2.extractor.SeekMap.SeekPoints;
 import com.google.android.exoplayer2.extractor.SeekMap.Unseekable;
+import com.google.android.exoplayer2.extractor.SeekPoint;
 import com.google.android.exoplayer2.extractor.TrackOutput;
 import com.google.android.exoplayer2.metadata.Metadata;
 import com.google.android.exoplayer2.metadata.icy.IcyHeaders;
@@ -43,6 +44,7 @@ import com.google.android.exoplayer2.source.SampleQueue.UpstreamFormatChangedLis
 import com.google.android.exoplayer2.source.SampleStream.ReadFlags;
 import com.google.android.exoplayer2.trackselection.ExoTrackSelection;
 import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DataReader;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSourceUtil;
 import com.google.android.exoplayer2.upstream.DataSpec;
@@ -110,6 +112,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   private final Allocator allocator;
   @Nullable private final String customCacheKey;
   private final long continueLoadingCheckIntervalBytes;
+  @Nullable private final KeyframeIndex keyframeIndex;
   private final Loader loader;
   private final ProgressiveMediaExtractor progressiveMediaExtractor;
   private final ConditionVariable loadCondition;
@@ -174,7 +177,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       Listener listener,
       Allocator allocator,
       @Nullable String customCacheKey,
-      int continueLoadingCheckIntervalBytes) {
+      int continueLoadingCheckIntervalBytes,
+      @Nullable KeyframeIndex keyframeIndex) {
     this.uri = uri;
     this.dataSource = dataSource;
     this.drmSessionManager = drmSessionManager;
@@ -185,6 +189,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     this.allocator = allocator;
     this.customCacheKey = customCacheKey;
     this.continueLoadingCheckIntervalBytes = continueLoadingCheckIntervalBytes;
+    this.keyframeIndex = keyframeIndex;
     loader = new Loader("ProgressiveMediaPeriod");
     this.progressiveMediaExtractor = progressiveMediaExtractor;
     loadCondition = new ConditionVariable();
@@ -225,6 +230,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       sampleQueue.release();
     }
     progressiveMediaExtractor.release();
+    closeParkedConnections();
   }
 
   @Override
@@ -680,7 +686,12 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
   @Override
   public TrackOutput track(int id, int type) {
-    return prepareTrackOutput(new TrackId(id, /* isIcyTrack= */ false));
+    TrackOutput trackOutput = prepareTrackOutput(new TrackId(id, /* isIcyTrack= */ false));
+    if (keyframeIndex != null && (type == C.TRACK_TYPE_VIDEO || type == C.TRACK_TYPE_AUDIO)) {
+      keyframeIndex.registerTrack(id, type);
+      return new KeyframeIndexingTrackOutput(id, trackOutput);
+    }
+    return trackOutput;
   }
 
   @Override
@@ -691,7 +702,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
   @Override
   public void seekMap(SeekMap seekMap) {
-    handler.post(() -> setSeekMap(seekMap));
+    SeekMap indexedSeekMap = keyframeIndex != null ? keyframeIndex.wrapSeekMap(seekMap) : seekMap;
+    handler.post(() -> setSeekMap(indexedSeekMap));
   }
 
   // Icy metadata. Called by the loading thread.
@@ -805,9 +817,16 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
         pendingResetPositionUs = C.TIME_UNSET;
         return;
       }
-      loadable.setLoadPosition(
-          Assertions.checkNotNull(seekMap).getSeekPoints(pendingResetPositionUs).first.position,
-          pendingResetPositionUs);
+      @Nullable
+      SeekPoint indexedSeekPoint =
+          keyframeIndex != null ? keyframeIndex.getSeekPoint(pendingResetPositionUs) : null;
+      if (indexedSeekPoint != null) {
+        loadable.setIndexedLoadPosition(indexedSeekPoint, pendingResetPositionUs);
+      } else {
+        loadable.setLoadPosition(
+            Assertions.checkNotNull(seekMap).getSeekPoints(pendingResetPositionUs).first.position,
+            pendingResetPositionUs);
+      }
       for (SampleQueue sampleQueue : sampleQueues) {
         sampleQueue.setStartTimeUs(pendingResetPositionUs);
       }
@@ -912,6 +931,12 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     return largestQueuedTimestampUs;
   }
 
+  private void closeParkedConnections() {
+    if (dataSource instanceof MultiPositionDataSource) {
+      ((MultiPositionDataSource) dataSource).closeParkedConnections();
+    }
+  }
+
   private boolean isPendingReset() {
     return pendingResetPositionUs != C.TIME_UNSET;
   }
@@ -968,6 +993,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
     private boolean pendingExtractorSeek;
     private long seekTimeUs;
+    private long indexedSeekPointTimeUs;
+    private long lastReadPosition;
     private DataSpec dataSpec;
     private long length;
     @Nullable private TrackOutput icyTrackOutput;
@@ -988,6 +1015,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       this.positionHolder = new PositionHolder();
       this.pendingExtractorSeek = true;
       this.length = C.LENGTH_UNSET;
+      indexedSeekPointTimeUs = C.TIME_UNSET;
+      lastReadPosition = C.POSITION_UNSET;
       loadTaskId = LoadEventInfo.getNewId();
       dataSpec = buildDataSpec(/* position= */ 0);
     }
@@ -1029,8 +1058,15 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
             progressiveMediaExtractor.disableSeekingOnMp3Streams();
           }
 
+          if (keyframeIndex != null && position != lastReadPosition) {
+            keyframeIndex.onPositionReset(position, length);
+          }
           if (pendingExtractorSeek) {
-            progressiveMediaExtractor.seek(position, seekTimeUs);
+            if (indexedSeekPointTimeUs != C.TIME_UNSET) {
+              progressiveMediaExtractor.seekToKnownPosition(position, indexedSeekPointTimeUs);
+            } else {
+              progressiveMediaExtractor.seek(position, seekTimeUs);
+            }
             pendingExtractorSeek = false;
           }
           while (result == Extractor.RESULT_CONTINUE && !loadCanceled) {
@@ -1047,15 +1083,26 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
               handler.post(onContinueLoadingRequestedRunnable);
             }
           }
+          if (keyframeIndex != null && result == Extractor.RESULT_END_OF_INPUT) {
+            keyframeIndex.onEndOfInput();
+          }
         } finally {
+          lastReadPosition = progressiveMediaExtractor.getCurrentInputPosition();
           if (result == Extractor.RESULT_SEEK) {
             result = Extractor.RESULT_CONTINUE;
           } else if (progressiveMediaExtractor.getCurrentInputPosition() != C.POSITION_UNSET) {
             positionHolder.position = progressiveMediaExtractor.getCurrentInputPosition();
           }
           DataSourceUtil.closeQuietly(dataSource);
+          if (result != Extractor.RESULT_CONTINUE || loadCanceled) {
+            closeParkedConnections();
+          }
         }
       }
+      if (keyframeIndex != null) {
+        // Storing the index may write the cache index to disk, so it's done on the loading thread.
+        keyframeIndex.maybeStore();
+      }
     }
 
     // IcyDataSource.Listener
@@ -1091,9 +1138,75 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     private void setLoadPosition(long position, long timeUs) {
       positionHolder.position = position;
       seekTimeUs = timeUs;
+      indexedSeekPointTimeUs = C.TIME_UNSET;
       pendingExtractorSeek = true;
       seenIcyMetadata = false;
     }
+
+    private void setIndexedLoadPosition(SeekPoint indexedSeekPoint, long timeUs) {
+      setLoadPosition(indexedSeekPoint.position, timeUs);
+      indexedSeekPointTimeUs = indexedSeekPoint.timeUs;
+    }
+  }
+
+  /** Forwards to a {@link SampleQueue}, recording the positions of key frames in the index. */
+  private final class KeyframeIndexingTrackOutput implements TrackOutput {
+
+    private final int id;
+    private final TrackOutput trackOutput;
+
+    private long sampleStartPosition;
+
+    public KeyframeIndexingTrackOutput(int id, TrackOutput trackOutput) {
+      this.id = id;
+      this.trackOutput = trackOutput;
+      sampleStartPosition = C.POSITION_UNSET;
+    }
+
+    @Override
+    public void format(Format format) {
+      trackOutput.format(format);
+    }
+
+    @Override
+    public int sampleData(
+        DataReader input, int length, boolean allowEndOfInput, @SampleDataPart int sampleDataPart)
+        throws IOException {
+      if (sampleStartPosition == C.POSITION_UNSET) {
+        sampleStartPosition = progressiveMediaExtractor.getCurrentInputPosition();
+      }
+      return trackOutput.sampleData(input, length, allowEndOfInput, sampleDataPart);
+    }
+
+    @Override
+    public void sampleData(ParsableByteArray data, int length, @SampleDataPart int sampleDataPart) {
+      long inputPosition = progressiveMediaExtractor.getCurrentInputPosition();
+      if (sampleStartPosition == C.POSITION_UNSET && inputPosition != C.POSITION_UNSET) {
+        // The data has already been read from the input. Assuming it was read into this buffer, the
+        // sample cannot start before the position its first byte would have if the buffer had been
+        // filled up to its capacity.
+        sampleStartPosition = max(0, inputPosition - data.capacity() + data.getPosition());
+      }
+      trackOutput.sampleData(data, length, sampleDataPart);
+    }
+
+    @Override
+    public void sampleMetadata(
+        long timeUs,
+        @C.BufferFlags int flags,
+        int size,
+        int offset,
+        @Nullable CryptoData cryptoData) {
+      trackOutput.sampleMetadata(timeUs, flags, size, offset, cryptoData);
+      if ((flags & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        long position =
+            sampleStartPosition != C.POSITION_UNSET
+                ? sampleStartPosition
+                : progressiveMediaExtractor.getCurrentInputPosition();
+        Assertions.checkNotNull(keyframeIndex).onKeyframe(id, timeUs, position);
+      }
+      sampleStartPosition = C.POSITION_UNSET;
+    }
   }
 
   /** Stores track state. */
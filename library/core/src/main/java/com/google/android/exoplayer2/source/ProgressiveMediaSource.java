@@ -15,6 +15,7 @@
  */
 package com.google.android.exoplayer2.source;
 
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
 import static com.google.android.exoplayer2.util.Assertions.checkNotNull;
 
 import android.net.Uri;
@@ -34,6 +35,8 @@ import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultLoadErrorHandlingPolicy;
 import com.google.android.exoplayer2.upstream.LoadErrorHandlingPolicy;
 import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.ContentMetadata;
 
 /**
  * Provides one period that loads data from a {@link Uri} and extracted using an {@link Extractor}.
@@ -59,6 +62,8 @@ public final class ProgressiveMediaSource extends BaseMediaSource
     private DrmSessionManagerProvider drmSessionManagerProvider;
     private LoadErrorHandlingPolicy loadErrorHandlingPolicy;
     private int continueLoadingCheckIntervalBytes;
+    private int maxConcurrentReadPositions;
+    @Nullable private Cache keyframeIndexCache;
     @Nullable private String customCacheKey;
     @Nullable private Object tag;
 
@@ -151,6 +156,7 @@ public final class ProgressiveMediaSource extends BaseMediaSource
       this.drmSessionManagerProvider = drmSessionManagerProvider;
       this.loadErrorHandlingPolicy = loadErrorHandlingPolicy;
       this.continueLoadingCheckIntervalBytes = continueLoadingCheckIntervalBytes;
+      maxConcurrentReadPositions = 1;
     }
 
     @Override
@@ -179,6 +185,53 @@ public final class ProgressiveMediaSource extends BaseMediaSource
       return this;
     }
 
+    /**
+     * Sets the maximum number of positions in the media that can be read through concurrently open
+     * connections. The default value is 1.
+     *
+     * <p>Extractors for badly interleaved media, such as MP4 files whose audio and video samples
+     * are far apart, alternate between reading from different regions of the media. With a value
+     * greater than 1, the connection to each region is kept open while another region is read, so
+     * that returning to it doesn't require opening a new connection.
+     *
+     * @param maxConcurrentReadPositions The maximum number of positions that can be read through
+     *     concurrently open connections.
+     * @return This factory, for convenience.
+     */
+    public Factory setMaxConcurrentReadPositions(int maxConcurrentReadPositions) {
+      checkArgument(maxConcurrentReadPositions > 0);
+      this.maxConcurrentReadPositions = maxConcurrentReadPositions;
+      return this;
+    }
+
+    /**
+     * Sets the {@link Cache} in which to store an index of the key frames in each stream, or {@code
+     * null} to not index key frames. The default value is {@code null}.
+     *
+     * <p>Seeking in streams for which the extractor can only estimate seek positions, such as MPEG
+     * transport streams, requires several requests to search for the seek position. With a cache
+     * set, the positions of key frames are recorded while a stream is played and stored in the
+     * {@link ContentMetadata} of the stream in the cache. Seeks to parts of the stream that have
+     * been played before then require a single request.
+     *
+     * <p>The index is only kept across sessions if the stream itself is cached in the same {@link
+     * Cache}, for example because the stream is loaded through a {@link
+     * com.google.android.exoplayer2.upstream.cache.CacheDataSource} that writes to it. Caches such
+     * as {@link com.google.android.exoplayer2.upstream.cache.SimpleCache} discard the metadata of
+     * content that has no cached data when they're initialized.
+     *
+     * <p>The index is stored under the custom cache key of the stream if it has one, or under its
+     * URI otherwise.
+     *
+     * @param keyframeIndexCache The {@link Cache} in which to store key frame indices, or {@code
+     *     null} to not index key frames.
+     * @return This factory, for convenience.
+     */
+    public Factory setKeyframeIndexCache(@Nullable Cache keyframeIndexCache) {
+      this.keyframeIndexCache = keyframeIndexCache;
+      return this;
+    }
+
     @Override
     public Factory setDrmSessionManagerProvider(
         DrmSessionManagerProvider drmSessionManagerProvider) {
@@ -217,7 +270,9 @@ public final class ProgressiveMediaSource extends BaseMediaSource
           progressiveMediaExtractorFactory,
           drmSessionManagerProvider.get(mediaItem),
           loadErrorHandlingPolicy,
-          continueLoadingCheckIntervalBytes);
+          continueLoadingCheckIntervalBytes,
+          maxConcurrentReadPositions,
+          keyframeIndexCache);
     }
 
     @Override
@@ -239,6 +294,8 @@ public final class ProgressiveMediaSource extends BaseMediaSource
   private final DrmSessionManager drmSessionManager;
   private final LoadErrorHandlingPolicy loadableLoadErrorHandlingPolicy;
   private final int continueLoadingCheckIntervalBytes;
+  private final int maxConcurrentReadPositions;
+  @Nullable private final Cache keyframeIndexCache;
 
   private boolean timelineIsPlaceholder;
   private long timelineDurationUs;
@@ -252,7 +309,9 @@ public final class ProgressiveMediaSource extends BaseMediaSource
       ProgressiveMediaExtractor.Factory progressiveMediaExtractorFactory,
       DrmSessionManager drmSessionManager,
       LoadErrorHandlingPolicy loadableLoadErrorHandlingPolicy,
-      int continueLoadingCheckIntervalBytes) {
+      int continueLoadingCheckIntervalBytes,
+      int maxConcurrentReadPositions,
+      @Nullable Cache keyframeIndexCache) {
     this.localConfiguration = checkNotNull(mediaItem.localConfiguration);
     this.mediaItem = mediaItem;
     this.dataSourceFactory = dataSourceFactory;
@@ -260,6 +319,8 @@ public final class ProgressiveMediaSource extends BaseMediaSource
     this.drmSessionManager = drmSessionManager;
     this.loadableLoadErrorHandlingPolicy = loadableLoadErrorHandlingPolicy;
     this.continueLoadingCheckIntervalBytes = continueLoadingCheckIntervalBytes;
+    this.maxConcurrentReadPositions = maxConcurrentReadPositions;
+    this.keyframeIndexCache = keyframeIndexCache;
     this.timelineIsPlaceholder = true;
     this.timelineDurationUs = C.TIME_UNSET;
   }
@@ -285,10 +346,21 @@ public final class ProgressiveMediaSource extends BaseMediaSource
 
   @Override
   public MediaPeriod createPeriod(MediaPeriodId id, Allocator allocator, long startPositionUs) {
-    DataSource dataSource = dataSourceFactory.createDataSource();
+    DataSource dataSource =
+        maxConcurrentReadPositions > 1
+            ? new MultiPositionDataSource(dataSourceFactory, maxConcurrentReadPositions)
+            : dataSourceFactory.createDataSource();
     if (transferListener != null) {
       dataSource.addTransferListener(transferListener);
     }
+    @Nullable KeyframeIndex keyframeIndex = null;
+    if (keyframeIndexCache != null) {
+      String cacheKey =
+          localConfiguration.customCacheKey != null
+              ? localConfiguration.customCacheKey
+              : localConfiguration.uri.toString();
+      keyframeIndex = new KeyframeIndex(keyframeIndexCache, cacheKey);
+    }
     return new ProgressiveMediaPeriod(
         localConfiguration.uri,
         dataSource,
@@ -300,7 +372,8 @@ public final class ProgressiveMediaSource extends BaseMediaSource
         this,
         allocator,
         localConfiguration.customCacheKey,
-        continueLoadingCheckIntervalBytes);
+        continueLoadingCheckIntervalBytes,
+        keyframeIndex);
   }
 
   @Override
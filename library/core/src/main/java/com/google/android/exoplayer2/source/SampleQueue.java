@@ -78,6 +78,11 @@ public class SampleQueue implements TrackOutput {
   @Nullable private Format downstreamFormat;
   @Nullable private DrmSession currentDrmSession;
 
+  // Sample metadata is stored in a ring of parallel arrays. The loading thread writes the metadata
+  // of each sample into the slot following the last queued sample, and then publishes it by
+  // incrementing writeIndex. Since the consuming thread only accesses slots of samples that have
+  // been published, queuing a sample doesn't require holding the lock on this queue. The lock is
+  // still held for operations that move or remove queued samples, and by the consuming thread.
   private int capacity;
   private int[] sourceIds;
   private long[] offsets;
@@ -86,20 +91,22 @@ public class SampleQueue implements TrackOutput {
   private long[] timesUs;
   private @NullableType CryptoData[] cryptoDatas;
 
-  private int length;
-  private int absoluteFirstIndex;
+  private volatile int writeIndex;
+  private int relativeWriteIndex;
+  private volatile int absoluteFirstIndex;
   private int relativeFirstIndex;
   private int readPosition;
 
   private long startTimeUs;
   private long largestDiscardedTimestampUs;
-  private long largestQueuedTimestampUs;
-  private boolean isLastSampleQueued;
+  private volatile long largestQueuedTimestampUs;
+  private volatile boolean isLastSampleQueued;
   private boolean upstreamKeyframeRequired;
   private boolean upstreamFormatRequired;
   private boolean upstreamFormatAdjustmentRequired;
   @Nullable private Format unadjustedUpstreamFormat;
   @Nullable private Format upstreamFormat;
+  @Nullable private Format upstreamCommittedFormat;
   private int upstreamSourceId;
   private boolean upstreamAllSamplesAreSyncSamples;
   private boolean loggedUnexpectedNonSyncSample;
@@ -206,7 +213,8 @@ public class SampleQueue implements TrackOutput {
   @CallSuper
   public void reset(boolean resetUpstreamFormat) {
     sampleDataQueue.reset();
-    length = 0;
+    writeIndex = 0;
+    relativeWriteIndex = 0;
     absoluteFirstIndex = 0;
     relativeFirstIndex = 0;
     readPosition = 0;
@@ -216,6 +224,7 @@ public class SampleQueue implements TrackOutput {
     largestQueuedTimestampUs = Long.MIN_VALUE;
     isLastSampleQueued = false;
     sharedSampleMetadata.clear();
+    upstreamCommittedFormat = null;
     if (resetUpstreamFormat) {
       unadjustedUpstreamFormat = null;
       upstreamFormat = null;
@@ -249,7 +258,7 @@ public class SampleQueue implements TrackOutput {
 
   /** Returns the current absolute write index. */
   public final int getWriteIndex() {
-    return absoluteFirstIndex + length;
+    return writeIndex;
   }
 
   /**
@@ -270,7 +279,7 @@ public class SampleQueue implements TrackOutput {
    *     than {@link #getLargestReadTimestampUs()}.
    */
   public final void discardUpstreamFrom(long timeUs) {
-    if (length == 0) {
+    if (getLength() == 0) {
       return;
     }
     checkArgument(timeUs > getLargestReadTimestampUs());
@@ -318,7 +327,7 @@ public class SampleQueue implements TrackOutput {
    */
   public final synchronized int peekSourceId() {
     int relativeReadIndex = getRelativeIndex(readPosition);
-    return hasNextSample() ? sourceIds[relativeReadIndex] : upstreamSourceId;
+    return hasNextSample(getLength()) ? sourceIds[relativeReadIndex] : upstreamSourceId;
   }
 
   /** Returns the upstream {@link Format} in which samples are being queued. */
@@ -337,7 +346,7 @@ public class SampleQueue implements TrackOutput {
    * @return The largest sample timestamp that has been queued, or {@link Long#MIN_VALUE} if no
    *     samples have been queued.
    */
-  public final synchronized long getLargestQueuedTimestampUs() {
+  public final long getLargestQueuedTimestampUs() {
     return largestQueuedTimestampUs;
   }
 
@@ -360,13 +369,13 @@ public class SampleQueue implements TrackOutput {
    * considered as having been queued. Samples that were dequeued from the front of the queue are
    * considered as having been queued.
    */
-  public final synchronized boolean isLastSampleQueued() {
+  public final boolean isLastSampleQueued() {
     return isLastSampleQueued;
   }
 
   /** Returns the timestamp of the first sample, or {@link Long#MIN_VALUE} if the queue is empty. */
   public final synchronized long getFirstTimestampUs() {
-    return length == 0 ? Long.MIN_VALUE : timesUs[relativeFirstIndex];
+    return getLength() == 0 ? Long.MIN_VALUE : timesUs[relativeFirstIndex];
   }
 
   /**
@@ -383,7 +392,9 @@ public class SampleQueue implements TrackOutput {
   @SuppressWarnings("ReferenceEquality") // See comments in setUpstreamFormat
   @CallSuper
   public synchronized boolean isReady(boolean loadingFinished) {
-    if (!hasNextSample()) {
+    // Read isLastSampleQueued before the length, so that the last sample is visible if it's set.
+    boolean isLastSampleQueued = this.isLastSampleQueued;
+    if (!hasNextSample(getLength())) {
       return loadingFinished
           || isLastSampleQueued
           || (upstreamFormat != null && upstreamFormat != downstreamFormat);
@@ -450,7 +461,7 @@ public class SampleQueue implements TrackOutput {
    */
   public final synchronized boolean seekTo(int sampleIndex) {
     rewind();
-    if (sampleIndex < absoluteFirstIndex || sampleIndex > absoluteFirstIndex + length) {
+    if (sampleIndex < absoluteFirstIndex || sampleIndex > writeIndex) {
       return false;
     }
     startTimeUs = Long.MIN_VALUE;
@@ -468,8 +479,9 @@ public class SampleQueue implements TrackOutput {
    */
   public final synchronized boolean seekTo(long timeUs, boolean allowTimeBeyondBuffer) {
     rewind();
+    int length = getLength();
     int relativeReadIndex = getRelativeIndex(readPosition);
-    if (!hasNextSample()
+    if (!hasNextSample(length)
         || timeUs < timesUs[relativeReadIndex]
         || (timeUs > largestQueuedTimestampUs && !allowTimeBeyondBuffer)) {
       return false;
@@ -494,8 +506,9 @@ public class SampleQueue implements TrackOutput {
    * @return The number of samples that need to be skipped, which may be equal to 0.
    */
   public final synchronized int getSkipCount(long timeUs, boolean allowEndOfQueue) {
+    int length = getLength();
     int relativeReadIndex = getRelativeIndex(readPosition);
-    if (!hasNextSample() || timeUs < timesUs[relativeReadIndex]) {
+    if (!hasNextSample(length) || timeUs < timesUs[relativeReadIndex]) {
       return 0;
     }
     if (timeUs > largestQueuedTimestampUs && allowEndOfQueue) {
@@ -516,7 +529,7 @@ public class SampleQueue implements TrackOutput {
    *     most {@link #getWriteIndex()} - {@link #getReadIndex()}.
    */
   public final synchronized void skip(int count) {
-    checkArgument(count >= 0 && readPosition + count <= length);
+    checkArgument(count >= 0 && readPosition + count <= getLength());
     readPosition += count;
   }
 
@@ -689,7 +702,9 @@ public class SampleQueue implements TrackOutput {
       boolean loadingFinished,
       SampleExtrasHolder extrasHolder) {
     buffer.waitingForKeys = false;
-    if (!hasNextSample()) {
+    // Read isLastSampleQueued before the length, so that the last sample is visible if it's set.
+    boolean isLastSampleQueued = this.isLastSampleQueued;
+    if (!hasNextSample(getLength())) {
       if (loadingFinished || isLastSampleQueued) {
         buffer.setFlags(C.BUFFER_FLAG_END_OF_STREAM);
         return C.RESULT_BUFFER_READ;
@@ -751,6 +766,7 @@ public class SampleQueue implements TrackOutput {
 
   private synchronized long discardSampleMetadataTo(
       long timeUs, boolean toKeyframe, boolean stopAtReadPosition) {
+    int length = getLength();
     if (length == 0 || timeUs < timesUs[relativeFirstIndex]) {
       return C.POSITION_UNSET;
     }
@@ -770,6 +786,7 @@ public class SampleQueue implements TrackOutput {
   }
 
   private synchronized long discardSampleMetadataToEnd() {
+    int length = getLength();
     if (length == 0) {
       return C.POSITION_UNSET;
     }
@@ -786,75 +803,90 @@ public class SampleQueue implements TrackOutput {
     }
   }
 
-  private synchronized void commitSample(
+  private void commitSample(
       long timeUs,
       @C.BufferFlags int sampleFlags,
       long offset,
       int size,
       @Nullable CryptoData cryptoData) {
-    if (length > 0) {
+    int writeIndex = this.writeIndex;
+    int relativeEndIndex = relativeWriteIndex;
+    if (writeIndex > absoluteFirstIndex) {
       // Ensure sample data doesn't overlap.
-      int previousSampleRelativeIndex = getRelativeIndex(length - 1);
+      int previousSampleRelativeIndex = (relativeEndIndex == 0 ? capacity : relativeEndIndex) - 1;
       checkArgument(
           offsets[previousSampleRelativeIndex] + sizes[previousSampleRelativeIndex] <= offset);
     }
 
-    isLastSampleQueued = (sampleFlags & C.BUFFER_FLAG_LAST_SAMPLE) != 0;
-    largestQueuedTimestampUs = max(largestQueuedTimestampUs, timeUs);
-
-    int relativeEndIndex = getRelativeIndex(length);
+    // The slot at relativeEndIndex isn't accessed by the consuming thread until it's published.
     timesUs[relativeEndIndex] = timeUs;
     offsets[relativeEndIndex] = offset;
     sizes[relativeEndIndex] = size;
     flags[relativeEndIndex] = sampleFlags;
     cryptoDatas[relativeEndIndex] = cryptoData;
     sourceIds[relativeEndIndex] = upstreamSourceId;
+    largestQueuedTimestampUs = max(largestQueuedTimestampUs, timeUs);
+
+    if (upstreamCommittedFormat == null || !upstreamCommittedFormat.equals(upstreamFormat)) {
+      appendSharedSampleMetadata(writeIndex, checkNotNull(upstreamFormat));
+    }
 
-    if (sharedSampleMetadata.isEmpty()
-        || !sharedSampleMetadata.getEndValue().format.equals(upstreamFormat)) {
-      DrmSessionReference drmSessionReference =
-          drmSessionManager != null
-              ? drmSessionManager.preacquireSession(drmEventDispatcher, upstreamFormat)
-              : DrmSessionReference.EMPTY;
+    relativeWriteIndex = relativeEndIndex + 1 == capacity ? 0 : relativeEndIndex + 1;
+    this.writeIndex = writeIndex + 1;
+    isLastSampleQueued = (sampleFlags & C.BUFFER_FLAG_LAST_SAMPLE) != 0;
 
-      sharedSampleMetadata.appendSpan(
-          getWriteIndex(),
-          new SharedSampleMetadata(checkNotNull(upstreamFormat), drmSessionReference));
+    // absoluteFirstIndex may be stale, in which case the capacity is checked again while holding
+    // the lock.
+    if (writeIndex + 1 - absoluteFirstIndex >= capacity) {
+      maybeIncreaseCapacity();
     }
+  }
 
-    length++;
-    if (length == capacity) {
-      // Increase the capacity.
-      int newCapacity = capacity + SAMPLE_CAPACITY_INCREMENT;
-      int[] newSourceIds = new int[newCapacity];
-      long[] newOffsets = new long[newCapacity];
-      long[] newTimesUs = new long[newCapacity];
-      int[] newFlags = new int[newCapacity];
-      int[] newSizes = new int[newCapacity];
-      CryptoData[] newCryptoDatas = new CryptoData[newCapacity];
-      int beforeWrap = capacity - relativeFirstIndex;
-      System.arraycopy(offsets, relativeFirstIndex, newOffsets, 0, beforeWrap);
-      System.arraycopy(timesUs, relativeFirstIndex, newTimesUs, 0, beforeWrap);
-      System.arraycopy(flags, relativeFirstIndex, newFlags, 0, beforeWrap);
-      System.arraycopy(sizes, relativeFirstIndex, newSizes, 0, beforeWrap);
-      System.arraycopy(cryptoDatas, relativeFirstIndex, newCryptoDatas, 0, beforeWrap);
-      System.arraycopy(sourceIds, relativeFirstIndex, newSourceIds, 0, beforeWrap);
-      int afterWrap = relativeFirstIndex;
-      System.arraycopy(offsets, 0, newOffsets, beforeWrap, afterWrap);
-      System.arraycopy(timesUs, 0, newTimesUs, beforeWrap, afterWrap);
-      System.arraycopy(flags, 0, newFlags, beforeWrap, afterWrap);
-      System.arraycopy(sizes, 0, newSizes, beforeWrap, afterWrap);
-      System.arraycopy(cryptoDatas, 0, newCryptoDatas, beforeWrap, afterWrap);
-      System.arraycopy(sourceIds, 0, newSourceIds, beforeWrap, afterWrap);
-      offsets = newOffsets;
-      timesUs = newTimesUs;
-      flags = newFlags;
-      sizes = newSizes;
-      cryptoDatas = newCryptoDatas;
-      sourceIds = newSourceIds;
-      relativeFirstIndex = 0;
-      capacity = newCapacity;
+  private synchronized void appendSharedSampleMetadata(int startIndex, Format format) {
+    DrmSessionReference drmSessionReference =
+        drmSessionManager != null
+            ? drmSessionManager.preacquireSession(drmEventDispatcher, format)
+            : DrmSessionReference.EMPTY;
+    sharedSampleMetadata.appendSpan(
+        startIndex, new SharedSampleMetadata(format, drmSessionReference));
+    upstreamCommittedFormat = format;
+  }
+
+  private synchronized void maybeIncreaseCapacity() {
+    int length = getLength();
+    if (length < capacity) {
+      return;
     }
+    int newCapacity = capacity + SAMPLE_CAPACITY_INCREMENT;
+    int[] newSourceIds = new int[newCapacity];
+    long[] newOffsets = new long[newCapacity];
+    long[] newTimesUs = new long[newCapacity];
+    int[] newFlags = new int[newCapacity];
+    int[] newSizes = new int[newCapacity];
+    CryptoData[] newCryptoDatas = new CryptoData[newCapacity];
+    int beforeWrap = capacity - relativeFirstIndex;
+    System.arraycopy(offsets, relativeFirstIndex, newOffsets, 0, beforeWrap);
+    System.arraycopy(timesUs, relativeFirstIndex, newTimesUs, 0, beforeWrap);
+    System.arraycopy(flags, relativeFirstIndex, newFlags, 0, beforeWrap);
+    System.arraycopy(sizes, relativeFirstIndex, newSizes, 0, beforeWrap);
+    System.arraycopy(cryptoDatas, relativeFirstIndex, newCryptoDatas, 0, beforeWrap);
+    System.arraycopy(sourceIds, relativeFirstIndex, newSourceIds, 0, beforeWrap);
+    int afterWrap = relativeFirstIndex;
+    System.arraycopy(offsets, 0, newOffsets, beforeWrap, afterWrap);
+    System.arraycopy(timesUs, 0, newTimesUs, beforeWrap, afterWrap);
+    System.arraycopy(flags, 0, newFlags, beforeWrap, afterWrap);
+    System.arraycopy(sizes, 0, newSizes, beforeWrap, afterWrap);
+    System.arraycopy(cryptoDatas, 0, newCryptoDatas, beforeWrap, afterWrap);
+    System.arraycopy(sourceIds, 0, newSourceIds, beforeWrap, afterWrap);
+    offsets = newOffsets;
+    timesUs = newTimesUs;
+    flags = newFlags;
+    sizes = newSizes;
+    cryptoDatas = newCryptoDatas;
+    sourceIds = newSourceIds;
+    relativeFirstIndex = 0;
+    relativeWriteIndex = length;
+    capacity = newCapacity;
   }
 
   /**
@@ -865,7 +897,7 @@ public class SampleQueue implements TrackOutput {
    * @return Whether the splice was successful.
    */
   private synchronized boolean attemptSplice(long timeUs) {
-    if (length == 0) {
+    if (getLength() == 0) {
       return timeUs > largestDiscardedTimestampUs;
     }
     if (getLargestReadTimestampUs() >= timeUs) {
@@ -876,13 +908,17 @@ public class SampleQueue implements TrackOutput {
     return true;
   }
 
-  private long discardUpstreamSampleMetadata(int discardFromIndex) {
-    int discardCount = getWriteIndex() - discardFromIndex;
-    checkArgument(0 <= discardCount && discardCount <= (length - readPosition));
-    length -= discardCount;
+  private synchronized long discardUpstreamSampleMetadata(int discardFromIndex) {
+    int discardCount = writeIndex - discardFromIndex;
+    checkArgument(0 <= discardCount && discardCount <= (getLength() - readPosition));
+    writeIndex = discardFromIndex;
+    int length = getLength();
+    relativeWriteIndex = getRelativeIndex(length);
     largestQueuedTimestampUs = max(largestDiscardedTimestampUs, getLargestTimestamp(length));
     isLastSampleQueued = discardCount == 0 && isLastSampleQueued;
     sharedSampleMetadata.discardFrom(discardFromIndex);
+    upstreamCommittedFormat =
+        sharedSampleMetadata.isEmpty() ? null : sharedSampleMetadata.getEndValue().format;
     if (length != 0) {
       int relativeLastWriteIndex = getRelativeIndex(length - 1);
       return offsets[relativeLastWriteIndex] + sizes[relativeLastWriteIndex];
@@ -890,7 +926,7 @@ public class SampleQueue implements TrackOutput {
     return 0;
   }
 
-  private boolean hasNextSample() {
+  private boolean hasNextSample(int length) {
     return readPosition != length;
   }
 
@@ -987,6 +1023,7 @@ public class SampleQueue implements TrackOutput {
    * @return The number of unread samples with a timestamp smaller than {@code timeUs}.
    */
   private int countUnreadSamplesBefore(long timeUs) {
+    int length = getLength();
     int count = length;
     int relativeSampleIndex = getRelativeIndex(length - 1);
     while (count > readPosition && timesUs[relativeSampleIndex] >= timeUs) {
@@ -1009,24 +1046,26 @@ public class SampleQueue implements TrackOutput {
   private long discardSamples(int discardCount) {
     largestDiscardedTimestampUs =
         max(largestDiscardedTimestampUs, getLargestTimestamp(discardCount));
-    length -= discardCount;
-    absoluteFirstIndex += discardCount;
-    relativeFirstIndex += discardCount;
-    if (relativeFirstIndex >= capacity) {
-      relativeFirstIndex -= capacity;
+    int length = getLength() - discardCount;
+    int newRelativeFirstIndex = getRelativeIndex(discardCount);
+    // Determine the discard position before publishing the new first index, after which the slots
+    // of the discarded samples may be reused by the loading thread.
+    long discardToPosition;
+    if (length == 0) {
+      int relativeLastDiscardIndex =
+          (newRelativeFirstIndex == 0 ? capacity : newRelativeFirstIndex) - 1;
+      discardToPosition = offsets[relativeLastDiscardIndex] + sizes[relativeLastDiscardIndex];
+    } else {
+      discardToPosition = offsets[newRelativeFirstIndex];
     }
+    relativeFirstIndex = newRelativeFirstIndex;
+    absoluteFirstIndex += discardCount;
     readPosition -= discardCount;
     if (readPosition < 0) {
       readPosition = 0;
     }
     sharedSampleMetadata.discardTo(absoluteFirstIndex);
-
-    if (length == 0) {
-      int relativeLastDiscardIndex = (relativeFirstIndex == 0 ? capacity : relativeFirstIndex) - 1;
-      return offsets[relativeLastDiscardIndex] + sizes[relativeLastDiscardIndex];
-    } else {
-      return offsets[relativeFirstIndex];
-    }
+    return discardToPosition;
   }
 
   /**
@@ -1056,6 +1095,14 @@ public class SampleQueue implements TrackOutput {
     return largestTimestampUs;
   }
 
+  /**
+   * Returns the number of queued samples, including samples queued concurrently by the loading
+   * thread up to the time of the call.
+   */
+  private int getLength() {
+    return writeIndex - absoluteFirstIndex;
+  }
+
   /**
    * Returns the relative index for a given offset from the start of the queue.
    *
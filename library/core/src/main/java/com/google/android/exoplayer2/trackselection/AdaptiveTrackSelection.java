@@ -60,6 +60,8 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
     private final float bufferedFractionToLiveEdgeForQualityIncrease;
     private final Clock clock;
 
+    private boolean chunkSizeAwareSelectionEnabled;
+
     /** Creates an adaptive track selection factory with default parameters. */
     public Factory() {
       this(
@@ -227,6 +229,26 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
       this.clock = clock;
     }
 
+    /**
+     * Sets whether the created selections use the sizes of upcoming chunks, where known, to
+     * estimate the bitrate each track requires. Disabled by default.
+     *
+     * <p>Chunk sizes are known for DASH representations with a loaded segment index or explicit
+     * segment ranges, and for HLS segments with byte ranges. Using them avoids switching up just
+     * before chunks that are much larger than {@link Format#bitrate} suggests, as is common for
+     * variable bitrate content. Tracks whose chunk sizes are unknown use {@link Format#bitrate}.
+     *
+     * <p>This method is experimental, and will be renamed or removed in a future release.
+     *
+     * @param chunkSizeAwareSelectionEnabled Whether the created selections are chunk size aware.
+     * @return This factory, for convenience.
+     */
+    public Factory experimentalSetChunkSizeAwareSelectionEnabled(
+        boolean chunkSizeAwareSelectionEnabled) {
+      this.chunkSizeAwareSelectionEnabled = chunkSizeAwareSelectionEnabled;
+      return this;
+    }
+
     @Override
     public final @NullableType ExoTrackSelection[] createTrackSelections(
         @NullableType Definition[] definitions,
@@ -241,18 +263,22 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
         if (definition == null || definition.tracks.length == 0) {
           continue;
         }
-        selections[i] =
-            definition.tracks.length == 1
-                ? new FixedTrackSelection(
-                    definition.group,
-                    /* track= */ definition.tracks[0],
-                    /* type= */ definition.type)
-                : createAdaptiveTrackSelection(
-                    definition.group,
-                    definition.tracks,
-                    definition.type,
-                    bandwidthMeter,
-                    adaptationCheckpoints.get(i));
+        if (definition.tracks.length == 1) {
+          selections[i] =
+              new FixedTrackSelection(
+                  definition.group, /* track= */ definition.tracks[0], /* type= */ definition.type);
+        } else {
+          AdaptiveTrackSelection adaptiveTrackSelection =
+              createAdaptiveTrackSelection(
+                  definition.group,
+                  definition.tracks,
+                  definition.type,
+                  bandwidthMeter,
+                  adaptationCheckpoints.get(i));
+          adaptiveTrackSelection.experimentalSetChunkSizeAwareSelectionEnabled(
+              chunkSizeAwareSelectionEnabled);
+          selections[i] = adaptiveTrackSelection;
+        }
       }
       return selections;
     }
@@ -300,6 +326,7 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
   public static final float DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE = 0.75f;
 
   private static final long MIN_TIME_BETWEEN_BUFFER_REEVALUTATION_MS = 1000;
+  private static final long CHUNK_SIZE_LOOKAHEAD_US = 10_000_000;
 
   private final BandwidthMeter bandwidthMeter;
   private final long minDurationForQualityIncreaseUs;
@@ -317,6 +344,7 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
   private @C.SelectionReason int reason;
   private long lastBufferEvaluationMs;
   @Nullable private MediaChunk lastBufferEvaluationMediaChunk;
+  private boolean chunkSizeAwareSelectionEnabled;
 
   /**
    * @param group The {@link TrackGroup}.
@@ -410,6 +438,20 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
     lastBufferEvaluationMs = C.TIME_UNSET;
   }
 
+  /**
+   * Sets whether the selection uses the sizes of upcoming chunks, where known, to estimate the
+   * bitrate each track requires. Disabled by default.
+   *
+   * <p>This method is experimental, and will be renamed or removed in a future release.
+   *
+   * @param chunkSizeAwareSelectionEnabled Whether the selection is chunk size aware.
+   * @see Factory#experimentalSetChunkSizeAwareSelectionEnabled(boolean)
+   */
+  public void experimentalSetChunkSizeAwareSelectionEnabled(
+      boolean chunkSizeAwareSelectionEnabled) {
+    this.chunkSizeAwareSelectionEnabled = chunkSizeAwareSelectionEnabled;
+  }
+
   @CallSuper
   @Override
   public void enable() {
@@ -438,11 +480,17 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
       MediaChunkIterator[] mediaChunkIterators) {
     long nowMs = clock.elapsedRealtime();
     long chunkDurationUs = getNextChunkDurationUs(mediaChunkIterators, queue);
+    @Nullable
+    int[] trackBitrates =
+        chunkSizeAwareSelectionEnabled
+            ? getChunkSizeAwareTrackBitrates(
+                mediaChunkIterators, queue.isEmpty() ? C.TIME_UNSET : bufferedDurationUs)
+            : null;
 
     // Make initial selection
     if (reason == C.SELECTION_REASON_UNKNOWN) {
       reason = C.SELECTION_REASON_INITIAL;
-      selectedIndex = determineIdealSelectedIndex(nowMs, chunkDurationUs);
+      selectedIndex = determineIdealSelectedIndex(nowMs, chunkDurationUs, trackBitrates);
       return;
     }
 
@@ -454,7 +502,7 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
       previousSelectedIndex = formatIndexOfPreviousChunk;
       previousReason = Iterables.getLast(queue).trackSelectionReason;
     }
-    int newSelectedIndex = determineIdealSelectedIndex(nowMs, chunkDurationUs);
+    int newSelectedIndex = determineIdealSelectedIndex(nowMs, chunkDurationUs, trackBitrates);
     if (!isBlacklisted(previousSelectedIndex, nowMs)) {
       // Revert back to the previous selection if conditions are not suitable for switching.
       Format currentFormat = getFormat(previousSelectedIndex);
@@ -516,7 +564,9 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
     if (playoutBufferedDurationBeforeLastChunkUs < minDurationToRetainAfterDiscardUs) {
       return queueSize;
     }
-    int idealSelectedIndex = determineIdealSelectedIndex(nowMs, getLastChunkDurationUs(queue));
+    int idealSelectedIndex =
+        determineIdealSelectedIndex(
+            nowMs, getLastChunkDurationUs(queue), /* trackBitrates= */ null);
     Format idealFormat = getFormat(idealSelectedIndex);
     // If chunks contain video, discard from the first chunk after minDurationToRetainAfterDiscardUs
     // whose resolution and bitrate are both lower than the ideal track, and whose width and height
@@ -585,14 +635,18 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
    *     Long#MIN_VALUE} to ignore track exclusion.
    * @param chunkDurationUs The duration of a media chunk in microseconds, or {@link C#TIME_UNSET}
    *     if unknown.
+   * @param trackBitrates The estimated bitrate of each track, or null to use {@link
+   *     Format#bitrate}.
    */
-  private int determineIdealSelectedIndex(long nowMs, long chunkDurationUs) {
+  private int determineIdealSelectedIndex(
+      long nowMs, long chunkDurationUs, @Nullable int[] trackBitrates) {
     long effectiveBitrate = getAllocatedBandwidth(chunkDurationUs);
     int lowestBitrateAllowedIndex = 0;
     for (int i = 0; i < length; i++) {
       if (nowMs == Long.MIN_VALUE || !isBlacklisted(i, nowMs)) {
         Format format = getFormat(i);
-        if (canSelectFormat(format, format.bitrate, effectiveBitrate)) {
+        int trackBitrate = trackBitrates != null ? trackBitrates[i] : format.bitrate;
+        if (canSelectFormat(format, trackBitrate, effectiveBitrate)) {
           return i;
         } else {
           lowestBitrateAllowedIndex = i;
@@ -643,6 +697,69 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
     return getLastChunkDurationUs(queue);
   }
 
+  /**
+   * Returns the bitrate each track requires to load its upcoming chunks in time, as estimated from
+   * the chunk sizes. Tracks whose upcoming chunk sizes are unknown use {@link Format#bitrate}.
+   *
+   * @param mediaChunkIterators The {@link MediaChunkIterator MediaChunkIterators} of the tracks.
+   * @param bufferedDurationUs The duration of media buffered ahead of the playback position, in
+   *     microseconds, or {@link C#TIME_UNSET} if playback is not drawing from the buffer.
+   */
+  private int[] getChunkSizeAwareTrackBitrates(
+      MediaChunkIterator[] mediaChunkIterators, long bufferedDurationUs) {
+    int[] trackBitrates = new int[length];
+    for (int i = 0; i < length; i++) {
+      int chunkSizeAwareBitrate =
+          i < mediaChunkIterators.length
+              ? getChunkSizeAwareBitrate(mediaChunkIterators[i], bufferedDurationUs)
+              : Format.NO_VALUE;
+      trackBitrates[i] =
+          chunkSizeAwareBitrate != Format.NO_VALUE ? chunkSizeAwareBitrate : getFormat(i).bitrate;
+    }
+    return trackBitrates;
+  }
+
+  /**
+   * Returns the bitrate required to load the upcoming chunks of an iterator, or {@link
+   * Format#NO_VALUE} if the size of any of them is unknown.
+   *
+   * <p>This is the average bitrate of the chunks within {@link #CHUNK_SIZE_LOOKAHEAD_US}, raised
+   * where needed so that each chunk is loaded before the buffer drains. The iterator is reset
+   * before and after use.
+   */
+  private static int getChunkSizeAwareBitrate(
+      MediaChunkIterator iterator, long bufferedDurationUs) {
+    iterator.reset();
+    long totalBits = 0;
+    long totalDurationUs = 0;
+    double requiredBitrate = 0;
+    while (totalDurationUs < CHUNK_SIZE_LOOKAHEAD_US && iterator.next()) {
+      long chunkLength = iterator.getDataSpec().length;
+      long chunkDurationUs = iterator.getChunkEndTimeUs() - iterator.getChunkStartTimeUs();
+      if (chunkLength == C.LENGTH_UNSET || chunkDurationUs <= 0) {
+        iterator.reset();
+        return Format.NO_VALUE;
+      }
+      totalBits += chunkLength * C.BITS_PER_BYTE;
+      if (bufferedDurationUs != C.TIME_UNSET) {
+        // The chunk must be loaded before the buffer and all preceding chunks have played out.
+        long deadlineUs = bufferedDurationUs + totalDurationUs;
+        if (deadlineUs > 0) {
+          requiredBitrate =
+              max(requiredBitrate, (double) totalBits * C.MICROS_PER_SECOND / deadlineUs);
+        }
+      }
+      totalDurationUs += chunkDurationUs;
+    }
+    iterator.reset();
+    if (totalDurationUs == 0) {
+      return Format.NO_VALUE;
+    }
+    requiredBitrate =
+        max(requiredBitrate, (double) totalBits * C.MICROS_PER_SECOND / totalDurationUs);
+    return (int) min(requiredBitrate, Integer.MAX_VALUE);
+  }
+
   /**
    * Returns the duration of the last chunk in the queue, in microseconds, or {@link C#TIME_UNSET}
    * if the queue is empty or if the last chunk has an undefined start or end time.
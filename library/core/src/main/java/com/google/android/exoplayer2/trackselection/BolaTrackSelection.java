@@ -0,0 +1,487 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.trackselection;
+
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import androidx.annotation.CallSuper;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.source.MediaSource.MediaPeriodId;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.Util;
+import com.google.common.collect.Iterables;
+import java.util.List;
+import org.checkerframework.checker.nullness.compatqual.NullableType;
+
+/**
+ * A buffer based adaptive {@link ExoTrackSelection}, whose selected track is updated using the
+ * Buffer Occupancy based Lyapunov Algorithm (BOLA).
+ *
+ * <p>BOLA assigns each track a utility, the logarithm of its bitrate, and selects the track that
+ * maximizes the utility gained per bit loaded given the current buffer level. In steady state the
+ * selection depends on the buffer level only, which makes it more stable than {@link
+ * AdaptiveTrackSelection} when the throughput is volatile. The bandwidth estimate is used where
+ * the buffer level alone isn't a good indicator:
+ *
+ * <ul>
+ *   <li>Until the buffer reaches the minimum buffer duration, for example at the start of playback
+ *       or after a seek, the track of highest quality within the bandwidth estimate is selected.
+ *       Afterwards, a placeholder is added to the buffer level so that the quality doesn't drop to
+ *       the one that corresponds to the small buffer. The placeholder drains with the buffer.
+ *   <li>Switching up is limited to the track of highest quality within the bandwidth estimate,
+ *       which avoids oscillating between tracks when the buffer level is close to a threshold.
+ * </ul>
+ *
+ * <p>The selection can be used with a {@link DefaultTrackSelector} by passing a {@link Factory} to
+ * its constructor.
+ */
+public class BolaTrackSelection extends BaseTrackSelection {
+
+  /** Factory for {@link BolaTrackSelection} instances. */
+  public static class Factory implements ExoTrackSelection.Factory {
+
+    private final int minBufferMs;
+    private final int bufferTargetMs;
+    private final float bandwidthFraction;
+    private final Clock clock;
+
+    /** Creates a factory with default parameters. */
+    public Factory() {
+      this(DEFAULT_MIN_BUFFER_MS, DEFAULT_BUFFER_TARGET_MS, DEFAULT_BANDWIDTH_FRACTION);
+    }
+
+    /**
+     * Creates a factory.
+     *
+     * @param minBufferMs The buffer level below which the track of lowest quality is selected, in
+     *     milliseconds. Must be positive.
+     * @param bufferTargetMs The buffer level above which the track of highest quality is selected,
+     *     in milliseconds. Must be greater than {@code minBufferMs}.
+     * @param bandwidthFraction The fraction of the available bandwidth that the selection should
+     *     consider available for use when the bandwidth estimate is used.
+     */
+    public Factory(int minBufferMs, int bufferTargetMs, float bandwidthFraction) {
+      this(minBufferMs, bufferTargetMs, bandwidthFraction, Clock.DEFAULT);
+    }
+
+    /**
+     * Creates a factory.
+     *
+     * @param minBufferMs The buffer level below which the track of lowest quality is selected, in
+     *     milliseconds. Must be positive.
+     * @param bufferTargetMs The buffer level above which the track of highest quality is selected,
+     *     in milliseconds. Must be greater than {@code minBufferMs}.
+     * @param bandwidthFraction The fraction of the available bandwidth that the selection should
+     *     consider available for use when the bandwidth estimate is used.
+     * @param clock A {@link Clock}.
+     */
+    public Factory(int minBufferMs, int bufferTargetMs, float bandwidthFraction, Clock clock) {
+      checkArgument(minBufferMs > 0 && bufferTargetMs > minBufferMs);
+      this.minBufferMs = minBufferMs;
+      this.bufferTargetMs = bufferTargetMs;
+      this.bandwidthFraction = bandwidthFraction;
+      this.clock = clock;
+    }
+
+    @Override
+    public final @NullableType ExoTrackSelection[] createTrackSelections(
+        @NullableType Definition[] definitions,
+        BandwidthMeter bandwidthMeter,
+        MediaPeriodId mediaPeriodId,
+        Timeline timeline) {
+      ExoTrackSelection[] selections = new ExoTrackSelection[definitions.length];
+      for (int i = 0; i < definitions.length; i++) {
+        @Nullable Definition definition = definitions[i];
+        if (definition == null || definition.tracks.length == 0) {
+          continue;
+        }
+        selections[i] =
+            definition.tracks.length == 1
+                ? new FixedTrackSelection(
+                    definition.group,
+                    /* track= */ definition.tracks[0],
+                    /* type= */ definition.type)
+                : createBolaTrackSelection(
+                    definition.group,
+                    definition.tracks,
+                    definition.type,
+                    bandwidthMeter,
+                    getReservedBandwidth(definitions, /* excludedIndex= */ i));
+      }
+      return selections;
+    }
+
+    /**
+     * Creates a single BOLA selection for the given group, bandwidth meter and tracks.
+     *
+     * @param group The {@link TrackGroup}.
+     * @param tracks The indices of the selected tracks in the track group.
+     * @param type The type that will be returned from {@link TrackSelection#getType()}.
+     * @param bandwidthMeter A {@link BandwidthMeter} which can be used to select tracks.
+     * @param reservedBandwidth The bandwidth used by the other selections of the period, in bits
+     *     per second.
+     * @return A {@link BolaTrackSelection} for the specified tracks.
+     */
+    protected BolaTrackSelection createBolaTrackSelection(
+        TrackGroup group,
+        int[] tracks,
+        int type,
+        BandwidthMeter bandwidthMeter,
+        long reservedBandwidth) {
+      return new BolaTrackSelection(
+          group,
+          tracks,
+          type,
+          bandwidthMeter,
+          minBufferMs,
+          bufferTargetMs,
+          bandwidthFraction,
+          reservedBandwidth,
+          clock);
+    }
+
+    /**
+     * Returns the bandwidth that the selections of all definitions other than the excluded one use
+     * at least, which is the sum of their lowest track bitrates.
+     */
+    private static long getReservedBandwidth(
+        @NullableType Definition[] definitions, int excludedIndex) {
+      long reservedBandwidth = 0;
+      for (int i = 0; i < definitions.length; i++) {
+        @Nullable Definition definition = definitions[i];
+        if (i == excludedIndex || definition == null) {
+          continue;
+        }
+        long lowestBitrate = Long.MAX_VALUE;
+        for (int track : definition.tracks) {
+          int bitrate = definition.group.getFormat(track).bitrate;
+          if (bitrate != Format.NO_VALUE) {
+            lowestBitrate = min(lowestBitrate, bitrate);
+          }
+        }
+        if (lowestBitrate != Long.MAX_VALUE) {
+          reservedBandwidth += lowestBitrate;
+        }
+      }
+      return reservedBandwidth;
+    }
+  }
+
+  public static final int DEFAULT_MIN_BUFFER_MS = 10_000;
+  public static final int DEFAULT_BUFFER_TARGET_MS = 30_000;
+  public static final float DEFAULT_BANDWIDTH_FRACTION = 0.7f;
+
+  private final BandwidthMeter bandwidthMeter;
+  private final long minBufferUs;
+  private final long bufferTargetUs;
+  private final float bandwidthFraction;
+  private final long reservedBandwidth;
+  private final Clock clock;
+  private final double[] utilities;
+
+  private float playbackSpeed;
+  private int selectedIndex;
+  private @C.SelectionReason int reason;
+  private boolean isStartingUp;
+  private long placeholderBufferUs;
+  private long lastBufferLevelUs;
+
+  /**
+   * @param group The {@link TrackGroup}.
+   * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+   *     empty. May be in any order.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+   */
+  public BolaTrackSelection(TrackGroup group, int[] tracks, BandwidthMeter bandwidthMeter) {
+    this(
+        group,
+        tracks,
+        TrackSelection.TYPE_UNSET,
+        bandwidthMeter,
+        DEFAULT_MIN_BUFFER_MS,
+        DEFAULT_BUFFER_TARGET_MS,
+        DEFAULT_BANDWIDTH_FRACTION,
+        /* reservedBandwidth= */ 0,
+        Clock.DEFAULT);
+  }
+
+  /**
+   * @param group The {@link TrackGroup}.
+   * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+   *     empty. May be in any order.
+   * @param type The type that will be returned from {@link TrackSelection#getType()}.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+   * @param minBufferMs The buffer level below which the track of lowest quality is selected, in
+   *     milliseconds. Must be positive.
+   * @param bufferTargetMs The buffer level above which the track of highest quality is selected, in
+   *     milliseconds. Must be greater than {@code minBufferMs}.
+   * @param bandwidthFraction The fraction of the available bandwidth that the selection should
+   *     consider available for use when the bandwidth estimate is used.
+   * @param reservedBandwidth The bandwidth used by other selections, which is subtracted from the
+   *     bandwidth estimate, in bits per second.
+   * @param clock The {@link Clock}.
+   */
+  protected BolaTrackSelection(
+      TrackGroup group,
+      int[] tracks,
+      @Type int type,
+      BandwidthMeter bandwidthMeter,
+      long minBufferMs,
+      long bufferTargetMs,
+      float bandwidthFraction,
+      long reservedBandwidth,
+      Clock clock) {
+    super(group, tracks, type);
+    checkArgument(minBufferMs > 0 && bufferTargetMs > minBufferMs);
+    this.bandwidthMeter = bandwidthMeter;
+    this.minBufferUs = minBufferMs * 1000L;
+    this.bufferTargetUs = bufferTargetMs * 1000L;
+    this.bandwidthFraction = bandwidthFraction;
+    this.reservedBandwidth = reservedBandwidth;
+    this.clock = clock;
+    // Formats are sorted by decreasing bitrate, so the utility of the last track is 1.
+    utilities = new double[length];
+    double lowestBitrate = getBitrate(length - 1);
+    for (int i = 0; i < length; i++) {
+      utilities[i] = Math.log(getBitrate(i) / lowestBitrate) + 1;
+    }
+    playbackSpeed = 1f;
+    reason = C.SELECTION_REASON_UNKNOWN;
+    isStartingUp = true;
+  }
+
+  @CallSuper
+  @Override
+  public void enable() {
+    isStartingUp = true;
+    placeholderBufferUs = 0;
+  }
+
+  @Override
+  public void onPlaybackSpeed(float playbackSpeed) {
+    this.playbackSpeed = playbackSpeed;
+  }
+
+  @Override
+  public void updateSelectedTrack(
+      long playbackPositionUs,
+      long bufferedDurationUs,
+      long availableDurationUs,
+      List<? extends MediaChunk> queue,
+      MediaChunkIterator[] mediaChunkIterators) {
+    long nowMs = clock.elapsedRealtime();
+    long chunkDurationUs = getNextChunkDurationUs(mediaChunkIterators, queue);
+    int bandwidthSelectedIndex = determineBandwidthSelectedIndex(nowMs, chunkDurationUs);
+
+    // Make initial selection
+    if (reason == C.SELECTION_REASON_UNKNOWN) {
+      reason = C.SELECTION_REASON_INITIAL;
+      selectedIndex = bandwidthSelectedIndex;
+      return;
+    }
+
+    int previousSelectedIndex = selectedIndex;
+    @C.SelectionReason int previousReason = reason;
+    int formatIndexOfPreviousChunk =
+        queue.isEmpty() ? C.INDEX_UNSET : indexOf(Iterables.getLast(queue).trackFormat);
+    if (formatIndexOfPreviousChunk != C.INDEX_UNSET) {
+      previousSelectedIndex = formatIndexOfPreviousChunk;
+      previousReason = Iterables.getLast(queue).trackSelectionReason;
+    }
+
+    long bufferLevelUs = Util.getPlayoutDurationForMediaDuration(bufferedDurationUs, playbackSpeed);
+    long minBufferUs = this.minBufferUs;
+    long bufferTargetUs = this.bufferTargetUs;
+    if (availableDurationUs != C.TIME_UNSET) {
+      // The buffer of a live stream can't grow beyond the live edge, so the thresholds are scaled
+      // down to fit the duration available until the live edge.
+      long availablePlayoutDurationUs =
+          Util.getPlayoutDurationForMediaDuration(availableDurationUs, playbackSpeed);
+      if (availablePlayoutDurationUs < bufferTargetUs) {
+        minBufferUs = minBufferUs * availablePlayoutDurationUs / bufferTargetUs;
+        bufferTargetUs = availablePlayoutDurationUs;
+      }
+    }
+    boolean wasStartingUp = isStartingUp;
+    if (queue.isEmpty()) {
+      // The buffer was emptied, for example by a seek.
+      isStartingUp = true;
+      placeholderBufferUs = 0;
+    } else if (bufferLevelUs >= minBufferUs) {
+      isStartingUp = false;
+    }
+    // Choose the parameters such that the lowest quality track is selected up to minBufferUs, and
+    // the highest quality track is selected from bufferTargetUs.
+    double gp =
+        minBufferUs > 0 ? (utilities[0] - 1) / ((double) bufferTargetUs / minBufferUs - 1) : 0;
+    double vp = minBufferUs / gp;
+
+    int newSelectedIndex;
+    if (isStartingUp || gp <= 0) {
+      newSelectedIndex = bandwidthSelectedIndex;
+    } else {
+      if (wasStartingUp) {
+        // Add a placeholder to the buffer level such that the track selected by bandwidth remains
+        // selected, rather than dropping to the quality that corresponds to the small buffer.
+        placeholderBufferUs =
+            max(0, getMinBufferLevelUs(bandwidthSelectedIndex, gp, vp) - bufferLevelUs);
+      } else if (bufferLevelUs < lastBufferLevelUs) {
+        // Drain the placeholder along with the buffer, so that it doesn't delay switching down.
+        placeholderBufferUs = max(0, placeholderBufferUs - (lastBufferLevelUs - bufferLevelUs));
+      }
+      newSelectedIndex =
+          determineBufferSelectedIndex(nowMs, bufferLevelUs + placeholderBufferUs, gp, vp);
+      if (newSelectedIndex < bandwidthSelectedIndex
+          && newSelectedIndex < previousSelectedIndex
+          && !isBlacklisted(previousSelectedIndex, nowMs)) {
+        // The selected track is of higher quality than both the previous track and the track
+        // supported by the bandwidth estimate. Limit the switch up to avoid oscillating.
+        newSelectedIndex = min(bandwidthSelectedIndex, previousSelectedIndex);
+      }
+    }
+    lastBufferLevelUs = bufferLevelUs;
+    // If we adapted, update the trigger.
+    reason =
+        newSelectedIndex == previousSelectedIndex ? previousReason : C.SELECTION_REASON_ADAPTIVE;
+    selectedIndex = newSelectedIndex;
+  }
+
+  @Override
+  public int getSelectedIndex() {
+    return selectedIndex;
+  }
+
+  @Override
+  public @C.SelectionReason int getSelectionReason() {
+    return reason;
+  }
+
+  @Override
+  @Nullable
+  public Object getSelectionData() {
+    return null;
+  }
+
+  /**
+   * Returns the index of the track that maximizes the BOLA objective for the given buffer level.
+   *
+   * @param nowMs The current value of {@link Clock#elapsedRealtime()}.
+   * @param bufferLevelUs The buffer level, in microseconds.
+   * @param gp The BOLA parameter that trades off utility against rebuffering.
+   * @param vp The BOLA parameter that scales the objective to the buffer duration.
+   */
+  private int determineBufferSelectedIndex(long nowMs, long bufferLevelUs, double gp, double vp) {
+    int selectedIndex = length - 1;
+    double bestScore = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < length; i++) {
+      if (isBlacklisted(i, nowMs)) {
+        continue;
+      }
+      double score = (vp * (utilities[i] + gp) - bufferLevelUs) / getBitrate(i);
+      if (score > bestScore) {
+        selectedIndex = i;
+        bestScore = score;
+      }
+    }
+    return selectedIndex;
+  }
+
+  /**
+   * Returns the buffer level from which the BOLA objective prefers the track at the given index
+   * over the track of next lower quality, in microseconds.
+   */
+  private long getMinBufferLevelUs(int index, double gp, double vp) {
+    if (index == length - 1) {
+      return 0;
+    }
+    double bitrate = getBitrate(index);
+    double lowerBitrate = getBitrate(index + 1);
+    if (bitrate <= lowerBitrate) {
+      return 0;
+    }
+    // Round up, so that a buffer level of the returned value is guaranteed to select the track.
+    return (long)
+        Math.ceil(
+            vp
+                * (bitrate * (utilities[index + 1] + gp) - lowerBitrate * (utilities[index] + gp))
+                / (bitrate - lowerBitrate));
+  }
+
+  /** Returns the index of the track of highest quality within the bandwidth estimate. */
+  private int determineBandwidthSelectedIndex(long nowMs, long chunkDurationUs) {
+    long effectiveBitrate = getAllocatedBandwidth(chunkDurationUs);
+    int lowestBitrateAllowedIndex = 0;
+    for (int i = 0; i < length; i++) {
+      if (!isBlacklisted(i, nowMs)) {
+        if (getFormat(i).bitrate <= effectiveBitrate) {
+          return i;
+        } else {
+          lowestBitrateAllowedIndex = i;
+        }
+      }
+    }
+    return lowestBitrateAllowedIndex;
+  }
+
+  private long getAllocatedBandwidth(long chunkDurationUs) {
+    long cautiousBandwidthEstimate =
+        max(
+            (long) (bandwidthMeter.getBitrateEstimate() * bandwidthFraction) - reservedBandwidth,
+            0);
+    long timeToFirstByteEstimateUs = bandwidthMeter.getTimeToFirstByteEstimateUs();
+    if (timeToFirstByteEstimateUs == C.TIME_UNSET || chunkDurationUs == C.TIME_UNSET) {
+      return (long) (cautiousBandwidthEstimate / playbackSpeed);
+    }
+    float availableTimeToLoadUs =
+        max(chunkDurationUs / playbackSpeed - timeToFirstByteEstimateUs, 0);
+    return (long) (cautiousBandwidthEstimate * availableTimeToLoadUs / chunkDurationUs);
+  }
+
+  /**
+   * Returns a best estimate of the duration of the next chunk, in microseconds, or {@link
+   * C#TIME_UNSET} if an estimate could not be determined.
+   */
+  private long getNextChunkDurationUs(
+      MediaChunkIterator[] mediaChunkIterators, List<? extends MediaChunk> queue) {
+    // Chunks of different formats are likely to have identical or similar durations, so the
+    // first available chunk is used.
+    for (MediaChunkIterator iterator : mediaChunkIterators) {
+      if (iterator.next()) {
+        return iterator.getChunkEndTimeUs() - iterator.getChunkStartTimeUs();
+      }
+    }
+    if (queue.isEmpty()) {
+      return C.TIME_UNSET;
+    }
+    MediaChunk lastChunk = Iterables.getLast(queue);
+    return lastChunk.startTimeUs != C.TIME_UNSET && lastChunk.endTimeUs != C.TIME_UNSET
+        ? lastChunk.endTimeUs - lastChunk.startTimeUs
+        : C.TIME_UNSET;
+  }
+
+  private double getBitrate(int index) {
+    return max(getFormat(index).bitrate, 1);
+  }
+}
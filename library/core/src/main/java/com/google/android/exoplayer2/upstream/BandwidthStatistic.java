@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+/**
+ * A statistic that estimates the available bandwidth from samples of transferred bytes.
+ *
+ * <p>Implementations are used by {@link DefaultBandwidthMeter} to turn its transfer samples into a
+ * bitrate estimate. An instance must only be used by a single bandwidth meter.
+ */
+public interface BandwidthStatistic {
+
+  /** Returned by {@link #getBandwidthEstimate()} if no estimate is available yet. */
+  long ESTIMATE_NOT_AVAILABLE = Long.MIN_VALUE;
+
+  /**
+   * Adds a transfer sample to the statistic.
+   *
+   * @param bytes The number of bytes transferred.
+   * @param durationUs The duration of the transfer, in microseconds. Must be positive.
+   */
+  void addSample(long bytes, long durationUs);
+
+  /**
+   * Returns the bandwidth estimate in bits per second, or {@link #ESTIMATE_NOT_AVAILABLE} if no
+   * estimate is available.
+   */
+  long getBandwidthEstimate();
+
+  /** Resets the statistic, discarding all samples. */
+  void reset();
+}
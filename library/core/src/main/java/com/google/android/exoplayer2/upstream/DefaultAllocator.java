@@ -21,15 +21,29 @@ import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.Util;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
 import org.checkerframework.checker.nullness.compatqual.NullableType;
 
-/** Default implementation of {@link Allocator}. */
+/**
+ * Default implementation of {@link Allocator}.
+ *
+ * <p>By default each {@link Allocation} is backed by its own array. Alternatively {@link
+ * Allocation Allocations} can be created in slabs, where each slab is a single array backing
+ * multiple allocations. This reduces the number of large arrays that are created and collected by
+ * the garbage collector, which is beneficial when an allocator is shared by multiple player
+ * instances, or when a large amount of media is buffered. A slab is only freed by {@link #trim()}
+ * once all of its allocations have been released.
+ */
 public final class DefaultAllocator implements Allocator {
 
   private static final int AVAILABLE_EXTRA_CAPACITY = 100;
 
   private final boolean trimOnReset;
   private final int individualAllocationSize;
+  private final int allocationsPerSlab;
   @Nullable private final byte[] initialAllocationBlock;
 
   private int targetBufferSize;
@@ -60,10 +74,37 @@ public final class DefaultAllocator implements Allocator {
    */
   public DefaultAllocator(
       boolean trimOnReset, int individualAllocationSize, int initialAllocationCount) {
+    this(
+        trimOnReset,
+        individualAllocationSize,
+        initialAllocationCount,
+        /* allocationsPerSlab= */ 1);
+  }
+
+  /**
+   * Constructs an instance that creates {@link Allocation}s in slabs, with some {@link Allocation}s
+   * created up front.
+   *
+   * <p>Note: {@link Allocation}s created up front will never be discarded by {@link #trim()}.
+   *
+   * @param trimOnReset Whether memory is freed when the allocator is reset. Should be true unless
+   *     the allocator will be re-used by multiple player instances.
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   * @param initialAllocationCount The number of allocations to create up front.
+   * @param allocationsPerSlab The number of {@link Allocation}s backed by each slab. If 1, each
+   *     {@link Allocation} is backed by its own array.
+   */
+  public DefaultAllocator(
+      boolean trimOnReset,
+      int individualAllocationSize,
+      int initialAllocationCount,
+      int allocationsPerSlab) {
     Assertions.checkArgument(individualAllocationSize > 0);
     Assertions.checkArgument(initialAllocationCount >= 0);
+    Assertions.checkArgument(allocationsPerSlab > 0);
     this.trimOnReset = trimOnReset;
     this.individualAllocationSize = individualAllocationSize;
+    this.allocationsPerSlab = allocationsPerSlab;
     this.availableCount = initialAllocationCount;
     this.availableAllocations = new Allocation[initialAllocationCount + AVAILABLE_EXTRA_CAPACITY];
     if (initialAllocationCount > 0) {
@@ -98,7 +139,7 @@ public final class DefaultAllocator implements Allocator {
     if (availableCount > 0) {
       allocation = Assertions.checkNotNull(availableAllocations[--availableCount]);
       availableAllocations[availableCount] = null;
-    } else {
+    } else if (allocationsPerSlab == 1) {
       allocation = new Allocation(new byte[individualAllocationSize], 0);
       if (allocatedCount > availableAllocations.length) {
         // Make availableAllocations be large enough to contain all allocations made by this
@@ -106,6 +147,8 @@ public final class DefaultAllocator implements Allocator {
         // [Internal ref: b/209801945].
         availableAllocations = Arrays.copyOf(availableAllocations, availableAllocations.length * 2);
       }
+    } else {
+      allocation = allocateSlab();
     }
     return allocation;
   }
@@ -166,6 +209,11 @@ public final class DefaultAllocator implements Allocator {
       }
     }
 
+    if (allocationsPerSlab > 1) {
+      trimSlabs(targetAvailableCount);
+      return;
+    }
+
     // Discard allocations beyond the target.
     Arrays.fill(availableAllocations, targetAvailableCount, availableCount, null);
     availableCount = targetAvailableCount;
@@ -180,4 +228,65 @@ public final class DefaultAllocator implements Allocator {
   public int getIndividualAllocationLength() {
     return individualAllocationSize;
   }
+
+  /**
+   * Creates a new slab, makes all but one of its allocations available, and returns the remaining
+   * allocation.
+   */
+  private Allocation allocateSlab() {
+    int requiredLength = allocatedCount + allocationsPerSlab - 1;
+    if (requiredLength > availableAllocations.length) {
+      // Make availableAllocations be large enough to contain all allocations made by this
+      // allocator so that release() does not need to grow the availableAllocations array.
+      availableAllocations =
+          Arrays.copyOf(availableAllocations, max(requiredLength, availableAllocations.length * 2));
+    }
+    byte[] slab = new byte[allocationsPerSlab * individualAllocationSize];
+    for (int i = allocationsPerSlab - 1; i > 0; i--) {
+      availableAllocations[availableCount++] = new Allocation(slab, i * individualAllocationSize);
+    }
+    return new Allocation(slab, /* offset= */ 0);
+  }
+
+  /**
+   * Discards slabs for which all allocations are available, until the number of available
+   * allocations is at or below the target, or there are no such slabs left.
+   *
+   * <p>Must only be called with the initial allocations at the start of {@link
+   * #availableAllocations}.
+   */
+  private void trimSlabs(int targetAvailableCount) {
+    IdentityHashMap<byte[], Integer> availableCountPerSlab = new IdentityHashMap<>();
+    for (int i = 0; i < availableCount; i++) {
+      byte[] slab = Assertions.checkNotNull(availableAllocations[i]).data;
+      if (slab != initialAllocationBlock) {
+        @Nullable Integer count = availableCountPerSlab.get(slab);
+        availableCountPerSlab.put(slab, count == null ? 1 : count + 1);
+      }
+    }
+    Set<byte[]> discardedSlabs = Collections.newSetFromMap(new IdentityHashMap<>());
+    int remainingAvailableCount = availableCount;
+    for (Map.Entry<byte[], Integer> entry : availableCountPerSlab.entrySet()) {
+      if (remainingAvailableCount <= targetAvailableCount) {
+        break;
+      }
+      if (entry.getValue() == allocationsPerSlab) {
+        discardedSlabs.add(entry.getKey());
+        remainingAvailableCount -= allocationsPerSlab;
+      }
+    }
+    if (discardedSlabs.isEmpty()) {
+      return;
+    }
+    // Compact the available allocations, preserving their order.
+    int newAvailableCount = 0;
+    for (int i = 0; i < availableCount; i++) {
+      Allocation allocation = Assertions.checkNotNull(availableAllocations[i]);
+      if (!discardedSlabs.contains(allocation.data)) {
+        availableAllocations[newAvailableCount++] = allocation;
+      }
+    }
+    Arrays.fill(availableAllocations, newAvailableCount, availableCount, null);
+    availableCount = newAvailableCount;
+  }
 }
@@ -33,10 +33,10 @@ import java.util.Map;
 /**
  * Estimates bandwidth by listening to data transfers.
  *
- * <p>The bandwidth estimate is calculated using a {@link SlidingPercentile} and is updated each
- * time a transfer ends. The initial estimate is based on the current operator's network country
- * code or the locale of the user, as well as the network connection type. This can be configured in
- * the {@link Builder}.
+ * <p>The bandwidth estimate is calculated using a {@link BandwidthStatistic}, by default a {@link
+ * SlidingPercentileBandwidthStatistic}, and is updated each time a transfer ends. The initial
+ * estimate is based on the current operator's network country code or the locale of the user, as
+ * well as the network connection type. This can be configured in the {@link Builder}.
  */
 public final class DefaultBandwidthMeter implements BandwidthMeter, TransferListener {
 
@@ -115,6 +115,9 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     private int slidingWindowMaxWeight;
     private Clock clock;
     private boolean resetOnNetworkTypeChange;
+    @Nullable private BandwidthStatistic bandwidthStatistic;
+    @Nullable private TimeToFirstByteEstimator timeToFirstByteEstimator;
+    private long idleGapThresholdMs;
 
     /**
      * Creates a builder with default parameters and without listener.
@@ -128,10 +131,12 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
       slidingWindowMaxWeight = DEFAULT_SLIDING_WINDOW_MAX_WEIGHT;
       clock = Clock.DEFAULT;
       resetOnNetworkTypeChange = true;
+      idleGapThresholdMs = C.TIME_UNSET;
     }
 
     /**
-     * Sets the maximum weight for the sliding window.
+     * Sets the maximum weight for the sliding window. Ignored if a {@link BandwidthStatistic} is
+     * set with {@link #setBandwidthStatistic}.
      *
      * @param slidingWindowMaxWeight The maximum weight for the sliding window.
      * @return This builder.
@@ -195,6 +200,55 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
       return this;
     }
 
+    /**
+     * Sets the {@link BandwidthStatistic} used to estimate the bandwidth from the transfer samples.
+     * The default is a {@link SlidingPercentileBandwidthStatistic} estimating the median bitrate
+     * over a sliding window of the {@link #setSlidingWindowMaxWeight maximum weight}.
+     *
+     * @param bandwidthStatistic The {@link BandwidthStatistic}.
+     * @return This builder.
+     */
+    public Builder setBandwidthStatistic(BandwidthStatistic bandwidthStatistic) {
+      this.bandwidthStatistic = bandwidthStatistic;
+      return this;
+    }
+
+    /**
+     * Sets the {@link TimeToFirstByteEstimator} that is notified of transfers at full network speed
+     * and provides {@link DefaultBandwidthMeter#getTimeToFirstByteEstimateUs()}. The default is
+     * {@code null}, in which case no time to first byte estimate is available.
+     *
+     * @param timeToFirstByteEstimator The {@link TimeToFirstByteEstimator}, or {@code null}.
+     * @return This builder.
+     */
+    public Builder setTimeToFirstByteEstimator(
+        @Nullable TimeToFirstByteEstimator timeToFirstByteEstimator) {
+      this.timeToFirstByteEstimator = timeToFirstByteEstimator;
+      return this;
+    }
+
+    /**
+     * Sets the threshold above which a pause between two reads of a transfer that {@link
+     * DataSpec#FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED might not use the full network speed} is
+     * treated as the server waiting for media to become available.
+     *
+     * <p>Such transfers, for example of low latency live segments that are sent while they are
+     * being produced, are ignored by default because their duration doesn't reflect the
+     * bandwidth. If a threshold is set, they are measured instead by only counting the bursts of
+     * data in between pauses longer than the threshold. The threshold should be larger than the
+     * interval between reads at the lowest expected bandwidth, for example 50 milliseconds. Data
+     * buffered during a pause is not counted, and transfers whose bursts last less than 10
+     * milliseconds in total are ignored.
+     *
+     * @param idleGapThresholdMs The idle gap threshold in milliseconds, or {@link C#TIME_UNSET} to
+     *     ignore transfers that might not use the full network speed.
+     * @return This builder.
+     */
+    public Builder setIdleGapThresholdMs(long idleGapThresholdMs) {
+      this.idleGapThresholdMs = idleGapThresholdMs;
+      return this;
+    }
+
     /**
      * Sets whether to reset if the network type changes. The default value is {@code true}.
      *
@@ -215,9 +269,14 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
       return new DefaultBandwidthMeter(
           context,
           initialBitrateEstimates,
-          slidingWindowMaxWeight,
+          bandwidthStatistic != null
+              ? bandwidthStatistic
+              : new SlidingPercentileBandwidthStatistic(
+                  slidingWindowMaxWeight, SlidingPercentileBandwidthStatistic.DEFAULT_PERCENTILE),
+          timeToFirstByteEstimator,
           clock,
-          resetOnNetworkTypeChange);
+          resetOnNetworkTypeChange,
+          idleGapThresholdMs);
     }
 
     private static Map<Integer, Long> getInitialBitrateEstimatesForCountry(String countryCode) {
@@ -265,12 +324,20 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
 
   private static final int ELAPSED_MILLIS_FOR_ESTIMATE = 2000;
   private static final int BYTES_TRANSFERRED_FOR_ESTIMATE = 512 * 1024;
+  /**
+   * The minimum duration of the bursts of a transfer that might not use the full network speed for
+   * the transfer to be measured. Shorter bursts are dominated by timing noise.
+   */
+  private static final int MIN_BURST_ELAPSED_MILLIS_FOR_SAMPLE = 10;
 
   private final ImmutableMap<Integer, Long> initialBitrateEstimates;
   private final EventDispatcher eventDispatcher;
-  private final SlidingPercentile slidingPercentile;
+  private final BandwidthStatistic bandwidthStatistic;
+  @Nullable private final TimeToFirstByteEstimator timeToFirstByteEstimator;
   private final Clock clock;
   private final boolean resetOnNetworkTypeChange;
+  private final long idleGapThresholdMs;
+  private final HashMap<DataSpec, BurstyTransfer> burstyTransfers;
 
   private int streamCount;
   private long sampleStartTimeMs;
@@ -293,22 +360,31 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     this(
         /* context= */ null,
         /* initialBitrateEstimates= */ ImmutableMap.of(),
-        DEFAULT_SLIDING_WINDOW_MAX_WEIGHT,
+        new SlidingPercentileBandwidthStatistic(
+            DEFAULT_SLIDING_WINDOW_MAX_WEIGHT,
+            SlidingPercentileBandwidthStatistic.DEFAULT_PERCENTILE),
+        /* timeToFirstByteEstimator= */ null,
         Clock.DEFAULT,
-        /* resetOnNetworkTypeChange= */ false);
+        /* resetOnNetworkTypeChange= */ false,
+        /* idleGapThresholdMs= */ C.TIME_UNSET);
   }
 
   private DefaultBandwidthMeter(
       @Nullable Context context,
       Map<Integer, Long> initialBitrateEstimates,
-      int maxWeight,
+      BandwidthStatistic bandwidthStatistic,
+      @Nullable TimeToFirstByteEstimator timeToFirstByteEstimator,
       Clock clock,
-      boolean resetOnNetworkTypeChange) {
+      boolean resetOnNetworkTypeChange,
+      long idleGapThresholdMs) {
     this.initialBitrateEstimates = ImmutableMap.copyOf(initialBitrateEstimates);
     this.eventDispatcher = new EventDispatcher();
-    this.slidingPercentile = new SlidingPercentile(maxWeight);
+    this.bandwidthStatistic = bandwidthStatistic;
+    this.timeToFirstByteEstimator = timeToFirstByteEstimator;
     this.clock = clock;
     this.resetOnNetworkTypeChange = resetOnNetworkTypeChange;
+    this.idleGapThresholdMs = idleGapThresholdMs;
+    burstyTransfers = new HashMap<>();
     if (context != null) {
       NetworkTypeObserver networkTypeObserver = NetworkTypeObserver.getInstance(context);
       networkType = networkTypeObserver.getNetworkType();
@@ -339,6 +415,13 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     return bitrateEstimate;
   }
 
+  @Override
+  public long getTimeToFirstByteEstimateUs() {
+    return timeToFirstByteEstimator != null
+        ? timeToFirstByteEstimator.getTimeToFirstByteEstimateUs()
+        : C.TIME_UNSET;
+  }
+
   @Override
   public TransferListener getTransferListener() {
     return this;
@@ -358,15 +441,23 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
 
   @Override
   public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
-    // Do nothing.
+    if (timeToFirstByteEstimator != null && isTransferAtFullNetworkSpeed(dataSpec, isNetwork)) {
+      timeToFirstByteEstimator.onTransferInitializing(dataSpec);
+    }
   }
 
   @Override
   public synchronized void onTransferStart(
       DataSource source, DataSpec dataSpec, boolean isNetwork) {
     if (!isTransferAtFullNetworkSpeed(dataSpec, isNetwork)) {
+      if (isBurstyTransferMeasured(isNetwork)) {
+        burstyTransfers.put(dataSpec, new BurstyTransfer(clock.nanoTime()));
+      }
       return;
     }
+    if (timeToFirstByteEstimator != null) {
+      timeToFirstByteEstimator.onTransferStart(dataSpec);
+    }
     if (streamCount == 0) {
       sampleStartTimeMs = clock.elapsedRealtime();
     }
@@ -377,6 +468,11 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
   public synchronized void onBytesTransferred(
       DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
     if (!isTransferAtFullNetworkSpeed(dataSpec, isNetwork)) {
+      @Nullable BurstyTransfer burstyTransfer = burstyTransfers.get(dataSpec);
+      if (burstyTransfer != null) {
+        burstyTransfer.onBytesTransferred(
+            clock.nanoTime(), bytesTransferred, idleGapThresholdMs * 1_000_000);
+      }
       return;
     }
     sampleBytesTransferred += bytesTransferred;
@@ -385,6 +481,17 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
   @Override
   public synchronized void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
     if (!isTransferAtFullNetworkSpeed(dataSpec, isNetwork)) {
+      @Nullable BurstyTransfer burstyTransfer = burstyTransfers.remove(dataSpec);
+      if (burstyTransfer == null) {
+        return;
+      }
+      // Only the bursts of data are measured, as the idle gaps don't reflect the bandwidth.
+      int burstElapsedTimeMs = (int) (burstyTransfer.burstElapsedTimeNs / 1_000_000);
+      if (burstElapsedTimeMs >= MIN_BURST_ELAPSED_MILLIS_FOR_SAMPLE) {
+        totalElapsedTimeMs += burstElapsedTimeMs;
+        totalBytesTransferred += burstyTransfer.burstBytesTransferred;
+        addSample(burstElapsedTimeMs, burstyTransfer.burstBytesTransferred);
+      }
       return;
     }
     Assertions.checkState(streamCount > 0);
@@ -393,19 +500,24 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     totalElapsedTimeMs += sampleElapsedTimeMs;
     totalBytesTransferred += sampleBytesTransferred;
     if (sampleElapsedTimeMs > 0) {
-      float bitsPerSecond = (sampleBytesTransferred * 8000f) / sampleElapsedTimeMs;
-      slidingPercentile.addSample((int) Math.sqrt(sampleBytesTransferred), bitsPerSecond);
-      if (totalElapsedTimeMs >= ELAPSED_MILLIS_FOR_ESTIMATE
-          || totalBytesTransferred >= BYTES_TRANSFERRED_FOR_ESTIMATE) {
-        bitrateEstimate = (long) slidingPercentile.getPercentile(0.5f);
-      }
-      maybeNotifyBandwidthSample(sampleElapsedTimeMs, sampleBytesTransferred, bitrateEstimate);
+      addSample(sampleElapsedTimeMs, sampleBytesTransferred);
       sampleStartTimeMs = nowMs;
       sampleBytesTransferred = 0;
     } // Else any sample bytes transferred will be carried forward into the next sample.
     streamCount--;
   }
 
+  private void addSample(int elapsedTimeMs, long bytesTransferred) {
+    bandwidthStatistic.addSample(bytesTransferred, Util.msToUs(elapsedTimeMs));
+    long estimate = bandwidthStatistic.getBandwidthEstimate();
+    if (estimate != BandwidthStatistic.ESTIMATE_NOT_AVAILABLE
+        && (totalElapsedTimeMs >= ELAPSED_MILLIS_FOR_ESTIMATE
+            || totalBytesTransferred >= BYTES_TRANSFERRED_FOR_ESTIMATE)) {
+      bitrateEstimate = estimate;
+    }
+    maybeNotifyBandwidthSample(elapsedTimeMs, bytesTransferred, bitrateEstimate);
+  }
+
   private synchronized void onNetworkTypeChanged(@C.NetworkType int networkType) {
     if (this.networkType != C.NETWORK_TYPE_UNKNOWN && !resetOnNetworkTypeChange) {
       // Reset on network change disabled. Ignore all updates except the initial one.
@@ -438,7 +550,14 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     sampleBytesTransferred = 0;
     totalBytesTransferred = 0;
     totalElapsedTimeMs = 0;
-    slidingPercentile.reset();
+    long nowNs = clock.nanoTime();
+    for (BurstyTransfer burstyTransfer : burstyTransfers.values()) {
+      burstyTransfer.reset(nowNs);
+    }
+    bandwidthStatistic.reset();
+    if (timeToFirstByteEstimator != null) {
+      timeToFirstByteEstimator.reset();
+    }
   }
 
   private void maybeNotifyBandwidthSample(
@@ -461,6 +580,10 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     return initialBitrateEstimate;
   }
 
+  private boolean isBurstyTransferMeasured(boolean isNetwork) {
+    return isNetwork && idleGapThresholdMs != C.TIME_UNSET;
+  }
+
   private static boolean isTransferAtFullNetworkSpeed(DataSpec dataSpec, boolean isNetwork) {
     return isNetwork && !dataSpec.isFlagSet(DataSpec.FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED);
   }
@@ -863,4 +986,67 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
         return new int[] {2, 2, 2, 2, 2, 2};
     }
   }
+
+  /**
+   * Measures a transfer that might not use the full network speed, counting only the bursts of
+   * data between idle gaps.
+   *
+   * <p>Data that arrives while the reader is idle accumulates in the socket buffer, and is read
+   * right after the gap at a rate that's unrelated to the bandwidth. Reads are therefore only
+   * counted once the buffer is drained. The buffer is drained when a read returns fewer bytes than
+   * the reads before it, or when the reader has to wait for the next read. On fast links neither
+   * may happen, so the buffer is also considered drained after a short, fixed duration.
+   */
+  private static final class BurstyTransfer {
+
+    /** The maximum interval between reads that are served from data buffered during a gap. */
+    private static final long MAX_BUFFERED_READ_INTERVAL_NS = 100_000;
+    /** The maximum duration of reading the data buffered during a gap. */
+    private static final long MAX_BUFFER_DRAIN_DURATION_NS = 2_000_000;
+
+    public long burstBytesTransferred;
+    public long burstElapsedTimeNs;
+
+    private long lastReadTimeNs;
+    private boolean isDrainingBuffer;
+    private long drainStartTimeNs;
+    private int maxDrainReadBytes;
+
+    public BurstyTransfer(long startTimeNs) {
+      lastReadTimeNs = startTimeNs;
+    }
+
+    public void onBytesTransferred(long nowNs, int bytesTransferred, long idleGapThresholdNs) {
+      long intervalNs = nowNs - lastReadTimeNs;
+      lastReadTimeNs = nowNs;
+      if (intervalNs > idleGapThresholdNs) {
+        // The source was idle before these bytes became available, so the rate at which they
+        // arrived is unknown. Start a new burst once the data buffered during the gap is read.
+        isDrainingBuffer = true;
+        drainStartTimeNs = nowNs;
+        maxDrainReadBytes = bytesTransferred;
+        return;
+      }
+      if (isDrainingBuffer && intervalNs <= MAX_BUFFERED_READ_INTERVAL_NS) {
+        if (bytesTransferred < maxDrainReadBytes) {
+          // The read couldn't be filled, so it returned the last of the buffered data.
+          isDrainingBuffer = false;
+          return;
+        } else if (nowNs - drainStartTimeNs <= MAX_BUFFER_DRAIN_DURATION_NS) {
+          maxDrainReadBytes = bytesTransferred;
+          return;
+        }
+      }
+      isDrainingBuffer = false;
+      burstBytesTransferred += bytesTransferred;
+      burstElapsedTimeNs += intervalNs;
+    }
+
+    public void reset(long nowNs) {
+      burstBytesTransferred = 0;
+      burstElapsedTimeNs = 0;
+      lastReadTimeNs = nowNs;
+      isDrainingBuffer = false;
+    }
+  }
 }
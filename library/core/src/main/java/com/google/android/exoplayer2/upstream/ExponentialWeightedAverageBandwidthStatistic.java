@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static java.lang.Math.min;
+
+/**
+ * A {@link BandwidthStatistic} that keeps a fast and a slow exponentially weighted moving average
+ * of the sample bitrates, and estimates the lower of the two.
+ *
+ * <p>Samples are weighted by their duration, and the averages decay with configurable half-lives
+ * of transfer time. The fast average reacts quickly to drops in bandwidth, while the slow average
+ * prevents short bursts from raising the estimate.
+ */
+public final class ExponentialWeightedAverageBandwidthStatistic implements BandwidthStatistic {
+
+  /** The default half-life of the fast average, in microseconds. */
+  public static final long DEFAULT_FAST_HALF_LIFE_US = 2_000_000;
+  /** The default half-life of the slow average, in microseconds. */
+  public static final long DEFAULT_SLOW_HALF_LIFE_US = 5_000_000;
+
+  private final ExponentialWeightedAverage fastAverage;
+  private final ExponentialWeightedAverage slowAverage;
+
+  /** Creates an instance with default half-lives. */
+  public ExponentialWeightedAverageBandwidthStatistic() {
+    this(DEFAULT_FAST_HALF_LIFE_US, DEFAULT_SLOW_HALF_LIFE_US);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param fastHalfLifeUs The half-life of the fast average, in microseconds of transfer time.
+   * @param slowHalfLifeUs The half-life of the slow average, in microseconds of transfer time.
+   */
+  public ExponentialWeightedAverageBandwidthStatistic(long fastHalfLifeUs, long slowHalfLifeUs) {
+    fastAverage = new ExponentialWeightedAverage(fastHalfLifeUs);
+    slowAverage = new ExponentialWeightedAverage(slowHalfLifeUs);
+  }
+
+  @Override
+  public void addSample(long bytes, long durationUs) {
+    double bitsPerSecond = bytes * 8_000_000d / durationUs;
+    fastAverage.addSample(bitsPerSecond, durationUs);
+    slowAverage.addSample(bitsPerSecond, durationUs);
+  }
+
+  @Override
+  public long getBandwidthEstimate() {
+    if (fastAverage.totalWeightUs == 0) {
+      return ESTIMATE_NOT_AVAILABLE;
+    }
+    return (long) min(fastAverage.getAverage(), slowAverage.getAverage());
+  }
+
+  @Override
+  public void reset() {
+    fastAverage.reset();
+    slowAverage.reset();
+  }
+
+  private static final class ExponentialWeightedAverage {
+
+    private final double halfLifeUs;
+
+    private double average;
+    private long totalWeightUs;
+
+    public ExponentialWeightedAverage(long halfLifeUs) {
+      this.halfLifeUs = halfLifeUs;
+    }
+
+    public void addSample(double value, long weightUs) {
+      double retainedFraction = Math.pow(0.5, weightUs / halfLifeUs);
+      average = value * (1 - retainedFraction) + average * retainedFraction;
+      totalWeightUs += weightUs;
+    }
+
+    public double getAverage() {
+      // Correct the bias towards the initial value of zero.
+      return average / (1 - Math.pow(0.5, totalWeightUs / halfLifeUs));
+    }
+
+    public void reset() {
+      average = 0;
+      totalWeightUs = 0;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import androidx.annotation.VisibleForTesting;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.Util;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link TimeToFirstByteEstimator} that estimates the time to first byte as an exponentially
+ * weighted moving average of the time between the initialization and the start of each transfer.
+ */
+public final class ExponentialWeightedAverageTimeToFirstByteEstimator
+    implements TimeToFirstByteEstimator {
+
+  /** The default smoothing factor. */
+  public static final double DEFAULT_SMOOTHING_FACTOR = 0.85;
+
+  /** The maximum number of initialized transfers that are tracked at the same time. */
+  private static final int MAX_PENDING_TRANSFERS = 10;
+
+  private final Map<DataSpec, Long> initializedTransfers;
+  private final double smoothingFactor;
+  private final Clock clock;
+
+  private long estimateUs;
+
+  /** Creates an instance using the {@link #DEFAULT_SMOOTHING_FACTOR}. */
+  public ExponentialWeightedAverageTimeToFirstByteEstimator() {
+    this(DEFAULT_SMOOTHING_FACTOR, Clock.DEFAULT);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param smoothingFactor The weight of the previous estimate, between 0 (exclusive) and 1
+   *     (exclusive). Higher values make the estimate react slower to new samples.
+   */
+  public ExponentialWeightedAverageTimeToFirstByteEstimator(double smoothingFactor) {
+    this(smoothingFactor, Clock.DEFAULT);
+  }
+
+  @VisibleForTesting
+  /* package */ ExponentialWeightedAverageTimeToFirstByteEstimator(
+      double smoothingFactor, Clock clock) {
+    this.smoothingFactor = smoothingFactor;
+    this.clock = clock;
+    initializedTransfers =
+        new LinkedHashMap<DataSpec, Long>() {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<DataSpec, Long> eldest) {
+            // Transfers that fail before they start are never removed otherwise.
+            return size() > MAX_PENDING_TRANSFERS;
+          }
+        };
+    estimateUs = C.TIME_UNSET;
+  }
+
+  @Override
+  public synchronized long getTimeToFirstByteEstimateUs() {
+    return estimateUs;
+  }
+
+  @Override
+  public synchronized void reset() {
+    initializedTransfers.clear();
+    estimateUs = C.TIME_UNSET;
+  }
+
+  @Override
+  public synchronized void onTransferInitializing(DataSpec dataSpec) {
+    // Re-insert to move the transfer to the end of the eviction order.
+    initializedTransfers.remove(dataSpec);
+    initializedTransfers.put(dataSpec, Util.msToUs(clock.elapsedRealtime()));
+  }
+
+  @Override
+  public synchronized void onTransferStart(DataSpec dataSpec) {
+    Long initializationTimeUs = initializedTransfers.remove(dataSpec);
+    if (initializationTimeUs == null) {
+      return;
+    }
+    long timeToFirstByteUs = Util.msToUs(clock.elapsedRealtime()) - initializationTimeUs;
+    if (estimateUs == C.TIME_UNSET) {
+      estimateUs = timeToFirstByteUs;
+    } else {
+      estimateUs =
+          (long) (smoothingFactor * estimateUs + (1 - smoothingFactor) * timeToFirstByteUs);
+    }
+  }
+}
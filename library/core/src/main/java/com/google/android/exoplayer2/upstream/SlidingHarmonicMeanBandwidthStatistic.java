@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import java.util.ArrayDeque;
+
+/**
+ * A {@link BandwidthStatistic} that estimates the harmonic mean of the bitrates of the most recent
+ * samples.
+ *
+ * <p>The harmonic mean is dominated by the slowest samples, which makes the estimate robust
+ * against short bursts of high throughput.
+ */
+public final class SlidingHarmonicMeanBandwidthStatistic implements BandwidthStatistic {
+
+  /** The default maximum number of samples in the sliding window. */
+  public static final int DEFAULT_MAX_SAMPLE_COUNT = 10;
+
+  private final int maxSampleCount;
+  private final ArrayDeque<Double> inverseBitrates;
+
+  private double inverseBitrateSum;
+
+  /** Creates an instance with a window of {@link #DEFAULT_MAX_SAMPLE_COUNT} samples. */
+  public SlidingHarmonicMeanBandwidthStatistic() {
+    this(DEFAULT_MAX_SAMPLE_COUNT);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxSampleCount The maximum number of samples in the sliding window.
+   */
+  public SlidingHarmonicMeanBandwidthStatistic(int maxSampleCount) {
+    this.maxSampleCount = maxSampleCount;
+    inverseBitrates = new ArrayDeque<>(maxSampleCount);
+  }
+
+  @Override
+  public void addSample(long bytes, long durationUs) {
+    if (bytes <= 0) {
+      // A sample without data would make the harmonic mean zero.
+      return;
+    }
+    double inverseBitrate = durationUs / (bytes * 8_000_000d);
+    if (inverseBitrates.size() == maxSampleCount) {
+      inverseBitrateSum -= inverseBitrates.removeFirst();
+    }
+    inverseBitrates.addLast(inverseBitrate);
+    inverseBitrateSum += inverseBitrate;
+  }
+
+  @Override
+  public long getBandwidthEstimate() {
+    if (inverseBitrates.isEmpty()) {
+      return ESTIMATE_NOT_AVAILABLE;
+    }
+    return (long) (inverseBitrates.size() / inverseBitrateSum);
+  }
+
+  @Override
+  public void reset() {
+    inverseBitrates.clear();
+    inverseBitrateSum = 0;
+  }
+}
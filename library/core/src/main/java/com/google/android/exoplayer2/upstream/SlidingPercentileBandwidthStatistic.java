@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+/**
+ * A {@link BandwidthStatistic} that estimates a percentile of the bitrates of a sliding window of
+ * samples, weighted by the square root of their number of bytes.
+ *
+ * <p>This is the statistic used by {@link DefaultBandwidthMeter} by default.
+ */
+public final class SlidingPercentileBandwidthStatistic implements BandwidthStatistic {
+
+  /** The default maximum weight of the sliding window. */
+  public static final int DEFAULT_MAX_WEIGHT = 2000;
+  /** The default percentile, the median. */
+  public static final float DEFAULT_PERCENTILE = 0.5f;
+
+  private final SlidingPercentile slidingPercentile;
+  private final float percentile;
+
+  private boolean hasSamples;
+
+  /** Creates an instance with the median over a window of {@link #DEFAULT_MAX_WEIGHT}. */
+  public SlidingPercentileBandwidthStatistic() {
+    this(DEFAULT_MAX_WEIGHT, DEFAULT_PERCENTILE);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxWeight The maximum weight of the sliding window.
+   * @param percentile The percentile of the bitrates to estimate, between 0 and 1.
+   */
+  public SlidingPercentileBandwidthStatistic(int maxWeight, float percentile) {
+    slidingPercentile = new SlidingPercentile(maxWeight);
+    this.percentile = percentile;
+  }
+
+  @Override
+  public void addSample(long bytes, long durationUs) {
+    float bitsPerSecond = (bytes * 8_000_000f) / durationUs;
+    slidingPercentile.addSample((int) Math.sqrt(bytes), bitsPerSecond);
+    hasSamples = true;
+  }
+
+  @Override
+  public long getBandwidthEstimate() {
+    return hasSamples ? (long) slidingPercentile.getPercentile(percentile) : ESTIMATE_NOT_AVAILABLE;
+  }
+
+  @Override
+  public void reset() {
+    slidingPercentile.reset();
+    hasSamples = false;
+  }
+}
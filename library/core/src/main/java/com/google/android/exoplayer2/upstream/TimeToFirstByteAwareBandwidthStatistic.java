@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import com.google.android.exoplayer2.C;
+
+/**
+ * A {@link BandwidthStatistic} that accounts for the time to first byte of transfers.
+ *
+ * <p>{@link DefaultBandwidthMeter} measures transfers from the moment they start, which excludes
+ * the time spent waiting for the response. For small transfers, such as the parts of low latency
+ * streams, this overestimates the effective throughput. This statistic adds the current time to
+ * first byte estimate to the duration of each sample before passing it to a delegate statistic.
+ *
+ * <p>The {@link TimeToFirstByteEstimator} should be the one passed to {@link
+ * DefaultBandwidthMeter.Builder#setTimeToFirstByteEstimator}, so that it's fed the same transfers.
+ */
+public final class TimeToFirstByteAwareBandwidthStatistic implements BandwidthStatistic {
+
+  private final BandwidthStatistic delegate;
+  private final TimeToFirstByteEstimator timeToFirstByteEstimator;
+
+  /**
+   * Creates an instance.
+   *
+   * @param delegate The {@link BandwidthStatistic} to pass the adjusted samples to.
+   * @param timeToFirstByteEstimator The {@link TimeToFirstByteEstimator} providing the time to
+   *     first byte estimate.
+   */
+  public TimeToFirstByteAwareBandwidthStatistic(
+      BandwidthStatistic delegate, TimeToFirstByteEstimator timeToFirstByteEstimator) {
+    this.delegate = delegate;
+    this.timeToFirstByteEstimator = timeToFirstByteEstimator;
+  }
+
+  @Override
+  public void addSample(long bytes, long durationUs) {
+    long timeToFirstByteUs = timeToFirstByteEstimator.getTimeToFirstByteEstimateUs();
+    if (timeToFirstByteUs != C.TIME_UNSET) {
+      durationUs += timeToFirstByteUs;
+    }
+    delegate.addSample(bytes, durationUs);
+  }
+
+  @Override
+  public long getBandwidthEstimate() {
+    return delegate.getBandwidthEstimate();
+  }
+
+  @Override
+  public void reset() {
+    // The time to first byte estimator is reset by the bandwidth meter.
+    delegate.reset();
+  }
+}
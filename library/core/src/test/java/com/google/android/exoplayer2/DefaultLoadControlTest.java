@@ -21,6 +21,8 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.exoplayer2.DefaultLoadControl.Builder;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.ExoTrackSelection;
+import com.google.android.exoplayer2.upstream.Allocation;
+import com.google.android.exoplayer2.upstream.Allocator;
 import com.google.android.exoplayer2.upstream.DefaultAllocator;
 import com.google.android.exoplayer2.util.Util;
 import org.junit.Before;
@@ -311,6 +313,47 @@ public class DefaultLoadControlTest {
         .isTrue();
   }
 
+  @Test
+  public void shouldContinueLoading_withSharedBufferBudget_stopsAtShareOfBudget() {
+    SharedBufferBudget budget =
+        new SharedBufferBudget(TARGET_BUFFER_BYTES + C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    DefaultLoadControl foregroundLoadControl =
+        new Builder()
+            .setTargetBufferBytes(TARGET_BUFFER_BYTES)
+            .setSharedBufferBudgetParticipant(budget.addParticipant(C.PRIORITY_PLAYBACK))
+            .build();
+    foregroundLoadControl.onTracksSelected(new Renderer[0], null, null);
+    SharedBufferBudget.Participant participant = budget.addParticipant(C.PRIORITY_PLAYBACK - 1);
+    builder.setSharedBufferBudgetParticipant(participant);
+    build();
+
+    allocator.allocate();
+
+    assertThat(participant.getBudgetBytes()).isEqualTo(C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    assertThat(participant.getAllocatedBytes()).isEqualTo(C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    assertThat(loadControl.shouldContinueLoading(/* playbackPositionUs= */ 0, MIN_BUFFER_US, SPEED))
+        .isFalse();
+
+    participant.setPriority(C.PRIORITY_PLAYBACK + 1);
+
+    assertThat(participant.getBudgetBytes()).isEqualTo(TARGET_BUFFER_BYTES);
+    assertThat(loadControl.shouldContinueLoading(/* playbackPositionUs= */ 0, MIN_BUFFER_US, SPEED))
+        .isTrue();
+  }
+
+  @Test
+  public void build_withAllocationsPerSlab_createsAllocationsInSlabs() {
+    loadControl = builder.setAllocationsPerSlab(2).build();
+    Allocator defaultAllocator = loadControl.getAllocator();
+
+    Allocation allocation1 = defaultAllocator.allocate();
+    Allocation allocation2 = defaultAllocator.allocate();
+    Allocation allocation3 = defaultAllocator.allocate();
+
+    assertThat(allocation2.data).isSameInstanceAs(allocation1.data);
+    assertThat(allocation3.data).isNotSameInstanceAs(allocation1.data);
+  }
+
   private void build() {
     builder.setAllocator(allocator).setTargetBufferBytes(TARGET_BUFFER_BYTES);
     loadControl = builder.build();
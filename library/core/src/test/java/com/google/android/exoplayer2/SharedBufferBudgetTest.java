@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.Arrays.asList;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.SharedBufferBudget.Participant;
+import com.google.android.exoplayer2.upstream.Allocation;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link SharedBufferBudget}. */
+@RunWith(AndroidJUnit4.class)
+public final class SharedBufferBudgetTest {
+
+  @Test
+  public void higherPriorityParticipant_isGivenItsRequestedBytesFirst() {
+    SharedBufferBudget budget = new SharedBufferBudget(/* totalBytes= */ 1000);
+    Participant foreground = budget.addParticipant(C.PRIORITY_PLAYBACK);
+    Participant preloader = budget.addParticipant(C.PRIORITY_PLAYBACK - 1);
+
+    preloader.setRequestedBytes(800);
+    foreground.setRequestedBytes(600);
+
+    assertThat(foreground.getBudgetBytes()).isEqualTo(600);
+    assertThat(preloader.getBudgetBytes()).isEqualTo(400);
+  }
+
+  @Test
+  public void participantsWithSamePriority_shareRemainingBytes() {
+    SharedBufferBudget budget = new SharedBufferBudget(/* totalBytes= */ 1000);
+    Participant foreground = budget.addParticipant(C.PRIORITY_PLAYBACK);
+    Participant preloader1 = budget.addParticipant(C.PRIORITY_PLAYBACK - 1);
+    Participant preloader2 = budget.addParticipant(C.PRIORITY_PLAYBACK - 1);
+    Participant preloader3 = budget.addParticipant(C.PRIORITY_PLAYBACK - 1);
+
+    foreground.setRequestedBytes(400);
+    preloader1.setRequestedBytes(100);
+    preloader2.setRequestedBytes(500);
+    preloader3.setRequestedBytes(500);
+
+    assertThat(foreground.getBudgetBytes()).isEqualTo(400);
+    // preloader1 requires less than an equal share, so the others share what it doesn't require.
+    assertThat(preloader1.getBudgetBytes()).isEqualTo(100);
+    assertThat(preloader2.getBudgetBytes()).isEqualTo(250);
+    assertThat(preloader3.getBudgetBytes()).isEqualTo(250);
+  }
+
+  @Test
+  public void setPriority_redistributesBudget() {
+    SharedBufferBudget budget = new SharedBufferBudget(/* totalBytes= */ 1000);
+    Participant participant1 = budget.addParticipant(C.PRIORITY_PLAYBACK);
+    Participant participant2 = budget.addParticipant(C.PRIORITY_PLAYBACK - 1);
+    participant1.setRequestedBytes(800);
+    participant2.setRequestedBytes(800);
+
+    participant1.setPriority(C.PRIORITY_PLAYBACK - 2);
+
+    assertThat(participant1.getBudgetBytes()).isEqualTo(200);
+    assertThat(participant2.getBudgetBytes()).isEqualTo(800);
+  }
+
+  @Test
+  public void removeParticipant_redistributesBudget() {
+    SharedBufferBudget budget = new SharedBufferBudget(/* totalBytes= */ 1000);
+    Participant participant1 = budget.addParticipant(C.PRIORITY_PLAYBACK);
+    Participant participant2 = budget.addParticipant(C.PRIORITY_PLAYBACK - 1);
+    participant1.setRequestedBytes(800);
+    participant2.setRequestedBytes(800);
+
+    budget.removeParticipant(participant1);
+
+    assertThat(budget.getParticipants()).containsExactly(participant2);
+    assertThat(participant2.getBudgetBytes()).isEqualTo(800);
+  }
+
+  @Test
+  public void reducedBudget_trimsAllocator() {
+    SharedBufferBudget budget = new SharedBufferBudget(/* totalBytes= */ 4 * 100);
+    Participant participant = budget.addParticipant(C.PRIORITY_PLAYBACK - 1);
+    DefaultAllocator allocator =
+        new DefaultAllocator(/* trimOnReset= */ true, /* individualAllocationSize= */ 100);
+    participant.setAllocator(allocator);
+    participant.setRequestedBytes(4 * 100);
+    Allocation[] allocations = new Allocation[4];
+    for (int i = 0; i < allocations.length; i++) {
+      allocations[i] = allocator.allocate();
+    }
+    assertThat(participant.getAllocatedBytes()).isEqualTo(400);
+    for (Allocation allocation : allocations) {
+      allocator.release(allocation);
+    }
+
+    Participant foreground = budget.addParticipant(C.PRIORITY_PLAYBACK);
+    foreground.setRequestedBytes(3 * 100);
+
+    // Only one of the released allocations is kept for reuse.
+    assertThat(participant.getBudgetBytes()).isEqualTo(100);
+    assertThat(participant.getAllocatedBytes()).isEqualTo(0);
+    Allocation reusedAllocation = allocator.allocate();
+    Allocation newAllocation = allocator.allocate();
+    assertThat(reusedAllocation).isIn(asList(allocations));
+    assertThat(newAllocation).isNotIn(asList(allocations));
+    assertThat(budget.getTotalBytesAllocated()).isEqualTo(200);
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.mediacodec;
+
+import static com.google.android.exoplayer2.util.MimeTypes.AUDIO_AAC;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PersistableBundle;
+import android.view.Surface;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.decoder.CryptoInfo;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link MediaCodecPool}. */
+@RunWith(AndroidJUnit4.class)
+public final class MediaCodecPoolTest {
+
+  private static final long KEEP_ALIVE_MS = 1_000;
+  private static final MediaCodecInfo AAC_CODEC_INFO =
+      MediaCodecInfo.newInstance(
+          "aac.decoder",
+          AUDIO_AAC,
+          AUDIO_AAC,
+          /* capabilities= */ null,
+          /* hardwareAccelerated= */ false,
+          /* softwareOnly= */ true,
+          /* vendor= */ false,
+          /* forceDisableAdaptive= */ false,
+          /* forceSecure= */ false);
+
+  private FakeMediaCodecAdapterFactory fakeFactory;
+  private MediaCodecPool mediaCodecPool;
+  private MediaCodecAdapter.Factory pooledFactory;
+
+  @Before
+  public void setUp() {
+    fakeFactory = new FakeMediaCodecAdapterFactory();
+    mediaCodecPool =
+        new MediaCodecPool(
+            ApplicationProvider.getApplicationContext(),
+            /* maxPooledCodecs= */ 2,
+            KEEP_ALIVE_MS,
+            /* evictionLooper= */ Looper.getMainLooper());
+    pooledFactory = mediaCodecPool.createAdapterFactory(fakeFactory);
+  }
+
+  @Test
+  public void createAdapter_afterCompatibleCodecReleased_reusesFlushedCodec() throws Exception {
+    MediaCodecAdapter adapter = pooledFactory.createAdapter(createAacConfiguration(44_100));
+    adapter.release();
+    MediaCodecAdapter reusedAdapter = pooledFactory.createAdapter(createAacConfiguration(44_100));
+
+    assertThat(fakeFactory.createdAdapters).hasSize(1);
+    FakeMediaCodecAdapter fakeAdapter = fakeFactory.createdAdapters.get(0);
+    assertThat(fakeAdapter.flushCount).isEqualTo(1);
+    assertThat(fakeAdapter.released).isFalse();
+    assertThat(mediaCodecPool.getHitCount()).isEqualTo(1);
+    assertThat(mediaCodecPool.getMissCount()).isEqualTo(1);
+    assertThat(mediaCodecPool.getPooledCodecCount()).isEqualTo(0);
+    reusedAdapter.release();
+    assertThat(mediaCodecPool.getPooledCodecCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void createAdapter_withIncompatibleFormat_createsNewCodec() throws Exception {
+    pooledFactory.createAdapter(createAacConfiguration(44_100)).release();
+    pooledFactory.createAdapter(createAacConfiguration(48_000));
+
+    assertThat(fakeFactory.createdAdapters).hasSize(2);
+    assertThat(mediaCodecPool.getHitCount()).isEqualTo(0);
+    assertThat(mediaCodecPool.getMissCount()).isEqualTo(2);
+    assertThat(mediaCodecPool.getPooledCodecCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void createAdapter_withDifferentPcmEncoding_createsNewCodec() throws Exception {
+    pooledFactory
+        .createAdapter(createAacConfiguration(44_100, /* pcmEncoding= */ C.ENCODING_PCM_16BIT))
+        .release();
+    pooledFactory.createAdapter(
+        createAacConfiguration(44_100, /* pcmEncoding= */ C.ENCODING_PCM_FLOAT));
+
+    assertThat(fakeFactory.createdAdapters).hasSize(2);
+    assertThat(mediaCodecPool.getHitCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void reusedAdapter_withKnownOutputFormat_reportsOutputFormatChangeFirst()
+      throws Exception {
+    MediaCodecAdapter adapter = pooledFactory.createAdapter(createAacConfiguration(44_100));
+    fakeFactory.createdAdapters.get(0).pendingOutputFormatChange = true;
+    assertThat(adapter.dequeueOutputBufferIndex(new MediaCodec.BufferInfo()))
+        .isEqualTo(MediaCodec.INFO_OUTPUT_FORMAT_CHANGED);
+    adapter.release();
+
+    MediaCodecAdapter reusedAdapter = pooledFactory.createAdapter(createAacConfiguration(44_100));
+
+    assertThat(reusedAdapter.dequeueOutputBufferIndex(new MediaCodec.BufferInfo()))
+        .isEqualTo(MediaCodec.INFO_OUTPUT_FORMAT_CHANGED);
+    assertThat(reusedAdapter.dequeueOutputBufferIndex(new MediaCodec.BufferInfo()))
+        .isEqualTo(MediaCodec.INFO_TRY_AGAIN_LATER);
+  }
+
+  @Test
+  public void release_withFullPool_evictsLeastRecentlyReleasedCodec() throws Exception {
+    MediaCodecAdapter adapter1 = pooledFactory.createAdapter(createAacConfiguration(44_100));
+    MediaCodecAdapter adapter2 = pooledFactory.createAdapter(createAacConfiguration(44_100));
+    MediaCodecAdapter adapter3 = pooledFactory.createAdapter(createAacConfiguration(44_100));
+
+    adapter1.release();
+    adapter2.release();
+    adapter3.release();
+
+    assertThat(fakeFactory.createdAdapters.get(0).released).isTrue();
+    assertThat(fakeFactory.createdAdapters.get(1).released).isFalse();
+    assertThat(fakeFactory.createdAdapters.get(2).released).isFalse();
+    assertThat(mediaCodecPool.getPooledCodecCount()).isEqualTo(2);
+    assertThat(mediaCodecPool.getEvictionCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void pooledCodec_afterKeepAliveTime_isReleased() throws Exception {
+    pooledFactory.createAdapter(createAacConfiguration(44_100)).release();
+
+    shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(KEEP_ALIVE_MS));
+
+    assertThat(fakeFactory.createdAdapters.get(0).released).isTrue();
+    assertThat(mediaCodecPool.getPooledCodecCount()).isEqualTo(0);
+    assertThat(mediaCodecPool.getEvictionCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void createAdapter_failingWithPooledCodecs_releasesPooledCodecsAndRetries()
+      throws Exception {
+    pooledFactory.createAdapter(createAacConfiguration(44_100)).release();
+    fakeFactory.failNextCreation = true;
+
+    pooledFactory.createAdapter(createAacConfiguration(48_000));
+
+    assertThat(fakeFactory.createdAdapters).hasSize(2);
+    assertThat(fakeFactory.createdAdapters.get(0).released).isTrue();
+    assertThat(mediaCodecPool.getPooledCodecCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void createAdapter_failingWithEmptyPool_throws() {
+    fakeFactory.failNextCreation = true;
+
+    assertThrows(
+        IOException.class, () -> pooledFactory.createAdapter(createAacConfiguration(44_100)));
+  }
+
+  private static MediaCodecAdapter.Configuration createAacConfiguration(int sampleRate) {
+    return createAacConfiguration(sampleRate, /* pcmEncoding= */ Format.NO_VALUE);
+  }
+
+  private static MediaCodecAdapter.Configuration createAacConfiguration(
+      int sampleRate, int pcmEncoding) {
+    Format format =
+        new Format.Builder()
+            .setSampleMimeType(AUDIO_AAC)
+            .setSampleRate(sampleRate)
+            .setChannelCount(2)
+            .build();
+    MediaFormat mediaFormat = MediaFormat.createAudioFormat(AUDIO_AAC, sampleRate, 2);
+    if (pcmEncoding != Format.NO_VALUE) {
+      mediaFormat.setInteger(MediaFormat.KEY_PCM_ENCODING, pcmEncoding);
+    }
+    return MediaCodecAdapter.Configuration.createForAudioDecoding(
+        AAC_CODEC_INFO, mediaFormat, format, /* crypto= */ null);
+  }
+
+  private static final class FakeMediaCodecAdapterFactory implements MediaCodecAdapter.Factory {
+
+    public final List<FakeMediaCodecAdapter> createdAdapters;
+    public boolean failNextCreation;
+
+    public FakeMediaCodecAdapterFactory() {
+      createdAdapters = new ArrayList<>();
+    }
+
+    @Override
+    public MediaCodecAdapter createAdapter(MediaCodecAdapter.Configuration configuration)
+        throws IOException {
+      if (failNextCreation) {
+        failNextCreation = false;
+        throw new IOException();
+      }
+      FakeMediaCodecAdapter adapter = new FakeMediaCodecAdapter();
+      createdAdapters.add(adapter);
+      return adapter;
+    }
+  }
+
+  private static final class FakeMediaCodecAdapter implements MediaCodecAdapter {
+
+    public int flushCount;
+    public boolean released;
+    public boolean pendingOutputFormatChange;
+
+    @Override
+    public int dequeueInputBufferIndex() {
+      return MediaCodec.INFO_TRY_AGAIN_LATER;
+    }
+
+    @Override
+    public int dequeueOutputBufferIndex(MediaCodec.BufferInfo bufferInfo) {
+      if (pendingOutputFormatChange) {
+        pendingOutputFormatChange = false;
+        return MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+      }
+      return MediaCodec.INFO_TRY_AGAIN_LATER;
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+      return new MediaFormat();
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+      return null;
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+      return null;
+    }
+
+    @Override
+    public void queueInputBuffer(
+        int index, int offset, int size, long presentationTimeUs, int flags) {}
+
+    @Override
+    public void queueSecureInputBuffer(
+        int index, int offset, CryptoInfo info, long presentationTimeUs, int flags) {}
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {}
+
+    @Override
+    public void releaseOutputBuffer(int index, long renderTimeStampNs) {}
+
+    @Override
+    public void flush() {
+      flushCount++;
+    }
+
+    @Override
+    public void release() {
+      released = true;
+    }
+
+    @Override
+    public void setOnFrameRenderedListener(OnFrameRenderedListener listener, Handler handler) {}
+
+    @Override
+    public void setOutputSurface(Surface surface) {}
+
+    @Override
+    public void setParameters(Bundle params) {}
+
+    @Override
+    public void setVideoScalingMode(@C.VideoScalingMode int scalingMode) {}
+
+    @Override
+    public boolean needsReconfiguration() {
+      return false;
+    }
+
+    @Override
+    public PersistableBundle getMetrics() {
+      return new PersistableBundle();
+    }
+  }
+}
@@ -105,6 +105,7 @@ public class DefaultDownloadIndexTest {
                 new StreamKey(/* periodIndex= */ 3, /* groupIndex= */ 4, /* trackIndex= */ 5))
             .setCustomMetadata(new byte[] {0, 1, 2, 3, 7, 8, 9, 10})
             .setKeySetId(new byte[] {0, 1, 2, 3})
+            .setPriority(5)
             .build();
     downloadIndex.putDownload(download);
     Download readDownload = downloadIndex.getDownload(id);
@@ -260,6 +261,31 @@ public class DefaultDownloadIndexTest {
     assertEqual(downloadIndex.getDownload("http://www.test.com/video.mp4"), progressiveDownload);
   }
 
+  @Test
+  public void downloadIndex_upgradesFromVersion3() throws DatabaseIOException {
+    SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
+    VersionTable.setVersion(writableDatabase, VersionTable.FEATURE_OFFLINE, EMPTY_NAME, 3);
+    writableDatabase.execSQL(
+        "CREATE TABLE ExoPlayerDownloads (id TEXT PRIMARY KEY NOT NULL,mime_type TEXT,uri TEXT NOT"
+            + " NULL,stream_keys TEXT NOT NULL,custom_cache_key TEXT,data BLOB NOT NULL,state"
+            + " INTEGER NOT NULL,start_time_ms INTEGER NOT NULL,update_time_ms INTEGER NOT"
+            + " NULL,content_length INTEGER NOT NULL,stop_reason INTEGER NOT NULL,failure_reason"
+            + " INTEGER NOT NULL,percent_downloaded REAL NOT NULL,bytes_downloaded INTEGER NOT"
+            + " NULL,key_set_id BLOB NOT NULL)");
+    writableDatabase.execSQL(
+        "INSERT INTO ExoPlayerDownloads VALUES ('id', NULL, 'uri', '', NULL, x'', 0, 10, 20, -1,"
+            + " 0, 0, -1.0, 0, x'')");
+
+    downloadIndex = new DefaultDownloadIndex(databaseProvider);
+
+    Download download = downloadIndex.getDownload("id");
+    assertThat(download).isNotNull();
+    assertThat(download.request.priority).isEqualTo(0);
+    assertThat(download.startTimeMs).isEqualTo(10);
+    assertThat(VersionTable.getVersion(writableDatabase, VersionTable.FEATURE_OFFLINE, EMPTY_NAME))
+        .isEqualTo(DefaultDownloadIndex.TABLE_VERSION);
+  }
+
   @Test
   public void setStopReason_setReasonToNone() throws Exception {
     String id = "id";
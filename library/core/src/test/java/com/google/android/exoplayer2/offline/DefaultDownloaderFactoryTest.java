@@ -18,10 +18,18 @@ package com.google.android.exoplayer2.offline;
 import static com.google.common.truth.Truth.assertThat;
 
 import android.net.Uri;
+import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.testutil.FakeDataSet;
+import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.testutil.TestUtil;
 import com.google.android.exoplayer2.upstream.PlaceholderDataSource;
 import com.google.android.exoplayer2.upstream.cache.Cache;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import com.google.android.exoplayer2.util.Util;
+import java.io.File;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
@@ -45,4 +53,38 @@ public final class DefaultDownloaderFactoryTest {
                 .build());
     assertThat(downloader).isInstanceOf(ProgressiveDownloader.class);
   }
+
+  @Test
+  public void createProgressiveDownloader_withParallelDownloads_downloadsInRanges()
+      throws Exception {
+    File testDir =
+        Util.createTempFile(
+            ApplicationProvider.getApplicationContext(), "DefaultDownloaderFactoryTest");
+    assertThat(testDir.delete()).isTrue();
+    assertThat(testDir.mkdirs()).isTrue();
+    Cache cache =
+        new SimpleCache(testDir, new NoOpCacheEvictor(), TestUtil.getInMemoryDatabaseProvider());
+    try {
+      Uri uri = Uri.parse("test:///test.mp4");
+      FakeDataSet data = new FakeDataSet();
+      data.newData(uri).appendReadData(100);
+      CacheDataSource.Factory cacheDataSourceFactory =
+          new CacheDataSource.Factory()
+              .setCache(cache)
+              .setUpstreamDataSourceFactory(new FakeDataSource.Factory().setFakeDataSet(data));
+      DownloaderFactory factory =
+          new DefaultDownloaderFactory(cacheDataSourceFactory, /* executor= */ Runnable::run)
+              .setProgressiveParallelDownloads(
+                  /* maxParallelDownloads= */ 3, /* rangeLengthBytes= */ 30);
+
+      Downloader downloader =
+          factory.createDownloader(new DownloadRequest.Builder(/* id= */ "id", uri).build());
+      downloader.download(/* progressListener= */ null);
+
+      assertThat(cache.getCachedSpans(uri.toString())).hasSize(4);
+    } finally {
+      cache.release();
+      Util.recursiveDelete(testDir);
+    }
+  }
 }
@@ -375,6 +375,43 @@ public class DownloadManagerTest {
     assertCurrentDownloadCount(0);
   }
 
+  @Test
+  public void download_withHigherPriority_maxDownloadsIsOne_preemptsLowerPriorityDownload()
+      throws Throwable {
+    setupDownloadManager(/* maxParallelDownloads= */ 1);
+    postDownloadRequest(ID1);
+    FakeDownloader downloader0 = getDownloaderAt(0);
+    downloader0.assertId(ID1);
+    downloader0.assertDownloadStarted();
+
+    // The higher priority download should cause the first one to be requeued.
+    runOnMainThread(
+        () ->
+            downloadManager.addDownload(
+                new DownloadRequest.Builder(ID2, Uri.parse("http://abc.com/ " + ID2))
+                    .setPriority(1)
+                    .build()));
+    downloader0.assertCanceled();
+    FakeDownloader downloader1 = getDownloaderAt(1);
+    downloader1.assertId(ID2);
+    downloader1.assertDownloadStarted();
+    assertQueued(ID1);
+    downloader1.finish();
+    assertCompleted(ID2);
+
+    // The first download resumes once the higher priority download has completed.
+    FakeDownloader downloader2 = getDownloaderAt(2);
+    downloader2.assertId(ID1);
+    downloader2.assertDownloadStarted();
+    downloader2.finish();
+    assertCompleted(ID1);
+
+    downloadManagerListener.blockUntilIdleAndThrowAnyFailure();
+    assertDownloaderCount(3);
+    assertDownloadIndexSize(2);
+    assertCurrentDownloadCount(0);
+  }
+
   @Test
   public void downloadAndRemove_withDifferentIds_maxDownloadsIsOne_executeInParallel()
       throws Throwable {
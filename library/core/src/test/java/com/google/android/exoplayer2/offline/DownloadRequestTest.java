@@ -103,26 +103,30 @@ public class DownloadRequestTest {
             .setKeySetId(keySetId1)
             .setCustomCacheKey("key1")
             .setData(data1)
+            .setPriority(1)
             .build();
     DownloadRequest request2 =
         new DownloadRequest.Builder(/* id= */ "id1", uri2)
             .setKeySetId(keySetId2)
             .setCustomCacheKey("key2")
             .setData(data2)
+            .setPriority(2)
             .build();
 
-    // uri, keySetId, customCacheKey and data should be from the request being merged.
+    // uri, keySetId, customCacheKey, data and priority should be from the request being merged.
     DownloadRequest mergedRequest = request1.copyWithMergedRequest(request2);
     assertThat(mergedRequest.uri).isEqualTo(uri2);
     assertThat(mergedRequest.keySetId).isEqualTo(keySetId2);
     assertThat(mergedRequest.customCacheKey).isEqualTo("key2");
     assertThat(mergedRequest.data).isEqualTo(data2);
+    assertThat(mergedRequest.priority).isEqualTo(2);
 
     mergedRequest = request2.copyWithMergedRequest(request1);
     assertThat(mergedRequest.uri).isEqualTo(uri1);
     assertThat(mergedRequest.keySetId).isEqualTo(keySetId1);
     assertThat(mergedRequest.customCacheKey).isEqualTo("key1");
     assertThat(mergedRequest.data).isEqualTo(data1);
+    assertThat(mergedRequest.priority).isEqualTo(1);
   }
 
   @Test
@@ -136,6 +140,7 @@ public class DownloadRequestTest {
             .setKeySetId(new byte[] {1, 2, 3, 4, 5})
             .setCustomCacheKey("key")
             .setData(new byte[] {1, 2, 3, 4, 5})
+            .setPriority(3)
             .build();
     Parcel parcel = Parcel.obtain();
     requestToParcel.writeToParcel(parcel, 0);
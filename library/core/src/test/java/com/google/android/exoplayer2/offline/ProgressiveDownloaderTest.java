@@ -23,6 +23,7 @@ import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.exoplayer2.MediaItem;
 import com.google.android.exoplayer2.database.DatabaseProvider;
+import com.google.android.exoplayer2.testutil.CacheAsserts;
 import com.google.android.exoplayer2.testutil.FailOnCloseDataSink;
 import com.google.android.exoplayer2.testutil.FakeDataSet;
 import com.google.android.exoplayer2.testutil.FakeDataSource;
@@ -33,8 +34,12 @@ import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
 import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
 import com.google.android.exoplayer2.upstream.cache.SimpleCache;
 import com.google.android.exoplayer2.util.Util;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.After;
 import org.junit.Before;
@@ -126,6 +131,138 @@ public class ProgressiveDownloaderTest {
     assertThat(progressListener.bytesDownloaded).isEqualTo(1024);
   }
 
+  @Test
+  public void download_withParallelRanges_downloadsAllRanges() throws Exception {
+    Uri uri = Uri.parse("test:///test.mp4");
+
+    FakeDataSet data = new FakeDataSet();
+    data.newData(uri).appendReadData(100);
+    DataSource.Factory upstreamDataSource = new FakeDataSource.Factory().setFakeDataSet(data);
+
+    MediaItem mediaItem = MediaItem.fromUri(uri);
+    CacheDataSource.Factory cacheDataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(downloadCache)
+            .setUpstreamDataSourceFactory(upstreamDataSource);
+    ProgressiveDownloader downloader =
+        new ProgressiveDownloader(
+            mediaItem,
+            cacheDataSourceFactory,
+            Runnable::run,
+            /* maxParallelDownloads= */ 3,
+            /* rangeLengthBytes= */ 30);
+
+    TestProgressListener progressListener = new TestProgressListener();
+    downloader.download(progressListener);
+
+    assertThat(progressListener.bytesDownloaded).isEqualTo(100);
+    assertThat(downloadCache.getCachedSpans(uri.toString())).hasSize(4);
+    CacheAsserts.assertCachedData(downloadCache, data);
+  }
+
+  @Test
+  public void download_withParallelRangesAfterReadFailure_resumesFromCachedRanges()
+      throws Exception {
+    Uri uri = Uri.parse("test:///test.mp4");
+
+    // Fake data has a built in failure after 10 bytes, in the first range.
+    FakeDataSet data = new FakeDataSet();
+    data.newData(uri).appendReadData(10).appendReadError(new IOException()).appendReadData(90);
+    DataSource.Factory upstreamDataSource = new FakeDataSource.Factory().setFakeDataSet(data);
+
+    MediaItem mediaItem = MediaItem.fromUri(uri);
+    CacheDataSource.Factory cacheDataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(downloadCache)
+            .setUpstreamDataSourceFactory(upstreamDataSource);
+    ProgressiveDownloader downloader =
+        new ProgressiveDownloader(
+            mediaItem,
+            cacheDataSourceFactory,
+            Runnable::run,
+            /* maxParallelDownloads= */ 2,
+            /* rangeLengthBytes= */ 30);
+
+    TestProgressListener progressListener = new TestProgressListener();
+
+    // Failure expected in the first range, after the second range has been downloaded.
+    assertThrows(IOException.class, () -> downloader.download(progressListener));
+    assertThat(progressListener.bytesDownloaded).isEqualTo(40);
+
+    // Retry should only download the remaining data.
+    downloader.download(progressListener);
+    assertThat(progressListener.bytesDownloaded).isEqualTo(100);
+    CacheAsserts.assertCachedData(downloadCache, data);
+  }
+
+  @Test
+  public void download_withParallelRangesFromHttpServerAcceptingRanges_downloadsAllRanges()
+      throws Exception {
+    Uri uri = Uri.parse("https://test.test/test.mp4");
+
+    FakeDataSet data = new FakeDataSet();
+    data.newData(uri).appendReadData(100);
+    DataSource.Factory upstreamDataSource =
+        () ->
+            new FakeDataSource(data) {
+              @Override
+              public Map<String, List<String>> getResponseHeaders() {
+                return ImmutableMap.of("Accept-Ranges", ImmutableList.of("bytes"));
+              }
+            };
+
+    MediaItem mediaItem = MediaItem.fromUri(uri);
+    CacheDataSource.Factory cacheDataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(downloadCache)
+            .setUpstreamDataSourceFactory(upstreamDataSource);
+    ProgressiveDownloader downloader =
+        new ProgressiveDownloader(
+            mediaItem,
+            cacheDataSourceFactory,
+            Runnable::run,
+            /* maxParallelDownloads= */ 3,
+            /* rangeLengthBytes= */ 30);
+
+    TestProgressListener progressListener = new TestProgressListener();
+    downloader.download(progressListener);
+
+    assertThat(progressListener.bytesDownloaded).isEqualTo(100);
+    assertThat(downloadCache.getCachedSpans(uri.toString())).hasSize(4);
+    CacheAsserts.assertCachedData(downloadCache, data);
+  }
+
+  @Test
+  public void download_withParallelRangesFromHttpServerIgnoringRanges_downloadsSequentially()
+      throws Exception {
+    Uri uri = Uri.parse("https://test.test/test.mp4");
+
+    // The fake data source doesn't return headers showing that range requests are honored.
+    FakeDataSet data = new FakeDataSet();
+    data.newData(uri).appendReadData(100);
+    DataSource.Factory upstreamDataSource = new FakeDataSource.Factory().setFakeDataSet(data);
+
+    MediaItem mediaItem = MediaItem.fromUri(uri);
+    CacheDataSource.Factory cacheDataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(downloadCache)
+            .setUpstreamDataSourceFactory(upstreamDataSource);
+    ProgressiveDownloader downloader =
+        new ProgressiveDownloader(
+            mediaItem,
+            cacheDataSourceFactory,
+            Runnable::run,
+            /* maxParallelDownloads= */ 3,
+            /* rangeLengthBytes= */ 30);
+
+    TestProgressListener progressListener = new TestProgressListener();
+    downloader.download(progressListener);
+
+    assertThat(progressListener.bytesDownloaded).isEqualTo(100);
+    assertThat(downloadCache.getCachedSpans(uri.toString())).hasSize(1);
+    CacheAsserts.assertCachedData(downloadCache, data);
+  }
+
   private static final class TestProgressListener implements Downloader.ProgressListener {
 
     public long bytesDownloaded;
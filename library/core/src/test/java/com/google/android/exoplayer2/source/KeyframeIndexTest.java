@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.extractor.BinarySearchSeeker;
+import com.google.android.exoplayer2.extractor.BinarySearchSeeker.BinarySearchSeekMap;
+import com.google.android.exoplayer2.extractor.SeekMap;
+import com.google.android.exoplayer2.extractor.SeekPoint;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import com.google.android.exoplayer2.util.Util;
+import java.io.File;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link KeyframeIndex}. */
+@RunWith(AndroidJUnit4.class)
+public final class KeyframeIndexTest {
+
+  private static final String CACHE_KEY = "key";
+  private static final int VIDEO_TRACK_ID = 1;
+  private static final int AUDIO_TRACK_ID = 2;
+  private static final long STREAM_LENGTH = 100_000;
+  private static final long DURATION_US = 10_000_000;
+
+  private File testDir;
+  private Cache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    testDir = Util.createTempFile(ApplicationProvider.getApplicationContext(), "KeyframeIndexTest");
+    assertThat(testDir.delete()).isTrue();
+    assertThat(testDir.mkdirs()).isTrue();
+    cache =
+        new SimpleCache(testDir, new NoOpCacheEvictor(), TestUtil.getInMemoryDatabaseProvider());
+  }
+
+  @After
+  public void tearDown() {
+    cache.release();
+    Util.recursiveDelete(testDir);
+  }
+
+  @Test
+  public void wrapSeekMap_withExactSeekMap_returnsSeekMapAndDoesNotIndex() {
+    KeyframeIndex keyframeIndex = new KeyframeIndex(cache, CACHE_KEY);
+    SeekMap seekMap = new SeekMap.Unseekable(DURATION_US);
+
+    assertThat(keyframeIndex.wrapSeekMap(seekMap)).isSameInstanceAs(seekMap);
+    keyframeIndex.registerTrack(VIDEO_TRACK_ID, C.TRACK_TYPE_VIDEO);
+    keyframeIndex.onPositionReset(/* position= */ 0, STREAM_LENGTH);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 0, /* position= */ 1000);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 2_000_000, /* position= */ 3000);
+
+    assertThat(keyframeIndex.getSeekPoint(/* timeUs= */ 0)).isNull();
+  }
+
+  @Test
+  public void getSeekPoint_afterReadingFromStart_returnsPositionOfKeyframe() {
+    KeyframeIndex keyframeIndex = createEnabledKeyframeIndex();
+    keyframeIndex.onPositionReset(/* position= */ 0, STREAM_LENGTH);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 0, /* position= */ 1000);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 2_000_000, /* position= */ 3000);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 4_000_000, /* position= */ 5000);
+
+    assertThat(keyframeIndex.getSeekPoint(/* timeUs= */ 1_000_000))
+        .isEqualTo(new SeekPoint(/* timeUs= */ 0, /* position= */ 1000));
+    assertThat(keyframeIndex.getSeekPoint(/* timeUs= */ 3_000_000))
+        .isEqualTo(new SeekPoint(/* timeUs= */ 2_000_000, /* position= */ 3000));
+    assertThat(keyframeIndex.getSeekPoint(/* timeUs= */ 4_000_000))
+        .isEqualTo(new SeekPoint(/* timeUs= */ 4_000_000, /* position= */ 5000));
+    // The stream hasn't been read beyond the last key frame.
+    assertThat(keyframeIndex.getSeekPoint(/* timeUs= */ 4_000_001)).isNull();
+  }
+
+  @Test
+  public void getSeekPoint_afterEndOfInput_coversWholeStream() {
+    KeyframeIndex keyframeIndex = createEnabledKeyframeIndex();
+    keyframeIndex.onPositionReset(/* position= */ 0, STREAM_LENGTH);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 0, /* position= */ 1000);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 2_000_000, /* position= */ 3000);
+    keyframeIndex.onEndOfInput();
+
+    assertThat(keyframeIndex.getSeekPoint(/* timeUs= */ 9_000_000))
+        .isEqualTo(new SeekPoint(/* timeUs= */ 2_000_000, /* position= */ 3000));
+  }
+
+  @Test
+  public void onKeyframe_afterPositionReset_onlyExtendsIndexWhenContiguous() {
+    KeyframeIndex keyframeIndex = createEnabledKeyframeIndex();
+    keyframeIndex.onPositionReset(/* position= */ 0, STREAM_LENGTH);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 0, /* position= */ 1000);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 2_000_000, /* position= */ 3000);
+
+    // Key frames read after seeking beyond the indexed part of the stream aren't indexed.
+    keyframeIndex.onPositionReset(/* position= */ 50_000, STREAM_LENGTH);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 6_000_000, /* position= */ 51_000);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 8_000_000, /* position= */ 53_000);
+    assertThat(keyframeIndex.getSeekPoint(/* timeUs= */ 6_000_000)).isNull();
+
+    // Key frames read after seeking into the indexed part of the stream extend the index.
+    keyframeIndex.onPositionReset(/* position= */ 3000, STREAM_LENGTH);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 2_000_000, /* position= */ 3000);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 4_000_000, /* position= */ 5000);
+    assertThat(keyframeIndex.getSeekPoint(/* timeUs= */ 4_000_000))
+        .isEqualTo(new SeekPoint(/* timeUs= */ 4_000_000, /* position= */ 5000));
+  }
+
+  @Test
+  public void onKeyframe_withVideoTrack_ignoresAudioKeyframes() {
+    KeyframeIndex keyframeIndex = new KeyframeIndex(cache, CACHE_KEY);
+    keyframeIndex.registerTrack(AUDIO_TRACK_ID, C.TRACK_TYPE_AUDIO);
+    keyframeIndex.registerTrack(VIDEO_TRACK_ID, C.TRACK_TYPE_VIDEO);
+    keyframeIndex.wrapSeekMap(createBinarySearchSeekMap());
+    keyframeIndex.onPositionReset(/* position= */ 0, STREAM_LENGTH);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 0, /* position= */ 1000);
+    keyframeIndex.onKeyframe(AUDIO_TRACK_ID, /* timeUs= */ 2_000_000, /* position= */ 2000);
+
+    assertThat(keyframeIndex.getSeekPoint(/* timeUs= */ 2_000_000)).isNull();
+  }
+
+  @Test
+  public void wrapSeekMap_inLaterSession_restoresStoredIndex() {
+    KeyframeIndex keyframeIndex = createEnabledKeyframeIndex();
+    keyframeIndex.onPositionReset(/* position= */ 0, STREAM_LENGTH);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 0, /* position= */ 1000);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 2_000_000, /* position= */ 3000);
+    keyframeIndex.onEndOfInput();
+    keyframeIndex.maybeStore();
+
+    KeyframeIndex restoredKeyframeIndex = new KeyframeIndex(cache, CACHE_KEY);
+    restoredKeyframeIndex.registerTrack(VIDEO_TRACK_ID, C.TRACK_TYPE_VIDEO);
+    restoredKeyframeIndex.onPositionReset(/* position= */ 0, STREAM_LENGTH);
+    SeekMap seekMap = restoredKeyframeIndex.wrapSeekMap(createBinarySearchSeekMap());
+
+    assertThat(seekMap.getDurationUs()).isEqualTo(DURATION_US);
+    assertThat(seekMap.getSeekPoints(/* timeUs= */ 9_000_000).first)
+        .isEqualTo(new SeekPoint(/* timeUs= */ 2_000_000, /* position= */ 3000));
+  }
+
+  @Test
+  public void maybeStore_withoutNewEntries_doesNotStoreIndex() {
+    KeyframeIndex keyframeIndex = createEnabledKeyframeIndex();
+    keyframeIndex.onPositionReset(/* position= */ 0, STREAM_LENGTH);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 0, /* position= */ 1000);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 2_000_000, /* position= */ 3000);
+    keyframeIndex.maybeStore();
+    // Too close to the previous entry to be added to the index.
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 3_000_000, /* position= */ 4000);
+    keyframeIndex.maybeStore();
+
+    KeyframeIndex restoredKeyframeIndex = new KeyframeIndex(cache, CACHE_KEY);
+    restoredKeyframeIndex.registerTrack(VIDEO_TRACK_ID, C.TRACK_TYPE_VIDEO);
+    restoredKeyframeIndex.onPositionReset(/* position= */ 0, STREAM_LENGTH);
+    restoredKeyframeIndex.wrapSeekMap(createBinarySearchSeekMap());
+
+    assertThat(keyframeIndex.getSeekPoint(/* timeUs= */ 3_000_000))
+        .isEqualTo(new SeekPoint(/* timeUs= */ 2_000_000, /* position= */ 3000));
+    assertThat(restoredKeyframeIndex.getSeekPoint(/* timeUs= */ 2_000_000))
+        .isEqualTo(new SeekPoint(/* timeUs= */ 2_000_000, /* position= */ 3000));
+    assertThat(restoredKeyframeIndex.getSeekPoint(/* timeUs= */ 3_000_000)).isNull();
+  }
+
+  @Test
+  public void wrapSeekMap_withStoredIndexForDifferentLength_ignoresStoredIndex() {
+    KeyframeIndex keyframeIndex = createEnabledKeyframeIndex();
+    keyframeIndex.onPositionReset(/* position= */ 0, STREAM_LENGTH);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 0, /* position= */ 1000);
+    keyframeIndex.onKeyframe(VIDEO_TRACK_ID, /* timeUs= */ 2_000_000, /* position= */ 3000);
+    keyframeIndex.onEndOfInput();
+    keyframeIndex.maybeStore();
+
+    KeyframeIndex restoredKeyframeIndex = new KeyframeIndex(cache, CACHE_KEY);
+    restoredKeyframeIndex.registerTrack(VIDEO_TRACK_ID, C.TRACK_TYPE_VIDEO);
+    restoredKeyframeIndex.onPositionReset(/* position= */ 0, STREAM_LENGTH + 1);
+    restoredKeyframeIndex.wrapSeekMap(createBinarySearchSeekMap());
+
+    assertThat(restoredKeyframeIndex.getSeekPoint(/* timeUs= */ 0)).isNull();
+  }
+
+  private KeyframeIndex createEnabledKeyframeIndex() {
+    KeyframeIndex keyframeIndex = new KeyframeIndex(cache, CACHE_KEY);
+    keyframeIndex.registerTrack(VIDEO_TRACK_ID, C.TRACK_TYPE_VIDEO);
+    keyframeIndex.wrapSeekMap(createBinarySearchSeekMap());
+    return keyframeIndex;
+  }
+
+  private static BinarySearchSeekMap createBinarySearchSeekMap() {
+    return new BinarySearchSeekMap(
+        new BinarySearchSeeker.DefaultSeekTimestampConverter(),
+        DURATION_US,
+        /* floorTimePosition= */ 0,
+        /* ceilingTimePosition= */ DURATION_US,
+        /* floorBytePosition= */ 0,
+        /* ceilingBytePosition= */ STREAM_LENGTH,
+        /* approxBytesPerFrame= */ 100);
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.testutil.FakeDataSet;
+import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceUtil;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link MultiPositionDataSource}. */
+@RunWith(AndroidJUnit4.class)
+public final class MultiPositionDataSourceTest {
+
+  private static final Uri URI = Uri.parse("test://media");
+  private static final int DATA_LENGTH = 4 * 1024 * 1024;
+
+  private byte[] data;
+  private List<FakeDataSource> upstreamDataSources;
+  private MultiPositionDataSource multiPositionDataSource;
+
+  @Before
+  public void setUp() {
+    data = TestUtil.buildTestData(DATA_LENGTH);
+    FakeDataSet fakeDataSet = new FakeDataSet().setData(URI, data);
+    upstreamDataSources = new ArrayList<>();
+    multiPositionDataSource =
+        new MultiPositionDataSource(
+            () -> {
+              FakeDataSource dataSource = new FakeDataSource(fakeDataSet);
+              upstreamDataSources.add(dataSource);
+              return dataSource;
+            },
+            /* maxConnectionCount= */ 2);
+  }
+
+  @Test
+  public void readAlternatingPositions_reusesOpenConnections() throws Exception {
+    int firstRegionPosition = 0;
+    int secondRegionPosition = 3 * 1024 * 1024;
+
+    for (int i = 0; i < 4; i++) {
+      assertReadData(firstRegionPosition, /* length= */ 1000);
+      assertReadData(secondRegionPosition, /* length= */ 2000);
+      firstRegionPosition += 1000;
+      secondRegionPosition += 2000;
+    }
+
+    assertThat(upstreamDataSources).hasSize(2);
+    assertThat(multiPositionDataSource.getOpenConnectionCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void readPositionAfterParkedConnection_skipsToPosition() throws Exception {
+    assertReadData(/* position= */ 0, /* length= */ 1000);
+
+    assertReadData(/* position= */ 5000, /* length= */ 1000);
+
+    assertThat(upstreamDataSources).hasSize(1);
+  }
+
+  @Test
+  public void readPositionBeforeParkedConnection_opensNewConnection() throws Exception {
+    assertReadData(/* position= */ 5000, /* length= */ 1000);
+
+    assertReadData(/* position= */ 0, /* length= */ 1000);
+
+    assertThat(upstreamDataSources).hasSize(2);
+  }
+
+  @Test
+  public void readPositionFarAfterParkedConnection_opensNewConnection() throws Exception {
+    assertReadData(/* position= */ 0, /* length= */ 1000);
+
+    assertReadData(
+        /* position= */ 1000 + (int) MultiPositionDataSource.MAXIMUM_SKIP_BYTES,
+        /* length= */ 1000);
+
+    assertThat(upstreamDataSources).hasSize(2);
+  }
+
+  @Test
+  public void open_withMaxConnectionsOpen_closesLeastRecentlyUsedConnection() throws Exception {
+    assertReadData(/* position= */ 0, /* length= */ 1000);
+    assertReadData(/* position= */ 1024 * 1024, /* length= */ 1000);
+    assertReadData(/* position= */ 2 * 1024 * 1024, /* length= */ 1000);
+
+    assertThat(upstreamDataSources).hasSize(3);
+    assertThat(upstreamDataSources.get(0).isOpened()).isFalse();
+    assertThat(upstreamDataSources.get(1).isOpened()).isTrue();
+    assertThat(upstreamDataSources.get(2).isOpened()).isTrue();
+    assertThat(multiPositionDataSource.getOpenConnectionCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void open_withLength_opensNewConnection() throws Exception {
+    assertReadData(/* position= */ 0, /* length= */ 1000);
+
+    multiPositionDataSource.open(
+        new DataSpec.Builder().setUri(URI).setPosition(1000).setLength(1000).build());
+    byte[] readData = DataSourceUtil.readToEnd(multiPositionDataSource);
+    multiPositionDataSource.close();
+
+    assertThat(readData).isEqualTo(Arrays.copyOfRange(data, 1000, 2000));
+    assertThat(upstreamDataSources).hasSize(2);
+  }
+
+  @Test
+  public void open_returnsRemainingLength() throws Exception {
+    assertReadData(/* position= */ 0, /* length= */ 1000);
+
+    long length = multiPositionDataSource.open(buildDataSpec(/* position= */ 3000));
+    multiPositionDataSource.close();
+
+    assertThat(length).isEqualTo(DATA_LENGTH - 3000);
+    assertThat(upstreamDataSources).hasSize(1);
+  }
+
+  @Test
+  public void closeParkedConnections_closesUpstreamDataSources() throws Exception {
+    assertReadData(/* position= */ 0, /* length= */ 1000);
+    assertReadData(/* position= */ 1024 * 1024, /* length= */ 1000);
+
+    multiPositionDataSource.closeParkedConnections();
+
+    assertThat(upstreamDataSources.get(0).isOpened()).isFalse();
+    assertThat(upstreamDataSources.get(1).isOpened()).isFalse();
+    assertThat(multiPositionDataSource.getOpenConnectionCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void readPositionAfterParkedConnection_reportsTransfersOfReadBytesOnly() throws Exception {
+    RecordingTransferListener transferListener = new RecordingTransferListener();
+    multiPositionDataSource.addTransferListener(transferListener);
+
+    assertReadData(/* position= */ 0, /* length= */ 1000);
+    int activeTransferCountWhileParked = transferListener.activeTransferCount;
+    assertReadData(/* position= */ 5000, /* length= */ 1000);
+
+    assertThat(upstreamDataSources).hasSize(1);
+    assertThat(activeTransferCountWhileParked).isEqualTo(0);
+    assertThat(transferListener.activeTransferCount).isEqualTo(0);
+    assertThat(transferListener.transferStartCount).isEqualTo(2);
+    // The 4000 bytes skipped to resume the connection aren't reported.
+    assertThat(transferListener.bytesTransferred).isEqualTo(2000);
+  }
+
+  private void assertReadData(int position, int length) throws Exception {
+    multiPositionDataSource.open(buildDataSpec(position));
+    byte[] readData = DataSourceUtil.readExactly(multiPositionDataSource, length);
+    multiPositionDataSource.close();
+    assertThat(readData).isEqualTo(Arrays.copyOfRange(data, position, position + length));
+  }
+
+  private static DataSpec buildDataSpec(long position) {
+    return new DataSpec.Builder().setUri(URI).setPosition(position).build();
+  }
+
+  private static final class RecordingTransferListener implements TransferListener {
+
+    public int transferStartCount;
+    public int activeTransferCount;
+    public long bytesTransferred;
+
+    @Override
+    public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {}
+
+    @Override
+    public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+      transferStartCount++;
+      activeTransferCount++;
+    }
+
+    @Override
+    public void onBytesTransferred(
+        DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+      this.bytesTransferred += bytesTransferred;
+    }
+
+    @Override
+    public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+      activeTransferCount--;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.RendererCapabilities;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.analytics.PlayerId;
+import com.google.android.exoplayer2.source.MediaSource.MediaPeriodId;
+import com.google.android.exoplayer2.testutil.ExoPlayerTestRunner;
+import com.google.android.exoplayer2.testutil.FakeMediaSource;
+import com.google.android.exoplayer2.testutil.FakeRenderer;
+import com.google.android.exoplayer2.testutil.FakeTimeline;
+import com.google.android.exoplayer2.testutil.FakeTrackSelector;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link PreloadMediaSource}. */
+@RunWith(AndroidJUnit4.class)
+public final class PreloadMediaSourceTest {
+
+  private FakeMediaSource fakeMediaSource;
+  private PreloadManager preloadManager;
+  private PreloadMediaSource preloadMediaSource;
+
+  @Before
+  public void setUp() {
+    fakeMediaSource = new FakeMediaSource(new FakeTimeline(), ExoPlayerTestRunner.VIDEO_FORMAT);
+    preloadManager =
+        new PreloadManager(
+            Looper.getMainLooper(),
+            new FakeTrackSelector(),
+            new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext()).build(),
+            new RendererCapabilities[] {new FakeRenderer(C.TRACK_TYPE_VIDEO).getCapabilities()});
+    preloadMediaSource = new PreloadMediaSource(fakeMediaSource, preloadManager);
+  }
+
+  @Test
+  public void preload_preparesSourceAndPeriod() {
+    preloadMediaSource.preload(/* startPositionUs= */ 0);
+    shadowOf(Looper.getMainLooper()).idle();
+
+    assertThat(fakeMediaSource.isPrepared()).isTrue();
+    assertThat(fakeMediaSource.getCreatedMediaPeriods()).hasSize(1);
+  }
+
+  @Test
+  public void createPeriod_forPreloadedPeriod_handsOverPreparedPeriod() {
+    preloadMediaSource.preload(/* startPositionUs= */ 0);
+    shadowOf(Looper.getMainLooper()).idle();
+
+    Timeline timeline = prepareSourceAsPlayer();
+    MediaPeriod mediaPeriod =
+        preloadMediaSource.createPeriod(
+            new MediaPeriodId(timeline.getUidOfPeriod(0), /* windowSequenceNumber= */ 0),
+            new DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE),
+            /* startPositionUs= */ 0);
+    AtomicBoolean prepared = new AtomicBoolean();
+    mediaPeriod.prepare(
+        new MediaPeriod.Callback() {
+          @Override
+          public void onPrepared(MediaPeriod mediaPeriod) {
+            prepared.set(true);
+          }
+
+          @Override
+          public void onContinueLoadingRequested(MediaPeriod source) {}
+        },
+        /* positionUs= */ 0);
+
+    assertThat(prepared.get()).isTrue();
+    assertThat(fakeMediaSource.getCreatedMediaPeriods()).hasSize(1);
+    assertThat(preloadManager.getHitCount()).isEqualTo(1);
+    assertThat(preloadManager.getMissCount()).isEqualTo(0);
+    assertThat(preloadManager.getPreloadedBytes()).isEqualTo(0);
+  }
+
+  @Test
+  public void createPeriod_atOtherPosition_releasesPreloadedPeriod() {
+    preloadMediaSource.preload(/* startPositionUs= */ 0);
+    shadowOf(Looper.getMainLooper()).idle();
+
+    Timeline timeline = prepareSourceAsPlayer();
+    MediaPeriod mediaPeriod =
+        preloadMediaSource.createPeriod(
+            new MediaPeriodId(timeline.getUidOfPeriod(0), /* windowSequenceNumber= */ 0),
+            new DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE),
+            /* startPositionUs= */ 1_000_000);
+
+    assertThat(mediaPeriod).isNotInstanceOf(PreloadMediaPeriod.class);
+    assertThat(fakeMediaSource.getCreatedMediaPeriods()).hasSize(2);
+    assertThat(preloadManager.getHitCount()).isEqualTo(0);
+    assertThat(preloadManager.getMissCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void releasePreload_releasesPeriodAndSource() {
+    preloadMediaSource.preload(/* startPositionUs= */ 0);
+    shadowOf(Looper.getMainLooper()).idle();
+
+    preloadMediaSource.releasePreload();
+    shadowOf(Looper.getMainLooper()).idle();
+
+    fakeMediaSource.assertReleased();
+    assertThat(preloadManager.getPreloadedBytes()).isEqualTo(0);
+    assertThat(preloadManager.getMissCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void preload_afterPreparedByPlayer_doesNotCreatePeriod() {
+    prepareSourceAsPlayer();
+
+    preloadMediaSource.preload(/* startPositionUs= */ 0);
+    shadowOf(Looper.getMainLooper()).idle();
+
+    assertThat(fakeMediaSource.getCreatedMediaPeriods()).isEmpty();
+  }
+
+  private Timeline prepareSourceAsPlayer() {
+    AtomicReference<Timeline> timelineReference = new AtomicReference<>();
+    preloadMediaSource.prepareSource(
+        (source, timeline) -> timelineReference.set(timeline),
+        /* mediaTransferListener= */ null,
+        PlayerId.UNSET);
+    shadowOf(Looper.getMainLooper()).idle();
+    return timelineReference.get();
+  }
+}
@@ -188,6 +188,49 @@ public final class SampleQueueTest {
     assertReadNothing(/* formatRequired= */ false);
   }
 
+  @Test
+  public void readAndDiscardWhileWritingOnAnotherThread_readsAllSamplesInOrder()
+      throws Exception {
+    int numberOfSamplesToInput = 3 * SampleQueue.SAMPLE_CAPACITY_INCREMENT + 1;
+    sampleQueue.format(FORMAT_1);
+    Thread loadingThread =
+        new Thread(
+            () -> {
+              for (int i = 0; i < numberOfSamplesToInput; i++) {
+                sampleQueue.sampleData(new ParsableByteArray(new byte[] {(byte) i}), 1);
+                sampleQueue.sampleMetadata(
+                    /* timeUs= */ i * 1000,
+                    /* flags= */ C.BUFFER_FLAG_KEY_FRAME,
+                    /* size= */ 1,
+                    /* offset= */ 0,
+                    /* cryptoData= */ null);
+              }
+            });
+    loadingThread.start();
+
+    assertReadFormat(/* formatRequired= */ false, FORMAT_1);
+    int readSampleCount = 0;
+    while (readSampleCount < numberOfSamplesToInput) {
+      clearFormatHolderAndInputBuffer();
+      int result =
+          sampleQueue.read(
+              formatHolder, inputBuffer, /* readFlags= */ 0, /* loadingFinished= */ false);
+      if (result == RESULT_BUFFER_READ) {
+        assertThat(inputBuffer.timeUs).isEqualTo(readSampleCount * 1000L);
+        assertThat(inputBuffer.data.get(0)).isEqualTo((byte) readSampleCount);
+        readSampleCount++;
+        sampleQueue.discardToRead();
+      } else {
+        assertThat(result).isEqualTo(RESULT_NOTHING_READ);
+      }
+    }
+    loadingThread.join();
+
+    assertThat(sampleQueue.getWriteIndex()).isEqualTo(numberOfSamplesToInput);
+    assertThat(sampleQueue.getFirstIndex()).isEqualTo(numberOfSamplesToInput);
+    assertReadNothing(/* formatRequired= */ false);
+  }
+
   @Test
   public void resetReleasesAllocations() {
     writeTestData();
@@ -29,6 +29,7 @@ import com.google.android.exoplayer2.source.chunk.BaseMediaChunkIterator;
 import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
 import com.google.android.exoplayer2.testutil.FakeClock;
 import com.google.android.exoplayer2.testutil.FakeMediaChunk;
+import com.google.android.exoplayer2.testutil.FakeMediaChunkIterator;
 import com.google.android.exoplayer2.testutil.FakeTimeline;
 import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection.AdaptationCheckpoint;
 import com.google.android.exoplayer2.trackselection.ExoTrackSelection.Definition;
@@ -668,6 +669,107 @@ public final class AdaptiveTrackSelectionTest {
         .inOrder();
   }
 
+  @Test
+  public void chunkSizeAware_initial_selectsTrackWhoseUpcomingChunksFitBandwidth() {
+    Format format1 = videoFormat(/* bitrate= */ 500, /* width= */ 320, /* height= */ 240);
+    Format format2 = videoFormat(/* bitrate= */ 1000, /* width= */ 640, /* height= */ 480);
+    Format format3 = videoFormat(/* bitrate= */ 2000, /* width= */ 960, /* height= */ 720);
+    TrackGroup trackGroup = new TrackGroup(format1, format2, format3);
+    // The upcoming chunks of format3 have an average bitrate of 1200 bps, well below the bitrate
+    // signalled by the format.
+    MediaChunkIterator[] iterators =
+        new MediaChunkIterator[] {
+          createFakeMediaChunkIterator(/* chunkLengths...= */ 300, 300, 300, 300, 300),
+          MediaChunkIterator.EMPTY,
+          MediaChunkIterator.EMPTY
+        };
+
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(1500L);
+    AdaptiveTrackSelection adaptiveTrackSelection =
+        prepareChunkSizeAwareTrackSelection(trackGroup, iterators);
+
+    assertThat(adaptiveTrackSelection.getSelectedFormat()).isEqualTo(format3);
+  }
+
+  @Test
+  public void chunkSizeAware_updateSelectedTrack_withLargeUpcomingChunks_doesNotSwitchUp() {
+    Format format1 = videoFormat(/* bitrate= */ 500, /* width= */ 320, /* height= */ 240);
+    Format format2 = videoFormat(/* bitrate= */ 1000, /* width= */ 640, /* height= */ 480);
+    Format format3 = videoFormat(/* bitrate= */ 2000, /* width= */ 960, /* height= */ 720);
+    TrackGroup trackGroup = new TrackGroup(format1, format2, format3);
+    // The upcoming chunks of format3 have an average bitrate of 4000 bps.
+    MediaChunkIterator[] iterators =
+        new MediaChunkIterator[] {
+          createFakeMediaChunkIterator(/* chunkLengths...= */ 1000, 1000, 1000, 1000, 1000),
+          MediaChunkIterator.EMPTY,
+          MediaChunkIterator.EMPTY
+        };
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(1000L);
+    AdaptiveTrackSelection adaptiveTrackSelection =
+        prepareChunkSizeAwareTrackSelection(trackGroup, iterators);
+    assertThat(adaptiveTrackSelection.getSelectedFormat()).isEqualTo(format2);
+
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(2000L);
+    FakeMediaChunk chunk =
+        new FakeMediaChunk(format2, /* startTimeUs= */ 0, /* endTimeUs= */ 15_000_000);
+    adaptiveTrackSelection.updateSelectedTrack(
+        /* playbackPositionUs= */ 0,
+        /* bufferedDurationUs= */ 15_000_000,
+        /* availableDurationUs= */ C.TIME_UNSET,
+        /* queue= */ ImmutableList.of(chunk),
+        iterators);
+
+    // Without chunk sizes, the bandwidth estimate and the buffer would allow switching to format3.
+    assertThat(adaptiveTrackSelection.getSelectedFormat()).isEqualTo(format2);
+  }
+
+  @Test
+  public void chunkSizeAware_updateSelectedTrack_withLargeNextChunkAndLowBuffer_switchesDown() {
+    Format format1 = videoFormat(/* bitrate= */ 500, /* width= */ 320, /* height= */ 240);
+    Format format2 = videoFormat(/* bitrate= */ 1000, /* width= */ 640, /* height= */ 480);
+    Format format3 = videoFormat(/* bitrate= */ 2000, /* width= */ 960, /* height= */ 720);
+    TrackGroup trackGroup = new TrackGroup(format1, format2, format3);
+    // The upcoming chunks of format2 have an average bitrate of 800 bps, but the first chunk
+    // requires 2400 bps to be loaded before a 2 second buffer drains.
+    MediaChunkIterator[] iterators =
+        new MediaChunkIterator[] {
+          MediaChunkIterator.EMPTY,
+          createFakeMediaChunkIterator(/* chunkLengths...= */ 600, 100, 100, 100, 100),
+          MediaChunkIterator.EMPTY
+        };
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(1200L);
+    AdaptiveTrackSelection adaptiveTrackSelection =
+        prepareChunkSizeAwareTrackSelection(trackGroup, iterators);
+    assertThat(adaptiveTrackSelection.getSelectedFormat()).isEqualTo(format2);
+
+    FakeMediaChunk chunk =
+        new FakeMediaChunk(format2, /* startTimeUs= */ 0, /* endTimeUs= */ 2_000_000);
+    adaptiveTrackSelection.updateSelectedTrack(
+        /* playbackPositionUs= */ 0,
+        /* bufferedDurationUs= */ 2_000_000,
+        /* availableDurationUs= */ C.TIME_UNSET,
+        /* queue= */ ImmutableList.of(chunk),
+        iterators);
+
+    assertThat(adaptiveTrackSelection.getSelectedFormat()).isEqualTo(format1);
+    assertThat(adaptiveTrackSelection.getSelectionReason()).isEqualTo(C.SELECTION_REASON_ADAPTIVE);
+  }
+
+  @Test
+  public void chunkSizeAware_withUnknownChunkLengths_usesFormatBitrate() {
+    Format format1 = videoFormat(/* bitrate= */ 500, /* width= */ 320, /* height= */ 240);
+    Format format2 = videoFormat(/* bitrate= */ 1000, /* width= */ 640, /* height= */ 480);
+    Format format3 = videoFormat(/* bitrate= */ 2000, /* width= */ 960, /* height= */ 720);
+    TrackGroup trackGroup = new TrackGroup(format1, format2, format3);
+
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(1000L);
+    AdaptiveTrackSelection adaptiveTrackSelection =
+        prepareChunkSizeAwareTrackSelection(
+            trackGroup, createMediaChunkIterators(trackGroup, TEST_CHUNK_DURATION_US));
+
+    assertThat(adaptiveTrackSelection.getSelectedFormat()).isEqualTo(format2);
+  }
+
   private AdaptiveTrackSelection prepareAdaptiveTrackSelection(TrackGroup trackGroup) {
     return prepareAdaptiveTrackSelectionWithMinDurationForQualityIncreaseMs(
         trackGroup, AdaptiveTrackSelection.DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS);
@@ -810,6 +912,34 @@ public final class AdaptiveTrackSelectionTest {
             fakeClock));
   }
 
+  private AdaptiveTrackSelection prepareChunkSizeAwareTrackSelection(
+      TrackGroup trackGroup, MediaChunkIterator[] mediaChunkIterators) {
+    AdaptiveTrackSelection adaptiveTrackSelection =
+        new AdaptiveTrackSelection(
+            trackGroup,
+            selectedAllTracksInGroup(trackGroup),
+            TrackSelection.TYPE_UNSET,
+            mockBandwidthMeter,
+            AdaptiveTrackSelection.DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
+            AdaptiveTrackSelection.DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
+            AdaptiveTrackSelection.DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
+            AdaptiveTrackSelection.DEFAULT_MAX_WIDTH_TO_DISCARD,
+            AdaptiveTrackSelection.DEFAULT_MAX_HEIGHT_TO_DISCARD,
+            /* bandwidthFraction= */ 1.0f,
+            AdaptiveTrackSelection.DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE,
+            /* adaptationCheckpoints= */ ImmutableList.of(),
+            fakeClock);
+    adaptiveTrackSelection.experimentalSetChunkSizeAwareSelectionEnabled(true);
+    adaptiveTrackSelection.enable();
+    adaptiveTrackSelection.updateSelectedTrack(
+        /* playbackPositionUs= */ 0,
+        /* bufferedDurationUs= */ 0,
+        /* availableDurationUs= */ C.TIME_UNSET,
+        /* queue= */ Collections.emptyList(),
+        mediaChunkIterators);
+    return adaptiveTrackSelection;
+  }
+
   private AdaptiveTrackSelection prepareTrackSelection(
       AdaptiveTrackSelection adaptiveTrackSelection) {
     adaptiveTrackSelection.enable();
@@ -847,6 +977,15 @@ public final class AdaptiveTrackSelectionTest {
     return iterators;
   }
 
+  /** Returns an iterator over chunks of two seconds with the given lengths. */
+  private static MediaChunkIterator createFakeMediaChunkIterator(long... chunkLengths) {
+    long[] chunkTimeBoundariesSec = new long[chunkLengths.length + 1];
+    for (int i = 0; i < chunkTimeBoundariesSec.length; i++) {
+      chunkTimeBoundariesSec[i] = 2L * i;
+    }
+    return new FakeMediaChunkIterator(chunkTimeBoundariesSec, chunkLengths);
+  }
+
   private int[] selectedAllTracksInGroup(TrackGroup trackGroup) {
     int[] listIndices = new int[trackGroup.length];
     for (int i = 0; i < trackGroup.length; i++) {
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.trackselection;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.testutil.FakeMediaChunk;
+import com.google.android.exoplayer2.testutil.FakeTimeline;
+import com.google.android.exoplayer2.trackselection.ExoTrackSelection.Definition;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.common.collect.ImmutableList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+
+/** Unit test for {@link BolaTrackSelection}. */
+@RunWith(AndroidJUnit4.class)
+public final class BolaTrackSelectionTest {
+
+  private static final long TEST_CHUNK_DURATION_US = 2_000_000;
+
+  @Mock private BandwidthMeter mockBandwidthMeter;
+  private FakeClock fakeClock;
+  private Format format1;
+  private Format format2;
+  private Format format3;
+  private TrackGroup trackGroup;
+
+  @Before
+  public void setUp() {
+    initMocks(this);
+    fakeClock = new FakeClock(0);
+    when(mockBandwidthMeter.getTimeToFirstByteEstimateUs()).thenReturn(C.TIME_UNSET);
+    format1 = videoFormat(/* bitrate= */ 500, /* width= */ 320, /* height= */ 240);
+    format2 = videoFormat(/* bitrate= */ 1000, /* width= */ 640, /* height= */ 480);
+    format3 = videoFormat(/* bitrate= */ 2000, /* width= */ 960, /* height= */ 720);
+    trackGroup = new TrackGroup(format1, format2, format3);
+  }
+
+  @Test
+  public void initial_updateSelectedTrack_selectsHighestBitrateWithinBandwidth() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(1000L);
+
+    BolaTrackSelection trackSelection = prepareTrackSelection();
+
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(format2);
+    assertThat(trackSelection.getSelectionReason()).isEqualTo(C.SELECTION_REASON_INITIAL);
+  }
+
+  @Test
+  public void updateSelectedTrack_whileStartingUp_followsBandwidthEstimate() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(500L);
+    BolaTrackSelection trackSelection = prepareTrackSelection();
+
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(2000L);
+    updateSelectedTrack(trackSelection, /* bufferedDurationUs= */ 2_000_000, format1);
+
+    // The buffer is below the minimum buffer duration, so the bandwidth estimate is used even
+    // though the buffer is small.
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(format3);
+    assertThat(trackSelection.getSelectionReason()).isEqualTo(C.SELECTION_REASON_ADAPTIVE);
+  }
+
+  @Test
+  public void updateSelectedTrack_afterStartup_keepsQualityOfStartup() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(2000L);
+    BolaTrackSelection trackSelection = prepareTrackSelection();
+
+    updateSelectedTrack(trackSelection, /* bufferedDurationUs= */ 10_000_000, format3);
+
+    // The buffer alone would select the lowest quality, but the placeholder keeps the quality.
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(format3);
+  }
+
+  @Test
+  public void updateSelectedTrack_withDrainingBuffer_switchesDownDespiteBandwidthEstimate() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(2000L);
+    BolaTrackSelection trackSelection = prepareTrackSelection();
+    updateSelectedTrack(trackSelection, /* bufferedDurationUs= */ 25_000_000, format3);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(format3);
+
+    updateSelectedTrack(trackSelection, /* bufferedDurationUs= */ 11_000_000, format3);
+
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(format1);
+    assertThat(trackSelection.getSelectionReason()).isEqualTo(C.SELECTION_REASON_ADAPTIVE);
+  }
+
+  @Test
+  public void updateSelectedTrack_withFullBuffer_switchesUpOnlyWithinBandwidth() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(1000L);
+    BolaTrackSelection trackSelection = prepareTrackSelection();
+
+    updateSelectedTrack(trackSelection, /* bufferedDurationUs= */ 40_000_000, format2);
+    // The buffer is above the target, but the bandwidth doesn't support the highest quality.
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(format2);
+
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(2000L);
+    updateSelectedTrack(trackSelection, /* bufferedDurationUs= */ 40_000_000, format2);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(format3);
+  }
+
+  @Test
+  public void updateSelectedTrack_withEmptyQueue_restartsStartup() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(2000L);
+    BolaTrackSelection trackSelection = prepareTrackSelection();
+    updateSelectedTrack(trackSelection, /* bufferedDurationUs= */ 25_000_000, format3);
+    updateSelectedTrack(trackSelection, /* bufferedDurationUs= */ 11_000_000, format3);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(format1);
+
+    // Simulate a seek, after which the buffer is empty.
+    trackSelection.updateSelectedTrack(
+        /* playbackPositionUs= */ 60_000_000,
+        /* bufferedDurationUs= */ 0,
+        /* availableDurationUs= */ C.TIME_UNSET,
+        /* queue= */ Collections.emptyList(),
+        createMediaChunkIterators());
+
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(format3);
+  }
+
+  @Test
+  public void factory_createsBolaSelectionsForAdaptiveDefinitionsOnly() {
+    TrackGroup otherTrackGroup = new TrackGroup(format1);
+    Definition[] definitions =
+        new Definition[] {
+          new Definition(trackGroup, /* tracks...= */ 0, 1, 2),
+          new Definition(otherTrackGroup, /* tracks...= */ 0)
+        };
+
+    ExoTrackSelection[] trackSelections =
+        new BolaTrackSelection.Factory()
+            .createTrackSelections(
+                definitions,
+                mockBandwidthMeter,
+                new MediaSource.MediaPeriodId(/* periodUid= */ new Object()),
+                new FakeTimeline());
+
+    assertThat(trackSelections[0]).isInstanceOf(BolaTrackSelection.class);
+    assertThat(trackSelections[1]).isInstanceOf(FixedTrackSelection.class);
+  }
+
+  private BolaTrackSelection prepareTrackSelection() {
+    BolaTrackSelection trackSelection =
+        new BolaTrackSelection(
+            trackGroup,
+            /* tracks= */ new int[] {0, 1, 2},
+            TrackSelection.TYPE_UNSET,
+            mockBandwidthMeter,
+            /* minBufferMs= */ 10_000,
+            /* bufferTargetMs= */ 30_000,
+            /* bandwidthFraction= */ 1f,
+            /* reservedBandwidth= */ 0,
+            fakeClock);
+    trackSelection.enable();
+    trackSelection.updateSelectedTrack(
+        /* playbackPositionUs= */ 0,
+        /* bufferedDurationUs= */ 0,
+        /* availableDurationUs= */ C.TIME_UNSET,
+        /* queue= */ Collections.emptyList(),
+        createMediaChunkIterators());
+    return trackSelection;
+  }
+
+  private void updateSelectedTrack(
+      BolaTrackSelection trackSelection, long bufferedDurationUs, Format lastChunkFormat) {
+    List<MediaChunk> queue =
+        ImmutableList.of(
+            new FakeMediaChunk(
+                lastChunkFormat,
+                /* startTimeUs= */ bufferedDurationUs - TEST_CHUNK_DURATION_US,
+                /* endTimeUs= */ bufferedDurationUs));
+    trackSelection.updateSelectedTrack(
+        /* playbackPositionUs= */ 0,
+        bufferedDurationUs,
+        /* availableDurationUs= */ C.TIME_UNSET,
+        queue,
+        createMediaChunkIterators());
+  }
+
+  private MediaChunkIterator[] createMediaChunkIterators() {
+    MediaChunkIterator[] iterators = new MediaChunkIterator[trackGroup.length];
+    Collections.nCopies(trackGroup.length, MediaChunkIterator.EMPTY).toArray(iterators);
+    return iterators;
+  }
+
+  private static Format videoFormat(int bitrate, int width, int height) {
+    return new Format.Builder()
+        .setSampleMimeType(MimeTypes.VIDEO_H264)
+        .setAverageBitrate(bitrate)
+        .setWidth(width)
+        .setHeight(height)
+        .build();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link DefaultAllocator}. */
+@RunWith(AndroidJUnit4.class)
+public final class DefaultAllocatorTest {
+
+  private static final int ALLOCATION_SIZE = 16;
+
+  @Test
+  public void allocate_withSlabs_allocationsShareSlab() {
+    DefaultAllocator allocator =
+        new DefaultAllocator(
+            /* trimOnReset= */ true,
+            ALLOCATION_SIZE,
+            /* initialAllocationCount= */ 0,
+            /* allocationsPerSlab= */ 4);
+
+    List<Allocation> allocations = allocate(allocator, /* count= */ 5);
+
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(5 * ALLOCATION_SIZE);
+    byte[] firstSlab = allocations.get(0).data;
+    assertThat(firstSlab).hasLength(4 * ALLOCATION_SIZE);
+    List<Integer> offsetsInFirstSlab = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      assertThat(allocations.get(i).data).isSameInstanceAs(firstSlab);
+      offsetsInFirstSlab.add(allocations.get(i).offset);
+    }
+    assertThat(offsetsInFirstSlab)
+        .containsExactly(0, ALLOCATION_SIZE, 2 * ALLOCATION_SIZE, 3 * ALLOCATION_SIZE);
+    assertThat(allocations.get(4).data).isNotSameInstanceAs(firstSlab);
+  }
+
+  @Test
+  public void trim_withSlabs_onlyDiscardsFullyReleasedSlabs() {
+    DefaultAllocator allocator =
+        new DefaultAllocator(
+            /* trimOnReset= */ true,
+            ALLOCATION_SIZE,
+            /* initialAllocationCount= */ 0,
+            /* allocationsPerSlab= */ 4);
+    List<Allocation> allocations = allocate(allocator, /* count= */ 8);
+    byte[] firstSlab = allocations.get(0).data;
+    byte[] secondSlab = allocations.get(4).data;
+    // Release the whole first slab, and part of the second.
+    for (int i = 0; i < 6; i++) {
+      allocator.release(allocations.get(i));
+    }
+
+    allocator.trim();
+
+    // Only allocations from the second slab remain available to be reused.
+    List<Allocation> newAllocations = allocate(allocator, /* count= */ 2);
+    for (Allocation allocation : newAllocations) {
+      assertThat(allocation.data).isSameInstanceAs(secondSlab);
+    }
+    assertThat(allocate(allocator, /* count= */ 1).get(0).data).isNotSameInstanceAs(firstSlab);
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(5 * ALLOCATION_SIZE);
+  }
+
+  @Test
+  public void release_withSlabsAndManyAllocations_reusesAllocations() {
+    DefaultAllocator allocator =
+        new DefaultAllocator(
+            /* trimOnReset= */ false,
+            ALLOCATION_SIZE,
+            /* initialAllocationCount= */ 0,
+            /* allocationsPerSlab= */ 64);
+    List<Allocation> allocations = allocate(allocator, /* count= */ 300);
+    for (Allocation allocation : allocations) {
+      allocator.release(allocation);
+    }
+
+    List<Allocation> newAllocations = allocate(allocator, /* count= */ 300);
+
+    assertThat(newAllocations).containsExactlyElementsIn(allocations);
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(300 * ALLOCATION_SIZE);
+  }
+
+  @Test
+  public void trim_withoutSlabs_discardsAllocationsBeyondTarget() {
+    DefaultAllocator allocator = new DefaultAllocator(/* trimOnReset= */ false, ALLOCATION_SIZE);
+    List<Allocation> allocations = allocate(allocator, /* count= */ 4);
+    allocator.setTargetBufferSize(4 * ALLOCATION_SIZE);
+    for (Allocation allocation : allocations) {
+      allocator.release(allocation);
+    }
+
+    allocator.setTargetBufferSize(2 * ALLOCATION_SIZE);
+
+    List<Allocation> newAllocations = allocate(allocator, /* count= */ 4);
+    int reusedCount = 0;
+    for (Allocation allocation : newAllocations) {
+      if (allocations.contains(allocation)) {
+        reusedCount++;
+      }
+    }
+    assertThat(reusedCount).isEqualTo(2);
+  }
+
+  private static List<Allocation> allocate(DefaultAllocator allocator, int count) {
+    List<Allocation> allocations = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      allocations.add(allocator.allocate());
+    }
+    return allocations;
+  }
+}
@@ -34,6 +34,8 @@ import com.google.android.exoplayer2.testutil.FakeClock;
 import com.google.android.exoplayer2.testutil.FakeDataSource;
 import com.google.android.exoplayer2.util.NetworkTypeObserver;
 import com.google.android.exoplayer2.util.Util;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -701,6 +703,224 @@ public final class DefaultBandwidthMeterTest {
     assertThat(initialEstimateWithoutBuilder).isLessThan(50_000_000L);
   }
 
+  @Test
+  public void bandwidthStatistic_receivesSamplesAndProvidesEstimate() {
+    List<long[]> samples = new ArrayList<>();
+    BandwidthStatistic bandwidthStatistic =
+        new BandwidthStatistic() {
+          @Override
+          public void addSample(long bytes, long durationUs) {
+            samples.add(new long[] {bytes, durationUs});
+          }
+
+          @Override
+          public long getBandwidthEstimate() {
+            return 1234L;
+          }
+
+          @Override
+          public void reset() {}
+        };
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setBandwidthStatistic(bandwidthStatistic)
+            .setClock(clock)
+            .build();
+    DataSource dataSource = new FakeDataSource();
+    DataSpec dataSpec = new DataSpec(Uri.parse("https://test.com"));
+
+    bandwidthMeter.onTransferStart(dataSource, dataSpec, /* isNetwork= */ true);
+    clock.advanceTime(3000);
+    bandwidthMeter.onBytesTransferred(
+        dataSource, dataSpec, /* isNetwork= */ true, /* bytesTransferred= */ 100_000);
+    bandwidthMeter.onTransferEnd(dataSource, dataSpec, /* isNetwork= */ true);
+
+    assertThat(samples).hasSize(1);
+    assertThat(samples.get(0)).asList().containsExactly(100_000L, 3_000_000L).inOrder();
+    assertThat(bandwidthMeter.getBitrateEstimate()).isEqualTo(1234L);
+  }
+
+  @Test
+  public void timeToFirstByteEstimator_providesEstimateForNetworkTransfers() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setTimeToFirstByteEstimator(
+                new ExponentialWeightedAverageTimeToFirstByteEstimator(
+                    /* smoothingFactor= */ 0.5, clock))
+            .setClock(clock)
+            .build();
+    DataSource dataSource = new FakeDataSource();
+    DataSpec networkDataSpec = new DataSpec(Uri.parse("https://test.com"));
+    DataSpec localDataSpec = new DataSpec(Uri.parse("file:///test"));
+
+    bandwidthMeter.onTransferInitializing(dataSource, localDataSpec, /* isNetwork= */ false);
+    clock.advanceTime(50);
+    bandwidthMeter.onTransferStart(dataSource, localDataSpec, /* isNetwork= */ false);
+    assertThat(bandwidthMeter.getTimeToFirstByteEstimateUs()).isEqualTo(C.TIME_UNSET);
+
+    bandwidthMeter.onTransferInitializing(dataSource, networkDataSpec, /* isNetwork= */ true);
+    clock.advanceTime(200);
+    bandwidthMeter.onTransferStart(dataSource, networkDataSpec, /* isNetwork= */ true);
+    assertThat(bandwidthMeter.getTimeToFirstByteEstimateUs()).isEqualTo(200_000L);
+  }
+
+  @Test
+  public void transferNotAtFullNetworkSpeed_withoutIdleGapThreshold_isIgnored() {
+    List<long[]> samples = new ArrayList<>();
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setBandwidthStatistic(createRecordingBandwidthStatistic(samples))
+            .setClock(clock)
+            .build();
+    DataSource dataSource = new FakeDataSource();
+    DataSpec dataSpec =
+        new DataSpec.Builder()
+            .setUri("https://test.com")
+            .setFlags(DataSpec.FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED)
+            .build();
+
+    bandwidthMeter.onTransferStart(dataSource, dataSpec, /* isNetwork= */ true);
+    clock.advanceTime(1000);
+    bandwidthMeter.onBytesTransferred(
+        dataSource, dataSpec, /* isNetwork= */ true, /* bytesTransferred= */ 100_000);
+    bandwidthMeter.onTransferEnd(dataSource, dataSpec, /* isNetwork= */ true);
+
+    assertThat(samples).isEmpty();
+  }
+
+  @Test
+  public void transferNotAtFullNetworkSpeed_withIdleGapThreshold_measuresBurstsOnly() {
+    List<long[]> samples = new ArrayList<>();
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setBandwidthStatistic(createRecordingBandwidthStatistic(samples))
+            .setIdleGapThresholdMs(50)
+            .setClock(clock)
+            .build();
+    DataSource dataSource = new FakeDataSource();
+    DataSpec dataSpec =
+        new DataSpec.Builder()
+            .setUri("https://test.com")
+            .setFlags(DataSpec.FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED)
+            .build();
+
+    bandwidthMeter.onTransferStart(dataSource, dataSpec, /* isNetwork= */ true);
+    // Two bursts of three reads each, separated by idle gaps while the server waits for media.
+    for (int burst = 0; burst < 2; burst++) {
+      clock.advanceTime(500);
+      for (int read = 0; read < 3; read++) {
+        bandwidthMeter.onBytesTransferred(
+            dataSource, dataSpec, /* isNetwork= */ true, /* bytesTransferred= */ 1000);
+        clock.advanceTime(10);
+      }
+    }
+    bandwidthMeter.onTransferEnd(dataSource, dataSpec, /* isNetwork= */ true);
+
+    // The first read of each burst follows an idle gap and isn't counted.
+    assertThat(samples).hasSize(1);
+    assertThat(samples.get(0)).asList().containsExactly(4000L, 40_000L).inOrder();
+  }
+
+  @Test
+  public void transferNotAtFullNetworkSpeed_withIdleGapThreshold_ignoresDataBufferedDuringGap() {
+    List<long[]> samples = new ArrayList<>();
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setBandwidthStatistic(createRecordingBandwidthStatistic(samples))
+            .setIdleGapThresholdMs(50)
+            .setClock(clock)
+            .build();
+    DataSource dataSource = new FakeDataSource();
+    DataSpec dataSpec =
+        new DataSpec.Builder()
+            .setUri("https://test.com")
+            .setFlags(DataSpec.FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED)
+            .build();
+
+    bandwidthMeter.onTransferStart(dataSource, dataSpec, /* isNetwork= */ true);
+    clock.advanceTime(500);
+    // Data that arrived during the gap is read immediately.
+    for (int read = 0; read < 3; read++) {
+      bandwidthMeter.onBytesTransferred(
+          dataSource, dataSpec, /* isNetwork= */ true, /* bytesTransferred= */ 10_000);
+    }
+    for (int read = 0; read < 2; read++) {
+      clock.advanceTime(10);
+      bandwidthMeter.onBytesTransferred(
+          dataSource, dataSpec, /* isNetwork= */ true, /* bytesTransferred= */ 1000);
+    }
+    bandwidthMeter.onTransferEnd(dataSource, dataSpec, /* isNetwork= */ true);
+
+    assertThat(samples).hasSize(1);
+    assertThat(samples.get(0)).asList().containsExactly(2000L, 20_000L).inOrder();
+  }
+
+  @Test
+  public void transferNotAtFullNetworkSpeed_withIdleGapThresholdAndBackToBackReads_measuresBurst() {
+    List<long[]> samples = new ArrayList<>();
+    NanoTimeFakeClock clock = new NanoTimeFakeClock();
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setBandwidthStatistic(createRecordingBandwidthStatistic(samples))
+            .setIdleGapThresholdMs(50)
+            .setClock(clock)
+            .build();
+    DataSource dataSource = new FakeDataSource();
+    DataSpec dataSpec =
+        new DataSpec.Builder()
+            .setUri("https://test.com")
+            .setFlags(DataSpec.FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED)
+            .build();
+
+    bandwidthMeter.onTransferStart(dataSource, dataSpec, /* isNetwork= */ true);
+    clock.advanceTimeNs(500_000_000);
+    // On a fast link, filled reads follow each other immediately from the end of the gap on.
+    for (int read = 0; read < 400; read++) {
+      bandwidthMeter.onBytesTransferred(
+          dataSource, dataSpec, /* isNetwork= */ true, /* bytesTransferred= */ 16_000);
+      clock.advanceTimeNs(50_000);
+    }
+    bandwidthMeter.onTransferEnd(dataSource, dataSpec, /* isNetwork= */ true);
+
+    // The reads during the first 2 ms after the gap are treated as reading buffered data.
+    assertThat(samples).hasSize(1);
+    assertThat(samples.get(0)).asList().containsExactly(359 * 16_000L, 17_000L).inOrder();
+  }
+
+  @Test
+  public void transferNotAtFullNetworkSpeed_withIdleGapThresholdAndShortBursts_isIgnored() {
+    List<long[]> samples = new ArrayList<>();
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setBandwidthStatistic(createRecordingBandwidthStatistic(samples))
+            .setIdleGapThresholdMs(50)
+            .setClock(clock)
+            .build();
+    DataSource dataSource = new FakeDataSource();
+    DataSpec dataSpec =
+        new DataSpec.Builder()
+            .setUri("https://test.com")
+            .setFlags(DataSpec.FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED)
+            .build();
+
+    bandwidthMeter.onTransferStart(dataSource, dataSpec, /* isNetwork= */ true);
+    clock.advanceTime(500);
+    for (int read = 0; read < 3; read++) {
+      bandwidthMeter.onBytesTransferred(
+          dataSource, dataSpec, /* isNetwork= */ true, /* bytesTransferred= */ 1000);
+      clock.advanceTime(2);
+    }
+    bandwidthMeter.onTransferEnd(dataSource, dataSpec, /* isNetwork= */ true);
+
+    assertThat(samples).isEmpty();
+  }
+
   private void setActiveNetworkInfo(NetworkInfo networkInfo) {
     setActiveNetworkInfo(networkInfo, TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE);
   }
@@ -729,6 +949,23 @@ public final class DefaultBandwidthMeterTest {
     Shadows.shadowOf(telephonyManager).setNetworkCountryIso(countryIso);
   }
 
+  private static BandwidthStatistic createRecordingBandwidthStatistic(List<long[]> samples) {
+    return new BandwidthStatistic() {
+      @Override
+      public void addSample(long bytes, long durationUs) {
+        samples.add(new long[] {bytes, durationUs});
+      }
+
+      @Override
+      public long getBandwidthEstimate() {
+        return BandwidthStatistic.ESTIMATE_NOT_AVAILABLE;
+      }
+
+      @Override
+      public void reset() {}
+    };
+  }
+
   private static long[] simulateTransfers(DefaultBandwidthMeter bandwidthMeter, FakeClock clock) {
     long[] bitrateEstimates = new long[SIMULATED_TRANSFER_COUNT];
     Random random = new Random(/* seed= */ 0);
@@ -747,4 +984,23 @@ public final class DefaultBandwidthMeterTest {
     }
     return bitrateEstimates;
   }
+
+  /** A {@link FakeClock} whose {@link #nanoTime()} is advanced separately, in nanoseconds. */
+  private static final class NanoTimeFakeClock extends FakeClock {
+
+    private long nanoTimeNs;
+
+    public NanoTimeFakeClock() {
+      super(/* initialTimeMs= */ 0);
+    }
+
+    public synchronized void advanceTimeNs(long timeDiffNs) {
+      nanoTimeNs += timeDiffNs;
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+      return nanoTimeNs;
+    }
+  }
 }
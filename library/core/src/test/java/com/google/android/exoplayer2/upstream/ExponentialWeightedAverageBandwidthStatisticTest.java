@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link ExponentialWeightedAverageBandwidthStatistic}. */
+@RunWith(AndroidJUnit4.class)
+public final class ExponentialWeightedAverageBandwidthStatisticTest {
+
+  @Test
+  public void getBandwidthEstimate_withoutSamples_returnsEstimateNotAvailable() {
+    ExponentialWeightedAverageBandwidthStatistic statistic =
+        new ExponentialWeightedAverageBandwidthStatistic();
+
+    assertThat(statistic.getBandwidthEstimate())
+        .isEqualTo(BandwidthStatistic.ESTIMATE_NOT_AVAILABLE);
+  }
+
+  @Test
+  public void getBandwidthEstimate_afterSingleSample_returnsSampleBitrate() {
+    ExponentialWeightedAverageBandwidthStatistic statistic =
+        new ExponentialWeightedAverageBandwidthStatistic();
+
+    statistic.addSample(/* bytes= */ 1_000_000, /* durationUs= */ 1_000_000);
+
+    assertThat(statistic.getBandwidthEstimate()).isEqualTo(8_000_000L);
+  }
+
+  @Test
+  public void getBandwidthEstimate_afterDrop_followsFastAverage() {
+    ExponentialWeightedAverageBandwidthStatistic statistic =
+        new ExponentialWeightedAverageBandwidthStatistic(
+            /* fastHalfLifeUs= */ 1_000_000, /* slowHalfLifeUs= */ 10_000_000);
+    ExponentialWeightedAverageBandwidthStatistic fastStatistic =
+        new ExponentialWeightedAverageBandwidthStatistic(
+            /* fastHalfLifeUs= */ 1_000_000, /* slowHalfLifeUs= */ 1_000_000);
+
+    for (int i = 0; i < 10; i++) {
+      statistic.addSample(/* bytes= */ 1_000_000, /* durationUs= */ 1_000_000);
+      fastStatistic.addSample(/* bytes= */ 1_000_000, /* durationUs= */ 1_000_000);
+    }
+    statistic.addSample(/* bytes= */ 100_000, /* durationUs= */ 1_000_000);
+    fastStatistic.addSample(/* bytes= */ 100_000, /* durationUs= */ 1_000_000);
+
+    assertThat(statistic.getBandwidthEstimate()).isLessThan(8_000_000L);
+    assertThat(statistic.getBandwidthEstimate()).isEqualTo(fastStatistic.getBandwidthEstimate());
+  }
+
+  @Test
+  public void getBandwidthEstimate_afterBurst_followsSlowAverage() {
+    ExponentialWeightedAverageBandwidthStatistic statistic =
+        new ExponentialWeightedAverageBandwidthStatistic(
+            /* fastHalfLifeUs= */ 1_000_000, /* slowHalfLifeUs= */ 10_000_000);
+    ExponentialWeightedAverageBandwidthStatistic slowStatistic =
+        new ExponentialWeightedAverageBandwidthStatistic(
+            /* fastHalfLifeUs= */ 10_000_000, /* slowHalfLifeUs= */ 10_000_000);
+
+    for (int i = 0; i < 10; i++) {
+      statistic.addSample(/* bytes= */ 100_000, /* durationUs= */ 1_000_000);
+      slowStatistic.addSample(/* bytes= */ 100_000, /* durationUs= */ 1_000_000);
+    }
+    statistic.addSample(/* bytes= */ 1_000_000, /* durationUs= */ 1_000_000);
+    slowStatistic.addSample(/* bytes= */ 1_000_000, /* durationUs= */ 1_000_000);
+
+    assertThat(statistic.getBandwidthEstimate()).isGreaterThan(800_000L);
+    assertThat(statistic.getBandwidthEstimate()).isEqualTo(slowStatistic.getBandwidthEstimate());
+  }
+
+  @Test
+  public void reset_discardsSamples() {
+    ExponentialWeightedAverageBandwidthStatistic statistic =
+        new ExponentialWeightedAverageBandwidthStatistic();
+    statistic.addSample(/* bytes= */ 1_000_000, /* durationUs= */ 1_000_000);
+
+    statistic.reset();
+
+    assertThat(statistic.getBandwidthEstimate())
+        .isEqualTo(BandwidthStatistic.ESTIMATE_NOT_AVAILABLE);
+  }
+}
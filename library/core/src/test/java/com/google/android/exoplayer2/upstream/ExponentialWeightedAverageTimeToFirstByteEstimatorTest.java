@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link ExponentialWeightedAverageTimeToFirstByteEstimator}. */
+@RunWith(AndroidJUnit4.class)
+public final class ExponentialWeightedAverageTimeToFirstByteEstimatorTest {
+
+  @Test
+  public void getTimeToFirstByteEstimateUs_withoutTransfers_returnsTimeUnset() {
+    ExponentialWeightedAverageTimeToFirstByteEstimator estimator =
+        new ExponentialWeightedAverageTimeToFirstByteEstimator();
+
+    assertThat(estimator.getTimeToFirstByteEstimateUs()).isEqualTo(C.TIME_UNSET);
+  }
+
+  @Test
+  public void getTimeToFirstByteEstimateUs_returnsSmoothedAverage() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    ExponentialWeightedAverageTimeToFirstByteEstimator estimator =
+        new ExponentialWeightedAverageTimeToFirstByteEstimator(/* smoothingFactor= */ 0.5, clock);
+
+    transfer(estimator, clock, /* timeToFirstByteMs= */ 100);
+    assertThat(estimator.getTimeToFirstByteEstimateUs()).isEqualTo(100_000L);
+    transfer(estimator, clock, /* timeToFirstByteMs= */ 300);
+    assertThat(estimator.getTimeToFirstByteEstimateUs()).isEqualTo(200_000L);
+  }
+
+  @Test
+  public void onTransferStart_withoutInitialization_isIgnored() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    ExponentialWeightedAverageTimeToFirstByteEstimator estimator =
+        new ExponentialWeightedAverageTimeToFirstByteEstimator(/* smoothingFactor= */ 0.5, clock);
+
+    estimator.onTransferStart(new DataSpec(Uri.EMPTY));
+
+    assertThat(estimator.getTimeToFirstByteEstimateUs()).isEqualTo(C.TIME_UNSET);
+  }
+
+  @Test
+  public void reset_discardsEstimate() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    ExponentialWeightedAverageTimeToFirstByteEstimator estimator =
+        new ExponentialWeightedAverageTimeToFirstByteEstimator(/* smoothingFactor= */ 0.5, clock);
+    transfer(estimator, clock, /* timeToFirstByteMs= */ 100);
+
+    estimator.reset();
+
+    assertThat(estimator.getTimeToFirstByteEstimateUs()).isEqualTo(C.TIME_UNSET);
+  }
+
+  private static void transfer(
+      TimeToFirstByteEstimator estimator, FakeClock clock, long timeToFirstByteMs) {
+    DataSpec dataSpec = new DataSpec(Uri.EMPTY);
+    estimator.onTransferInitializing(dataSpec);
+    clock.advanceTime(timeToFirstByteMs);
+    estimator.onTransferStart(dataSpec);
+  }
+}
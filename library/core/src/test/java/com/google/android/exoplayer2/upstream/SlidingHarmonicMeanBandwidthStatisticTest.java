@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link SlidingHarmonicMeanBandwidthStatistic}. */
+@RunWith(AndroidJUnit4.class)
+public final class SlidingHarmonicMeanBandwidthStatisticTest {
+
+  @Test
+  public void getBandwidthEstimate_withoutSamples_returnsEstimateNotAvailable() {
+    SlidingHarmonicMeanBandwidthStatistic statistic = new SlidingHarmonicMeanBandwidthStatistic();
+
+    assertThat(statistic.getBandwidthEstimate())
+        .isEqualTo(BandwidthStatistic.ESTIMATE_NOT_AVAILABLE);
+  }
+
+  @Test
+  public void getBandwidthEstimate_returnsHarmonicMeanOfSampleBitrates() {
+    SlidingHarmonicMeanBandwidthStatistic statistic = new SlidingHarmonicMeanBandwidthStatistic();
+
+    // 8 Mbps and 2 Mbps.
+    statistic.addSample(/* bytes= */ 1_000_000, /* durationUs= */ 1_000_000);
+    statistic.addSample(/* bytes= */ 250_000, /* durationUs= */ 1_000_000);
+
+    assertThat((double) statistic.getBandwidthEstimate()).isWithin(1).of(3_200_000);
+  }
+
+  @Test
+  public void getBandwidthEstimate_withFullWindow_discardsOldestSample() {
+    SlidingHarmonicMeanBandwidthStatistic statistic =
+        new SlidingHarmonicMeanBandwidthStatistic(/* maxSampleCount= */ 2);
+
+    statistic.addSample(/* bytes= */ 10_000, /* durationUs= */ 1_000_000);
+    statistic.addSample(/* bytes= */ 1_000_000, /* durationUs= */ 1_000_000);
+    statistic.addSample(/* bytes= */ 1_000_000, /* durationUs= */ 1_000_000);
+
+    assertThat((double) statistic.getBandwidthEstimate()).isWithin(1).of(8_000_000);
+  }
+
+  @Test
+  public void reset_discardsSamples() {
+    SlidingHarmonicMeanBandwidthStatistic statistic = new SlidingHarmonicMeanBandwidthStatistic();
+    statistic.addSample(/* bytes= */ 1_000_000, /* durationUs= */ 1_000_000);
+
+    statistic.reset();
+
+    assertThat(statistic.getBandwidthEstimate())
+        .isEqualTo(BandwidthStatistic.ESTIMATE_NOT_AVAILABLE);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.dash.manifest;
+
+import static com.google.android.exoplayer2.util.Assertions.checkIndex;
+
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTimelineElement;
+import com.google.android.exoplayer2.util.LongArray;
+import com.google.android.exoplayer2.util.Util;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A segment timeline that stores runs of consecutive segments of equal duration, rather than one
+ * {@link SegmentTimelineElement} per segment.
+ *
+ * <p>This corresponds to the {@code t}, {@code d} and {@code r} attributes of the S elements in the
+ * MPD. Elements are created on demand when accessed through the {@link java.util.List} interface.
+ * {@link #getStartTime(int)} and {@link #getDuration(int)} can be used to avoid creating them.
+ */
+/* package */ final class CompactSegmentTimeline extends AbstractList<SegmentTimelineElement>
+    implements RandomAccess {
+
+  private final LongArray runStartTimes;
+  private final LongArray runDurations;
+  private final LongArray runFirstIndices;
+
+  private int size;
+
+  /** Creates an empty instance. */
+  public CompactSegmentTimeline() {
+    runStartTimes = new LongArray();
+    runDurations = new LongArray();
+    runFirstIndices = new LongArray();
+  }
+
+  /**
+   * Appends consecutive segments of equal duration.
+   *
+   * @param startTime The start time of the first segment. The value in seconds is the division of
+   *     this value and the {@code timescale} of the enclosing element.
+   * @param duration The duration of each segment, in the same units as {@code startTime}.
+   * @param count The number of segments. Nothing is appended if the count isn't positive.
+   */
+  public void append(long startTime, long duration, int count) {
+    if (count <= 0) {
+      return;
+    }
+    int lastRunIndex = runStartTimes.size() - 1;
+    if (lastRunIndex >= 0
+        && runDurations.get(lastRunIndex) == duration
+        && getEndTime(lastRunIndex) == startTime) {
+      // The segments continue the last run.
+      size += count;
+      return;
+    }
+    runStartTimes.add(startTime);
+    runDurations.add(duration);
+    runFirstIndices.add(size);
+    size += count;
+  }
+
+  /**
+   * Returns the start time of the segment at the given index, in the same units as passed to
+   * {@link #append(long, long, int)}.
+   */
+  public long getStartTime(int index) {
+    int runIndex = getRunIndex(index);
+    return runStartTimes.get(runIndex)
+        + (index - runFirstIndices.get(runIndex)) * runDurations.get(runIndex);
+  }
+
+  /**
+   * Returns the duration of the segment at the given index, in the same units as passed to {@link
+   * #append(long, long, int)}.
+   */
+  public long getDuration(int index) {
+    return runDurations.get(getRunIndex(index));
+  }
+
+  @Override
+  public SegmentTimelineElement get(int index) {
+    return new SegmentTimelineElement(getStartTime(index), getDuration(index));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  private int getRunIndex(int index) {
+    checkIndex(index, /* start= */ 0, /* limit= */ size);
+    return Util.binarySearchFloor(
+        runFirstIndices, index, /* inclusive= */ true, /* stayInBounds= */ true);
+  }
+
+  private long getEndTime(int runIndex) {
+    long runEndIndex =
+        runIndex + 1 < runFirstIndices.size() ? runFirstIndices.get(runIndex + 1) : size;
+    return runStartTimes.get(runIndex)
+        + (runEndIndex - runFirstIndices.get(runIndex)) * runDurations.get(runIndex);
+  }
+}
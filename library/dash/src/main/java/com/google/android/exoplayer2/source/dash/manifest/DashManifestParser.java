@@ -85,8 +85,23 @@ public class DashManifestParser extends DefaultHandler
       };
 
   private final XmlPullParserFactory xmlParserFactory;
+  private final boolean useCompactSegmentTimelines;
 
   public DashManifestParser() {
+    this(/* useCompactSegmentTimelines= */ false);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param useCompactSegmentTimelines Whether segment timelines should be stored as runs of
+   *     segments with equal duration, rather than as one {@link SegmentTimelineElement} per
+   *     segment. This significantly reduces the time and memory needed to parse manifests with
+   *     long segment timelines. If true, {@link #buildSegmentTimelineElement(long, long)} is not
+   *     called.
+   */
+  public DashManifestParser(boolean useCompactSegmentTimelines) {
+    this.useCompactSegmentTimelines = useCompactSegmentTimelines;
     try {
       xmlParserFactory = XmlPullParserFactory.newInstance();
     } catch (XmlPullParserException e) {
@@ -1240,7 +1255,8 @@ public class DashManifestParser extends DefaultHandler
   protected List<SegmentTimelineElement> parseSegmentTimeline(
       XmlPullParser xpp, long timescale, long periodDurationMs)
       throws XmlPullParserException, IOException {
-    List<SegmentTimelineElement> segmentTimeline = new ArrayList<>();
+    List<SegmentTimelineElement> segmentTimeline =
+        useCompactSegmentTimelines ? new CompactSegmentTimeline() : new ArrayList<>();
     long startTime = 0;
     long elementDuration = C.TIME_UNSET;
     int elementRepeatCount = 0;
@@ -1301,6 +1317,10 @@ public class DashManifestParser extends DefaultHandler
         elementRepeatCount >= 0
             ? 1 + elementRepeatCount
             : (int) Util.ceilDivide(endTime - startTime, elementDuration);
+    if (segmentTimeline instanceof CompactSegmentTimeline) {
+      ((CompactSegmentTimeline) segmentTimeline).append(startTime, elementDuration, count);
+      return count > 0 ? startTime + count * elementDuration : startTime;
+    }
     for (int i = 0; i < count; i++) {
       segmentTimeline.add(buildSegmentTimelineElement(startTime, elementDuration));
       startTime += elementDuration;
@@ -16,6 +16,7 @@
 package com.google.android.exoplayer2.source.dash.manifest;
 
 import static com.google.android.exoplayer2.source.dash.DashSegmentIndex.INDEX_UNBOUNDED;
+import static com.google.android.exoplayer2.util.Assertions.checkNotNull;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
@@ -205,7 +206,7 @@ public abstract class SegmentBase {
     /** See {@link DashSegmentIndex#getDurationUs(long, long)}. */
     public final long getSegmentDurationUs(long sequenceNumber, long periodDurationUs) {
       if (segmentTimeline != null) {
-        long duration = segmentTimeline.get((int) (sequenceNumber - startNumber)).duration;
+        long duration = getSegmentTimelineDuration(sequenceNumber);
         return (duration * C.MICROS_PER_SECOND) / timescale;
       } else {
         long segmentCount = getSegmentCount(periodDurationUs);
@@ -220,9 +221,7 @@ public abstract class SegmentBase {
     public final long getSegmentTimeUs(long sequenceNumber) {
       long unscaledSegmentTime;
       if (segmentTimeline != null) {
-        unscaledSegmentTime =
-            segmentTimeline.get((int) (sequenceNumber - startNumber)).startTime
-                - presentationTimeOffset;
+        unscaledSegmentTime = getSegmentTimelineStartTime(sequenceNumber) - presentationTimeOffset;
       } else {
         unscaledSegmentTime = (sequenceNumber - startNumber) * duration;
       }
@@ -293,6 +292,30 @@ public abstract class SegmentBase {
 
     /** See {@link DashSegmentIndex#getSegmentCount(long)}. */
     public abstract long getSegmentCount(long periodDurationUs);
+
+    /**
+     * Returns the start time of a segment from the segment timeline, in units of the timescale.
+     * Must only be called if the segment timeline is non-null.
+     */
+    /* package */ final long getSegmentTimelineStartTime(long sequenceNumber) {
+      int index = (int) (sequenceNumber - startNumber);
+      List<SegmentTimelineElement> segmentTimeline = checkNotNull(this.segmentTimeline);
+      return segmentTimeline instanceof CompactSegmentTimeline
+          ? ((CompactSegmentTimeline) segmentTimeline).getStartTime(index)
+          : segmentTimeline.get(index).startTime;
+    }
+
+    /**
+     * Returns the duration of a segment from the segment timeline, in units of the timescale. Must
+     * only be called if the segment timeline is non-null.
+     */
+    /* package */ final long getSegmentTimelineDuration(long sequenceNumber) {
+      int index = (int) (sequenceNumber - startNumber);
+      List<SegmentTimelineElement> segmentTimeline = checkNotNull(this.segmentTimeline);
+      return segmentTimeline instanceof CompactSegmentTimeline
+          ? ((CompactSegmentTimeline) segmentTimeline).getDuration(index)
+          : segmentTimeline.get(index).duration;
+    }
   }
 
   /** A {@link MultiSegmentBase} that uses a SegmentList to define its segments. */
@@ -439,7 +462,7 @@ public abstract class SegmentBase {
     public RangedUri getSegmentUrl(Representation representation, long sequenceNumber) {
       long time;
       if (segmentTimeline != null) {
-        time = segmentTimeline.get((int) (sequenceNumber - startNumber)).startTime;
+        time = getSegmentTimelineStartTime(sequenceNumber);
       } else {
         time = (sequenceNumber - startNumber) * duration;
       }
@@ -410,6 +410,43 @@ public class DashManifestParserTest {
     assertNextTag(xpp);
   }
 
+  @Test
+  public void parseSegmentTimeline_withCompactSegmentTimelines_returnsSameElements()
+      throws Exception {
+    String segmentTimeline =
+        "<SegmentTimeline><S t=\"0\" d=\"96000\" r=\"1\"/><S d=\"96000\"/>"
+            + "<S t=\"300000\" d=\"48000\" r=\"-1\"/></SegmentTimeline>"
+            + NEXT_TAG;
+    XmlPullParser xpp = XmlPullParserFactory.newInstance().newPullParser();
+    xpp.setInput(new StringReader(segmentTimeline));
+    xpp.next();
+    XmlPullParser compactXpp = XmlPullParserFactory.newInstance().newPullParser();
+    compactXpp.setInput(new StringReader(segmentTimeline));
+    compactXpp.next();
+
+    List<SegmentTimelineElement> elements =
+        new DashManifestParser()
+            .parseSegmentTimeline(xpp, /* timescale= */ 48000, /* periodDurationMs= */ 10000);
+    List<SegmentTimelineElement> compactElements =
+        new DashManifestParser(/* useCompactSegmentTimelines= */ true)
+            .parseSegmentTimeline(
+                compactXpp, /* timescale= */ 48000, /* periodDurationMs= */ 10000);
+
+    assertThat(compactElements).isInstanceOf(CompactSegmentTimeline.class);
+    assertThat(compactElements).containsExactlyElementsIn(elements).inOrder();
+    assertThat(compactElements)
+        .containsExactly(
+            new SegmentTimelineElement(/* startTime= */ 0, /* duration= */ 96000),
+            new SegmentTimelineElement(/* startTime= */ 96000, /* duration= */ 96000),
+            new SegmentTimelineElement(/* startTime= */ 192000, /* duration= */ 96000),
+            new SegmentTimelineElement(/* startTime= */ 300000, /* duration= */ 48000),
+            new SegmentTimelineElement(/* startTime= */ 348000, /* duration= */ 48000),
+            new SegmentTimelineElement(/* startTime= */ 396000, /* duration= */ 48000),
+            new SegmentTimelineElement(/* startTime= */ 444000, /* duration= */ 48000))
+        .inOrder();
+    assertNextTag(compactXpp);
+  }
+
   @Test
   public void parseLabel() throws Exception {
     DashManifestParser parser = new DashManifestParser();
@@ -19,6 +19,9 @@ import static com.google.common.truth.Truth.assertThat;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTimelineElement;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -221,4 +224,54 @@ public final class SegmentBaseTest {
             /* periodStartUnixTimeUs= */ C.TIME_UNSET);
     assertThat(segmentTemplate.getSegmentCount(1618875028000000L)).isEqualTo(8994299808L);
   }
+
+  @Test
+  public void segmentTemplate_withCompactSegmentTimeline_matchesExpandedSegmentTimeline() {
+    CompactSegmentTimeline compactSegmentTimeline = new CompactSegmentTimeline();
+    compactSegmentTimeline.append(/* startTime= */ 1000, /* duration= */ 2000, /* count= */ 3);
+    compactSegmentTimeline.append(/* startTime= */ 7000, /* duration= */ 2000, /* count= */ 2);
+    compactSegmentTimeline.append(/* startTime= */ 12000, /* duration= */ 500, /* count= */ 4);
+    List<SegmentTimelineElement> segmentTimeline = new ArrayList<>(compactSegmentTimeline);
+    SegmentBase.SegmentTemplate compactSegmentTemplate =
+        createSegmentTemplateWithTimeline(compactSegmentTimeline);
+    SegmentBase.SegmentTemplate segmentTemplate =
+        createSegmentTemplateWithTimeline(segmentTimeline);
+
+    assertThat(compactSegmentTimeline).hasSize(9);
+    assertThat(compactSegmentTemplate.getSegmentCount(/* periodDurationUs= */ C.TIME_UNSET))
+        .isEqualTo(9);
+    for (long segmentNum = 1; segmentNum <= 9; segmentNum++) {
+      assertThat(compactSegmentTemplate.getSegmentTimeUs(segmentNum))
+          .isEqualTo(segmentTemplate.getSegmentTimeUs(segmentNum));
+      assertThat(
+              compactSegmentTemplate.getSegmentDurationUs(
+                  segmentNum, /* periodDurationUs= */ C.TIME_UNSET))
+          .isEqualTo(
+              segmentTemplate.getSegmentDurationUs(
+                  segmentNum, /* periodDurationUs= */ C.TIME_UNSET));
+    }
+    assertThat(compactSegmentTemplate.getSegmentTimeUs(/* sequenceNumber= */ 7))
+        .isEqualTo(11_500_000);
+    assertThat(
+            compactSegmentTemplate.getSegmentNum(
+                /* timeUs= */ 12_600_000, /* periodDurationUs= */ C.TIME_UNSET))
+        .isEqualTo(9);
+  }
+
+  private static SegmentBase.SegmentTemplate createSegmentTemplateWithTimeline(
+      List<SegmentTimelineElement> segmentTimeline) {
+    return new SegmentBase.SegmentTemplate(
+        /* initialization= */ null,
+        /* timescale= */ 1000,
+        /* presentationTimeOffset= */ 1000,
+        /* startNumber= */ 1,
+        /* endNumber= */ C.INDEX_UNSET,
+        /* duration= */ C.TIME_UNSET,
+        segmentTimeline,
+        /* availabilityTimeOffsetUs= */ C.TIME_UNSET,
+        /* initializationTemplate= */ null,
+        /* mediaTemplate= */ null,
+        /* timeShiftBufferDepthUs= */ C.TIME_UNSET,
+        /* periodStartUnixTimeUs= */ C.TIME_UNSET);
+  }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
+import static java.lang.Math.min;
+
+import androidx.annotation.VisibleForTesting;
+import com.google.android.exoplayer2.util.Clock;
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the combined transfer rate of the {@link ThrottlingDataSource} instances that share it,
+ * using a token bucket.
+ *
+ * <p>The bucket is filled at the maximum rate, and holds at most one second of transfer. Each
+ * transfer takes tokens from the bucket and blocks while the bucket is in deficit, so the bandwidth
+ * is shared between the transfers that are active at any time. When a transfer ends, the remaining
+ * transfers can use the bandwidth it was using. The maximum rate can be changed at any time.
+ */
+public final class BandwidthLimiter {
+
+  private final Clock clock;
+
+  private long maxBytesPerSecond;
+  private double availableBytes;
+  private long lastRefillTimeMs;
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxBytesPerSecond The maximum combined transfer rate, in bytes per second.
+   */
+  public BandwidthLimiter(long maxBytesPerSecond) {
+    this(maxBytesPerSecond, Clock.DEFAULT);
+  }
+
+  @VisibleForTesting
+  /* package */ BandwidthLimiter(long maxBytesPerSecond, Clock clock) {
+    checkArgument(maxBytesPerSecond > 0);
+    this.maxBytesPerSecond = maxBytesPerSecond;
+    this.clock = clock;
+    availableBytes = maxBytesPerSecond;
+    lastRefillTimeMs = clock.elapsedRealtime();
+  }
+
+  /** Returns the maximum combined transfer rate, in bytes per second. */
+  public synchronized long getMaxBytesPerSecond() {
+    return maxBytesPerSecond;
+  }
+
+  /**
+   * Sets the maximum combined transfer rate. Transfers that are blocked on the previous rate
+   * complete their current wait.
+   *
+   * @param maxBytesPerSecond The maximum combined transfer rate, in bytes per second.
+   */
+  public synchronized void setMaxBytesPerSecond(long maxBytesPerSecond) {
+    checkArgument(maxBytesPerSecond > 0);
+    refill();
+    this.maxBytesPerSecond = maxBytesPerSecond;
+    availableBytes = min(availableBytes, maxBytesPerSecond);
+  }
+
+  /**
+   * Takes tokens for transferred bytes, blocking for as long as needed to keep the combined
+   * transfer rate below the maximum.
+   *
+   * @param byteCount The number of transferred bytes.
+   * @throws InterruptedIOException If the thread is interrupted.
+   */
+  /* package */ void onBytesTransferred(int byteCount) throws InterruptedIOException {
+    long delayMs = reserve(byteCount);
+    if (delayMs == 0) {
+      return;
+    }
+    try {
+      blockUntil(clock.elapsedRealtime() + delayMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  /**
+   * Takes tokens for transferred bytes, and returns how long the caller must wait before
+   * transferring more data, in milliseconds. The bucket may go into deficit, so that concurrent
+   * callers wait in turn.
+   */
+  @VisibleForTesting
+  /* package */ synchronized long reserve(int byteCount) {
+    refill();
+    availableBytes -= byteCount;
+    if (availableBytes >= 0) {
+      return 0;
+    }
+    return (long) Math.ceil(-availableBytes * 1000 / maxBytesPerSecond);
+  }
+
+  private synchronized void blockUntil(long wakeUpTimeMs) throws InterruptedException {
+    clock.onThreadBlocked();
+    long nowMs = clock.elapsedRealtime();
+    while (nowMs < wakeUpTimeMs) {
+      wait(wakeUpTimeMs - nowMs);
+      nowMs = clock.elapsedRealtime();
+    }
+  }
+
+  private void refill() {
+    long nowMs = clock.elapsedRealtime();
+    availableBytes =
+        min(
+            maxBytesPerSecond,
+            availableBytes + (double) (nowMs - lastRefillTimeMs) * maxBytesPerSecond / 1000);
+    lastRefillTimeMs = nowMs;
+  }
+}
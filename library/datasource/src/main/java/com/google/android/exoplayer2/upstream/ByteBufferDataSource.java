@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DataSource} that can return data as {@link ByteBuffer} views of its underlying storage,
+ * without copying it into a caller provided array.
+ */
+public interface ByteBufferDataSource extends DataSource {
+
+  /**
+   * Reads up to {@code length} bytes of data, returning them as a read-only {@link ByteBuffer}.
+   * The data between the buffer's position and limit is the data that was read, and the read
+   * position of the source is advanced past it.
+   *
+   * <p>The returned buffer may be a view of memory owned by the source. It remains valid after
+   * subsequent reads and after the source is closed, but its content must not be relied upon if
+   * the underlying data is modified.
+   *
+   * @param length The maximum number of bytes to read.
+   * @return A buffer containing the data that was read, which may contain fewer than {@code
+   *     length} bytes, or {@code null} if the end of the input has been reached. If {@code length}
+   *     is zero then an empty buffer is returned.
+   * @throws IOException If an error occurs reading from the source.
+   */
+  @Nullable
+  ByteBuffer readBuffer(int length) throws IOException;
+}
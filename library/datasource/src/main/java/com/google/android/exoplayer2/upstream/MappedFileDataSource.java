@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
+import static com.google.android.exoplayer2.util.Assertions.checkNotNull;
+import static java.lang.Math.min;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.upstream.FileDataSource.FileDataSourceException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link DataSource} for reading local files by mapping them into memory.
+ *
+ * <p>Compared to {@link FileDataSource}, reads are served from a {@link MappedByteBuffer} rather
+ * than by making a system call for each read. Data can also be read without copying it via {@link
+ * #readBuffer(int)}. This is most beneficial when the same files are read repeatedly, for example
+ * when reading fully cached content through a {@link
+ * com.google.android.exoplayer2.upstream.cache.CacheDataSource}.
+ *
+ * <p>Files are mapped in regions of at most {@link Factory#setMaxMappedRegionSize(int)} bytes. A
+ * mapping is released when it's garbage collected, rather than when the source is closed. Files
+ * must not be truncated whilst they are being read.
+ */
+public final class MappedFileDataSource extends BaseDataSource implements ByteBufferDataSource {
+
+  /** {@link DataSource.Factory} for {@link MappedFileDataSource} instances. */
+  public static final class Factory implements DataSource.Factory {
+
+    @Nullable private TransferListener listener;
+    private int maxMappedRegionSize;
+
+    public Factory() {
+      maxMappedRegionSize = DEFAULT_MAX_MAPPED_REGION_SIZE;
+    }
+
+    /**
+     * Sets a {@link TransferListener} for {@link MappedFileDataSource} instances created by this
+     * factory.
+     *
+     * @param listener The {@link TransferListener}.
+     * @return This factory.
+     */
+    public Factory setListener(@Nullable TransferListener listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    /**
+     * Sets the maximum size of each region of a file that's mapped into memory.
+     *
+     * <p>Larger regions reduce the number of mappings made when reading large files, at the cost of
+     * virtual address space. Apps that only run in 64-bit processes may benefit from increasing it.
+     *
+     * <p>The default is {@link #DEFAULT_MAX_MAPPED_REGION_SIZE}.
+     *
+     * @param maxMappedRegionSize The maximum size of a mapped region, in bytes.
+     * @return This factory.
+     */
+    public Factory setMaxMappedRegionSize(int maxMappedRegionSize) {
+      checkArgument(maxMappedRegionSize > 0);
+      this.maxMappedRegionSize = maxMappedRegionSize;
+      return this;
+    }
+
+    @Override
+    public MappedFileDataSource createDataSource() {
+      MappedFileDataSource dataSource = new MappedFileDataSource(maxMappedRegionSize);
+      if (listener != null) {
+        dataSource.addTransferListener(listener);
+      }
+      return dataSource;
+    }
+  }
+
+  /**
+   * The default maximum size of each mapped region of a file, in bytes.
+   *
+   * <p>Larger regions require fewer mappings to be made when reading large files, but each region
+   * occupies a contiguous range of virtual address space until it's garbage collected, which is
+   * scarce in 32-bit processes. The default is large enough to map a whole cache file written with
+   * the default {@link com.google.android.exoplayer2.upstream.cache.CacheDataSink} fragment size at
+   * once.
+   */
+  public static final int DEFAULT_MAX_MAPPED_REGION_SIZE = 8 * 1024 * 1024;
+
+  private final int maxMappedRegionSize;
+
+  @Nullable private RandomAccessFile file;
+  @Nullable private MappedByteBuffer mappedRegion;
+  @Nullable private Uri uri;
+  private long nextRegionPosition;
+  private long bytesRemaining;
+  private boolean opened;
+
+  public MappedFileDataSource() {
+    this(DEFAULT_MAX_MAPPED_REGION_SIZE);
+  }
+
+  private MappedFileDataSource(int maxMappedRegionSize) {
+    super(/* isNetwork= */ false);
+    this.maxMappedRegionSize = maxMappedRegionSize;
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws FileDataSourceException {
+    Uri uri = dataSpec.uri;
+    this.uri = uri;
+    transferInitializing(dataSpec);
+    RandomAccessFile file = FileDataSource.openLocalFile(uri);
+    this.file = file;
+    try {
+      bytesRemaining =
+          dataSpec.length == C.LENGTH_UNSET ? file.length() - dataSpec.position : dataSpec.length;
+    } catch (IOException e) {
+      throw new FileDataSourceException(e, PlaybackException.ERROR_CODE_IO_UNSPECIFIED);
+    }
+    if (bytesRemaining < 0) {
+      throw new FileDataSourceException(
+          /* message= */ null,
+          /* cause= */ null,
+          PlaybackException.ERROR_CODE_IO_READ_POSITION_OUT_OF_RANGE);
+    }
+    nextRegionPosition = dataSpec.position;
+
+    opened = true;
+    transferStarted(dataSpec);
+
+    return bytesRemaining;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws FileDataSourceException {
+    if (length == 0) {
+      return 0;
+    } else if (bytesRemaining == 0) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    @Nullable MappedByteBuffer mappedRegion = getMappedRegion();
+    if (mappedRegion == null) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    int bytesRead = min(mappedRegion.remaining(), length);
+    mappedRegion.get(buffer, offset, bytesRead);
+    onBytesRead(bytesRead);
+    return bytesRead;
+  }
+
+  @Override
+  @Nullable
+  public ByteBuffer readBuffer(int length) throws FileDataSourceException {
+    if (length == 0) {
+      return ByteBuffer.allocate(0);
+    } else if (bytesRemaining == 0) {
+      return null;
+    }
+    @Nullable MappedByteBuffer mappedRegion = getMappedRegion();
+    if (mappedRegion == null) {
+      return null;
+    }
+    int bytesRead = min(mappedRegion.remaining(), length);
+    ByteBuffer buffer = mappedRegion.slice();
+    buffer.limit(bytesRead);
+    mappedRegion.position(mappedRegion.position() + bytesRead);
+    onBytesRead(bytesRead);
+    return buffer.asReadOnlyBuffer();
+  }
+
+  @Override
+  @Nullable
+  public Uri getUri() {
+    return uri;
+  }
+
+  @Override
+  public void close() throws FileDataSourceException {
+    uri = null;
+    mappedRegion = null;
+    try {
+      if (file != null) {
+        file.close();
+      }
+    } catch (IOException e) {
+      throw new FileDataSourceException(e, PlaybackException.ERROR_CODE_IO_UNSPECIFIED);
+    } finally {
+      file = null;
+      if (opened) {
+        opened = false;
+        transferEnded();
+      }
+    }
+  }
+
+  /**
+   * Returns the mapped region from which the next read should be served, mapping the next region
+   * of the file if the current one has been fully read. Returns {@code null} if the end of the file
+   * has been reached. Must only be called if {@link #bytesRemaining} is non-zero.
+   */
+  @Nullable
+  private MappedByteBuffer getMappedRegion() throws FileDataSourceException {
+    @Nullable MappedByteBuffer mappedRegion = this.mappedRegion;
+    if (mappedRegion != null && mappedRegion.hasRemaining()) {
+      return mappedRegion;
+    }
+    long regionSize;
+    try {
+      RandomAccessFile file = checkNotNull(this.file);
+      regionSize =
+          min(min(file.length() - nextRegionPosition, bytesRemaining), maxMappedRegionSize);
+      if (regionSize <= 0) {
+        return null;
+      }
+      mappedRegion =
+          file.getChannel().map(FileChannel.MapMode.READ_ONLY, nextRegionPosition, regionSize);
+    } catch (IOException e) {
+      throw new FileDataSourceException(e, PlaybackException.ERROR_CODE_IO_UNSPECIFIED);
+    }
+    nextRegionPosition += regionSize;
+    this.mappedRegion = mappedRegion;
+    return mappedRegion;
+  }
+
+  private void onBytesRead(int bytesRead) {
+    bytesRemaining -= bytesRead;
+    bytesTransferred(bytesRead);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.Assertions;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link DataSource} whose transfer rate is limited by a {@link BandwidthLimiter}.
+ *
+ * <p>All instances that share a {@link BandwidthLimiter} are limited to its combined maximum rate.
+ * For example, wrapping the upstream {@link DataSource.Factory} of a download manager caps the
+ * bandwidth used by all of its downloads.
+ *
+ * <p>This class only limits the transfer rate. To pause downloads while a player is loading, set
+ * the player's {@link com.google.android.exoplayer2.util.PriorityTaskManager} as the upstream
+ * priority task manager of the downloads' {@link
+ * com.google.android.exoplayer2.upstream.cache.CacheDataSource.Factory}.
+ */
+public final class ThrottlingDataSource implements DataSource {
+
+  /** {@link DataSource.Factory} for {@link ThrottlingDataSource} instances. */
+  public static final class Factory implements DataSource.Factory {
+
+    private final DataSource.Factory upstreamFactory;
+    private final BandwidthLimiter bandwidthLimiter;
+
+    /**
+     * Creates an instance.
+     *
+     * @param upstreamFactory A {@link DataSource.Factory} that provides upstream {@link DataSource
+     *     DataSources} for {@link ThrottlingDataSource} instances created by the factory.
+     * @param bandwidthLimiter The {@link BandwidthLimiter} shared by the {@link
+     *     ThrottlingDataSource} instances created by the factory.
+     */
+    public Factory(DataSource.Factory upstreamFactory, BandwidthLimiter bandwidthLimiter) {
+      this.upstreamFactory = upstreamFactory;
+      this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    @Override
+    public ThrottlingDataSource createDataSource() {
+      return new ThrottlingDataSource(upstreamFactory.createDataSource(), bandwidthLimiter);
+    }
+  }
+
+  private final DataSource upstream;
+  private final BandwidthLimiter bandwidthLimiter;
+
+  /**
+   * @param upstream The upstream {@link DataSource}.
+   * @param bandwidthLimiter The {@link BandwidthLimiter} that limits the transfer rate.
+   */
+  public ThrottlingDataSource(DataSource upstream, BandwidthLimiter bandwidthLimiter) {
+    this.upstream = Assertions.checkNotNull(upstream);
+    this.bandwidthLimiter = Assertions.checkNotNull(bandwidthLimiter);
+  }
+
+  @Override
+  public void addTransferListener(TransferListener transferListener) {
+    Assertions.checkNotNull(transferListener);
+    upstream.addTransferListener(transferListener);
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    return upstream.open(dataSpec);
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    int bytesRead = upstream.read(buffer, offset, length);
+    if (bytesRead != C.RESULT_END_OF_INPUT) {
+      bandwidthLimiter.onBytesTransferred(bytesRead);
+    }
+    return bytesRead;
+  }
+
+  @Override
+  @Nullable
+  public Uri getUri() {
+    return upstream.getUri();
+  }
+
+  @Override
+  public Map<String, List<String>> getResponseHeaders() {
+    return upstream.getResponseHeaders();
+  }
+
+  @Override
+  public void close() throws IOException {
+    upstream.close();
+  }
+}
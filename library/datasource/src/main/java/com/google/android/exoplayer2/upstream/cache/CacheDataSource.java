@@ -29,11 +29,13 @@ import androidx.annotation.IntDef;
 import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.upstream.ByteBufferDataSource;
 import com.google.android.exoplayer2.upstream.DataSink;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSourceException;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.MappedFileDataSource;
 import com.google.android.exoplayer2.upstream.PlaceholderDataSource;
 import com.google.android.exoplayer2.upstream.PriorityDataSource;
 import com.google.android.exoplayer2.upstream.TeeDataSource;
@@ -47,6 +49,7 @@ import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -57,7 +60,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
  * when possible. When data is not cached it is requested from an upstream {@link DataSource} and
  * written into the cache.
  */
-public final class CacheDataSource implements DataSource {
+public final class CacheDataSource implements ByteBufferDataSource {
 
   /** {@link DataSource.Factory} for {@link CacheDataSource} instances. */
   public static final class Factory implements DataSource.Factory {
@@ -104,7 +107,10 @@ public final class CacheDataSource implements DataSource {
      * Sets the {@link DataSource.Factory} for {@link DataSource DataSources} for reading from the
      * cache.
      *
-     * <p>The default is a {@link FileDataSource.Factory} in its default configuration.
+     * <p>The default is a {@link FileDataSource.Factory} in its default configuration. A {@link
+     * MappedFileDataSource.Factory} can be used to serve reads of cached data from memory mapped
+     * cache files, which also allows cached data to be read without copying via {@link
+     * CacheDataSource#readBuffer(int)}.
      *
      * @param cacheReadDataSourceFactory The {@link DataSource.Factory} for reading from the cache.
      * @return This factory.
@@ -621,24 +627,8 @@ public final class CacheDataSource implements DataSource {
       }
       int bytesRead = checkNotNull(currentDataSource).read(buffer, offset, length);
       if (bytesRead != C.RESULT_END_OF_INPUT) {
-        if (isReadingFromCache()) {
-          totalCachedBytesRead += bytesRead;
-        }
-        readPosition += bytesRead;
-        currentDataSourceBytesRead += bytesRead;
-        if (bytesRemaining != C.LENGTH_UNSET) {
-          bytesRemaining -= bytesRead;
-        }
-      } else if (isReadingFromUpstream()
-          && (currentDataSpec.length == C.LENGTH_UNSET
-              || currentDataSourceBytesRead < currentDataSpec.length)) {
-        // We've encountered RESULT_END_OF_INPUT from the upstream DataSource at a position not
-        // imposed by the current DataSpec. This must mean that we've reached the end of the
-        // resource.
-        setNoBytesRemainingAndMaybeStoreLength(castNonNull(requestDataSpec.key));
-      } else if (bytesRemaining > 0 || bytesRemaining == C.LENGTH_UNSET) {
-        closeCurrentSource();
-        openNextSource(requestDataSpec, false);
+        onBytesRead(bytesRead);
+      } else if (shouldReadFromNextSource(requestDataSpec, currentDataSpec)) {
         return read(buffer, offset, length);
       }
       return bytesRead;
@@ -648,6 +638,49 @@ public final class CacheDataSource implements DataSource {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Data is returned without being copied if it's read from the cache and the {@link DataSource}
+   * for reading from the cache is a {@link ByteBufferDataSource} (e.g. a {@link
+   * MappedFileDataSource}). Otherwise it's copied into a newly allocated buffer.
+   */
+  @Override
+  @Nullable
+  public ByteBuffer readBuffer(int length) throws IOException {
+    if (length == 0) {
+      return ByteBuffer.allocate(0);
+    }
+    if (bytesRemaining == 0) {
+      return null;
+    }
+    DataSpec requestDataSpec = checkNotNull(this.requestDataSpec);
+    DataSpec currentDataSpec = checkNotNull(this.currentDataSpec);
+    try {
+      if (readPosition >= checkCachePosition) {
+        openNextSource(requestDataSpec, true);
+      }
+      DataSource currentDataSource = checkNotNull(this.currentDataSource);
+      @Nullable ByteBuffer buffer;
+      if (currentDataSource instanceof ByteBufferDataSource) {
+        buffer = ((ByteBufferDataSource) currentDataSource).readBuffer(length);
+      } else {
+        byte[] data = new byte[length];
+        int bytesRead = currentDataSource.read(data, /* offset= */ 0, length);
+        buffer = bytesRead == C.RESULT_END_OF_INPUT ? null : ByteBuffer.wrap(data, 0, bytesRead);
+      }
+      if (buffer != null) {
+        onBytesRead(buffer.remaining());
+      } else if (shouldReadFromNextSource(requestDataSpec, currentDataSpec)) {
+        return readBuffer(length);
+      }
+      return buffer;
+    } catch (Throwable e) {
+      handleBeforeThrow(e);
+      throw e;
+    }
+  }
+
   @Override
   @Nullable
   public Uri getUri() {
@@ -676,6 +709,41 @@ public final class CacheDataSource implements DataSource {
     }
   }
 
+  private void onBytesRead(int bytesRead) {
+    if (isReadingFromCache()) {
+      totalCachedBytesRead += bytesRead;
+    }
+    readPosition += bytesRead;
+    currentDataSourceBytesRead += bytesRead;
+    if (bytesRemaining != C.LENGTH_UNSET) {
+      bytesRemaining -= bytesRead;
+    }
+  }
+
+  /**
+   * Handles the current source reaching the end of its input.
+   *
+   * @param requestDataSpec The {@link DataSpec} of the current request.
+   * @param currentDataSpec The {@link DataSpec} with which the current source was opened.
+   * @return Whether the next source has been opened, in which case the read should be retried.
+   */
+  private boolean shouldReadFromNextSource(DataSpec requestDataSpec, DataSpec currentDataSpec)
+      throws IOException {
+    if (isReadingFromUpstream()
+        && (currentDataSpec.length == C.LENGTH_UNSET
+            || currentDataSourceBytesRead < currentDataSpec.length)) {
+      // We've encountered RESULT_END_OF_INPUT from the upstream DataSource at a position not
+      // imposed by the current DataSpec. This must mean that we've reached the end of the
+      // resource.
+      setNoBytesRemainingAndMaybeStoreLength(castNonNull(requestDataSpec.key));
+    } else if (bytesRemaining > 0 || bytesRemaining == C.LENGTH_UNSET) {
+      closeCurrentSource();
+      openNextSource(requestDataSpec, false);
+      return true;
+    }
+    return false;
+  }
+
   /**
    * Opens the next source. If the cache contains data spanning the current read position then
    * {@link #cacheReadDataSource} is opened to read from it. Else {@link #upstreamDataSource} is
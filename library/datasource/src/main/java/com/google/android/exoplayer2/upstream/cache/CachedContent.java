@@ -42,8 +42,8 @@ import java.util.TreeSet;
   /** Currently locked ranges. */
   private final ArrayList<Range> lockedRanges;
 
-  /** Metadata values. */
-  private DefaultContentMetadata metadata;
+  /** Metadata values. May be read by the index without holding the lock guarding this content. */
+  private volatile DefaultContentMetadata metadata;
 
   /**
    * Creates a CachedContent.
@@ -242,15 +242,27 @@ import java.util.TreeSet;
     return cachedSpans.isEmpty();
   }
 
-  /** Removes the given span from cache. */
-  public boolean removeSpan(CacheSpan span) {
-    if (cachedSpans.remove(span)) {
-      if (span.file != null) {
-        span.file.delete();
-      }
-      return true;
+  /**
+   * Removes the span starting at the same position as the given span from cache.
+   *
+   * @param span The span to remove.
+   * @return The removed span, or {@code null} if no span starting at the same position was cached.
+   *     The removed span may differ from {@code span} if it has been touched since {@code span} was
+   *     obtained.
+   */
+  @Nullable
+  public SimpleCacheSpan removeSpan(CacheSpan span) {
+    @Nullable
+    SimpleCacheSpan cachedSpan =
+        cachedSpans.floor(SimpleCacheSpan.createLookup(key, span.position));
+    if (cachedSpan == null || cachedSpan.position != span.position) {
+      return null;
     }
-    return false;
+    cachedSpans.remove(cachedSpan);
+    if (cachedSpan.file != null) {
+      cachedSpan.file.delete();
+    }
+    return cachedSpan;
   }
 
   @Override
@@ -26,8 +26,10 @@ import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
 import android.util.SparseArray;
 import android.util.SparseBooleanArray;
+import androidx.annotation.GuardedBy;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
@@ -36,6 +38,7 @@ import com.google.android.exoplayer2.database.DatabaseProvider;
 import com.google.android.exoplayer2.database.VersionTable;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.AtomicFile;
+import com.google.android.exoplayer2.util.Log;
 import com.google.android.exoplayer2.util.Util;
 import com.google.common.collect.ImmutableSet;
 import java.io.BufferedInputStream;
@@ -57,6 +60,13 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
@@ -66,14 +76,23 @@ import javax.crypto.spec.SecretKeySpec;
 import org.checkerframework.checker.nullness.compatqual.NullableType;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
-/** Maintains the index of cached content. */
+/**
+ * Maintains the index of cached content.
+ *
+ * <p>The index is safe for use from multiple threads. Lookups by key are lock-free, whilst id
+ * assignment and persistence are guarded by the index itself. Mutations of an individual {@link
+ * CachedContent} must be externally synchronized by the caller.
+ */
 /* package */ class CachedContentIndex {
 
   /* package */ static final String FILE_NAME_ATOMIC = "cached_content_index.exi";
 
+  private static final String TAG = "CachedContentIndex";
+  private static final String WRITE_BEHIND_THREAD_NAME = "ExoPlayer:CachedContentIndexWriter";
+
   private static final int INCREMENTAL_METADATA_READ_LENGTH = 10 * 1024 * 1024;
 
-  private final HashMap<String, CachedContent> keyToContent;
+  private final Map<String, CachedContent> keyToContent;
   /**
    * Maps assigned ids to their corresponding keys. Also contains (id -> null) entries for ids that
    * have been removed from the index since it was last stored. This prevents reuse of these ids,
@@ -91,17 +110,41 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
    * <p>When the index is next stored (id -> null) entries are removed, making the ids eligible for
    * reuse.
    */
+  @GuardedBy("this")
   private final SparseArray<@NullableType String> idToKey;
   /**
    * Tracks ids for which (id -> null) entries are present in idToKey, so that they can be removed
    * efficiently when the index is next stored.
    */
+  @GuardedBy("this")
   private final SparseBooleanArray removedIds;
   /** Tracks ids that are new since the index was last stored. */
+  @GuardedBy("this")
   private final SparseBooleanArray newIds;
 
+  private final Object writeBehindLock;
+
+  @GuardedBy("this")
   private Storage storage;
-  @Nullable private Storage previousStorage;
+
+  @GuardedBy("this")
+  @Nullable
+  private Storage previousStorage;
+
+  /**
+   * The number of changes that have been made since the index was last stored. Only modified while
+   * holding the lock on this instance, but read without it by {@link #requestStore()}.
+   */
+  private final AtomicInteger pendingUpdateCount;
+
+  @Nullable private volatile SimpleCache.IndexStoreListener storeListener;
+  @Nullable private volatile ScheduledExecutorService writeBehindExecutor;
+  private long maxStoreDelayMs;
+  private int maxPendingUpdateCount;
+
+  @GuardedBy("writeBehindLock")
+  @Nullable
+  private ScheduledFuture<?> scheduledStore;
 
   /** Returns whether the file is an index file. */
   public static boolean isIndexFile(String fileName) {
@@ -160,7 +203,9 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       boolean legacyStorageEncrypt,
       boolean preferLegacyStorage) {
     checkState(databaseProvider != null || legacyStorageDir != null);
-    keyToContent = new HashMap<>();
+    keyToContent = new ConcurrentHashMap<>();
+    writeBehindLock = new Object();
+    pendingUpdateCount = new AtomicInteger();
     idToKey = new SparseArray<>();
     removedIds = new SparseBooleanArray();
     newIds = new SparseBooleanArray();
@@ -193,7 +238,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
    * @throws IOException If an error occurs initializing the index data.
    */
   @WorkerThread
-  public void initialize(long uid) throws IOException {
+  public synchronized void initialize(long uid) throws IOException {
     storage.initialize(uid);
     if (previousStorage != null) {
       previousStorage.initialize(uid);
@@ -220,7 +265,9 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
    * @throws IOException If an error occurs storing the index data.
    */
   @WorkerThread
-  public void store() throws IOException {
+  public synchronized void store() throws IOException {
+    int updateCount = pendingUpdateCount.get();
+    long startTimeMs = SystemClock.elapsedRealtime();
     storage.storeIncremental(keyToContent);
     // Make ids that were removed since the index was last stored eligible for re-use.
     int removedIdCount = removedIds.size();
@@ -229,6 +276,107 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
     removedIds.clear();
     newIds.clear();
+    pendingUpdateCount.set(0);
+    @Nullable SimpleCache.IndexStoreListener storeListener = this.storeListener;
+    if (storeListener != null && updateCount > 0) {
+      storeListener.onIndexStored(updateCount, SystemClock.elapsedRealtime() - startTimeMs);
+    }
+  }
+
+  /**
+   * Enables write-behind storage of the index. Changes are then stored by {@link #requestStore()}
+   * on a background thread, once {@code maxStoreDelayMs} has elapsed since the first change that
+   * hasn't been stored, or once {@code maxPendingUpdateCount} changes are pending, whichever
+   * happens first. Changes made in the meantime are merged and stored together.
+   *
+   * <p>Each store is atomic, so the persisted index is always consistent. If the process dies
+   * before pending changes are stored, then they're lost. Cache files belonging to content that
+   * was added but not yet stored are deleted when the cache is next initialized.
+   *
+   * <p>Must be called before any changes are made to the index.
+   *
+   * @param maxStoreDelayMs The maximum time for which a change can be pending, in milliseconds.
+   * @param maxPendingUpdateCount The number of pending changes that triggers an immediate store.
+   */
+  public void enableWriteBehind(long maxStoreDelayMs, int maxPendingUpdateCount) {
+    checkState(writeBehindExecutor == null);
+    this.maxStoreDelayMs = maxStoreDelayMs;
+    this.maxPendingUpdateCount = maxPendingUpdateCount;
+    writeBehindExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, WRITE_BEHIND_THREAD_NAME);
+              // Don't keep the process alive. Pending changes are stored on release.
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Sets a listener to be notified each time changes to the index are stored.
+   *
+   * <p>The listener is called on the thread that stores the index.
+   *
+   * @param storeListener The listener, or {@code null} to clear the listener.
+   */
+  public void setStoreListener(@Nullable SimpleCache.IndexStoreListener storeListener) {
+    this.storeListener = storeListener;
+  }
+
+  /**
+   * Stores the index data if there is a change. If write-behind storage is enabled, this method
+   * only schedules the index to be stored on a background thread.
+   *
+   * @throws IOException If an error occurs storing the index data synchronously.
+   */
+  public void requestStore() throws IOException {
+    @Nullable ScheduledExecutorService writeBehindExecutor = this.writeBehindExecutor;
+    if (writeBehindExecutor == null) {
+      store();
+      return;
+    }
+    int updateCount = pendingUpdateCount.get();
+    if (updateCount == 0) {
+      return;
+    }
+    boolean storeImmediately = updateCount >= maxPendingUpdateCount;
+    synchronized (writeBehindLock) {
+      if (scheduledStore != null) {
+        if (!storeImmediately || scheduledStore.getDelay(TimeUnit.MILLISECONDS) <= 0) {
+          // The pending changes will be stored soon enough by the scheduled store.
+          return;
+        }
+        scheduledStore.cancel(/* mayInterruptIfRunning= */ false);
+      }
+      try {
+        scheduledStore =
+            writeBehindExecutor.schedule(
+                this::storeInBackground,
+                storeImmediately ? 0 : maxStoreDelayMs,
+                TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // The index has been released.
+        scheduledStore = null;
+      }
+    }
+  }
+
+  /**
+   * Stops any background storage of the index. Pending changes are not stored, and so {@link
+   * #store()} should normally be called afterwards.
+   */
+  public void release() {
+    @Nullable ScheduledExecutorService writeBehindExecutor = this.writeBehindExecutor;
+    if (writeBehindExecutor == null) {
+      return;
+    }
+    synchronized (writeBehindLock) {
+      if (scheduledStore != null) {
+        scheduledStore.cancel(/* mayInterruptIfRunning= */ false);
+        scheduledStore = null;
+      }
+      writeBehindExecutor.shutdown();
+    }
   }
 
   /**
@@ -239,7 +387,14 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
    */
   public CachedContent getOrAdd(String key) {
     @Nullable CachedContent cachedContent = keyToContent.get(key);
-    return cachedContent == null ? addNew(key) : cachedContent;
+    if (cachedContent != null) {
+      return cachedContent;
+    }
+    synchronized (this) {
+      // Check again, as the content may have been added by another thread.
+      cachedContent = keyToContent.get(key);
+      return cachedContent == null ? addNew(key) : cachedContent;
+    }
   }
 
   /**
@@ -257,7 +412,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
    * Returns a read only collection of all {@link CachedContent CachedContents} in the index.
    *
    * <p>Subsequent changes to the index are reflected in the returned collection. If the index is
-   * modified whilst iterating over the collection, the result of the iteration is undefined.
+   * modified whilst iterating over the collection, the iteration may or may not reflect the
+   * modification.
    */
   public Collection<CachedContent> getAll() {
     return Collections.unmodifiableCollection(keyToContent.values());
@@ -270,7 +426,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
   /** Returns the key which has the given id assigned, or {@code null} if no such key exists. */
   @Nullable
-  public String getKeyForId(int id) {
+  public synchronized String getKeyForId(int id) {
     return idToKey.get(id);
   }
 
@@ -279,13 +435,14 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
    *
    * @param key The cache key of the resource.
    */
-  public void maybeRemove(String key) {
+  public synchronized void maybeRemove(String key) {
     @Nullable CachedContent cachedContent = keyToContent.get(key);
     if (cachedContent != null && cachedContent.isEmpty() && cachedContent.isFullyUnlocked()) {
       keyToContent.remove(key);
       int id = cachedContent.id;
       boolean neverStored = newIds.get(id);
       storage.onRemove(cachedContent, neverStored);
+      pendingUpdateCount.incrementAndGet();
       if (neverStored) {
         // The id can be reused immediately.
         idToKey.remove(id);
@@ -300,7 +457,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   }
 
   /** Removes all resources whose {@link CachedContent CachedContents} are empty and unlocked. */
-  public void removeEmpty() {
+  public synchronized void removeEmpty() {
     // Create a copy of the keys as the underlying map is modified by maybeRemove(key).
     for (String key : ImmutableSet.copyOf(keyToContent.keySet())) {
       maybeRemove(key);
@@ -324,7 +481,10 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   public void applyContentMetadataMutations(String key, ContentMetadataMutations mutations) {
     CachedContent cachedContent = getOrAdd(key);
     if (cachedContent.applyMetadataMutations(mutations)) {
-      storage.onUpdate(cachedContent);
+      synchronized (this) {
+        storage.onUpdate(cachedContent);
+        pendingUpdateCount.incrementAndGet();
+      }
     }
   }
 
@@ -334,6 +494,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     return cachedContent != null ? cachedContent.getMetadata() : DefaultContentMetadata.EMPTY;
   }
 
+  @GuardedBy("this")
   private CachedContent addNew(String key) {
     int id = getNewId(idToKey);
     CachedContent cachedContent = new CachedContent(id, key);
@@ -341,9 +502,22 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     idToKey.put(id, key);
     newIds.put(id, true);
     storage.onUpdate(cachedContent);
+    pendingUpdateCount.incrementAndGet();
     return cachedContent;
   }
 
+  private void storeInBackground() {
+    synchronized (writeBehindLock) {
+      scheduledStore = null;
+    }
+    try {
+      store();
+    } catch (IOException e) {
+      // The changes remain pending, and will be stored when the next store is requested.
+      Log.e(TAG, "Storing index failed", e);
+    }
+  }
+
   @SuppressLint("GetInstance") // Suppress warning about specifying "BC" as an explicit provider.
   private static Cipher getCipher() throws NoSuchPaddingException, NoSuchAlgorithmException {
     // Workaround for https://issuetracker.google.com/issues/36976726
@@ -461,7 +635,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
      * @param idToKey The id to key map to populate with persisted data.
      * @throws IOException If an error occurs loading the index.
      */
-    void load(HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
+    void load(Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
         throws IOException;
 
     /**
@@ -471,17 +645,17 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
      * @param content The key to content map to persist.
      * @throws IOException If an error occurs persisting the index.
      */
-    void storeFully(HashMap<String, CachedContent> content) throws IOException;
+    void storeFully(Map<String, CachedContent> content) throws IOException;
 
     /**
      * Ensures incremental changes to the index since the initial {@link #initialize(long)} or last
-     * {@link #storeFully(HashMap)} are persisted. The storage will have been notified of all such
+     * {@link #storeFully(Map)} are persisted. The storage will have been notified of all such
      * changes via {@link #onUpdate(CachedContent)} and {@link #onRemove(CachedContent, boolean)}.
      *
      * @param content The key to content map to persist.
      * @throws IOException If an error occurs persisting the index.
      */
-    void storeIncremental(HashMap<String, CachedContent> content) throws IOException;
+    void storeIncremental(Map<String, CachedContent> content) throws IOException;
 
     /**
      * Called when a {@link CachedContent} is added or updated.
@@ -555,7 +729,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
     @Override
     public void load(
-        HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
+        Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
       checkState(!changed);
       if (!readFile(content, idToKey)) {
         content.clear();
@@ -565,13 +739,13 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
 
     @Override
-    public void storeFully(HashMap<String, CachedContent> content) throws IOException {
+    public void storeFully(Map<String, CachedContent> content) throws IOException {
       writeFile(content);
       changed = false;
     }
 
     @Override
-    public void storeIncremental(HashMap<String, CachedContent> content) throws IOException {
+    public void storeIncremental(Map<String, CachedContent> content) throws IOException {
       if (!changed) {
         return;
       }
@@ -589,7 +763,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
 
     private boolean readFile(
-        HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
+        Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
       if (!atomicFile.exists()) {
         return true;
       }
@@ -644,7 +818,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       return true;
     }
 
-    private void writeFile(HashMap<String, CachedContent> content) throws IOException {
+    private void writeFile(Map<String, CachedContent> content) throws IOException {
       @Nullable DataOutputStream output = null;
       try {
         OutputStream outputStream = atomicFile.startWrite();
@@ -808,7 +982,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
     @Override
     public void load(
-        HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
+        Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
         throws IOException {
       checkState(pendingUpdates.size() == 0);
       try {
@@ -851,7 +1025,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
 
     @Override
-    public void storeFully(HashMap<String, CachedContent> content) throws IOException {
+    public void storeFully(Map<String, CachedContent> content) throws IOException {
       try {
         SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
         writableDatabase.beginTransactionNonExclusive();
@@ -871,7 +1045,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
 
     @Override
-    public void storeIncremental(HashMap<String, CachedContent> content) throws IOException {
+    public void storeIncremental(Map<String, CachedContent> content) throws IOException {
       if (pendingUpdates.size() == 0) {
         return;
       }
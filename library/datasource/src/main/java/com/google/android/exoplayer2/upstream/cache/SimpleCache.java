@@ -28,13 +28,16 @@ import java.io.File;
 import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 /**
@@ -45,9 +48,34 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
  * <p>To delete a SimpleCache, use {@link #delete(File, DatabaseProvider)} rather than deleting the
  * directory and its contents directly. This is necessary to ensure that associated index data is
  * also removed.
+ *
+ * <p>By default all operations are serialized by a single lock. If the cache is accessed by many
+ * threads concurrently (e.g. several {@link CacheDataSource} readers alongside downloads) then lock
+ * striping can be enabled via {@link #SimpleCache(File, CacheEvictor, DatabaseProvider, byte[],
+ * boolean, boolean, boolean)}. In this mode operations on different keys do not block each other,
+ * and {@link CacheEvictor} callbacks are serialized separately. Evictor callbacks are still
+ * delivered in the order in which the corresponding changes were made, but may be delivered
+ * slightly after the operation that caused them has returned. {@link Cache.Listener Listeners} are
+ * called whilst holding the lock for the key they were registered for, and so must not operate on
+ * other keys.
  */
 public final class SimpleCache implements Cache {
 
+  /** Receives metrics about the persistence of the cache index. */
+  public interface IndexStoreListener {
+
+    /**
+     * Called when changes to the cache index have been persisted.
+     *
+     * <p>Called on the thread that persisted the changes. If write-behind persistence is enabled
+     * this is normally a background thread.
+     *
+     * @param updateCount The number of changes that were persisted together.
+     * @param durationMs The time taken to persist the changes, in milliseconds.
+     */
+    void onIndexStored(int updateCount, long durationMs);
+  }
+
   private static final String TAG = "SimpleCache";
   /**
    * Cache files are distributed between a number of subdirectories. This helps to avoid poor
@@ -59,20 +87,34 @@ public final class SimpleCache implements Cache {
 
   private static final String UID_FILE_SUFFIX = ".uid";
 
+  /** The number of locks between which keys are distributed when lock striping is enabled. */
+  private static final int LOCK_STRIPE_COUNT = 32;
+
   private static final HashSet<File> lockedCacheDirs = new HashSet<>();
 
   private final File cacheDir;
   private final CacheEvictor evictor;
   private final CachedContentIndex contentIndex;
   @Nullable private final CacheFileMetadataIndex fileIndex;
-  private final HashMap<String, ArrayList<Listener>> listeners;
+  private final Map<String, ArrayList<Listener>> listeners;
   private final Random random;
   private final boolean touchCacheSpans;
+  private final AtomicLong totalSpace;
+  private final ConditionVariable initializationCondition;
+
+  /** Locks guarding the content of each key, or {@code null} if lock striping is disabled. */
+  @Nullable private final Object[] lockStripes;
+  /** Serializes evictor callbacks, or {@code null} if lock striping is disabled. */
+  @Nullable private final ReentrantLock evictorLock;
+  /** Serializes releasing the cache if lock striping is enabled. */
+  private final Object releaseLock;
+  /** Evictor callbacks that are yet to be delivered. Only used if lock striping is enabled. */
+  private final ConcurrentLinkedQueue<Runnable> pendingEvictorEvents;
 
   private long uid;
-  private long totalSpace;
-  private boolean released;
-  private @MonotonicNonNull CacheException initializationException;
+  private volatile boolean initialized;
+  private volatile boolean released;
+  private volatile @MonotonicNonNull CacheException initializationException;
 
   /**
    * Returns whether {@code cacheFolder} is locked by a {@link SimpleCache} instance. To unlock the
@@ -226,6 +268,46 @@ public final class SimpleCache implements Cache {
       @Nullable byte[] legacyIndexSecretKey,
       boolean legacyIndexEncrypt,
       boolean preferLegacyIndex) {
+    this(
+        cacheDir,
+        evictor,
+        databaseProvider,
+        legacyIndexSecretKey,
+        legacyIndexEncrypt,
+        preferLegacyIndex,
+        /* useLockStriping= */ false);
+  }
+
+  /**
+   * Constructs the cache. The cache will delete any unrecognized files from the cache directory.
+   * Hence the directory cannot be used to store other files.
+   *
+   * @param cacheDir A dedicated cache directory.
+   * @param evictor The evictor to be used. For download use cases where cache eviction should not
+   *     occur, use {@link NoOpCacheEvictor}.
+   * @param databaseProvider Provides the database in which the cache index is stored, or {@code
+   *     null} to use a legacy index. Using a database index is highly recommended for performance
+   *     reasons.
+   * @param legacyIndexSecretKey A 16 byte AES key for reading, and optionally writing, the legacy
+   *     index. Not used by the database index, however should still be provided when using the
+   *     database index in cases where upgrading from the legacy index may be necessary.
+   * @param legacyIndexEncrypt Whether to encrypt when writing to the legacy index. Must be {@code
+   *     false} if {@code legacyIndexSecretKey} is {@code null}. Not used by the database index.
+   * @param preferLegacyIndex Whether to use the legacy index even if a {@code databaseProvider} is
+   *     provided. Should be {@code false} in nearly all cases. Setting this to {@code true} is only
+   *     useful for downgrading from the database index back to the legacy index.
+   * @param useLockStriping Whether operations on different keys should be guarded by different
+   *     locks, so that they do not block each other. Enabling this reduces contention when the
+   *     cache is accessed by many threads concurrently.
+   */
+  public SimpleCache(
+      File cacheDir,
+      CacheEvictor evictor,
+      @Nullable DatabaseProvider databaseProvider,
+      @Nullable byte[] legacyIndexSecretKey,
+      boolean legacyIndexEncrypt,
+      boolean preferLegacyIndex,
+      boolean useLockStriping) {
     this(
         cacheDir,
         evictor,
@@ -237,7 +319,8 @@ public final class SimpleCache implements Cache {
             preferLegacyIndex),
         databaseProvider != null && !preferLegacyIndex
             ? new CacheFileMetadataIndex(databaseProvider)
-            : null);
+            : null,
+        useLockStriping);
   }
 
   /* package */ SimpleCache(
@@ -245,6 +328,15 @@ public final class SimpleCache implements Cache {
       CacheEvictor evictor,
       CachedContentIndex contentIndex,
       @Nullable CacheFileMetadataIndex fileIndex) {
+    this(cacheDir, evictor, contentIndex, fileIndex, /* useLockStriping= */ false);
+  }
+
+  /* package */ SimpleCache(
+      File cacheDir,
+      CacheEvictor evictor,
+      CachedContentIndex contentIndex,
+      @Nullable CacheFileMetadataIndex fileIndex,
+      boolean useLockStriping) {
     if (!lockFolder(cacheDir)) {
       throw new IllegalStateException("Another SimpleCache instance uses the folder: " + cacheDir);
     }
@@ -253,9 +345,23 @@ public final class SimpleCache implements Cache {
     this.evictor = evictor;
     this.contentIndex = contentIndex;
     this.fileIndex = fileIndex;
-    listeners = new HashMap<>();
+    listeners = new ConcurrentHashMap<>();
     random = new Random();
     touchCacheSpans = evictor.requiresCacheSpanTouches();
+    totalSpace = new AtomicLong();
+    initializationCondition = new ConditionVariable();
+    pendingEvictorEvents = new ConcurrentLinkedQueue<>();
+    releaseLock = new Object();
+    if (useLockStriping) {
+      lockStripes = new Object[LOCK_STRIPE_COUNT];
+      for (int i = 0; i < LOCK_STRIPE_COUNT; i++) {
+        lockStripes[i] = new Object();
+      }
+      evictorLock = new ReentrantLock();
+    } else {
+      lockStripes = null;
+      evictorLock = null;
+    }
     uid = UID_UNSET;
 
     // Start cache initialization.
@@ -266,7 +372,20 @@ public final class SimpleCache implements Cache {
         synchronized (SimpleCache.this) {
           conditionVariable.open();
           initialize();
-          SimpleCache.this.evictor.onCacheInitialized();
+          if (evictorLock != null) {
+            evictorLock.lock();
+            try {
+              dispatchPendingEvictorEvents();
+              SimpleCache.this.evictor.onCacheInitialized();
+            } finally {
+              evictorLock.unlock();
+            }
+            maybeDispatchPendingEvictorEvents();
+          } else {
+            SimpleCache.this.evictor.onCacheInitialized();
+          }
+          initialized = true;
+          initializationCondition.open();
         }
       }
     }.start();
@@ -278,155 +397,204 @@ public final class SimpleCache implements Cache {
    *
    * @throws CacheException If an error occurred during initialization.
    */
-  public synchronized void checkInitialization() throws CacheException {
+  public void checkInitialization() throws CacheException {
+    blockUntilInitialized();
     if (initializationException != null) {
       throw initializationException;
     }
   }
 
+  /**
+   * Enables write-behind persistence of the cache index. Changes to the index (e.g. new content
+   * and metadata mutations) are then merged and persisted on a background thread, rather than
+   * being persisted synchronously by the operation that makes them. Changes are persisted once
+   * {@code maxStoreDelayMs} has elapsed since the first change that hasn't been persisted, or once
+   * {@code maxPendingUpdateCount} changes are pending, whichever happens first. Pending changes
+   * are also persisted when the cache is released.
+   *
+   * <p>The persisted index is always consistent. If the process dies before pending changes are
+   * persisted then they are lost, and any data written for content whose addition wasn't persisted
+   * is deleted when the cache is next initialized.
+   *
+   * <p>Must be called before the cache is used.
+   *
+   * @param maxStoreDelayMs The maximum time for which a change can be pending, in milliseconds.
+   * @param maxPendingUpdateCount The number of pending changes that causes them to be persisted
+   *     immediately.
+   */
+  public void enableIndexWriteBehind(long maxStoreDelayMs, int maxPendingUpdateCount) {
+    Assertions.checkState(!released);
+    contentIndex.enableWriteBehind(maxStoreDelayMs, maxPendingUpdateCount);
+  }
+
+  /**
+   * Sets a listener to receive metrics about the persistence of the cache index.
+   *
+   * @param indexStoreListener The listener, or {@code null} to clear the listener.
+   */
+  public void setIndexStoreListener(@Nullable IndexStoreListener indexStoreListener) {
+    contentIndex.setStoreListener(indexStoreListener);
+  }
+
   @Override
   public synchronized long getUid() {
     return uid;
   }
 
   @Override
-  public synchronized void release() {
-    if (released) {
+  public void release() {
+    if (lockStripes == null) {
+      synchronized (this) {
+        releaseInternal();
+      }
       return;
     }
-    listeners.clear();
-    removeStaleSpans();
-    try {
-      contentIndex.store();
-    } catch (IOException e) {
-      Log.e(TAG, "Storing index file failed", e);
-    } finally {
-      unlockFolder(cacheDir);
-      released = true;
+    // With lock striping the cache's own lock is only held during initialization, and so it's
+    // sufficient to wait for initialization to complete.
+    blockUntilInitialized();
+    synchronized (releaseLock) {
+      releaseInternal();
     }
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> addListener(String key, Listener listener) {
+  public NavigableSet<CacheSpan> addListener(String key, Listener listener) {
     Assertions.checkState(!released);
     Assertions.checkNotNull(key);
     Assertions.checkNotNull(listener);
-    ArrayList<Listener> listenersForKey = listeners.get(key);
-    if (listenersForKey == null) {
-      listenersForKey = new ArrayList<>();
-      listeners.put(key, listenersForKey);
+    blockUntilInitialized();
+    synchronized (getLock(key)) {
+      ArrayList<Listener> listenersForKey = listeners.get(key);
+      if (listenersForKey == null) {
+        listenersForKey = new ArrayList<>();
+        listeners.put(key, listenersForKey);
+      }
+      listenersForKey.add(listener);
+      return getCachedSpans(key);
     }
-    listenersForKey.add(listener);
-    return getCachedSpans(key);
   }
 
   @Override
-  public synchronized void removeListener(String key, Listener listener) {
+  public void removeListener(String key, Listener listener) {
     if (released) {
       return;
     }
-    ArrayList<Listener> listenersForKey = listeners.get(key);
-    if (listenersForKey != null) {
-      listenersForKey.remove(listener);
-      if (listenersForKey.isEmpty()) {
-        listeners.remove(key);
+    blockUntilInitialized();
+    synchronized (getLock(key)) {
+      ArrayList<Listener> listenersForKey = listeners.get(key);
+      if (listenersForKey != null) {
+        listenersForKey.remove(listener);
+        if (listenersForKey.isEmpty()) {
+          listeners.remove(key);
+        }
       }
     }
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> getCachedSpans(String key) {
+  public NavigableSet<CacheSpan> getCachedSpans(String key) {
     Assertions.checkState(!released);
-    CachedContent cachedContent = contentIndex.get(key);
-    return cachedContent == null || cachedContent.isEmpty()
-        ? new TreeSet<>()
-        : new TreeSet<CacheSpan>(cachedContent.getSpans());
+    blockUntilInitialized();
+    synchronized (getLock(key)) {
+      CachedContent cachedContent = contentIndex.get(key);
+      return cachedContent == null || cachedContent.isEmpty()
+          ? new TreeSet<>()
+          : new TreeSet<CacheSpan>(cachedContent.getSpans());
+    }
   }
 
   @Override
-  public synchronized Set<String> getKeys() {
+  public Set<String> getKeys() {
     Assertions.checkState(!released);
+    // The index is backed by a concurrent map, so the cache's lock isn't required.
+    blockUntilInitialized();
     return new HashSet<>(contentIndex.getKeys());
   }
 
   @Override
-  public synchronized long getCacheSpace() {
+  public long getCacheSpace() {
     Assertions.checkState(!released);
-    return totalSpace;
+    blockUntilInitialized();
+    return totalSpace.get();
   }
 
   @Override
-  public synchronized CacheSpan startReadWrite(String key, long position, long length)
+  public CacheSpan startReadWrite(String key, long position, long length)
       throws InterruptedException, CacheException {
     Assertions.checkState(!released);
     checkInitialization();
 
-    while (true) {
-      CacheSpan span = startReadWriteNonBlocking(key, position, length);
-      if (span != null) {
-        return span;
-      } else {
-        // Lock not available. We'll be woken up when a span is added, or when a locked span is
-        // released. We'll be able to make progress when either:
-        // 1. A span is added for the requested key that covers the requested position, in which
-        //    case a read can be started.
-        // 2. The lock for the requested key is released, in which case a write can be started.
-        wait();
+    Object lock = getLock(key);
+    CacheSpan span;
+    synchronized (lock) {
+      while (true) {
+        span = startReadWriteNonBlockingLocked(key, position, length);
+        if (span != null) {
+          break;
+        } else {
+          // Lock not available. We'll be woken up when a span is added, or when a locked span is
+          // released. We'll be able to make progress when either:
+          // 1. A span is added for the requested key that covers the requested position, in which
+          //    case a read can be started.
+          // 2. The lock for the requested key is released, in which case a write can be started.
+          lock.wait();
+        }
       }
     }
+    maybeDispatchPendingEvictorEvents();
+    return span;
   }
 
   @Override
   @Nullable
-  public synchronized CacheSpan startReadWriteNonBlocking(String key, long position, long length)
+  public CacheSpan startReadWriteNonBlocking(String key, long position, long length)
       throws CacheException {
     Assertions.checkState(!released);
     checkInitialization();
 
-    SimpleCacheSpan span = getSpan(key, position, length);
-
-    if (span.isCached) {
-      // Read case.
-      return touchSpan(key, span);
+    @Nullable CacheSpan span;
+    synchronized (getLock(key)) {
+      span = startReadWriteNonBlockingLocked(key, position, length);
     }
-
-    CachedContent cachedContent = contentIndex.getOrAdd(key);
-    if (cachedContent.lockRange(position, span.length)) {
-      // Write case.
-      return span;
-    }
-
-    // Lock not available.
-    return null;
+    maybeDispatchPendingEvictorEvents();
+    return span;
   }
 
   @Override
-  public synchronized File startFile(String key, long position, long length) throws CacheException {
+  public File startFile(String key, long position, long length) throws CacheException {
     Assertions.checkState(!released);
     checkInitialization();
 
-    CachedContent cachedContent = contentIndex.get(key);
-    Assertions.checkNotNull(cachedContent);
-    Assertions.checkState(cachedContent.isFullyLocked(position, length));
-    if (!cacheDir.exists()) {
-      // The cache directory has been deleted from underneath us. Recreate it, and remove in-memory
-      // spans corresponding to cache files that no longer exist.
-      createCacheDirectories(cacheDir);
-      removeStaleSpans();
+    if (evictorLock == null) {
+      synchronized (this) {
+        return startFileLocked(key, position, length);
+      }
     }
-    evictor.onStartFile(this, key, position, length);
-    // Randomly distribute files into subdirectories with a uniform distribution.
-    File cacheSubDir = new File(cacheDir, Integer.toString(random.nextInt(SUBDIRECTORY_COUNT)));
-    if (!cacheSubDir.exists()) {
-      createCacheDirectories(cacheSubDir);
+    // With lock striping the evictor may remove spans belonging to other keys, and so it must be
+    // notified before the lock for this key is acquired.
+    evictorLock.lock();
+    try {
+      dispatchPendingEvictorEvents();
+      synchronized (getLock(key)) {
+        CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(key));
+        Assertions.checkState(cachedContent.isFullyLocked(position, length));
+      }
+      if (!cacheDir.exists()) {
+        createCacheDirectories(cacheDir);
+        removeStaleSpans();
+      }
+      evictor.onStartFile(this, key, position, length);
+    } finally {
+      evictorLock.unlock();
+    }
+    maybeDispatchPendingEvictorEvents();
+    synchronized (getLock(key)) {
+      return createCacheFile(Assertions.checkNotNull(contentIndex.get(key)), position);
     }
-    long lastTouchTimestamp = System.currentTimeMillis();
-    return SimpleCacheSpan.getCacheFile(
-        cacheSubDir, cachedContent.id, position, lastTouchTimestamp);
   }
 
   @Override
-  public synchronized void commitFile(File file, long length) throws CacheException {
+  public void commitFile(File file, long length) throws CacheException {
     Assertions.checkState(!released);
     if (!file.exists()) {
       return;
@@ -438,74 +606,99 @@ public final class SimpleCache implements Cache {
 
     SimpleCacheSpan span =
         Assertions.checkNotNull(SimpleCacheSpan.createCacheEntry(file, length, contentIndex));
-    CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(span.key));
-    Assertions.checkState(cachedContent.isFullyLocked(span.position, span.length));
-
-    // Check if the span conflicts with the set content length
-    long contentLength = ContentMetadata.getContentLength(cachedContent.getMetadata());
-    if (contentLength != C.LENGTH_UNSET) {
-      Assertions.checkState((span.position + span.length) <= contentLength);
-    }
+    Object lock = getLock(span.key);
+    try {
+      synchronized (lock) {
+        CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(span.key));
+        Assertions.checkState(cachedContent.isFullyLocked(span.position, span.length));
+
+        // Check if the span conflicts with the set content length
+        long contentLength = ContentMetadata.getContentLength(cachedContent.getMetadata());
+        if (contentLength != C.LENGTH_UNSET) {
+          Assertions.checkState((span.position + span.length) <= contentLength);
+        }
 
-    if (fileIndex != null) {
-      String fileName = file.getName();
-      try {
-        fileIndex.set(fileName, span.length, span.lastTouchTimestamp);
-      } catch (IOException e) {
-        throw new CacheException(e);
+        if (fileIndex != null) {
+          String fileName = file.getName();
+          try {
+            fileIndex.set(fileName, span.length, span.lastTouchTimestamp);
+          } catch (IOException e) {
+            throw new CacheException(e);
+          }
+        }
+        addSpan(span);
+        try {
+          contentIndex.requestStore();
+        } catch (IOException e) {
+          throw new CacheException(e);
+        }
+        lock.notifyAll();
       }
+    } finally {
+      maybeDispatchPendingEvictorEvents();
     }
-    addSpan(span);
-    try {
-      contentIndex.store();
-    } catch (IOException e) {
-      throw new CacheException(e);
-    }
-    notifyAll();
   }
 
   @Override
-  public synchronized void releaseHoleSpan(CacheSpan holeSpan) {
+  public void releaseHoleSpan(CacheSpan holeSpan) {
     Assertions.checkState(!released);
-    CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(holeSpan.key));
-    cachedContent.unlockRange(holeSpan.position);
-    contentIndex.maybeRemove(cachedContent.key);
-    notifyAll();
+    Object lock = getLock(holeSpan.key);
+    synchronized (lock) {
+      CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(holeSpan.key));
+      cachedContent.unlockRange(holeSpan.position);
+      contentIndex.maybeRemove(cachedContent.key);
+      lock.notifyAll();
+    }
   }
 
   @Override
-  public synchronized void removeResource(String key) {
+  public void removeResource(String key) {
     Assertions.checkState(!released);
-    for (CacheSpan span : getCachedSpans(key)) {
-      removeSpanInternal(span);
+    synchronized (getLock(key)) {
+      for (CacheSpan span : getCachedSpans(key)) {
+        removeSpanInternal(span);
+      }
     }
+    maybeDispatchPendingEvictorEvents();
   }
 
   @Override
-  public synchronized void removeSpan(CacheSpan span) {
+  public void removeSpan(CacheSpan span) {
     Assertions.checkState(!released);
-    removeSpanInternal(span);
+    synchronized (getLock(span.key)) {
+      removeSpanInternal(span);
+    }
+    maybeDispatchPendingEvictorEvents();
   }
 
   @Override
-  public synchronized boolean isCached(String key, long position, long length) {
+  public boolean isCached(String key, long position, long length) {
     Assertions.checkState(!released);
-    @Nullable CachedContent cachedContent = contentIndex.get(key);
-    return cachedContent != null && cachedContent.getCachedBytesLength(position, length) >= length;
+    blockUntilInitialized();
+    synchronized (getLock(key)) {
+      @Nullable CachedContent cachedContent = contentIndex.get(key);
+      return cachedContent != null
+          && cachedContent.getCachedBytesLength(position, length) >= length;
+    }
   }
 
   @Override
-  public synchronized long getCachedLength(String key, long position, long length) {
+  public long getCachedLength(String key, long position, long length) {
     Assertions.checkState(!released);
     if (length == C.LENGTH_UNSET) {
       length = Long.MAX_VALUE;
     }
-    @Nullable CachedContent cachedContent = contentIndex.get(key);
-    return cachedContent != null ? cachedContent.getCachedBytesLength(position, length) : -length;
+    blockUntilInitialized();
+    synchronized (getLock(key)) {
+      @Nullable CachedContent cachedContent = contentIndex.get(key);
+      return cachedContent != null
+          ? cachedContent.getCachedBytesLength(position, length)
+          : -length;
+    }
   }
 
   @Override
-  public synchronized long getCachedBytes(String key, long position, long length) {
+  public long getCachedBytes(String key, long position, long length) {
     long endPosition = length == C.LENGTH_UNSET ? Long.MAX_VALUE : position + length;
     if (endPosition < 0) {
       // The calculation rolled over (length is probably Long.MAX_VALUE).
@@ -513,38 +706,125 @@ public final class SimpleCache implements Cache {
     }
     long currentPosition = position;
     long cachedBytes = 0;
-    while (currentPosition < endPosition) {
-      long maxRemainingLength = endPosition - currentPosition;
-      long blockLength = getCachedLength(key, currentPosition, maxRemainingLength);
-      if (blockLength > 0) {
-        cachedBytes += blockLength;
-      } else {
-        // There's a hole of length -blockLength.
-        blockLength = -blockLength;
+    blockUntilInitialized();
+    synchronized (getLock(key)) {
+      while (currentPosition < endPosition) {
+        long maxRemainingLength = endPosition - currentPosition;
+        long blockLength = getCachedLength(key, currentPosition, maxRemainingLength);
+        if (blockLength > 0) {
+          cachedBytes += blockLength;
+        } else {
+          // There's a hole of length -blockLength.
+          blockLength = -blockLength;
+        }
+        currentPosition += blockLength;
       }
-      currentPosition += blockLength;
     }
     return cachedBytes;
   }
 
   @Override
-  public synchronized void applyContentMetadataMutations(
-      String key, ContentMetadataMutations mutations) throws CacheException {
+  public void applyContentMetadataMutations(String key, ContentMetadataMutations mutations)
+      throws CacheException {
     Assertions.checkState(!released);
     checkInitialization();
 
-    contentIndex.applyContentMetadataMutations(key, mutations);
+    synchronized (getLock(key)) {
+      contentIndex.applyContentMetadataMutations(key, mutations);
+      try {
+        contentIndex.requestStore();
+      } catch (IOException e) {
+        throw new CacheException(e);
+      }
+    }
+  }
+
+  @Override
+  public ContentMetadata getContentMetadata(String key) {
+    Assertions.checkState(!released);
+    blockUntilInitialized();
+    synchronized (getLock(key)) {
+      return contentIndex.getContentMetadata(key);
+    }
+  }
+
+  /**
+   * Returns the lock guarding the content of the given key. If lock striping is disabled this is
+   * the cache itself.
+   */
+  private Object getLock(String key) {
+    if (lockStripes == null) {
+      return this;
+    }
+    return lockStripes[(key.hashCode() & Integer.MAX_VALUE) % lockStripes.length];
+  }
+
+  private void releaseInternal() {
+    if (released) {
+      return;
+    }
+    listeners.clear();
+    removeStaleSpans();
+    contentIndex.release();
     try {
       contentIndex.store();
     } catch (IOException e) {
-      throw new CacheException(e);
+      Log.e(TAG, "Storing index file failed", e);
+    } finally {
+      unlockFolder(cacheDir);
+      released = true;
     }
   }
 
-  @Override
-  public synchronized ContentMetadata getContentMetadata(String key) {
-    Assertions.checkState(!released);
-    return contentIndex.getContentMetadata(key);
+  /** Blocks until the initialization thread has finished loading the cache. */
+  private void blockUntilInitialized() {
+    if (!initialized) {
+      initializationCondition.block();
+    }
+  }
+
+  @Nullable
+  private CacheSpan startReadWriteNonBlockingLocked(String key, long position, long length) {
+    SimpleCacheSpan span = getSpan(key, position, length);
+
+    if (span.isCached) {
+      // Read case.
+      return touchSpan(key, span);
+    }
+
+    CachedContent cachedContent = contentIndex.getOrAdd(key);
+    if (cachedContent.lockRange(position, span.length)) {
+      // Write case.
+      return span;
+    }
+
+    // Lock not available.
+    return null;
+  }
+
+  private File startFileLocked(String key, long position, long length) throws CacheException {
+    CachedContent cachedContent = contentIndex.get(key);
+    Assertions.checkNotNull(cachedContent);
+    Assertions.checkState(cachedContent.isFullyLocked(position, length));
+    if (!cacheDir.exists()) {
+      // The cache directory has been deleted from underneath us. Recreate it, and remove in-memory
+      // spans corresponding to cache files that no longer exist.
+      createCacheDirectories(cacheDir);
+      removeStaleSpans();
+    }
+    evictor.onStartFile(this, key, position, length);
+    return createCacheFile(cachedContent, position);
+  }
+
+  private File createCacheFile(CachedContent cachedContent, long position) throws CacheException {
+    // Randomly distribute files into subdirectories with a uniform distribution.
+    File cacheSubDir = new File(cacheDir, Integer.toString(random.nextInt(SUBDIRECTORY_COUNT)));
+    if (!cacheSubDir.exists()) {
+      createCacheDirectories(cacheSubDir);
+    }
+    long lastTouchTimestamp = System.currentTimeMillis();
+    return SimpleCacheSpan.getCacheFile(
+        cacheSubDir, cachedContent.id, position, lastTouchTimestamp);
   }
 
   /** Ensures that the cache's in-memory representation has been initialized. */
@@ -708,8 +988,14 @@ public final class SimpleCache implements Cache {
       SimpleCacheSpan span = cachedContent.getSpan(position, length);
       if (span.isCached && span.file.length() != span.length) {
         // The file has been modified or deleted underneath us. It's likely that other files will
-        // have been modified too, so scan the whole in-memory representation.
-        removeStaleSpans();
+        // have been modified too, so scan the whole in-memory representation. With lock striping
+        // only the content of this key can be scanned whilst holding its lock. Stale spans of
+        // other keys will be removed when they are next accessed.
+        if (lockStripes == null) {
+          removeStaleSpans();
+        } else {
+          removeStaleSpans(cachedContent);
+        }
         continue;
       }
       return span;
@@ -723,18 +1009,22 @@ public final class SimpleCache implements Cache {
    */
   private void addSpan(SimpleCacheSpan span) {
     contentIndex.getOrAdd(span.key).addSpan(span);
-    totalSpace += span.length;
+    totalSpace.addAndGet(span.length);
     notifySpanAdded(span);
   }
 
   private void removeSpanInternal(CacheSpan span) {
     @Nullable CachedContent cachedContent = contentIndex.get(span.key);
-    if (cachedContent == null || !cachedContent.removeSpan(span)) {
+    if (cachedContent == null) {
+      return;
+    }
+    @Nullable SimpleCacheSpan removedSpan = cachedContent.removeSpan(span);
+    if (removedSpan == null) {
       return;
     }
-    totalSpace -= span.length;
+    totalSpace.addAndGet(-removedSpan.length);
     if (fileIndex != null) {
-      String fileName = span.file.getName();
+      String fileName = Assertions.checkNotNull(removedSpan.file).getName();
       try {
         fileIndex.remove(fileName);
       } catch (IOException e) {
@@ -744,7 +1034,7 @@ public final class SimpleCache implements Cache {
       }
     }
     contentIndex.maybeRemove(cachedContent.key);
-    notifySpanRemoved(span);
+    notifySpanRemoved(removedSpan);
   }
 
   /**
@@ -754,12 +1044,34 @@ public final class SimpleCache implements Cache {
   private void removeStaleSpans() {
     ArrayList<CacheSpan> spansToBeRemoved = new ArrayList<>();
     for (CachedContent cachedContent : contentIndex.getAll()) {
-      for (CacheSpan span : cachedContent.getSpans()) {
-        if (span.file.length() != span.length) {
-          spansToBeRemoved.add(span);
+      synchronized (getLock(cachedContent.key)) {
+        for (CacheSpan span : cachedContent.getSpans()) {
+          if (span.file.length() != span.length) {
+            spansToBeRemoved.add(span);
+          }
         }
       }
     }
+    for (int i = 0; i < spansToBeRemoved.size(); i++) {
+      CacheSpan span = spansToBeRemoved.get(i);
+      synchronized (getLock(span.key)) {
+        removeSpanInternal(span);
+      }
+    }
+    maybeDispatchPendingEvictorEvents();
+  }
+
+  /**
+   * Removes any spans of the given content for which the underlying file lengths no longer match.
+   * Must be called whilst holding the lock for the content's key.
+   */
+  private void removeStaleSpans(CachedContent cachedContent) {
+    ArrayList<CacheSpan> spansToBeRemoved = new ArrayList<>();
+    for (CacheSpan span : cachedContent.getSpans()) {
+      if (span.file.length() != span.length) {
+        spansToBeRemoved.add(span);
+      }
+    }
     for (int i = 0; i < spansToBeRemoved.size(); i++) {
       removeSpanInternal(spansToBeRemoved.get(i));
     }
@@ -772,7 +1084,7 @@ public final class SimpleCache implements Cache {
         keyListeners.get(i).onSpanRemoved(this, span);
       }
     }
-    evictor.onSpanRemoved(this, span);
+    notifyEvictor(() -> evictor.onSpanRemoved(this, span));
   }
 
   private void notifySpanAdded(SimpleCacheSpan span) {
@@ -782,7 +1094,7 @@ public final class SimpleCache implements Cache {
         keyListeners.get(i).onSpanAdded(this, span);
       }
     }
-    evictor.onSpanAdded(this, span);
+    notifyEvictor(() -> evictor.onSpanAdded(this, span));
   }
 
   private void notifySpanTouched(SimpleCacheSpan oldSpan, CacheSpan newSpan) {
@@ -792,7 +1104,52 @@ public final class SimpleCache implements Cache {
         keyListeners.get(i).onSpanTouched(this, oldSpan, newSpan);
       }
     }
-    evictor.onSpanTouched(this, oldSpan, newSpan);
+    notifyEvictor(() -> evictor.onSpanTouched(this, oldSpan, newSpan));
+  }
+
+  /**
+   * Delivers an event to the evictor. If lock striping is disabled the event is delivered
+   * immediately. Otherwise it's queued, so that the evictor isn't called (and can't remove spans
+   * of other keys) whilst the lock for the key of the event is held. Events are queued whilst
+   * holding the lock for their key, so the evictor receives them in the order the corresponding
+   * changes were made to the index.
+   */
+  private void notifyEvictor(Runnable event) {
+    if (evictorLock == null) {
+      event.run();
+    } else {
+      pendingEvictorEvents.add(event);
+    }
+  }
+
+  /**
+   * Delivers queued evictor events, unless they're already being delivered by this or another
+   * thread. Must not be called whilst holding the lock for a key.
+   */
+  private void maybeDispatchPendingEvictorEvents() {
+    if (evictorLock == null || evictorLock.isHeldByCurrentThread()) {
+      // If the current thread holds the lock then it's already dispatching events, for example
+      // because the evictor removed a span. Queued events will be dispatched once the evictor
+      // returns, rather than by calling the evictor re-entrantly.
+      return;
+    }
+    // Re-check the queue after releasing the lock, in case an event was queued by another thread
+    // after this thread finished dispatching but before it released the lock.
+    while (!pendingEvictorEvents.isEmpty() && evictorLock.tryLock()) {
+      try {
+        dispatchPendingEvictorEvents();
+      } finally {
+        evictorLock.unlock();
+      }
+    }
+  }
+
+  /** Delivers queued evictor events. Must be called whilst holding {@link #evictorLock}. */
+  private void dispatchPendingEvictorEvents() {
+    @Nullable Runnable event;
+    while ((event = pendingEvictorEvents.poll()) != null) {
+      event.run();
+    }
   }
 
   /**
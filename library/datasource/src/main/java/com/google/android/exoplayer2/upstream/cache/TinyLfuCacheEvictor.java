@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
+import static com.google.android.exoplayer2.util.Assertions.checkNotNull;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import java.util.LinkedHashMap;
+
+/**
+ * Evicts cache files based on how frequently and how recently they were accessed, using the
+ * W-TinyLFU policy.
+ *
+ * <p>Newly added spans enter a small admission window that's ordered by recency. Spans that
+ * overflow the window become candidates for admission to the main space, which is a segmented LRU
+ * consisting of a probation segment and a protected segment. Spans in the probation segment are
+ * promoted to the protected segment when they're accessed again. When the cache is full, a
+ * candidate is only admitted if it's been accessed more frequently than the span that would be
+ * evicted from the main space in its place. Access frequencies are estimated by a count-min sketch
+ * that's aged periodically, so that recent accesses carry more weight.
+ *
+ * <p>Unlike {@link LeastRecentlyUsedCacheEvictor}, a single sequential read through a large piece of
+ * content cannot evict frequently accessed spans, such as initialization segments or the start of
+ * popular content.
+ *
+ * <p>Space for a file that's being written is only made by evicting spans that have been accessed
+ * less frequently than the span being written. Hence the cache may exceed its maximum size whilst a
+ * file is being written, until the span is added and admission is decided.
+ */
+public final class TinyLfuCacheEvictor implements CacheEvictor {
+
+  /** The default fraction of the maximum cache size that's used for the admission window. */
+  public static final float DEFAULT_WINDOW_FRACTION = 0.01f;
+
+  /** The fraction of the main space that's used for the protected segment. */
+  private static final float PROTECTED_FRACTION = 0.8f;
+
+  private final long maxBytes;
+  private final long maxWindowBytes;
+  private final long maxProtectedBytes;
+  private final FrequencySketch sketch;
+  private final Segment window;
+  private final Segment probation;
+  private final Segment protectedSegment;
+
+  /**
+   * Creates an instance that uses {@link #DEFAULT_WINDOW_FRACTION} of the cache for the admission
+   * window.
+   *
+   * @param maxBytes The maximum size of the cache, in bytes.
+   */
+  public TinyLfuCacheEvictor(long maxBytes) {
+    this(maxBytes, DEFAULT_WINDOW_FRACTION);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxBytes The maximum size of the cache, in bytes.
+   * @param windowFraction The fraction of {@code maxBytes} to use for the admission window, in the
+   *     range [0, 1]. A larger window favors recently added spans over frequently accessed ones.
+   */
+  public TinyLfuCacheEvictor(long maxBytes, float windowFraction) {
+    checkArgument(windowFraction >= 0 && windowFraction <= 1);
+    this.maxBytes = maxBytes;
+    maxWindowBytes = (long) (maxBytes * windowFraction);
+    maxProtectedBytes = (long) ((maxBytes - maxWindowBytes) * PROTECTED_FRACTION);
+    sketch = new FrequencySketch(maxBytes);
+    window = new Segment();
+    probation = new Segment();
+    protectedSegment = new Segment();
+  }
+
+  @Override
+  public boolean requiresCacheSpanTouches() {
+    return true;
+  }
+
+  @Override
+  public void onCacheInitialized() {
+    // Do nothing.
+  }
+
+  @Override
+  public void onStartFile(Cache cache, String key, long position, long length) {
+    if (length != C.LENGTH_UNSET) {
+      // Count the access that will be recorded when the span being written is added.
+      int frequency = sketch.getFrequency(new SpanKey(key, position).hashCode()) + 1;
+      evictCache(cache, length, frequency);
+    }
+  }
+
+  @Override
+  public void onSpanAdded(Cache cache, CacheSpan span) {
+    SpanKey spanKey = new SpanKey(span);
+    sketch.increment(spanKey.hashCode());
+    window.add(spanKey, span);
+    evictCache(cache, /* requiredSpace= */ 0, /* requiredSpaceFrequency= */ 0);
+  }
+
+  @Override
+  public void onSpanRemoved(Cache cache, CacheSpan span) {
+    SpanKey spanKey = new SpanKey(span);
+    if (window.remove(spanKey) == null && probation.remove(spanKey) == null) {
+      protectedSegment.remove(spanKey);
+    }
+  }
+
+  @Override
+  public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+    SpanKey spanKey = new SpanKey(newSpan);
+    if (window.remove(spanKey) != null) {
+      sketch.increment(spanKey.hashCode());
+      window.add(spanKey, newSpan);
+    } else if (probation.remove(spanKey) != null || protectedSegment.remove(spanKey) != null) {
+      sketch.increment(spanKey.hashCode());
+      protectedSegment.add(spanKey, newSpan);
+      demoteOverflowingProtectedSpans();
+    } else {
+      onSpanAdded(cache, newSpan);
+    }
+  }
+
+  /**
+   * Evicts spans until the cache fits within its maximum size.
+   *
+   * @param cache The cache.
+   * @param requiredSpace The amount of space to make for a span that's being written.
+   * @param requiredSpaceFrequency The estimated access frequency of the span that's being written.
+   *     Spans that have been accessed at least as frequently aren't evicted to make space for it.
+   */
+  private void evictCache(Cache cache, long requiredSpace, int requiredSpaceFrequency) {
+    while (getCurrentSize() + requiredSpace > maxBytes) {
+      @Nullable CacheSpan victim = probation.first();
+      if (victim == null) {
+        victim = protectedSegment.first();
+      }
+      @Nullable
+      CacheSpan candidate =
+          window.bytes > maxWindowBytes || victim == null ? window.first() : null;
+      if (candidate == null && victim == null) {
+        return;
+      } else if (candidate == null) {
+        if (getCurrentSize() <= maxBytes && getFrequency(victim) >= requiredSpaceFrequency) {
+          // The span being written is unlikely to be admitted to the main space, so the cache is
+          // allowed to exceed its maximum size until the span is added and admission is decided.
+          return;
+        }
+        removeSpan(cache, victim);
+      } else if (victim == null) {
+        removeSpan(cache, candidate);
+      } else if (getFrequency(candidate) > getFrequency(victim)) {
+        // Admit the candidate to the main space in place of the victim.
+        removeSpan(cache, victim);
+        moveToProbation(window, candidate);
+      } else {
+        removeSpan(cache, candidate);
+      }
+    }
+    // There's space in the main space for spans overflowing the window, so admit them directly.
+    @Nullable CacheSpan span;
+    while (window.bytes > maxWindowBytes && (span = window.first()) != null) {
+      moveToProbation(window, span);
+    }
+  }
+
+  private void removeSpan(Cache cache, CacheSpan span) {
+    cache.removeSpan(span);
+    // Stop tracking the span even if the cache didn't report its removal, so that eviction always
+    // makes progress. This is a no-op if the removal was reported.
+    onSpanRemoved(cache, span);
+  }
+
+  private void demoteOverflowingProtectedSpans() {
+    @Nullable CacheSpan span;
+    while (protectedSegment.bytes > maxProtectedBytes
+        && (span = protectedSegment.first()) != null) {
+      moveToProbation(protectedSegment, span);
+    }
+  }
+
+  private void moveToProbation(Segment segment, CacheSpan span) {
+    SpanKey spanKey = new SpanKey(span);
+    checkNotNull(segment.remove(spanKey));
+    probation.add(spanKey, span);
+  }
+
+  private int getFrequency(CacheSpan span) {
+    return sketch.getFrequency(new SpanKey(span).hashCode());
+  }
+
+  private long getCurrentSize() {
+    return window.bytes + probation.bytes + protectedSegment.bytes;
+  }
+
+  /** Spans in a segment of the cache, ordered from least to most recently used. */
+  private static final class Segment {
+
+    private final LinkedHashMap<SpanKey, CacheSpan> spans;
+
+    public long bytes;
+
+    public Segment() {
+      spans = new LinkedHashMap<>();
+    }
+
+    public void add(SpanKey spanKey, CacheSpan span) {
+      spans.put(spanKey, span);
+      bytes += span.length;
+    }
+
+    @Nullable
+    public CacheSpan remove(SpanKey spanKey) {
+      @Nullable CacheSpan span = spans.remove(spanKey);
+      if (span != null) {
+        bytes -= span.length;
+      }
+      return span;
+    }
+
+    /** Returns the least recently used span, or null if the segment is empty. */
+    @Nullable
+    public CacheSpan first() {
+      return spans.isEmpty() ? null : spans.values().iterator().next();
+    }
+  }
+
+  /** Identifies a span independently of its last touch timestamp and file. */
+  private static final class SpanKey {
+
+    private final String key;
+    private final long position;
+
+    public SpanKey(CacheSpan span) {
+      this(span.key, span.position);
+    }
+
+    public SpanKey(String key, long position) {
+      this.key = key;
+      this.position = position;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null || getClass() != obj.getClass()) {
+        return false;
+      }
+      SpanKey other = (SpanKey) obj;
+      return position == other.position && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * key.hashCode() + (int) (position ^ (position >>> 32));
+    }
+  }
+
+  /**
+   * A count-min sketch with counters that saturate at 15, which estimates how often spans were
+   * accessed. All counters are halved once the number of recorded accesses reaches ten times the
+   * width of the sketch, so that estimates decay over time.
+   */
+  private static final class FrequencySketch {
+
+    private static final int MAX_FREQUENCY = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0xb492b66f, 0x9ae16a3b, 0xc2b2ae35};
+    // Assume spans are typically at least this size when sizing the sketch.
+    private static final int BYTES_PER_COUNTER = 64 * 1024;
+    private static final int MIN_WIDTH = 256;
+    private static final int MAX_WIDTH = 1 << 20;
+
+    private final byte[] counters;
+    private final int sampleSize;
+
+    private int accessCount;
+
+    public FrequencySketch(long maxBytes) {
+      int width = (int) max(MIN_WIDTH, min(MAX_WIDTH, maxBytes / BYTES_PER_COUNTER));
+      // Round up to a power of two so that indices can be computed by masking.
+      width = Integer.highestOneBit(width - 1) << 1;
+      counters = new byte[width];
+      sampleSize = 10 * width;
+    }
+
+    public int getFrequency(int hash) {
+      int frequency = MAX_FREQUENCY;
+      for (int i = 0; i < SEEDS.length; i++) {
+        frequency = min(frequency, counters[getIndex(hash, i)]);
+      }
+      return frequency;
+    }
+
+    public void increment(int hash) {
+      int frequency = getFrequency(hash);
+      if (frequency == MAX_FREQUENCY) {
+        return;
+      }
+      // Only increment the counters holding the minimum, which reduces overestimation.
+      for (int i = 0; i < SEEDS.length; i++) {
+        int index = getIndex(hash, i);
+        if (counters[index] == frequency) {
+          counters[index]++;
+        }
+      }
+      if (++accessCount == sampleSize) {
+        for (int i = 0; i < counters.length; i++) {
+          counters[i] = (byte) (counters[i] >> 1);
+        }
+        accessCount /= 2;
+      }
+    }
+
+    private int getIndex(int hash, int row) {
+      int index = hash * SEEDS[row];
+      index ^= index >>> 16;
+      return index & (counters.length - 1);
+    }
+  }
+}
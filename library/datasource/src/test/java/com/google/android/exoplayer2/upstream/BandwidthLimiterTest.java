@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link BandwidthLimiter}. */
+@RunWith(AndroidJUnit4.class)
+public final class BandwidthLimiterTest {
+
+  private FakeClock clock;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock(/* initialTimeMs= */ 0);
+  }
+
+  @Test
+  public void reserve_withinAvailableBytes_doesNotDelay() {
+    BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(/* maxBytesPerSecond= */ 1000, clock);
+
+    assertThat(bandwidthLimiter.reserve(/* byteCount= */ 1000)).isEqualTo(0);
+  }
+
+  @Test
+  public void reserve_beyondAvailableBytes_delaysUntilDeficitIsRefilled() {
+    BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(/* maxBytesPerSecond= */ 1000, clock);
+    bandwidthLimiter.reserve(/* byteCount= */ 1000);
+
+    assertThat(bandwidthLimiter.reserve(/* byteCount= */ 500)).isEqualTo(500);
+    // Concurrent transfers wait in turn.
+    assertThat(bandwidthLimiter.reserve(/* byteCount= */ 500)).isEqualTo(1000);
+  }
+
+  @Test
+  public void reserve_afterTimeElapsed_usesRefilledBytes() {
+    BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(/* maxBytesPerSecond= */ 1000, clock);
+    bandwidthLimiter.reserve(/* byteCount= */ 1000);
+
+    clock.advanceTime(/* timeDiffMs= */ 250);
+
+    assertThat(bandwidthLimiter.reserve(/* byteCount= */ 250)).isEqualTo(0);
+    assertThat(bandwidthLimiter.reserve(/* byteCount= */ 100)).isEqualTo(100);
+  }
+
+  @Test
+  public void reserve_afterLongIdlePeriod_limitsBurstToOneSecond() {
+    BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(/* maxBytesPerSecond= */ 1000, clock);
+
+    clock.advanceTime(/* timeDiffMs= */ 10_000);
+
+    assertThat(bandwidthLimiter.reserve(/* byteCount= */ 1000)).isEqualTo(0);
+    assertThat(bandwidthLimiter.reserve(/* byteCount= */ 1000)).isEqualTo(1000);
+  }
+
+  @Test
+  public void setMaxBytesPerSecond_changesDelay() {
+    BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(/* maxBytesPerSecond= */ 1000, clock);
+    bandwidthLimiter.reserve(/* byteCount= */ 1000);
+
+    bandwidthLimiter.setMaxBytesPerSecond(2000);
+
+    assertThat(bandwidthLimiter.getMaxBytesPerSecond()).isEqualTo(2000);
+    assertThat(bandwidthLimiter.reserve(/* byteCount= */ 1000)).isEqualTo(500);
+  }
+
+  @Test
+  public void onBytesTransferred_beyondAvailableBytes_blocksUntilDeficitIsRefilled()
+      throws Exception {
+    // Advance the clock when the limiter blocks, so that the test doesn't wait in real time.
+    FakeClock advancingClock =
+        new FakeClock(/* initialTimeMs= */ 0) {
+          @Override
+          public synchronized void onThreadBlocked() {
+            super.onThreadBlocked();
+            advanceTime(/* timeDiffMs= */ 100);
+          }
+        };
+    BandwidthLimiter bandwidthLimiter =
+        new BandwidthLimiter(/* maxBytesPerSecond= */ 1000, advancingClock);
+
+    bandwidthLimiter.onBytesTransferred(/* byteCount= */ 1000);
+    long timeAfterAvailableBytesMs = advancingClock.elapsedRealtime();
+    bandwidthLimiter.onBytesTransferred(/* byteCount= */ 100);
+    long timeAfterDeficitMs = advancingClock.elapsedRealtime();
+
+    assertThat(timeAfterAvailableBytesMs).isEqualTo(0);
+    assertThat(timeAfterDeficitMs).isEqualTo(100);
+  }
+}
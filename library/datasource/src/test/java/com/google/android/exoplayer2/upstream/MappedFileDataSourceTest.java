@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link MappedFileDataSource}. */
+@RunWith(AndroidJUnit4.class)
+public final class MappedFileDataSourceTest {
+
+  private static final byte[] DATA = TestUtil.buildTestData(20);
+
+  @Rule public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Uri uri;
+
+  @Before
+  public void writeFile() throws Exception {
+    File file = tempFolder.newFile();
+    Files.write(Paths.get(file.getAbsolutePath()), DATA);
+    uri = Uri.fromFile(file);
+  }
+
+  @Test
+  public void readBuffer_acrossRegions_returnsAllData() throws Exception {
+    MappedFileDataSource dataSource =
+        new MappedFileDataSource.Factory().setMaxMappedRegionSize(7).createDataSource();
+    dataSource.open(new DataSpec(uri));
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ByteBuffer buffer;
+    while ((buffer = dataSource.readBuffer(/* length= */ 5)) != null) {
+      assertThat(buffer.remaining()).isAtMost(5);
+      assertThat(buffer.isReadOnly()).isTrue();
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      output.write(bytes);
+    }
+    dataSource.close();
+
+    assertThat(output.toByteArray()).isEqualTo(DATA);
+  }
+
+  @Test
+  public void readBuffer_withPositionAndLength_returnsRequestedData() throws Exception {
+    MappedFileDataSource dataSource = new MappedFileDataSource();
+    dataSource.open(new DataSpec.Builder().setUri(uri).setPosition(3).setLength(10).build());
+
+    ByteBuffer buffer = dataSource.readBuffer(/* length= */ 100);
+
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    assertThat(bytes).isEqualTo(Arrays.copyOfRange(DATA, 3, 13));
+    assertThat(dataSource.readBuffer(/* length= */ 100)).isNull();
+    dataSource.close();
+  }
+
+  @Test
+  public void readBuffer_zeroLength_returnsEmptyBuffer() throws Exception {
+    MappedFileDataSource dataSource = new MappedFileDataSource();
+    dataSource.open(new DataSpec(uri));
+
+    ByteBuffer buffer = dataSource.readBuffer(/* length= */ 0);
+
+    assertThat(buffer.remaining()).isEqualTo(0);
+    dataSource.close();
+  }
+}
@@ -32,9 +32,12 @@ import com.google.android.exoplayer2.testutil.TestUtil;
 import com.google.android.exoplayer2.upstream.DataSourceUtil;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.MappedFileDataSource;
 import com.google.android.exoplayer2.util.Util;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -522,6 +525,37 @@ public final class CacheDataSourceTest {
     cacheDataSource.close();
   }
 
+  @Test
+  public void readBuffer_withMappedFileCacheReadSource_readsCachedData() throws Exception {
+    // Read all data from upstream and write to cache.
+    CacheDataSource cacheDataSource = createCacheDataSource(false, false);
+    assertReadDataContentLength(cacheDataSource, unboundedDataSpec, false, false);
+    upstreamDataSource
+        .getDataSet()
+        .newDefaultData()
+        .appendReadError(new IOException("Shouldn't read from upstream"));
+    cacheDataSource =
+        new CacheDataSource.Factory()
+            .setCache(cache)
+            .setUpstreamDataSourceFactory(() -> upstreamDataSource)
+            .setCacheReadDataSourceFactory(new MappedFileDataSource.Factory())
+            .createDataSource();
+
+    cacheDataSource.open(unboundedDataSpec);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    @Nullable ByteBuffer buffer;
+    while ((buffer = cacheDataSource.readBuffer(TEST_DATA.length)) != null) {
+      // Each read is served from a single cache span.
+      assertThat(buffer.remaining()).isAtMost(CACHE_FRAGMENT_SIZE);
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      output.write(bytes);
+    }
+    cacheDataSource.close();
+
+    assertThat(output.toByteArray()).isEqualTo(TEST_DATA);
+  }
+
   private void assertCacheAndRead(DataSpec dataSpec, boolean unknownLength) throws IOException {
     assertCacheAndRead(dataSpec, unknownLength, /* cacheKeyFactory= */ null);
   }
@@ -20,6 +20,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 
 import android.net.Uri;
+import android.os.ConditionVariable;
 import android.util.SparseArray;
 import androidx.annotation.Nullable;
 import androidx.test.core.app.ApplicationProvider;
@@ -32,6 +33,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -441,6 +443,72 @@ public class CachedContentIndexTest {
     assertThat(index.get(cachedContent.key)).isNotNull();
   }
 
+  @Test
+  public void writeBehind_storesPendingChangesInBackgroundAfterDelay() throws Exception {
+    CachedContentIndex index = newLegacyInstance();
+    index.initialize(/* uid= */ 0);
+    index.enableWriteBehind(/* maxStoreDelayMs= */ 10, /* maxPendingUpdateCount= */ 100);
+    AtomicInteger storedUpdateCount = new AtomicInteger();
+    ConditionVariable stored = new ConditionVariable();
+    index.setStoreListener(
+        (updateCount, durationMs) -> {
+          storedUpdateCount.addAndGet(updateCount);
+          stored.open();
+        });
+
+    index.getOrAdd("key1");
+    index.getOrAdd("key2");
+    index.requestStore();
+
+    assertThat(stored.block(/* timeoutMs= */ 5_000)).isTrue();
+    assertThat(storedUpdateCount.get()).isEqualTo(2);
+    CachedContentIndex index2 = newLegacyInstance();
+    index2.initialize(/* uid= */ 0);
+    assertThat(index2.getKeys()).containsExactly("key1", "key2");
+    index.release();
+  }
+
+  @Test
+  public void writeBehind_storesImmediatelyWhenMaxPendingUpdateCountReached() throws Exception {
+    CachedContentIndex index = newLegacyInstance();
+    index.initialize(/* uid= */ 0);
+    index.enableWriteBehind(/* maxStoreDelayMs= */ 3_600_000, /* maxPendingUpdateCount= */ 2);
+    AtomicInteger storedUpdateCount = new AtomicInteger();
+    ConditionVariable stored = new ConditionVariable();
+    index.setStoreListener(
+        (updateCount, durationMs) -> {
+          storedUpdateCount.addAndGet(updateCount);
+          stored.open();
+        });
+
+    index.getOrAdd("key1");
+    index.requestStore();
+    assertThat(new File(cacheDir, CachedContentIndex.FILE_NAME_ATOMIC).exists()).isFalse();
+    index.getOrAdd("key2");
+    index.requestStore();
+
+    assertThat(stored.block(/* timeoutMs= */ 5_000)).isTrue();
+    assertThat(storedUpdateCount.get()).isEqualTo(2);
+    assertThat(new File(cacheDir, CachedContentIndex.FILE_NAME_ATOMIC).exists()).isTrue();
+    index.release();
+  }
+
+  @Test
+  public void writeBehind_releaseThenStore_storesPendingChanges() throws Exception {
+    CachedContentIndex index = newLegacyInstance();
+    index.initialize(/* uid= */ 0);
+    index.enableWriteBehind(/* maxStoreDelayMs= */ 3_600_000, /* maxPendingUpdateCount= */ 100);
+
+    index.getOrAdd("key1");
+    index.requestStore();
+    index.release();
+    index.store();
+
+    CachedContentIndex index2 = newLegacyInstance();
+    index2.initialize(/* uid= */ 0);
+    assertThat(index2.getKeys()).containsExactly("key1");
+  }
+
   private void assertStoredAndLoadedEqual(CachedContentIndex index, CachedContentIndex index2)
       throws IOException {
     ContentMetadataMutations mutations1 = new ContentMetadataMutations();
@@ -32,8 +32,13 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NavigableSet;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -676,6 +681,110 @@ public class SimpleCacheTest {
     assertThat(fileSpan.length).isEqualTo(15);
   }
 
+  @Test
+  public void withIndexWriteBehind_release_persistsPendingChanges() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    simpleCache.enableIndexWriteBehind(
+        /* maxStoreDelayMs= */ 3_600_000, /* maxPendingUpdateCount= */ 100);
+
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    ContentMetadataMutations mutations = new ContentMetadataMutations();
+    ContentMetadataMutations.setContentLength(mutations, 15);
+    simpleCache.applyContentMetadataMutations(KEY_1, mutations);
+    simpleCache.release();
+
+    simpleCache = getSimpleCache();
+    CacheSpan fileSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    assertCachedDataReadCorrect(fileSpan);
+    assertThat(ContentMetadata.getContentLength(simpleCache.getContentMetadata(KEY_1)))
+        .isEqualTo(15);
+  }
+
+  @Test
+  public void withLockStriping_write_differentKeyLocked_thenRead() throws Exception {
+    SimpleCache simpleCache = getSimpleCacheWithLockStriping(new NoOpCacheEvictor());
+    CacheSpan holeSpan1 = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+
+    CacheSpan holeSpan2 = simpleCache.startReadWrite(KEY_2, 0, LENGTH_UNSET);
+    assertThat(holeSpan2.isCached).isFalse();
+    assertThat(holeSpan2.isOpenEnded()).isTrue();
+    addCache(simpleCache, KEY_2, 0, 15);
+
+    CacheSpan readSpan = simpleCache.startReadWrite(KEY_2, 0, LENGTH_UNSET);
+    assertThat(readSpan.length).isEqualTo(15);
+    assertCachedDataReadCorrect(readSpan);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(15);
+
+    simpleCache.releaseHoleSpan(holeSpan1);
+    simpleCache.releaseHoleSpan(holeSpan2);
+  }
+
+  @Test
+  public void withLockStriping_evictsLeastRecentlyUsedSpansOfOtherKeys() throws Exception {
+    SimpleCache simpleCache =
+        getSimpleCacheWithLockStriping(new LeastRecentlyUsedCacheEvictor(/* maxBytes= */ 20));
+
+    CacheSpan holeSpan1 = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan1);
+    CacheSpan holeSpan2 = simpleCache.startReadWrite(KEY_2, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_2, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan2);
+
+    assertThat(simpleCache.getCachedSpans(KEY_1)).isEmpty();
+    assertThat(simpleCache.getCachedSpans(KEY_2)).hasSize(1);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(15);
+  }
+
+  @Test
+  public void withLockStriping_evictorRemovingSpans_isNotCalledReentrantly() throws Exception {
+    ReentrancyCheckingCacheEvictor evictor =
+        new ReentrancyCheckingCacheEvictor(new LeastRecentlyUsedCacheEvictor(/* maxBytes= */ 20));
+    SimpleCache simpleCache = getSimpleCacheWithLockStriping(evictor);
+
+    CacheSpan holeSpan1 = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan1);
+    CacheSpan holeSpan2 = simpleCache.startReadWrite(KEY_2, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_2, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan2);
+
+    assertThat(simpleCache.getCachedSpans(KEY_1)).isEmpty();
+    assertThat(evictor.calledReentrantly).isFalse();
+  }
+
+  @Test
+  public void withLockStriping_reloadsCachedData() throws Exception {
+    SimpleCache simpleCache = getSimpleCacheWithLockStriping(new NoOpCacheEvictor());
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    simpleCache.release();
+
+    simpleCache = getSimpleCacheWithLockStriping(new NoOpCacheEvictor());
+
+    CacheSpan fileSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    assertCachedDataReadCorrect(fileSpan);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(15);
+  }
+
+  @Test
+  public void concurrentReadWrite_withGlobalLock_isConsistent() throws Exception {
+    SimpleCache simpleCache =
+        new SimpleCache(
+            cacheDir, new LeastRecentlyUsedCacheEvictor(/* maxBytes= */ 400), databaseProvider);
+    runConcurrentReadWrite(simpleCache);
+  }
+
+  @Test
+  public void concurrentReadWrite_withLockStriping_isConsistent() throws Exception {
+    SimpleCache simpleCache =
+        getSimpleCacheWithLockStriping(new LeastRecentlyUsedCacheEvictor(/* maxBytes= */ 400));
+    runConcurrentReadWrite(simpleCache);
+  }
+
   @Test
   public void usingReleasedCache_throwsException() {
     SimpleCache simpleCache = getSimpleCache();
@@ -689,6 +798,69 @@ public class SimpleCacheTest {
     return new SimpleCache(cacheDir, new NoOpCacheEvictor(), databaseProvider);
   }
 
+  private SimpleCache getSimpleCacheWithLockStriping(CacheEvictor evictor) {
+    return new SimpleCache(
+        cacheDir,
+        evictor,
+        databaseProvider,
+        /* legacyIndexSecretKey= */ null,
+        /* legacyIndexEncrypt= */ false,
+        /* preferLegacyIndex= */ false,
+        /* useLockStriping= */ true);
+  }
+
+  /**
+   * Writes and reads many keys from several threads at once, with an evictor that forces spans of
+   * other keys to be evicted, and checks that the cache remains consistent afterwards.
+   */
+  private static void runConcurrentReadWrite(SimpleCache simpleCache) throws Exception {
+    int threadCount = 8;
+    int keysPerThread = 20;
+    ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++) {
+      int threadIndex = i;
+      futures.add(
+          executorService.submit(
+              () -> {
+                for (int j = 0; j < keysPerThread; j++) {
+                  String key = "key" + (threadIndex * keysPerThread + j);
+                  CacheSpan holeSpan = simpleCache.startReadWrite(key, 0, LENGTH_UNSET);
+                  if (!holeSpan.isCached) {
+                    addCache(simpleCache, key, 0, 10);
+                    addCache(simpleCache, key, 10, 10);
+                    simpleCache.releaseHoleSpan(holeSpan);
+                  }
+                  for (CacheSpan span : simpleCache.getCachedSpans(key)) {
+                    CacheSpan readSpan = simpleCache.startReadWrite(key, span.position, 10);
+                    if (readSpan.isCached && readSpan.file.exists()) {
+                      assertThat(readSpan.length).isEqualTo(10);
+                    } else if (!readSpan.isCached) {
+                      simpleCache.releaseHoleSpan(readSpan);
+                    }
+                  }
+                }
+                return null;
+              }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executorService.shutdown();
+
+    // Once all evictor callbacks have been delivered the cache space must not exceed the limit and
+    // must equal the sum of the lengths of the cached spans.
+    long totalLength = 0;
+    for (String key : simpleCache.getKeys()) {
+      for (CacheSpan span : simpleCache.getCachedSpans(key)) {
+        assertThat(span.file.length()).isEqualTo(span.length);
+        totalLength += span.length;
+      }
+    }
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(totalLength);
+    assertThat(totalLength).isAtMost(400);
+  }
+
   @Deprecated
   @SuppressWarnings("deprecation") // Testing deprecated behaviour.
   private SimpleCache getEncryptedSimpleCache(byte[] secretKey) {
@@ -712,6 +884,66 @@ public class SimpleCacheTest {
     }
   }
 
+  /** A {@link CacheEvictor} that records whether any of its methods were called re-entrantly. */
+  private static final class ReentrancyCheckingCacheEvictor implements CacheEvictor {
+
+    private final CacheEvictor evictor;
+
+    private int depth;
+    public boolean calledReentrantly;
+
+    public ReentrancyCheckingCacheEvictor(CacheEvictor evictor) {
+      this.evictor = evictor;
+    }
+
+    @Override
+    public boolean requiresCacheSpanTouches() {
+      return evictor.requiresCacheSpanTouches();
+    }
+
+    @Override
+    public void onCacheInitialized() {
+      enter();
+      evictor.onCacheInitialized();
+      depth--;
+    }
+
+    @Override
+    public void onStartFile(Cache cache, String key, long position, long length) {
+      enter();
+      evictor.onStartFile(cache, key, position, length);
+      depth--;
+    }
+
+    @Override
+    public void onSpanAdded(Cache cache, CacheSpan span) {
+      enter();
+      evictor.onSpanAdded(cache, span);
+      depth--;
+    }
+
+    @Override
+    public void onSpanRemoved(Cache cache, CacheSpan span) {
+      enter();
+      evictor.onSpanRemoved(cache, span);
+      depth--;
+    }
+
+    @Override
+    public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+      enter();
+      evictor.onSpanTouched(cache, oldSpan, newSpan);
+      depth--;
+    }
+
+    private void enter() {
+      if (depth > 0) {
+        calledReentrantly = true;
+      }
+      depth++;
+    }
+  }
+
   private static void assertNoCacheFiles(File dir) {
     File[] files = dir.listFiles();
     if (files == null) {
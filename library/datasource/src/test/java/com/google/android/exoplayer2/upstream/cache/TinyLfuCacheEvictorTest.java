@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.testutil.CacheEvictorSimulator;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.Util;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+
+/** Unit tests for {@link TinyLfuCacheEvictor}. */
+@RunWith(AndroidJUnit4.class)
+public final class TinyLfuCacheEvictorTest {
+
+  private static final int SEGMENT_LENGTH = 10;
+
+  private File testDir;
+
+  @Before
+  public void setUp() throws Exception {
+    testDir =
+        Util.createTempDirectory(ApplicationProvider.getApplicationContext(), "TinyLfuCacheEvictor");
+  }
+
+  @After
+  public void tearDown() {
+    Util.recursiveDelete(testDir);
+  }
+
+  @Test
+  public void contentBiggerThanMaxSizeDoesNotThrowException() {
+    int maxBytes = 100;
+    TinyLfuCacheEvictor evictor = new TinyLfuCacheEvictor(maxBytes);
+    evictor.onCacheInitialized();
+    evictor.onStartFile(Mockito.mock(Cache.class), "key", 0, maxBytes + 1);
+  }
+
+  @Test
+  public void addSpans_keepsCacheWithinMaxSize() throws Exception {
+    SimpleCache cache =
+        new SimpleCache(
+            testDir,
+            new TinyLfuCacheEvictor(/* maxBytes= */ 3 * SEGMENT_LENGTH),
+            TestUtil.getInMemoryDatabaseProvider());
+
+    for (int i = 0; i < 10; i++) {
+      addSegment(cache, "key" + i);
+      assertThat(cache.getCacheSpace()).isAtMost(3 * SEGMENT_LENGTH);
+    }
+
+    cache.release();
+  }
+
+  @Test
+  public void addSpans_afterScan_retainsFrequentlyReadSpan() throws Exception {
+    SimpleCache cache =
+        new SimpleCache(
+            testDir,
+            new TinyLfuCacheEvictor(/* maxBytes= */ 3 * SEGMENT_LENGTH),
+            TestUtil.getInMemoryDatabaseProvider());
+    addSegment(cache, "popular");
+    for (int i = 0; i < 3; i++) {
+      // Reading a cached span touches it.
+      assertThat(cache.startReadWrite("popular", /* position= */ 0, SEGMENT_LENGTH).isCached)
+          .isTrue();
+    }
+
+    for (int i = 0; i < 10; i++) {
+      addSegment(cache, "scan" + i);
+    }
+
+    assertThat(cache.isCached("popular", /* position= */ 0, SEGMENT_LENGTH)).isTrue();
+    cache.release();
+  }
+
+  @Test
+  public void simulate_scansInterleavedWithPopularContent_hitRatioHigherThanLru() {
+    List<DataSpec> trace = new ArrayList<>();
+    int scanIndex = 0;
+    for (int round = 0; round < 20; round++) {
+      // Popular content, which fits in the cache.
+      for (int i = 0; i < 5; i++) {
+        trace.add(buildDataSpec("https://test.com/popular" + i));
+      }
+      // A scan through content that's larger than the cache.
+      for (int i = 0; i < 20; i++) {
+        trace.add(buildDataSpec("https://test.com/scan" + scanIndex++));
+      }
+    }
+    long maxBytes = 10 * SEGMENT_LENGTH;
+
+    CacheEvictorSimulator.Result lruResult =
+        CacheEvictorSimulator.simulate(new LeastRecentlyUsedCacheEvictor(maxBytes), trace);
+    CacheEvictorSimulator.Result tinyLfuResult =
+        CacheEvictorSimulator.simulate(new TinyLfuCacheEvictor(maxBytes), trace);
+
+    assertThat(lruResult.hitCount).isEqualTo(0);
+    // All requests for popular content after the first round are hits.
+    assertThat(tinyLfuResult.hitCount).isEqualTo(19 * 5);
+  }
+
+  @Test
+  public void simulate_repeatedWorkingSetSmallerThanCache_allRepeatsAreHits() throws IOException {
+    StringBuilder traceString = new StringBuilder("# uri position length\n");
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 5; i++) {
+        traceString.append("https://test.com/").append(i).append(" 0 ").append(SEGMENT_LENGTH);
+        traceString.append('\n');
+      }
+    }
+    List<DataSpec> trace =
+        CacheEvictorSimulator.parseTrace(new StringReader(traceString.toString()));
+
+    CacheEvictorSimulator.Result result =
+        CacheEvictorSimulator.simulate(new TinyLfuCacheEvictor(5 * SEGMENT_LENGTH), trace);
+
+    assertThat(result.requestCount).isEqualTo(15);
+    assertThat(result.hitCount).isEqualTo(10);
+  }
+
+  private static DataSpec buildDataSpec(String uri) {
+    return new DataSpec.Builder().setUri(Uri.parse(uri)).setLength(SEGMENT_LENGTH).build();
+  }
+
+  private static void addSegment(SimpleCache cache, String key) throws IOException {
+    File file = cache.startFile(key, /* position= */ 0, SEGMENT_LENGTH);
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(TestUtil.buildTestData(SEGMENT_LENGTH));
+    }
+    cache.commitFile(file, SEGMENT_LENGTH);
+  }
+}
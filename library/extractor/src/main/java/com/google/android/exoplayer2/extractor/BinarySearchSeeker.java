@@ -157,6 +157,14 @@ public abstract class BinarySearchSeeker {
     seekOperationParams = createSeekParamsForTargetTimeUs(timeUs);
   }
 
+  /** Cancels the operation set by {@link #setSeekTargetUs(long)}, if it's still pending. */
+  public final void cancelSeek() {
+    if (seekOperationParams != null) {
+      seekOperationParams = null;
+      timestampSeeker.onSeekFinished();
+    }
+  }
+
   /** Returns whether the last operation set by {@link #setSeekTargetUs(long)} is still pending. */
   public final boolean isSeeking() {
     return seekOperationParams != null;
@@ -116,6 +116,22 @@ public interface Extractor {
    */
   void seek(long position, long timeUs);
 
+  /**
+   * Notifies the extractor that a seek has occurred to a position from which reading yields the
+   * sample at {@code timeUs}, such as a position recorded during an earlier extraction of the same
+   * stream.
+   *
+   * <p>Unlike {@link #seek(long, long)}, the extractor should not search the stream for {@code
+   * timeUs}. The default implementation calls {@link #seek(long, long)}, which is appropriate for
+   * extractors that never search.
+   *
+   * @param position The byte offset in the stream from which data will be provided.
+   * @param timeUs The time of the sample that can be read from {@code position}, in microseconds.
+   */
+  default void seekToKnownPosition(long position, long timeUs) {
+    seek(position, timeUs);
+  }
+
   /** Releases all kept resources. */
   void release();
 }
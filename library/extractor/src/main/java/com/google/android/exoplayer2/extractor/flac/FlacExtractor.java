@@ -193,6 +193,14 @@ public final class FlacExtractor implements Extractor {
     buffer.reset(/* limit= */ 0);
   }
 
+  @Override
+  public void seekToKnownPosition(long position, long timeUs) {
+    seek(position, timeUs);
+    if (binarySearchSeeker != null) {
+      binarySearchSeeker.cancelSeek();
+    }
+  }
+
   @Override
   public void release() {
     // Do nothing.
@@ -19,6 +19,7 @@ import static com.google.android.exoplayer2.util.Assertions.checkNotNull;
 import static com.google.android.exoplayer2.util.MimeTypes.getMimeTypeFromMp4ObjectType;
 import static com.google.android.exoplayer2.util.Util.castNonNull;
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 import android.util.Pair;
 import androidx.annotation.Nullable;
@@ -107,6 +108,9 @@ import org.checkerframework.checker.nullness.compatqual.NullableType;
    * @param drmInitData {@link DrmInitData} to be included in the format, or {@code null}.
    * @param ignoreEditLists Whether to ignore any edit lists in the trak boxes.
    * @param isQuickTime True for QuickTime media. False otherwise.
+   * @param useCompactSampleTables Whether to create sample tables that keep the run-length encoded
+   *     structure of the stbl boxes where possible, rather than storing information for each
+   *     sample.
    * @param modifyTrackFunction A function to apply to the {@link Track Tracks} in the result.
    * @return A list of {@link TrackSampleTable} instances.
    * @throws ParserException Thrown if the trak atoms can't be parsed.
@@ -118,6 +122,7 @@ import org.checkerframework.checker.nullness.compatqual.NullableType;
       @Nullable DrmInitData drmInitData,
       boolean ignoreEditLists,
       boolean isQuickTime,
+      boolean useCompactSampleTables,
       Function<@NullableType Track, @NullableType Track> modifyTrackFunction)
       throws ParserException {
     List<TrackSampleTable> trackSampleTables = new ArrayList<>();
@@ -145,7 +150,8 @@ import org.checkerframework.checker.nullness.compatqual.NullableType;
                       checkNotNull(atom.getContainerAtomOfType(Atom.TYPE_mdia))
                           .getContainerAtomOfType(Atom.TYPE_minf))
                   .getContainerAtomOfType(Atom.TYPE_stbl));
-      TrackSampleTable trackSampleTable = parseStbl(track, stblAtom, gaplessInfoHolder);
+      TrackSampleTable trackSampleTable =
+          parseStbl(track, stblAtom, gaplessInfoHolder, useCompactSampleTables);
       trackSampleTables.add(trackSampleTable);
     }
     return trackSampleTables;
@@ -349,11 +355,16 @@ import org.checkerframework.checker.nullness.compatqual.NullableType;
    * @param track Track to which this sample table corresponds.
    * @param stblAtom stbl (sample table) atom to decode.
    * @param gaplessInfoHolder Holder to populate with gapless playback information.
+   * @param useCompactSampleTables Whether to return a sample table backed by a {@link
+   *     CompactSampleTable} where possible.
    * @return Sample table described by the stbl atom.
    * @throws ParserException Thrown if the stbl atom can't be parsed.
    */
   private static TrackSampleTable parseStbl(
-      Track track, Atom.ContainerAtom stblAtom, GaplessInfoHolder gaplessInfoHolder)
+      Track track,
+      Atom.ContainerAtom stblAtom,
+      GaplessInfoHolder gaplessInfoHolder,
+      boolean useCompactSampleTables)
       throws ParserException {
     SampleSizeBox sampleSizeBox;
     @Nullable Atom.LeafAtom stszAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stsz);
@@ -466,6 +477,29 @@ import org.checkerframework.checker.nullness.compatqual.NullableType;
       timestamps = rechunkedResults.timestamps;
       flags = rechunkedResults.flags;
       duration = rechunkedResults.duration;
+    } else if (useCompactSampleTables) {
+      CompactSampleTable compactSampleTable =
+          parseCompactSampleTable(sampleSizeBox, chunkIterator, stts, stss, ctts);
+      @Nullable
+      TrackSampleTable trackSampleTable =
+          createCompactTrackSampleTable(track, compactSampleTable, gaplessInfoHolder);
+      if (trackSampleTable != null) {
+        return trackSampleTable;
+      }
+      // The edit list has several edits, so it can't be applied without expanding the sample table.
+      sampleCount = compactSampleTable.sampleCount;
+      offsets = new long[sampleCount];
+      sizes = new int[sampleCount];
+      timestamps = new long[sampleCount];
+      flags = new int[sampleCount];
+      for (int i = 0; i < sampleCount; i++) {
+        offsets[i] = compactSampleTable.getOffset(i);
+        sizes[i] = compactSampleTable.getSize(i);
+        timestamps[i] = compactSampleTable.getTimestamp(i);
+        flags[i] = compactSampleTable.isSynchronizationSample(i) ? C.BUFFER_FLAG_KEY_FRAME : 0;
+      }
+      maximumSize = compactSampleTable.maximumSize;
+      duration = compactSampleTable.getDuration();
     } else {
       offsets = new long[sampleCount];
       sizes = new int[sampleCount];
@@ -723,6 +757,248 @@ import org.checkerframework.checker.nullness.compatqual.NullableType;
         editedDurationUs);
   }
 
+  /**
+   * Parses the sample table boxes into a {@link CompactSampleTable}.
+   *
+   * <p>The result describes the same samples as the expanded tables built by {@link
+   * #parseStbl(Track, Atom.ContainerAtom, GaplessInfoHolder, boolean)}, including its handling of
+   * inconsistent boxes.
+   */
+  private static CompactSampleTable parseCompactSampleTable(
+      SampleSizeBox sampleSizeBox,
+      ChunkIterator chunkIterator,
+      ParsableByteArray stts,
+      @Nullable ParsableByteArray stss,
+      @Nullable ParsableByteArray ctts) {
+    int sampleCount = sampleSizeBox.getSampleCount();
+
+    // Index the chunks that contain samples.
+    long[] chunkOffsets = new long[min(chunkIterator.length, sampleCount)];
+    int[] chunkFirstSampleIndices = new int[chunkOffsets.length];
+    int chunkCount = 0;
+    long chunkedSampleCount = 0;
+    while (chunkedSampleCount < sampleCount && chunkIterator.moveNext()) {
+      if (chunkIterator.numSamples > 0) {
+        chunkOffsets[chunkCount] = chunkIterator.offset;
+        chunkFirstSampleIndices[chunkCount] = (int) chunkedSampleCount;
+        chunkCount++;
+        chunkedSampleCount += chunkIterator.numSamples;
+      }
+    }
+    if (chunkedSampleCount < sampleCount) {
+      Log.w(TAG, "Unexpected end of chunk data");
+      sampleCount = (int) chunkedSampleCount;
+    }
+    chunkOffsets = Arrays.copyOf(chunkOffsets, chunkCount);
+    chunkFirstSampleIndices = Arrays.copyOf(chunkFirstSampleIndices, chunkCount);
+
+    int fixedSampleSize = sampleSizeBox.getFixedSampleSize();
+    @Nullable int[] sizes = null;
+    if (fixedSampleSize == C.LENGTH_UNSET) {
+      sizes = new int[sampleCount];
+      for (int i = 0; i < sampleCount; i++) {
+        sizes[i] = sampleSizeBox.readNextSampleSize();
+      }
+    }
+
+    // Each run of the stts box applies to the following samples. A run with a sample count of
+    // zero, or the last run, applies to all remaining samples.
+    stts.setPosition(Atom.FULL_HEADER_SIZE);
+    int remainingTimestampDeltaChanges = stts.readUnsignedIntToInt() - 1;
+    int maxDecodeTimeRunCount = max(1, min(remainingTimestampDeltaChanges + 1, sampleCount));
+    int[] decodeTimeRunFirstSampleIndices = new int[maxDecodeTimeRunCount];
+    long[] decodeTimeRunStartTimes = new long[maxDecodeTimeRunCount];
+    int[] decodeTimeRunDeltas = new int[maxDecodeTimeRunCount];
+    int decodeTimeRunCount = 0;
+    int samplesAtTimestampDelta = stts.readUnsignedIntToInt();
+    int timestampDeltaInTimeUnits = stts.readUnsignedIntToInt();
+    long runFirstSampleIndex = 0;
+    long runStartTime = 0;
+    while (true) {
+      decodeTimeRunFirstSampleIndices[decodeTimeRunCount] = (int) runFirstSampleIndex;
+      decodeTimeRunStartTimes[decodeTimeRunCount] = runStartTime;
+      decodeTimeRunDeltas[decodeTimeRunCount] = timestampDeltaInTimeUnits;
+      decodeTimeRunCount++;
+      if (samplesAtTimestampDelta == 0 || remainingTimestampDeltaChanges <= 0) {
+        break;
+      }
+      runFirstSampleIndex += samplesAtTimestampDelta;
+      runStartTime += (long) samplesAtTimestampDelta * timestampDeltaInTimeUnits;
+      if (runFirstSampleIndex >= sampleCount) {
+        break;
+      }
+      samplesAtTimestampDelta = stts.readUnsignedIntToInt();
+      // Sample deltas are decoded as signed integers, as in parseStbl.
+      timestampDeltaInTimeUnits = stts.readInt();
+      remainingTimestampDeltaChanges--;
+    }
+
+    // Runs of the ctts box with a sample count of zero are skipped, unless they're the last run.
+    int timestampOffsetRunCount = 0;
+    int[] timestampOffsetRunFirstSampleIndices = new int[0];
+    int[] timestampOffsetRunOffsets = new int[0];
+    if (ctts != null) {
+      ctts.setPosition(Atom.FULL_HEADER_SIZE);
+      int remainingTimestampOffsetChanges = ctts.readUnsignedIntToInt();
+      int maxTimestampOffsetRunCount = min(remainingTimestampOffsetChanges, sampleCount);
+      timestampOffsetRunFirstSampleIndices = new int[maxTimestampOffsetRunCount];
+      timestampOffsetRunOffsets = new int[maxTimestampOffsetRunCount];
+      runFirstSampleIndex = 0;
+      while (remainingTimestampOffsetChanges > 0 && runFirstSampleIndex < sampleCount) {
+        int samplesAtTimestampOffset;
+        int timestampOffset;
+        do {
+          samplesAtTimestampOffset = ctts.readUnsignedIntToInt();
+          // Sample offsets are decoded as signed integers, as in parseStbl.
+          timestampOffset = ctts.readInt();
+          remainingTimestampOffsetChanges--;
+        } while (samplesAtTimestampOffset == 0 && remainingTimestampOffsetChanges > 0);
+        timestampOffsetRunFirstSampleIndices[timestampOffsetRunCount] = (int) runFirstSampleIndex;
+        timestampOffsetRunOffsets[timestampOffsetRunCount] = timestampOffset;
+        timestampOffsetRunCount++;
+        if (samplesAtTimestampOffset == 0) {
+          break;
+        }
+        runFirstSampleIndex += samplesAtTimestampOffset;
+      }
+    }
+
+    // Synchronization sample indices are only used while they're increasing and in range.
+    @Nullable int[] synchronizationSampleIndices = null;
+    if (stss != null) {
+      stss.setPosition(Atom.FULL_HEADER_SIZE);
+      int remainingSynchronizationSamples = stss.readUnsignedIntToInt();
+      if (remainingSynchronizationSamples > 0) {
+        synchronizationSampleIndices = new int[min(remainingSynchronizationSamples, sampleCount)];
+        int synchronizationSampleCount = 0;
+        int previousSynchronizationSampleIndex = C.INDEX_UNSET;
+        while (remainingSynchronizationSamples-- > 0) {
+          int synchronizationSampleIndex = stss.readUnsignedIntToInt() - 1;
+          if (synchronizationSampleIndex <= previousSynchronizationSampleIndex
+              || synchronizationSampleIndex >= sampleCount) {
+            break;
+          }
+          synchronizationSampleIndices[synchronizationSampleCount++] = synchronizationSampleIndex;
+          previousSynchronizationSampleIndex = synchronizationSampleIndex;
+        }
+        synchronizationSampleIndices =
+            Arrays.copyOf(synchronizationSampleIndices, synchronizationSampleCount);
+      }
+    }
+
+    return new CompactSampleTable(
+        sampleCount,
+        fixedSampleSize,
+        sizes,
+        chunkOffsets,
+        chunkFirstSampleIndices,
+        Arrays.copyOf(decodeTimeRunFirstSampleIndices, decodeTimeRunCount),
+        Arrays.copyOf(decodeTimeRunStartTimes, decodeTimeRunCount),
+        Arrays.copyOf(decodeTimeRunDeltas, decodeTimeRunCount),
+        Arrays.copyOf(timestampOffsetRunFirstSampleIndices, timestampOffsetRunCount),
+        Arrays.copyOf(timestampOffsetRunOffsets, timestampOffsetRunCount),
+        synchronizationSampleIndices);
+  }
+
+  /**
+   * Returns a {@link TrackSampleTable} backed by the given {@link CompactSampleTable}, or null if
+   * the track's edit list can only be applied to an expanded sample table.
+   *
+   * <p>The edit list cases handled here produce the same samples as in {@link #parseStbl(Track,
+   * Atom.ContainerAtom, GaplessInfoHolder, boolean)}: no edit list, a single edit that can be
+   * applied with gapless information, a single edit with zero duration and a single edit that
+   * selects a range of the samples. The edit is applied by searching the run-length encoded
+   * timestamps, without expanding them.
+   */
+  @Nullable
+  private static TrackSampleTable createCompactTrackSampleTable(
+      Track track, CompactSampleTable compactSampleTable, GaplessInfoHolder gaplessInfoHolder) {
+    long duration = compactSampleTable.getDuration();
+    int sampleCount = compactSampleTable.sampleCount;
+    if (track.editListDurations == null) {
+      return new TrackSampleTable(
+          track,
+          compactSampleTable,
+          /* firstSampleIndex= */ 0,
+          sampleCount,
+          /* mediaTime= */ 0,
+          /* clampTimestamps= */ false,
+          Util.scaleLargeTimestamp(duration, C.MICROS_PER_SECOND, track.timescale));
+    }
+    if (track.editListDurations.length != 1) {
+      return null;
+    }
+    long editMediaTime = checkNotNull(track.editListMediaTimes)[0];
+    long editDuration =
+        Util.scaleLargeTimestamp(track.editListDurations[0], track.timescale, track.movieTimescale);
+    long editedDurationUs =
+        Util.scaleLargeTimestamp(
+            track.editListDurations[0], C.MICROS_PER_SECOND, track.movieTimescale);
+
+    if (track.type == C.TRACK_TYPE_AUDIO && sampleCount >= 2) {
+      long editEndTime = editMediaTime + editDuration;
+      if (canApplyEditWithGaplessInfo(compactSampleTable, duration, editMediaTime, editEndTime)) {
+        long paddingTimeUnits = duration - editEndTime;
+        long encoderDelay =
+            Util.scaleLargeTimestamp(
+                editMediaTime - compactSampleTable.getTimestamp(0),
+                track.format.sampleRate,
+                track.timescale);
+        long encoderPadding =
+            Util.scaleLargeTimestamp(paddingTimeUnits, track.format.sampleRate, track.timescale);
+        if ((encoderDelay != 0 || encoderPadding != 0)
+            && encoderDelay <= Integer.MAX_VALUE
+            && encoderPadding <= Integer.MAX_VALUE) {
+          gaplessInfoHolder.encoderDelay = (int) encoderDelay;
+          gaplessInfoHolder.encoderPadding = (int) encoderPadding;
+          return new TrackSampleTable(
+              track,
+              compactSampleTable,
+              /* firstSampleIndex= */ 0,
+              sampleCount,
+              /* mediaTime= */ 0,
+              /* clampTimestamps= */ false,
+              editedDurationUs);
+        }
+      }
+    }
+
+    if (track.editListDurations[0] == 0) {
+      return new TrackSampleTable(
+          track,
+          compactSampleTable,
+          /* firstSampleIndex= */ 0,
+          sampleCount,
+          editMediaTime,
+          /* clampTimestamps= */ false,
+          Util.scaleLargeTimestamp(duration - editMediaTime, C.MICROS_PER_SECOND, track.timescale));
+    }
+
+    if (editMediaTime == -1) {
+      return null;
+    }
+    boolean omitClippedSample = track.type == C.TRACK_TYPE_AUDIO;
+    int startIndex =
+        compactSampleTable.binarySearchFloorTimestamp(
+            editMediaTime, /* inclusive= */ true, /* stayInBounds= */ true);
+    int endIndex =
+        compactSampleTable.binarySearchCeilTimestamp(
+            editMediaTime + editDuration,
+            /* inclusive= */ omitClippedSample,
+            /* stayInBounds= */ false);
+    while (startIndex < endIndex && !compactSampleTable.isSynchronizationSample(startIndex)) {
+      startIndex++;
+    }
+    return new TrackSampleTable(
+        track,
+        compactSampleTable,
+        /* firstSampleIndex= */ startIndex,
+        /* sampleCount= */ endIndex - startIndex,
+        editMediaTime,
+        /* clampTimestamps= */ true,
+        editedDurationUs);
+  }
+
   @Nullable
   private static Metadata parseUdtaMeta(ParsableByteArray meta, int limit) {
     meta.skipBytes(Atom.HEADER_SIZE);
@@ -1855,6 +2131,26 @@ import org.checkerframework.checker.nullness.compatqual.NullableType;
         && editEndTime <= duration;
   }
 
+  /**
+   * Equivalent to {@link #canApplyEditWithGaplessInfo(long[], long, long, long)} on the timestamps
+   * of the given {@link CompactSampleTable}.
+   */
+  private static boolean canApplyEditWithGaplessInfo(
+      CompactSampleTable compactSampleTable,
+      long duration,
+      long editStartTime,
+      long editEndTime) {
+    int lastIndex = compactSampleTable.sampleCount - 1;
+    int latestDelayIndex = Util.constrainValue(MAX_GAPLESS_TRIM_SIZE_SAMPLES, 0, lastIndex);
+    int earliestPaddingIndex =
+        Util.constrainValue(
+            compactSampleTable.sampleCount - MAX_GAPLESS_TRIM_SIZE_SAMPLES, 0, lastIndex);
+    return compactSampleTable.getTimestamp(0) <= editStartTime
+        && editStartTime < compactSampleTable.getTimestamp(latestDelayIndex)
+        && compactSampleTable.getTimestamp(earliestPaddingIndex) < editEndTime
+        && editEndTime <= duration;
+  }
+
   private AtomParsers() {
     // Prevent instantiation.
   }
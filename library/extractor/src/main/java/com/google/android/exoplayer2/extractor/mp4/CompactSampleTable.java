@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor.mp4;
+
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.Util;
+import java.util.Arrays;
+
+/**
+ * Sample table for a track in an MP4 file that keeps the run-length encoded structure of the stbl
+ * boxes, rather than storing the offset, size, timestamp and flags of each sample.
+ *
+ * <p>Sample offsets are resolved from a chunk-level index, timestamps from the runs of the stts and
+ * ctts boxes and synchronization samples from the stss box. Only the sample sizes are stored per
+ * sample, and only if they're not fixed. In that case the offset of every {@link
+ * #OFFSET_CHECKPOINT_INTERVAL}th sample is stored too, so that resolving an offset doesn't require
+ * summing the sizes of all preceding samples in a large chunk.
+ */
+/* package */ final class CompactSampleTable {
+
+  /** The number of samples between stored offsets, if the sample sizes aren't fixed. */
+  private static final int OFFSET_CHECKPOINT_INTERVAL = 64;
+
+  /** Number of samples. */
+  public final int sampleCount;
+  /** Maximum sample size in bytes. */
+  public final int maximumSize;
+
+  private final int fixedSampleSize;
+  @Nullable private final int[] sizes;
+  private final long[] chunkOffsets;
+  private final int[] chunkFirstSampleIndices;
+  private final int[] decodeTimeRunFirstSampleIndices;
+  private final long[] decodeTimeRunStartTimes;
+  private final int[] decodeTimeRunDeltas;
+  private final int[] timestampOffsetRunFirstSampleIndices;
+  private final int[] timestampOffsetRunOffsets;
+  @Nullable private final int[] synchronizationSampleIndices;
+  @Nullable private final long[] offsetCheckpoints;
+
+  // The runs containing the most recently resolved timestamp. Samples are mostly resolved in order,
+  // so checking these runs first avoids most binary searches. They're only hints, so it's safe to
+  // access them from multiple threads without synchronization.
+  private int decodeTimeRunIndexHint;
+  private int timestampOffsetRunIndexHint;
+
+  /**
+   * Creates an instance.
+   *
+   * @param sampleCount The number of samples.
+   * @param fixedSampleSize The size of each sample in bytes if fixed, or {@link C#LENGTH_UNSET} if
+   *     {@code sizes} is non-null.
+   * @param sizes The size of each sample in bytes, or null if {@code fixedSampleSize} is set.
+   * @param chunkOffsets The byte offsets of the chunks containing at least one sample.
+   * @param chunkFirstSampleIndices The index of the first sample in each chunk, in increasing
+   *     order.
+   * @param decodeTimeRunFirstSampleIndices The index of the first sample of each run of samples
+   *     with equal duration, in increasing order. Must start with zero.
+   * @param decodeTimeRunStartTimes The decode time of the first sample of each run, in units of
+   *     the track timescale.
+   * @param decodeTimeRunDeltas The duration of the samples in each run, in units of the track
+   *     timescale. The last run applies to all subsequent samples.
+   * @param timestampOffsetRunFirstSampleIndices The index of the first sample of each run of
+   *     samples with equal composition time offset, in increasing order. Must be empty or start
+   *     with zero.
+   * @param timestampOffsetRunOffsets The composition time offset of the samples in each run, in
+   *     units of the track timescale. The last run applies to all subsequent samples.
+   * @param synchronizationSampleIndices The indices of the synchronization samples in increasing
+   *     order, or null if all samples are synchronization samples.
+   */
+  public CompactSampleTable(
+      int sampleCount,
+      int fixedSampleSize,
+      @Nullable int[] sizes,
+      long[] chunkOffsets,
+      int[] chunkFirstSampleIndices,
+      int[] decodeTimeRunFirstSampleIndices,
+      long[] decodeTimeRunStartTimes,
+      int[] decodeTimeRunDeltas,
+      int[] timestampOffsetRunFirstSampleIndices,
+      int[] timestampOffsetRunOffsets,
+      @Nullable int[] synchronizationSampleIndices) {
+    this.sampleCount = sampleCount;
+    this.fixedSampleSize = fixedSampleSize;
+    this.sizes = sizes;
+    this.chunkOffsets = chunkOffsets;
+    this.chunkFirstSampleIndices = chunkFirstSampleIndices;
+    this.decodeTimeRunFirstSampleIndices = decodeTimeRunFirstSampleIndices;
+    this.decodeTimeRunStartTimes = decodeTimeRunStartTimes;
+    this.decodeTimeRunDeltas = decodeTimeRunDeltas;
+    this.timestampOffsetRunFirstSampleIndices = timestampOffsetRunFirstSampleIndices;
+    this.timestampOffsetRunOffsets = timestampOffsetRunOffsets;
+    this.synchronizationSampleIndices = synchronizationSampleIndices;
+    int maximumSize = 0;
+    if (sizes != null) {
+      offsetCheckpoints =
+          new long[(sampleCount + OFFSET_CHECKPOINT_INTERVAL - 1) / OFFSET_CHECKPOINT_INTERVAL];
+      int chunkIndex = 0;
+      long offset = chunkOffsets.length > 0 ? chunkOffsets[0] : 0;
+      for (int i = 0; i < sampleCount; i++) {
+        while (chunkIndex + 1 < chunkFirstSampleIndices.length
+            && chunkFirstSampleIndices[chunkIndex + 1] <= i) {
+          chunkIndex++;
+          offset = chunkOffsets[chunkIndex];
+        }
+        if (i % OFFSET_CHECKPOINT_INTERVAL == 0) {
+          offsetCheckpoints[i / OFFSET_CHECKPOINT_INTERVAL] = offset;
+        }
+        offset += sizes[i];
+        maximumSize = Math.max(maximumSize, sizes[i]);
+      }
+    } else {
+      offsetCheckpoints = null;
+      if (sampleCount > 0) {
+        maximumSize = fixedSampleSize;
+      }
+    }
+    this.maximumSize = maximumSize;
+  }
+
+  /** Returns the byte offset of the sample at the given index. */
+  public long getOffset(int sampleIndex) {
+    int chunkIndex =
+        Util.binarySearchFloor(
+            chunkFirstSampleIndices, sampleIndex, /* inclusive= */ true, /* stayInBounds= */ true);
+    int chunkFirstSampleIndex = chunkFirstSampleIndices[chunkIndex];
+    long offset = chunkOffsets[chunkIndex];
+    if (sizes == null || offsetCheckpoints == null) {
+      return offset + (long) (sampleIndex - chunkFirstSampleIndex) * fixedSampleSize;
+    }
+    // Start from the closest stored offset if it's in the same chunk.
+    int startSampleIndex = chunkFirstSampleIndex;
+    int checkpointSampleIndex =
+        sampleIndex / OFFSET_CHECKPOINT_INTERVAL * OFFSET_CHECKPOINT_INTERVAL;
+    if (checkpointSampleIndex > chunkFirstSampleIndex) {
+      startSampleIndex = checkpointSampleIndex;
+      offset = offsetCheckpoints[checkpointSampleIndex / OFFSET_CHECKPOINT_INTERVAL];
+    }
+    for (int i = startSampleIndex; i < sampleIndex; i++) {
+      offset += sizes[i];
+    }
+    return offset;
+  }
+
+  /** Returns the size in bytes of the sample at the given index. */
+  public int getSize(int sampleIndex) {
+    return sizes != null ? sizes[sampleIndex] : fixedSampleSize;
+  }
+
+  /**
+   * Returns the presentation timestamp of the sample at the given index, in units of the track
+   * timescale and before applying any edit list.
+   */
+  public long getTimestamp(int sampleIndex) {
+    return getDecodeTime(sampleIndex) + getTimestampOffset(sampleIndex);
+  }
+
+  /** Returns whether the sample at the given index is a synchronization sample. */
+  public boolean isSynchronizationSample(int sampleIndex) {
+    return synchronizationSampleIndices == null
+        || Arrays.binarySearch(synchronizationSampleIndices, sampleIndex) >= 0;
+  }
+
+  /**
+   * Returns the duration of the samples, in units of the track timescale and before applying any
+   * edit list.
+   */
+  public long getDuration() {
+    return getDecodeTime(sampleCount)
+        + (sampleCount > 0 ? getTimestampOffset(sampleCount - 1) : 0);
+  }
+
+  /**
+   * Equivalent to {@link Util#binarySearchFloor(long[], long, boolean, boolean)} on the
+   * presentation timestamps of the samples, without creating an array of the timestamps.
+   */
+  public int binarySearchFloorTimestamp(long timestamp, boolean inclusive, boolean stayInBounds) {
+    int index = binarySearchTimestamp(timestamp);
+    if (index < 0) {
+      index = -(index + 2);
+    } else {
+      while (--index >= 0 && getTimestamp(index) == timestamp) {}
+      if (inclusive) {
+        index++;
+      }
+    }
+    return stayInBounds ? Math.max(0, index) : index;
+  }
+
+  /**
+   * Equivalent to {@link Util#binarySearchCeil(long[], long, boolean, boolean)} on the
+   * presentation timestamps of the samples, without creating an array of the timestamps.
+   */
+  public int binarySearchCeilTimestamp(long timestamp, boolean inclusive, boolean stayInBounds) {
+    int index = binarySearchTimestamp(timestamp);
+    if (index < 0) {
+      index = ~index;
+    } else {
+      while (++index < sampleCount && getTimestamp(index) == timestamp) {}
+      if (inclusive) {
+        index--;
+      }
+    }
+    return stayInBounds ? Math.min(sampleCount - 1, index) : index;
+  }
+
+  /** Equivalent to {@link Arrays#binarySearch(long[], long)} on the presentation timestamps. */
+  private int binarySearchTimestamp(long timestamp) {
+    int lowIndex = 0;
+    int highIndex = sampleCount - 1;
+    while (lowIndex <= highIndex) {
+      int midIndex = (lowIndex + highIndex) >>> 1;
+      long midTimestamp = getTimestamp(midIndex);
+      if (midTimestamp < timestamp) {
+        lowIndex = midIndex + 1;
+      } else if (midTimestamp > timestamp) {
+        highIndex = midIndex - 1;
+      } else {
+        return midIndex;
+      }
+    }
+    return -(lowIndex + 1);
+  }
+
+  private long getDecodeTime(int sampleIndex) {
+    int runIndex =
+        getRunIndex(decodeTimeRunFirstSampleIndices, sampleIndex, decodeTimeRunIndexHint);
+    decodeTimeRunIndexHint = runIndex;
+    return decodeTimeRunStartTimes[runIndex]
+        + (long) (sampleIndex - decodeTimeRunFirstSampleIndices[runIndex])
+            * decodeTimeRunDeltas[runIndex];
+  }
+
+  private int getTimestampOffset(int sampleIndex) {
+    if (timestampOffsetRunFirstSampleIndices.length == 0) {
+      return 0;
+    }
+    int runIndex =
+        getRunIndex(
+            timestampOffsetRunFirstSampleIndices, sampleIndex, timestampOffsetRunIndexHint);
+    timestampOffsetRunIndexHint = runIndex;
+    return timestampOffsetRunOffsets[runIndex];
+  }
+
+  /**
+   * Returns the index of the run containing the given sample, checking the run at {@code
+   * runIndexHint} and the following run before searching all runs.
+   */
+  private static int getRunIndex(int[] runFirstSampleIndices, int sampleIndex, int runIndexHint) {
+    if (isInRun(runFirstSampleIndices, runIndexHint, sampleIndex)) {
+      return runIndexHint;
+    }
+    if (runIndexHint + 1 < runFirstSampleIndices.length
+        && isInRun(runFirstSampleIndices, runIndexHint + 1, sampleIndex)) {
+      return runIndexHint + 1;
+    }
+    return Util.binarySearchFloor(
+        runFirstSampleIndices, sampleIndex, /* inclusive= */ true, /* stayInBounds= */ true);
+  }
+
+  private static boolean isInRun(int[] runFirstSampleIndices, int runIndex, int sampleIndex) {
+    return runFirstSampleIndices[runIndex] <= sampleIndex
+        && (runIndex + 1 == runFirstSampleIndices.length
+            || sampleIndex < runFirstSampleIndices[runIndex + 1]);
+  }
+}
@@ -520,6 +520,7 @@ public class FragmentedMp4Extractor implements Extractor {
             drmInitData,
             /* ignoreEditLists= */ (flags & FLAG_WORKAROUND_IGNORE_EDIT_LISTS) != 0,
             /* isQuickTime= */ false,
+            /* useCompactSampleTables= */ false,
             this::modifyTrack);
 
     int trackCount = sampleTables.size();
@@ -1692,21 +1693,21 @@ public class FragmentedMp4Extractor implements Extractor {
     /** Returns the presentation time of the current sample in microseconds. */
     public long getCurrentSamplePresentationTimeUs() {
       return !currentlyInFragment
-          ? moovSampleTable.timestampsUs[currentSampleIndex]
+          ? moovSampleTable.getTimestampUs(currentSampleIndex)
           : fragment.getSamplePresentationTimeUs(currentSampleIndex);
     }
 
     /** Returns the byte offset of the current sample. */
     public long getCurrentSampleOffset() {
       return !currentlyInFragment
-          ? moovSampleTable.offsets[currentSampleIndex]
+          ? moovSampleTable.getOffset(currentSampleIndex)
           : fragment.trunDataPosition[currentTrackRunIndex];
     }
 
     /** Returns the size of the current sample in bytes. */
     public int getCurrentSampleSize() {
       return !currentlyInFragment
-          ? moovSampleTable.sizes[currentSampleIndex]
+          ? moovSampleTable.getSize(currentSampleIndex)
           : fragment.sampleSizeTable[currentSampleIndex];
     }
 
@@ -1714,7 +1715,7 @@ public class FragmentedMp4Extractor implements Extractor {
     public @C.BufferFlags int getCurrentSampleFlags() {
       int flags =
           !currentlyInFragment
-              ? moovSampleTable.flags[currentSampleIndex]
+              ? moovSampleTable.getFlags(currentSampleIndex)
               : (fragment.sampleIsSyncFrameTable[currentSampleIndex] ? C.BUFFER_FLAG_KEY_FRAME : 0);
       if (getEncryptionBoxIfEncrypted() != null) {
         flags |= C.BUFFER_FLAG_ENCRYPTED;
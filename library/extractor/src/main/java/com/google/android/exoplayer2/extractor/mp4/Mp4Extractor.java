@@ -68,8 +68,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
 
   /**
    * Flags controlling the behavior of the extractor. Possible flag values are {@link
-   * #FLAG_WORKAROUND_IGNORE_EDIT_LISTS}, {@link #FLAG_READ_MOTION_PHOTO_METADATA} and {@link
-   * #FLAG_READ_SEF_DATA}.
+   * #FLAG_WORKAROUND_IGNORE_EDIT_LISTS}, {@link #FLAG_READ_MOTION_PHOTO_METADATA}, {@link
+   * #FLAG_READ_SEF_DATA} and {@link #FLAG_COMPACT_SAMPLE_TABLES}.
    */
   @Documented
   @Retention(RetentionPolicy.SOURCE)
@@ -79,7 +79,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       value = {
         FLAG_WORKAROUND_IGNORE_EDIT_LISTS,
         FLAG_READ_MOTION_PHOTO_METADATA,
-        FLAG_READ_SEF_DATA
+        FLAG_READ_SEF_DATA,
+        FLAG_COMPACT_SAMPLE_TABLES
       })
   public @interface Flags {}
   /** Flag to ignore any edit lists in the stream. */
@@ -97,6 +98,12 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    * videos.
    */
   public static final int FLAG_READ_SEF_DATA = 1 << 2;
+  /**
+   * Flag to keep sample tables in the run-length encoded form of the stbl boxes, resolving sample
+   * offsets and timestamps on demand. This reduces the memory used and the time taken to prepare
+   * long files. Tracks whose edit lists drop or reorder samples still use expanded sample tables.
+   */
+  public static final int FLAG_COMPACT_SAMPLE_TABLES = 1 << 3;
 
   /** Parser states. */
   @Documented
@@ -138,6 +145,12 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    */
   private static final long MAXIMUM_READ_AHEAD_BYTES_STREAM = 10 * 1024 * 1024;
 
+  /**
+   * The number of samples between stored accumulated sample sizes for tracks with compact sample
+   * tables.
+   */
+  private static final int COMPACT_ACCUMULATED_SAMPLE_SIZE_INTERVAL = 64;
+
   private final @Flags int flags;
 
   // Temporary arrays.
@@ -313,14 +326,14 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       if (sampleIndex == C.INDEX_UNSET) {
         return new SeekPoints(SeekPoint.START);
       }
-      long sampleTimeUs = sampleTable.timestampsUs[sampleIndex];
+      long sampleTimeUs = sampleTable.getTimestampUs(sampleIndex);
       firstTimeUs = sampleTimeUs;
-      firstOffset = sampleTable.offsets[sampleIndex];
+      firstOffset = sampleTable.getOffset(sampleIndex);
       if (sampleTimeUs < timeUs && sampleIndex < sampleTable.sampleCount - 1) {
         int secondSampleIndex = sampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs);
         if (secondSampleIndex != C.INDEX_UNSET && secondSampleIndex != sampleIndex) {
-          secondTimeUs = sampleTable.timestampsUs[secondSampleIndex];
-          secondOffset = sampleTable.offsets[secondSampleIndex];
+          secondTimeUs = sampleTable.getTimestampUs(secondSampleIndex);
+          secondOffset = sampleTable.getOffset(secondSampleIndex);
         }
       }
     } else {
@@ -519,6 +532,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
             /* drmInitData= */ null,
             ignoreEditLists,
             isQuickTime,
+            /* useCompactSampleTables= */ (flags & FLAG_COMPACT_SAMPLE_TABLES) != 0,
             /* modifyTrackFunction= */ track -> track);
 
     int trackCount = trackSampleTables.size();
@@ -603,8 +617,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     Mp4Track track = tracks[sampleTrackIndex];
     TrackOutput trackOutput = track.trackOutput;
     int sampleIndex = track.sampleIndex;
-    long position = track.sampleTable.offsets[sampleIndex];
-    int sampleSize = track.sampleTable.sizes[sampleIndex];
+    long position = track.sampleTable.getOffset(sampleIndex);
+    int sampleSize = track.sampleTable.getSize(sampleIndex);
     @Nullable TrueHdSampleRechunker trueHdSampleRechunker = track.trueHdSampleRechunker;
     long skipAmount = position - inputPosition + sampleBytesRead;
     if (skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE) {
@@ -675,8 +689,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       }
     }
 
-    long timeUs = track.sampleTable.timestampsUs[sampleIndex];
-    @C.BufferFlags int flags = track.sampleTable.flags[sampleIndex];
+    long timeUs = track.sampleTable.getTimestampUs(sampleIndex);
+    @C.BufferFlags int flags = track.sampleTable.getFlags(sampleIndex);
     if (trueHdSampleRechunker != null) {
       trueHdSampleRechunker.sampleMetadata(
           trackOutput, timeUs, flags, sampleSize, /* offset= */ 0, /* cryptoData= */ null);
@@ -723,8 +737,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       if (sampleIndex == track.sampleTable.sampleCount) {
         continue;
       }
-      long sampleOffset = track.sampleTable.offsets[sampleIndex];
-      long sampleAccumulatedBytes = castNonNull(accumulatedSampleSizes)[trackIndex][sampleIndex];
+      long sampleOffset = track.sampleTable.getOffset(sampleIndex);
+      long sampleAccumulatedBytes = getAccumulatedSampleSize(trackIndex, sampleIndex);
       long skipAmount = sampleOffset - inputPosition;
       boolean requiresReload = skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE;
       if ((!requiresReload && preferredRequiresReload)
@@ -794,9 +808,28 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     }
   }
 
+  /**
+   * Returns the accumulated size of all samples which need to be read before the sample at {@code
+   * sampleIndex} of the track at {@code trackIndex} can be used.
+   *
+   * <p>For tracks with compact sample tables, only the sizes of the track's own samples are added
+   * to the closest stored accumulated size, which is precise enough to detect poor interleaving.
+   */
+  private long getAccumulatedSampleSize(int trackIndex, int sampleIndex) {
+    TrackSampleTable sampleTable = tracks[trackIndex].sampleTable;
+    int interval = getAccumulatedSampleSizeInterval(sampleTable);
+    long accumulatedSampleSize =
+        castNonNull(accumulatedSampleSizes)[trackIndex][sampleIndex / interval];
+    for (int i = sampleIndex / interval * interval; i < sampleIndex; i++) {
+      accumulatedSampleSize += sampleTable.getSize(i);
+    }
+    return accumulatedSampleSize;
+  }
+
   /**
    * For each sample of each track, calculates accumulated size of all samples which need to be read
-   * before this sample can be used.
+   * before this sample can be used. For tracks with compact sample tables, the size is only stored
+   * for every {@link #COMPACT_ACCUMULATED_SAMPLE_SIZE_INTERVAL}th sample.
    */
   private static long[][] calculateAccumulatedSampleSizes(Mp4Track[] tracks) {
     long[][] accumulatedSampleSizes = new long[tracks.length][];
@@ -804,8 +837,10 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     long[] nextSampleTimesUs = new long[tracks.length];
     boolean[] tracksFinished = new boolean[tracks.length];
     for (int i = 0; i < tracks.length; i++) {
-      accumulatedSampleSizes[i] = new long[tracks[i].sampleTable.sampleCount];
-      nextSampleTimesUs[i] = tracks[i].sampleTable.timestampsUs[0];
+      TrackSampleTable sampleTable = tracks[i].sampleTable;
+      int interval = getAccumulatedSampleSizeInterval(sampleTable);
+      accumulatedSampleSizes[i] = new long[(sampleTable.sampleCount + interval - 1) / interval];
+      nextSampleTimesUs[i] = sampleTable.getTimestampUs(0);
     }
     long accumulatedSampleSize = 0;
     int finishedTracks = 0;
@@ -818,13 +853,17 @@ public final class Mp4Extractor implements Extractor, SeekMap {
           minTimeUs = nextSampleTimesUs[i];
         }
       }
+      TrackSampleTable sampleTable = tracks[minTimeTrackIndex].sampleTable;
+      int interval = getAccumulatedSampleSizeInterval(sampleTable);
       int trackSampleIndex = nextSampleIndex[minTimeTrackIndex];
-      accumulatedSampleSizes[minTimeTrackIndex][trackSampleIndex] = accumulatedSampleSize;
-      accumulatedSampleSize += tracks[minTimeTrackIndex].sampleTable.sizes[trackSampleIndex];
+      if (trackSampleIndex % interval == 0) {
+        accumulatedSampleSizes[minTimeTrackIndex][trackSampleIndex / interval] =
+            accumulatedSampleSize;
+      }
+      accumulatedSampleSize += sampleTable.getSize(trackSampleIndex);
       nextSampleIndex[minTimeTrackIndex] = ++trackSampleIndex;
-      if (trackSampleIndex < accumulatedSampleSizes[minTimeTrackIndex].length) {
-        nextSampleTimesUs[minTimeTrackIndex] =
-            tracks[minTimeTrackIndex].sampleTable.timestampsUs[trackSampleIndex];
+      if (trackSampleIndex < sampleTable.sampleCount) {
+        nextSampleTimesUs[minTimeTrackIndex] = sampleTable.getTimestampUs(trackSampleIndex);
       } else {
         tracksFinished[minTimeTrackIndex] = true;
         finishedTracks++;
@@ -833,6 +872,10 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     return accumulatedSampleSizes;
   }
 
+  private static int getAccumulatedSampleSizeInterval(TrackSampleTable sampleTable) {
+    return sampleTable.isCompact() ? COMPACT_ACCUMULATED_SAMPLE_SIZE_INTERVAL : 1;
+  }
+
   /**
    * Adjusts a seek point offset to take into account the track with the given {@code sampleTable},
    * for a given {@code seekTimeUs}.
@@ -848,7 +891,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     if (sampleIndex == C.INDEX_UNSET) {
       return offset;
     }
-    long sampleOffset = sampleTable.offsets[sampleIndex];
+    long sampleOffset = sampleTable.getOffset(sampleIndex);
     return min(sampleOffset, offset);
   }
 
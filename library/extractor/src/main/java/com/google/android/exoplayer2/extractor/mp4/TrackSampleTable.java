@@ -15,30 +15,41 @@
  */
 package com.google.android.exoplayer2.extractor.mp4;
 
+import static java.lang.Math.max;
+
+import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.Util;
+import java.util.Arrays;
 
-/** Sample table for a track in an MP4 file. */
+/**
+ * Sample table for a track in an MP4 file.
+ *
+ * <p>The table either stores the offset, size, timestamp and flags of each sample, or resolves them
+ * on demand from a {@link CompactSampleTable}.
+ */
 /* package */ final class TrackSampleTable {
 
   /** The track corresponding to this sample table. */
   public final Track track;
   /** Number of samples. */
   public final int sampleCount;
-  /** Sample offsets in bytes. */
-  public final long[] offsets;
-  /** Sample sizes in bytes. */
-  public final int[] sizes;
-  /** Maximum sample size in {@link #sizes}. */
+  /** Maximum sample size in bytes. */
   public final int maximumSize;
-  /** Sample timestamps in microseconds. */
-  public final long[] timestampsUs;
-  /** Sample flags. */
-  public final int[] flags;
   /** The duration of the track sample table in microseconds. */
   public final long durationUs;
 
+  @Nullable private final long[] offsets;
+  @Nullable private final int[] sizes;
+  @Nullable private final long[] timestampsUs;
+  @Nullable private final int[] flags;
+
+  @Nullable private final CompactSampleTable compactSampleTable;
+  private final int compactFirstSampleIndex;
+  private final long compactMediaTime;
+  private final boolean clampCompactTimestamps;
+
   public TrackSampleTable(
       Track track,
       long[] offsets,
@@ -62,6 +73,102 @@ import com.google.android.exoplayer2.util.Util;
     if (flags.length > 0) {
       flags[flags.length - 1] |= C.BUFFER_FLAG_LAST_SAMPLE;
     }
+    compactSampleTable = null;
+    compactFirstSampleIndex = 0;
+    compactMediaTime = 0;
+    clampCompactTimestamps = false;
+  }
+
+  /**
+   * Creates a sample table that resolves sample information from a {@link CompactSampleTable}.
+   *
+   * @param track The track corresponding to this sample table.
+   * @param compactSampleTable The compact sample table.
+   * @param firstSampleIndex The index in {@code compactSampleTable} of the first sample of this
+   *     sample table, as specified by an edit list.
+   * @param sampleCount The number of samples in this sample table.
+   * @param mediaTime The media time in units of the track timescale that corresponds to a timestamp
+   *     of zero, as specified by an edit list.
+   * @param clampTimestamps Whether timestamps before {@code mediaTime} are mapped to zero.
+   * @param durationUs The duration of the track sample table in microseconds.
+   */
+  public TrackSampleTable(
+      Track track,
+      CompactSampleTable compactSampleTable,
+      int firstSampleIndex,
+      int sampleCount,
+      long mediaTime,
+      boolean clampTimestamps,
+      long durationUs) {
+    Assertions.checkArgument(firstSampleIndex + sampleCount <= compactSampleTable.sampleCount);
+    this.track = track;
+    this.compactSampleTable = compactSampleTable;
+    this.compactFirstSampleIndex = firstSampleIndex;
+    this.compactMediaTime = mediaTime;
+    this.clampCompactTimestamps = clampTimestamps;
+    this.durationUs = durationUs;
+    this.sampleCount = sampleCount;
+    if (sampleCount == compactSampleTable.sampleCount) {
+      maximumSize = compactSampleTable.maximumSize;
+    } else {
+      int maximumSize = 0;
+      for (int i = firstSampleIndex; i < firstSampleIndex + sampleCount; i++) {
+        maximumSize = max(maximumSize, compactSampleTable.getSize(i));
+      }
+      this.maximumSize = maximumSize;
+    }
+    offsets = null;
+    sizes = null;
+    timestampsUs = null;
+    flags = null;
+  }
+
+  /** Returns whether sample information is resolved on demand from a {@link CompactSampleTable}. */
+  public boolean isCompact() {
+    return compactSampleTable != null;
+  }
+
+  /** Returns the offset in bytes of the sample at the given index. */
+  public long getOffset(int sampleIndex) {
+    return compactSampleTable != null
+        ? compactSampleTable.getOffset(compactFirstSampleIndex + sampleIndex)
+        : Assertions.checkNotNull(offsets)[sampleIndex];
+  }
+
+  /** Returns the size in bytes of the sample at the given index. */
+  public int getSize(int sampleIndex) {
+    return compactSampleTable != null
+        ? compactSampleTable.getSize(compactFirstSampleIndex + sampleIndex)
+        : Assertions.checkNotNull(sizes)[sampleIndex];
+  }
+
+  /** Returns the timestamp in microseconds of the sample at the given index. */
+  public long getTimestampUs(int sampleIndex) {
+    if (compactSampleTable == null) {
+      return Assertions.checkNotNull(timestampsUs)[sampleIndex];
+    }
+    long timestamp =
+        compactSampleTable.getTimestamp(compactFirstSampleIndex + sampleIndex) - compactMediaTime;
+    if (clampCompactTimestamps) {
+      timestamp = max(0, timestamp);
+    }
+    return Util.scaleLargeTimestamp(timestamp, C.MICROS_PER_SECOND, track.timescale);
+  }
+
+  /** Returns the {@link C.BufferFlags} of the sample at the given index. */
+  public @C.BufferFlags int getFlags(int sampleIndex) {
+    if (compactSampleTable == null) {
+      return Assertions.checkNotNull(flags)[sampleIndex];
+    }
+    @C.BufferFlags
+    int sampleFlags =
+        compactSampleTable.isSynchronizationSample(compactFirstSampleIndex + sampleIndex)
+            ? C.BUFFER_FLAG_KEY_FRAME
+            : 0;
+    if (sampleIndex == sampleCount - 1) {
+      sampleFlags |= C.BUFFER_FLAG_LAST_SAMPLE;
+    }
+    return sampleFlags;
   }
 
   /**
@@ -74,9 +181,9 @@ import com.google.android.exoplayer2.util.Util;
   public int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs) {
     // Video frame timestamps may not be sorted, so the behavior of this call can be undefined.
     // Frames are not reordered past synchronization samples so this works in practice.
-    int startIndex = Util.binarySearchFloor(timestampsUs, timeUs, true, false);
+    int startIndex = binarySearchFloorTimestampUs(timeUs);
     for (int i = startIndex; i >= 0; i--) {
-      if ((flags[i] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+      if ((getFlags(i) & C.BUFFER_FLAG_KEY_FRAME) != 0) {
         return i;
       }
     }
@@ -91,12 +198,59 @@ import com.google.android.exoplayer2.util.Util;
    * @return index Index of the synchronization sample, or {@link C#INDEX_UNSET} if none.
    */
   public int getIndexOfLaterOrEqualSynchronizationSample(long timeUs) {
-    int startIndex = Util.binarySearchCeil(timestampsUs, timeUs, true, false);
-    for (int i = startIndex; i < timestampsUs.length; i++) {
-      if ((flags[i] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+    int startIndex = binarySearchCeilTimestampUs(timeUs);
+    for (int i = startIndex; i < sampleCount; i++) {
+      if ((getFlags(i) & C.BUFFER_FLAG_KEY_FRAME) != 0) {
         return i;
       }
     }
     return C.INDEX_UNSET;
   }
+
+  /**
+   * Equivalent to {@link Util#binarySearchFloor(long[], long, boolean, boolean)} on the sample
+   * timestamps, with {@code inclusive} set and {@code stayInBounds} unset.
+   */
+  private int binarySearchFloorTimestampUs(long timeUs) {
+    int index = binarySearchTimestampUs(timeUs);
+    if (index < 0) {
+      return -(index + 2);
+    }
+    while (--index >= 0 && getTimestampUs(index) == timeUs) {}
+    return index + 1;
+  }
+
+  /**
+   * Equivalent to {@link Util#binarySearchCeil(long[], long, boolean, boolean)} on the sample
+   * timestamps, with {@code inclusive} set and {@code stayInBounds} unset.
+   */
+  private int binarySearchCeilTimestampUs(long timeUs) {
+    int index = binarySearchTimestampUs(timeUs);
+    if (index < 0) {
+      return ~index;
+    }
+    while (++index < sampleCount && getTimestampUs(index) == timeUs) {}
+    return index - 1;
+  }
+
+  /** Equivalent to {@link Arrays#binarySearch(long[], long)} on the sample timestamps. */
+  private int binarySearchTimestampUs(long timeUs) {
+    if (timestampsUs != null) {
+      return Arrays.binarySearch(timestampsUs, timeUs);
+    }
+    int lowIndex = 0;
+    int highIndex = sampleCount - 1;
+    while (lowIndex <= highIndex) {
+      int midIndex = (lowIndex + highIndex) >>> 1;
+      long midTimeUs = getTimestampUs(midIndex);
+      if (midTimeUs < timeUs) {
+        lowIndex = midIndex + 1;
+      } else if (midTimeUs > timeUs) {
+        highIndex = midIndex - 1;
+      } else {
+        return midIndex;
+      }
+    }
+    return -(lowIndex + 1);
+  }
 }
@@ -163,6 +163,14 @@ public final class PsExtractor implements Extractor {
     }
   }
 
+  @Override
+  public void seekToKnownPosition(long position, long timeUs) {
+    seek(position, timeUs);
+    if (psBinarySearchSeeker != null) {
+      psBinarySearchSeeker.cancelSeek();
+    }
+  }
+
   @Override
   public void release() {
     // Do nothing
@@ -290,6 +290,14 @@ public final class TsExtractor implements Extractor {
     bytesSinceLastSync = 0;
   }
 
+  @Override
+  public void seekToKnownPosition(long position, long timeUs) {
+    seek(position, timeUs);
+    if (tsBinarySearchSeeker != null) {
+      tsBinarySearchSeeker.cancelSeek();
+    }
+  }
+
   @Override
   public void release() {
     // Do nothing
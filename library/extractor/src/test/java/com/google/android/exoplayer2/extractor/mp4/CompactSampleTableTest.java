@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor.mp4;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Test for {@link CompactSampleTable}. */
+@RunWith(AndroidJUnit4.class)
+public final class CompactSampleTableTest {
+
+  @Test
+  public void getOffset_withVariableSizes_matchesSumOfPrecedingSizesInChunk() {
+    int sampleCount = 300;
+    int[] sizes = new int[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      sizes[i] = 10 + i % 7;
+    }
+    // A small chunk followed by chunks spanning several stored offsets.
+    long[] chunkOffsets = new long[] {1_000, 50_000, 90_000};
+    int[] chunkFirstSampleIndices = new int[] {0, 3, 200};
+    CompactSampleTable sampleTable =
+        createSampleTable(sampleCount, sizes, chunkOffsets, chunkFirstSampleIndices);
+
+    for (int i = 0; i < sampleCount; i++) {
+      int chunkIndex = i < 3 ? 0 : i < 200 ? 1 : 2;
+      long expectedOffset = chunkOffsets[chunkIndex];
+      for (int j = chunkFirstSampleIndices[chunkIndex]; j < i; j++) {
+        expectedOffset += sizes[j];
+      }
+      assertThat(sampleTable.getOffset(i)).isEqualTo(expectedOffset);
+    }
+  }
+
+  @Test
+  public void getOffset_outOfOrder_matchesSequentialOffsets() {
+    int sampleCount = 500;
+    int[] sizes = new int[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      sizes[i] = 100 + i;
+    }
+    CompactSampleTable sampleTable =
+        createSampleTable(
+            sampleCount,
+            sizes,
+            /* chunkOffsets= */ new long[] {0},
+            /* chunkFirstSampleIndices= */ new int[] {0});
+
+    assertThat(sampleTable.getOffset(499)).isEqualTo(sumOfSizesBefore(sizes, 499));
+    assertThat(sampleTable.getOffset(64)).isEqualTo(sumOfSizesBefore(sizes, 64));
+    assertThat(sampleTable.getOffset(130)).isEqualTo(sumOfSizesBefore(sizes, 130));
+    assertThat(sampleTable.getOffset(63)).isEqualTo(sumOfSizesBefore(sizes, 63));
+    assertThat(sampleTable.getOffset(1)).isEqualTo(100);
+  }
+
+  @Test
+  public void getTimestamp_withMultipleRuns_resolvesRunOfEachSample() {
+    CompactSampleTable sampleTable =
+        new CompactSampleTable(
+            /* sampleCount= */ 6,
+            /* fixedSampleSize= */ 10,
+            /* sizes= */ null,
+            /* chunkOffsets= */ new long[] {0},
+            /* chunkFirstSampleIndices= */ new int[] {0},
+            /* decodeTimeRunFirstSampleIndices= */ new int[] {0, 2, 5},
+            /* decodeTimeRunStartTimes= */ new long[] {0, 200, 500},
+            /* decodeTimeRunDeltas= */ new int[] {100, 100, 50},
+            /* timestampOffsetRunFirstSampleIndices= */ new int[] {0, 1},
+            /* timestampOffsetRunOffsets= */ new int[] {0, 20},
+            /* synchronizationSampleIndices= */ null);
+
+    assertThat(sampleTable.getTimestamp(5)).isEqualTo(520);
+    assertThat(sampleTable.getTimestamp(0)).isEqualTo(0);
+    assertThat(sampleTable.getTimestamp(1)).isEqualTo(120);
+    assertThat(sampleTable.getTimestamp(2)).isEqualTo(220);
+    assertThat(sampleTable.getTimestamp(4)).isEqualTo(420);
+    assertThat(sampleTable.getDuration()).isEqualTo(570);
+  }
+
+  @Test
+  public void binarySearchTimestamp_matchesSearchOfTimestampArray() {
+    CompactSampleTable sampleTable =
+        new CompactSampleTable(
+            /* sampleCount= */ 6,
+            /* fixedSampleSize= */ 10,
+            /* sizes= */ null,
+            /* chunkOffsets= */ new long[] {0},
+            /* chunkFirstSampleIndices= */ new int[] {0},
+            /* decodeTimeRunFirstSampleIndices= */ new int[] {0, 2, 3},
+            /* decodeTimeRunStartTimes= */ new long[] {0, 200, 200},
+            /* decodeTimeRunDeltas= */ new int[] {100, 0, 100},
+            /* timestampOffsetRunFirstSampleIndices= */ new int[0],
+            /* timestampOffsetRunOffsets= */ new int[0],
+            /* synchronizationSampleIndices= */ null);
+    // The timestamps are 0, 100, 200, 200, 300, 400.
+
+    assertThat(
+            sampleTable.binarySearchFloorTimestamp(
+                /* timestamp= */ 250, /* inclusive= */ true, /* stayInBounds= */ true))
+        .isEqualTo(3);
+    assertThat(
+            sampleTable.binarySearchFloorTimestamp(
+                /* timestamp= */ 200, /* inclusive= */ true, /* stayInBounds= */ true))
+        .isEqualTo(2);
+    assertThat(
+            sampleTable.binarySearchFloorTimestamp(
+                /* timestamp= */ -1, /* inclusive= */ true, /* stayInBounds= */ true))
+        .isEqualTo(0);
+    assertThat(
+            sampleTable.binarySearchCeilTimestamp(
+                /* timestamp= */ 200, /* inclusive= */ true, /* stayInBounds= */ false))
+        .isEqualTo(3);
+    assertThat(
+            sampleTable.binarySearchCeilTimestamp(
+                /* timestamp= */ 200, /* inclusive= */ false, /* stayInBounds= */ false))
+        .isEqualTo(4);
+    assertThat(
+            sampleTable.binarySearchCeilTimestamp(
+                /* timestamp= */ 450, /* inclusive= */ false, /* stayInBounds= */ false))
+        .isEqualTo(6);
+  }
+
+  private static long sumOfSizesBefore(int[] sizes, int sampleIndex) {
+    long sum = 0;
+    for (int i = 0; i < sampleIndex; i++) {
+      sum += sizes[i];
+    }
+    return sum;
+  }
+
+  private static CompactSampleTable createSampleTable(
+      int sampleCount, int[] sizes, long[] chunkOffsets, int[] chunkFirstSampleIndices) {
+    return new CompactSampleTable(
+        sampleCount,
+        /* fixedSampleSize= */ C.LENGTH_UNSET,
+        sizes,
+        chunkOffsets,
+        chunkFirstSampleIndices,
+        /* decodeTimeRunFirstSampleIndices= */ new int[] {0},
+        /* decodeTimeRunStartTimes= */ new long[] {0},
+        /* decodeTimeRunDeltas= */ new int[] {1_000},
+        /* timestampOffsetRunFirstSampleIndices= */ new int[0],
+        /* timestampOffsetRunOffsets= */ new int[0],
+        /* synchronizationSampleIndices= */ null);
+  }
+}
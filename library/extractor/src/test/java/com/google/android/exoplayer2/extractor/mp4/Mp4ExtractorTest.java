@@ -16,6 +16,7 @@
 package com.google.android.exoplayer2.extractor.mp4;
 
 import com.google.android.exoplayer2.testutil.ExtractorAsserts;
+import com.google.android.exoplayer2.testutil.ExtractorAsserts.AssertionConfig;
 import com.google.common.collect.ImmutableList;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -39,6 +40,38 @@ public final class Mp4ExtractorTest {
     ExtractorAsserts.assertBehavior(Mp4Extractor::new, "media/mp4/sample.mp4", simulationConfig);
   }
 
+  @Test
+  public void mp4SampleWithCompactSampleTables() throws Exception {
+    ExtractorAsserts.assertBehavior(
+        () -> new Mp4Extractor(Mp4Extractor.FLAG_COMPACT_SAMPLE_TABLES),
+        "media/mp4/sample.mp4",
+        new AssertionConfig.Builder().setDumpFilesPrefix("extractordumps/mp4/sample.mp4").build(),
+        simulationConfig);
+  }
+
+  @Test
+  public void mp4SampleWithAc3TrackAndCompactSampleTables() throws Exception {
+    ExtractorAsserts.assertBehavior(
+        () -> new Mp4Extractor(Mp4Extractor.FLAG_COMPACT_SAMPLE_TABLES),
+        "media/mp4/sample_ac3.mp4",
+        new AssertionConfig.Builder()
+            .setDumpFilesPrefix("extractordumps/mp4/sample_ac3.mp4")
+            .build(),
+        simulationConfig);
+  }
+
+  /** The Opus track has an edit list that removes samples from the start of the track. */
+  @Test
+  public void mp4SampleWithOpusTrackAndCompactSampleTables() throws Exception {
+    ExtractorAsserts.assertBehavior(
+        () -> new Mp4Extractor(Mp4Extractor.FLAG_COMPACT_SAMPLE_TABLES),
+        "media/mp4/sample_opus.mp4",
+        new AssertionConfig.Builder()
+            .setDumpFilesPrefix("extractordumps/mp4/sample_opus.mp4")
+            .build(),
+        simulationConfig);
+  }
+
   @Test
   public void mp4SampleWithSlowMotionMetadata() throws Exception {
     ExtractorAsserts.assertBehavior(
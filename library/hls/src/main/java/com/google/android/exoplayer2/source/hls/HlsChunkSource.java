@@ -41,6 +41,7 @@ import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Segmen
 import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistTracker;
 import com.google.android.exoplayer2.trackselection.BaseTrackSelection;
 import com.google.android.exoplayer2.trackselection.ExoTrackSelection;
+import com.google.android.exoplayer2.upstream.Allocator;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.TransferListener;
@@ -130,6 +131,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   @Nullable private final List<Format> muxedCaptionFormats;
   private final FullSegmentEncryptionKeyCache keyCache;
   private final PlayerId playerId;
+  @Nullable private final HlsSegmentPrefetcher segmentPrefetcher;
 
   private boolean isTimestampMaster;
   private byte[] scratchSpace;
@@ -160,6 +162,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
    *     provider.
    * @param muxedCaptionFormats List of muxed caption {@link Format}s. Null if no closed caption
    *     information is available in the multivariant playlist.
+   * @param playerId The {@link PlayerId} of the player using this chunk source.
    */
   public HlsChunkSource(
       HlsExtractorFactory extractorFactory,
@@ -171,6 +174,54 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       TimestampAdjusterProvider timestampAdjusterProvider,
       @Nullable List<Format> muxedCaptionFormats,
       PlayerId playerId) {
+    this(
+        extractorFactory,
+        playlistTracker,
+        playlistUrls,
+        playlistFormats,
+        dataSourceFactory,
+        mediaTransferListener,
+        timestampAdjusterProvider,
+        muxedCaptionFormats,
+        playerId,
+        /* allocator= */ null,
+        /* segmentPrefetchCount= */ 0);
+  }
+
+  /**
+   * @param extractorFactory An {@link HlsExtractorFactory} from which to obtain the extractors for
+   *     media chunks.
+   * @param playlistTracker The {@link HlsPlaylistTracker} from which to obtain media playlists.
+   * @param playlistUrls The {@link Uri}s of the media playlists that can be adapted between by this
+   *     chunk source.
+   * @param playlistFormats The {@link Format Formats} corresponding to the media playlists.
+   * @param dataSourceFactory An {@link HlsDataSourceFactory} to create {@link DataSource}s for the
+   *     chunks.
+   * @param mediaTransferListener The transfer listener which should be informed of any media data
+   *     transfers. May be null if no listener is available.
+   * @param timestampAdjusterProvider A provider of {@link TimestampAdjuster} instances. If multiple
+   *     {@link HlsChunkSource}s are used for a single playback, they should all share the same
+   *     provider.
+   * @param muxedCaptionFormats List of muxed caption {@link Format}s. Null if no closed caption
+   *     information is available in the multivariant playlist.
+   * @param playerId The {@link PlayerId} of the player using this chunk source.
+   * @param allocator The {@link Allocator} from which to obtain the memory that holds prefetched
+   *     media segments. May be null if {@code segmentPrefetchCount} is 0.
+   * @param segmentPrefetchCount The maximum number of media segments following the one being loaded
+   *     that are loaded in parallel with it, or 0 to load segments one at a time.
+   */
+  public HlsChunkSource(
+      HlsExtractorFactory extractorFactory,
+      HlsPlaylistTracker playlistTracker,
+      Uri[] playlistUrls,
+      Format[] playlistFormats,
+      HlsDataSourceFactory dataSourceFactory,
+      @Nullable TransferListener mediaTransferListener,
+      TimestampAdjusterProvider timestampAdjusterProvider,
+      @Nullable List<Format> muxedCaptionFormats,
+      PlayerId playerId,
+      @Nullable Allocator allocator,
+      int segmentPrefetchCount) {
     this.extractorFactory = extractorFactory;
     this.playlistTracker = playlistTracker;
     this.playlistUrls = playlistUrls;
@@ -181,10 +232,22 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     keyCache = new FullSegmentEncryptionKeyCache(KEY_CACHE_SIZE);
     scratchSpace = Util.EMPTY_BYTE_ARRAY;
     liveEdgeInPeriodTimeUs = C.TIME_UNSET;
-    mediaDataSource = dataSourceFactory.createDataSource(C.DATA_TYPE_MEDIA);
+    DataSource mediaDataSource = dataSourceFactory.createDataSource(C.DATA_TYPE_MEDIA);
     if (mediaTransferListener != null) {
       mediaDataSource.addTransferListener(mediaTransferListener);
     }
+    if (segmentPrefetchCount > 0) {
+      segmentPrefetcher =
+          new HlsSegmentPrefetcher(
+              dataSourceFactory,
+              mediaTransferListener,
+              checkNotNull(allocator),
+              segmentPrefetchCount);
+      mediaDataSource = segmentPrefetcher.createDataSource(mediaDataSource);
+    } else {
+      segmentPrefetcher = null;
+    }
+    this.mediaDataSource = mediaDataSource;
     encryptionDataSource = dataSourceFactory.createDataSource(C.DATA_TYPE_DRM);
     trackGroup = new TrackGroup(playlistFormats);
     // Use only non-trickplay variants for preparation. See [Internal ref: b/161529098].
@@ -237,6 +300,13 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     fatalError = null;
   }
 
+  /** Releases the source, canceling any segment prefetches. */
+  public void release() {
+    if (segmentPrefetcher != null) {
+      segmentPrefetcher.release();
+    }
+  }
+
   /**
    * Sets whether this chunk source is responsible for initializing timestamp adjusters.
    *
@@ -512,6 +582,37 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
             /* initSegmentKey= */ keyCache.get(initSegmentKeyUri),
             shouldSpliceIn,
             playerId);
+    if (segmentPrefetcher != null) {
+      segmentPrefetcher.update(
+          out.chunk.dataSpec,
+          getUpcomingSegmentDataSpecs(
+              playlist, segmentBaseHolder, segmentPrefetcher.getMaxPrefetchCount()));
+    }
+  }
+
+  /**
+   * Returns the {@link DataSpec DataSpecs} of up to {@code maxCount} full media segments following
+   * the given one in the playlist, or an empty list if the given segment base is a part or a
+   * preload hint.
+   */
+  private static List<DataSpec> getUpcomingSegmentDataSpecs(
+      HlsMediaPlaylist playlist, SegmentBaseHolder segmentBaseHolder, int maxCount) {
+    List<DataSpec> dataSpecs = new ArrayList<>();
+    if (segmentBaseHolder.partIndex != C.INDEX_UNSET || segmentBaseHolder.isPreload) {
+      // Parts are loaded as soon as they're published, so there's nothing to prefetch.
+      return dataSpecs;
+    }
+    int segmentIndexInPlaylist = (int) (segmentBaseHolder.mediaSequence - playlist.mediaSequence);
+    for (int i = segmentIndexInPlaylist + 1;
+        i < playlist.segments.size() && dataSpecs.size() < maxCount;
+        i++) {
+      Segment segment = playlist.segments.get(i);
+      if (!segment.hasGapTag) {
+        dataSpecs.add(
+            HlsMediaChunk.createMediaSegmentDataSpec(playlist, segment, /* isPreload= */ false));
+      }
+    }
+    return dataSpecs;
   }
 
   @Nullable
@@ -799,10 +900,39 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
             previous.partIndex == C.INDEX_UNSET
                 ? previous.getNextChunkIndex()
                 : previous.chunkIndex,
-            previous.partIndex == C.INDEX_UNSET ? C.INDEX_UNSET : previous.partIndex + 1)
+            previous.partIndex == C.INDEX_UNSET
+                ? C.INDEX_UNSET
+                : getNextPartIndex(previous, mediaPlaylist))
         : new Pair<>(previous.chunkIndex, previous.partIndex));
   }
 
+  /**
+   * Returns the index of the part to load after a completely loaded part, skipping the parts that
+   * were loaded along with it by an unbounded byte range request.
+   */
+  private static int getNextPartIndex(HlsMediaChunk previous, HlsMediaPlaylist mediaPlaylist) {
+    int nextPartIndex = previous.partIndex + 1;
+    if (previous.dataSpec.length != C.LENGTH_UNSET) {
+      return nextPartIndex;
+    }
+    int segmentIndexInPlaylist = (int) (previous.chunkIndex - mediaPlaylist.mediaSequence);
+    if (segmentIndexInPlaylist < 0 || segmentIndexInPlaylist > mediaPlaylist.segments.size()) {
+      return nextPartIndex;
+    }
+    List<HlsMediaPlaylist.Part> parts =
+        segmentIndexInPlaylist < mediaPlaylist.segments.size()
+            ? mediaPlaylist.segments.get(segmentIndexInPlaylist).parts
+            : mediaPlaylist.trailingParts;
+    // An unbounded request loads the resource to its end, which includes all following parts that
+    // are byte ranges of the same resource.
+    while (nextPartIndex < parts.size()
+        && previous.dataSpec.uri.equals(
+            UriUtil.resolveToUri(mediaPlaylist.baseUri, parts.get(nextPartIndex).url))) {
+      nextPartIndex++;
+    }
+    return nextPartIndex;
+  }
+
   private long resolveTimeToLiveEdgeUs(long playbackPositionUs) {
     final boolean resolveTimeToLiveEdgePossible = liveEdgeInPeriodTimeUs != C.TIME_UNSET;
     return resolveTimeToLiveEdgePossible
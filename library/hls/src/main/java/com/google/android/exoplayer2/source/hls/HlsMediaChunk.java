@@ -97,12 +97,7 @@ import org.checkerframework.checker.nullness.qual.RequiresNonNull;
     // Media segment.
     HlsMediaPlaylist.SegmentBase mediaSegment = segmentBaseHolder.segmentBase;
     DataSpec dataSpec =
-        new DataSpec.Builder()
-            .setUri(UriUtil.resolveToUri(mediaPlaylist.baseUri, mediaSegment.url))
-            .setPosition(mediaSegment.byteRangeOffset)
-            .setLength(mediaSegment.byteRangeLength)
-            .setFlags(segmentBaseHolder.isPreload ? FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED : 0)
-            .build();
+        createMediaSegmentDataSpec(mediaPlaylist, mediaSegment, segmentBaseHolder.isPreload);
     boolean mediaSegmentEncrypted = mediaSegmentKey != null;
     @Nullable
     byte[] mediaSegmentIv =
@@ -190,6 +185,26 @@ import org.checkerframework.checker.nullness.qual.RequiresNonNull;
         playerId);
   }
 
+  /**
+   * Creates the {@link DataSpec} from which the data of a media segment or part is loaded.
+   *
+   * @param mediaPlaylist The media playlist containing the segment.
+   * @param mediaSegment The segment or part.
+   * @param isPreload Whether the segment or part is based on a preload hint.
+   * @return The {@link DataSpec}.
+   */
+  /* package */ static DataSpec createMediaSegmentDataSpec(
+      HlsMediaPlaylist mediaPlaylist,
+      HlsMediaPlaylist.SegmentBase mediaSegment,
+      boolean isPreload) {
+    return new DataSpec.Builder()
+        .setUri(UriUtil.resolveToUri(mediaPlaylist.baseUri, mediaSegment.url))
+        .setPosition(mediaSegment.byteRangeOffset)
+        .setLength(mediaSegment.byteRangeLength)
+        .setFlags(isPreload ? FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED : 0)
+        .build();
+  }
+
   /**
    * Returns whether samples of a new HLS media chunk should be spliced into existing samples.
    *
@@ -81,6 +81,7 @@ public final class HlsMediaPeriod
   private final boolean allowChunklessPreparation;
   private final @HlsMediaSource.MetadataType int metadataType;
   private final boolean useSessionKeys;
+  private final int segmentPrefetchCount;
   private final PlayerId playerId;
 
   @Nullable private Callback callback;
@@ -111,6 +112,8 @@ public final class HlsMediaPeriod
    *     SequenceableLoader}s for when this media source loads data from multiple streams.
    * @param allowChunklessPreparation Whether chunkless preparation is allowed.
    * @param useSessionKeys Whether to use #EXT-X-SESSION-KEY tags.
+   * @param segmentPrefetchCount The maximum number of media segments to load in parallel with the
+   *     segment being loaded, or 0 to load segments one at a time.
    */
   public HlsMediaPeriod(
       HlsExtractorFactory extractorFactory,
@@ -126,6 +129,7 @@ public final class HlsMediaPeriod
       boolean allowChunklessPreparation,
       @HlsMediaSource.MetadataType int metadataType,
       boolean useSessionKeys,
+      int segmentPrefetchCount,
       PlayerId playerId) {
     this.extractorFactory = extractorFactory;
     this.playlistTracker = playlistTracker;
@@ -140,6 +144,7 @@ public final class HlsMediaPeriod
     this.allowChunklessPreparation = allowChunklessPreparation;
     this.metadataType = metadataType;
     this.useSessionKeys = useSessionKeys;
+    this.segmentPrefetchCount = segmentPrefetchCount;
     this.playerId = playerId;
     compositeSequenceableLoader =
         compositeSequenceableLoaderFactory.createCompositeSequenceableLoader();
@@ -804,7 +809,9 @@ public final class HlsMediaPeriod
             mediaTransferListener,
             timestampAdjusterProvider,
             muxedCaptionFormats,
-            playerId);
+            playerId,
+            allocator,
+            segmentPrefetchCount);
     return new HlsSampleStreamWrapper(
         uid,
         trackType,
@@ -15,6 +15,7 @@
  */
 package com.google.android.exoplayer2.source.hls;
 
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
 import static com.google.android.exoplayer2.util.Assertions.checkNotNull;
 import static java.lang.annotation.ElementType.TYPE_USE;
 import static java.lang.annotation.RetentionPolicy.SOURCE;
@@ -107,6 +108,7 @@ public final class HlsMediaSource extends BaseMediaSource
     private boolean allowChunklessPreparation;
     private @MetadataType int metadataType;
     private boolean useSessionKeys;
+    private int segmentPrefetchCount;
     private long elapsedRealTimeOffsetMs;
 
     /**
@@ -289,6 +291,27 @@ public final class HlsMediaSource extends BaseMediaSource
       return this;
     }
 
+    /**
+     * Sets the maximum number of media segments that are prefetched while a segment is being
+     * loaded. The default value is {@code 0}, which means that segments are loaded one at a time.
+     *
+     * <p>Prefetched segments are loaded in parallel into memory, using their own {@link DataSource
+     * DataSources}. The memory holding prefetched data is obtained from the player's {@link
+     * com.google.android.exoplayer2.upstream.Allocator}, so it counts towards the buffer size
+     * limits of the {@link com.google.android.exoplayer2.LoadControl}. Prefetches are canceled when
+     * a different track is selected. Setting a value greater than zero can improve throughput on
+     * connections with high latency, at the cost of more data being discarded when switching
+     * tracks.
+     *
+     * @param segmentPrefetchCount The maximum number of segments to prefetch.
+     * @return This factory, for convenience.
+     */
+    public Factory setSegmentPrefetchCount(int segmentPrefetchCount) {
+      checkArgument(segmentPrefetchCount >= 0);
+      this.segmentPrefetchCount = segmentPrefetchCount;
+      return this;
+    }
+
     @Override
     public Factory setDrmSessionManagerProvider(
         DrmSessionManagerProvider drmSessionManagerProvider) {
@@ -344,7 +367,8 @@ public final class HlsMediaSource extends BaseMediaSource
           elapsedRealTimeOffsetMs,
           allowChunklessPreparation,
           metadataType,
-          useSessionKeys);
+          useSessionKeys,
+          segmentPrefetchCount);
     }
 
     @Override
@@ -362,6 +386,7 @@ public final class HlsMediaSource extends BaseMediaSource
   private final boolean allowChunklessPreparation;
   private final @MetadataType int metadataType;
   private final boolean useSessionKeys;
+  private final int segmentPrefetchCount;
   private final HlsPlaylistTracker playlistTracker;
   private final long elapsedRealTimeOffsetMs;
   private final MediaItem mediaItem;
@@ -380,7 +405,8 @@ public final class HlsMediaSource extends BaseMediaSource
       long elapsedRealTimeOffsetMs,
       boolean allowChunklessPreparation,
       @MetadataType int metadataType,
-      boolean useSessionKeys) {
+      boolean useSessionKeys,
+      int segmentPrefetchCount) {
     this.localConfiguration = checkNotNull(mediaItem.localConfiguration);
     this.mediaItem = mediaItem;
     this.liveConfiguration = mediaItem.liveConfiguration;
@@ -394,6 +420,7 @@ public final class HlsMediaSource extends BaseMediaSource
     this.allowChunklessPreparation = allowChunklessPreparation;
     this.metadataType = metadataType;
     this.useSessionKeys = useSessionKeys;
+    this.segmentPrefetchCount = segmentPrefetchCount;
   }
 
   @Override
@@ -436,6 +463,7 @@ public final class HlsMediaSource extends BaseMediaSource
         allowChunklessPreparation,
         metadataType,
         useSessionKeys,
+        segmentPrefetchCount,
         getPlayerId());
   }
 
@@ -545,6 +545,7 @@ import org.checkerframework.checker.nullness.qual.RequiresNonNull;
       }
     }
     loader.release(this);
+    chunkSource.release();
     handler.removeCallbacksAndMessages(null);
     released = true;
     hlsSampleStreams.clear();
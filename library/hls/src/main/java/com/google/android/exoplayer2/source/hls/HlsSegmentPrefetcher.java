@@ -0,0 +1,499 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls;
+
+import static com.google.android.exoplayer2.util.Assertions.checkNotNull;
+import static java.lang.Math.min;
+
+import android.net.Uri;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.Allocation;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceUtil;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads upcoming media segments in parallel with the segment that's currently being loaded by an
+ * {@link HlsChunkSource}.
+ *
+ * <p>Each prefetch is loaded by its own {@link DataSource}, which reports the transfer to the media
+ * {@link TransferListener}, so that bandwidth estimation sees the concurrent network transfers. The
+ * loaded data is held in memory obtained from the player's {@link Allocator} until it's read
+ * through a data source obtained from {@link #createDataSource(DataSource)}, so that it counts
+ * towards the buffer size limits of the {@link com.google.android.exoplayer2.LoadControl}. Reads
+ * that don't match a prefetch are passed to the upstream data source.
+ */
+/* package */ final class HlsSegmentPrefetcher {
+
+  private static final String THREAD_NAME = "ExoPlayer:HlsSegmentPrefetcher";
+
+  private final HlsDataSourceFactory dataSourceFactory;
+  @Nullable private final TransferListener mediaTransferListener;
+  private final Allocator allocator;
+  private final int maxPrefetchCount;
+  private final ExecutorService executorService;
+
+  @GuardedBy("this")
+  private final List<Prefetch> prefetches;
+
+  @GuardedBy("this")
+  private boolean released;
+
+  /**
+   * Creates an instance.
+   *
+   * @param dataSourceFactory The {@link HlsDataSourceFactory} from which to obtain the {@link
+   *     DataSource DataSources} that load the prefetched segments.
+   * @param mediaTransferListener The transfer listener which should be informed of the media data
+   *     transfers of the prefetches. May be null if no listener is available.
+   * @param allocator The {@link Allocator} from which to obtain the memory that holds the
+   *     prefetched data.
+   * @param maxPrefetchCount The maximum number of segments that are prefetched at the same time.
+   */
+  public HlsSegmentPrefetcher(
+      HlsDataSourceFactory dataSourceFactory,
+      @Nullable TransferListener mediaTransferListener,
+      Allocator allocator,
+      int maxPrefetchCount) {
+    this.dataSourceFactory = dataSourceFactory;
+    this.mediaTransferListener = mediaTransferListener;
+    this.allocator = allocator;
+    this.maxPrefetchCount = maxPrefetchCount;
+    executorService =
+        Executors.newFixedThreadPool(
+            maxPrefetchCount,
+            runnable -> {
+              Thread thread = new Thread(runnable, THREAD_NAME);
+              thread.setDaemon(true);
+              return thread;
+            });
+    prefetches = new ArrayList<>();
+  }
+
+  /** Returns the maximum number of segments that are prefetched at the same time. */
+  public int getMaxPrefetchCount() {
+    return maxPrefetchCount;
+  }
+
+  /**
+   * Returns a {@link DataSource} that serves reads from the prefetched data where possible, and
+   * passes all other reads to {@code upstream}.
+   *
+   * @param upstream The upstream {@link DataSource}.
+   * @return The {@link DataSource}.
+   */
+  public DataSource createDataSource(DataSource upstream) {
+    return new PrefetchingDataSource(upstream);
+  }
+
+  /**
+   * Updates the segments that should be prefetched.
+   *
+   * <p>Prefetches that are neither for the {@code currentDataSpec} nor for one of the {@code
+   * upcomingDataSpecs} are canceled, for example because the track selection has changed. Missing
+   * prefetches for the first {@code maxPrefetchCount} upcoming data specs are started.
+   *
+   * @param currentDataSpec The {@link DataSpec} of the segment that's about to be loaded.
+   * @param upcomingDataSpecs The {@link DataSpec DataSpecs} of the segments that follow, in the
+   *     order in which they will be loaded.
+   */
+  public synchronized void update(DataSpec currentDataSpec, List<DataSpec> upcomingDataSpecs) {
+    if (released) {
+      return;
+    }
+    List<DataSpec> wantedDataSpecs = new ArrayList<>();
+    wantedDataSpecs.add(currentDataSpec);
+    wantedDataSpecs.addAll(
+        upcomingDataSpecs.subList(0, min(maxPrefetchCount, upcomingDataSpecs.size())));
+    for (int i = prefetches.size() - 1; i >= 0; i--) {
+      Prefetch prefetch = prefetches.get(i);
+      if (!containsEqualRange(wantedDataSpecs, prefetch.dataSpec)) {
+        prefetch.cancel();
+        prefetches.remove(i);
+      }
+    }
+    for (int i = 1; i < wantedDataSpecs.size(); i++) {
+      DataSpec dataSpec = wantedDataSpecs.get(i);
+      if (!containsPrefetchFor(dataSpec)) {
+        DataSource dataSource = dataSourceFactory.createDataSource(C.DATA_TYPE_MEDIA);
+        if (mediaTransferListener != null) {
+          dataSource.addTransferListener(mediaTransferListener);
+        }
+        Prefetch prefetch = new Prefetch(dataSpec, dataSource, allocator);
+        prefetch.setFuture(executorService.submit(prefetch));
+        prefetches.add(prefetch);
+      }
+    }
+  }
+
+  /** Cancels all prefetches and releases the loading threads. */
+  public synchronized void release() {
+    released = true;
+    for (int i = 0; i < prefetches.size(); i++) {
+      prefetches.get(i).cancel();
+    }
+    prefetches.clear();
+    executorService.shutdown();
+  }
+
+  /**
+   * Removes and returns a usable prefetch covering the start of the given {@link DataSpec}, or null
+   * if there's none.
+   */
+  @Nullable
+  private synchronized Prefetch takePrefetch(DataSpec dataSpec) {
+    for (int i = 0; i < prefetches.size(); i++) {
+      Prefetch prefetch = prefetches.get(i);
+      if (covers(prefetch.dataSpec, dataSpec)) {
+        prefetches.remove(i);
+        if (prefetch.isFailed()) {
+          // Let the upstream data source retry the load, so that errors are handled as usual.
+          prefetch.cancel();
+          return null;
+        }
+        return prefetch;
+      }
+    }
+    return null;
+  }
+
+  @GuardedBy("this")
+  private boolean containsPrefetchFor(DataSpec dataSpec) {
+    for (int i = 0; i < prefetches.size(); i++) {
+      if (isEqualRange(prefetches.get(i).dataSpec, dataSpec)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean containsEqualRange(List<DataSpec> dataSpecs, DataSpec dataSpec) {
+    for (int i = 0; i < dataSpecs.size(); i++) {
+      if (isEqualRange(dataSpecs.get(i), dataSpec)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isEqualRange(DataSpec dataSpec, DataSpec other) {
+    return dataSpec.uri.equals(other.uri)
+        && dataSpec.position == other.position
+        && dataSpec.length == other.length;
+  }
+
+  /** Returns whether {@code prefetched} contains the whole range requested by {@code request}. */
+  private static boolean covers(DataSpec prefetched, DataSpec request) {
+    if (!prefetched.uri.equals(request.uri) || request.position < prefetched.position) {
+      return false;
+    }
+    if (prefetched.length == C.LENGTH_UNSET) {
+      return true;
+    }
+    long prefetchedEnd = prefetched.position + prefetched.length;
+    return request.length == C.LENGTH_UNSET
+        ? request.position < prefetchedEnd
+        : request.position + request.length <= prefetchedEnd;
+  }
+
+  /**
+   * A segment that's loaded into {@link Allocation Allocations} by a loading thread. The
+   * allocations are released when the prefetch is canceled, once the loading thread no longer
+   * writes to them.
+   */
+  private static final class Prefetch implements Runnable {
+
+    public final DataSpec dataSpec;
+
+    private final DataSource dataSource;
+    private final Allocator allocator;
+    private final int allocationLength;
+
+    @GuardedBy("this")
+    private final ArrayList<Allocation> allocations;
+
+    @GuardedBy("this")
+    private long size;
+
+    @GuardedBy("this")
+    @Nullable
+    private Uri uri;
+
+    @GuardedBy("this")
+    private boolean loading;
+
+    @GuardedBy("this")
+    private boolean ended;
+
+    @GuardedBy("this")
+    private boolean canceled;
+
+    @GuardedBy("this")
+    @Nullable
+    private IOException error;
+
+    @GuardedBy("this")
+    @Nullable
+    private Future<?> future;
+
+    public Prefetch(DataSpec dataSpec, DataSource dataSource, Allocator allocator) {
+      this.dataSpec = dataSpec;
+      this.dataSource = dataSource;
+      this.allocator = allocator;
+      allocationLength = allocator.getIndividualAllocationLength();
+      allocations = new ArrayList<>();
+    }
+
+    @Override
+    public void run() {
+      try {
+        synchronized (this) {
+          if (canceled) {
+            return;
+          }
+          loading = true;
+        }
+        dataSource.open(dataSpec);
+        synchronized (this) {
+          uri = dataSource.getUri();
+        }
+        while (true) {
+          Allocation allocation;
+          int offsetInAllocation;
+          synchronized (this) {
+            if (canceled) {
+              return;
+            }
+            if (size == (long) allocations.size() * allocationLength) {
+              allocations.add(allocator.allocate());
+            }
+            allocation = allocations.get(allocations.size() - 1);
+            offsetInAllocation = (int) (size % allocationLength);
+          }
+          // Only the loading thread writes to the allocations, and only after the data read so far.
+          int bytesRead =
+              dataSource.read(
+                  allocation.data,
+                  allocation.offset + offsetInAllocation,
+                  allocationLength - offsetInAllocation);
+          synchronized (this) {
+            if (bytesRead == C.RESULT_END_OF_INPUT) {
+              ended = true;
+              onLoadingFinished();
+              notifyAll();
+              return;
+            }
+            size += bytesRead;
+            notifyAll();
+          }
+        }
+      } catch (IOException e) {
+        synchronized (this) {
+          error = e;
+          notifyAll();
+        }
+      } finally {
+        DataSourceUtil.closeQuietly(dataSource);
+        synchronized (this) {
+          onLoadingFinished();
+        }
+      }
+    }
+
+    public synchronized void setFuture(Future<?> future) {
+      this.future = future;
+    }
+
+    public synchronized void cancel() {
+      canceled = true;
+      if (future != null) {
+        future.cancel(/* mayInterruptIfRunning= */ true);
+      }
+      if (!loading) {
+        releaseAllocations();
+      }
+      notifyAll();
+    }
+
+    public synchronized boolean isFailed() {
+      return error != null || canceled;
+    }
+
+    @Nullable
+    public synchronized Uri getUri() {
+      return uri;
+    }
+
+    /**
+     * Reads prefetched data, blocking until it's available.
+     *
+     * @param position The position from which to read, relative to the start of the prefetch.
+     * @param buffer The buffer into which the data should be read.
+     * @param offset The start offset into {@code buffer}.
+     * @param length The maximum number of bytes to read.
+     * @return The number of bytes read, or {@link C#RESULT_END_OF_INPUT}.
+     * @throws IOException If the prefetch failed or was canceled, or if the thread was interrupted.
+     */
+    public synchronized int read(long position, byte[] buffer, int offset, int length)
+        throws IOException {
+      try {
+        while (position >= size && !ended && error == null && !canceled) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      if (canceled) {
+        throw new InterruptedIOException();
+      } else if (position < size) {
+        Allocation allocation = allocations.get((int) (position / allocationLength));
+        int offsetInAllocation = (int) (position % allocationLength);
+        int bytesRead =
+            (int) min(min(length, size - position), allocationLength - offsetInAllocation);
+        System.arraycopy(
+            allocation.data, allocation.offset + offsetInAllocation, buffer, offset, bytesRead);
+        return bytesRead;
+      } else if (error != null) {
+        throw error;
+      }
+      return C.RESULT_END_OF_INPUT;
+    }
+
+    @GuardedBy("this")
+    private void onLoadingFinished() {
+      if (loading) {
+        loading = false;
+        if (canceled) {
+          releaseAllocations();
+        }
+      }
+    }
+
+    @GuardedBy("this")
+    private void releaseAllocations() {
+      for (int i = 0; i < allocations.size(); i++) {
+        allocator.release(allocations.get(i));
+      }
+      allocations.clear();
+    }
+  }
+
+  /** Serves reads from a matching {@link Prefetch}, or from the upstream {@link DataSource}. */
+  private final class PrefetchingDataSource implements DataSource {
+
+    private final DataSource upstream;
+
+    @Nullable private Prefetch openPrefetch;
+    @Nullable private DataSource openUpstream;
+    private long readPosition;
+    private long bytesRemaining;
+
+    public PrefetchingDataSource(DataSource upstream) {
+      this.upstream = upstream;
+    }
+
+    @Override
+    public void addTransferListener(TransferListener transferListener) {
+      upstream.addTransferListener(transferListener);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      @Nullable Prefetch prefetch = takePrefetch(dataSpec);
+      if (prefetch == null) {
+        openUpstream = upstream;
+        return upstream.open(dataSpec);
+      }
+      openPrefetch = prefetch;
+      readPosition = dataSpec.position - prefetch.dataSpec.position;
+      if (dataSpec.length != C.LENGTH_UNSET) {
+        bytesRemaining = dataSpec.length;
+      } else if (prefetch.dataSpec.length != C.LENGTH_UNSET) {
+        bytesRemaining = prefetch.dataSpec.length - readPosition;
+      } else {
+        bytesRemaining = C.LENGTH_UNSET;
+      }
+      return bytesRemaining;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (openPrefetch == null) {
+        return checkNotNull(openUpstream).read(buffer, offset, length);
+      }
+      if (length == 0) {
+        return 0;
+      } else if (bytesRemaining == 0) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesToRead =
+          bytesRemaining == C.LENGTH_UNSET ? length : (int) min(bytesRemaining, length);
+      int bytesRead = openPrefetch.read(readPosition, buffer, offset, bytesToRead);
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      readPosition += bytesRead;
+      if (bytesRemaining != C.LENGTH_UNSET) {
+        bytesRemaining -= bytesRead;
+      }
+      return bytesRead;
+    }
+
+    @Override
+    @Nullable
+    public Uri getUri() {
+      if (openPrefetch != null) {
+        @Nullable Uri uri = openPrefetch.getUri();
+        return uri != null ? uri : openPrefetch.dataSpec.uri;
+      }
+      return openUpstream != null ? openUpstream.getUri() : null;
+    }
+
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+      return openUpstream != null ? openUpstream.getResponseHeaders() : Collections.emptyMap();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (openPrefetch != null) {
+        openPrefetch.cancel();
+        openPrefetch = null;
+      }
+      if (openUpstream != null) {
+        try {
+          openUpstream.close();
+        } finally {
+          openUpstream = null;
+        }
+      }
+    }
+  }
+}
@@ -21,15 +21,40 @@ import com.google.android.exoplayer2.upstream.ParsingLoadable;
 /** Default implementation for {@link HlsPlaylistParserFactory}. */
 public final class DefaultHlsPlaylistParserFactory implements HlsPlaylistParserFactory {
 
+  private final boolean parseUnboundedPreloadHints;
+
+  /** Creates an instance that ignores preload hints for unbounded byte ranges. */
+  public DefaultHlsPlaylistParserFactory() {
+    this(/* parseUnboundedPreloadHints= */ false);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param parseUnboundedPreloadHints Whether media playlists are parsed with preload hints for
+   *     unbounded byte ranges. For low latency streams whose parts are byte ranges of their
+   *     segment, this allows loading the remainder of each segment with a single request that the
+   *     server keeps open while it produces the parts, rather than with one request per part. See
+   *     {@link HlsPlaylistParser#HlsPlaylistParser(HlsMultivariantPlaylist, HlsMediaPlaylist,
+   *     boolean)}.
+   */
+  public DefaultHlsPlaylistParserFactory(boolean parseUnboundedPreloadHints) {
+    this.parseUnboundedPreloadHints = parseUnboundedPreloadHints;
+  }
+
   @Override
   public ParsingLoadable.Parser<HlsPlaylist> createPlaylistParser() {
-    return new HlsPlaylistParser();
+    return new HlsPlaylistParser(
+        HlsMultivariantPlaylist.EMPTY,
+        /* previousMediaPlaylist= */ null,
+        parseUnboundedPreloadHints);
   }
 
   @Override
   public ParsingLoadable.Parser<HlsPlaylist> createPlaylistParser(
       HlsMultivariantPlaylist multivariantPlaylist,
       @Nullable HlsMediaPlaylist previousMediaPlaylist) {
-    return new HlsPlaylistParser(multivariantPlaylist, previousMediaPlaylist);
+    return new HlsPlaylistParser(
+        multivariantPlaylist, previousMediaPlaylist, parseUnboundedPreloadHints);
   }
 }
@@ -792,13 +792,25 @@ public final class DefaultHlsPlaylistTracker
           uriBuilder.appendQueryParameter(BLOCK_PART_PARAM, String.valueOf(targetPartIndex));
         }
       }
-      if (playlistSnapshot.serverControl.skipUntilUs != C.TIME_UNSET) {
+      if (canRequestDeltaUpdate()) {
         uriBuilder.appendQueryParameter(
             SKIP_PARAM, playlistSnapshot.serverControl.canSkipDateRanges ? "v2" : "YES");
       }
       return uriBuilder.build();
     }
 
+    /**
+     * Returns whether a delta update may be requested. As per RFC 8216bis, section 6.2.5.1, this
+     * requires a snapshot that is no older than half of the skip boundary.
+     */
+    private boolean canRequestDeltaUpdate() {
+      if (playlistSnapshot == null || playlistSnapshot.serverControl.skipUntilUs == C.TIME_UNSET) {
+        return false;
+      }
+      long snapshotAgeMs = SystemClock.elapsedRealtime() - lastSnapshotLoadMs;
+      return snapshotAgeMs < Util.usToMs(playlistSnapshot.serverControl.skipUntilUs) / 2;
+    }
+
     /**
      * Excludes the playlist.
      *
@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls.playlist;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Joiner;
+
+/**
+ * Finds attribute values in HLS playlist lines without using regular expressions.
+ *
+ * <p>Each matcher is equivalent to a regular expression with a single capturing group, which is
+ * returned by {@link #toString()}. {@link #find(String)} returns the value that {@code
+ * Matcher.find()} followed by {@code Matcher.group(1)} would return for that expression.
+ */
+/* package */ abstract class HlsAttributeMatcher {
+
+  private static final String LINE_TERMINATORS = "\n\r\u0085\u2028\u2029";
+
+  private final String prefix;
+  private final String pattern;
+
+  private HlsAttributeMatcher(String prefix, String pattern) {
+    this.prefix = prefix;
+    this.pattern = pattern;
+  }
+
+  /**
+   * Returns a matcher for a quoted string, equivalent to {@code prefix"(.+?)"}.
+   *
+   * @param prefix The literal text preceding the quoted value, for example {@code URI=}.
+   */
+  public static HlsAttributeMatcher quotedString(String prefix) {
+    return new HlsAttributeMatcher(prefix + "\"", prefix + "\"(.+?)\"") {
+      @Override
+      @Nullable
+      protected String matchValue(String line, int position) {
+        int lineEnd = getLineEnd(line, position);
+        if (position >= lineEnd) {
+          return null;
+        }
+        int quoteIndex = line.indexOf('"', position + 1);
+        return quoteIndex != -1 && quoteIndex < lineEnd
+            ? line.substring(position, quoteIndex)
+            : null;
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher for an unsigned integer, equivalent to {@code prefix(\d+)\b}.
+   *
+   * @param prefix The literal text preceding the value, for example {@code BANDWIDTH=}.
+   */
+  public static HlsAttributeMatcher integer(String prefix) {
+    return new HlsAttributeMatcher(prefix, prefix + "(\\d+)\\b") {
+      @Override
+      @Nullable
+      protected String matchValue(String line, int position) {
+        int digitsEnd = skipDigits(line, position);
+        return digitsEnd > position && isWordBoundary(line, digitsEnd)
+            ? line.substring(position, digitsEnd)
+            : null;
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher for an integer that must be preceded by a character that's not a hyphen,
+   * equivalent to {@code [^-]prefix(\d+)\b}.
+   *
+   * @param prefix The literal text preceding the value, for example {@code BANDWIDTH=}.
+   */
+  public static HlsAttributeMatcher integerNotPrecededByHyphen(String prefix) {
+    HlsAttributeMatcher integerMatcher = integer(prefix);
+    return new HlsAttributeMatcher(prefix, "[^-]" + integerMatcher.pattern) {
+      @Override
+      protected boolean isMatchingStart(String line, int prefixIndex) {
+        return prefixIndex > 0 && line.charAt(prefixIndex - 1) != '-';
+      }
+
+      @Override
+      @Nullable
+      protected String matchValue(String line, int position) {
+        return integerMatcher.matchValue(line, position);
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher for a decimal number, equivalent to {@code prefix([\d\.]+)\b}.
+   *
+   * @param prefix The literal text preceding the value, for example {@code DURATION=}.
+   */
+  public static HlsAttributeMatcher decimal(String prefix) {
+    return new HlsAttributeMatcher(prefix, prefix + "([\\d\\.]+)\\b") {
+      @Override
+      @Nullable
+      protected String matchValue(String line, int position) {
+        int valueEnd = findDecimalEnd(line, position);
+        return valueEnd != -1 ? line.substring(position, valueEnd) : null;
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher for a decimal number that must be preceded by a colon, a vertical bar or a
+   * comma, equivalent to {@code [:|,]prefix([\d\.]+)\b}.
+   *
+   * @param prefix The literal text preceding the value, for example {@code HOLD-BACK=}.
+   */
+  public static HlsAttributeMatcher decimalPrecededBySeparator(String prefix) {
+    HlsAttributeMatcher decimalMatcher = decimal(prefix);
+    return new HlsAttributeMatcher(prefix, "[:|,]" + decimalMatcher.pattern) {
+      @Override
+      protected boolean isMatchingStart(String line, int prefixIndex) {
+        if (prefixIndex == 0) {
+          return false;
+        }
+        char precedingChar = line.charAt(prefixIndex - 1);
+        return precedingChar == ':' || precedingChar == '|' || precedingChar == ',';
+      }
+
+      @Override
+      @Nullable
+      protected String matchValue(String line, int position) {
+        return decimalMatcher.matchValue(line, position);
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher for a decimal number with an optional minus sign, equivalent to {@code
+   * prefix(-?[\d\.]+)\b}.
+   *
+   * @param prefix The literal text preceding the value, for example {@code TIME-OFFSET=}.
+   */
+  public static HlsAttributeMatcher signedDecimal(String prefix) {
+    return new HlsAttributeMatcher(prefix, prefix + "(-?[\\d\\.]+)\\b") {
+      @Override
+      @Nullable
+      protected String matchValue(String line, int position) {
+        int unsignedPosition =
+            position < line.length() && line.charAt(position) == '-' ? position + 1 : position;
+        int valueEnd = findDecimalEnd(line, unsignedPosition);
+        return valueEnd != -1 ? line.substring(position, valueEnd) : null;
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher for a byte range, equivalent to {@code prefix(\d+(?:@\d+)?)\b}, or to {@code
+   * prefix"(\d+(?:@\d+)?)\b"} if {@code quoted} is true.
+   *
+   * @param prefix The literal text preceding the value, for example {@code BYTERANGE=}.
+   * @param quoted Whether the value is enclosed in quotes.
+   */
+  public static HlsAttributeMatcher byteRange(String prefix, boolean quoted) {
+    String quote = quoted ? "\"" : "";
+    return new HlsAttributeMatcher(
+        prefix + quote, prefix + quote + "(\\d+(?:@\\d+)?)\\b" + quote) {
+      @Override
+      @Nullable
+      protected String matchValue(String line, int position) {
+        int lengthEnd = skipDigits(line, position);
+        if (lengthEnd == position) {
+          return null;
+        }
+        if (lengthEnd < line.length() && line.charAt(lengthEnd) == '@') {
+          int offsetEnd = skipDigits(line, lengthEnd + 1);
+          if (offsetEnd > lengthEnd + 1 && isByteRangeEnd(line, offsetEnd, quoted)) {
+            return line.substring(position, offsetEnd);
+          }
+        }
+        return isByteRangeEnd(line, lengthEnd, quoted) ? line.substring(position, lengthEnd) : null;
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher for a resolution, equivalent to {@code prefix(\d+x\d+)}.
+   *
+   * @param prefix The literal text preceding the value, for example {@code RESOLUTION=}.
+   */
+  public static HlsAttributeMatcher resolution(String prefix) {
+    return new HlsAttributeMatcher(prefix, prefix + "(\\d+x\\d+)") {
+      @Override
+      @Nullable
+      protected String matchValue(String line, int position) {
+        int widthEnd = skipDigits(line, position);
+        if (widthEnd == position || widthEnd >= line.length() || line.charAt(widthEnd) != 'x') {
+          return null;
+        }
+        int heightEnd = skipDigits(line, widthEnd + 1);
+        return heightEnd > widthEnd + 1 ? line.substring(position, heightEnd) : null;
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher for one of the given values, equivalent to {@code prefix(value0|value1|...)},
+   * or to {@code prefix(value0|value1|...)\s*(?:,|$)} if {@code requireSeparator} is true.
+   *
+   * @param prefix The literal text preceding the value, for example {@code TYPE=}.
+   * @param requireSeparator Whether the value must be followed by optional whitespace and either a
+   *     comma or the end of the line.
+   * @param values The values, in the order in which they're tried.
+   */
+  public static HlsAttributeMatcher enumerated(
+      String prefix, boolean requireSeparator, String... values) {
+    String pattern = prefix + "(" + Joiner.on('|').join(values) + ")";
+    if (requireSeparator) {
+      pattern += "\\s*(?:,|$)";
+    }
+    return new HlsAttributeMatcher(prefix, pattern) {
+      @Override
+      @Nullable
+      protected String matchValue(String line, int position) {
+        for (String value : values) {
+          if (line.startsWith(value, position)
+              && (!requireSeparator || isFollowedBySeparator(line, position + value.length()))) {
+            return value;
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher for a value that doesn't contain any of the given characters, equivalent to
+   * {@code prefix([^excludedChars]+)}.
+   *
+   * @param prefix The literal text preceding the value, for example {@code IV=}.
+   * @param excludedChars The characters that terminate the value.
+   */
+  public static HlsAttributeMatcher excludingChars(String prefix, String excludedChars) {
+    return new HlsAttributeMatcher(prefix, prefix + "([^" + excludedChars + "]+)") {
+      @Override
+      @Nullable
+      protected String matchValue(String line, int position) {
+        int valueEnd = position;
+        while (valueEnd < line.length() && excludedChars.indexOf(line.charAt(valueEnd)) == -1) {
+          valueEnd++;
+        }
+        return valueEnd > position ? line.substring(position, valueEnd) : null;
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher for a quoted value that starts with one of the given prefixes followed by
+   * digits, equivalent to {@code prefix"((?:valuePrefix0|valuePrefix1|...)\d+)"}.
+   *
+   * @param prefix The literal text preceding the quoted value, for example {@code INSTREAM-ID=}.
+   * @param valuePrefixes The prefixes of the value, in the order in which they're tried.
+   */
+  public static HlsAttributeMatcher quotedPrefixedInteger(String prefix, String... valuePrefixes) {
+    return new HlsAttributeMatcher(
+        prefix + "\"", prefix + "\"((?:" + Joiner.on('|').join(valuePrefixes) + ")\\d+)\"") {
+      @Override
+      @Nullable
+      protected String matchValue(String line, int position) {
+        for (String valuePrefix : valuePrefixes) {
+          if (line.startsWith(valuePrefix, position)) {
+            int digitsStart = position + valuePrefix.length();
+            int digitsEnd = skipDigits(line, digitsStart);
+            if (digitsEnd > digitsStart
+                && digitsEnd < line.length()
+                && line.charAt(digitsEnd) == '"') {
+              return line.substring(position, digitsEnd);
+            }
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher for the remainder of the line up to its last word boundary, equivalent to
+   * {@code prefix(.+)\b}.
+   *
+   * @param prefix The literal text preceding the value, for example {@code #EXT-X-PLAYLIST-TYPE:}.
+   */
+  public static HlsAttributeMatcher remainder(String prefix) {
+    return new HlsAttributeMatcher(prefix, prefix + "(.+)\\b") {
+      @Override
+      @Nullable
+      protected String matchValue(String line, int position) {
+        for (int end = getLineEnd(line, position); end > position; end--) {
+          if (isWordBoundary(line, end)) {
+            return line.substring(position, end);
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher for the text following a decimal number and a comma, equivalent to {@code
+   * prefix[\d\.]+\b,(.+)}.
+   *
+   * @param prefix The literal text preceding the decimal number, for example {@code #EXTINF:}.
+   */
+  public static HlsAttributeMatcher textAfterDecimal(String prefix) {
+    return new HlsAttributeMatcher(prefix, prefix + "[\\d\\.]+\\b,(.+)") {
+      @Override
+      @Nullable
+      protected String matchValue(String line, int position) {
+        int decimalEnd = skipDecimalChars(line, position);
+        for (int end = decimalEnd; end > position; end--) {
+          if (isWordBoundary(line, end) && end < line.length() && line.charAt(end) == ',') {
+            int lineEnd = getLineEnd(line, end + 1);
+            if (lineEnd > end + 1) {
+              return line.substring(end + 1, lineEnd);
+            }
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Returns the value of the first match in the given line, or null if there's no match.
+   *
+   * @param line The line to search.
+   * @return The value, or null if there's no match.
+   */
+  @Nullable
+  public final String find(String line) {
+    int prefixIndex = line.indexOf(prefix);
+    while (prefixIndex != -1) {
+      if (isMatchingStart(line, prefixIndex)) {
+        @Nullable String value = matchValue(line, prefixIndex + prefix.length());
+        if (value != null) {
+          return value;
+        }
+      }
+      prefixIndex = line.indexOf(prefix, prefixIndex + 1);
+    }
+    return null;
+  }
+
+  /** Returns the equivalent regular expression. */
+  @Override
+  public final String toString() {
+    return pattern;
+  }
+
+  /**
+   * Returns whether a match may start at an occurrence of the prefix.
+   *
+   * @param line The line being searched.
+   * @param prefixIndex The index of the occurrence of the prefix.
+   */
+  protected boolean isMatchingStart(String line, int prefixIndex) {
+    return true;
+  }
+
+  /**
+   * Returns the value starting at the given position, or null if the text at the position doesn't
+   * match.
+   *
+   * @param line The line being searched.
+   * @param position The position following an occurrence of the prefix.
+   */
+  @Nullable
+  protected abstract String matchValue(String line, int position);
+
+  private static int skipDigits(String line, int position) {
+    while (position < line.length() && isDigit(line.charAt(position))) {
+      position++;
+    }
+    return position;
+  }
+
+  private static int skipDecimalChars(String line, int position) {
+    while (position < line.length()
+        && (isDigit(line.charAt(position)) || line.charAt(position) == '.')) {
+      position++;
+    }
+    return position;
+  }
+
+  /**
+   * Returns the end of the longest non-empty run of digits and dots at the position that's followed
+   * by a word boundary, or -1 if there's none.
+   */
+  private static int findDecimalEnd(String line, int position) {
+    for (int end = skipDecimalChars(line, position); end > position; end--) {
+      if (isWordBoundary(line, end)) {
+        return end;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isByteRangeEnd(String line, int position, boolean quoted) {
+    return isWordBoundary(line, position)
+        && (!quoted || (position < line.length() && line.charAt(position) == '"'));
+  }
+
+  private static boolean isFollowedBySeparator(String line, int position) {
+    while (position < line.length() && isWhitespace(line.charAt(position))) {
+      position++;
+    }
+    // Like $, also accept a final line terminator.
+    return position == line.length()
+        || line.charAt(position) == ','
+        || (position == line.length() - 1
+            && LINE_TERMINATORS.indexOf(line.charAt(position)) != -1);
+  }
+
+  /** Returns the index of the first line terminator at or after the position. */
+  private static int getLineEnd(String line, int position) {
+    for (int i = position; i < line.length(); i++) {
+      if (LINE_TERMINATORS.indexOf(line.charAt(i)) != -1) {
+        return i;
+      }
+    }
+    return line.length();
+  }
+
+  private static boolean isWordBoundary(String line, int position) {
+    boolean isWordCharBefore = position > 0 && isWordChar(line.charAt(position - 1));
+    boolean isWordCharAfter = position < line.length() && isWordChar(line.charAt(position));
+    return isWordCharBefore != isWordCharAfter;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isWordChar(char c) {
+    return c == '_' || Character.isLetterOrDigit(c);
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+}
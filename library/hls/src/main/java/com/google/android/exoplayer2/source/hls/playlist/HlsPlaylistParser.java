@@ -59,8 +59,6 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.TreeMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNullIf;
 import org.checkerframework.checker.nullness.qual.PolyNull;
 
@@ -128,103 +126,119 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
 
   private static final String ATTR_CLOSED_CAPTIONS_NONE = "CLOSED-CAPTIONS=NONE";
 
-  private static final Pattern REGEX_AVERAGE_BANDWIDTH =
-      Pattern.compile("AVERAGE-BANDWIDTH=(\\d+)\\b");
-  private static final Pattern REGEX_VIDEO = Pattern.compile("VIDEO=\"(.+?)\"");
-  private static final Pattern REGEX_AUDIO = Pattern.compile("AUDIO=\"(.+?)\"");
-  private static final Pattern REGEX_SUBTITLES = Pattern.compile("SUBTITLES=\"(.+?)\"");
-  private static final Pattern REGEX_CLOSED_CAPTIONS = Pattern.compile("CLOSED-CAPTIONS=\"(.+?)\"");
-  private static final Pattern REGEX_BANDWIDTH = Pattern.compile("[^-]BANDWIDTH=(\\d+)\\b");
-  private static final Pattern REGEX_CHANNELS = Pattern.compile("CHANNELS=\"(.+?)\"");
-  private static final Pattern REGEX_CODECS = Pattern.compile("CODECS=\"(.+?)\"");
-  private static final Pattern REGEX_RESOLUTION = Pattern.compile("RESOLUTION=(\\d+x\\d+)");
-  private static final Pattern REGEX_FRAME_RATE = Pattern.compile("FRAME-RATE=([\\d\\.]+)\\b");
-  private static final Pattern REGEX_TARGET_DURATION =
-      Pattern.compile(TAG_TARGET_DURATION + ":(\\d+)\\b");
-  private static final Pattern REGEX_ATTR_DURATION = Pattern.compile("DURATION=([\\d\\.]+)\\b");
-  private static final Pattern REGEX_PART_TARGET_DURATION =
-      Pattern.compile("PART-TARGET=([\\d\\.]+)\\b");
-  private static final Pattern REGEX_VERSION = Pattern.compile(TAG_VERSION + ":(\\d+)\\b");
-  private static final Pattern REGEX_PLAYLIST_TYPE =
-      Pattern.compile(TAG_PLAYLIST_TYPE + ":(.+)\\b");
-  private static final Pattern REGEX_CAN_SKIP_UNTIL =
-      Pattern.compile("CAN-SKIP-UNTIL=([\\d\\.]+)\\b");
-  private static final Pattern REGEX_CAN_SKIP_DATE_RANGES =
-      compileBooleanAttrPattern("CAN-SKIP-DATERANGES");
-  private static final Pattern REGEX_SKIPPED_SEGMENTS =
-      Pattern.compile("SKIPPED-SEGMENTS=(\\d+)\\b");
-  private static final Pattern REGEX_HOLD_BACK = Pattern.compile("[:|,]HOLD-BACK=([\\d\\.]+)\\b");
-  private static final Pattern REGEX_PART_HOLD_BACK =
-      Pattern.compile("PART-HOLD-BACK=([\\d\\.]+)\\b");
-  private static final Pattern REGEX_CAN_BLOCK_RELOAD =
-      compileBooleanAttrPattern("CAN-BLOCK-RELOAD");
-  private static final Pattern REGEX_MEDIA_SEQUENCE =
-      Pattern.compile(TAG_MEDIA_SEQUENCE + ":(\\d+)\\b");
-  private static final Pattern REGEX_MEDIA_DURATION =
-      Pattern.compile(TAG_MEDIA_DURATION + ":([\\d\\.]+)\\b");
-  private static final Pattern REGEX_MEDIA_TITLE =
-      Pattern.compile(TAG_MEDIA_DURATION + ":[\\d\\.]+\\b,(.+)");
-  private static final Pattern REGEX_LAST_MSN = Pattern.compile("LAST-MSN" + "=(\\d+)\\b");
-  private static final Pattern REGEX_LAST_PART = Pattern.compile("LAST-PART" + "=(\\d+)\\b");
-  private static final Pattern REGEX_TIME_OFFSET = Pattern.compile("TIME-OFFSET=(-?[\\d\\.]+)\\b");
-  private static final Pattern REGEX_BYTERANGE =
-      Pattern.compile(TAG_BYTERANGE + ":(\\d+(?:@\\d+)?)\\b");
-  private static final Pattern REGEX_ATTR_BYTERANGE =
-      Pattern.compile("BYTERANGE=\"(\\d+(?:@\\d+)?)\\b\"");
-  private static final Pattern REGEX_BYTERANGE_START = Pattern.compile("BYTERANGE-START=(\\d+)\\b");
-  private static final Pattern REGEX_BYTERANGE_LENGTH =
-      Pattern.compile("BYTERANGE-LENGTH=(\\d+)\\b");
-  private static final Pattern REGEX_METHOD =
-      Pattern.compile(
-          "METHOD=("
-              + METHOD_NONE
-              + "|"
-              + METHOD_AES_128
-              + "|"
-              + METHOD_SAMPLE_AES
-              + "|"
-              + METHOD_SAMPLE_AES_CENC
-              + "|"
-              + METHOD_SAMPLE_AES_CTR
-              + ")"
-              + "\\s*(?:,|$)");
-  private static final Pattern REGEX_KEYFORMAT = Pattern.compile("KEYFORMAT=\"(.+?)\"");
-  private static final Pattern REGEX_KEYFORMATVERSIONS =
-      Pattern.compile("KEYFORMATVERSIONS=\"(.+?)\"");
-  private static final Pattern REGEX_URI = Pattern.compile("URI=\"(.+?)\"");
-  private static final Pattern REGEX_IV = Pattern.compile("IV=([^,.*]+)");
-  private static final Pattern REGEX_TYPE =
-      Pattern.compile(
-          "TYPE=("
-              + TYPE_AUDIO
-              + "|"
-              + TYPE_VIDEO
-              + "|"
-              + TYPE_SUBTITLES
-              + "|"
-              + TYPE_CLOSED_CAPTIONS
-              + ")");
-  private static final Pattern REGEX_PRELOAD_HINT_TYPE =
-      Pattern.compile("TYPE=(" + TYPE_PART + "|" + TYPE_MAP + ")");
-  private static final Pattern REGEX_LANGUAGE = Pattern.compile("LANGUAGE=\"(.+?)\"");
-  private static final Pattern REGEX_NAME = Pattern.compile("NAME=\"(.+?)\"");
-  private static final Pattern REGEX_GROUP_ID = Pattern.compile("GROUP-ID=\"(.+?)\"");
-  private static final Pattern REGEX_CHARACTERISTICS = Pattern.compile("CHARACTERISTICS=\"(.+?)\"");
-  private static final Pattern REGEX_INSTREAM_ID =
-      Pattern.compile("INSTREAM-ID=\"((?:CC|SERVICE)\\d+)\"");
-  private static final Pattern REGEX_AUTOSELECT = compileBooleanAttrPattern("AUTOSELECT");
-  private static final Pattern REGEX_DEFAULT = compileBooleanAttrPattern("DEFAULT");
-  private static final Pattern REGEX_FORCED = compileBooleanAttrPattern("FORCED");
-  private static final Pattern REGEX_INDEPENDENT = compileBooleanAttrPattern("INDEPENDENT");
-  private static final Pattern REGEX_GAP = compileBooleanAttrPattern("GAP");
-  private static final Pattern REGEX_PRECISE = compileBooleanAttrPattern("PRECISE");
-  private static final Pattern REGEX_VALUE = Pattern.compile("VALUE=\"(.+?)\"");
-  private static final Pattern REGEX_IMPORT = Pattern.compile("IMPORT=\"(.+?)\"");
-  private static final Pattern REGEX_VARIABLE_REFERENCE =
-      Pattern.compile("\\{\\$([a-zA-Z0-9\\-_]+)\\}");
+  private static final HlsAttributeMatcher ATTR_AVERAGE_BANDWIDTH =
+      HlsAttributeMatcher.integer("AVERAGE-BANDWIDTH=");
+  private static final HlsAttributeMatcher ATTR_VIDEO = HlsAttributeMatcher.quotedString("VIDEO=");
+  private static final HlsAttributeMatcher ATTR_AUDIO = HlsAttributeMatcher.quotedString("AUDIO=");
+  private static final HlsAttributeMatcher ATTR_SUBTITLES =
+      HlsAttributeMatcher.quotedString("SUBTITLES=");
+  private static final HlsAttributeMatcher ATTR_CLOSED_CAPTIONS =
+      HlsAttributeMatcher.quotedString("CLOSED-CAPTIONS=");
+  private static final HlsAttributeMatcher ATTR_BANDWIDTH =
+      HlsAttributeMatcher.integerNotPrecededByHyphen("BANDWIDTH=");
+  private static final HlsAttributeMatcher ATTR_CHANNELS =
+      HlsAttributeMatcher.quotedString("CHANNELS=");
+  private static final HlsAttributeMatcher ATTR_CODECS =
+      HlsAttributeMatcher.quotedString("CODECS=");
+  private static final HlsAttributeMatcher ATTR_RESOLUTION =
+      HlsAttributeMatcher.resolution("RESOLUTION=");
+  private static final HlsAttributeMatcher ATTR_FRAME_RATE =
+      HlsAttributeMatcher.decimal("FRAME-RATE=");
+  private static final HlsAttributeMatcher ATTR_TARGET_DURATION =
+      HlsAttributeMatcher.integer(TAG_TARGET_DURATION + ":");
+  private static final HlsAttributeMatcher ATTR_DURATION = HlsAttributeMatcher.decimal("DURATION=");
+  private static final HlsAttributeMatcher ATTR_PART_TARGET_DURATION =
+      HlsAttributeMatcher.decimal("PART-TARGET=");
+  private static final HlsAttributeMatcher ATTR_VERSION =
+      HlsAttributeMatcher.integer(TAG_VERSION + ":");
+  private static final HlsAttributeMatcher ATTR_PLAYLIST_TYPE =
+      HlsAttributeMatcher.remainder(TAG_PLAYLIST_TYPE + ":");
+  private static final HlsAttributeMatcher ATTR_CAN_SKIP_UNTIL =
+      HlsAttributeMatcher.decimal("CAN-SKIP-UNTIL=");
+  private static final HlsAttributeMatcher ATTR_CAN_SKIP_DATE_RANGES =
+      createBooleanAttrMatcher("CAN-SKIP-DATERANGES");
+  private static final HlsAttributeMatcher ATTR_SKIPPED_SEGMENTS =
+      HlsAttributeMatcher.integer("SKIPPED-SEGMENTS=");
+  private static final HlsAttributeMatcher ATTR_HOLD_BACK =
+      HlsAttributeMatcher.decimalPrecededBySeparator("HOLD-BACK=");
+  private static final HlsAttributeMatcher ATTR_PART_HOLD_BACK =
+      HlsAttributeMatcher.decimal("PART-HOLD-BACK=");
+  private static final HlsAttributeMatcher ATTR_CAN_BLOCK_RELOAD =
+      createBooleanAttrMatcher("CAN-BLOCK-RELOAD");
+  private static final HlsAttributeMatcher ATTR_MEDIA_SEQUENCE =
+      HlsAttributeMatcher.integer(TAG_MEDIA_SEQUENCE + ":");
+  private static final HlsAttributeMatcher ATTR_MEDIA_DURATION =
+      HlsAttributeMatcher.decimal(TAG_MEDIA_DURATION + ":");
+  private static final HlsAttributeMatcher ATTR_MEDIA_TITLE =
+      HlsAttributeMatcher.textAfterDecimal(TAG_MEDIA_DURATION + ":");
+  private static final HlsAttributeMatcher ATTR_LAST_MSN = HlsAttributeMatcher.integer("LAST-MSN=");
+  private static final HlsAttributeMatcher ATTR_LAST_PART =
+      HlsAttributeMatcher.integer("LAST-PART=");
+  private static final HlsAttributeMatcher ATTR_TIME_OFFSET =
+      HlsAttributeMatcher.signedDecimal("TIME-OFFSET=");
+  private static final HlsAttributeMatcher ATTR_BYTERANGE =
+      HlsAttributeMatcher.byteRange(TAG_BYTERANGE + ":", /* quoted= */ false);
+  private static final HlsAttributeMatcher ATTR_QUOTED_BYTERANGE =
+      HlsAttributeMatcher.byteRange("BYTERANGE=", /* quoted= */ true);
+  private static final HlsAttributeMatcher ATTR_BYTERANGE_START =
+      HlsAttributeMatcher.integer("BYTERANGE-START=");
+  private static final HlsAttributeMatcher ATTR_BYTERANGE_LENGTH =
+      HlsAttributeMatcher.integer("BYTERANGE-LENGTH=");
+  private static final HlsAttributeMatcher ATTR_METHOD =
+      HlsAttributeMatcher.enumerated(
+          "METHOD=",
+          /* requireSeparator= */ true,
+          METHOD_NONE,
+          METHOD_AES_128,
+          METHOD_SAMPLE_AES,
+          METHOD_SAMPLE_AES_CENC,
+          METHOD_SAMPLE_AES_CTR);
+  private static final HlsAttributeMatcher ATTR_KEYFORMAT =
+      HlsAttributeMatcher.quotedString("KEYFORMAT=");
+  private static final HlsAttributeMatcher ATTR_KEYFORMATVERSIONS =
+      HlsAttributeMatcher.quotedString("KEYFORMATVERSIONS=");
+  private static final HlsAttributeMatcher ATTR_URI = HlsAttributeMatcher.quotedString("URI=");
+  private static final HlsAttributeMatcher ATTR_IV =
+      HlsAttributeMatcher.excludingChars("IV=", ",.*");
+  private static final HlsAttributeMatcher ATTR_TYPE =
+      HlsAttributeMatcher.enumerated(
+          "TYPE=",
+          /* requireSeparator= */ false,
+          TYPE_AUDIO,
+          TYPE_VIDEO,
+          TYPE_SUBTITLES,
+          TYPE_CLOSED_CAPTIONS);
+  private static final HlsAttributeMatcher ATTR_PRELOAD_HINT_TYPE =
+      HlsAttributeMatcher.enumerated("TYPE=", /* requireSeparator= */ false, TYPE_PART, TYPE_MAP);
+  private static final HlsAttributeMatcher ATTR_LANGUAGE =
+      HlsAttributeMatcher.quotedString("LANGUAGE=");
+  private static final HlsAttributeMatcher ATTR_NAME = HlsAttributeMatcher.quotedString("NAME=");
+  private static final HlsAttributeMatcher ATTR_GROUP_ID =
+      HlsAttributeMatcher.quotedString("GROUP-ID=");
+  private static final HlsAttributeMatcher ATTR_CHARACTERISTICS =
+      HlsAttributeMatcher.quotedString("CHARACTERISTICS=");
+  private static final HlsAttributeMatcher ATTR_INSTREAM_ID =
+      HlsAttributeMatcher.quotedPrefixedInteger("INSTREAM-ID=", "CC", "SERVICE");
+  private static final HlsAttributeMatcher ATTR_AUTOSELECT = createBooleanAttrMatcher("AUTOSELECT");
+  private static final HlsAttributeMatcher ATTR_DEFAULT = createBooleanAttrMatcher("DEFAULT");
+  private static final HlsAttributeMatcher ATTR_FORCED = createBooleanAttrMatcher("FORCED");
+  private static final HlsAttributeMatcher ATTR_INDEPENDENT =
+      createBooleanAttrMatcher("INDEPENDENT");
+  private static final HlsAttributeMatcher ATTR_GAP = createBooleanAttrMatcher("GAP");
+  private static final HlsAttributeMatcher ATTR_PRECISE = createBooleanAttrMatcher("PRECISE");
+  private static final HlsAttributeMatcher ATTR_VALUE = HlsAttributeMatcher.quotedString("VALUE=");
+  private static final HlsAttributeMatcher ATTR_IMPORT =
+      HlsAttributeMatcher.quotedString("IMPORT=");
+  private static final String VARIABLE_REFERENCE_START = "{$";
+  /**
+   * The maximum number of integer digits of a time value in seconds that's converted to
+   * microseconds without using {@link BigDecimal}.
+   */
+  private static final int MAX_FAST_PATH_INTEGER_DIGIT_COUNT = 12;
 
   private final HlsMultivariantPlaylist multivariantPlaylist;
   @Nullable private final HlsMediaPlaylist previousMediaPlaylist;
+  private final boolean parseUnboundedPreloadHints;
 
   /**
    * Creates an instance where media playlists are parsed without inheriting attributes from a
@@ -241,13 +255,36 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
    * @param multivariantPlaylist The multivariant playlist from which media playlists will inherit
    *     attributes.
    * @param previousMediaPlaylist The previous media playlist from which the new media playlist may
-   *     inherit skipped segments.
+   *     inherit skipped segments. Segments that are also listed in the previous media playlist are
+   *     reused rather than parsed again.
    */
   public HlsPlaylistParser(
       HlsMultivariantPlaylist multivariantPlaylist,
       @Nullable HlsMediaPlaylist previousMediaPlaylist) {
+    this(multivariantPlaylist, previousMediaPlaylist, /* parseUnboundedPreloadHints= */ false);
+  }
+
+  /**
+   * Creates an instance where parsed media playlists inherit attributes from the given master
+   * playlist.
+   *
+   * @param multivariantPlaylist The multivariant playlist from which media playlists will inherit
+   *     attributes.
+   * @param previousMediaPlaylist The previous media playlist from which the new media playlist may
+   *     inherit skipped segments. Segments that are also listed in the previous media playlist are
+   *     reused rather than parsed again.
+   * @param parseUnboundedPreloadHints Whether to parse preload hints with a {@code
+   *     BYTERANGE-START} but without a {@code BYTERANGE-LENGTH} into a preload part of unknown
+   *     length, rather than ignoring them. Loading such a part loads the remainder of the segment
+   *     with a single request, as the server produces it.
+   */
+  public HlsPlaylistParser(
+      HlsMultivariantPlaylist multivariantPlaylist,
+      @Nullable HlsMediaPlaylist previousMediaPlaylist,
+      boolean parseUnboundedPreloadHints) {
     this.multivariantPlaylist = multivariantPlaylist;
     this.previousMediaPlaylist = previousMediaPlaylist;
+    this.parseUnboundedPreloadHints = parseUnboundedPreloadHints;
   }
 
   @Override
@@ -279,6 +316,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
           return parseMediaPlaylist(
               multivariantPlaylist,
               previousMediaPlaylist,
+              parseUnboundedPreloadHints,
               new LineIterator(extraLines, reader),
               uri.toString());
         } else {
@@ -350,8 +388,8 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
 
       if (line.startsWith(TAG_DEFINE)) {
         variableDefinitions.put(
-            /* key= */ parseStringAttr(line, REGEX_NAME, variableDefinitions),
-            /* value= */ parseStringAttr(line, REGEX_VALUE, variableDefinitions));
+            /* key= */ parseStringAttr(line, ATTR_NAME, variableDefinitions),
+            /* value= */ parseStringAttr(line, ATTR_VALUE, variableDefinitions));
       } else if (line.equals(TAG_INDEPENDENT_SEGMENTS)) {
         hasIndependentSegmentsTag = true;
       } else if (line.startsWith(TAG_MEDIA)) {
@@ -360,21 +398,21 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         mediaTags.add(line);
       } else if (line.startsWith(TAG_SESSION_KEY)) {
         String keyFormat =
-            parseOptionalStringAttr(line, REGEX_KEYFORMAT, KEYFORMAT_IDENTITY, variableDefinitions);
+            parseOptionalStringAttr(line, ATTR_KEYFORMAT, KEYFORMAT_IDENTITY, variableDefinitions);
         SchemeData schemeData = parseDrmSchemeData(line, keyFormat, variableDefinitions);
         if (schemeData != null) {
-          String method = parseStringAttr(line, REGEX_METHOD, variableDefinitions);
+          String method = parseStringAttr(line, ATTR_METHOD, variableDefinitions);
           String scheme = parseEncryptionScheme(method);
           sessionKeyDrmInitData.add(new DrmInitData(scheme, schemeData));
         }
       } else if (line.startsWith(TAG_STREAM_INF) || isIFrameOnlyVariant) {
         noClosedCaptions |= line.contains(ATTR_CLOSED_CAPTIONS_NONE);
         int roleFlags = isIFrameOnlyVariant ? C.ROLE_FLAG_TRICK_PLAY : 0;
-        int peakBitrate = parseIntAttr(line, REGEX_BANDWIDTH);
-        int averageBitrate = parseOptionalIntAttr(line, REGEX_AVERAGE_BANDWIDTH, -1);
-        String codecs = parseOptionalStringAttr(line, REGEX_CODECS, variableDefinitions);
+        int peakBitrate = parseIntAttr(line, ATTR_BANDWIDTH);
+        int averageBitrate = parseOptionalIntAttr(line, ATTR_AVERAGE_BANDWIDTH, -1);
+        String codecs = parseOptionalStringAttr(line, ATTR_CODECS, variableDefinitions);
         String resolutionString =
-            parseOptionalStringAttr(line, REGEX_RESOLUTION, variableDefinitions);
+            parseOptionalStringAttr(line, ATTR_RESOLUTION, variableDefinitions);
         int width;
         int height;
         if (resolutionString != null) {
@@ -392,20 +430,19 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         }
         float frameRate = Format.NO_VALUE;
         String frameRateString =
-            parseOptionalStringAttr(line, REGEX_FRAME_RATE, variableDefinitions);
+            parseOptionalStringAttr(line, ATTR_FRAME_RATE, variableDefinitions);
         if (frameRateString != null) {
           frameRate = Float.parseFloat(frameRateString);
         }
-        String videoGroupId = parseOptionalStringAttr(line, REGEX_VIDEO, variableDefinitions);
-        String audioGroupId = parseOptionalStringAttr(line, REGEX_AUDIO, variableDefinitions);
+        String videoGroupId = parseOptionalStringAttr(line, ATTR_VIDEO, variableDefinitions);
+        String audioGroupId = parseOptionalStringAttr(line, ATTR_AUDIO, variableDefinitions);
         String subtitlesGroupId =
-            parseOptionalStringAttr(line, REGEX_SUBTITLES, variableDefinitions);
+            parseOptionalStringAttr(line, ATTR_SUBTITLES, variableDefinitions);
         String closedCaptionsGroupId =
-            parseOptionalStringAttr(line, REGEX_CLOSED_CAPTIONS, variableDefinitions);
+            parseOptionalStringAttr(line, ATTR_CLOSED_CAPTIONS, variableDefinitions);
         Uri uri;
         if (isIFrameOnlyVariant) {
-          uri =
-              UriUtil.resolveToUri(baseUri, parseStringAttr(line, REGEX_URI, variableDefinitions));
+          uri = UriUtil.resolveToUri(baseUri, parseStringAttr(line, ATTR_URI, variableDefinitions));
         } else if (!iterator.hasNext()) {
           throw ParserException.createForMalformedManifest(
               "#EXT-X-STREAM-INF must be followed by another line", /* cause= */ null);
@@ -467,8 +504,8 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
 
     for (int i = 0; i < mediaTags.size(); i++) {
       line = mediaTags.get(i);
-      String groupId = parseStringAttr(line, REGEX_GROUP_ID, variableDefinitions);
-      String name = parseStringAttr(line, REGEX_NAME, variableDefinitions);
+      String groupId = parseStringAttr(line, ATTR_GROUP_ID, variableDefinitions);
+      String name = parseStringAttr(line, ATTR_NAME, variableDefinitions);
       Format.Builder formatBuilder =
           new Format.Builder()
               .setId(groupId + ":" + name)
@@ -476,13 +513,13 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
               .setContainerMimeType(MimeTypes.APPLICATION_M3U8)
               .setSelectionFlags(parseSelectionFlags(line))
               .setRoleFlags(parseRoleFlags(line, variableDefinitions))
-              .setLanguage(parseOptionalStringAttr(line, REGEX_LANGUAGE, variableDefinitions));
+              .setLanguage(parseOptionalStringAttr(line, ATTR_LANGUAGE, variableDefinitions));
 
-      @Nullable String referenceUri = parseOptionalStringAttr(line, REGEX_URI, variableDefinitions);
+      @Nullable String referenceUri = parseOptionalStringAttr(line, ATTR_URI, variableDefinitions);
       @Nullable Uri uri = referenceUri == null ? null : UriUtil.resolveToUri(baseUri, referenceUri);
       Metadata metadata =
           new Metadata(new HlsTrackMetadataEntry(groupId, name, Collections.emptyList()));
-      switch (parseStringAttr(line, REGEX_TYPE, variableDefinitions)) {
+      switch (parseStringAttr(line, ATTR_TYPE, variableDefinitions)) {
         case TYPE_VIDEO:
           @Nullable Variant variant = getVariantWithVideoGroup(variants, groupId);
           if (variant != null) {
@@ -513,8 +550,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
             sampleMimeType = MimeTypes.getMediaMimeType(codecs);
           }
           @Nullable
-          String channelsString =
-              parseOptionalStringAttr(line, REGEX_CHANNELS, variableDefinitions);
+          String channelsString = parseOptionalStringAttr(line, ATTR_CHANNELS, variableDefinitions);
           if (channelsString != null) {
             int channelCount = Integer.parseInt(Util.splitAtFirst(channelsString, "/")[0]);
             formatBuilder.setChannelCount(channelCount);
@@ -552,7 +588,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
           }
           break;
         case TYPE_CLOSED_CAPTIONS:
-          String instreamId = parseStringAttr(line, REGEX_INSTREAM_ID, variableDefinitions);
+          String instreamId = parseStringAttr(line, ATTR_INSTREAM_ID, variableDefinitions);
           int accessibilityChannel;
           if (instreamId.startsWith("CC")) {
             sampleMimeType = MimeTypes.APPLICATION_CEA608;
@@ -631,6 +667,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
   private static HlsMediaPlaylist parseMediaPlaylist(
       HlsMultivariantPlaylist multivariantPlaylist,
       @Nullable HlsMediaPlaylist previousMediaPlaylist,
+      boolean parseUnboundedPreloadHints,
       LineIterator iterator,
       String baseUri)
       throws IOException {
@@ -681,17 +718,64 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
     @Nullable String encryptionScheme = null;
     @Nullable DrmInitData cachedDrmInitData = null;
 
+    boolean canReuseSegments = previousMediaPlaylist != null;
+    @Nullable List<String> deferredSegmentLines = null;
+    @Nullable Segment reusableSegment = null;
+
     String line;
-    while (iterator.hasNext()) {
+    while (true) {
+      if (!iterator.hasNext()) {
+        if (deferredSegmentLines == null) {
+          break;
+        }
+        // The playlist ended before the URI of the deferred segment. Parse its lines as usual.
+        canReuseSegments = false;
+        iterator.pushBack(deferredSegmentLines);
+        deferredSegmentLines = null;
+        continue;
+      }
+      boolean isPushedBackLine = iterator.isNextPushedBack();
       line = iterator.next();
 
-      if (line.startsWith(TAG_PREFIX)) {
+      if (line.startsWith(TAG_PREFIX) && !isPushedBackLine) {
         // We expose all tags through the playlist.
         tags.add(line);
       }
 
+      if (canReuseSegments
+          && deferredSegmentLines == null
+          && !isPushedBackLine
+          && isMediaSegmentLine(line)
+          && getPreviousSegment(previousMediaPlaylist, segmentMediaSequence) != null) {
+        // The previous playlist has a segment with the same media sequence number. Defer the lines
+        // of the segment until its URI is known, so that parsing them can be skipped if the segment
+        // can be reused.
+        deferredSegmentLines = new ArrayList<>();
+      }
+      if (deferredSegmentLines != null) {
+        deferredSegmentLines.add(line);
+        if (line.startsWith("#")) {
+          continue;
+        }
+        Segment previousSegment =
+            checkNotNull(getPreviousSegment(previousMediaPlaylist, segmentMediaSequence));
+        if (!previousSegment.url.equals(replaceVariableReferences(line, variableDefinitions))) {
+          // The media sequence doesn't identify the same segments anymore, for example because the
+          // stream was restarted. Parse the remaining segments as usual.
+          canReuseSegments = false;
+        } else if (getPartLineCount(deferredSegmentLines) == previousSegment.parts.size()) {
+          // Media segments don't change once they are listed (see RFC 8216, Section 6.2.1), so
+          // only the lines that affect the state of the following segments need to be parsed.
+          reusableSegment = previousSegment;
+          removeSegmentDescriptionLines(deferredSegmentLines);
+        }
+        iterator.pushBack(deferredSegmentLines);
+        deferredSegmentLines = null;
+        continue;
+      }
+
       if (line.startsWith(TAG_PLAYLIST_TYPE)) {
-        String playlistTypeString = parseStringAttr(line, REGEX_PLAYLIST_TYPE, variableDefinitions);
+        String playlistTypeString = parseStringAttr(line, ATTR_PLAYLIST_TYPE, variableDefinitions);
         if ("VOD".equals(playlistTypeString)) {
           playlistType = HlsMediaPlaylist.PLAYLIST_TYPE_VOD;
         } else if ("EVENT".equals(playlistTypeString)) {
@@ -700,17 +784,17 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
       } else if (line.equals(TAG_IFRAME)) {
         isIFrameOnly = true;
       } else if (line.startsWith(TAG_START)) {
-        startOffsetUs = (long) (parseDoubleAttr(line, REGEX_TIME_OFFSET) * C.MICROS_PER_SECOND);
-        preciseStart =
-            parseOptionalBooleanAttribute(line, REGEX_PRECISE, /* defaultValue= */ false);
+        startOffsetUs = (long) (parseDoubleAttr(line, ATTR_TIME_OFFSET) * C.MICROS_PER_SECOND);
+        preciseStart = parseOptionalBooleanAttribute(line, ATTR_PRECISE, /* defaultValue= */ false);
       } else if (line.startsWith(TAG_SERVER_CONTROL)) {
         serverControl = parseServerControl(line);
       } else if (line.startsWith(TAG_PART_INF)) {
-        double partTargetDurationSeconds = parseDoubleAttr(line, REGEX_PART_TARGET_DURATION);
+        double partTargetDurationSeconds = parseDoubleAttr(line, ATTR_PART_TARGET_DURATION);
         partTargetDurationUs = (long) (partTargetDurationSeconds * C.MICROS_PER_SECOND);
       } else if (line.startsWith(TAG_INIT_SEGMENT)) {
-        String uri = parseStringAttr(line, REGEX_URI, variableDefinitions);
-        String byteRange = parseOptionalStringAttr(line, REGEX_ATTR_BYTERANGE, variableDefinitions);
+        String uri = parseStringAttr(line, ATTR_URI, variableDefinitions);
+        String byteRange =
+            parseOptionalStringAttr(line, ATTR_QUOTED_BYTERANGE, variableDefinitions);
         if (byteRange != null) {
           String[] splitByteRange = Util.split(byteRange, "@");
           segmentByteRangeLength = Long.parseLong(splitByteRange[0]);
@@ -741,14 +825,14 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         }
         segmentByteRangeLength = C.LENGTH_UNSET;
       } else if (line.startsWith(TAG_TARGET_DURATION)) {
-        targetDurationUs = parseIntAttr(line, REGEX_TARGET_DURATION) * C.MICROS_PER_SECOND;
+        targetDurationUs = parseIntAttr(line, ATTR_TARGET_DURATION) * C.MICROS_PER_SECOND;
       } else if (line.startsWith(TAG_MEDIA_SEQUENCE)) {
-        mediaSequence = parseLongAttr(line, REGEX_MEDIA_SEQUENCE);
+        mediaSequence = parseLongAttr(line, ATTR_MEDIA_SEQUENCE);
         segmentMediaSequence = mediaSequence;
       } else if (line.startsWith(TAG_VERSION)) {
-        version = parseIntAttr(line, REGEX_VERSION);
+        version = parseIntAttr(line, ATTR_VERSION);
       } else if (line.startsWith(TAG_DEFINE)) {
-        String importName = parseOptionalStringAttr(line, REGEX_IMPORT, variableDefinitions);
+        String importName = parseOptionalStringAttr(line, ATTR_IMPORT, variableDefinitions);
         if (importName != null) {
           String value = multivariantPlaylist.variableDefinitions.get(importName);
           if (value != null) {
@@ -758,14 +842,14 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
           }
         } else {
           variableDefinitions.put(
-              parseStringAttr(line, REGEX_NAME, variableDefinitions),
-              parseStringAttr(line, REGEX_VALUE, variableDefinitions));
+              parseStringAttr(line, ATTR_NAME, variableDefinitions),
+              parseStringAttr(line, ATTR_VALUE, variableDefinitions));
         }
       } else if (line.startsWith(TAG_MEDIA_DURATION)) {
-        segmentDurationUs = parseTimeSecondsToUs(line, REGEX_MEDIA_DURATION);
-        segmentTitle = parseOptionalStringAttr(line, REGEX_MEDIA_TITLE, "", variableDefinitions);
+        segmentDurationUs = parseTimeSecondsToUs(line, ATTR_MEDIA_DURATION);
+        segmentTitle = parseOptionalStringAttr(line, ATTR_MEDIA_TITLE, "", variableDefinitions);
       } else if (line.startsWith(TAG_SKIP)) {
-        int skippedSegmentCount = parseIntAttr(line, REGEX_SKIPPED_SEGMENTS);
+        int skippedSegmentCount = parseIntAttr(line, ATTR_SKIPPED_SEGMENTS);
         checkState(previousMediaPlaylist != null && segments.isEmpty());
         int startIndex = (int) (mediaSequence - castNonNull(previousMediaPlaylist).mediaSequence);
         int endIndex = startIndex + skippedSegmentCount;
@@ -802,20 +886,20 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
           segmentMediaSequence++;
         }
       } else if (line.startsWith(TAG_KEY)) {
-        String method = parseStringAttr(line, REGEX_METHOD, variableDefinitions);
+        String method = parseStringAttr(line, ATTR_METHOD, variableDefinitions);
         String keyFormat =
-            parseOptionalStringAttr(line, REGEX_KEYFORMAT, KEYFORMAT_IDENTITY, variableDefinitions);
+            parseOptionalStringAttr(line, ATTR_KEYFORMAT, KEYFORMAT_IDENTITY, variableDefinitions);
         fullSegmentEncryptionKeyUri = null;
         fullSegmentEncryptionIV = null;
         if (METHOD_NONE.equals(method)) {
           currentSchemeDatas.clear();
           cachedDrmInitData = null;
         } else /* !METHOD_NONE.equals(method) */ {
-          fullSegmentEncryptionIV = parseOptionalStringAttr(line, REGEX_IV, variableDefinitions);
+          fullSegmentEncryptionIV = parseOptionalStringAttr(line, ATTR_IV, variableDefinitions);
           if (KEYFORMAT_IDENTITY.equals(keyFormat)) {
             if (METHOD_AES_128.equals(method)) {
               // The segment is fully encrypted using an identity key.
-              fullSegmentEncryptionKeyUri = parseStringAttr(line, REGEX_URI, variableDefinitions);
+              fullSegmentEncryptionKeyUri = parseStringAttr(line, ATTR_URI, variableDefinitions);
             } else {
               // Do nothing. Samples are encrypted using an identity key, but this is not supported.
               // Hopefully, a traditional DRM alternative is also provided.
@@ -832,7 +916,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
           }
         }
       } else if (line.startsWith(TAG_BYTERANGE)) {
-        String byteRange = parseStringAttr(line, REGEX_BYTERANGE, variableDefinitions);
+        String byteRange = parseStringAttr(line, ATTR_BYTERANGE, variableDefinitions);
         String[] splitByteRange = Util.split(byteRange, "@");
         segmentByteRangeLength = Long.parseLong(splitByteRange[0]);
         if (splitByteRange.length > 1) {
@@ -856,24 +940,24 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
       } else if (line.equals(TAG_ENDLIST)) {
         hasEndTag = true;
       } else if (line.startsWith(TAG_RENDITION_REPORT)) {
-        long lastMediaSequence = parseOptionalLongAttr(line, REGEX_LAST_MSN, C.INDEX_UNSET);
-        int lastPartIndex = parseOptionalIntAttr(line, REGEX_LAST_PART, C.INDEX_UNSET);
-        String uri = parseStringAttr(line, REGEX_URI, variableDefinitions);
+        long lastMediaSequence = parseOptionalLongAttr(line, ATTR_LAST_MSN, C.INDEX_UNSET);
+        int lastPartIndex = parseOptionalIntAttr(line, ATTR_LAST_PART, C.INDEX_UNSET);
+        String uri = parseStringAttr(line, ATTR_URI, variableDefinitions);
         Uri playlistUri = Uri.parse(UriUtil.resolve(baseUri, uri));
         renditionReports.add(new RenditionReport(playlistUri, lastMediaSequence, lastPartIndex));
       } else if (line.startsWith(TAG_PRELOAD_HINT)) {
         if (preloadPart != null) {
           continue;
         }
-        String type = parseStringAttr(line, REGEX_PRELOAD_HINT_TYPE, variableDefinitions);
+        String type = parseStringAttr(line, ATTR_PRELOAD_HINT_TYPE, variableDefinitions);
         if (!TYPE_PART.equals(type)) {
           continue;
         }
-        String url = parseStringAttr(line, REGEX_URI, variableDefinitions);
+        String url = parseStringAttr(line, ATTR_URI, variableDefinitions);
         long byteRangeStart =
-            parseOptionalLongAttr(line, REGEX_BYTERANGE_START, /* defaultValue= */ C.LENGTH_UNSET);
+            parseOptionalLongAttr(line, ATTR_BYTERANGE_START, /* defaultValue= */ C.LENGTH_UNSET);
         long byteRangeLength =
-            parseOptionalLongAttr(line, REGEX_BYTERANGE_LENGTH, /* defaultValue= */ C.LENGTH_UNSET);
+            parseOptionalLongAttr(line, ATTR_BYTERANGE_LENGTH, /* defaultValue= */ C.LENGTH_UNSET);
         @Nullable
         String segmentEncryptionIV =
             getSegmentEncryptionIV(
@@ -885,8 +969,10 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
             playlistProtectionSchemes = getPlaylistProtectionSchemes(encryptionScheme, schemeDatas);
           }
         }
-        if (byteRangeStart == C.LENGTH_UNSET || byteRangeLength != C.LENGTH_UNSET) {
-          // Skip preload part if it is an unbounded range request.
+        if (byteRangeStart == C.LENGTH_UNSET
+            || byteRangeLength != C.LENGTH_UNSET
+            || parseUnboundedPreloadHints) {
+          // Skip preload part if it is an unbounded range request, unless enabled.
           preloadPart =
               new Part(
                   url,
@@ -908,16 +994,16 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         String segmentEncryptionIV =
             getSegmentEncryptionIV(
                 segmentMediaSequence, fullSegmentEncryptionKeyUri, fullSegmentEncryptionIV);
-        String url = parseStringAttr(line, REGEX_URI, variableDefinitions);
-        long partDurationUs =
-            (long) (parseDoubleAttr(line, REGEX_ATTR_DURATION) * C.MICROS_PER_SECOND);
+        String url = parseStringAttr(line, ATTR_URI, variableDefinitions);
+        long partDurationUs = (long) (parseDoubleAttr(line, ATTR_DURATION) * C.MICROS_PER_SECOND);
         boolean isIndependent =
-            parseOptionalBooleanAttribute(line, REGEX_INDEPENDENT, /* defaultValue= */ false);
+            parseOptionalBooleanAttribute(line, ATTR_INDEPENDENT, /* defaultValue= */ false);
         // The first part of a segment is always independent if the segments are independent.
         isIndependent |= hasIndependentSegmentsTag && trailingParts.isEmpty();
-        boolean isGap = parseOptionalBooleanAttribute(line, REGEX_GAP, /* defaultValue= */ false);
+        boolean isGap = parseOptionalBooleanAttribute(line, ATTR_GAP, /* defaultValue= */ false);
         @Nullable
-        String byteRange = parseOptionalStringAttr(line, REGEX_ATTR_BYTERANGE, variableDefinitions);
+        String byteRange =
+            parseOptionalStringAttr(line, ATTR_QUOTED_BYTERANGE, variableDefinitions);
         long partByteRangeLength = C.LENGTH_UNSET;
         if (byteRange != null) {
           String[] splitByteRange = Util.split(byteRange, "@");
@@ -955,6 +1041,35 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         if (partByteRangeLength != C.LENGTH_UNSET) {
           partByteRangeOffset += partByteRangeLength;
         }
+      } else if (!line.startsWith("#") && reusableSegment != null) {
+        Segment segment = reusableSegment;
+        reusableSegment = null;
+        if (segment.relativeStartTimeUs != segmentStartTimeUs
+            || segment.relativeDiscontinuitySequence != relativeDiscontinuitySequence) {
+          // The segment has moved within the playlist, for example because the playlist window
+          // slides forward.
+          segment = segment.copyWith(segmentStartTimeUs, relativeDiscontinuitySequence);
+        }
+        if (initializationSegment != null && segment.initializationSegment != null) {
+          // Keep using a single instance for all segments that share the EXT-X-MAP tag.
+          initializationSegment = segment.initializationSegment;
+        }
+        if (cachedDrmInitData == null && !currentSchemeDatas.isEmpty()) {
+          SchemeData[] schemeDatas = currentSchemeDatas.values().toArray(new SchemeData[0]);
+          cachedDrmInitData = new DrmInitData(encryptionScheme, schemeDatas);
+          if (playlistProtectionSchemes == null) {
+            playlistProtectionSchemes = getPlaylistProtectionSchemes(encryptionScheme, schemeDatas);
+          }
+        }
+        segmentMediaSequence++;
+        segments.add(segment);
+        segmentStartTimeUs += segment.durationUs;
+        partStartTimeUs = segmentStartTimeUs;
+        segmentByteRangeOffset =
+            segment.byteRangeLength != C.LENGTH_UNSET
+                ? segment.byteRangeOffset + segment.byteRangeLength
+                : 0;
+        segmentByteRangeLength = C.LENGTH_UNSET;
       } else if (!line.startsWith("#")) {
         @Nullable
         String segmentEncryptionIV =
@@ -990,7 +1105,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
           }
         }
 
-        segments.add(
+        Segment segment =
             new Segment(
                 segmentUri,
                 initializationSegment != null ? initializationSegment : inferredInitSegment,
@@ -1004,7 +1119,8 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
                 segmentByteRangeOffset,
                 segmentByteRangeLength,
                 hasGapTag,
-                trailingParts));
+                trailingParts);
+        segments.add(segment);
         segmentStartTimeUs += segmentDurationUs;
         partStartTimeUs = segmentStartTimeUs;
         segmentDurationUs = 0;
@@ -1063,6 +1179,60 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         renditionReportMap);
   }
 
+  @Nullable
+  private static Segment getPreviousSegment(
+      @Nullable HlsMediaPlaylist previousMediaPlaylist, long mediaSequence) {
+    if (previousMediaPlaylist == null) {
+      return null;
+    }
+    long segmentIndex = mediaSequence - previousMediaPlaylist.mediaSequence;
+    return segmentIndex >= 0 && segmentIndex < previousMediaPlaylist.segments.size()
+        ? previousMediaPlaylist.segments.get((int) segmentIndex)
+        : null;
+  }
+
+  private static boolean isMediaSegmentLine(String line) {
+    return !line.startsWith("#")
+        || line.startsWith(TAG_MEDIA_DURATION)
+        || line.startsWith(TAG_BYTERANGE)
+        || line.equals(TAG_DISCONTINUITY)
+        || line.startsWith(TAG_KEY)
+        || line.startsWith(TAG_INIT_SEGMENT)
+        || line.startsWith(TAG_PROGRAM_DATE_TIME)
+        || line.equals(TAG_GAP)
+        || isPartLine(line);
+  }
+
+  private static boolean isPartLine(String line) {
+    return line.startsWith(TAG_PART) && !line.startsWith(TAG_PART_INF);
+  }
+
+  private static int getPartLineCount(List<String> segmentLines) {
+    int partLineCount = 0;
+    for (int i = 0; i < segmentLines.size(); i++) {
+      if (isPartLine(segmentLines.get(i))) {
+        partLineCount++;
+      }
+    }
+    return partLineCount;
+  }
+
+  /**
+   * Removes the lines that only describe the segment itself, and that are therefore not needed
+   * when the segment is reused from the previous playlist.
+   */
+  private static void removeSegmentDescriptionLines(List<String> segmentLines) {
+    for (int i = segmentLines.size() - 1; i >= 0; i--) {
+      String line = segmentLines.get(i);
+      if (line.startsWith(TAG_MEDIA_DURATION)
+          || line.startsWith(TAG_BYTERANGE)
+          || line.equals(TAG_GAP)
+          || isPartLine(line)) {
+        segmentLines.remove(i);
+      }
+    }
+  }
+
   private static DrmInitData getPlaylistProtectionSchemes(
       @Nullable String encryptionScheme, SchemeData[] schemeDatas) {
     SchemeData[] playlistSchemeDatas = new SchemeData[schemeDatas.length];
@@ -1087,13 +1257,13 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
 
   private static @C.SelectionFlags int parseSelectionFlags(String line) {
     int flags = 0;
-    if (parseOptionalBooleanAttribute(line, REGEX_DEFAULT, false)) {
+    if (parseOptionalBooleanAttribute(line, ATTR_DEFAULT, false)) {
       flags |= C.SELECTION_FLAG_DEFAULT;
     }
-    if (parseOptionalBooleanAttribute(line, REGEX_FORCED, false)) {
+    if (parseOptionalBooleanAttribute(line, ATTR_FORCED, false)) {
       flags |= C.SELECTION_FLAG_FORCED;
     }
-    if (parseOptionalBooleanAttribute(line, REGEX_AUTOSELECT, false)) {
+    if (parseOptionalBooleanAttribute(line, ATTR_AUTOSELECT, false)) {
       flags |= C.SELECTION_FLAG_AUTOSELECT;
     }
     return flags;
@@ -1102,7 +1272,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
   private static @C.RoleFlags int parseRoleFlags(
       String line, Map<String, String> variableDefinitions) {
     String concatenatedCharacteristics =
-        parseOptionalStringAttr(line, REGEX_CHARACTERISTICS, variableDefinitions);
+        parseOptionalStringAttr(line, ATTR_CHARACTERISTICS, variableDefinitions);
     if (TextUtils.isEmpty(concatenatedCharacteristics)) {
       return 0;
     }
@@ -1128,9 +1298,9 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
       String line, String keyFormat, Map<String, String> variableDefinitions)
       throws ParserException {
     String keyFormatVersions =
-        parseOptionalStringAttr(line, REGEX_KEYFORMATVERSIONS, "1", variableDefinitions);
+        parseOptionalStringAttr(line, ATTR_KEYFORMATVERSIONS, "1", variableDefinitions);
     if (KEYFORMAT_WIDEVINE_PSSH_BINARY.equals(keyFormat)) {
-      String uriString = parseStringAttr(line, REGEX_URI, variableDefinitions);
+      String uriString = parseStringAttr(line, ATTR_URI, variableDefinitions);
       return new SchemeData(
           C.WIDEVINE_UUID,
           MimeTypes.VIDEO_MP4,
@@ -1138,7 +1308,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
     } else if (KEYFORMAT_WIDEVINE_PSSH_JSON.equals(keyFormat)) {
       return new SchemeData(C.WIDEVINE_UUID, "hls", Util.getUtf8Bytes(line));
     } else if (KEYFORMAT_PLAYREADY.equals(keyFormat) && "1".equals(keyFormatVersions)) {
-      String uriString = parseStringAttr(line, REGEX_URI, variableDefinitions);
+      String uriString = parseStringAttr(line, ATTR_URI, variableDefinitions);
       byte[] data = Base64.decode(uriString.substring(uriString.indexOf(',')), Base64.DEFAULT);
       byte[] psshData = PsshAtomUtil.buildPsshAtom(C.PLAYREADY_UUID, data);
       return new SchemeData(C.PLAYREADY_UUID, MimeTypes.VIDEO_MP4, psshData);
@@ -1148,26 +1318,26 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
 
   private static HlsMediaPlaylist.ServerControl parseServerControl(String line) {
     double skipUntilSeconds =
-        parseOptionalDoubleAttr(line, REGEX_CAN_SKIP_UNTIL, /* defaultValue= */ C.TIME_UNSET);
+        parseOptionalDoubleAttr(line, ATTR_CAN_SKIP_UNTIL, /* defaultValue= */ C.TIME_UNSET);
     long skipUntilUs =
         skipUntilSeconds == C.TIME_UNSET
             ? C.TIME_UNSET
             : (long) (skipUntilSeconds * C.MICROS_PER_SECOND);
     boolean canSkipDateRanges =
-        parseOptionalBooleanAttribute(line, REGEX_CAN_SKIP_DATE_RANGES, /* defaultValue= */ false);
+        parseOptionalBooleanAttribute(line, ATTR_CAN_SKIP_DATE_RANGES, /* defaultValue= */ false);
     double holdBackSeconds =
-        parseOptionalDoubleAttr(line, REGEX_HOLD_BACK, /* defaultValue= */ C.TIME_UNSET);
+        parseOptionalDoubleAttr(line, ATTR_HOLD_BACK, /* defaultValue= */ C.TIME_UNSET);
     long holdBackUs =
         holdBackSeconds == C.TIME_UNSET
             ? C.TIME_UNSET
             : (long) (holdBackSeconds * C.MICROS_PER_SECOND);
-    double partHoldBackSeconds = parseOptionalDoubleAttr(line, REGEX_PART_HOLD_BACK, C.TIME_UNSET);
+    double partHoldBackSeconds = parseOptionalDoubleAttr(line, ATTR_PART_HOLD_BACK, C.TIME_UNSET);
     long partHoldBackUs =
         partHoldBackSeconds == C.TIME_UNSET
             ? C.TIME_UNSET
             : (long) (partHoldBackSeconds * C.MICROS_PER_SECOND);
     boolean canBlockReload =
-        parseOptionalBooleanAttribute(line, REGEX_CAN_BLOCK_RELOAD, /* defaultValue= */ false);
+        parseOptionalBooleanAttribute(line, ATTR_CAN_BLOCK_RELOAD, /* defaultValue= */ false);
 
     return new HlsMediaPlaylist.ServerControl(
         skipUntilUs, canSkipDateRanges, holdBackUs, partHoldBackUs, canBlockReload);
@@ -1179,119 +1349,163 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         : C.CENC_TYPE_cbcs;
   }
 
-  private static int parseIntAttr(String line, Pattern pattern) throws ParserException {
-    return Integer.parseInt(parseStringAttr(line, pattern, Collections.emptyMap()));
+  private static int parseIntAttr(String line, HlsAttributeMatcher matcher)
+      throws ParserException {
+    return Integer.parseInt(parseStringAttr(line, matcher, Collections.emptyMap()));
   }
 
-  private static int parseOptionalIntAttr(String line, Pattern pattern, int defaultValue) {
-    Matcher matcher = pattern.matcher(line);
-    if (matcher.find()) {
-      return Integer.parseInt(checkNotNull(matcher.group(1)));
-    }
-    return defaultValue;
+  private static int parseOptionalIntAttr(
+      String line, HlsAttributeMatcher matcher, int defaultValue) {
+    @Nullable String value = matcher.find(line);
+    return value != null ? Integer.parseInt(value) : defaultValue;
   }
 
-  private static long parseLongAttr(String line, Pattern pattern) throws ParserException {
-    return Long.parseLong(parseStringAttr(line, pattern, Collections.emptyMap()));
+  private static long parseLongAttr(String line, HlsAttributeMatcher matcher)
+      throws ParserException {
+    return Long.parseLong(parseStringAttr(line, matcher, Collections.emptyMap()));
   }
 
-  private static long parseOptionalLongAttr(String line, Pattern pattern, long defaultValue) {
-    Matcher matcher = pattern.matcher(line);
-    if (matcher.find()) {
-      return Long.parseLong(checkNotNull(matcher.group(1)));
-    }
-    return defaultValue;
+  private static long parseOptionalLongAttr(
+      String line, HlsAttributeMatcher matcher, long defaultValue) {
+    @Nullable String value = matcher.find(line);
+    return value != null ? Long.parseLong(value) : defaultValue;
   }
 
-  private static long parseTimeSecondsToUs(String line, Pattern pattern) throws ParserException {
-    String timeValueSeconds = parseStringAttr(line, pattern, Collections.emptyMap());
+  private static long parseTimeSecondsToUs(String line, HlsAttributeMatcher matcher)
+      throws ParserException {
+    String timeValueSeconds = parseStringAttr(line, matcher, Collections.emptyMap());
+    // The value consists of digits and dots. Avoid BigDecimal in the common case.
+    int dotIndex = timeValueSeconds.indexOf('.');
+    int integerDigitCount = dotIndex == -1 ? timeValueSeconds.length() : dotIndex;
+    if (integerDigitCount > 0
+        && timeValueSeconds.charAt(0) != '-'
+        && integerDigitCount <= MAX_FAST_PATH_INTEGER_DIGIT_COUNT
+        && (dotIndex == -1 || timeValueSeconds.indexOf('.', dotIndex + 1) == -1)) {
+      long timeUs =
+          Long.parseLong(timeValueSeconds.substring(0, integerDigitCount)) * C.MICROS_PER_SECOND;
+      long digitValueUs = C.MICROS_PER_SECOND / 10;
+      for (int i = integerDigitCount + 1; i < timeValueSeconds.length() && digitValueUs > 0; i++) {
+        timeUs += (timeValueSeconds.charAt(i) - '0') * digitValueUs;
+        digitValueUs /= 10;
+      }
+      return timeUs;
+    }
     BigDecimal timeValue = new BigDecimal(timeValueSeconds);
     return timeValue.multiply(new BigDecimal(C.MICROS_PER_SECOND)).longValue();
   }
 
-  private static double parseDoubleAttr(String line, Pattern pattern) throws ParserException {
-    return Double.parseDouble(parseStringAttr(line, pattern, Collections.emptyMap()));
+  private static double parseDoubleAttr(String line, HlsAttributeMatcher matcher)
+      throws ParserException {
+    return Double.parseDouble(parseStringAttr(line, matcher, Collections.emptyMap()));
   }
 
   private static String parseStringAttr(
-      String line, Pattern pattern, Map<String, String> variableDefinitions)
+      String line, HlsAttributeMatcher matcher, Map<String, String> variableDefinitions)
       throws ParserException {
-    String value = parseOptionalStringAttr(line, pattern, variableDefinitions);
+    String value = parseOptionalStringAttr(line, matcher, variableDefinitions);
     if (value != null) {
       return value;
     } else {
       throw ParserException.createForMalformedManifest(
-          "Couldn't match " + pattern.pattern() + " in " + line, /* cause= */ null);
+          "Couldn't match " + matcher + " in " + line, /* cause= */ null);
     }
   }
 
   @Nullable
   private static String parseOptionalStringAttr(
-      String line, Pattern pattern, Map<String, String> variableDefinitions) {
-    return parseOptionalStringAttr(line, pattern, null, variableDefinitions);
+      String line, HlsAttributeMatcher matcher, Map<String, String> variableDefinitions) {
+    return parseOptionalStringAttr(line, matcher, null, variableDefinitions);
   }
 
   private static @PolyNull String parseOptionalStringAttr(
       String line,
-      Pattern pattern,
+      HlsAttributeMatcher matcher,
       @PolyNull String defaultValue,
       Map<String, String> variableDefinitions) {
-    Matcher matcher = pattern.matcher(line);
-    @PolyNull String value = matcher.find() ? checkNotNull(matcher.group(1)) : defaultValue;
+    @Nullable String matchedValue = matcher.find(line);
+    @PolyNull String value = matchedValue != null ? matchedValue : defaultValue;
     return variableDefinitions.isEmpty() || value == null
         ? value
         : replaceVariableReferences(value, variableDefinitions);
   }
 
-  private static double parseOptionalDoubleAttr(String line, Pattern pattern, double defaultValue) {
-    Matcher matcher = pattern.matcher(line);
-    if (matcher.find()) {
-      return Double.parseDouble(checkNotNull(matcher.group(1)));
-    }
-    return defaultValue;
+  private static double parseOptionalDoubleAttr(
+      String line, HlsAttributeMatcher matcher, double defaultValue) {
+    @Nullable String value = matcher.find(line);
+    return value != null ? Double.parseDouble(value) : defaultValue;
   }
 
+  /**
+   * Replaces references of the form <code>{$name}</code>, where the name consists of ASCII letters,
+   * digits, hyphens and underscores, by the values of the defined variables. References to
+   * undefined variables are left unchanged.
+   */
   private static String replaceVariableReferences(
       String string, Map<String, String> variableDefinitions) {
-    Matcher matcher = REGEX_VARIABLE_REFERENCE.matcher(string);
-    // TODO: Replace StringBuffer with StringBuilder once Java 9 is available.
-    StringBuffer stringWithReplacements = new StringBuffer();
-    while (matcher.find()) {
-      String groupName = matcher.group(1);
-      if (variableDefinitions.containsKey(groupName)) {
-        matcher.appendReplacement(
-            stringWithReplacements, Matcher.quoteReplacement(variableDefinitions.get(groupName)));
+    int referenceStart = string.indexOf(VARIABLE_REFERENCE_START);
+    if (referenceStart == -1) {
+      return string;
+    }
+    StringBuilder stringWithReplacements = new StringBuilder();
+    int copiedLength = 0;
+    while (referenceStart != -1) {
+      int nameStart = referenceStart + VARIABLE_REFERENCE_START.length();
+      int nameEnd = nameStart;
+      while (nameEnd < string.length() && isVariableNameChar(string.charAt(nameEnd))) {
+        nameEnd++;
+      }
+      if (nameEnd == nameStart || nameEnd == string.length() || string.charAt(nameEnd) != '}') {
+        // Not a reference. Look for one starting at the next character.
+        referenceStart = string.indexOf(VARIABLE_REFERENCE_START, referenceStart + 1);
+        continue;
+      }
+      String name = string.substring(nameStart, nameEnd);
+      if (variableDefinitions.containsKey(name)) {
+        stringWithReplacements
+            .append(string, copiedLength, referenceStart)
+            .append(variableDefinitions.get(name));
+        copiedLength = nameEnd + 1;
       } else {
         // The variable is not defined. The value is ignored.
       }
+      referenceStart = string.indexOf(VARIABLE_REFERENCE_START, nameEnd + 1);
     }
-    matcher.appendTail(stringWithReplacements);
+    stringWithReplacements.append(string, copiedLength, string.length());
     return stringWithReplacements.toString();
   }
 
+  private static boolean isVariableNameChar(char c) {
+    return (c >= 'a' && c <= 'z')
+        || (c >= 'A' && c <= 'Z')
+        || (c >= '0' && c <= '9')
+        || c == '-'
+        || c == '_';
+  }
+
   private static boolean parseOptionalBooleanAttribute(
-      String line, Pattern pattern, boolean defaultValue) {
-    Matcher matcher = pattern.matcher(line);
-    if (matcher.find()) {
-      return BOOLEAN_TRUE.equals(matcher.group(1));
-    }
-    return defaultValue;
+      String line, HlsAttributeMatcher matcher, boolean defaultValue) {
+    @Nullable String value = matcher.find(line);
+    return value != null ? BOOLEAN_TRUE.equals(value) : defaultValue;
   }
 
-  private static Pattern compileBooleanAttrPattern(String attribute) {
-    return Pattern.compile(attribute + "=(" + BOOLEAN_FALSE + "|" + BOOLEAN_TRUE + ")");
+  private static HlsAttributeMatcher createBooleanAttrMatcher(String attribute) {
+    return HlsAttributeMatcher.enumerated(
+        attribute + "=", /* requireSeparator= */ false, BOOLEAN_FALSE, BOOLEAN_TRUE);
   }
 
   private static class LineIterator {
 
     private final BufferedReader reader;
     private final Queue<String> extraLines;
+    private final ArrayDeque<String> pushedBackLines;
 
     @Nullable private String next;
+    private boolean isNextPushedBack;
 
     public LineIterator(Queue<String> extraLines, BufferedReader reader) {
       this.extraLines = extraLines;
       this.reader = reader;
+      pushedBackLines = new ArrayDeque<>();
     }
 
     @EnsuresNonNullIf(expression = "next", result = true)
@@ -1299,6 +1513,12 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
       if (next != null) {
         return true;
       }
+      if (!pushedBackLines.isEmpty()) {
+        next = checkNotNull(pushedBackLines.poll());
+        isNextPushedBack = true;
+        return true;
+      }
+      isNextPushedBack = false;
       if (!extraLines.isEmpty()) {
         next = checkNotNull(extraLines.poll());
         return true;
@@ -1322,5 +1542,21 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         throw new NoSuchElementException();
       }
     }
+
+    /**
+     * Returns whether the line returned by the next call to {@link #next()} is a pushed back line.
+     * Must only be called after {@link #hasNext()} returned true.
+     */
+    public boolean isNextPushedBack() {
+      return isNextPushedBack;
+    }
+
+    /** Pushes back lines, so that they are returned again before any other remaining lines. */
+    public void pushBack(List<String> lines) {
+      checkState(next == null);
+      for (int i = lines.size() - 1; i >= 0; i--) {
+        pushedBackLines.addFirst(lines.get(i));
+      }
+    }
   }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import android.net.Uri;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.testutil.FakeDataSet;
+import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceUtil;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link HlsSegmentPrefetcher}. */
+@RunWith(AndroidJUnit4.class)
+public final class HlsSegmentPrefetcherTest {
+
+  private static final DataSpec SEGMENT_0 = new DataSpec(Uri.parse("https://test.test/0.ts"));
+  private static final DataSpec SEGMENT_1 = new DataSpec(Uri.parse("https://test.test/1.ts"));
+  private static final DataSpec SEGMENT_2 = new DataSpec(Uri.parse("https://test.test/2.ts"));
+  private static final DataSpec SEGMENT_3 = new DataSpec(Uri.parse("https://test.test/3.ts"));
+  private static final int ALLOCATION_LENGTH = 4096;
+
+  private FakeDataSet fakeDataSet;
+  private TransferListener mockTransferListener;
+  private DefaultAllocator allocator;
+  private HlsSegmentPrefetcher prefetcher;
+  private FakeDataSource upstream;
+  private DataSource dataSource;
+
+  @Before
+  public void setUp() {
+    fakeDataSet =
+        new FakeDataSet()
+            .setRandomData(SEGMENT_0.uri, /* length= */ 1000)
+            .setRandomData(SEGMENT_1.uri, /* length= */ 100_000)
+            .setRandomData(SEGMENT_2.uri, /* length= */ 2000)
+            .setRandomData(SEGMENT_3.uri, /* length= */ 3000);
+    mockTransferListener = mock(TransferListener.class);
+    allocator = new DefaultAllocator(/* trimOnReset= */ true, ALLOCATION_LENGTH);
+    prefetcher =
+        new HlsSegmentPrefetcher(
+            new DefaultHlsDataSourceFactory(
+                new FakeDataSource.Factory().setFakeDataSet(fakeDataSet)),
+            mockTransferListener,
+            allocator,
+            /* maxPrefetchCount= */ 2);
+    upstream = new FakeDataSource(fakeDataSet);
+    dataSource = prefetcher.createDataSource(upstream);
+  }
+
+  @After
+  public void tearDown() {
+    prefetcher.release();
+  }
+
+  @Test
+  public void read_prefetchedSegment_readsFromPrefetch() throws Exception {
+    prefetcher.update(SEGMENT_0, ImmutableList.of(SEGMENT_1, SEGMENT_2, SEGMENT_3));
+
+    byte[] data1 = readFully(SEGMENT_1);
+    byte[] data2 = readFully(SEGMENT_2);
+
+    assertThat(data1).isEqualTo(fakeDataSet.getData(SEGMENT_1.uri).getData());
+    assertThat(data2).isEqualTo(fakeDataSet.getData(SEGMENT_2.uri).getData());
+    assertThat(upstream.getAndClearOpenedDataSpecs()).isEmpty();
+  }
+
+  @Test
+  public void read_segmentBeyondPrefetchCount_readsFromUpstream() throws Exception {
+    prefetcher.update(SEGMENT_0, ImmutableList.of(SEGMENT_1, SEGMENT_2, SEGMENT_3));
+
+    byte[] data0 = readFully(SEGMENT_0);
+    byte[] data3 = readFully(SEGMENT_3);
+
+    assertThat(data0).isEqualTo(fakeDataSet.getData(SEGMENT_0.uri).getData());
+    assertThat(data3).isEqualTo(fakeDataSet.getData(SEGMENT_3.uri).getData());
+    assertThat(upstream.getAndClearOpenedDataSpecs()).hasLength(2);
+  }
+
+  @Test
+  public void read_subrangeOfPrefetchedSegment_readsFromPrefetch() throws Exception {
+    prefetcher.update(SEGMENT_0, ImmutableList.of(SEGMENT_1));
+
+    byte[] data = readFully(SEGMENT_1.subrange(/* offset= */ 500, /* length= */ 1000));
+
+    assertThat(data)
+        .isEqualTo(Arrays.copyOfRange(fakeDataSet.getData(SEGMENT_1.uri).getData(), 500, 1500));
+    assertThat(upstream.getAndClearOpenedDataSpecs()).isEmpty();
+  }
+
+  @Test
+  public void update_withOtherSegments_cancelsObsoletePrefetches() throws Exception {
+    prefetcher.update(SEGMENT_0, ImmutableList.of(SEGMENT_1));
+    // Simulate a track switch that selects a different segment to follow the current one.
+    prefetcher.update(SEGMENT_0, ImmutableList.of(SEGMENT_2));
+
+    byte[] data1 = readFully(SEGMENT_1);
+    byte[] data2 = readFully(SEGMENT_2);
+
+    assertThat(data1).isEqualTo(fakeDataSet.getData(SEGMENT_1.uri).getData());
+    assertThat(data2).isEqualTo(fakeDataSet.getData(SEGMENT_2.uri).getData());
+    DataSpec[] upstreamDataSpecs = upstream.getAndClearOpenedDataSpecs();
+    assertThat(upstreamDataSpecs).hasLength(1);
+    assertThat(upstreamDataSpecs[0].uri).isEqualTo(SEGMENT_1.uri);
+  }
+
+  @Test
+  public void read_prefetchedSegment_holdsDataInAllocatorUntilClosed() throws Exception {
+    prefetcher.update(SEGMENT_0, ImmutableList.of(SEGMENT_1));
+
+    dataSource.open(SEGMENT_1);
+    DataSourceUtil.readToEnd(dataSource);
+    int bytesAllocatedWhileOpen = allocator.getTotalBytesAllocated();
+    dataSource.close();
+
+    // The whole segment has been loaded, into whole allocations.
+    assertThat(bytesAllocatedWhileOpen).isAtLeast(100_000);
+    assertThat(bytesAllocatedWhileOpen % ALLOCATION_LENGTH).isEqualTo(0);
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(0);
+  }
+
+  @Test
+  public void prefetch_reportsTransferToMediaTransferListener() throws Exception {
+    prefetcher.update(SEGMENT_0, ImmutableList.of(SEGMENT_1));
+
+    readFully(SEGMENT_1);
+
+    verify(mockTransferListener, timeout(/* millis= */ 5_000))
+        .onTransferEnd(
+            any(), argThat(dataSpec -> dataSpec.uri.equals(SEGMENT_1.uri)), anyBoolean());
+  }
+
+  private byte[] readFully(DataSpec dataSpec) throws IOException {
+    try {
+      dataSource.open(dataSpec);
+      return DataSourceUtil.readToEnd(dataSource);
+    } finally {
+      dataSource.close();
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls.playlist;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link HlsAttributeMatcher}. */
+@RunWith(AndroidJUnit4.class)
+public class HlsAttributeMatcherTest {
+
+  private static final ImmutableList<HlsAttributeMatcher> MATCHERS =
+      ImmutableList.of(
+          HlsAttributeMatcher.quotedString("URI="),
+          HlsAttributeMatcher.integer("BANDWIDTH="),
+          HlsAttributeMatcher.integerNotPrecededByHyphen("BANDWIDTH="),
+          HlsAttributeMatcher.decimal("DURATION="),
+          HlsAttributeMatcher.decimalPrecededBySeparator("HOLD-BACK="),
+          HlsAttributeMatcher.signedDecimal("TIME-OFFSET="),
+          HlsAttributeMatcher.byteRange("#EXT-X-BYTERANGE:", /* quoted= */ false),
+          HlsAttributeMatcher.byteRange("BYTERANGE=", /* quoted= */ true),
+          HlsAttributeMatcher.resolution("RESOLUTION="),
+          HlsAttributeMatcher.enumerated(
+              "METHOD=", /* requireSeparator= */ true, "NONE", "AES-128", "SAMPLE-AES"),
+          HlsAttributeMatcher.enumerated("TYPE=", /* requireSeparator= */ false, "PART", "MAP"),
+          HlsAttributeMatcher.excludingChars("IV=", ",.*"),
+          HlsAttributeMatcher.quotedPrefixedInteger("INSTREAM-ID=", "CC", "SERVICE"),
+          HlsAttributeMatcher.remainder("#EXT-X-PLAYLIST-TYPE:"),
+          HlsAttributeMatcher.textAfterDecimal("#EXTINF:"));
+
+  private static final ImmutableList<String> LINES =
+      ImmutableList.of(
+          "",
+          "#EXT-X-STREAM-INF:AVERAGE-BANDWIDTH=1280000,BANDWIDTH=1500000,RESOLUTION=1280x720",
+          "#EXT-X-STREAM-INF:AVERAGE-BANDWIDTH=1280000",
+          "#EXT-X-STREAM-INF:BANDWIDTH=12a,BANDWIDTH=34",
+          "#EXT-X-PART:DURATION=1.001,URI=\"part.ts\",BYTERANGE=\"1000@200\"",
+          "#EXT-X-PART:DURATION=.5x,URI=\"\",BYTERANGE=\"1000@\"",
+          "#EXT-X-SERVER-CONTROL:PART-HOLD-BACK=1.5,HOLD-BACK=6.0",
+          "#EXT-X-SERVER-CONTROL:PART-HOLD-BACK=1.5",
+          "#EXT-X-START:TIME-OFFSET=-2.5,PRECISE=YES",
+          "#EXT-X-BYTERANGE:1000@0",
+          "#EXT-X-BYTERANGE:1000@x",
+          "#EXT-X-KEY:METHOD=AES-128 ,URI=\"key\",IV=0x1234",
+          "#EXT-X-KEY:METHOD=AES-1280,URI=\"key\"",
+          "#EXT-X-KEY:METHOD=SAMPLE-AES\n",
+          "#EXT-X-PRELOAD-HINT:TYPE=PARTIAL,TYPE=MAP",
+          "#EXT-X-MEDIA:TYPE=CLOSED-CAPTIONS,INSTREAM-ID=\"CC1\",INSTREAM-ID=\"SERVICE12\"",
+          "#EXT-X-MEDIA:INSTREAM-ID=\"CC\",INSTREAM-ID=\"SERVICE3\"",
+          "#EXT-X-PLAYLIST-TYPE:VOD ",
+          "#EXT-X-PLAYLIST-TYPE:",
+          "#EXTINF:10.0,title with, commas",
+          "#EXTINF:10.0,",
+          "#EXTINF:10,title\nnext line");
+
+  @Test
+  public void find_returnsSameValueAsEquivalentRegularExpression() {
+    for (HlsAttributeMatcher matcher : MATCHERS) {
+      Pattern pattern = Pattern.compile(matcher.toString());
+      for (String line : LINES) {
+        assertThat(matcher.find(line)).isEqualTo(findWithPattern(pattern, line));
+      }
+    }
+  }
+
+  @Test
+  public void find_withQuotedString_returnsFirstQuotedValue() {
+    HlsAttributeMatcher matcher = HlsAttributeMatcher.quotedString("URI=");
+
+    assertThat(matcher.find("#EXT-X-MAP:URI=\"init.mp4\",BYTERANGE=\"720@0\""))
+        .isEqualTo("init.mp4");
+    assertThat(matcher.find("#EXT-X-MAP:URI=init.mp4")).isNull();
+  }
+
+  @Test
+  public void find_withIntegerNotPrecededByHyphen_ignoresPrefixedAttribute() {
+    HlsAttributeMatcher matcher = HlsAttributeMatcher.integerNotPrecededByHyphen("BANDWIDTH=");
+
+    assertThat(matcher.find("#EXT-X-STREAM-INF:AVERAGE-BANDWIDTH=100,BANDWIDTH=200"))
+        .isEqualTo("200");
+    assertThat(matcher.find("#EXT-X-STREAM-INF:AVERAGE-BANDWIDTH=100")).isNull();
+  }
+
+  @Test
+  public void find_withEnumeratedRequiringSeparator_rejectsLongerValue() {
+    HlsAttributeMatcher matcher =
+        HlsAttributeMatcher.enumerated(
+            "METHOD=", /* requireSeparator= */ true, "SAMPLE-AES", "SAMPLE-AES-CTR");
+
+    assertThat(matcher.find("#EXT-X-KEY:METHOD=SAMPLE-AES-CTR,URI=\"key\""))
+        .isEqualTo("SAMPLE-AES-CTR");
+    assertThat(matcher.find("#EXT-X-KEY:METHOD=SAMPLE-AES-CENC")).isNull();
+  }
+
+  @Nullable
+  private static String findWithPattern(Pattern pattern, String line) {
+    Matcher matcher = pattern.matcher(line);
+    return matcher.find() ? matcher.group(1) : null;
+  }
+}
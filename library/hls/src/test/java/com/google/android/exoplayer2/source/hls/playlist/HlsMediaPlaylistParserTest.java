@@ -464,6 +464,235 @@ public class HlsMediaPlaylistParserTest {
     assertThat(playlist.trailingParts.get(0).relativeDiscontinuitySequence).isEqualTo(1);
   }
 
+  @Test
+  public void parseMediaPlaylist_withPreviousPlaylist_reusesUnchangedSegments()
+      throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-VERSION:6\n"
+            + "#EXT-X-PLAYLIST-TYPE:EVENT\n"
+            + "#EXT-X-MEDIA-SEQUENCE:264\n"
+            + "#EXT-X-MAP:URI=\"init.mp4\"\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence264.mp4\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence265.mp4\n";
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-VERSION:6\n"
+            + "#EXT-X-PLAYLIST-TYPE:EVENT\n"
+            + "#EXT-X-MEDIA-SEQUENCE:264\n"
+            + "#EXT-X-MAP:URI=\"init.mp4\"\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence264.mp4\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence265.mp4\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence266.mp4\n";
+    InputStream previousInputStream =
+        new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString));
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist) new HlsPlaylistParser().parse(playlistUri, previousInputStream);
+    InputStream inputStream = new ByteArrayInputStream(Util.getUtf8Bytes(playlistString));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMultivariantPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, inputStream);
+
+    assertThat(playlist.segments).hasSize(3);
+    assertThat(playlist.segments.get(0)).isSameInstanceAs(previousPlaylist.segments.get(0));
+    assertThat(playlist.segments.get(1)).isSameInstanceAs(previousPlaylist.segments.get(1));
+    assertThat(playlist.segments.get(2).url).isEqualTo("fileSequence266.mp4");
+    assertThat(playlist.segments.get(2).relativeStartTimeUs).isEqualTo(8000160);
+    assertThat(playlist.segments.get(2).initializationSegment)
+        .isSameInstanceAs(playlist.segments.get(0).initializationSegment);
+  }
+
+  @Test
+  public void parseMediaPlaylist_largeEventPlaylistWithPreviousPlaylist_reusesAllOldSegments()
+      throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    int segmentCount = 5000;
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(
+                    playlistUri,
+                    new ByteArrayInputStream(
+                        Util.getUtf8Bytes(createEventPlaylist(segmentCount))));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMultivariantPlaylist.EMPTY, previousPlaylist)
+                .parse(
+                    playlistUri,
+                    new ByteArrayInputStream(
+                        Util.getUtf8Bytes(createEventPlaylist(segmentCount + 1))));
+
+    assertThat(playlist.segments).hasSize(segmentCount + 1);
+    for (int i = 0; i < segmentCount; i++) {
+      assertThat(playlist.segments.get(i)).isSameInstanceAs(previousPlaylist.segments.get(i));
+    }
+    assertThat(playlist.segments.get(segmentCount).relativeStartTimeUs)
+        .isEqualTo(segmentCount * 2_000_000L);
+  }
+
+  @Test
+  public void parseMediaPlaylist_withPreviousPlaylistAndSlidingWindow_rebasesReusedSegments()
+      throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-MEDIA-SEQUENCE:264\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence264.mp4\n"
+            + "#EXT-X-DISCONTINUITY\n"
+            + "#EXTINF:3.00000,\n"
+            + "fileSequence265.mp4\n"
+            + "#EXTINF:2.00000,segment266\n"
+            + "#EXT-X-BYTERANGE:1000@500\n"
+            + "media.mp4\n";
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-MEDIA-SEQUENCE:265\n"
+            + "#EXT-X-DISCONTINUITY\n"
+            + "#EXTINF:3.00000,\n"
+            + "fileSequence265.mp4\n"
+            + "#EXTINF:2.00000,segment266\n"
+            + "#EXT-X-BYTERANGE:1000@500\n"
+            + "media.mp4\n"
+            + "#EXTINF:4.00000,\n"
+            + "#EXT-X-BYTERANGE:2000\n"
+            + "media.mp4\n";
+    InputStream previousInputStream =
+        new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString));
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist) new HlsPlaylistParser().parse(playlistUri, previousInputStream);
+    InputStream inputStream = new ByteArrayInputStream(Util.getUtf8Bytes(playlistString));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMultivariantPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, inputStream);
+
+    assertThat(playlist.segments).hasSize(3);
+    Segment segment265 = playlist.segments.get(0);
+    assertThat(segment265.url).isEqualTo("fileSequence265.mp4");
+    assertThat(segment265.durationUs).isEqualTo(3000000);
+    assertThat(segment265.relativeStartTimeUs).isEqualTo(0);
+    assertThat(segment265.relativeDiscontinuitySequence).isEqualTo(1);
+    Segment segment266 = playlist.segments.get(1);
+    assertThat(segment266.title).isEqualTo("segment266");
+    assertThat(segment266.durationUs).isEqualTo(2000000);
+    assertThat(segment266.relativeStartTimeUs).isEqualTo(3000000);
+    assertThat(segment266.relativeDiscontinuitySequence).isEqualTo(1);
+    assertThat(segment266.byteRangeOffset).isEqualTo(500);
+    assertThat(segment266.byteRangeLength).isEqualTo(1000);
+    Segment segment267 = playlist.segments.get(2);
+    assertThat(segment267.durationUs).isEqualTo(4000000);
+    assertThat(segment267.relativeStartTimeUs).isEqualTo(5000000);
+    assertThat(segment267.relativeDiscontinuitySequence).isEqualTo(1);
+    // The byte range of the new segment continues after the byte range of the reused segment.
+    assertThat(segment267.byteRangeOffset).isEqualTo(1500);
+    assertThat(segment267.byteRangeLength).isEqualTo(2000);
+    // Lines whose parsing is skipped are still exposed as tags, exactly once.
+    assertThat(playlist.tags)
+        .containsExactly(
+            "#EXT-X-TARGETDURATION:4",
+            "#EXT-X-MEDIA-SEQUENCE:265",
+            "#EXT-X-DISCONTINUITY",
+            "#EXTINF:3.00000,",
+            "#EXTINF:2.00000,segment266",
+            "#EXT-X-BYTERANGE:1000@500",
+            "#EXTINF:4.00000,",
+            "#EXT-X-BYTERANGE:2000")
+        .inOrder();
+  }
+
+  @Test
+  public void parseMediaPlaylist_withPreviousPlaylistOfRestartedStream_parsesAllSegments()
+      throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-MEDIA-SEQUENCE:0\n"
+            + "#EXTINF:4.00000,\n"
+            + "streamA0.ts\n"
+            + "#EXTINF:4.00000,\n"
+            + "streamA1.ts\n";
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-MEDIA-SEQUENCE:0\n"
+            + "#EXTINF:2.00000,\n"
+            + "streamB0.ts\n"
+            + "#EXTINF:3.00000,\n"
+            + "streamB1.ts\n";
+    InputStream previousInputStream =
+        new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString));
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist) new HlsPlaylistParser().parse(playlistUri, previousInputStream);
+    InputStream inputStream = new ByteArrayInputStream(Util.getUtf8Bytes(playlistString));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMultivariantPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, inputStream);
+
+    assertThat(playlist.segments).hasSize(2);
+    assertThat(playlist.segments.get(0).url).isEqualTo("streamB0.ts");
+    assertThat(playlist.segments.get(0).durationUs).isEqualTo(2000000);
+    assertThat(playlist.segments.get(1).url).isEqualTo("streamB1.ts");
+    assertThat(playlist.segments.get(1).durationUs).isEqualTo(3000000);
+    assertThat(playlist.segments.get(1).relativeStartTimeUs).isEqualTo(2000000);
+  }
+
+  @Test
+  public void parseMediaPlaylist_withPreviousPlaylistAndRemovedParts_doesNotReuseSegment()
+      throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-PART-INF:PART-TARGET=2\n"
+            + "#EXT-X-MEDIA-SEQUENCE:266\n"
+            + "#EXT-X-PART:DURATION=2.00000,URI=\"part266.0.ts\"\n"
+            + "#EXT-X-PART:DURATION=2.00000,URI=\"part266.1.ts\"\n"
+            + "#EXTINF:4.00000,\n"
+            + "fileSequence266.ts\n";
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-PART-INF:PART-TARGET=2\n"
+            + "#EXT-X-MEDIA-SEQUENCE:266\n"
+            + "#EXTINF:4.00000,\n"
+            + "fileSequence266.ts\n"
+            + "#EXT-X-PART:DURATION=2.00000,URI=\"part267.0.ts\"\n";
+    InputStream previousInputStream =
+        new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString));
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist) new HlsPlaylistParser().parse(playlistUri, previousInputStream);
+    InputStream inputStream = new ByteArrayInputStream(Util.getUtf8Bytes(playlistString));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMultivariantPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, inputStream);
+
+    assertThat(previousPlaylist.segments.get(0).parts).hasSize(2);
+    assertThat(playlist.segments).hasSize(1);
+    assertThat(playlist.segments.get(0).parts).isEmpty();
+    assertThat(playlist.trailingParts).hasSize(1);
+    assertThat(playlist.trailingParts.get(0).relativeStartTimeUs).isEqualTo(4000000);
+  }
+
   @Test
   public void parseMediaPlaylist_withParts_parsesPartWithAllAttributes() throws IOException {
     Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
@@ -708,6 +937,35 @@ public class HlsMediaPlaylistParserTest {
     assertThat(Iterables.getLast(playlist.trailingParts).isPreload).isFalse();
   }
 
+  @Test
+  public void parseMediaPlaylist_withUnboundedPreloadHintTypePartAndParsingEnabled_parsesPart()
+      throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-VERSION:6\n"
+            + "#EXT-X-MEDIA-SEQUENCE:266\n"
+            + "#EXT-X-PART:DURATION=2.00000,URI=\"fileSequence267.mp4\",BYTERANGE=\"1234@0\"\n"
+            + "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"fileSequence267.mp4\",BYTERANGE-START=1234\n";
+    InputStream inputStream = new ByteArrayInputStream(Util.getUtf8Bytes(playlistString));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(
+                    HlsMultivariantPlaylist.EMPTY,
+                    /* previousMediaPlaylist= */ null,
+                    /* parseUnboundedPreloadHints= */ true)
+                .parse(playlistUri, inputStream);
+
+    assertThat(playlist.trailingParts).hasSize(2);
+    HlsMediaPlaylist.Part preloadPart = playlist.trailingParts.get(1);
+    assertThat(preloadPart.url).isEqualTo("fileSequence267.mp4");
+    assertThat(preloadPart.byteRangeOffset).isEqualTo(1234);
+    assertThat(preloadPart.byteRangeLength).isEqualTo(C.LENGTH_UNSET);
+    assertThat(preloadPart.isPreload).isTrue();
+  }
+
   @Test
   public void parseMediaPlaylist_withPreloadHintTypePartAndAesPlayReadyKey_inheritsDrmInitData()
       throws IOException {
@@ -1472,4 +1730,17 @@ public class HlsMediaPlaylistParserTest {
       assertThat(playlist.segments.get(i - 1).url).isEqualTo("long_path" + i + ".ts");
     }
   }
+
+  private static String createEventPlaylist(int segmentCount) {
+    StringBuilder playlist =
+        new StringBuilder(
+            "#EXTM3U\n"
+                + "#EXT-X-TARGETDURATION:2\n"
+                + "#EXT-X-PLAYLIST-TYPE:EVENT\n"
+                + "#EXT-X-MEDIA-SEQUENCE:0\n");
+    for (int i = 0; i < segmentCount; i++) {
+      playlist.append("#EXTINF:2.000,\n").append("segment").append(i).append(".ts\n");
+    }
+    return playlist.toString();
+  }
 }
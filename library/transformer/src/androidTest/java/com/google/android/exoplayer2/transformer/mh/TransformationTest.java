@@ -72,6 +72,44 @@ public class TransformationTest {
         .run(testId, MediaItem.fromUri(Uri.parse(MP4_ASSET_WITH_INCREASING_TIMESTAMPS_URI_STRING)));
   }
 
+  @Test
+  public void transformWithoutDecodeEncode_withRemuxing() throws Exception {
+    String testId = TAG + "_transformWithoutDecodeEncode_withRemuxing";
+    Context context = ApplicationProvider.getApplicationContext();
+    // The elapsed time and throughput can be compared with transformWithoutDecodeEncode to measure
+    // the cost of pacing the samples through the player.
+    Transformer transformer =
+        new Transformer.Builder(context).experimentalSetRemuxingEnabled(true).build();
+    new TransformerAndroidTestRunner.Builder(context, transformer)
+        .build()
+        .run(testId, MediaItem.fromUri(Uri.parse(MP4_ASSET_WITH_INCREASING_TIMESTAMPS_URI_STRING)));
+  }
+
+  @Test
+  public void transformWithoutDecodeEncode4K60() throws Exception {
+    String testId = TAG + "_transformWithoutDecodeEncode4K60";
+    Context context = ApplicationProvider.getApplicationContext();
+    Transformer transformer = new Transformer.Builder(context).build();
+    new TransformerAndroidTestRunner.Builder(context, transformer)
+        .setTimeoutSeconds(180)
+        .build()
+        .run(testId, MediaItem.fromUri(Uri.parse(MP4_REMOTE_4K60_PORTRAIT_URI_STRING)));
+  }
+
+  @Test
+  public void transformWithoutDecodeEncode4K60_withRemuxing() throws Exception {
+    String testId = TAG + "_transformWithoutDecodeEncode4K60_withRemuxing";
+    Context context = ApplicationProvider.getApplicationContext();
+    // Compare with transformWithoutDecodeEncode4K60, on a large enough input for the throughput to
+    // be dominated by copying the samples rather than by setting up the transformation.
+    Transformer transformer =
+        new Transformer.Builder(context).experimentalSetRemuxingEnabled(true).build();
+    new TransformerAndroidTestRunner.Builder(context, transformer)
+        .setTimeoutSeconds(180)
+        .build()
+        .run(testId, MediaItem.fromUri(Uri.parse(MP4_REMOTE_4K60_PORTRAIT_URI_STRING)));
+  }
+
   @Test
   public void transformToSpecificBitrate() throws Exception {
     String testId = TAG + "_transformToSpecificBitrate";
@@ -0,0 +1,630 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.transformer;
+
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
+
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.NalUnitUtil;
+import com.google.android.exoplayer2.util.Util;
+import com.google.common.collect.ImmutableList;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the boxes (defined in ISO/IEC 14496-12) of the fragmented MP4 files written by {@link
+ * FragmentedMp4Muxer}.
+ *
+ * <p>All media timelines use a timescale of {@link #MEDIA_TIMESCALE}, so that sample timestamps in
+ * microseconds can be written without rescaling.
+ */
+/* package */ final class FragmentedMp4Boxes {
+
+  /** The number of units per second of the media timelines. */
+  public static final int MEDIA_TIMESCALE = 1_000_000;
+
+  /** The size of the header of an mdat box, in bytes. */
+  public static final int MDAT_HEADER_SIZE = 8;
+
+  /** The samples of one track in a fragment. */
+  public static final class TrackFragment {
+
+    /** The ID of the track, as written in its tkhd box. */
+    public final int trackId;
+    /** The decode time of the first sample, in microseconds. */
+    public final long baseDecodeTimeUs;
+    /** The sample durations, in microseconds. */
+    public final int[] sampleDurationsUs;
+    /** The sample sizes, in bytes. */
+    public final int[] sampleSizes;
+    /** Whether each sample is a key frame. */
+    public final boolean[] sampleIsKeyFrame;
+    /** The presentation time minus the decode time of each sample, in microseconds. */
+    public final int[] sampleCompositionOffsetsUs;
+
+    /** Creates an instance. */
+    public TrackFragment(
+        int trackId,
+        long baseDecodeTimeUs,
+        int[] sampleDurationsUs,
+        int[] sampleSizes,
+        boolean[] sampleIsKeyFrame,
+        int[] sampleCompositionOffsetsUs) {
+      this.trackId = trackId;
+      this.baseDecodeTimeUs = baseDecodeTimeUs;
+      this.sampleDurationsUs = sampleDurationsUs;
+      this.sampleSizes = sampleSizes;
+      this.sampleIsKeyFrame = sampleIsKeyFrame;
+      this.sampleCompositionOffsetsUs = sampleCompositionOffsetsUs;
+    }
+
+    /** Returns the number of samples in the fragment. */
+    public int getSampleCount() {
+      return sampleSizes.length;
+    }
+
+    /** Returns the total size of the samples in the fragment, in bytes. */
+    public long getDataSize() {
+      long dataSize = 0;
+      for (int sampleSize : sampleSizes) {
+        dataSize += sampleSize;
+      }
+      return dataSize;
+    }
+  }
+
+  private static final int BOX_HEADER_SIZE = 8;
+  private static final int MOVIE_TIMESCALE = 1_000;
+  private static final int FIXED_ONE = 0x00010000;
+  private static final int TKHD_FLAGS_ENABLED_IN_MOVIE_IN_PREVIEW = 0x000007;
+  private static final int TFHD_FLAGS_DEFAULT_BASE_IS_MOOF = 0x020000;
+  private static final int TRUN_FLAGS =
+      0x000001 // data_offset_present
+          | 0x000100 // sample_duration_present
+          | 0x000200 // sample_size_present
+          | 0x000400 // sample_flags_present
+          | 0x000800; // sample_composition_time_offsets_present
+  // sample_depends_on == 2 (does not depend on others).
+  private static final int SAMPLE_FLAGS_KEY_FRAME = 0x02000000;
+  // sample_depends_on == 1 (depends on others) and sample_is_non_sync_sample.
+  private static final int SAMPLE_FLAGS_NON_KEY_FRAME = 0x01010000;
+  private static final int MFHD_SIZE = 16;
+  private static final int TFHD_SIZE = 16;
+  private static final int TFDT_SIZE = 20;
+  private static final int TRUN_HEADER_SIZE = 20;
+  private static final int TRUN_SAMPLE_SIZE = 16;
+  // Object type indication for AAC, as defined in ISO/IEC 14496-1 table 5.
+  private static final int OBJECT_TYPE_AUDIO_ISO_IEC_14496_3 = 0x40;
+  // Stream type for audio (0x05), shifted past the upStream flag and with the reserved bit set.
+  private static final int STREAM_TYPE_AUDIO = (0x05 << 2) | 0x01;
+  private static final int NAL_UNIT_TYPE_SPS = 7;
+  private static final int NAL_UNIT_TYPE_PPS = 8;
+
+  private FragmentedMp4Boxes() {}
+
+  /** Returns the ftyp box. */
+  public static ByteBuffer ftyp() {
+    ByteBuffer contents = ByteBuffer.allocate(20);
+    contents.putInt(Util.getIntegerCodeForString("isom")); // major_brand
+    contents.putInt(0x200); // minor_version
+    contents.putInt(Util.getIntegerCodeForString("isom"));
+    contents.putInt(Util.getIntegerCodeForString("iso6"));
+    contents.putInt(Util.getIntegerCodeForString("mp41"));
+    contents.flip();
+    return box("ftyp", contents);
+  }
+
+  /**
+   * Returns the moov box declaring one fragmented track per format. The ID of each track is its
+   * index in {@code formats} plus one.
+   *
+   * @param formats The formats of the tracks. Each must have a sample MIME type of {@link
+   *     MimeTypes#VIDEO_H264} or {@link MimeTypes#AUDIO_AAC}.
+   * @throws IllegalArgumentException If a format is unsupported or is missing its initialization
+   *     data.
+   */
+  public static ByteBuffer moov(List<Format> formats) {
+    List<ByteBuffer> children = new ArrayList<>();
+    children.add(mvhd(/* nextTrackId= */ formats.size() + 1));
+    List<ByteBuffer> trexBoxes = new ArrayList<>();
+    for (int i = 0; i < formats.size(); i++) {
+      children.add(trak(/* trackId= */ i + 1, formats.get(i)));
+      trexBoxes.add(trex(/* trackId= */ i + 1));
+    }
+    children.add(box("mvex", trexBoxes));
+    return box("moov", children);
+  }
+
+  /**
+   * Returns the moof box of a fragment. The samples of the fragment must be written in an mdat box
+   * directly after the moof box, in the order of {@code trackFragments}.
+   *
+   * @param sequenceNumber The sequence number of the fragment, starting from one.
+   * @param trackFragments The samples of the fragment, grouped by track.
+   */
+  public static ByteBuffer moof(int sequenceNumber, List<TrackFragment> trackFragments) {
+    int moofSize = BOX_HEADER_SIZE + MFHD_SIZE;
+    for (int i = 0; i < trackFragments.size(); i++) {
+      moofSize +=
+          BOX_HEADER_SIZE
+              + TFHD_SIZE
+              + TFDT_SIZE
+              + TRUN_HEADER_SIZE
+              + TRUN_SAMPLE_SIZE * trackFragments.get(i).getSampleCount();
+    }
+
+    ByteBuffer moof = ByteBuffer.allocate(moofSize);
+    putBoxHeader(moof, moofSize, "moof");
+    putBoxHeader(moof, MFHD_SIZE, "mfhd");
+    moof.putInt(0); // version and flags
+    moof.putInt(sequenceNumber);
+    // Sample data offsets are relative to the start of the moof box.
+    long dataOffset = moofSize + MDAT_HEADER_SIZE;
+    for (int i = 0; i < trackFragments.size(); i++) {
+      TrackFragment trackFragment = trackFragments.get(i);
+      int sampleCount = trackFragment.getSampleCount();
+      int trunSize = TRUN_HEADER_SIZE + TRUN_SAMPLE_SIZE * sampleCount;
+      putBoxHeader(moof, BOX_HEADER_SIZE + TFHD_SIZE + TFDT_SIZE + trunSize, "traf");
+
+      putBoxHeader(moof, TFHD_SIZE, "tfhd");
+      moof.putInt(TFHD_FLAGS_DEFAULT_BASE_IS_MOOF); // version 0
+      moof.putInt(trackFragment.trackId);
+
+      putBoxHeader(moof, TFDT_SIZE, "tfdt");
+      moof.putInt(1 << 24); // version 1, for a 64-bit base_media_decode_time
+      moof.putLong(trackFragment.baseDecodeTimeUs);
+
+      putBoxHeader(moof, trunSize, "trun");
+      // Version 1, so that composition time offsets are signed.
+      moof.putInt((1 << 24) | TRUN_FLAGS);
+      moof.putInt(sampleCount);
+      checkArgument(dataOffset <= Integer.MAX_VALUE, "Fragment too large");
+      moof.putInt((int) dataOffset);
+      for (int j = 0; j < sampleCount; j++) {
+        moof.putInt(trackFragment.sampleDurationsUs[j]);
+        moof.putInt(trackFragment.sampleSizes[j]);
+        moof.putInt(
+            trackFragment.sampleIsKeyFrame[j]
+                ? SAMPLE_FLAGS_KEY_FRAME
+                : SAMPLE_FLAGS_NON_KEY_FRAME);
+        moof.putInt(trackFragment.sampleCompositionOffsetsUs[j]);
+      }
+      dataOffset += trackFragment.getDataSize();
+    }
+    moof.flip();
+    return moof;
+  }
+
+  /**
+   * Returns the header of an mdat box.
+   *
+   * @param dataSize The size of the box payload, in bytes.
+   */
+  public static ByteBuffer mdatHeader(long dataSize) {
+    long size = MDAT_HEADER_SIZE + dataSize;
+    checkArgument(size <= 0xFFFFFFFFL, "Fragment too large");
+    ByteBuffer header = ByteBuffer.allocate(MDAT_HEADER_SIZE);
+    putBoxHeader(header, (int) size, "mdat");
+    header.flip();
+    return header;
+  }
+
+  /**
+   * Returns the size of the sample data once converted by {@link #convertAnnexBToLengthPrefixed}.
+   */
+  public static int getLengthPrefixedSize(ByteBuffer annexBData) {
+    int size = 0;
+    for (int[] nalUnitRange : getNalUnitRanges(annexBData)) {
+      size += 4 + nalUnitRange[1] - nalUnitRange[0];
+    }
+    return size;
+  }
+
+  /**
+   * Copies H.264 sample data from Annex B format, where NAL units are delimited by start codes, to
+   * the format expected in MP4 files, where each NAL unit is preceded by its 4-byte length.
+   *
+   * @param annexBData The sample data in Annex B format. Its position is not modified.
+   * @param output The buffer to write to.
+   */
+  public static void convertAnnexBToLengthPrefixed(ByteBuffer annexBData, ByteBuffer output) {
+    for (int[] nalUnitRange : getNalUnitRanges(annexBData)) {
+      output.putInt(nalUnitRange[1] - nalUnitRange[0]);
+      ByteBuffer nalUnit = annexBData.duplicate();
+      nalUnit.position(nalUnitRange[0]);
+      nalUnit.limit(nalUnitRange[1]);
+      output.put(nalUnit);
+    }
+  }
+
+  private static ByteBuffer mvhd(int nextTrackId) {
+    ByteBuffer contents = ByteBuffer.allocate(100);
+    contents.putInt(0); // version and flags
+    contents.putInt(0); // creation_time
+    contents.putInt(0); // modification_time
+    contents.putInt(MOVIE_TIMESCALE);
+    contents.putInt(0); // duration, zero as all samples are in fragments
+    contents.putInt(FIXED_ONE); // rate
+    contents.putShort((short) 0x0100); // volume
+    contents.putShort((short) 0); // reserved
+    contents.putLong(0); // reserved
+    putMatrix(contents, /* rotationDegrees= */ 0);
+    contents.put(new byte[24]); // pre_defined
+    contents.putInt(nextTrackId);
+    contents.flip();
+    return box("mvhd", contents);
+  }
+
+  private static ByteBuffer trak(int trackId, Format format) {
+    boolean isVideo = MimeTypes.isVideo(format.sampleMimeType);
+    return box(
+        "trak",
+        ImmutableList.of(
+            tkhd(trackId, format, isVideo),
+            box(
+                "mdia",
+                ImmutableList.of(
+                    mdhd(),
+                    hdlr(isVideo),
+                    box(
+                        "minf",
+                        ImmutableList.of(
+                            isVideo ? vmhd() : smhd(),
+                            dinf(),
+                            box(
+                                "stbl",
+                                ImmutableList.of(
+                                    stsd(isVideo ? avc1(format) : mp4a(format)),
+                                    emptyFullBox("stts", /* fieldCount= */ 1),
+                                    emptyFullBox("stsc", /* fieldCount= */ 1),
+                                    emptyFullBox("stsz", /* fieldCount= */ 2),
+                                    emptyFullBox("stco", /* fieldCount= */ 1)))))))));
+  }
+
+  private static ByteBuffer tkhd(int trackId, Format format, boolean isVideo) {
+    ByteBuffer contents = ByteBuffer.allocate(84);
+    contents.putInt(TKHD_FLAGS_ENABLED_IN_MOVIE_IN_PREVIEW); // version 0
+    contents.putInt(0); // creation_time
+    contents.putInt(0); // modification_time
+    contents.putInt(trackId);
+    contents.putInt(0); // reserved
+    contents.putInt(0); // duration, zero as all samples are in fragments
+    contents.putLong(0); // reserved
+    contents.putShort((short) 0); // layer
+    contents.putShort((short) 0); // alternate_group
+    contents.putShort(isVideo ? 0 : (short) 0x0100); // volume
+    contents.putShort((short) 0); // reserved
+    putMatrix(contents, isVideo ? format.rotationDegrees : 0);
+    contents.putInt(isVideo ? Math.max(format.width, 0) << 16 : 0);
+    contents.putInt(isVideo ? Math.max(format.height, 0) << 16 : 0);
+    contents.flip();
+    return box("tkhd", contents);
+  }
+
+  private static ByteBuffer mdhd() {
+    ByteBuffer contents = ByteBuffer.allocate(24);
+    contents.putInt(0); // version and flags
+    contents.putInt(0); // creation_time
+    contents.putInt(0); // modification_time
+    contents.putInt(MEDIA_TIMESCALE);
+    contents.putInt(0); // duration
+    // The packed ISO-639-2/T code "und", each character minus 0x60 in 5 bits.
+    contents.putShort((short) ((('u' - 0x60) << 10) | (('n' - 0x60) << 5) | ('d' - 0x60)));
+    contents.putShort((short) 0); // pre_defined
+    contents.flip();
+    return box("mdhd", contents);
+  }
+
+  private static ByteBuffer hdlr(boolean isVideo) {
+    byte[] name = Util.getUtf8Bytes(isVideo ? "VideoHandle\0" : "SoundHandle\0");
+    ByteBuffer contents = ByteBuffer.allocate(24 + name.length);
+    contents.putInt(0); // version and flags
+    contents.putInt(0); // pre_defined
+    contents.putInt(Util.getIntegerCodeForString(isVideo ? "vide" : "soun"));
+    contents.put(new byte[12]); // reserved
+    contents.put(name);
+    contents.flip();
+    return box("hdlr", contents);
+  }
+
+  private static ByteBuffer vmhd() {
+    ByteBuffer contents = ByteBuffer.allocate(12);
+    contents.putInt(1); // version 0, flags 1
+    contents.putShort((short) 0); // graphicsmode
+    contents.put(new byte[6]); // opcolor
+    contents.flip();
+    return box("vmhd", contents);
+  }
+
+  private static ByteBuffer smhd() {
+    ByteBuffer contents = ByteBuffer.allocate(8);
+    contents.putInt(0); // version and flags
+    contents.putShort((short) 0); // balance
+    contents.putShort((short) 0); // reserved
+    contents.flip();
+    return box("smhd", contents);
+  }
+
+  private static ByteBuffer dinf() {
+    ByteBuffer url = ByteBuffer.allocate(4);
+    url.putInt(1); // version 0, flags 1 (the media data is in the same file)
+    url.flip();
+    ByteBuffer drefHeader = ByteBuffer.allocate(8);
+    drefHeader.putInt(0); // version and flags
+    drefHeader.putInt(1); // entry_count
+    drefHeader.flip();
+    ByteBuffer dref = box("dref", ImmutableList.of(drefHeader, box("url ", url)));
+    return box("dinf", ImmutableList.of(dref));
+  }
+
+  private static ByteBuffer stsd(ByteBuffer sampleEntry) {
+    ByteBuffer header = ByteBuffer.allocate(8);
+    header.putInt(0); // version and flags
+    header.putInt(1); // entry_count
+    header.flip();
+    return box("stsd", ImmutableList.of(header, sampleEntry));
+  }
+
+  private static ByteBuffer avc1(Format format) {
+    ByteBuffer contents = ByteBuffer.allocate(78);
+    contents.put(new byte[6]); // reserved
+    contents.putShort((short) 1); // data_reference_index
+    contents.put(new byte[16]); // pre_defined and reserved
+    contents.putShort((short) Math.max(format.width, 0));
+    contents.putShort((short) Math.max(format.height, 0));
+    contents.putInt(0x00480000); // horizresolution, 72 dpi
+    contents.putInt(0x00480000); // vertresolution, 72 dpi
+    contents.putInt(0); // reserved
+    contents.putShort((short) 1); // frame_count
+    contents.put(new byte[32]); // compressorname
+    contents.putShort((short) 0x0018); // depth
+    contents.putShort((short) -1); // pre_defined
+    contents.flip();
+    return box("avc1", ImmutableList.of(contents, avcC(format)));
+  }
+
+  private static ByteBuffer avcC(Format format) {
+    List<ByteBuffer> spsList = new ArrayList<>();
+    List<ByteBuffer> ppsList = new ArrayList<>();
+    for (int i = 0; i < format.initializationData.size(); i++) {
+      ByteBuffer initializationData = ByteBuffer.wrap(format.initializationData.get(i));
+      for (int[] nalUnitRange : getNalUnitRanges(initializationData)) {
+        ByteBuffer nalUnit = initializationData.duplicate();
+        nalUnit.position(nalUnitRange[0]);
+        nalUnit.limit(nalUnitRange[1]);
+        if (!nalUnit.hasRemaining()) {
+          continue;
+        }
+        int nalUnitType = nalUnit.get(nalUnit.position()) & 0x1F;
+        if (nalUnitType == NAL_UNIT_TYPE_SPS) {
+          spsList.add(nalUnit);
+        } else if (nalUnitType == NAL_UNIT_TYPE_PPS) {
+          ppsList.add(nalUnit);
+        }
+      }
+    }
+    checkArgument(
+        !spsList.isEmpty() && !ppsList.isEmpty(), "Missing H.264 SPS or PPS: " + format);
+    checkArgument(spsList.size() <= 0x1F && ppsList.size() <= 0xFF);
+
+    int size = 7;
+    for (int i = 0; i < spsList.size(); i++) {
+      size += 2 + spsList.get(i).remaining();
+    }
+    for (int i = 0; i < ppsList.size(); i++) {
+      size += 2 + ppsList.get(i).remaining();
+    }
+    ByteBuffer firstSps = spsList.get(0);
+    checkArgument(firstSps.remaining() >= 4, "Invalid H.264 SPS");
+    ByteBuffer contents = ByteBuffer.allocate(size);
+    contents.put((byte) 1); // configurationVersion
+    // AVCProfileIndication, profile_compatibility and AVCLevelIndication follow the SPS NAL unit
+    // header.
+    contents.put(firstSps.get(firstSps.position() + 1));
+    contents.put(firstSps.get(firstSps.position() + 2));
+    contents.put(firstSps.get(firstSps.position() + 3));
+    contents.put((byte) 0xFF); // reserved and lengthSizeMinusOne (3)
+    contents.put((byte) (0xE0 | spsList.size())); // reserved and numOfSequenceParameterSets
+    for (int i = 0; i < spsList.size(); i++) {
+      contents.putShort((short) spsList.get(i).remaining());
+      contents.put(spsList.get(i).duplicate());
+    }
+    contents.put((byte) ppsList.size()); // numOfPictureParameterSets
+    for (int i = 0; i < ppsList.size(); i++) {
+      contents.putShort((short) ppsList.get(i).remaining());
+      contents.put(ppsList.get(i).duplicate());
+    }
+    contents.flip();
+    return box("avcC", contents);
+  }
+
+  private static ByteBuffer mp4a(Format format) {
+    checkArgument(!format.initializationData.isEmpty(), "Missing AAC AudioSpecificConfig");
+    ByteBuffer contents = ByteBuffer.allocate(28);
+    contents.put(new byte[6]); // reserved
+    contents.putShort((short) 1); // data_reference_index
+    contents.putLong(0); // reserved
+    contents.putShort((short) Math.max(format.channelCount, 0));
+    contents.putShort((short) 16); // samplesize
+    contents.putShort((short) 0); // pre_defined
+    contents.putShort((short) 0); // reserved
+    // The sample rate as a 16.16 fixed point number. Rates that don't fit are left to the
+    // AudioSpecificConfig.
+    int sampleRate = format.sampleRate;
+    contents.putInt(sampleRate > 0 && sampleRate <= 0xFFFF ? sampleRate << 16 : 0);
+    contents.flip();
+    return box("mp4a", ImmutableList.of(contents, esds(format)));
+  }
+
+  private static ByteBuffer esds(Format format) {
+    byte[] audioSpecificConfig = format.initializationData.get(0);
+    int decoderSpecificInfoSize = audioSpecificConfig.length;
+    int decoderConfigDescriptorSize = 13 + 5 + decoderSpecificInfoSize;
+    int slConfigDescriptorSize = 1;
+    int esDescriptorSize = 3 + 5 + decoderConfigDescriptorSize + 5 + slConfigDescriptorSize;
+
+    ByteBuffer contents = ByteBuffer.allocate(4 + 5 + esDescriptorSize);
+    contents.putInt(0); // version and flags
+    putDescriptorHeader(contents, /* tag= */ 0x03, esDescriptorSize); // ES_Descriptor
+    contents.putShort((short) 0); // ES_ID
+    contents.put((byte) 0); // flags
+    putDescriptorHeader(contents, /* tag= */ 0x04, decoderConfigDescriptorSize);
+    contents.put((byte) OBJECT_TYPE_AUDIO_ISO_IEC_14496_3);
+    contents.put((byte) STREAM_TYPE_AUDIO);
+    contents.put(new byte[3]); // bufferSizeDB
+    contents.putInt(Math.max(format.peakBitrate, 0)); // maxBitrate
+    contents.putInt(Math.max(format.averageBitrate, 0)); // avgBitrate
+    putDescriptorHeader(contents, /* tag= */ 0x05, decoderSpecificInfoSize);
+    contents.put(audioSpecificConfig);
+    putDescriptorHeader(contents, /* tag= */ 0x06, slConfigDescriptorSize); // SLConfigDescriptor
+    contents.put((byte) 0x02); // predefined, reserved for use in MP4 files
+    contents.flip();
+    return box("esds", contents);
+  }
+
+  private static ByteBuffer trex(int trackId) {
+    ByteBuffer contents = ByteBuffer.allocate(24);
+    contents.putInt(0); // version and flags
+    contents.putInt(trackId);
+    contents.putInt(1); // default_sample_description_index
+    contents.putInt(0); // default_sample_duration
+    contents.putInt(0); // default_sample_size
+    contents.putInt(0); // default_sample_flags
+    contents.flip();
+    return box("trex", contents);
+  }
+
+  private static ByteBuffer emptyFullBox(String type, int fieldCount) {
+    // The version and flags, followed by zero valued fields (e.g., an entry_count of zero).
+    return box(type, ByteBuffer.allocate(4 + 4 * fieldCount));
+  }
+
+  private static void putMatrix(ByteBuffer buffer, int rotationDegrees) {
+    int a00 = FIXED_ONE;
+    int a01 = 0;
+    int a10 = 0;
+    int a11 = FIXED_ONE;
+    if (rotationDegrees == 90) {
+      a00 = 0;
+      a01 = FIXED_ONE;
+      a10 = -FIXED_ONE;
+      a11 = 0;
+    } else if (rotationDegrees == 180) {
+      a00 = -FIXED_ONE;
+      a11 = -FIXED_ONE;
+    } else if (rotationDegrees == 270) {
+      a00 = 0;
+      a01 = -FIXED_ONE;
+      a10 = FIXED_ONE;
+      a11 = 0;
+    }
+    buffer.putInt(a00);
+    buffer.putInt(a01);
+    buffer.putInt(0);
+    buffer.putInt(a10);
+    buffer.putInt(a11);
+    buffer.putInt(0);
+    buffer.putInt(0);
+    buffer.putInt(0);
+    buffer.putInt(0x40000000);
+  }
+
+  private static void putDescriptorHeader(ByteBuffer buffer, int tag, int size) {
+    buffer.put((byte) tag);
+    // The size in the four byte form of the expandable class size (ISO/IEC 14496-1 section 8.3.3).
+    buffer.put((byte) (0x80 | ((size >> 21) & 0x7F)));
+    buffer.put((byte) (0x80 | ((size >> 14) & 0x7F)));
+    buffer.put((byte) (0x80 | ((size >> 7) & 0x7F)));
+    buffer.put((byte) (size & 0x7F));
+  }
+
+  private static ByteBuffer box(String type, ByteBuffer contents) {
+    return box(type, ImmutableList.of(contents));
+  }
+
+  private static ByteBuffer box(String type, List<ByteBuffer> contents) {
+    int size = BOX_HEADER_SIZE;
+    for (int i = 0; i < contents.size(); i++) {
+      size += contents.get(i).remaining();
+    }
+    ByteBuffer box = ByteBuffer.allocate(size);
+    putBoxHeader(box, size, type);
+    for (int i = 0; i < contents.size(); i++) {
+      box.put(contents.get(i).duplicate());
+    }
+    box.flip();
+    return box;
+  }
+
+  private static void putBoxHeader(ByteBuffer buffer, int size, String type) {
+    buffer.putInt(size);
+    buffer.putInt(Util.getIntegerCodeForString(type));
+  }
+
+  /**
+   * Returns the [start, end) positions of the NAL units in Annex B data. Data that doesn't start
+   * with a start code is treated as a single NAL unit.
+   */
+  private static List<int[]> getNalUnitRanges(ByteBuffer annexBData) {
+    byte[] data;
+    int offset;
+    if (annexBData.hasArray()) {
+      data = annexBData.array();
+      offset = annexBData.arrayOffset();
+    } else {
+      data = new byte[annexBData.limit()];
+      ByteBuffer source = annexBData.duplicate();
+      source.position(0);
+      source.get(data);
+      offset = 0;
+    }
+    int start = annexBData.position() + offset;
+    int end = annexBData.limit() + offset;
+    boolean[] prefixFlags = new boolean[3];
+
+    List<int[]> nalUnitRanges = new ArrayList<>();
+    int startCodePosition = NalUnitUtil.findNalUnit(data, start, end, prefixFlags);
+    if (startCodePosition == end || !isZero(data, start, startCodePosition)) {
+      // The data isn't delimited by start codes.
+      nalUnitRanges.add(new int[] {start - offset, end - offset});
+      return nalUnitRanges;
+    }
+    while (startCodePosition < end) {
+      int nalUnitStart = startCodePosition + 3;
+      NalUnitUtil.clearPrefixFlags(prefixFlags);
+      int nextStartCodePosition = NalUnitUtil.findNalUnit(data, nalUnitStart, end, prefixFlags);
+      int nalUnitEnd = nextStartCodePosition;
+      // Exclude trailing zero bytes, which belong to four byte start codes.
+      while (nalUnitEnd > nalUnitStart && data[nalUnitEnd - 1] == 0) {
+        nalUnitEnd--;
+      }
+      nalUnitRanges.add(new int[] {nalUnitStart - offset, nalUnitEnd - offset});
+      startCodePosition = nextStartCodePosition;
+    }
+    return nalUnitRanges;
+  }
+
+  private static boolean isZero(byte[] data, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (data[i] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
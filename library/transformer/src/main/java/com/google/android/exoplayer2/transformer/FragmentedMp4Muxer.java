@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.transformer;
+
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
+import static com.google.android.exoplayer2.util.Assertions.checkState;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import android.os.ParcelFileDescriptor;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.Util;
+import com.google.common.collect.ImmutableList;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link Muxer} implementation that writes fragmented MP4 files.
+ *
+ * <p>The file header is written as soon as the first sample is received, and each fragment is
+ * written once the samples it contains are known. Fragments are started at key frames of the video
+ * track (or of the first track, if there's no video track), after at least the {@linkplain
+ * #FragmentedMp4Muxer(long) fragment duration} of samples. The output therefore only grows by
+ * complete fragments, and can be read (for example, to upload it) while it is being written. If
+ * the muxer is released for cancellation, the output contains all the fragments written so far.
+ *
+ * <p>H.264 video and AAC audio are supported. Samples must have non-negative timestamps.
+ */
+public final class FragmentedMp4Muxer implements Muxer {
+
+  /** The default target duration of each fragment, in milliseconds. */
+  public static final long DEFAULT_FRAGMENT_DURATION_MS = 2_000;
+
+  private static final ImmutableList<String> SUPPORTED_VIDEO_SAMPLE_MIME_TYPES =
+      ImmutableList.of(MimeTypes.VIDEO_H264);
+  private static final ImmutableList<String> SUPPORTED_AUDIO_SAMPLE_MIME_TYPES =
+      ImmutableList.of(MimeTypes.AUDIO_AAC);
+
+  /** {@link Muxer.Factory} for {@link FragmentedMp4Muxer}. */
+  public static final class Factory implements Muxer.Factory {
+
+    private final long fragmentDurationMs;
+
+    /** Creates an instance using the {@link #DEFAULT_FRAGMENT_DURATION_MS}. */
+    public Factory() {
+      this(DEFAULT_FRAGMENT_DURATION_MS);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param fragmentDurationMs The target duration of each fragment, in milliseconds. Fragments
+     *     can be longer as they must start with a key frame.
+     */
+    public Factory(long fragmentDurationMs) {
+      checkArgument(fragmentDurationMs > 0);
+      this.fragmentDurationMs = fragmentDurationMs;
+    }
+
+    @Override
+    public FragmentedMp4Muxer create(String path, String outputMimeType) throws IOException {
+      checkArgument(supportsOutputMimeType(outputMimeType));
+      return new FragmentedMp4Muxer(new FileOutputStream(path).getChannel(), fragmentDurationMs);
+    }
+
+    @Override
+    public FragmentedMp4Muxer create(
+        ParcelFileDescriptor parcelFileDescriptor, String outputMimeType) throws IOException {
+      checkArgument(supportsOutputMimeType(outputMimeType));
+      // Duplicate the file descriptor, as the caller may close it once this method returns.
+      FileOutputStream outputStream =
+          new ParcelFileDescriptor.AutoCloseOutputStream(parcelFileDescriptor.dup());
+      return new FragmentedMp4Muxer(outputStream.getChannel(), fragmentDurationMs);
+    }
+
+    @Override
+    public boolean supportsOutputMimeType(String mimeType) {
+      return MimeTypes.VIDEO_MP4.equals(mimeType);
+    }
+
+    @Override
+    public boolean supportsSampleMimeType(
+        @Nullable String sampleMimeType, String containerMimeType) {
+      return getSupportedSampleMimeTypes(MimeTypes.getTrackType(sampleMimeType), containerMimeType)
+          .contains(sampleMimeType);
+    }
+
+    @Override
+    public ImmutableList<String> getSupportedSampleMimeTypes(
+        @C.TrackType int trackType, String containerMimeType) {
+      if (!supportsOutputMimeType(containerMimeType)) {
+        return ImmutableList.of();
+      }
+      if (trackType == C.TRACK_TYPE_VIDEO) {
+        return SUPPORTED_VIDEO_SAMPLE_MIME_TYPES;
+      } else if (trackType == C.TRACK_TYPE_AUDIO) {
+        return SUPPORTED_AUDIO_SAMPLE_MIME_TYPES;
+      }
+      return ImmutableList.of();
+    }
+  }
+
+  private final FileChannel outputChannel;
+  private final long fragmentDurationUs;
+  private final List<Track> tracks;
+
+  private int primaryTrackIndex;
+  private boolean isStarted;
+  private int fragmentSequenceNumber;
+
+  private FragmentedMp4Muxer(FileChannel outputChannel, long fragmentDurationMs) {
+    this.outputChannel = outputChannel;
+    fragmentDurationUs = Util.msToUs(fragmentDurationMs);
+    tracks = new ArrayList<>();
+    primaryTrackIndex = C.INDEX_UNSET;
+  }
+
+  @Override
+  public int addTrack(Format format) throws MuxerException {
+    checkState(!isStarted, "Tracks can't be added after samples have been written");
+    @Nullable String sampleMimeType = format.sampleMimeType;
+    if (!SUPPORTED_VIDEO_SAMPLE_MIME_TYPES.contains(sampleMimeType)
+        && !SUPPORTED_AUDIO_SAMPLE_MIME_TYPES.contains(sampleMimeType)) {
+      throw new MuxerException(
+          "Failed to add track with format=" + format,
+          new IllegalArgumentException("Unsupported sample MIME type: " + sampleMimeType));
+    }
+    tracks.add(new Track(format));
+    return tracks.size() - 1;
+  }
+
+  @Override
+  public void writeSampleData(
+      int trackIndex, ByteBuffer data, boolean isKeyFrame, long presentationTimeUs)
+      throws MuxerException {
+    if (presentationTimeUs < 0) {
+      throw new MuxerException(
+          "Failed to write sample for trackIndex=" + trackIndex,
+          new IllegalArgumentException("Negative presentationTimeUs=" + presentationTimeUs));
+    }
+    try {
+      if (!isStarted) {
+        isStarted = true;
+        writeHeader();
+      }
+      Track track = tracks.get(trackIndex);
+      if (trackIndex == primaryTrackIndex
+          && isKeyFrame
+          && !track.pendingSamples.isEmpty()
+          && presentationTimeUs - track.pendingSamples.get(0).presentationTimeUs
+              >= fragmentDurationUs) {
+        writeFragment(/* nextFragmentStartTimeUs= */ presentationTimeUs);
+      }
+      track.pendingSamples.add(
+          new PendingSample(track.copySampleData(data), isKeyFrame, presentationTimeUs));
+    } catch (IOException | RuntimeException e) {
+      throw new MuxerException(
+          "Failed to write sample for trackIndex="
+              + trackIndex
+              + ", presentationTimeUs="
+              + presentationTimeUs
+              + ", size="
+              + data.remaining(),
+          e);
+    }
+  }
+
+  @Override
+  public void release(boolean forCancellation) throws MuxerException {
+    try {
+      // When cancelling, the pending samples are dropped so that the output ends with the last
+      // complete fragment.
+      if (isStarted && !forCancellation) {
+        writeFragment(/* nextFragmentStartTimeUs= */ C.TIME_UNSET);
+      }
+    } catch (IOException | RuntimeException e) {
+      throw new MuxerException("Failed to write the last fragment", e);
+    } finally {
+      isStarted = false;
+      try {
+        outputChannel.close();
+      } catch (IOException e) {
+        if (!forCancellation) {
+          throw new MuxerException("Failed to close the output", e);
+        }
+      }
+    }
+  }
+
+  private void writeHeader() throws IOException {
+    List<Format> formats = new ArrayList<>();
+    for (int i = 0; i < tracks.size(); i++) {
+      Format format = tracks.get(i).format;
+      formats.add(format);
+      if (primaryTrackIndex == C.INDEX_UNSET && MimeTypes.isVideo(format.sampleMimeType)) {
+        primaryTrackIndex = i;
+      }
+    }
+    if (primaryTrackIndex == C.INDEX_UNSET) {
+      primaryTrackIndex = 0;
+    }
+    write(new ByteBuffer[] {FragmentedMp4Boxes.ftyp(), FragmentedMp4Boxes.moov(formats)});
+  }
+
+  /**
+   * Writes a fragment containing the pending samples that precede the next fragment.
+   *
+   * @param nextFragmentStartTimeUs The presentation time of the key frame starting the next
+   *     fragment, in microseconds, or {@link C#TIME_UNSET} to write all the pending samples.
+   */
+  private void writeFragment(long nextFragmentStartTimeUs) throws IOException {
+    List<FragmentedMp4Boxes.TrackFragment> trackFragments = new ArrayList<>();
+    List<ByteBuffer> sampleData = new ArrayList<>();
+    long dataSize = 0;
+    for (int i = 0; i < tracks.size(); i++) {
+      Track track = tracks.get(i);
+      @Nullable
+      FragmentedMp4Boxes.TrackFragment trackFragment =
+          track.removeFragmentSamples(
+              /* trackId= */ i + 1,
+              nextFragmentStartTimeUs,
+              /* isPrimaryTrack= */ i == primaryTrackIndex,
+              sampleData);
+      if (trackFragment != null) {
+        trackFragments.add(trackFragment);
+        dataSize += trackFragment.getDataSize();
+      }
+    }
+    if (trackFragments.isEmpty()) {
+      return;
+    }
+
+    ByteBuffer[] buffers = new ByteBuffer[sampleData.size() + 2];
+    buffers[0] = FragmentedMp4Boxes.moof(++fragmentSequenceNumber, trackFragments);
+    buffers[1] = FragmentedMp4Boxes.mdatHeader(dataSize);
+    for (int i = 0; i < sampleData.size(); i++) {
+      buffers[i + 2] = sampleData.get(i);
+    }
+    write(buffers);
+  }
+
+  /** Writes all the {@code buffers} to the output using gathering writes. */
+  private void write(ByteBuffer[] buffers) throws IOException {
+    long remaining = 0;
+    for (ByteBuffer buffer : buffers) {
+      remaining += buffer.remaining();
+    }
+    while (remaining > 0) {
+      remaining -= outputChannel.write(buffers);
+    }
+  }
+
+  private static final class PendingSample {
+
+    public final ByteBuffer data;
+    public final boolean isKeyFrame;
+    public final long presentationTimeUs;
+
+    public PendingSample(ByteBuffer data, boolean isKeyFrame, long presentationTimeUs) {
+      this.data = data;
+      this.isKeyFrame = isKeyFrame;
+      this.presentationTimeUs = presentationTimeUs;
+    }
+  }
+
+  private static final class Track {
+
+    public final Format format;
+    public final List<PendingSample> pendingSamples;
+
+    private final boolean isH264;
+
+    private int lastSampleDurationUs;
+
+    public Track(Format format) {
+      this.format = format;
+      pendingSamples = new ArrayList<>();
+      isH264 = MimeTypes.VIDEO_H264.equals(format.sampleMimeType);
+    }
+
+    /**
+     * Returns a copy of the sample {@code data} in the format stored in MP4 files. The position
+     * of {@code data} is not modified.
+     */
+    public ByteBuffer copySampleData(ByteBuffer data) {
+      ByteBuffer copy;
+      if (isH264) {
+        copy = ByteBuffer.allocate(FragmentedMp4Boxes.getLengthPrefixedSize(data));
+        FragmentedMp4Boxes.convertAnnexBToLengthPrefixed(data, copy);
+      } else {
+        copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data.duplicate());
+      }
+      copy.flip();
+      return copy;
+    }
+
+    /**
+     * Removes the pending samples that belong to the fragment being written.
+     *
+     * <p>Decode times are derived from the presentation times, by assigning the sorted
+     * presentation times of the removed samples to the samples in decode order. The duration of a
+     * sample is the difference between the decode times of the sample and the sample that follows
+     * it, so samples are only removed from tracks other than the primary track if they are followed
+     * by another pending sample.
+     *
+     * @param trackId The ID of the track.
+     * @param nextFragmentStartTimeUs The presentation time of the key frame starting the next
+     *     fragment, in microseconds, or {@link C#TIME_UNSET} to remove all the pending samples.
+     * @param isPrimaryTrack Whether this track is the one whose key frames start fragments.
+     * @param sampleData A list to which the data of the removed samples is added.
+     * @return The fragment of this track, or {@code null} if no samples were removed.
+     */
+    @Nullable
+    public FragmentedMp4Boxes.TrackFragment removeFragmentSamples(
+        int trackId,
+        long nextFragmentStartTimeUs,
+        boolean isPrimaryTrack,
+        List<ByteBuffer> sampleData) {
+      int sampleCount;
+      if (nextFragmentStartTimeUs == C.TIME_UNSET || isPrimaryTrack) {
+        sampleCount = pendingSamples.size();
+      } else {
+        sampleCount = 0;
+        while (sampleCount < pendingSamples.size() - 1
+            && pendingSamples.get(sampleCount).presentationTimeUs < nextFragmentStartTimeUs) {
+          sampleCount++;
+        }
+      }
+      if (sampleCount == 0) {
+        return null;
+      }
+
+      List<PendingSample> samples = pendingSamples.subList(0, sampleCount);
+      long[] decodeTimesUs = new long[sampleCount];
+      for (int i = 0; i < sampleCount; i++) {
+        decodeTimesUs[i] = samples.get(i).presentationTimeUs;
+      }
+      Arrays.sort(decodeTimesUs);
+
+      long nextDecodeTimeUs = C.TIME_UNSET;
+      if (sampleCount < pendingSamples.size()) {
+        nextDecodeTimeUs = Long.MAX_VALUE;
+        for (int i = sampleCount; i < pendingSamples.size(); i++) {
+          nextDecodeTimeUs = min(nextDecodeTimeUs, pendingSamples.get(i).presentationTimeUs);
+        }
+      } else if (isPrimaryTrack) {
+        nextDecodeTimeUs = nextFragmentStartTimeUs;
+      }
+
+      int[] sampleDurationsUs = new int[sampleCount];
+      int[] sampleSizes = new int[sampleCount];
+      boolean[] sampleIsKeyFrame = new boolean[sampleCount];
+      int[] sampleCompositionOffsetsUs = new int[sampleCount];
+      for (int i = 0; i < sampleCount; i++) {
+        PendingSample sample = samples.get(i);
+        if (i < sampleCount - 1) {
+          lastSampleDurationUs = getDurationUs(decodeTimesUs[i], decodeTimesUs[i + 1]);
+        } else if (nextDecodeTimeUs != C.TIME_UNSET) {
+          lastSampleDurationUs = getDurationUs(decodeTimesUs[i], nextDecodeTimeUs);
+        }
+        // Otherwise, the duration of the last sample is assumed to equal the previous one.
+        sampleDurationsUs[i] = lastSampleDurationUs;
+        sampleSizes[i] = sample.data.remaining();
+        sampleIsKeyFrame[i] = sample.isKeyFrame;
+        sampleCompositionOffsetsUs[i] = (int) (sample.presentationTimeUs - decodeTimesUs[i]);
+        sampleData.add(sample.data);
+      }
+      samples.clear();
+      return new FragmentedMp4Boxes.TrackFragment(
+          trackId,
+          decodeTimesUs[0],
+          sampleDurationsUs,
+          sampleSizes,
+          sampleIsKeyFrame,
+          sampleCompositionOffsetsUs);
+    }
+
+    private static int getDurationUs(long decodeTimeUs, long nextDecodeTimeUs) {
+      return (int) min(max(nextDecodeTimeUs - decodeTimeUs, 0), Integer.MAX_VALUE);
+    }
+  }
+}
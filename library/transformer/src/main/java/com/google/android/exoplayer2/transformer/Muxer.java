@@ -34,10 +34,10 @@ import java.nio.ByteBuffer;
  * not possible to add tracks. After writing all sample data, {@linkplain #release(boolean) release}
  * the instance to finish writing to the output and return any resources to the system.
  */
-/* package */ interface Muxer {
+public interface Muxer {
 
   /** Thrown when a muxing failure occurs. */
-  /* package */ final class MuxerException extends Exception {
+  final class MuxerException extends Exception {
     /**
      * Creates an instance.
      *
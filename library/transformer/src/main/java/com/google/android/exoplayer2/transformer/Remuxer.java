@@ -0,0 +1,839 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.transformer;
+
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
+import static com.google.android.exoplayer2.util.Assertions.checkNotNull;
+import static com.google.android.exoplayer2.util.Assertions.checkState;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.SparseArray;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.extractor.DummyTrackOutput;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorOutput;
+import com.google.android.exoplayer2.extractor.ExtractorsFactory;
+import com.google.android.exoplayer2.extractor.PositionHolder;
+import com.google.android.exoplayer2.extractor.SeekMap;
+import com.google.android.exoplayer2.extractor.TrackOutput;
+import com.google.android.exoplayer2.source.BundledExtractorsAdapter;
+import com.google.android.exoplayer2.source.ProgressiveMediaExtractor;
+import com.google.android.exoplayer2.upstream.DataReader;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceUtil;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultDataSource;
+import com.google.android.exoplayer2.upstream.Loader;
+import com.google.android.exoplayer2.util.ConditionVariable;
+import com.google.android.exoplayer2.util.Log;
+import com.google.android.exoplayer2.util.ParsableByteArray;
+import com.google.android.exoplayer2.util.Util;
+import com.google.common.collect.ImmutableList;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Copies the samples of progressive inputs to a {@link MuxerWrapper} without decoding them.
+ *
+ * <p>Samples are read by driving {@linkplain Extractor extractors} directly from {@linkplain
+ * DataSource data sources} on a loading thread and are written to the muxer as soon as the
+ * interleaving allows it, instead of being paced through a player. Sample data is read straight
+ * into reusable buffers, so that each sample is only copied once, by the muxer.
+ *
+ * <p>Each {@link Input} can be made of several files that are read one after the other, in which
+ * case their tracks are concatenated. When there are several inputs, they are read alternately so
+ * that their samples can be interleaved.
+ *
+ * <p>At most one audio and one video track are remuxed. If a track can't be written to the muxer
+ * as is, the {@link Listener} is notified {@linkplain Listener#onRemuxingUnsupported() before
+ * anything is written}, so that the caller can transform the input in another way.
+ */
+/* package */ final class Remuxer {
+
+  /** Listener for remuxing events, called on the thread on which the remuxer was started. */
+  public interface Listener {
+
+    /** Called when all the samples have been written to the muxer. */
+    void onRemuxingEnded();
+
+    /**
+     * Called when the input can't be remuxed. No track has been registered with the muxer when
+     * this method is called.
+     */
+    void onRemuxingUnsupported();
+
+    /** Called when remuxing fails. */
+    void onRemuxingError(TransformationException exception);
+  }
+
+  /** A sequence of progressive files whose tracks are concatenated. */
+  public static final class Input {
+
+    /** The {@link Uri URIs} of the files, in the order in which they are read. */
+    public final ImmutableList<Uri> uris;
+    /**
+     * The offsets added to the sample timestamps of each file, in microseconds. The files must not
+     * overlap once offset.
+     */
+    public final long[] timeOffsetsUs;
+
+    /**
+     * Creates an instance for a single file.
+     *
+     * @param uri The {@link Uri} of the file.
+     */
+    public Input(Uri uri) {
+      this(ImmutableList.of(uri), /* timeOffsetsUs= */ new long[] {0});
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param uris See {@link #uris}.
+     * @param timeOffsetsUs See {@link #timeOffsetsUs}.
+     */
+    public Input(List<Uri> uris, long[] timeOffsetsUs) {
+      checkArgument(!uris.isEmpty() && uris.size() == timeOffsetsUs.length);
+      this.uris = ImmutableList.copyOf(uris);
+      this.timeOffsetsUs = timeOffsetsUs;
+    }
+  }
+
+  private static final String TAG = "Remuxer";
+  private static final String THREAD_NAME_SUFFIX = "Remuxer";
+  private static final long RELEASE_TIMEOUT_MS = ExoPlayer.DEFAULT_RELEASE_TIMEOUT_MS;
+  private static final int DEFAULT_SAMPLE_BUFFER_SIZE = 64 * 1024;
+
+  private final Loader loader;
+  private final RemuxingLoadable loadable;
+  private final Listener listener;
+
+  /**
+   * Creates an instance.
+   *
+   * @param context The {@link Context}.
+   * @param inputs The {@linkplain Input inputs} to remux.
+   * @param muxerWrapper The {@link MuxerWrapper} to write the samples to.
+   * @param removeAudio Whether the audio track should be dropped.
+   * @param removeVideo Whether the video track should be dropped.
+   * @param listener The {@link Listener}.
+   */
+  public Remuxer(
+      Context context,
+      List<Input> inputs,
+      MuxerWrapper muxerWrapper,
+      boolean removeAudio,
+      boolean removeVideo,
+      Listener listener) {
+    this.listener = listener;
+    loader = new Loader(THREAD_NAME_SUFFIX);
+    DefaultDataSource.Factory dataSourceFactory = new DefaultDataSource.Factory(context);
+    loadable =
+        new RemuxingLoadable(inputs, dataSourceFactory, muxerWrapper, removeAudio, removeVideo);
+  }
+
+  /**
+   * Starts remuxing.
+   *
+   * <p>Must be called on a {@link android.os.Looper} thread, on which the {@link Listener} is
+   * called.
+   */
+  public void start() {
+    loader.startLoading(loadable, new LoaderCallback(), /* defaultMinRetryCount= */ 0);
+  }
+
+  /**
+   * Returns the current {@link Transformer.ProgressState} and updates {@code progressHolder} with
+   * the current progress if it is {@link Transformer#PROGRESS_STATE_AVAILABLE available}.
+   */
+  public @Transformer.ProgressState int getProgress(ProgressHolder progressHolder) {
+    if (!loadable.hasSeekMap) {
+      return Transformer.PROGRESS_STATE_WAITING_FOR_AVAILABILITY;
+    }
+    long durationUs = loadable.durationUs;
+    if (durationUs <= 0 || durationUs == C.TIME_UNSET) {
+      return Transformer.PROGRESS_STATE_UNAVAILABLE;
+    }
+    progressHolder.progress = min((int) (loadable.writtenPositionUs * 100 / durationUs), 99);
+    return Transformer.PROGRESS_STATE_AVAILABLE;
+  }
+
+  /**
+   * Stops remuxing and releases the loading thread.
+   *
+   * <p>This method waits for the loading thread to stop for a bounded time. The loading thread
+   * never accesses the {@link MuxerWrapper} once this method returns, so that the muxer can be
+   * released, even if the thread is still blocked reading the input.
+   */
+  public void release() {
+    ConditionVariable loaderReleased = new ConditionVariable();
+    loader.release(loaderReleased::open);
+    boolean wasInterrupted = false;
+    boolean isLoaderReleased;
+    try {
+      isLoaderReleased = loaderReleased.block(RELEASE_TIMEOUT_MS);
+    } catch (InterruptedException e) {
+      wasInterrupted = true;
+      isLoaderReleased = false;
+    }
+    if (!isLoaderReleased) {
+      Log.w(TAG, "Loading thread didn't stop within the release timeout.");
+    }
+    loadable.detachMuxer();
+    if (wasInterrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private final class LoaderCallback implements Loader.Callback<RemuxingLoadable> {
+
+    @Override
+    public void onLoadCompleted(
+        RemuxingLoadable loadable, long elapsedRealtimeMs, long loadDurationMs) {
+      @Nullable TransformationException error = loadable.error;
+      if (error != null) {
+        listener.onRemuxingError(error);
+      } else if (loadable.isUnsupported) {
+        listener.onRemuxingUnsupported();
+      } else {
+        listener.onRemuxingEnded();
+      }
+    }
+
+    @Override
+    public void onLoadCanceled(
+        RemuxingLoadable loadable, long elapsedRealtimeMs, long loadDurationMs, boolean released) {
+      // Only happens when the remuxer is released.
+    }
+
+    @Override
+    public Loader.LoadErrorAction onLoadError(
+        RemuxingLoadable loadable,
+        long elapsedRealtimeMs,
+        long loadDurationMs,
+        IOException error,
+        int errorCount) {
+      listener.onRemuxingError(TransformationException.createForIo(error));
+      return Loader.DONT_RETRY;
+    }
+  }
+
+  private static final class RemuxingLoadable implements Loader.Loadable {
+
+    private final ImmutableList<InputReader> inputReaders;
+    private final MuxerWrapper muxerWrapper;
+    private final boolean removeAudio;
+    private final boolean removeVideo;
+    private final List<RemuxingTrackOutput> tracks;
+    private final List<RemuxingTrackOutput> candidateTracks;
+
+    private final Object muxerLock;
+
+    private volatile boolean loadCanceled;
+    private volatile boolean hasSeekMap;
+    private volatile long durationUs;
+    private volatile long writtenPositionUs;
+
+    @Nullable private TransformationException error;
+    private boolean isUnsupported;
+    private boolean isMuxerConfigured;
+
+    public RemuxingLoadable(
+        List<Input> inputs,
+        DataSource.Factory dataSourceFactory,
+        MuxerWrapper muxerWrapper,
+        boolean removeAudio,
+        boolean removeVideo) {
+      this.muxerWrapper = muxerWrapper;
+      muxerLock = new Object();
+      this.removeAudio = removeAudio;
+      this.removeVideo = removeVideo;
+      tracks = new ArrayList<>();
+      candidateTracks = new ArrayList<>();
+      durationUs = C.TIME_UNSET;
+      ExtractorsFactory extractorsFactory = new DefaultExtractorsFactory();
+      ImmutableList.Builder<InputReader> inputReaders = new ImmutableList.Builder<>();
+      for (int i = 0; i < inputs.size(); i++) {
+        DataSource dataSource = dataSourceFactory.createDataSource();
+        inputReaders.add(new InputReader(inputs.get(i), dataSource, extractorsFactory));
+      }
+      this.inputReaders = inputReaders.build();
+    }
+
+    // Loadable implementation.
+
+    /**
+     * Stops the loading thread from accessing the {@link MuxerWrapper}. Blocks while a sample is
+     * being written, but doesn't wait for reads from the input to complete.
+     */
+    public void detachMuxer() {
+      synchronized (muxerLock) {
+        loadCanceled = true;
+      }
+    }
+
+    @Override
+    public void cancelLoad() {
+      loadCanceled = true;
+    }
+
+    @Override
+    public void load() throws IOException {
+      try {
+        @Nullable InputReader inputReader;
+        while (!isStopped() && (inputReader = getNextInputReader()) != null) {
+          inputReader.read();
+        }
+        synchronized (muxerLock) {
+          if (!isStopped()) {
+            maybeConfigureMuxer(/* isEndOfInput= */ true);
+          }
+        }
+        if (!isStopped()) {
+          writeRemainingSamples();
+        }
+      } catch (Muxer.MuxerException e) {
+        error =
+            TransformationException.createForMuxer(
+                e, TransformationException.ERROR_CODE_MUXING_FAILED);
+      } catch (RuntimeException e) {
+        error = TransformationException.createForUnexpected(e);
+      } finally {
+        for (int i = 0; i < inputReaders.size(); i++) {
+          inputReaders.get(i).release();
+        }
+      }
+    }
+
+    // Internal methods.
+
+    private boolean isStopped() {
+      return loadCanceled || isUnsupported || error != null;
+    }
+
+    /**
+     * Returns the reader of the input whose queued samples are the earliest, so that the inputs are
+     * read at the same pace, or {@code null} if all the inputs have been read.
+     */
+    @Nullable
+    private InputReader getNextInputReader() {
+      @Nullable InputReader nextInputReader = null;
+      for (int i = 0; i < inputReaders.size(); i++) {
+        InputReader inputReader = inputReaders.get(i);
+        if (!inputReader.isEnded
+            && (nextInputReader == null
+                || inputReader.getLargestQueuedTimeUs()
+                    < nextInputReader.getLargestQueuedTimeUs())) {
+          nextInputReader = inputReader;
+        }
+      }
+      return nextInputReader;
+    }
+
+    private void maybeConfigureMuxerAndWriteSamples() {
+      synchronized (muxerLock) {
+        if (isStopped()) {
+          return;
+        }
+        try {
+          maybeConfigureMuxer(/* isEndOfInput= */ false);
+          if (isMuxerConfigured) {
+            writePendingSamples();
+          }
+        } catch (Muxer.MuxerException e) {
+          error =
+              TransformationException.createForMuxer(
+                  e, TransformationException.ERROR_CODE_MUXING_FAILED);
+        }
+      }
+    }
+
+    /**
+     * Registers the tracks and adds their formats to the muxer once all the track formats are
+     * known, or reports that the input is unsupported if a track can't be written as is.
+     */
+    private void maybeConfigureMuxer(boolean isEndOfInput) throws Muxer.MuxerException {
+      if (isMuxerConfigured) {
+        return;
+      }
+      if (!isEndOfInput) {
+        for (int i = 0; i < inputReaders.size(); i++) {
+          if (!inputReaders.get(i).tracksEnded) {
+            return;
+          }
+        }
+      }
+      int trackCount = 0;
+      for (int i = 0; i < tracks.size(); i++) {
+        RemuxingTrackOutput track = tracks.get(i);
+        @Nullable Format format = track.format;
+        if (format == null) {
+          if (!isEndOfInput) {
+            return;
+          }
+          // The track has no samples.
+          continue;
+        }
+        if (!canRemux(track)) {
+          isUnsupported = true;
+          return;
+        }
+        trackCount++;
+      }
+      if (trackCount == 0) {
+        throw new IllegalStateException("The output does not contain any tracks.");
+      }
+
+      for (int i = 0; i < tracks.size(); i++) {
+        if (tracks.get(i).format != null) {
+          muxerWrapper.registerTrack();
+        }
+      }
+      for (int i = 0; i < tracks.size(); i++) {
+        RemuxingTrackOutput track = tracks.get(i);
+        if (track.format != null) {
+          muxerWrapper.addTrackFormat(track.format);
+          track.isAddedToMuxer = true;
+        }
+      }
+      isMuxerConfigured = true;
+    }
+
+    private boolean canRemux(RemuxingTrackOutput track) {
+      Format format = checkNotNull(track.format);
+      if (track.hasEncryptedSamples || format.drmInitData != null) {
+        return false;
+      }
+      if (!muxerWrapper.supportsSampleMimeType(format.sampleMimeType)) {
+        return false;
+      }
+      return track.trackType != C.TRACK_TYPE_VIDEO || format.pixelWidthHeightRatio == 1f;
+    }
+
+    /**
+     * Writes pending samples to the muxer, earliest first, until the muxer requires a sample that
+     * hasn't been read yet to preserve the interleaving.
+     */
+    private void writePendingSamples() throws Muxer.MuxerException {
+      boolean wroteSample = true;
+      while (wroteSample) {
+        wroteSample = false;
+        candidateTracks.clear();
+        for (int i = 0; i < tracks.size(); i++) {
+          RemuxingTrackOutput track = tracks.get(i);
+          if (track.isAddedToMuxer && !track.pendingSamples.isEmpty()) {
+            candidateTracks.add(track);
+          }
+        }
+        // Try the tracks in order of their next sample time, as this is the order in which the
+        // muxer is most likely to accept them.
+        Collections.sort(
+            candidateTracks,
+            (track1, track2) ->
+                Long.compare(track1.getNextSampleTimeUs(), track2.getNextSampleTimeUs()));
+        for (int i = 0; i < candidateTracks.size() && !wroteSample; i++) {
+          wroteSample = writeNextSample(candidateTracks.get(i));
+        }
+      }
+    }
+
+    private boolean writeNextSample(RemuxingTrackOutput track) throws Muxer.MuxerException {
+      Sample sample = checkNotNull(track.pendingSamples.peek());
+      if (!muxerWrapper.writeSample(
+          track.trackType, sample.data, sample.isKeyFrame, sample.timeUs)) {
+        return false;
+      }
+      track.pendingSamples.remove();
+      track.recycleBuffer(sample.data);
+      writtenPositionUs = max(writtenPositionUs, sample.timeUs);
+      return true;
+    }
+
+    /** Writes all the samples left once the end of the input is reached and ends the tracks. */
+    private void writeRemainingSamples() throws Muxer.MuxerException {
+      boolean allTracksEnded = false;
+      while (!allTracksEnded) {
+        // Release the lock between iterations, so that the remuxer can be released promptly.
+        synchronized (muxerLock) {
+          if (loadCanceled) {
+            return;
+          }
+          writePendingSamples();
+          allTracksEnded = true;
+          for (int i = 0; i < tracks.size(); i++) {
+            RemuxingTrackOutput track = tracks.get(i);
+            if (!track.isAddedToMuxer) {
+              continue;
+            }
+            if (track.pendingSamples.isEmpty()) {
+              // Ending a track lifts the interleaving constraint it puts on the other tracks.
+              muxerWrapper.endTrack(track.trackType);
+              track.isAddedToMuxer = false;
+            } else {
+              allTracksEnded = false;
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Reads the files of an {@link Input} one after the other and routes the samples of their
+     * tracks to the {@link RemuxingTrackOutput} of the corresponding type.
+     */
+    private final class InputReader implements ExtractorOutput {
+
+      private final Input input;
+      private final DataSource dataSource;
+      private final ExtractorsFactory extractorsFactory;
+      private final PositionHolder positionHolder;
+      private final List<RemuxingTrackOutput> inputTracks;
+      private final SparseArray<TrackOutput> fileTrackOutputs;
+
+      private ProgressiveMediaExtractor extractor;
+      private int fileIndex;
+      private boolean isDataSourceOpen;
+      public boolean tracksEnded;
+      public boolean isEnded;
+
+      public InputReader(Input input, DataSource dataSource, ExtractorsFactory extractorsFactory) {
+        this.input = input;
+        this.dataSource = dataSource;
+        this.extractorsFactory = extractorsFactory;
+        positionHolder = new PositionHolder();
+        inputTracks = new ArrayList<>();
+        fileTrackOutputs = new SparseArray<>();
+        extractor = new BundledExtractorsAdapter(extractorsFactory);
+      }
+
+      /** Returns the largest timestamp of the samples queued by this reader, in microseconds. */
+      public long getLargestQueuedTimeUs() {
+        long largestQueuedTimeUs = C.TIME_UNSET;
+        for (int i = 0; i < inputTracks.size(); i++) {
+          largestQueuedTimeUs = max(largestQueuedTimeUs, inputTracks.get(i).largestQueuedTimeUs);
+        }
+        return largestQueuedTimeUs;
+      }
+
+      /** Reads from the current file, moving to the next file once it is entirely read. */
+      public void read() throws IOException {
+        Uri uri = input.uris.get(fileIndex);
+        if (!isDataSourceOpen) {
+          long position = positionHolder.position;
+          long length =
+              dataSource.open(new DataSpec.Builder().setUri(uri).setPosition(position).build());
+          isDataSourceOpen = true;
+          if (length != C.LENGTH_UNSET) {
+            length += position;
+          }
+          extractor.init(dataSource, uri, dataSource.getResponseHeaders(), position, length, this);
+        }
+        int result = extractor.read(positionHolder);
+        if (result == Extractor.RESULT_SEEK) {
+          closeDataSource();
+        } else if (result == Extractor.RESULT_END_OF_INPUT) {
+          closeDataSource();
+          startNextFile();
+        }
+      }
+
+      public void release() {
+        closeDataSource();
+        extractor.release();
+      }
+
+      // ExtractorOutput implementation.
+
+      @Override
+      public TrackOutput track(int id, @C.TrackType int type) {
+        @Nullable TrackOutput trackOutput = fileTrackOutputs.get(id);
+        if (trackOutput == null) {
+          trackOutput = selectTrack(type);
+          fileTrackOutputs.put(id, trackOutput);
+        }
+        return trackOutput;
+      }
+
+      @Override
+      public void endTracks() {
+        if (fileIndex == 0) {
+          tracksEnded = true;
+          maybeConfigureMuxerAndWriteSamples();
+        }
+      }
+
+      @Override
+      public void seekMap(SeekMap seekMap) {
+        long fileDurationUs = seekMap.getDurationUs();
+        if (fileDurationUs != C.TIME_UNSET) {
+          long inputDurationUs = input.timeOffsetsUs[fileIndex] + fileDurationUs;
+          durationUs =
+              durationUs == C.TIME_UNSET ? inputDurationUs : max(durationUs, inputDurationUs);
+        }
+        hasSeekMap = true;
+      }
+
+      // Internal methods.
+
+      private TrackOutput selectTrack(@C.TrackType int type) {
+        if (fileIndex > 0) {
+          // The tracks of the following files continue the tracks of the first file.
+          for (int i = 0; i < inputTracks.size(); i++) {
+            RemuxingTrackOutput track = inputTracks.get(i);
+            if (track.trackType == type && !isFileTrackOutput(track)) {
+              return track;
+            }
+          }
+          return new DummyTrackOutput();
+        }
+        boolean isSelectable =
+            (type == C.TRACK_TYPE_AUDIO && !removeAudio)
+                || (type == C.TRACK_TYPE_VIDEO && !removeVideo);
+        if (!isSelectable || tracksEnded) {
+          return new DummyTrackOutput();
+        }
+        for (int i = 0; i < tracks.size(); i++) {
+          if (tracks.get(i).trackType == type) {
+            // Only the first track of each type is remuxed.
+            return new DummyTrackOutput();
+          }
+        }
+        RemuxingTrackOutput track = new RemuxingTrackOutput(type);
+        tracks.add(track);
+        inputTracks.add(track);
+        return track;
+      }
+
+      private boolean isFileTrackOutput(TrackOutput trackOutput) {
+        for (int i = 0; i < fileTrackOutputs.size(); i++) {
+          if (fileTrackOutputs.valueAt(i) == trackOutput) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      private void startNextFile() {
+        fileIndex++;
+        if (fileIndex == input.uris.size()) {
+          isEnded = true;
+          return;
+        }
+        extractor.release();
+        extractor = new BundledExtractorsAdapter(extractorsFactory);
+        positionHolder.position = 0;
+        fileTrackOutputs.clear();
+        for (int i = 0; i < inputTracks.size(); i++) {
+          inputTracks.get(i).startFile(input.timeOffsetsUs[fileIndex]);
+        }
+      }
+
+      private void closeDataSource() {
+        if (isDataSourceOpen) {
+          DataSourceUtil.closeQuietly(dataSource);
+          isDataSourceOpen = false;
+        }
+      }
+    }
+
+    /**
+     * A {@link TrackOutput} that reads sample data directly into reusable buffers and queues the
+     * samples until the muxer can accept them.
+     */
+    private final class RemuxingTrackOutput implements TrackOutput {
+
+      public final @C.TrackType int trackType;
+      public final ArrayDeque<Sample> pendingSamples;
+
+      @Nullable public Format format;
+      public boolean hasEncryptedSamples;
+      public boolean isAddedToMuxer;
+      public long largestQueuedTimeUs;
+
+      private long timeOffsetUs;
+      private boolean isFormatCheckPending;
+
+      private final ArrayDeque<ByteBuffer> availableBuffers;
+      @Nullable private ByteBuffer writeBuffer;
+
+      public RemuxingTrackOutput(@C.TrackType int trackType) {
+        this.trackType = trackType;
+        pendingSamples = new ArrayDeque<>();
+        availableBuffers = new ArrayDeque<>();
+        largestQueuedTimeUs = C.TIME_UNSET;
+      }
+
+      @Override
+      public void format(Format format) {
+        // Format changes can't be written to the muxer, so the first format is kept, as when
+        // samples are passed through by the player.
+        if (this.format == null) {
+          this.format = format;
+          maybeConfigureMuxerAndWriteSamples();
+        } else if (isFormatCheckPending) {
+          isFormatCheckPending = false;
+          checkState(
+              Util.areEqual(this.format.sampleMimeType, format.sampleMimeType)
+                  && this.format.initializationDataEquals(format),
+              "Files with different codec configurations can't be concatenated.");
+        }
+      }
+
+      @Override
+      public int sampleData(
+          DataReader input, int length, boolean allowEndOfInput, @SampleDataPart int sampleDataPart)
+          throws IOException {
+        ByteBuffer buffer = ensureWriteCapacity(length);
+        int position = buffer.position();
+        int bytesRead = input.read(buffer.array(), buffer.arrayOffset() + position, length);
+        if (bytesRead == C.RESULT_END_OF_INPUT) {
+          if (allowEndOfInput) {
+            return C.RESULT_END_OF_INPUT;
+          }
+          throw new EOFException();
+        }
+        buffer.position(position + bytesRead);
+        return bytesRead;
+      }
+
+      @Override
+      public void sampleData(
+          ParsableByteArray data, int length, @SampleDataPart int sampleDataPart) {
+        ByteBuffer buffer = ensureWriteCapacity(length);
+        int position = buffer.position();
+        data.readBytes(buffer.array(), buffer.arrayOffset() + position, length);
+        buffer.position(position + length);
+      }
+
+      @Override
+      public void sampleMetadata(
+          long timeUs,
+          @C.BufferFlags int flags,
+          int size,
+          int offset,
+          @Nullable CryptoData cryptoData) {
+        if (cryptoData != null) {
+          checkState(!isMuxerConfigured, "Encrypted samples can't be remuxed.");
+          hasEncryptedSamples = true;
+        }
+        ByteBuffer sampleBuffer = ensureWriteCapacity(/* length= */ 0);
+        int sampleEnd = sampleBuffer.position() - offset;
+        int sampleStart = sampleEnd - size;
+        // The bytes following the sample belong to the next sample.
+        ByteBuffer nextBuffer = obtainBuffer(offset);
+        for (int i = sampleEnd; i < sampleEnd + offset; i++) {
+          nextBuffer.put(sampleBuffer.get(i));
+        }
+        writeBuffer = nextBuffer;
+
+        sampleBuffer.limit(sampleEnd);
+        sampleBuffer.position(sampleStart);
+        if ((flags & C.BUFFER_FLAG_HAS_SUPPLEMENTAL_DATA) != 0) {
+          // The sample data is prefixed by its size and followed by the supplemental data, which
+          // the muxer doesn't support.
+          int sampleSize = sampleBuffer.getInt();
+          sampleBuffer.limit(sampleBuffer.position() + sampleSize);
+        }
+        timeUs += timeOffsetUs;
+        pendingSamples.add(
+            new Sample(sampleBuffer, (flags & C.BUFFER_FLAG_KEY_FRAME) != 0, timeUs));
+        largestQueuedTimeUs = max(largestQueuedTimeUs, timeUs);
+        if (isMuxerConfigured && isAddedToMuxer) {
+          maybeConfigureMuxerAndWriteSamples();
+        }
+      }
+
+      /**
+       * Prepares to receive the samples of the next file of the input.
+       *
+       * @param timeOffsetUs The offset to add to the sample timestamps of the file, in
+       *     microseconds.
+       */
+      public void startFile(long timeOffsetUs) {
+        this.timeOffsetUs = timeOffsetUs;
+        isFormatCheckPending = true;
+      }
+
+      public long getNextSampleTimeUs() {
+        return checkNotNull(pendingSamples.peek()).timeUs;
+      }
+
+      public void recycleBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        availableBuffers.add(buffer);
+      }
+
+      private ByteBuffer ensureWriteCapacity(int length) {
+        @Nullable ByteBuffer buffer = writeBuffer;
+        if (buffer == null) {
+          buffer = obtainBuffer(length);
+          writeBuffer = buffer;
+        } else if (buffer.remaining() < length) {
+          ByteBuffer largerBuffer =
+              obtainBuffer(max(buffer.position() + length, buffer.capacity() * 2));
+          buffer.flip();
+          largerBuffer.put(buffer);
+          recycleBuffer(buffer);
+          buffer = largerBuffer;
+          writeBuffer = buffer;
+        }
+        return buffer;
+      }
+
+      private ByteBuffer obtainBuffer(int minCapacity) {
+        @Nullable ByteBuffer buffer = availableBuffers.poll();
+        // Buffers that are too small are dropped, so that the pool converges to buffers that can
+        // hold the largest samples.
+        while (buffer != null && buffer.capacity() < minCapacity) {
+          buffer = availableBuffers.poll();
+        }
+        if (buffer != null) {
+          return buffer;
+        }
+        int defaultCapacity =
+            format != null && format.maxInputSize != Format.NO_VALUE
+                ? format.maxInputSize
+                : DEFAULT_SAMPLE_BUFFER_SIZE;
+        return ByteBuffer.allocate(max(minCapacity, defaultCapacity));
+      }
+    }
+  }
+
+  private static final class Sample {
+
+    public final ByteBuffer data;
+    public final boolean isKeyFrame;
+    public final long timeUs;
+
+    public Sample(ByteBuffer data, boolean isKeyFrame, long timeUs) {
+      this.data = data;
+      this.isKeyFrame = isKeyFrame;
+      this.timeUs = timeUs;
+    }
+  }
+}
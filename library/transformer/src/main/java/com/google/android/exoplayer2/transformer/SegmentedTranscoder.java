@@ -0,0 +1,689 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.transformer;
+
+import static com.google.android.exoplayer2.util.Assertions.checkNotNull;
+import static java.lang.Math.min;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.ParcelFileDescriptor;
+import android.util.SparseArray;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.extractor.DummyTrackOutput;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorOutput;
+import com.google.android.exoplayer2.extractor.PositionHolder;
+import com.google.android.exoplayer2.extractor.SeekMap;
+import com.google.android.exoplayer2.extractor.TrackOutput;
+import com.google.android.exoplayer2.source.BundledExtractorsAdapter;
+import com.google.android.exoplayer2.source.ProgressiveMediaExtractor;
+import com.google.android.exoplayer2.upstream.DataReader;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceUtil;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultDataSource;
+import com.google.android.exoplayer2.upstream.Loader;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.ParsableByteArray;
+import com.google.android.exoplayer2.util.Util;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transcodes a progressive input by splitting its video into segments that are transcoded in
+ * parallel.
+ *
+ * <p>The input is first probed to find its duration and the key frames at which it can be split,
+ * using the extractor {@link SeekMap}. The video of each segment is then transformed by its own
+ * {@link Transformer}, which has its own decoder and encoder, to a temporary fragmented MP4 file.
+ * The audio is transformed in one piece by another {@link Transformer}, so that it has no
+ * discontinuity at the segment boundaries. Once all the transformations have completed, the
+ * temporary files are concatenated to the output by a {@link Remuxer}, offsetting the timestamps
+ * of each segment by its start position.
+ *
+ * <p>Separate encoder instances aren't guaranteed to output the same codec configuration, so the
+ * video format of each segment is compared with the others as soon as its encoder outputs it. If
+ * they differ, the remaining transformations are canceled and the {@link Listener} is notified
+ * that {@linkplain Listener#onSegmentingUnsupported() segmenting is unsupported}, so that the
+ * caller can transform the input in another way.
+ */
+/* package */ final class SegmentedTranscoder {
+
+  /** Listener for segmented transcoding events. */
+  public interface Listener {
+
+    /** Called when all the samples have been written to the muxer. */
+    void onSegmentedTranscodingEnded();
+
+    /**
+     * Called when the input can't be split into segments, or when the transcoded segments can't be
+     * concatenated. No track has been registered with the muxer when this method is called.
+     */
+    void onSegmentingUnsupported();
+
+    /** Called when segmented transcoding fails. */
+    void onSegmentedTranscodingError(TransformationException exception);
+  }
+
+  /** Creates the {@link Transformer Transformers} that transform the tracks of the segments. */
+  public interface TransformerFactory {
+
+    /**
+     * Returns a {@link Transformer} that only outputs the track of the given type, always encoding
+     * it if it is a video track.
+     *
+     * @param trackType The {@linkplain C.TrackType track type} to output, either {@link
+     *     C#TRACK_TYPE_AUDIO} or {@link C#TRACK_TYPE_VIDEO}.
+     * @param muxerFactory The {@link Muxer.Factory} for the output.
+     */
+    Transformer create(@C.TrackType int trackType, Muxer.Factory muxerFactory);
+  }
+
+  private static final String THREAD_NAME_SUFFIX = "SegmentProber";
+  private static final String TEMP_FILE_PREFIX = "ExoPlayerTransformerSegment";
+  /** The percentage of the progress allocated to transcoding, the rest being for concatenating. */
+  private static final int TRANSCODING_PROGRESS_PERCENTAGE = 90;
+
+  private final Context context;
+  private final MediaItem mediaItem;
+  private final int segmentCount;
+  private final MuxerWrapper muxerWrapper;
+  private final boolean removeAudio;
+  private final TransformationRequest transformationRequest;
+  private final TransformerFactory transformerFactory;
+  private final Listener listener;
+  private final Muxer.Factory segmentMuxerFactory;
+  private final Loader loader;
+  private final ProbingLoadable probingLoadable;
+  private final List<Transformer> transformers;
+  private final List<File> outputFiles;
+  private final ProgressHolder transformerProgressHolder;
+
+  @Nullable private Handler handler;
+  @Nullable private ImmutableList<Remuxer.Input> remuxerInputs;
+  @Nullable private Remuxer remuxer;
+  @Nullable private Format segmentVideoFormat;
+  private int segmentVideoFormatCount;
+  private int pendingTransformationCount;
+  private boolean isProbed;
+  private boolean isSegmentingUnsupported;
+  private boolean isReleased;
+
+  /**
+   * Creates an instance.
+   *
+   * @param context The {@link Context}.
+   * @param mediaItem The progressive {@link MediaItem} to transcode.
+   * @param segmentCount The maximum number of segments to transcode in parallel.
+   * @param muxerWrapper The {@link MuxerWrapper} to write the output to.
+   * @param removeAudio Whether the audio track should be dropped.
+   * @param transformationRequest The {@link TransformationRequest} applied to the tracks.
+   * @param transformerFactory The {@link TransformerFactory}.
+   * @param listener The {@link Listener}.
+   */
+  public SegmentedTranscoder(
+      Context context,
+      MediaItem mediaItem,
+      int segmentCount,
+      MuxerWrapper muxerWrapper,
+      boolean removeAudio,
+      TransformationRequest transformationRequest,
+      TransformerFactory transformerFactory,
+      Listener listener) {
+    this.context = context;
+    this.mediaItem = mediaItem;
+    this.segmentCount = segmentCount;
+    this.muxerWrapper = muxerWrapper;
+    this.removeAudio = removeAudio;
+    this.transformationRequest = transformationRequest;
+    this.transformerFactory = transformerFactory;
+    this.listener = listener;
+    segmentMuxerFactory = new FragmentedMp4Muxer.Factory();
+    loader = new Loader(THREAD_NAME_SUFFIX);
+    probingLoadable =
+        new ProbingLoadable(
+            checkNotNull(mediaItem.localConfiguration).uri,
+            new DefaultDataSource.Factory(context).createDataSource());
+    transformers = new ArrayList<>();
+    outputFiles = new ArrayList<>();
+    transformerProgressHolder = new ProgressHolder();
+  }
+
+  /**
+   * Starts probing the input, and then transcoding it.
+   *
+   * <p>Must be called on a {@link android.os.Looper} thread, on which the {@link Listener} is
+   * called.
+   */
+  public void start() {
+    handler = Util.createHandlerForCurrentLooper();
+    loader.startLoading(probingLoadable, new ProbingCallback(), /* defaultMinRetryCount= */ 0);
+  }
+
+  /**
+   * Returns the current {@link Transformer.ProgressState} and updates {@code progressHolder} with
+   * the current progress if it is {@link Transformer#PROGRESS_STATE_AVAILABLE available}.
+   */
+  public @Transformer.ProgressState int getProgress(ProgressHolder progressHolder) {
+    if (!isProbed || transformers.isEmpty()) {
+      return Transformer.PROGRESS_STATE_WAITING_FOR_AVAILABILITY;
+    }
+    if (remuxer != null) {
+      int progress = TRANSCODING_PROGRESS_PERCENTAGE;
+      if (remuxer.getProgress(transformerProgressHolder) == Transformer.PROGRESS_STATE_AVAILABLE) {
+        progress +=
+            transformerProgressHolder.progress * (100 - TRANSCODING_PROGRESS_PERCENTAGE) / 100;
+      }
+      progressHolder.progress = min(progress, 99);
+      return Transformer.PROGRESS_STATE_AVAILABLE;
+    }
+    int progressSum = 0;
+    for (int i = 0; i < transformers.size(); i++) {
+      @Transformer.ProgressState
+      int progressState = transformers.get(i).getProgress(transformerProgressHolder);
+      if (progressState == Transformer.PROGRESS_STATE_AVAILABLE) {
+        progressSum += transformerProgressHolder.progress;
+      } else if (progressState == Transformer.PROGRESS_STATE_NO_TRANSFORMATION) {
+        // The transformation has completed.
+        progressSum += 100;
+      }
+    }
+    progressHolder.progress =
+        progressSum * TRANSCODING_PROGRESS_PERCENTAGE / 100 / transformers.size();
+    return Transformer.PROGRESS_STATE_AVAILABLE;
+  }
+
+  /**
+   * Cancels the transformations in progress, if any, and deletes the temporary files.
+   *
+   * <p>This method blocks until the {@link MuxerWrapper} is no longer accessed, so that the muxer
+   * can be released once it returns.
+   */
+  public void release() {
+    isReleased = true;
+    // The probing thread only reads the input, so there's no need to wait for it to stop.
+    loader.release();
+    cancelTransformations();
+    if (remuxer != null) {
+      remuxer.release();
+      remuxer = null;
+    }
+    for (int i = 0; i < outputFiles.size(); i++) {
+      outputFiles.get(i).delete();
+    }
+  }
+
+  private void onProbed() {
+    isProbed = true;
+    @Nullable Format videoFormat = probingLoadable.getFormat(C.TRACK_TYPE_VIDEO);
+    @Nullable
+    Format audioFormat = removeAudio ? null : probingLoadable.getFormat(C.TRACK_TYPE_AUDIO);
+    @Nullable SeekMap seekMap = probingLoadable.seekMap;
+    long[] segmentStartTimesMs =
+        seekMap == null ? new long[0] : getSegmentStartTimesMs(seekMap, segmentCount);
+    if (videoFormat == null
+        || segmentStartTimesMs.length < 2
+        || !isSupported(videoFormat, transformationRequest.videoMimeType)
+        || (audioFormat != null
+            && !isSupported(audioFormat, transformationRequest.audioMimeType))) {
+      listener.onSegmentingUnsupported();
+      return;
+    }
+
+    List<Uri> segmentUris = new ArrayList<>();
+    long[] segmentStartTimesUs = new long[segmentStartTimesMs.length];
+    @Nullable Uri audioUri = null;
+    try {
+      for (int i = 0; i < segmentStartTimesMs.length; i++) {
+        MediaItem.ClippingConfiguration clippingConfiguration =
+            new MediaItem.ClippingConfiguration.Builder()
+                .setStartPositionMs(segmentStartTimesMs[i])
+                .setEndPositionMs(
+                    i + 1 < segmentStartTimesMs.length
+                        ? segmentStartTimesMs[i + 1]
+                        : C.TIME_END_OF_SOURCE)
+                .build();
+        segmentUris.add(
+            startTransformation(
+                C.TRACK_TYPE_VIDEO,
+                mediaItem.buildUpon().setClippingConfiguration(clippingConfiguration).build()));
+        // The output of a clipped transformation starts at the clipping start position.
+        segmentStartTimesUs[i] = Util.msToUs(segmentStartTimesMs[i]);
+      }
+      if (audioFormat != null) {
+        audioUri = startTransformation(C.TRACK_TYPE_AUDIO, mediaItem);
+      }
+    } catch (IOException | RuntimeException e) {
+      listener.onSegmentedTranscodingError(TransformationException.createForUnexpected(e));
+      return;
+    }
+
+    ImmutableList.Builder<Remuxer.Input> remuxerInputs = new ImmutableList.Builder<>();
+    remuxerInputs.add(new Remuxer.Input(segmentUris, segmentStartTimesUs));
+    if (audioUri != null) {
+      remuxerInputs.add(new Remuxer.Input(audioUri));
+    }
+    this.remuxerInputs = remuxerInputs.build();
+  }
+
+  private void onTrackTransformationCompleted() {
+    pendingTransformationCount--;
+    if (pendingTransformationCount > 0 || isReleased || isSegmentingUnsupported) {
+      return;
+    }
+    ImmutableList<Remuxer.Input> remuxerInputs = checkNotNull(this.remuxerInputs);
+    if (segmentVideoFormatCount != remuxerInputs.get(0).uris.size()) {
+      // A segment has no video, so the segments can't be concatenated.
+      onSegmentingUnsupported();
+      return;
+    }
+    Remuxer remuxer =
+        new Remuxer(
+            context,
+            remuxerInputs,
+            muxerWrapper,
+            /* removeAudio= */ false,
+            /* removeVideo= */ false,
+            new RemuxerListener());
+    this.remuxer = remuxer;
+    remuxer.start();
+  }
+
+  private void onSegmentVideoFormat(Format format) {
+    if (isReleased || isSegmentingUnsupported) {
+      return;
+    }
+    segmentVideoFormatCount++;
+    if (segmentVideoFormat == null) {
+      segmentVideoFormat = format;
+    } else if (!haveSameCodecConfiguration(segmentVideoFormat, format)) {
+      // Don't wait for the other segments to be transcoded, as the input is transformed again.
+      onSegmentingUnsupported();
+    }
+  }
+
+  private void onSegmentingUnsupported() {
+    isSegmentingUnsupported = true;
+    cancelTransformations();
+    listener.onSegmentingUnsupported();
+  }
+
+  private void cancelTransformations() {
+    for (int i = 0; i < transformers.size(); i++) {
+      transformers.get(i).cancel();
+    }
+    transformers.clear();
+  }
+
+  /**
+   * Returns whether the given formats have the same MIME type and initialization data, so that the
+   * samples they describe can be concatenated in a single track.
+   */
+  private static boolean haveSameCodecConfiguration(Format format, Format otherFormat) {
+    return Util.areEqual(format.sampleMimeType, otherFormat.sampleMimeType)
+        && format.initializationDataEquals(otherFormat);
+  }
+
+  /**
+   * Returns whether the output of a track with the given input {@link Format} can be written to
+   * the temporary files and to the output.
+   */
+  private boolean isSupported(Format inputFormat, @Nullable String requestedMimeType) {
+    @Nullable
+    String outputMimeType =
+        requestedMimeType != null ? requestedMimeType : inputFormat.sampleMimeType;
+    return segmentMuxerFactory.supportsSampleMimeType(outputMimeType, MimeTypes.VIDEO_MP4)
+        && muxerWrapper.supportsSampleMimeType(outputMimeType);
+  }
+
+  /**
+   * Starts a transformation of the given track type to a temporary file.
+   *
+   * @return The {@link Uri} of the temporary file.
+   */
+  private Uri startTransformation(@C.TrackType int trackType, MediaItem mediaItem)
+      throws IOException {
+    File outputFile = Util.createTempFile(context, TEMP_FILE_PREFIX);
+    outputFiles.add(outputFile);
+    Transformer transformer =
+        transformerFactory.create(
+            trackType,
+            trackType == C.TRACK_TYPE_VIDEO
+                ? new VideoFormatReportingMuxerFactory(segmentMuxerFactory)
+                : segmentMuxerFactory);
+    transformer.addListener(new TransformerListener());
+    transformers.add(transformer);
+    pendingTransformationCount++;
+    transformer.startTransformation(mediaItem, outputFile.getPath());
+    return Uri.fromFile(outputFile);
+  }
+
+  /**
+   * Returns the start times of the segments in milliseconds, which are the times of the key frames
+   * preceding the evenly spaced split points. The first segment starts at 0.
+   */
+  private static long[] getSegmentStartTimesMs(SeekMap seekMap, int segmentCount) {
+    long durationUs = seekMap.getDurationUs();
+    if (!seekMap.isSeekable() || durationUs == C.TIME_UNSET || durationUs <= 0) {
+      return new long[0];
+    }
+    List<Long> segmentStartTimesMs = new ArrayList<>();
+    segmentStartTimesMs.add(0L);
+    for (int i = 1; i < segmentCount; i++) {
+      long keyFrameTimeUs = seekMap.getSeekPoints(durationUs * i / segmentCount).first.timeUs;
+      // Round down to the clipping precision, so that the key frame is in the segment.
+      long keyFrameTimeMs = Util.usToMs(keyFrameTimeUs);
+      if (keyFrameTimeMs > segmentStartTimesMs.get(segmentStartTimesMs.size() - 1)) {
+        segmentStartTimesMs.add(keyFrameTimeMs);
+      }
+    }
+    long[] segmentStartTimesMsArray = new long[segmentStartTimesMs.size()];
+    for (int i = 0; i < segmentStartTimesMsArray.length; i++) {
+      segmentStartTimesMsArray[i] = segmentStartTimesMs.get(i);
+    }
+    return segmentStartTimesMsArray;
+  }
+
+  private final class ProbingCallback implements Loader.Callback<ProbingLoadable> {
+
+    @Override
+    public void onLoadCompleted(
+        ProbingLoadable loadable, long elapsedRealtimeMs, long loadDurationMs) {
+      onProbed();
+    }
+
+    @Override
+    public void onLoadCanceled(
+        ProbingLoadable loadable, long elapsedRealtimeMs, long loadDurationMs, boolean released) {
+      // Only happens when the transcoder is released.
+    }
+
+    @Override
+    public Loader.LoadErrorAction onLoadError(
+        ProbingLoadable loadable,
+        long elapsedRealtimeMs,
+        long loadDurationMs,
+        IOException error,
+        int errorCount) {
+      listener.onSegmentedTranscodingError(TransformationException.createForIo(error));
+      return Loader.DONT_RETRY;
+    }
+  }
+
+  private final class TransformerListener implements Transformer.Listener {
+
+    @Override
+    public void onTransformationCompleted(
+        MediaItem inputMediaItem, TransformationResult transformationResult) {
+      onTrackTransformationCompleted();
+    }
+
+    @Override
+    public void onTransformationError(
+        MediaItem inputMediaItem, TransformationException exception) {
+      if (!isReleased) {
+        listener.onSegmentedTranscodingError(exception);
+      }
+    }
+  }
+
+  private final class RemuxerListener implements Remuxer.Listener {
+
+    @Override
+    public void onRemuxingEnded() {
+      listener.onSegmentedTranscodingEnded();
+    }
+
+    @Override
+    public void onRemuxingUnsupported() {
+      // Nothing has been written to the muxer, so the input can be transformed in another way.
+      listener.onSegmentingUnsupported();
+    }
+
+    @Override
+    public void onRemuxingError(TransformationException exception) {
+      listener.onSegmentedTranscodingError(exception);
+    }
+  }
+
+  /**
+   * A {@link Muxer.Factory} whose muxers report the video format of a segment to the transcoder
+   * when the encoder outputs it, on the thread on which the transcoder was started.
+   */
+  private final class VideoFormatReportingMuxerFactory implements Muxer.Factory {
+
+    private final Muxer.Factory muxerFactory;
+
+    public VideoFormatReportingMuxerFactory(Muxer.Factory muxerFactory) {
+      this.muxerFactory = muxerFactory;
+    }
+
+    @Override
+    public Muxer create(String path, String outputMimeType) throws IOException {
+      return new VideoFormatReportingMuxer(muxerFactory.create(path, outputMimeType));
+    }
+
+    @Override
+    public Muxer create(ParcelFileDescriptor parcelFileDescriptor, String outputMimeType)
+        throws IOException {
+      return new VideoFormatReportingMuxer(
+          muxerFactory.create(parcelFileDescriptor, outputMimeType));
+    }
+
+    @Override
+    public boolean supportsOutputMimeType(String mimeType) {
+      return muxerFactory.supportsOutputMimeType(mimeType);
+    }
+
+    @Override
+    public boolean supportsSampleMimeType(
+        @Nullable String sampleMimeType, String containerMimeType) {
+      return muxerFactory.supportsSampleMimeType(sampleMimeType, containerMimeType);
+    }
+
+    @Override
+    public ImmutableList<String> getSupportedSampleMimeTypes(
+        @C.TrackType int trackType, String containerMimeType) {
+      return muxerFactory.getSupportedSampleMimeTypes(trackType, containerMimeType);
+    }
+  }
+
+  private final class VideoFormatReportingMuxer implements Muxer {
+
+    private final Muxer muxer;
+
+    public VideoFormatReportingMuxer(Muxer muxer) {
+      this.muxer = muxer;
+    }
+
+    @Override
+    public int addTrack(Format format) throws MuxerException {
+      if (MimeTypes.isVideo(format.sampleMimeType)) {
+        checkNotNull(handler).post(() -> onSegmentVideoFormat(format));
+      }
+      return muxer.addTrack(format);
+    }
+
+    @Override
+    public void writeSampleData(
+        int trackIndex, ByteBuffer data, boolean isKeyFrame, long presentationTimeUs)
+        throws MuxerException {
+      muxer.writeSampleData(trackIndex, data, isKeyFrame, presentationTimeUs);
+    }
+
+    @Override
+    public void release(boolean forCancellation) throws MuxerException {
+      muxer.release(forCancellation);
+    }
+  }
+
+  /** Reads the input until its tracks, their formats and its {@link SeekMap} are known. */
+  private static final class ProbingLoadable implements Loader.Loadable, ExtractorOutput {
+
+    private final Uri uri;
+    private final DataSource dataSource;
+    private final ProgressiveMediaExtractor extractor;
+    private final PositionHolder positionHolder;
+    private final SparseArray<ProbingTrackOutput> tracks;
+
+    private volatile boolean loadCanceled;
+    private boolean tracksEnded;
+    @Nullable private SeekMap seekMap;
+
+    public ProbingLoadable(Uri uri, DataSource dataSource) {
+      this.uri = uri;
+      this.dataSource = dataSource;
+      extractor = new BundledExtractorsAdapter(new DefaultExtractorsFactory());
+      positionHolder = new PositionHolder();
+      tracks = new SparseArray<>();
+    }
+
+    /** Returns the format of the first track of the given type, or {@code null} if none. */
+    @Nullable
+    public Format getFormat(@C.TrackType int trackType) {
+      for (int i = 0; i < tracks.size(); i++) {
+        ProbingTrackOutput track = tracks.valueAt(i);
+        if (track.trackType == trackType && track.format != null) {
+          return track.format;
+        }
+      }
+      return null;
+    }
+
+    // Loadable implementation.
+
+    @Override
+    public void cancelLoad() {
+      loadCanceled = true;
+    }
+
+    @Override
+    public void load() throws IOException {
+      try {
+        int result = Extractor.RESULT_CONTINUE;
+        while (result == Extractor.RESULT_CONTINUE && !loadCanceled && !isProbed()) {
+          try {
+            long position = positionHolder.position;
+            long length =
+                dataSource.open(new DataSpec.Builder().setUri(uri).setPosition(position).build());
+            if (length != C.LENGTH_UNSET) {
+              length += position;
+            }
+            extractor.init(
+                dataSource, uri, dataSource.getResponseHeaders(), position, length, this);
+            while (result == Extractor.RESULT_CONTINUE && !loadCanceled && !isProbed()) {
+              result = extractor.read(positionHolder);
+            }
+          } finally {
+            if (result == Extractor.RESULT_SEEK) {
+              result = Extractor.RESULT_CONTINUE;
+            }
+            DataSourceUtil.closeQuietly(dataSource);
+          }
+        }
+      } finally {
+        extractor.release();
+      }
+    }
+
+    // ExtractorOutput implementation.
+
+    @Override
+    public TrackOutput track(int id, @C.TrackType int type) {
+      @Nullable ProbingTrackOutput track = tracks.get(id);
+      if (track == null) {
+        track = new ProbingTrackOutput(type);
+        tracks.put(id, track);
+      }
+      return track;
+    }
+
+    @Override
+    public void endTracks() {
+      tracksEnded = true;
+    }
+
+    @Override
+    public void seekMap(SeekMap seekMap) {
+      this.seekMap = seekMap;
+    }
+
+    // Internal methods.
+
+    private boolean isProbed() {
+      if (!tracksEnded || seekMap == null) {
+        return false;
+      }
+      for (int i = 0; i < tracks.size(); i++) {
+        if (tracks.valueAt(i).format == null) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** A {@link TrackOutput} that records the track format and discards the samples. */
+  private static final class ProbingTrackOutput implements TrackOutput {
+
+    public final @C.TrackType int trackType;
+    private final DummyTrackOutput dummyTrackOutput;
+
+    @Nullable public Format format;
+
+    public ProbingTrackOutput(@C.TrackType int trackType) {
+      this.trackType = trackType;
+      dummyTrackOutput = new DummyTrackOutput();
+    }
+
+    @Override
+    public void format(Format format) {
+      this.format = format;
+    }
+
+    @Override
+    public int sampleData(
+        DataReader input, int length, boolean allowEndOfInput, @SampleDataPart int sampleDataPart)
+        throws IOException {
+      return dummyTrackOutput.sampleData(input, length, allowEndOfInput, sampleDataPart);
+    }
+
+    @Override
+    public void sampleData(ParsableByteArray data, int length, @SampleDataPart int sampleDataPart) {
+      dummyTrackOutput.sampleData(data, length, sampleDataPart);
+    }
+
+    @Override
+    public void sampleMetadata(
+        long timeUs,
+        @C.BufferFlags int flags,
+        int size,
+        int offset,
+        @Nullable CryptoData cryptoData) {
+      // Do nothing.
+    }
+  }
+}
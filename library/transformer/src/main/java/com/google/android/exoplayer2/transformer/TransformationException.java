@@ -26,9 +26,11 @@ import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.PlaybackException;
 import com.google.android.exoplayer2.audio.AudioProcessor;
 import com.google.android.exoplayer2.audio.AudioProcessor.AudioFormat;
+import com.google.android.exoplayer2.upstream.DataSourceException;
 import com.google.android.exoplayer2.util.Clock;
 import com.google.android.exoplayer2.util.Util;
 import com.google.common.collect.ImmutableBiMap;
+import java.io.IOException;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -294,6 +296,28 @@ public final class TransformationException extends Exception {
     return new TransformationException("Muxer error", cause, errorCode);
   }
 
+  /**
+   * Creates an instance for an exception raised while reading the input.
+   *
+   * <p>If the exception is a {@link DataSourceException}, its {@link DataSourceException#reason}
+   * is mapped to the corresponding {@link ErrorCode}. Otherwise, the created instance has error
+   * code {@link #ERROR_CODE_IO_UNSPECIFIED}.
+   *
+   * @param cause The cause of the failure.
+   * @return The created instance.
+   */
+  /* package */ static TransformationException createForIo(IOException cause) {
+    @ErrorCode int errorCode = ERROR_CODE_IO_UNSPECIFIED;
+    if (cause instanceof DataSourceException) {
+      int reason = ((DataSourceException) cause).reason;
+      errorCode = getErrorCodeForName(PlaybackException.getErrorCodeName(reason));
+      if (errorCode == ERROR_CODE_UNSPECIFIED) {
+        errorCode = ERROR_CODE_IO_UNSPECIFIED;
+      }
+    }
+    return new TransformationException("Input error", cause, errorCode);
+  }
+
   /**
    * Creates an instance for an unexpected exception.
    *
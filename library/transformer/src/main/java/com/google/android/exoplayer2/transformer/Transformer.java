@@ -20,6 +20,7 @@ import static com.google.android.exoplayer2.DefaultLoadControl.DEFAULT_BUFFER_FO
 import static com.google.android.exoplayer2.DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS;
 import static com.google.android.exoplayer2.DefaultLoadControl.DEFAULT_MAX_BUFFER_MS;
 import static com.google.android.exoplayer2.DefaultLoadControl.DEFAULT_MIN_BUFFER_MS;
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
 import static com.google.android.exoplayer2.util.Assertions.checkNotNull;
 import static com.google.android.exoplayer2.util.Assertions.checkState;
 import static java.lang.Math.min;
@@ -38,6 +39,7 @@ import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.ExoPlayerLibraryInfo;
+import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.MediaItem;
 import com.google.android.exoplayer2.PlaybackException;
 import com.google.android.exoplayer2.Player;
@@ -110,6 +112,8 @@ public final class Transformer {
     private Clock clock;
     private Codec.EncoderFactory encoderFactory;
     private Codec.DecoderFactory decoderFactory;
+    private boolean remuxingEnabled;
+    private int parallelSegmentCount;
 
     /**
      * @deprecated Use {@link #Builder(Context)} instead.
@@ -126,6 +130,7 @@ public final class Transformer {
       containerMimeType = MimeTypes.VIDEO_MP4;
       transformationRequest = new TransformationRequest.Builder().build();
       videoFrameEffects = ImmutableList.of();
+      parallelSegmentCount = 1;
     }
 
     /**
@@ -145,6 +150,7 @@ public final class Transformer {
       containerMimeType = MimeTypes.VIDEO_MP4;
       transformationRequest = new TransformationRequest.Builder().build();
       videoFrameEffects = ImmutableList.of();
+      parallelSegmentCount = 1;
     }
 
     /** Creates a builder with the values of the provided {@link Transformer}. */
@@ -163,6 +169,8 @@ public final class Transformer {
       this.decoderFactory = transformer.decoderFactory;
       this.debugViewProvider = transformer.debugViewProvider;
       this.clock = transformer.clock;
+      this.remuxingEnabled = transformer.remuxingEnabled;
+      this.parallelSegmentCount = transformer.parallelSegmentCount;
     }
 
     /**
@@ -382,6 +390,58 @@ public final class Transformer {
       return this;
     }
 
+    /**
+     * Sets whether inputs that don't need to be decoded are remuxed without using a player.
+     *
+     * <p>When enabled, progressive inputs for which the transformation only copies the samples to
+     * the output are read by an {@linkplain com.google.android.exoplayer2.extractor.Extractor
+     * extractor} on a background thread, and the samples are written to the muxer as fast as they
+     * can be read. Otherwise, or if a track can't be written to the output as is, the input is
+     * played back to transform it.
+     *
+     * <p>Remuxed inputs are read using a {@link
+     * com.google.android.exoplayer2.upstream.DefaultDataSource} and a {@link
+     * DefaultExtractorsFactory}, so the {@linkplain #setMediaSourceFactory(MediaSource.Factory)
+     * media source factory} is ignored for them.
+     *
+     * <p>This method is experimental, and will be renamed or removed in a future release. The
+     * default value is {@code false}.
+     *
+     * @param remuxingEnabled Whether remuxing without a player is enabled.
+     * @return This builder.
+     */
+    public Builder experimentalSetRemuxingEnabled(boolean remuxingEnabled) {
+      this.remuxingEnabled = remuxingEnabled;
+      return this;
+    }
+
+    /**
+     * Sets the number of segments into which the video of inputs is split to be transcoded in
+     * parallel.
+     *
+     * <p>When set to more than 1, progressive inputs that need transcoding are split at key frames
+     * into at most this number of segments of similar durations. The video of each segment is
+     * transcoded by its own decoder and encoder, concurrently with the other segments and with the
+     * audio, and the encoded segments are then concatenated into the output. The video is always
+     * re-encoded in this mode. Inputs that can't be split, for example because they aren't
+     * seekable, are transformed sequentially.
+     *
+     * <p>Each segment uses a decoder and an encoder instance, so the segment count should not
+     * exceed the number of concurrent codec instances that the device supports.
+     *
+     * <p>This method is experimental, and will be renamed or removed in a future release. The
+     * default value is 1, meaning that inputs aren't split.
+     *
+     * @param parallelSegmentCount The maximum number of segments to transcode in parallel.
+     * @return This builder.
+     * @throws IllegalArgumentException If {@code parallelSegmentCount} is less than 1.
+     */
+    public Builder experimentalSetParallelSegmentCount(int parallelSegmentCount) {
+      checkArgument(parallelSegmentCount >= 1);
+      this.parallelSegmentCount = parallelSegmentCount;
+      return this;
+    }
+
     /**
      * Sets the {@link Clock} that will be used by the transformer.
      *
@@ -400,13 +460,14 @@ public final class Transformer {
     /**
      * Sets the factory for muxers that write the media container.
      *
-     * <p>The default value is a {@link FrameworkMuxer.Factory}.
+     * <p>The default value is a factory for muxers that use the platform {@link
+     * android.media.MediaMuxer}. Use a {@link FragmentedMp4Muxer.Factory} to write fragmented MP4
+     * files incrementally.
      *
      * @param muxerFactory A {@link Muxer.Factory}.
      * @return This builder.
      */
-    @VisibleForTesting
-    /* package */ Builder setMuxerFactory(Muxer.Factory muxerFactory) {
+    public Builder setMuxerFactory(Muxer.Factory muxerFactory) {
       this.muxerFactory = muxerFactory;
       return this;
     }
@@ -454,7 +515,9 @@ public final class Transformer {
           clock,
           encoderFactory,
           decoderFactory,
-          debugViewProvider);
+          debugViewProvider,
+          remuxingEnabled,
+          parallelSegmentCount);
     }
 
     private void checkSampleMimeType(String sampleMimeType) {
@@ -579,9 +642,13 @@ public final class Transformer {
   private final ListenerSet<Transformer.Listener> listeners;
   @VisibleForTesting /* package */ final Codec.DecoderFactory decoderFactory;
   @VisibleForTesting /* package */ final Codec.EncoderFactory encoderFactory;
+  private final boolean remuxingEnabled;
+  private final int parallelSegmentCount;
 
   @Nullable private MuxerWrapper muxerWrapper;
   @Nullable private ExoPlayer player;
+  @Nullable private Remuxer remuxer;
+  @Nullable private SegmentedTranscoder segmentedTranscoder;
   private @ProgressState int progressState;
   private boolean isCancelling;
 
@@ -599,7 +666,9 @@ public final class Transformer {
       Clock clock,
       Codec.EncoderFactory encoderFactory,
       Codec.DecoderFactory decoderFactory,
-      Transformer.DebugViewProvider debugViewProvider) {
+      Transformer.DebugViewProvider debugViewProvider,
+      boolean remuxingEnabled,
+      int parallelSegmentCount) {
     checkState(!removeAudio || !removeVideo, "Audio and video cannot both be removed.");
     this.context = context;
     this.mediaSourceFactory = mediaSourceFactory;
@@ -615,6 +684,8 @@ public final class Transformer {
     this.encoderFactory = encoderFactory;
     this.decoderFactory = decoderFactory;
     this.debugViewProvider = debugViewProvider;
+    this.remuxingEnabled = remuxingEnabled;
+    this.parallelSegmentCount = parallelSegmentCount;
     progressState = PROGRESS_STATE_NO_TRANSFORMATION;
   }
 
@@ -725,11 +796,113 @@ public final class Transformer {
 
   private void startTransformation(MediaItem mediaItem, Muxer muxer) {
     verifyApplicationThread();
-    if (player != null) {
+    if (player != null || remuxer != null || segmentedTranscoder != null) {
       throw new IllegalStateException("There is already a transformation in progress.");
     }
     MuxerWrapper muxerWrapper = new MuxerWrapper(muxer, muxerFactory, containerMimeType);
     this.muxerWrapper = muxerWrapper;
+    TransformerPlayerListener playerListener =
+        new TransformerPlayerListener(mediaItem, muxerWrapper, looper);
+    if (canRemux(mediaItem)) {
+      remuxer =
+          new Remuxer(
+              context,
+              ImmutableList.of(new Remuxer.Input(checkNotNull(mediaItem.localConfiguration).uri)),
+              muxerWrapper,
+              removeAudio,
+              removeVideo,
+              playerListener);
+      remuxer.start();
+    } else if (canTranscodeSegmentsInParallel(mediaItem)) {
+      segmentedTranscoder =
+          new SegmentedTranscoder(
+              context,
+              mediaItem,
+              parallelSegmentCount,
+              muxerWrapper,
+              removeAudio,
+              transformationRequest,
+              this::createTrackTransformer,
+              playerListener);
+      segmentedTranscoder.start();
+    } else {
+      startPlayer(mediaItem, muxerWrapper, playerListener);
+    }
+    progressState = PROGRESS_STATE_WAITING_FOR_AVAILABILITY;
+  }
+
+  /**
+   * Returns whether the samples of the given {@link MediaItem} can be copied to the output without
+   * playing it back. Whether the muxer supports them is only known once the input is read.
+   */
+  private boolean canRemux(MediaItem mediaItem) {
+    if (!remuxingEnabled) {
+      return false;
+    }
+    @Nullable MediaItem.LocalConfiguration localConfiguration = mediaItem.localConfiguration;
+    if (localConfiguration == null
+        || Util.inferContentTypeForUriAndMimeType(
+                localConfiguration.uri, localConfiguration.mimeType)
+            != C.CONTENT_TYPE_OTHER) {
+      return false;
+    }
+    if (!mediaItem.clippingConfiguration.equals(MediaItem.ClippingConfiguration.UNSET)) {
+      return false;
+    }
+    if (!transformationRequest.equals(new TransformationRequest.Builder().build())) {
+      return false;
+    }
+    return videoFrameEffects.isEmpty()
+        && !encoderFactory.audioNeedsEncoding()
+        && !encoderFactory.videoNeedsEncoding();
+  }
+
+  /**
+   * Returns whether the given {@link MediaItem} can be split into segments that are transcoded in
+   * parallel. Whether it has enough key frames is only known once the input is read.
+   */
+  private boolean canTranscodeSegmentsInParallel(MediaItem mediaItem) {
+    if (parallelSegmentCount <= 1 || removeVideo || transformationRequest.flattenForSlowMotion) {
+      return false;
+    }
+    @Nullable MediaItem.LocalConfiguration localConfiguration = mediaItem.localConfiguration;
+    return localConfiguration != null
+        && Util.inferContentTypeForUriAndMimeType(
+                localConfiguration.uri, localConfiguration.mimeType)
+            == C.CONTENT_TYPE_OTHER
+        && mediaItem.clippingConfiguration.equals(MediaItem.ClippingConfiguration.UNSET);
+  }
+
+  /**
+   * Returns a {@link Transformer} with the configuration of this instance that only outputs the
+   * track of the given type, for {@link SegmentedTranscoder}.
+   */
+  private Transformer createTrackTransformer(
+      @C.TrackType int trackType, Muxer.Factory muxerFactory) {
+    boolean isVideo = trackType == C.TRACK_TYPE_VIDEO;
+    return new Transformer(
+        context,
+        mediaSourceFactory,
+        muxerFactory,
+        /* removeAudio= */ isVideo,
+        /* removeVideo= */ !isVideo,
+        MimeTypes.VIDEO_MP4,
+        transformationRequest,
+        videoFrameEffects,
+        new ListenerSet<>(looper, clock, (listener, flags) -> {}),
+        looper,
+        clock,
+        isVideo ? new VideoEncodingEncoderFactory(encoderFactory) : encoderFactory,
+        decoderFactory,
+        DebugViewProvider.NONE,
+        /* remuxingEnabled= */ false,
+        /* parallelSegmentCount= */ 1);
+  }
+
+  private void startPlayer(
+      MediaItem mediaItem,
+      MuxerWrapper muxerWrapper,
+      TransformerPlayerListener playerListener) {
     DefaultTrackSelector trackSelector = new DefaultTrackSelector(context);
     trackSelector.setParameters(
         new DefaultTrackSelector.ParametersBuilder(context)
@@ -745,8 +918,6 @@ public final class Transformer {
                 DEFAULT_BUFFER_FOR_PLAYBACK_MS / 10,
                 DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS / 10)
             .build();
-    TransformerPlayerListener playerListener =
-        new TransformerPlayerListener(mediaItem, muxerWrapper, looper);
     ExoPlayer.Builder playerBuilder =
         new ExoPlayer.Builder(
                 context,
@@ -778,8 +949,6 @@ public final class Transformer {
     player.setMediaItem(mediaItem);
     player.addListener(playerListener);
     player.prepare();
-
-    progressState = PROGRESS_STATE_WAITING_FOR_AVAILABILITY;
   }
 
   /**
@@ -805,6 +974,12 @@ public final class Transformer {
    */
   public @ProgressState int getProgress(ProgressHolder progressHolder) {
     verifyApplicationThread();
+    if (remuxer != null) {
+      return remuxer.getProgress(progressHolder);
+    }
+    if (segmentedTranscoder != null) {
+      return segmentedTranscoder.getProgress(progressHolder);
+    }
     if (progressState == PROGRESS_STATE_AVAILABLE) {
       Player player = checkNotNull(this.player);
       long durationMs = player.getDuration();
@@ -845,6 +1020,14 @@ public final class Transformer {
       player.release();
       player = null;
     }
+    if (remuxer != null) {
+      remuxer.release();
+      remuxer = null;
+    }
+    if (segmentedTranscoder != null) {
+      segmentedTranscoder.release();
+      segmentedTranscoder = null;
+    }
     if (muxerWrapper != null) {
       try {
         muxerWrapper.release(forCancellation);
@@ -947,8 +1130,43 @@ public final class Transformer {
     }
   }
 
+  /** An {@link Codec.EncoderFactory} that forces the video to be encoded. */
+  private static final class VideoEncodingEncoderFactory implements Codec.EncoderFactory {
+
+    private final Codec.EncoderFactory encoderFactory;
+
+    public VideoEncodingEncoderFactory(Codec.EncoderFactory encoderFactory) {
+      this.encoderFactory = encoderFactory;
+    }
+
+    @Override
+    public Codec createForAudioEncoding(Format format, List<String> allowedMimeTypes)
+        throws TransformationException {
+      return encoderFactory.createForAudioEncoding(format, allowedMimeTypes);
+    }
+
+    @Override
+    public Codec createForVideoEncoding(Format format, List<String> allowedMimeTypes)
+        throws TransformationException {
+      return encoderFactory.createForVideoEncoding(format, allowedMimeTypes);
+    }
+
+    @Override
+    public boolean audioNeedsEncoding() {
+      return encoderFactory.audioNeedsEncoding();
+    }
+
+    @Override
+    public boolean videoNeedsEncoding() {
+      return true;
+    }
+  }
+
   private final class TransformerPlayerListener
-      implements Player.Listener, FrameProcessorChain.Listener {
+      implements Player.Listener,
+          FrameProcessorChain.Listener,
+          Remuxer.Listener,
+          SegmentedTranscoder.Listener {
 
     private final MediaItem mediaItem;
     private final MuxerWrapper muxerWrapper;
@@ -1054,6 +1272,42 @@ public final class Transformer {
       listeners.flushEvents();
     }
 
+    @Override
+    public void onRemuxingEnded() {
+      handleTransformationEnded(/* exception= */ null);
+    }
+
+    @Override
+    public void onRemuxingUnsupported() {
+      // Nothing has been written to the muxer, so the input can be played back instead.
+      checkNotNull(remuxer).release();
+      remuxer = null;
+      startPlayer(mediaItem, muxerWrapper, /* playerListener= */ this);
+    }
+
+    @Override
+    public void onRemuxingError(TransformationException exception) {
+      handleTransformationEnded(exception);
+    }
+
+    @Override
+    public void onSegmentedTranscodingEnded() {
+      handleTransformationEnded(/* exception= */ null);
+    }
+
+    @Override
+    public void onSegmentingUnsupported() {
+      // Nothing has been written to the muxer, so the input can be played back instead.
+      checkNotNull(segmentedTranscoder).release();
+      segmentedTranscoder = null;
+      startPlayer(mediaItem, muxerWrapper, /* playerListener= */ this);
+    }
+
+    @Override
+    public void onSegmentedTranscodingError(TransformationException exception) {
+      handleTransformationEnded(exception);
+    }
+
     @Override
     public void onFrameProcessingError(FrameProcessingException exception) {
       handler.post(
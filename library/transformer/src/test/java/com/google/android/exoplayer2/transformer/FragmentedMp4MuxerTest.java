@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.transformer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.extractor.mp4.FragmentedMp4Extractor;
+import com.google.android.exoplayer2.extractor.mp4.Mp4Extractor;
+import com.google.android.exoplayer2.testutil.FakeExtractorOutput;
+import com.google.android.exoplayer2.testutil.FakeTrackOutput;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.Util;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link FragmentedMp4Muxer}. */
+@RunWith(AndroidJUnit4.class)
+public final class FragmentedMp4MuxerTest {
+
+  private static final String MP4_ASSET = "media/mp4/sample.mp4";
+  private static final int VIDEO_TRACK_ID = 0;
+  private static final int AUDIO_TRACK_ID = 1;
+
+  private Context context;
+  private String outputPath;
+  private FakeExtractorOutput input;
+
+  @Before
+  public void setUp() throws Exception {
+    context = ApplicationProvider.getApplicationContext();
+    outputPath = Util.createTempFile(context, "FragmentedMp4MuxerTest").getPath();
+    input = TestUtil.extractAllSamplesFromFile(new Mp4Extractor(), context, MP4_ASSET);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Files.delete(Paths.get(outputPath));
+  }
+
+  @Test
+  public void factory_supportsH264AndAacInMp4() {
+    FragmentedMp4Muxer.Factory factory = new FragmentedMp4Muxer.Factory();
+
+    assertThat(factory.supportsOutputMimeType(MimeTypes.VIDEO_MP4)).isTrue();
+    assertThat(factory.supportsOutputMimeType(MimeTypes.VIDEO_WEBM)).isFalse();
+    assertThat(factory.supportsSampleMimeType(MimeTypes.VIDEO_H264, MimeTypes.VIDEO_MP4)).isTrue();
+    assertThat(factory.supportsSampleMimeType(MimeTypes.AUDIO_AAC, MimeTypes.VIDEO_MP4)).isTrue();
+    assertThat(factory.supportsSampleMimeType(MimeTypes.VIDEO_H265, MimeTypes.VIDEO_MP4))
+        .isFalse();
+    assertThat(factory.supportsSampleMimeType(MimeTypes.AUDIO_AC3, MimeTypes.VIDEO_MP4)).isFalse();
+  }
+
+  @Test
+  public void writeSamples_outputRoundTripsThroughFragmentedMp4Extractor() throws Exception {
+    FakeTrackOutput inputVideo = input.trackOutputs.get(VIDEO_TRACK_ID);
+    FakeTrackOutput inputAudio = input.trackOutputs.get(AUDIO_TRACK_ID);
+    Muxer muxer =
+        new FragmentedMp4Muxer.Factory(/* fragmentDurationMs= */ 200)
+            .create(outputPath, MimeTypes.VIDEO_MP4);
+    int videoTrackIndex = muxer.addTrack(inputVideo.lastFormat);
+    int audioTrackIndex = muxer.addTrack(inputAudio.lastFormat);
+
+    int audioSampleIndex = 0;
+    for (int i = 0; i < inputVideo.getSampleCount(); i++) {
+      long videoTimeUs = inputVideo.getSampleTimeUs(i);
+      while (audioSampleIndex < inputAudio.getSampleCount()
+          && inputAudio.getSampleTimeUs(audioSampleIndex) <= videoTimeUs) {
+        writeSample(muxer, audioTrackIndex, inputAudio, audioSampleIndex++);
+      }
+      writeSample(muxer, videoTrackIndex, inputVideo, i);
+    }
+    while (audioSampleIndex < inputAudio.getSampleCount()) {
+      writeSample(muxer, audioTrackIndex, inputAudio, audioSampleIndex++);
+    }
+    muxer.release(/* forCancellation= */ false);
+
+    FakeExtractorOutput output =
+        TestUtil.extractAllSamplesFromByteArray(
+            new FragmentedMp4Extractor(), Files.readAllBytes(Paths.get(outputPath)));
+    assertThat(output.numberOfTracks).isEqualTo(2);
+    Format outputVideoFormat = output.trackOutputs.get(VIDEO_TRACK_ID).lastFormat;
+    assertThat(outputVideoFormat.sampleMimeType).isEqualTo(MimeTypes.VIDEO_H264);
+    assertThat(outputVideoFormat.width).isEqualTo(inputVideo.lastFormat.width);
+    assertThat(outputVideoFormat.height).isEqualTo(inputVideo.lastFormat.height);
+    assertThat(outputVideoFormat.initializationData)
+        .containsExactlyElementsIn(inputVideo.lastFormat.initializationData)
+        .inOrder();
+    Format outputAudioFormat = output.trackOutputs.get(AUDIO_TRACK_ID).lastFormat;
+    assertThat(outputAudioFormat.sampleMimeType).isEqualTo(MimeTypes.AUDIO_AAC);
+    assertThat(outputAudioFormat.channelCount).isEqualTo(inputAudio.lastFormat.channelCount);
+    assertThat(outputAudioFormat.sampleRate).isEqualTo(inputAudio.lastFormat.sampleRate);
+    assertThat(outputAudioFormat.initializationData)
+        .containsExactlyElementsIn(inputAudio.lastFormat.initializationData)
+        .inOrder();
+    assertSamplesEqual(
+        output.trackOutputs.get(VIDEO_TRACK_ID), inputVideo, inputVideo.getSampleCount());
+    assertSamplesEqual(
+        output.trackOutputs.get(AUDIO_TRACK_ID), inputAudio, inputAudio.getSampleCount());
+  }
+
+  @Test
+  public void release_forCancellation_keepsCompletedFragments() throws Exception {
+    FakeTrackOutput inputAudio = input.trackOutputs.get(AUDIO_TRACK_ID);
+    Muxer muxer =
+        new FragmentedMp4Muxer.Factory(/* fragmentDurationMs= */ 200)
+            .create(outputPath, MimeTypes.VIDEO_MP4);
+    int audioTrackIndex = muxer.addTrack(inputAudio.lastFormat);
+
+    for (int i = 0; i < inputAudio.getSampleCount(); i++) {
+      writeSample(muxer, audioTrackIndex, inputAudio, i);
+    }
+    muxer.release(/* forCancellation= */ true);
+
+    FakeExtractorOutput output =
+        TestUtil.extractAllSamplesFromByteArray(
+            new FragmentedMp4Extractor(), Files.readAllBytes(Paths.get(outputPath)));
+    FakeTrackOutput outputAudio = output.trackOutputs.get(0);
+    assertThat(outputAudio.getSampleCount()).isGreaterThan(0);
+    assertThat(outputAudio.getSampleCount()).isLessThan(inputAudio.getSampleCount());
+    assertSamplesEqual(outputAudio, inputAudio, outputAudio.getSampleCount());
+  }
+
+  private static void writeSample(
+      Muxer muxer, int trackIndex, FakeTrackOutput trackOutput, int sampleIndex)
+      throws Muxer.MuxerException {
+    muxer.writeSampleData(
+        trackIndex,
+        ByteBuffer.wrap(trackOutput.getSampleData(sampleIndex)),
+        /* isKeyFrame= */ (trackOutput.getSampleFlags(sampleIndex) & C.BUFFER_FLAG_KEY_FRAME) != 0,
+        trackOutput.getSampleTimeUs(sampleIndex));
+  }
+
+  private static void assertSamplesEqual(
+      FakeTrackOutput actual, FakeTrackOutput expected, int sampleCount) {
+    assertThat(actual.getSampleCount()).isEqualTo(sampleCount);
+    for (int i = 0; i < sampleCount; i++) {
+      assertThat(actual.getSampleTimeUs(i)).isEqualTo(expected.getSampleTimeUs(i));
+      assertThat(actual.getSampleFlags(i)).isEqualTo(expected.getSampleFlags(i));
+      assertThat(actual.getSampleData(i)).isEqualTo(expected.getSampleData(i));
+    }
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.transformer;
+
+import static com.google.android.exoplayer2.robolectric.RobolectricUtil.runMainLooperUntil;
+import static com.google.common.truth.Truth.assertThat;
+import static java.lang.Math.max;
+
+import android.content.Context;
+import android.os.ParcelFileDescriptor;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link SegmentedTranscoder}. */
+@RunWith(AndroidJUnit4.class)
+public final class SegmentedTranscoderTest {
+
+  private static final String FILE_AUDIO_VIDEO_15S =
+      "asset:///media/mp4/sample_with_increasing_timestamps_320w_240h.mp4";
+
+  private Context context;
+  private FakeClock clock;
+  private RecordingMuxer outputMuxer;
+  private MuxerWrapper muxerWrapper;
+  private TestListener listener;
+
+  @Before
+  public void setUp() {
+    context = ApplicationProvider.getApplicationContext();
+    clock = new FakeClock(/* isAutoAdvancing= */ true);
+    outputMuxer = new RecordingMuxer();
+    muxerWrapper = new MuxerWrapper(outputMuxer, new FrameworkMuxer.Factory(), MimeTypes.VIDEO_MP4);
+    listener = new TestListener();
+  }
+
+  @Test
+  public void start_withSegmentsOfSameCodecConfiguration_concatenatesSegments() throws Exception {
+    SegmentedTranscoder segmentedTranscoder =
+        createSegmentedTranscoder(/* modifySecondSegmentCodecConfiguration= */ false);
+
+    segmentedTranscoder.start();
+    runMainLooperUntil(listener::hasFinished);
+    segmentedTranscoder.release();
+
+    assertThat(listener.error).isNull();
+    assertThat(listener.isUnsupported).isFalse();
+    assertThat(listener.isEnded).isTrue();
+    assertThat(outputMuxer.videoFormatCount).isEqualTo(1);
+    // The samples of the second segment follow those of the first segment.
+    assertThat(outputMuxer.largestVideoTimeUs).isGreaterThan(10_000_000);
+  }
+
+  @Test
+  public void start_withSegmentsOfDifferentCodecConfigurations_reportsUnsupported()
+      throws Exception {
+    SegmentedTranscoder segmentedTranscoder =
+        createSegmentedTranscoder(/* modifySecondSegmentCodecConfiguration= */ true);
+
+    segmentedTranscoder.start();
+    runMainLooperUntil(listener::hasFinished);
+    segmentedTranscoder.release();
+
+    assertThat(listener.error).isNull();
+    assertThat(listener.isUnsupported).isTrue();
+    assertThat(outputMuxer.videoFormatCount).isEqualTo(0);
+    assertThat(outputMuxer.sampleCount).isEqualTo(0);
+  }
+
+  private SegmentedTranscoder createSegmentedTranscoder(
+      boolean modifySecondSegmentCodecConfiguration) {
+    AtomicInteger videoTransformerCount = new AtomicInteger();
+    SegmentedTranscoder.TransformerFactory transformerFactory =
+        (trackType, muxerFactory) -> {
+          boolean isVideo = trackType == C.TRACK_TYPE_VIDEO;
+          Muxer.Factory segmentMuxerFactory = muxerFactory;
+          if (isVideo
+              && videoTransformerCount.incrementAndGet() == 2
+              && modifySecondSegmentCodecConfiguration) {
+            segmentMuxerFactory = new CodecConfigurationModifyingMuxerFactory(muxerFactory);
+          }
+          // The video is passed through rather than encoded, which is enough to concatenate the
+          // segments.
+          return new Transformer.Builder(context)
+              .setClock(clock)
+              .setMuxerFactory(segmentMuxerFactory)
+              .setRemoveAudio(isVideo)
+              .setRemoveVideo(!isVideo)
+              .build();
+        };
+    return new SegmentedTranscoder(
+        context,
+        MediaItem.fromUri(FILE_AUDIO_VIDEO_15S),
+        /* segmentCount= */ 2,
+        muxerWrapper,
+        /* removeAudio= */ false,
+        new TransformationRequest.Builder().build(),
+        transformerFactory,
+        listener);
+  }
+
+  private static final class TestListener implements SegmentedTranscoder.Listener {
+
+    public boolean isEnded;
+    public boolean isUnsupported;
+    @Nullable public TransformationException error;
+
+    public boolean hasFinished() {
+      return isEnded || isUnsupported || error != null;
+    }
+
+    @Override
+    public void onSegmentedTranscodingEnded() {
+      isEnded = true;
+    }
+
+    @Override
+    public void onSegmentingUnsupported() {
+      isUnsupported = true;
+    }
+
+    @Override
+    public void onSegmentedTranscodingError(TransformationException exception) {
+      error = exception;
+    }
+  }
+
+  /** A {@link Muxer} that records the tracks and samples written to it. */
+  private static final class RecordingMuxer implements Muxer {
+
+    private final List<Format> formats;
+
+    public int videoFormatCount;
+    public int sampleCount;
+    public long largestVideoTimeUs;
+
+    public RecordingMuxer() {
+      formats = new ArrayList<>();
+      largestVideoTimeUs = C.TIME_UNSET;
+    }
+
+    @Override
+    public int addTrack(Format format) {
+      if (MimeTypes.isVideo(format.sampleMimeType)) {
+        videoFormatCount++;
+      }
+      formats.add(format);
+      return formats.size() - 1;
+    }
+
+    @Override
+    public void writeSampleData(
+        int trackIndex, ByteBuffer data, boolean isKeyFrame, long presentationTimeUs) {
+      sampleCount++;
+      if (MimeTypes.isVideo(formats.get(trackIndex).sampleMimeType)) {
+        largestVideoTimeUs = max(largestVideoTimeUs, presentationTimeUs);
+      }
+    }
+
+    @Override
+    public void release(boolean forCancellation) {}
+  }
+
+  /**
+   * A {@link Muxer.Factory} whose muxers add a duplicate of the last initialization data entry to
+   * the video format, as if the encoder had output a different codec configuration.
+   */
+  private static final class CodecConfigurationModifyingMuxerFactory implements Muxer.Factory {
+
+    private final Muxer.Factory muxerFactory;
+
+    public CodecConfigurationModifyingMuxerFactory(Muxer.Factory muxerFactory) {
+      this.muxerFactory = muxerFactory;
+    }
+
+    @Override
+    public Muxer create(String path, String outputMimeType) throws IOException {
+      return new CodecConfigurationModifyingMuxer(muxerFactory.create(path, outputMimeType));
+    }
+
+    @Override
+    public Muxer create(ParcelFileDescriptor parcelFileDescriptor, String outputMimeType)
+        throws IOException {
+      return new CodecConfigurationModifyingMuxer(
+          muxerFactory.create(parcelFileDescriptor, outputMimeType));
+    }
+
+    @Override
+    public boolean supportsOutputMimeType(String mimeType) {
+      return muxerFactory.supportsOutputMimeType(mimeType);
+    }
+
+    @Override
+    public boolean supportsSampleMimeType(
+        @Nullable String sampleMimeType, String containerMimeType) {
+      return muxerFactory.supportsSampleMimeType(sampleMimeType, containerMimeType);
+    }
+
+    @Override
+    public ImmutableList<String> getSupportedSampleMimeTypes(
+        @C.TrackType int trackType, String containerMimeType) {
+      return muxerFactory.getSupportedSampleMimeTypes(trackType, containerMimeType);
+    }
+  }
+
+  private static final class CodecConfigurationModifyingMuxer implements Muxer {
+
+    private final Muxer muxer;
+
+    public CodecConfigurationModifyingMuxer(Muxer muxer) {
+      this.muxer = muxer;
+    }
+
+    @Override
+    public int addTrack(Format format) throws MuxerException {
+      if (MimeTypes.isVideo(format.sampleMimeType)) {
+        List<byte[]> initializationData = new ArrayList<>(format.initializationData);
+        initializationData.add(initializationData.get(initializationData.size() - 1));
+        format = format.buildUpon().setInitializationData(initializationData).build();
+      }
+      return muxer.addTrack(format);
+    }
+
+    @Override
+    public void writeSampleData(
+        int trackIndex, ByteBuffer data, boolean isKeyFrame, long presentationTimeUs)
+        throws MuxerException {
+      muxer.writeSampleData(trackIndex, data, isKeyFrame, presentationTimeUs);
+    }
+
+    @Override
+    public void release(boolean forCancellation) throws MuxerException {
+      muxer.release(forCancellation);
+    }
+  }
+}
@@ -478,6 +478,70 @@ public final class TransformerEndToEndTest {
         .onFallbackApplied(mediaItem, originalTransformationRequest, fallbackTransformationRequest);
   }
 
+  @Test
+  public void startTransformation_withRemuxing_completesWithSameResultAsPlayback()
+      throws Exception {
+    MediaItem mediaItem = MediaItem.fromUri(ASSET_URI_PREFIX + FILE_AUDIO_VIDEO);
+    Transformer transformer = createTransformerBuilder(/* enableFallback= */ false).build();
+    AtomicReference<@NullableType TransformationResult> transformationResult =
+        new AtomicReference<>();
+    Transformer.Listener listener =
+        new Transformer.Listener() {
+          @Override
+          public void onTransformationCompleted(
+              MediaItem inputMediaItem, TransformationResult result) {
+            transformationResult.set(result);
+          }
+        };
+    transformer.addListener(listener);
+    transformer.startTransformation(mediaItem, outputPath);
+    TransformerTestRunner.runUntilCompleted(transformer);
+    TransformationResult playbackResult = transformationResult.get();
+    Files.delete(Paths.get(outputPath));
+
+    Transformer remuxingTransformer =
+        createTransformerBuilder(/* enableFallback= */ false)
+            .experimentalSetRemuxingEnabled(true)
+            .addListener(listener)
+            .build();
+    remuxingTransformer.startTransformation(mediaItem, outputPath);
+    TransformerTestRunner.runUntilCompleted(remuxingTransformer);
+
+    assertThat(transformationResult.get()).isEqualTo(playbackResult);
+  }
+
+  @Test
+  public void startTransformation_withRemuxingAndAudioMuxerFormatUnsupported_fallsBackToPlayback()
+      throws Exception {
+    Transformer transformer =
+        createTransformerBuilder(/* enableFallback= */ true)
+            .experimentalSetRemuxingEnabled(true)
+            .build();
+    MediaItem mediaItem = MediaItem.fromUri(ASSET_URI_PREFIX + FILE_AUDIO_UNSUPPORTED_BY_MUXER);
+
+    transformer.startTransformation(mediaItem, outputPath);
+    TransformerTestRunner.runUntilCompleted(transformer);
+
+    DumpFileAsserts.assertOutput(
+        context, testMuxer, getDumpFileName(FILE_AUDIO_UNSUPPORTED_BY_MUXER + ".fallback"));
+  }
+
+  @Test
+  public void startTransformation_withParallelSegmentsAndNoVideo_fallsBackToPlayback()
+      throws Exception {
+    Transformer transformer =
+        createTransformerBuilder(/* enableFallback= */ false)
+            .experimentalSetParallelSegmentCount(2)
+            .build();
+    MediaItem mediaItem = MediaItem.fromUri(ASSET_URI_PREFIX + FILE_AUDIO_UNSUPPORTED_BY_ENCODER);
+
+    transformer.startTransformation(mediaItem, outputPath);
+    TransformerTestRunner.runUntilCompleted(transformer);
+
+    DumpFileAsserts.assertOutput(
+        context, testMuxer, getDumpFileName(FILE_AUDIO_UNSUPPORTED_BY_ENCODER));
+  }
+
   @Test
   public void startTransformation_afterCancellation_completesSuccessfully() throws Exception {
     Transformer transformer = createTransformerBuilder(/* enableFallback= */ false).build();
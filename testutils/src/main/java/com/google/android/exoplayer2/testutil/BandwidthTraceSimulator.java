@@ -0,0 +1,605 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.testutil;
+
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
+import static com.google.android.exoplayer2.util.Assertions.checkNotNull;
+import static java.lang.Math.min;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.source.MediaSource.MediaPeriodId;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
+import com.google.android.exoplayer2.trackselection.ExoTrackSelection;
+import com.google.android.exoplayer2.upstream.BandwidthStatistic;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.upstream.TimeToFirstByteEstimator;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.Util;
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Replays traces of network transfers against a {@link DefaultBandwidthMeter} and an {@link
+ * ExoTrackSelection}, so that bandwidth statistics and adaptive track selections can be compared
+ * deterministically.
+ *
+ * <p>The simulation loads a single adaptive stream made of segments of equal duration. Segments
+ * are loaded one at a time, as soon as the buffer has room for them. Each segment is loaded in the
+ * format selected by the track selection, with a size derived from the format's bitrate. The time
+ * to load a segment is derived from the trace, which is treated as a looping sequence of network
+ * conditions: each entry lasts for its transfer duration, during which data is transferred at the
+ * entry's throughput and requests wait for the entry's time to first byte. Time is simulated, so
+ * long traces can be replayed quickly.
+ */
+public final class BandwidthTraceSimulator {
+
+  /** A network transfer in a trace. */
+  public static final class TraceEntry {
+
+    /** The time between the initialization and the start of the transfer, in milliseconds. */
+    public final long timeToFirstByteMs;
+    /** The time between the start and the end of the transfer, in milliseconds. */
+    public final long durationMs;
+    /** The number of bytes transferred. */
+    public final long bytes;
+
+    /**
+     * Creates an instance.
+     *
+     * @param timeToFirstByteMs The time between the initialization and the start of the transfer,
+     *     in milliseconds.
+     * @param durationMs The time between the start and the end of the transfer, in milliseconds.
+     * @param bytes The number of bytes transferred.
+     */
+    public TraceEntry(long timeToFirstByteMs, long durationMs, long bytes) {
+      this.timeToFirstByteMs = timeToFirstByteMs;
+      this.durationMs = durationMs;
+      this.bytes = bytes;
+    }
+  }
+
+  /** A {@link TransferListener} that records a trace of the network transfers reported to it. */
+  public static final class TraceRecorder implements TransferListener {
+
+    private final Clock clock;
+    private final IdentityHashMap<DataSource, Transfer> transfers;
+    private final List<TraceEntry> trace;
+
+    /** Creates an instance. */
+    public TraceRecorder() {
+      this(Clock.DEFAULT);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param clock The {@link Clock} used to time transfers.
+     */
+    public TraceRecorder(Clock clock) {
+      this.clock = clock;
+      transfers = new IdentityHashMap<>();
+      trace = new ArrayList<>();
+    }
+
+    /** Returns the trace of the network transfers that have ended so far. */
+    public synchronized List<TraceEntry> getTrace() {
+      return ImmutableList.copyOf(trace);
+    }
+
+    @Override
+    public synchronized void onTransferInitializing(
+        DataSource source, DataSpec dataSpec, boolean isNetwork) {
+      if (isNetwork) {
+        transfers.put(source, new Transfer(clock.elapsedRealtime()));
+      }
+    }
+
+    @Override
+    public synchronized void onTransferStart(
+        DataSource source, DataSpec dataSpec, boolean isNetwork) {
+      if (!isNetwork) {
+        return;
+      }
+      long nowMs = clock.elapsedRealtime();
+      @Nullable Transfer transfer = transfers.get(source);
+      if (transfer == null) {
+        transfer = new Transfer(nowMs);
+        transfers.put(source, transfer);
+      }
+      transfer.startTimeMs = nowMs;
+    }
+
+    @Override
+    public synchronized void onBytesTransferred(
+        DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+      @Nullable Transfer transfer = isNetwork ? transfers.get(source) : null;
+      if (transfer != null) {
+        transfer.bytes += bytesTransferred;
+      }
+    }
+
+    @Override
+    public synchronized void onTransferEnd(
+        DataSource source, DataSpec dataSpec, boolean isNetwork) {
+      @Nullable Transfer transfer = isNetwork ? transfers.remove(source) : null;
+      if (transfer == null || transfer.startTimeMs == C.TIME_UNSET) {
+        return;
+      }
+      trace.add(
+          new TraceEntry(
+              transfer.startTimeMs - transfer.initializationTimeMs,
+              clock.elapsedRealtime() - transfer.startTimeMs,
+              transfer.bytes));
+    }
+
+    private static final class Transfer {
+
+      public final long initializationTimeMs;
+
+      public long startTimeMs;
+      public long bytes;
+
+      public Transfer(long initializationTimeMs) {
+        this.initializationTimeMs = initializationTimeMs;
+        startTimeMs = C.TIME_UNSET;
+      }
+    }
+  }
+
+  /** Provides the {@link ExoTrackSelection.Factory} used by a simulation. */
+  public interface TrackSelectionFactoryProvider {
+
+    /**
+     * Returns the {@link ExoTrackSelection.Factory} used by a simulation.
+     *
+     * @param clock The {@link Clock} of the simulation, which should be used by track selections
+     *     that depend on time.
+     */
+    ExoTrackSelection.Factory createTrackSelectionFactory(Clock clock);
+  }
+
+  /** The result of a simulation. */
+  public static final class Result {
+
+    /** The bitrates of the formats selected for each segment, in bits per second. */
+    public final ImmutableList<Integer> selectedBitrates;
+    /** The average bitrate of the loaded media, weighted by duration, in bits per second. */
+    public final long averageBitrate;
+    /** The number of times the selected format changed between consecutive segments. */
+    public final int switchCount;
+    /** The time between the start of the simulation and the start of playback. */
+    public final long startupDelayMs;
+    /** The number of times playback stalled after it started. */
+    public final int rebufferCount;
+    /** The total duration of the stalls after playback started. */
+    public final long rebufferDurationMs;
+
+    private Result(
+        ImmutableList<Integer> selectedBitrates,
+        long averageBitrate,
+        int switchCount,
+        long startupDelayMs,
+        int rebufferCount,
+        long rebufferDurationMs) {
+      this.selectedBitrates = selectedBitrates;
+      this.averageBitrate = averageBitrate;
+      this.switchCount = switchCount;
+      this.startupDelayMs = startupDelayMs;
+      this.rebufferCount = rebufferCount;
+      this.rebufferDurationMs = rebufferDurationMs;
+    }
+
+    @Override
+    public String toString() {
+      return "Result[averageBitrate="
+          + averageBitrate
+          + ", switches="
+          + switchCount
+          + ", startupDelayMs="
+          + startupDelayMs
+          + ", rebuffers="
+          + rebufferCount
+          + ", rebufferDurationMs="
+          + rebufferDurationMs
+          + "]";
+    }
+  }
+
+  /**
+   * Parses a trace of network transfers.
+   *
+   * <p>Each line of the trace describes a transfer as {@code <timeToFirstByteMs> <durationMs>
+   * <bytes>}, separated by whitespace. Empty lines and lines starting with {@code #} are ignored.
+   *
+   * @param reader A reader for the trace.
+   * @return The transfers in the trace.
+   * @throws IOException If an error occurs reading the trace, or if it's malformed.
+   */
+  public static List<TraceEntry> parseTrace(Reader reader) throws IOException {
+    List<TraceEntry> trace = new ArrayList<>();
+    BufferedReader bufferedReader = new BufferedReader(reader);
+    @Nullable String line;
+    while ((line = bufferedReader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split("\\s+");
+      if (fields.length != 3) {
+        throw new IOException("Malformed trace line: " + line);
+      }
+      try {
+        trace.add(
+            new TraceEntry(
+                Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed trace line: " + line, e);
+      }
+    }
+    return trace;
+  }
+
+  /**
+   * Writes a trace of network transfers in the format read by {@link #parseTrace(Reader)}.
+   *
+   * @param trace The transfers to write.
+   * @param writer The writer to write the trace to.
+   * @throws IOException If an error occurs writing the trace.
+   */
+  public static void writeTrace(List<TraceEntry> trace, Writer writer) throws IOException {
+    for (int i = 0; i < trace.size(); i++) {
+      TraceEntry entry = trace.get(i);
+      writer.write(entry.timeToFirstByteMs + " " + entry.durationMs + " " + entry.bytes + "\n");
+    }
+    writer.flush();
+  }
+
+  private final NetworkModel networkModel;
+  private final Format[] formats;
+  private final long segmentDurationMs;
+  private final long mediaDurationMs;
+
+  private long maxBufferMs;
+  private long bufferForPlaybackMs;
+  private long bufferForPlaybackAfterRebufferMs;
+
+  /**
+   * Creates an instance.
+   *
+   * @param trace The network transfers to replay. Must contain at least one transfer of a positive
+   *     number of bytes over a positive duration.
+   * @param formats The formats of the adaptive stream. Each format must have a positive bitrate.
+   * @param segmentDurationMs The duration of each segment, in milliseconds.
+   * @param mediaDurationMs The duration of the media, in milliseconds.
+   */
+  public BandwidthTraceSimulator(
+      List<TraceEntry> trace, Format[] formats, long segmentDurationMs, long mediaDurationMs) {
+    checkArgument(formats.length > 0 && segmentDurationMs > 0 && mediaDurationMs > 0);
+    for (Format format : formats) {
+      checkArgument(format.bitrate > 0);
+    }
+    networkModel = new NetworkModel(trace);
+    this.formats = formats;
+    this.segmentDurationMs = segmentDurationMs;
+    this.mediaDurationMs = mediaDurationMs;
+    maxBufferMs = DefaultLoadControl.DEFAULT_MAX_BUFFER_MS;
+    bufferForPlaybackMs = DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS;
+    bufferForPlaybackAfterRebufferMs =
+        DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS;
+  }
+
+  /**
+   * Sets the buffer durations of the simulated player. The defaults are those of {@link
+   * DefaultLoadControl}.
+   *
+   * @param maxBufferMs The maximum duration of media to buffer, in milliseconds.
+   * @param bufferForPlaybackMs The duration of media that must be buffered for playback to start.
+   * @param bufferForPlaybackAfterRebufferMs The duration of media that must be buffered for
+   *     playback to resume after a stall.
+   * @return This simulator.
+   */
+  public BandwidthTraceSimulator setBufferDurationsMs(
+      long maxBufferMs, long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs) {
+    this.maxBufferMs = maxBufferMs;
+    this.bufferForPlaybackMs = bufferForPlaybackMs;
+    this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+    return this;
+  }
+
+  /**
+   * Simulates playback with an {@link AdaptiveTrackSelection} using default parameters.
+   *
+   * @param bandwidthStatistic The {@link BandwidthStatistic} of the bandwidth meter. Must not have
+   *     been used before.
+   * @param timeToFirstByteEstimator The {@link TimeToFirstByteEstimator} of the bandwidth meter, or
+   *     {@code null}. Must not have been used before.
+   * @return The {@link Result} of the simulation.
+   */
+  public Result simulate(
+      BandwidthStatistic bandwidthStatistic,
+      @Nullable TimeToFirstByteEstimator timeToFirstByteEstimator) {
+    return simulate(
+        bandwidthStatistic,
+        timeToFirstByteEstimator,
+        clock ->
+            new AdaptiveTrackSelection.Factory(
+                AdaptiveTrackSelection.DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
+                AdaptiveTrackSelection.DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
+                AdaptiveTrackSelection.DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
+                AdaptiveTrackSelection.DEFAULT_BANDWIDTH_FRACTION,
+                AdaptiveTrackSelection.DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE,
+                clock));
+  }
+
+  /**
+   * Simulates playback.
+   *
+   * @param bandwidthStatistic The {@link BandwidthStatistic} of the bandwidth meter. Must not have
+   *     been used before.
+   * @param timeToFirstByteEstimator The {@link TimeToFirstByteEstimator} of the bandwidth meter, or
+   *     {@code null}. Must not have been used before.
+   * @param trackSelectionFactoryProvider The {@link TrackSelectionFactoryProvider} providing the
+   *     factory of the adaptive track selection.
+   * @return The {@link Result} of the simulation.
+   */
+  public Result simulate(
+      BandwidthStatistic bandwidthStatistic,
+      @Nullable TimeToFirstByteEstimator timeToFirstByteEstimator,
+      TrackSelectionFactoryProvider trackSelectionFactoryProvider) {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter.Builder bandwidthMeterBuilder =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setBandwidthStatistic(bandwidthStatistic)
+            .setClock(clock)
+            .setResetOnNetworkTypeChange(false);
+    if (timeToFirstByteEstimator != null) {
+      bandwidthMeterBuilder.setTimeToFirstByteEstimator(timeToFirstByteEstimator);
+    }
+    DefaultBandwidthMeter bandwidthMeter = bandwidthMeterBuilder.build();
+    int[] tracks = new int[formats.length];
+    for (int i = 0; i < tracks.length; i++) {
+      tracks[i] = i;
+    }
+    ExoTrackSelection trackSelection =
+        checkNotNull(
+            trackSelectionFactoryProvider
+                .createTrackSelectionFactory(clock)
+                .createTrackSelections(
+                    new ExoTrackSelection.Definition[] {
+                      new ExoTrackSelection.Definition(new TrackGroup(formats), tracks)
+                    },
+                    bandwidthMeter,
+                    new MediaPeriodId(/* periodUid= */ new Object()),
+                    Timeline.EMPTY)[0]);
+    trackSelection.enable();
+    Simulation simulation = new Simulation(clock, bandwidthMeter, trackSelection);
+    simulation.run();
+    trackSelection.disable();
+    return simulation.getResult();
+  }
+
+  private final class Simulation {
+
+    private final FakeClock clock;
+    private final TransferListener transferListener;
+    private final ExoTrackSelection trackSelection;
+    private final DataSource dataSource;
+    private final MediaChunkIterator[] mediaChunkIterators;
+    private final List<Integer> selectedBitrates;
+
+    private long playbackPositionMs;
+    private long bufferedPositionMs;
+    private boolean isPlaying;
+    private boolean hasStarted;
+    private long stallStartTimeMs;
+    private long startupDelayMs;
+    private int rebufferCount;
+    private long rebufferDurationMs;
+    private int switchCount;
+    private long totalBits;
+
+    public Simulation(
+        FakeClock clock,
+        DefaultBandwidthMeter bandwidthMeter,
+        ExoTrackSelection trackSelection) {
+      this.clock = clock;
+      this.trackSelection = trackSelection;
+      transferListener = bandwidthMeter.getTransferListener();
+      dataSource = new FakeDataSource();
+      mediaChunkIterators = new MediaChunkIterator[trackSelection.length()];
+      Arrays.fill(mediaChunkIterators, MediaChunkIterator.EMPTY);
+      selectedBitrates = new ArrayList<>();
+    }
+
+    public void run() {
+      List<MediaChunk> queue = Collections.emptyList();
+      while (bufferedPositionMs < mediaDurationMs) {
+        long bufferedDurationMs = bufferedPositionMs - playbackPositionMs;
+        if (isPlaying && bufferedDurationMs + segmentDurationMs > maxBufferMs) {
+          advanceTime(bufferedDurationMs + segmentDurationMs - maxBufferMs);
+        }
+        trackSelection.updateSelectedTrack(
+            Util.msToUs(playbackPositionMs),
+            Util.msToUs(bufferedPositionMs - playbackPositionMs),
+            /* availableDurationUs= */ C.TIME_UNSET,
+            queue,
+            mediaChunkIterators);
+        Format format = trackSelection.getSelectedFormat();
+        long segmentStartMs = bufferedPositionMs;
+        long segmentEndMs = min(segmentStartMs + segmentDurationMs, mediaDurationMs);
+        loadSegment(format, segmentEndMs - segmentStartMs);
+        bufferedPositionMs = segmentEndMs;
+        queue =
+            Collections.singletonList(
+                new FakeMediaChunk(
+                    format,
+                    Util.msToUs(segmentStartMs),
+                    Util.msToUs(segmentEndMs),
+                    trackSelection.getSelectionReason()));
+        maybeStartPlayback();
+      }
+    }
+
+    public Result getResult() {
+      return new Result(
+          ImmutableList.copyOf(selectedBitrates),
+          totalBits * 1000 / mediaDurationMs,
+          switchCount,
+          startupDelayMs,
+          rebufferCount,
+          rebufferDurationMs);
+    }
+
+    private void loadSegment(Format format, long durationMs) {
+      if (!selectedBitrates.isEmpty()
+          && selectedBitrates.get(selectedBitrates.size() - 1) != format.bitrate) {
+        switchCount++;
+      }
+      selectedBitrates.add(format.bitrate);
+      long bits = (long) format.bitrate * durationMs / 1000;
+      totalBits += bits;
+      long bytes = bits / 8;
+
+      DataSpec dataSpec = new DataSpec(Uri.EMPTY);
+      transferListener.onTransferInitializing(dataSource, dataSpec, /* isNetwork= */ true);
+      advanceTime(networkModel.getTimeToFirstByteMs(clock.elapsedRealtime()));
+      transferListener.onTransferStart(dataSource, dataSpec, /* isNetwork= */ true);
+      long transferDurationMs = networkModel.getTransferDurationMs(clock.elapsedRealtime(), bytes);
+      long remainingBytes = bytes;
+      while (remainingBytes > 0) {
+        int bytesTransferred = (int) min(remainingBytes, Integer.MAX_VALUE);
+        transferListener.onBytesTransferred(
+            dataSource, dataSpec, /* isNetwork= */ true, bytesTransferred);
+        remainingBytes -= bytesTransferred;
+      }
+      advanceTime(transferDurationMs);
+      transferListener.onTransferEnd(dataSource, dataSpec, /* isNetwork= */ true);
+    }
+
+    private void advanceTime(long durationMs) {
+      if (isPlaying) {
+        long playableDurationMs = bufferedPositionMs - playbackPositionMs;
+        if (durationMs >= playableDurationMs && bufferedPositionMs < mediaDurationMs) {
+          playbackPositionMs = bufferedPositionMs;
+          isPlaying = false;
+          rebufferCount++;
+          stallStartTimeMs = clock.elapsedRealtime() + playableDurationMs;
+        } else {
+          playbackPositionMs += min(durationMs, playableDurationMs);
+        }
+      }
+      clock.advanceTime(durationMs);
+    }
+
+    private void maybeStartPlayback() {
+      if (isPlaying) {
+        return;
+      }
+      long requiredBufferMs = hasStarted ? bufferForPlaybackAfterRebufferMs : bufferForPlaybackMs;
+      if (bufferedPositionMs - playbackPositionMs < requiredBufferMs
+          && bufferedPositionMs < mediaDurationMs) {
+        return;
+      }
+      long nowMs = clock.elapsedRealtime();
+      if (hasStarted) {
+        rebufferDurationMs += nowMs - stallStartTimeMs;
+      } else {
+        startupDelayMs = nowMs;
+        hasStarted = true;
+      }
+      isPlaying = true;
+    }
+  }
+
+  /** Models the network conditions of a looping trace. */
+  private static final class NetworkModel {
+
+    private final List<TraceEntry> entries;
+    private final long[] entryStartTimesMs;
+    private final long traceDurationMs;
+
+    public NetworkModel(List<TraceEntry> trace) {
+      entries = new ArrayList<>();
+      boolean hasThroughput = false;
+      for (int i = 0; i < trace.size(); i++) {
+        TraceEntry entry = trace.get(i);
+        if (entry.durationMs > 0) {
+          entries.add(entry);
+          hasThroughput |= entry.bytes > 0;
+        }
+      }
+      checkArgument(hasThroughput);
+      entryStartTimesMs = new long[entries.size()];
+      long durationMs = 0;
+      for (int i = 0; i < entries.size(); i++) {
+        entryStartTimesMs[i] = durationMs;
+        durationMs += entries.get(i).durationMs;
+      }
+      traceDurationMs = durationMs;
+    }
+
+    /** Returns the time to first byte of a transfer initialized at the specified time. */
+    public long getTimeToFirstByteMs(long timeMs) {
+      return entries.get(getEntryIndex(timeMs)).timeToFirstByteMs;
+    }
+
+    /** Returns the duration of a transfer of the specified size started at the specified time. */
+    public long getTransferDurationMs(long startTimeMs, long bytes) {
+      long timeMs = startTimeMs;
+      double remainingBytes = bytes;
+      while (remainingBytes > 0) {
+        int index = getEntryIndex(timeMs);
+        TraceEntry entry = entries.get(index);
+        long remainingEntryDurationMs =
+            entryStartTimesMs[index] + entry.durationMs - timeMs % traceDurationMs;
+        double bytesPerMs = (double) entry.bytes / entry.durationMs;
+        double entryBytes = bytesPerMs * remainingEntryDurationMs;
+        if (entryBytes >= remainingBytes) {
+          timeMs += (long) Math.ceil(remainingBytes / bytesPerMs);
+          break;
+        }
+        remainingBytes -= entryBytes;
+        timeMs += remainingEntryDurationMs;
+      }
+      return timeMs - startTimeMs;
+    }
+
+    private int getEntryIndex(long timeMs) {
+      int index = Arrays.binarySearch(entryStartTimesMs, timeMs % traceDurationMs);
+      return index >= 0 ? index : -index - 2;
+    }
+  }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.testutil;
+
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
+import static com.google.android.exoplayer2.util.Assertions.checkNotNull;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheKeyFactory;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+import com.google.android.exoplayer2.upstream.cache.ContentMetadata;
+import com.google.android.exoplayer2.upstream.cache.ContentMetadataMutations;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+
+/**
+ * Replays traces of {@link DataSpec} requests against a {@link CacheEvictor}, so that the hit
+ * ratios of different eviction policies can be compared.
+ *
+ * <p>Each request is treated as a request for a single span, identified by the cache key and
+ * position of the request, whose length is the length of the request. A request is a hit if the
+ * span is cached, in which case the span is touched. Otherwise the span is added to the cache. No
+ * data is written, so traces covering large amounts of data can be replayed quickly.
+ */
+public final class CacheEvictorSimulator {
+
+  /** The result of a simulation. */
+  public static final class Result {
+
+    /** The number of requests. */
+    public final int requestCount;
+    /** The number of requests that were served from the cache. */
+    public final int hitCount;
+    /** The total number of bytes requested. */
+    public final long requestedBytes;
+    /** The number of requested bytes that were served from the cache. */
+    public final long hitBytes;
+
+    private Result(int requestCount, int hitCount, long requestedBytes, long hitBytes) {
+      this.requestCount = requestCount;
+      this.hitCount = hitCount;
+      this.requestedBytes = requestedBytes;
+      this.hitBytes = hitBytes;
+    }
+
+    /** Returns the fraction of requests that were served from the cache. */
+    public double getHitRatio() {
+      return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+    }
+
+    /** Returns the fraction of requested bytes that were served from the cache. */
+    public double getByteHitRatio() {
+      return requestedBytes == 0 ? 0 : (double) hitBytes / requestedBytes;
+    }
+
+    @Override
+    public String toString() {
+      return "Result[requests="
+          + requestCount
+          + ", hitRatio="
+          + getHitRatio()
+          + ", byteHitRatio="
+          + getByteHitRatio()
+          + "]";
+    }
+  }
+
+  private CacheEvictorSimulator() {}
+
+  /**
+   * Parses a trace of requests.
+   *
+   * <p>Each line of the trace describes a request as {@code <uri> <position> <length> [<key>]},
+   * separated by whitespace. Empty lines and lines starting with {@code #} are ignored.
+   *
+   * @param reader A reader for the trace.
+   * @return The requests in the trace.
+   * @throws IOException If an error occurs reading the trace, or if it's malformed.
+   */
+  public static List<DataSpec> parseTrace(Reader reader) throws IOException {
+    List<DataSpec> trace = new ArrayList<>();
+    BufferedReader bufferedReader = new BufferedReader(reader);
+    @Nullable String line;
+    while ((line = bufferedReader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split("\\s+");
+      if (fields.length < 3 || fields.length > 4) {
+        throw new IOException("Malformed trace line: " + line);
+      }
+      try {
+        trace.add(
+            new DataSpec.Builder()
+                .setUri(Uri.parse(fields[0]))
+                .setPosition(Long.parseLong(fields[1]))
+                .setLength(Long.parseLong(fields[2]))
+                .setKey(fields.length == 4 ? fields[3] : null)
+                .build());
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed trace line: " + line, e);
+      }
+    }
+    return trace;
+  }
+
+  /**
+   * Replays a trace against a {@link CacheEvictor}, using {@link CacheKeyFactory#DEFAULT} to
+   * determine cache keys.
+   *
+   * @param evictor The {@link CacheEvictor}. Must not have been used before.
+   * @param trace The requests to replay. Each request must have a known length.
+   * @return The {@link Result} of the simulation.
+   */
+  public static Result simulate(CacheEvictor evictor, List<DataSpec> trace) {
+    return simulate(evictor, trace, CacheKeyFactory.DEFAULT);
+  }
+
+  /**
+   * Replays a trace against a {@link CacheEvictor}.
+   *
+   * @param evictor The {@link CacheEvictor}. Must not have been used before.
+   * @param trace The requests to replay. Each request must have a known length.
+   * @param cacheKeyFactory The {@link CacheKeyFactory} used to determine cache keys.
+   * @return The {@link Result} of the simulation.
+   */
+  public static Result simulate(
+      CacheEvictor evictor, List<DataSpec> trace, CacheKeyFactory cacheKeyFactory) {
+    SimulatedCache cache = new SimulatedCache(evictor);
+    evictor.onCacheInitialized();
+    int hitCount = 0;
+    long requestedBytes = 0;
+    long hitBytes = 0;
+    long timestamp = 0;
+    for (int i = 0; i < trace.size(); i++) {
+      DataSpec dataSpec = trace.get(i);
+      checkArgument(dataSpec.length != C.LENGTH_UNSET);
+      String key = cacheKeyFactory.buildCacheKey(dataSpec);
+      requestedBytes += dataSpec.length;
+      timestamp++;
+      @Nullable CacheSpan cachedSpan = cache.getSpan(key, dataSpec.position);
+      if (cachedSpan != null && cachedSpan.length >= dataSpec.length) {
+        hitCount++;
+        hitBytes += dataSpec.length;
+        cache.touchSpan(cachedSpan, timestamp);
+      } else {
+        if (cachedSpan != null) {
+          cache.removeSpan(cachedSpan);
+        }
+        evictor.onStartFile(cache, key, dataSpec.position, dataSpec.length);
+        cache.addSpan(
+            new CacheSpan(
+                key, dataSpec.position, dataSpec.length, timestamp, /* file= */ new File(key)));
+      }
+    }
+    return new Result(trace.size(), hitCount, requestedBytes, hitBytes);
+  }
+
+  /** A {@link Cache} that only tracks spans, and supports the operations used by evictors. */
+  private static final class SimulatedCache implements Cache {
+
+    private final CacheEvictor evictor;
+    private final Map<String, Map<Long, CacheSpan>> spans;
+
+    private long cacheSpace;
+
+    public SimulatedCache(CacheEvictor evictor) {
+      this.evictor = evictor;
+      spans = new HashMap<>();
+    }
+
+    @Nullable
+    public CacheSpan getSpan(String key, long position) {
+      @Nullable Map<Long, CacheSpan> spansForKey = spans.get(key);
+      return spansForKey == null ? null : spansForKey.get(position);
+    }
+
+    public void addSpan(CacheSpan span) {
+      @Nullable Map<Long, CacheSpan> spansForKey = spans.get(span.key);
+      if (spansForKey == null) {
+        spansForKey = new HashMap<>();
+        spans.put(span.key, spansForKey);
+      }
+      spansForKey.put(span.position, span);
+      cacheSpace += span.length;
+      evictor.onSpanAdded(this, span);
+    }
+
+    public void touchSpan(CacheSpan span, long timestamp) {
+      CacheSpan newSpan =
+          new CacheSpan(span.key, span.position, span.length, timestamp, span.file);
+      checkNotNull(spans.get(span.key)).put(span.position, newSpan);
+      evictor.onSpanTouched(this, span, newSpan);
+    }
+
+    @Override
+    public void removeSpan(CacheSpan span) {
+      @Nullable Map<Long, CacheSpan> spansForKey = spans.get(span.key);
+      if (spansForKey == null) {
+        return;
+      }
+      @Nullable CacheSpan removedSpan = spansForKey.remove(span.position);
+      if (removedSpan == null) {
+        return;
+      }
+      if (spansForKey.isEmpty()) {
+        spans.remove(span.key);
+      }
+      cacheSpace -= removedSpan.length;
+      evictor.onSpanRemoved(this, removedSpan);
+    }
+
+    @Override
+    public long getCacheSpace() {
+      return cacheSpace;
+    }
+
+    @Override
+    public Set<String> getKeys() {
+      return spans.keySet();
+    }
+
+    @Override
+    public long getUid() {
+      return UID_UNSET;
+    }
+
+    @Override
+    public void release() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public NavigableSet<CacheSpan> addListener(String key, Listener listener) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removeListener(String key, Listener listener) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public NavigableSet<CacheSpan> getCachedSpans(String key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CacheSpan startReadWrite(String key, long position, long length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CacheSpan startReadWriteNonBlocking(String key, long position, long length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public File startFile(String key, long position, long length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void commitFile(File file, long length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void releaseHoleSpan(CacheSpan holeSpan) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removeResource(String key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isCached(String key, long position, long length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getCachedLength(String key, long position, long length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getCachedBytes(String key, long position, long length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void applyContentMetadataMutations(String key, ContentMetadataMutations mutations) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ContentMetadata getContentMetadata(String key) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -44,6 +44,7 @@ public final class DownloadBuilder {
   @Nullable private byte[] keySetId;
   @Nullable private String cacheKey;
   private byte[] customMetadata;
+  private int priority;
 
   private @Download.State int state;
   private long startTimeMs;
@@ -82,6 +83,7 @@ public final class DownloadBuilder {
         request.keySetId,
         request.customCacheKey,
         request.data);
+    this.priority = request.priority;
   }
 
   /** Creates a download builder. */
@@ -226,6 +228,14 @@ public final class DownloadBuilder {
     return this;
   }
 
+  /**
+   * @see DownloadRequest#priority
+   */
+  public DownloadBuilder setPriority(int priority) {
+    this.priority = priority;
+    return this;
+  }
+
   public Download build() {
     DownloadRequest request =
         new DownloadRequest.Builder(id, uri)
@@ -234,6 +244,7 @@ public final class DownloadBuilder {
             .setKeySetId(keySetId)
             .setCustomCacheKey(cacheKey)
             .setData(customMetadata)
+            .setPriority(priority)
             .build();
     return new Download(
         request,
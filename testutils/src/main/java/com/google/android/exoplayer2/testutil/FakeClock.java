@@ -150,6 +150,11 @@ public class FakeClock implements Clock {
     return elapsedRealtime();
   }
 
+  @Override
+  public synchronized long nanoTime() {
+    return timeSinceBootMs * 1_000_000;
+  }
+
   @Override
   public HandlerWrapper createHandler(Looper looper, @Nullable Callback callback) {
     return new ClockHandler(looper, callback);
@@ -362,7 +362,19 @@ public class TestUtil {
    */
   public static FakeExtractorOutput extractAllSamplesFromFile(
       Extractor extractor, Context context, String fileName) throws IOException {
-    byte[] data = TestUtil.getByteArray(context, fileName);
+    return extractAllSamplesFromByteArray(extractor, TestUtil.getByteArray(context, fileName));
+  }
+
+  /**
+   * Extracts all samples from the given data into a {@link FakeTrackOutput}.
+   *
+   * @param extractor The {@link Extractor} to extractor from input.
+   * @param data The input data.
+   * @return The {@link FakeTrackOutput} containing the extracted samples.
+   * @throws IOException If an error occurred reading from the input.
+   */
+  public static FakeExtractorOutput extractAllSamplesFromByteArray(
+      Extractor extractor, byte[] data) throws IOException {
     FakeExtractorOutput expectedOutput = new FakeExtractorOutput();
     extractor.init(expectedOutput);
     FakeExtractorInput input = new FakeExtractorInput.Builder().setData(data).build();
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.testutil;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.testutil.BandwidthTraceSimulator.Result;
+import com.google.android.exoplayer2.testutil.BandwidthTraceSimulator.TraceEntry;
+import com.google.android.exoplayer2.testutil.BandwidthTraceSimulator.TraceRecorder;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.ExponentialWeightedAverageBandwidthStatistic;
+import com.google.android.exoplayer2.upstream.SlidingPercentileBandwidthStatistic;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link BandwidthTraceSimulator}. */
+@RunWith(AndroidJUnit4.class)
+public final class BandwidthTraceSimulatorTest {
+
+  private static final Format[] FORMATS =
+      new Format[] {
+        new Format.Builder().setId("low").setAverageBitrate(500_000).build(),
+        new Format.Builder().setId("mid").setAverageBitrate(1_000_000).build(),
+        new Format.Builder().setId("high").setAverageBitrate(2_000_000).build()
+      };
+
+  @Test
+  public void simulate_withAmpleBandwidth_switchesUpWithoutRebuffering() {
+    List<TraceEntry> trace =
+        ImmutableList.of(
+            new TraceEntry(
+                /* timeToFirstByteMs= */ 50, /* durationMs= */ 1000, /* bytes= */ 1_250_000));
+    BandwidthTraceSimulator simulator =
+        new BandwidthTraceSimulator(
+            trace, FORMATS, /* segmentDurationMs= */ 4000, /* mediaDurationMs= */ 120_000);
+
+    Result result =
+        simulator.simulate(
+            new SlidingPercentileBandwidthStatistic(), /* timeToFirstByteEstimator= */ null);
+
+    assertThat(result.selectedBitrates).hasSize(30);
+    assertThat(result.selectedBitrates.get(29)).isEqualTo(2_000_000);
+    assertThat(result.rebufferCount).isEqualTo(0);
+    assertThat(result.rebufferDurationMs).isEqualTo(0);
+    assertThat(result.startupDelayMs).isGreaterThan(0);
+  }
+
+  @Test
+  public void simulate_withOutage_rebuffers() {
+    List<TraceEntry> trace =
+        ImmutableList.of(
+            new TraceEntry(
+                /* timeToFirstByteMs= */ 50, /* durationMs= */ 20_000, /* bytes= */ 5_000_000),
+            new TraceEntry(/* timeToFirstByteMs= */ 50, /* durationMs= */ 60_000, /* bytes= */ 0));
+    BandwidthTraceSimulator simulator =
+        new BandwidthTraceSimulator(
+            trace,
+            new Format[] {FORMATS[1]},
+            /* segmentDurationMs= */ 4000,
+            /* mediaDurationMs= */ 120_000);
+
+    Result result =
+        simulator.simulate(
+            new SlidingPercentileBandwidthStatistic(), /* timeToFirstByteEstimator= */ null);
+
+    assertThat(result.rebufferCount).isGreaterThan(0);
+    assertThat(result.rebufferDurationMs).isGreaterThan(0);
+    assertThat(result.switchCount).isEqualTo(0);
+  }
+
+  @Test
+  public void simulate_isDeterministic() {
+    List<TraceEntry> trace =
+        ImmutableList.of(
+            new TraceEntry(
+                /* timeToFirstByteMs= */ 50, /* durationMs= */ 3000, /* bytes= */ 900_000),
+            new TraceEntry(
+                /* timeToFirstByteMs= */ 200, /* durationMs= */ 5000, /* bytes= */ 200_000),
+            new TraceEntry(
+                /* timeToFirstByteMs= */ 20, /* durationMs= */ 2000, /* bytes= */ 800_000));
+    BandwidthTraceSimulator simulator =
+        new BandwidthTraceSimulator(
+            trace, FORMATS, /* segmentDurationMs= */ 2000, /* mediaDurationMs= */ 300_000);
+
+    Result result1 =
+        simulator.simulate(
+            new ExponentialWeightedAverageBandwidthStatistic(),
+            /* timeToFirstByteEstimator= */ null);
+    Result result2 =
+        simulator.simulate(
+            new ExponentialWeightedAverageBandwidthStatistic(),
+            /* timeToFirstByteEstimator= */ null);
+
+    assertThat(result2.selectedBitrates).isEqualTo(result1.selectedBitrates);
+    assertThat(result2.rebufferDurationMs).isEqualTo(result1.rebufferDurationMs);
+  }
+
+  @Test
+  public void writeTraceAndParseTrace_roundTrips() throws IOException {
+    List<TraceEntry> trace =
+        ImmutableList.of(
+            new TraceEntry(
+                /* timeToFirstByteMs= */ 50, /* durationMs= */ 3000, /* bytes= */ 900_000),
+            new TraceEntry(/* timeToFirstByteMs= */ 200, /* durationMs= */ 5000, /* bytes= */ 0));
+    StringWriter writer = new StringWriter();
+
+    BandwidthTraceSimulator.writeTrace(trace, writer);
+    List<TraceEntry> parsedTrace =
+        BandwidthTraceSimulator.parseTrace(new StringReader("# comment\n\n" + writer));
+
+    assertThat(parsedTrace).hasSize(2);
+    assertThat(parsedTrace.get(0).timeToFirstByteMs).isEqualTo(50);
+    assertThat(parsedTrace.get(0).durationMs).isEqualTo(3000);
+    assertThat(parsedTrace.get(0).bytes).isEqualTo(900_000);
+    assertThat(parsedTrace.get(1).timeToFirstByteMs).isEqualTo(200);
+    assertThat(parsedTrace.get(1).durationMs).isEqualTo(5000);
+    assertThat(parsedTrace.get(1).bytes).isEqualTo(0);
+  }
+
+  @Test
+  public void traceRecorder_recordsNetworkTransfers() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    TraceRecorder recorder = new TraceRecorder(clock);
+    DataSource networkDataSource = new FakeDataSource();
+    DataSource localDataSource = new FakeDataSource();
+    DataSpec dataSpec = new DataSpec(Uri.EMPTY);
+
+    recorder.onTransferInitializing(networkDataSource, dataSpec, /* isNetwork= */ true);
+    recorder.onTransferInitializing(localDataSource, dataSpec, /* isNetwork= */ false);
+    clock.advanceTime(100);
+    recorder.onTransferStart(networkDataSource, dataSpec, /* isNetwork= */ true);
+    recorder.onTransferStart(localDataSource, dataSpec, /* isNetwork= */ false);
+    recorder.onBytesTransferred(networkDataSource, dataSpec, /* isNetwork= */ true, 1000);
+    recorder.onBytesTransferred(localDataSource, dataSpec, /* isNetwork= */ false, 5000);
+    clock.advanceTime(400);
+    recorder.onBytesTransferred(networkDataSource, dataSpec, /* isNetwork= */ true, 2000);
+    recorder.onTransferEnd(networkDataSource, dataSpec, /* isNetwork= */ true);
+    recorder.onTransferEnd(localDataSource, dataSpec, /* isNetwork= */ false);
+
+    List<TraceEntry> trace = recorder.getTrace();
+    assertThat(trace).hasSize(1);
+    assertThat(trace.get(0).timeToFirstByteMs).isEqualTo(100);
+    assertThat(trace.get(0).durationMs).isEqualTo(400);
+    assertThat(trace.get(0).bytes).isEqualTo(3000);
+  }
+}